@@ -24,4 +24,5 @@ dependencies {
     dokka(project(":streampack-flv"))
     dokka(project(":streampack-rtmp"))
     dokka(project(":streampack-srt"))
+    dokka(project(":streampack-upload"))
 }
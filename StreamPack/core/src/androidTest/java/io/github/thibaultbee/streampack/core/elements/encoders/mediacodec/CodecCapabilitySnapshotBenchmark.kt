@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.encoders.mediacodec
+
+import android.content.Context
+import android.media.MediaCodecList
+import android.media.MediaFormat
+import android.os.Build
+import android.util.Log
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.File
+
+/**
+ * Compares the cold start cost of capability queries with and without the snapshot.
+ *
+ * The queries are the ones a settings screen does: profiles, bitrates and sample rates of the
+ * default encoder of each mime type. Results are logged with the [TAG] tag.
+ */
+class CodecCapabilitySnapshotBenchmark {
+    private val context: Context = InstrumentationRegistry.getInstrumentation().context
+
+    @Test
+    fun coldStartQueries() {
+        val file = File(context.cacheDir, "codec_capabilities_benchmark.bin")
+        file.delete()
+
+        // Before: a new MediaCodecList walked for every query
+        val (_, codecListTimeInUs) = measureInUs {
+            val codecList = MediaCodecList(MediaCodecList.REGULAR_CODECS)
+            val mimeTypes = codecList.codecInfos.filter { it.isEncoder }
+                .flatMap { it.supportedTypes.toList() }
+                .distinct()
+            mimeTypes.forEach { mimeType ->
+                val format = MediaFormat().apply { setString(MediaFormat.KEY_MIME, mimeType) }
+                val name = codecList.findEncoderForFormat(format) ?: return@forEach
+                val capabilities = codecList.codecInfos.first { it.name == name }
+                    .getCapabilitiesForType(mimeType)
+                capabilities.profileLevels.map { it.profile }.distinct()
+                capabilities.videoCapabilities?.bitrateRange
+                capabilities.audioCapabilities?.supportedSampleRates
+            }
+        }
+
+        val (builtSnapshot, buildTimeInUs) = measureInUs {
+            CodecCapabilitySnapshot.create(
+                MediaCodecList(MediaCodecList.REGULAR_CODECS),
+                Build.FINGERPRINT
+            )
+        }
+        builtSnapshot.writeTo(file)
+
+        // After: the persisted snapshot on a later launch
+        val (loadedSnapshot, snapshotTimeInUs) = measureInUs {
+            val snapshot = CodecCapabilitySnapshot.readFrom(file, Build.FINGERPRINT)!!
+            snapshot.defaultEncoders.forEach { (mimeType, name) ->
+                val capabilities = snapshot.getCapabilities(mimeType, name)!!
+                capabilities.profileLevels.map { it.profile }.distinct()
+                capabilities.video?.bitrates
+                capabilities.audio?.sampleRates
+            }
+            snapshot
+        }
+        file.delete()
+
+        assertEquals(builtSnapshot, loadedSnapshot)
+        Log.i(
+            TAG,
+            "MediaCodecList: $codecListTimeInUs us, snapshot build: $buildTimeInUs us, snapshot load: $snapshotTimeInUs us"
+        )
+    }
+
+    private inline fun <T> measureInUs(block: () -> T): Pair<T, Long> {
+        val startTimeInNs = System.nanoTime()
+        val result = block()
+        return Pair(result, (System.nanoTime() - startTimeInNs) / 1000)
+    }
+
+    companion object {
+        private const val TAG = "CodecCapabilityBenchmark"
+    }
+}
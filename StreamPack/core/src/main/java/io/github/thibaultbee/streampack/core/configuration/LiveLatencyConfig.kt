@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.configuration
+
+/**
+ * Live latency settings of a pulled live source (for example an RTMP or SRT player).
+ *
+ * @param isEnabled whether the latency is corrected. If false, the source is played with large
+ * buffers and its latency is only reported.
+ * @param targetLatencyMs the latency to keep, in ms. It is also the player buffer target.
+ * @param maxLatencyMs above this latency, the player drops its buffer and joins the live edge
+ * @param maxPlaybackSpeed the maximum playback speed used to catch up with the live edge
+ * @param srtReceiveLatencyMs the SRT receive latency (`SRTO_RCVLATENCY`) in ms. A `latency` query
+ * parameter of the SRT URL takes precedence.
+ */
+data class LiveLatencyConfig(
+    val isEnabled: Boolean = false,
+    val targetLatencyMs: Int = DEFAULT_TARGET_LATENCY_MS,
+    val maxLatencyMs: Int = DEFAULT_MAX_LATENCY_MS,
+    val maxPlaybackSpeed: Float = DEFAULT_MAX_PLAYBACK_SPEED,
+    val srtReceiveLatencyMs: Int = DEFAULT_SRT_RECEIVE_LATENCY_MS
+) {
+    init {
+        require(targetLatencyMs > 0) { "Target latency must be positive" }
+        require(maxLatencyMs > targetLatencyMs) { "Max latency must be above target latency" }
+        require(maxPlaybackSpeed > 1f) { "Max playback speed must be above 1" }
+        require(srtReceiveLatencyMs >= 0) { "SRT receive latency must be positive" }
+    }
+
+    /**
+     * Gets the playback speed to catch up with the live edge.
+     *
+     * The speed grows with the excess latency so that the excess is absorbed in about
+     * [CATCH_UP_DURATION_MS].
+     *
+     * @param latencyMs the current latency in ms
+     * @param isCatchingUp whether the player is already catching up. It avoids oscillating
+     * around the target: catch up starts above the target plus a tolerance and stops at the target.
+     * @return the playback speed, 1 when no catch up is needed
+     */
+    fun getCatchUpSpeed(latencyMs: Long, isCatchingUp: Boolean): Float {
+        val excessMs = latencyMs - targetLatencyMs
+        val thresholdMs = if (isCatchingUp) 0 else targetLatencyMs / TOLERANCE_DIVIDER
+        if (excessMs <= thresholdMs) {
+            return 1f
+        }
+        val speed = 1f + excessMs.toFloat() / CATCH_UP_DURATION_MS
+        return maxOf(speed, MIN_CATCH_UP_SPEED).coerceAtMost(maxPlaybackSpeed)
+    }
+
+    companion object {
+        const val DEFAULT_TARGET_LATENCY_MS = 1000
+        const val DEFAULT_MAX_LATENCY_MS = 4000
+        const val DEFAULT_MAX_PLAYBACK_SPEED = 1.1f
+        const val DEFAULT_SRT_RECEIVE_LATENCY_MS = 300
+
+        private const val CATCH_UP_DURATION_MS = 10_000f
+        private const val MIN_CATCH_UP_SPEED = 1.02f
+        private const val TOLERANCE_DIVIDER = 4
+    }
+}
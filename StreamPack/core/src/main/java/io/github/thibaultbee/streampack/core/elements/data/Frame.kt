@@ -16,6 +16,7 @@
 package io.github.thibaultbee.streampack.core.elements.data
 
 import android.media.MediaFormat
+import io.github.thibaultbee.streampack.core.elements.utils.extensions.isVideo
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.removePrefixes
 import java.io.Closeable
 import java.nio.ByteBuffer
@@ -104,6 +105,12 @@ fun Frame.removePrefixes(): ByteBuffer {
     }
 }
 
+/**
+ * Whether the frame is a video frame.
+ */
+val Frame.isVideo: Boolean
+    get() = format.getString(MediaFormat.KEY_MIME)?.isVideo == true
+
 
 fun FrameWithCloseable(
     /**
@@ -111,9 +111,10 @@ class AudioCodecConfig(
      * Get the media format from the audio configuration
      *
      * @param requestFallback whether to request a fallback format if the preferred one is not supported
+     * @param encoderName the name of the encoder the format is for or null for the default encoder
      * @return the corresponding audio media format
      */
-    override fun getFormat(requestFallback: Boolean): MediaFormat {
+    override fun getFormat(requestFallback: Boolean, encoderName: String?): MediaFormat {
         val format = MediaFormat.createAudioFormat(
             mimeType, sampleRate, getNumberOfChannels(channelConfig)
         )
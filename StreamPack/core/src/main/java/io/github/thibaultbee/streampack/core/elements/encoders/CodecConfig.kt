@@ -58,9 +58,10 @@ sealed class CodecConfig(
      * If the preferred format is not supported by the device encoder, a fallback format will be requested if [requestFallback] is true.
      *
      * @param requestFallback whether to request a fallback format if the preferred one is not supported
+     * @param encoderName the name of the encoder the format is for or null for the default encoder
      * @return the corresponding media format
      */
-    internal open fun getFormat(requestFallback: Boolean): MediaFormat {
+    internal open fun getFormat(requestFallback: Boolean, encoderName: String? = null): MediaFormat {
         return MediaFormat().apply {
             setString(MediaFormat.KEY_MIME, mimeType)
             setInteger(MediaFormat.KEY_BIT_RATE, startBitrate)
@@ -86,7 +87,7 @@ sealed class CodecConfig(
      * @return true if format is supported, otherwise false
      */
     fun isFormatSupportedForEncoder(name: String, requestFallback: Boolean = false) =
-        MediaCodecHelper.isFormatSupported(getFormat(requestFallback), name)
+        MediaCodecHelper.isFormatSupported(getFormat(requestFallback, name), name)
 
     /**
      * Get default encoder name.
@@ -12,5 +12,32 @@ data class EncoderStats(
     /**
      * Current output frames per second (encoded FPS)
      */
-    val outputFps: Float = 0f
+    val outputFps: Float = 0f,
+
+    /**
+     * Bitrate requested to the encoder in bits/s. It differs from the target bitrate when the
+     * bitrate is corrected: see [VideoRateControl.isBitrateCorrectionEnabled].
+     */
+    val requestedBitrate: Int = 0,
+
+    /**
+     * Output bitrate in bits/s, measured over the last second of presentation timestamps
+     */
+    val measuredBitrate: Int = 0,
+
+    /**
+     * Mean size of the frames output during the last second, in bytes
+     */
+    val meanOutputFrameSizeInBytes: Int = 0,
+
+    /**
+     * Standard deviation of the sizes of the frames output during the last second, in bytes.
+     * Key frame bursts raise it: see [VideoRateControl.intraRefreshPeriodInFrames].
+     */
+    val outputFrameSizeStdDevInBytes: Int = 0,
+
+    /**
+     * Size of the largest frame output during the last second, in bytes
+     */
+    val maxOutputFrameSizeInBytes: Int = 0
 )
@@ -16,6 +16,7 @@
 package io.github.thibaultbee.streampack.core.elements.encoders
 
 import android.view.Surface
+import io.github.thibaultbee.streampack.core.elements.data.Frame
 import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
 import io.github.thibaultbee.streampack.core.elements.data.RawFrame
 import io.github.thibaultbee.streampack.core.elements.interfaces.SuspendReleasable
@@ -59,6 +60,16 @@ interface IEncoder {
      */
     fun requestKeyFrame()
 
+    /**
+     * Suspends or resumes the encoder output.
+     *
+     * While suspended, a surface encoder drops its input frames. Call [requestKeyFrame] after
+     * resuming so that the output restarts on a key frame.
+     *
+     * @param isSuspended true to suspend the encoder, false to resume it
+     */
+    fun setSuspended(isSuspended: Boolean)
+
     /**
      * Get current encoder statistics.
      * Returns stats like output FPS.
@@ -80,6 +91,11 @@ interface IEncoderInternal : SuspendStreamable, SuspendReleasable,
          */
         fun onError(t: Throwable) {}
 
+        /**
+         * Calls when an encoded frame is about to be sent to [outputChannel].
+         */
+        fun onOutputFrame(frame: Frame) {}
+
         /**
          * A channel where the encoder will send encoded frames.
          */
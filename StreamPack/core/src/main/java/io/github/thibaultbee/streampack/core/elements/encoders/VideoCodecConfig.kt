@@ -84,6 +84,10 @@ class VideoCodecConfig internal constructor(
      * Video profile level with color information.
      */
     private val profileLevelColor: VideoProfileLevelColor,
+    /**
+     * Video encoder rate control options.
+     */
+    val rateControl: VideoRateControl = VideoRateControl(),
     /**
      * A callback to be invoked when the media format is generated.
      * This is a dangerous callback as a wrong media format can make some encoders fail, also
@@ -104,6 +108,7 @@ class VideoCodecConfig internal constructor(
      * @param gopDurationInS Video encoder I-frame interval in seconds.
      * @param profile Video encoder profile. Encoders may not support requested profile. In this case, StreamPack fallbacks to encoder default profile.
      * @param level Video encoder level. Encoders may not support requested level. In this case, StreamPack fallbacks to encoder default level.
+     * @param rateControl Video encoder rate control options.
      * @param customize A callback to be invoked when the media format is generated.
      */
     constructor(
@@ -114,6 +119,7 @@ class VideoCodecConfig internal constructor(
         gopDurationInS: Float = 1f,  // 1s between I frames
         profile: Int,
         level: Int = getBestLevel(mimeType, profile),
+        rateControl: VideoRateControl = VideoRateControl(),
         customize: MediaFormatCustomHandler = {}
     ) : this(
         mimeType,
@@ -125,6 +131,7 @@ class VideoCodecConfig internal constructor(
             this.profile = profile
             this.level = level
         },
+        rateControl,
         customize
     )
 
@@ -137,6 +144,7 @@ class VideoCodecConfig internal constructor(
      * @param fps Video framerate.
      * @param gopDurationInS Video encoder I-frame interval in seconds.
      * @param profileLevelColorBuilder A builder to create [VideoProfileLevelColor].
+     * @param rateControl Video encoder rate control options.
      * @param customize A callback to be invoked when the media format is generated.
      */
     constructor(
@@ -146,6 +154,7 @@ class VideoCodecConfig internal constructor(
         fps: Int = DEFAULT_FPS,
         gopDurationInS: Float = 1f,  // 1s between I frames
         profileLevelColorBuilder: VideoProfileLevelColor.Builder.() -> Unit = {},
+        rateControl: VideoRateControl = VideoRateControl(),
         customize: MediaFormatCustomHandler = {}
     ) : this(
         mimeType,
@@ -156,6 +165,7 @@ class VideoCodecConfig internal constructor(
         VideoProfileLevelColor.Builder(mimeType).apply {
             this.profileLevelColorBuilder()
         }.build(),
+        rateControl,
         customize
     )
 
@@ -211,9 +221,10 @@ class VideoCodecConfig internal constructor(
      * Get the media format from the video configuration
      *
      * @param requestFallback whether to request a fallback format if the preferred one is not supported
+     * @param encoderName the name of the encoder the format is for or null for the default encoder
      * @return the corresponding video media format
      */
-    override fun getFormat(requestFallback: Boolean): MediaFormat {
+    override fun getFormat(requestFallback: Boolean, encoderName: String?): MediaFormat {
         val format = MediaFormat.createVideoFormat(
             mimeType, resolution.width, resolution.height
         )
@@ -250,6 +261,8 @@ class VideoCodecConfig internal constructor(
                     )
                 }
             }
+
+            rateControl.applyTo(format, mimeType, encoderName)
         }
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
@@ -271,6 +284,7 @@ class VideoCodecConfig internal constructor(
         fps: Int = this.fps,
         gopDurationInS: Float = this.gopDurationInS,
         profileLevelColor: VideoProfileLevelColor = this.profileLevelColor,
+        rateControl: VideoRateControl = this.rateControl,
         customize: MediaFormatCustomHandler = this.customize
     ) = VideoCodecConfig(
         mimeType,
@@ -279,11 +293,12 @@ class VideoCodecConfig internal constructor(
         fps,
         gopDurationInS,
         profileLevelColor,
+        rateControl,
         customize
     )
 
     override fun toString() =
-        "VideoConfig(mimeType='$mimeType', startBitrate=$startBitrate, resolution=$resolution, fps=$fps, profileLevelColor=$profileLevelColor, gopDurationInS=$gopDurationInS)"
+        "VideoConfig(mimeType='$mimeType', startBitrate=$startBitrate, resolution=$resolution, fps=$fps, profileLevelColor=$profileLevelColor, gopDurationInS=$gopDurationInS, rateControl=$rateControl)"
 
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
@@ -294,6 +309,7 @@ class VideoCodecConfig internal constructor(
         if (fps != other.fps) return false
         if (level != other.level) return false
         if (gopDurationInS != other.gopDurationInS) return false
+        if (rateControl != other.rateControl) return false
 
         return true
     }
@@ -306,6 +322,7 @@ class VideoCodecConfig internal constructor(
         result = 31 * result + profile
         result = 31 * result + level
         result = 31 * result + gopDurationInS.hashCode()
+        result = 31 * result + rateControl.hashCode()
         return result
     }
 
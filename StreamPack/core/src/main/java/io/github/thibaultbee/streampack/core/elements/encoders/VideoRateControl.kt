@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.encoders
+
+import android.annotation.SuppressLint
+import android.media.MediaCodecInfo
+import android.media.MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR
+import android.media.MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR_FD
+import android.media.MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ
+import android.media.MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR
+import android.media.MediaFormat
+import android.os.Build
+import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.MediaCodecHelper
+import io.github.thibaultbee.streampack.core.logger.Logger
+
+/**
+ * Video encoder rate control options.
+ *
+ * By default, a key frame is sent every [VideoCodecConfig.gopDurationInS]: it is several times
+ * bigger than the other frames and the burst fills the network buffers for a moment. Periodic
+ * intra refresh spreads the refresh over several frames instead. It is only useful with a longer
+ * [VideoCodecConfig.gopDurationInS] as key frames are still sent.
+ *
+ * Options that the encoder does not support are ignored. All format options are ignored by the
+ * fallback format.
+ */
+data class VideoRateControl(
+    /**
+     * The bitrate mode or `null` for the encoder default (usually [BitrateMode.VBR]).
+     */
+    val bitrateMode: BitrateMode? = null,
+    /**
+     * The number of frames a full intra refresh is spread over or `null` to disable intra refresh.
+     * Requires Android 7.0+ and [MediaCodecInfo.CodecCapabilities.FEATURE_IntraRefresh].
+     */
+    val intraRefreshPeriodInFrames: Int? = null,
+    /**
+     * Whether the encoder should not hold frames back.
+     * Requires Android 11+ and [MediaCodecInfo.CodecCapabilities.FEATURE_LowLatency].
+     */
+    val isLowLatency: Boolean = false,
+    /**
+     * The maximum number of B-frames between reference frames or `null` for the encoder default.
+     * Muxers that expect the decoding order to be the presentation order require 0.
+     * Requires Android 10+.
+     */
+    val maxBFrames: Int? = null,
+    /**
+     * The maximum frame rate fed to the encoder or `null` for no limit. Frames above this rate
+     * are dropped by the encoder. Requires Android 10+.
+     */
+    val maxFpsToEncoder: Float? = null,
+    /**
+     * Whether the bitrate requested to the encoder is corrected so that the measured output
+     * bitrate converges on the target bitrate. Useful with encoders that do not respect the
+     * requested bitrate.
+     */
+    val isBitrateCorrectionEnabled: Boolean = false
+) {
+    init {
+        intraRefreshPeriodInFrames?.let { require(it > 0) { "Intra refresh period must be > 0" } }
+        maxBFrames?.let { require(it >= 0) { "Max B-frames must be >= 0" } }
+        maxFpsToEncoder?.let { require(it > 0f) { "Max FPS to encoder must be > 0" } }
+    }
+
+    /**
+     * Sets the options supported by the encoder to [format].
+     *
+     * @param format the video format
+     * @param mimeType the encoder mime type
+     * @param encoderName the encoder name or null for the default encoder of [mimeType]
+     */
+    internal fun applyTo(format: MediaFormat, mimeType: String, encoderName: String? = null) {
+        val name = encoderName ?: MediaCodecHelper.findEncoder(mimeType)
+        bitrateMode?.let {
+            if (MediaCodecHelper.Video.isBitrateModeSupported(mimeType, name, it.value)) {
+                format.setInteger(MediaFormat.KEY_BITRATE_MODE, it.value)
+            } else {
+                Logger.w(TAG, "Bitrate mode $it is not supported by $name")
+            }
+        }
+        intraRefreshPeriodInFrames?.let {
+            if ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) && MediaCodecHelper.isFeatureSupported(
+                    mimeType, name, MediaCodecInfo.CodecCapabilities.FEATURE_IntraRefresh
+                )
+            ) {
+                format.setInteger(MediaFormat.KEY_INTRA_REFRESH_PERIOD, it)
+            } else {
+                Logger.w(TAG, "Intra refresh is not supported by $name")
+            }
+        }
+        if (isLowLatency) {
+            if ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) && MediaCodecHelper.isFeatureSupported(
+                    mimeType, name, MediaCodecInfo.CodecCapabilities.FEATURE_LowLatency
+                )
+            ) {
+                format.setInteger(MediaFormat.KEY_LOW_LATENCY, 1)
+            } else {
+                Logger.w(TAG, "Low latency is not supported by $name")
+            }
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            maxBFrames?.let { format.setInteger(MediaFormat.KEY_MAX_B_FRAMES, it) }
+            maxFpsToEncoder?.let { format.setFloat(MediaFormat.KEY_MAX_FPS_TO_ENCODER, it) }
+        }
+    }
+
+    /**
+     * The bitrate mode.
+     *
+     * @see MediaCodecInfo.EncoderCapabilities
+     */
+    enum class BitrateMode(val value: Int) {
+        /**
+         * Constant quality: the bitrate is ignored.
+         */
+        CQ(BITRATE_MODE_CQ),
+
+        /**
+         * Variable bitrate.
+         */
+        VBR(BITRATE_MODE_VBR),
+
+        /**
+         * Constant bitrate.
+         */
+        CBR(BITRATE_MODE_CBR),
+
+        /**
+         * Constant bitrate with frame drops. Requires Android 12+.
+         */
+        @SuppressLint("InlinedApi")
+        CBR_FD(BITRATE_MODE_CBR_FD)
+    }
+
+    companion object {
+        private const val TAG = "VideoRateControl"
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.encoders.mediacodec
+
+import kotlin.math.abs
+import kotlin.math.pow
+import kotlin.math.roundToInt
+
+/**
+ * Corrects the bitrate requested to an encoder so that its measured output bitrate converges on
+ * the target bitrate.
+ *
+ * Encoders often miss the requested bitrate by 30% or more. The corrector learns the ratio
+ * between the requested and the measured bitrates and applies it to the target: see [correct].
+ *
+ * The correction is asymmetric: an overshoot is corrected faster than an undershoot. An
+ * undershoot is often a static scene, and a boosted bitrate would overshoot as soon as the scene
+ * moves again.
+ *
+ * @param increaseGain the share of the error corrected at each [update] when the encoder undershoots
+ * @param decreaseGain the share of the error corrected at each [update] when the encoder overshoots
+ * @param minFactor the minimum correction factor
+ * @param maxFactor the maximum correction factor
+ * @param deadBand the relative error under which the correction is not updated
+ */
+internal class BitrateCorrector(
+    private val increaseGain: Float = 0.25f,
+    private val decreaseGain: Float = 0.75f,
+    private val minFactor: Float = 0.5f,
+    private val maxFactor: Float = 1.5f,
+    private val deadBand: Float = 0.05f
+) {
+    init {
+        require(increaseGain in 0f..1f) { "Increase gain must be in [0, 1]" }
+        require(decreaseGain in 0f..1f) { "Decrease gain must be in [0, 1]" }
+        require(minFactor in 0f..1f) { "Min factor must be in [0, 1]" }
+        require(maxFactor >= 1f) { "Max factor must be >= 1" }
+    }
+
+    /**
+     * The ratio applied to the target bitrate.
+     */
+    var factor = 1f
+        private set
+
+    /**
+     * Updates the correction from a measure.
+     *
+     * @param requestedBitrate the mean bitrate requested to the encoder during the measure
+     * @param measuredBitrate the measured output bitrate
+     */
+    fun update(requestedBitrate: Int, measuredBitrate: Int) {
+        if ((requestedBitrate <= 0) || (measuredBitrate <= 0)) {
+            return
+        }
+        // The factor that would have hit the target: the encoder output is proportional to the
+        // requested bitrate, which is the target times the current factor
+        val idealFactor = requestedBitrate.toFloat() / measuredBitrate
+        if (abs(1f - idealFactor / factor) < deadBand) {
+            return
+        }
+        val gain = if (idealFactor > factor) increaseGain else decreaseGain
+        factor = (factor.pow(1f - gain) * idealFactor.pow(gain)).coerceIn(minFactor, maxFactor)
+    }
+
+    /**
+     * Gets the bitrate to request to the encoder.
+     *
+     * @param targetBitrate the bitrate the output should have
+     * @return the corrected bitrate
+     */
+    fun correct(targetBitrate: Int) = (targetBitrate * factor).roundToInt()
+
+    /**
+     * Clears the correction.
+     */
+    fun reset() {
+        factor = 1f
+    }
+}
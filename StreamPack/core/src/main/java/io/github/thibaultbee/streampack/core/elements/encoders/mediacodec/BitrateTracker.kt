@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.encoders.mediacodec
+
+/**
+ * Measures the bitrate of an encoder output over a sliding window of presentation timestamps.
+ *
+ * The window follows the timestamps rather than the wall clock, so the measure is not biased by
+ * the time the frames spend in the encoder.
+ *
+ * [add] and [reset] must be called from the same thread.
+ *
+ * @param windowInUs the window duration
+ */
+internal class BitrateTracker(private val windowInUs: Long = DEFAULT_WINDOW_IN_US) {
+    private var timestampsInUs = LongArray(INITIAL_CAPACITY)
+    private var sizesInBytes = IntArray(INITIAL_CAPACITY)
+    private var head = 0
+    private var count = 0
+    private var sumInBytes = 0L
+
+    init {
+        require(windowInUs > 0) { "Window must be > 0" }
+    }
+
+    /**
+     * The measured bitrate in bits/s. 0 until the window contains two frames with
+     * different timestamps.
+     */
+    @Volatile
+    var bitrate = 0
+        private set
+
+    /**
+     * Adds a frame.
+     *
+     * @param timestampInUs the frame presentation timestamp
+     * @param sizeInBytes the frame size
+     */
+    fun add(timestampInUs: Long, sizeInBytes: Int) {
+        if ((count > 0) && (timestampInUs < timestampsInUs[indexOf(count - 1)])) {
+            // Timestamps went backward: the encoder has been restarted
+            reset()
+        }
+        if (count == timestampsInUs.size) {
+            grow()
+        }
+        val index = indexOf(count)
+        timestampsInUs[index] = timestampInUs
+        sizesInBytes[index] = sizeInBytes
+        count++
+        sumInBytes += sizeInBytes
+
+        while (timestampsInUs[head] <= timestampInUs - windowInUs) {
+            sumInBytes -= sizesInBytes[head]
+            head = (head + 1) % timestampsInUs.size
+            count--
+        }
+
+        // The last frame lasts until the next one: use the mean frame duration
+        val spanInUs = timestampInUs - timestampsInUs[head]
+        bitrate = if ((count > 1) && (spanInUs > 0)) {
+            val durationInUs = spanInUs + spanInUs / (count - 1)
+            (sumInBytes * 8 * 1_000_000 / durationInUs).toInt()
+        } else {
+            0
+        }
+    }
+
+    /**
+     * Clears the window.
+     */
+    fun reset() {
+        head = 0
+        count = 0
+        sumInBytes = 0
+        bitrate = 0
+    }
+
+    private fun indexOf(position: Int) = (head + position) % timestampsInUs.size
+
+    private fun grow() {
+        val newTimestamps = LongArray(timestampsInUs.size * 2)
+        val newSizes = IntArray(sizesInBytes.size * 2)
+        for (i in 0 until count) {
+            newTimestamps[i] = timestampsInUs[indexOf(i)]
+            newSizes[i] = sizesInBytes[indexOf(i)]
+        }
+        timestampsInUs = newTimestamps
+        sizesInBytes = newSizes
+        head = 0
+    }
+
+    companion object {
+        private const val DEFAULT_WINDOW_IN_US = 1_000_000L
+        private const val INITIAL_CAPACITY = 64
+    }
+}
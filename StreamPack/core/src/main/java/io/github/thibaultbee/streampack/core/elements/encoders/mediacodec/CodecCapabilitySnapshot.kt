@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.encoders.mediacodec
+
+import android.annotation.SuppressLint
+import android.media.MediaCodecInfo
+import android.media.MediaCodecList
+import android.media.MediaFormat
+import android.os.Build
+import android.util.Range
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+
+/**
+ * An immutable copy of the device encoder capabilities.
+ *
+ * Walking [MediaCodecList] and querying [MediaCodecInfo.CodecCapabilities] is slow on low-end
+ * devices. The snapshot is built once and persisted so that capability queries are served from
+ * memory. It is only valid for the system build it has been made on: see [fingerprint].
+ *
+ * @param fingerprint the [Build.FINGERPRINT] of the system build the snapshot has been made on
+ * @param encoders the encoders
+ * @param defaultEncoders the default encoder name for each mime type
+ */
+internal data class CodecCapabilitySnapshot(
+    val fingerprint: String,
+    val encoders: List<EncoderInfo>,
+    val defaultEncoders: Map<String, String>
+) {
+    private val capabilitiesByName by lazy {
+        encoders.associate { encoder ->
+            encoder.name to encoder.types.associateBy { it.mimeType }
+        }
+    }
+
+    /**
+     * Gets the default encoder for a mime type.
+     *
+     * @param mimeType the encoder mime type
+     * @return the encoder name or `null` if there is no encoder for [mimeType]
+     */
+    fun getDefaultEncoder(mimeType: String) = defaultEncoders[mimeType]
+
+    /**
+     * Gets the capabilities of an encoder for a mime type.
+     *
+     * @param mimeType the encoder mime type
+     * @param name the encoder name
+     * @return the capabilities or `null` if the encoder does not exist or does not support [mimeType]
+     */
+    fun getCapabilities(mimeType: String, name: String) = capabilitiesByName[name]?.get(mimeType)
+
+    /**
+     * Gets the mime types supported by an encoder.
+     *
+     * @param name the encoder name
+     * @return the mime types or `null` if the encoder does not exist
+     */
+    fun getTypes(name: String) = capabilitiesByName[name]?.keys?.toList()
+
+    /**
+     * Writes the snapshot to [file]. The file is replaced atomically.
+     *
+     * @param file the destination file
+     */
+    fun writeTo(file: File) {
+        val tmpFile = File(file.parentFile, "${file.name}.tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(tmpFile.outputStream())).use { output ->
+                output.writeInt(MAGIC)
+                output.writeInt(FORMAT_VERSION)
+                output.writeUTF(fingerprint)
+                output.writeInt(encoders.size)
+                encoders.forEach { it.writeTo(output) }
+                output.writeInt(defaultEncoders.size)
+                defaultEncoders.forEach { (mimeType, name) ->
+                    output.writeUTF(mimeType)
+                    output.writeUTF(name)
+                }
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw IOException("Failed to rename $tmpFile to $file")
+            }
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    /**
+     * An encoder.
+     *
+     * @param name the encoder name
+     * @param types the capabilities for each supported mime type
+     */
+    data class EncoderInfo(
+        val name: String,
+        val types: List<TypeCapabilities>
+    ) {
+        internal fun writeTo(output: DataOutputStream) {
+            output.writeUTF(name)
+            output.writeInt(types.size)
+            types.forEach { it.writeTo(output) }
+        }
+
+        companion object {
+            internal fun readFrom(input: DataInputStream) = EncoderInfo(
+                input.readUTF(),
+                List(input.readCount()) { TypeCapabilities.readFrom(input) }
+            )
+        }
+    }
+
+    /**
+     * The capabilities of an encoder for a mime type.
+     *
+     * @param mimeType the mime type
+     * @param profileLevels the distinct supported profile and level pairs
+     * @param features whether each of [PROBED_FEATURES] is supported
+     * @param maxSupportedInstances the maximum number of instances or `null` if it is unknown
+     * @param video the video capabilities or `null` for audio
+     * @param audio the audio capabilities or `null` for video
+     */
+    data class TypeCapabilities(
+        val mimeType: String,
+        val profileLevels: List<ProfileLevel>,
+        val features: Map<String, Boolean>,
+        val maxSupportedInstances: Int?,
+        val video: VideoCapabilities?,
+        val audio: AudioCapabilities?
+    ) {
+        internal fun writeTo(output: DataOutputStream) {
+            output.writeUTF(mimeType)
+            output.writeInt(profileLevels.size)
+            profileLevels.forEach {
+                output.writeInt(it.profile)
+                output.writeInt(it.level)
+            }
+            output.writeInt(features.size)
+            features.forEach { (feature, isSupported) ->
+                output.writeUTF(feature)
+                output.writeBoolean(isSupported)
+            }
+            output.writeInt(maxSupportedInstances ?: UNKNOWN)
+            output.writeBoolean(video != null)
+            video?.let {
+                output.writeRange(it.widths)
+                output.writeRange(it.heights)
+                output.writeRange(it.frameRates)
+                output.writeRange(it.bitrates)
+                output.writeInt(it.bitrateModes.size)
+                it.bitrateModes.forEach { bitrateMode -> output.writeInt(bitrateMode) }
+            }
+            output.writeBoolean(audio != null)
+            audio?.let {
+                output.writeRange(it.bitrates)
+                output.writeInt(it.maxInputChannelCount)
+                output.writeInt(it.sampleRates?.size ?: UNKNOWN)
+                it.sampleRates?.forEach { sampleRate -> output.writeInt(sampleRate) }
+            }
+        }
+
+        companion object {
+            internal fun readFrom(input: DataInputStream): TypeCapabilities {
+                val mimeType = input.readUTF()
+                val profileLevels = List(input.readCount()) {
+                    ProfileLevel(input.readInt(), input.readInt())
+                }
+                val features = (0 until input.readCount()).associate {
+                    input.readUTF() to input.readBoolean()
+                }
+                val maxSupportedInstances = input.readInt().takeIf { it != UNKNOWN }
+                val video = if (input.readBoolean()) {
+                    VideoCapabilities(
+                        input.readRange(),
+                        input.readRange(),
+                        input.readRange(),
+                        input.readRange(),
+                        List(input.readCount()) { input.readInt() }
+                    )
+                } else {
+                    null
+                }
+                val audio = if (input.readBoolean()) {
+                    val bitrates = input.readRange()
+                    val maxInputChannelCount = input.readInt()
+                    val sampleRateCount = input.readInt()
+                    val sampleRates = if (sampleRateCount != UNKNOWN) {
+                        List(checkCount(sampleRateCount)) { input.readInt() }
+                    } else {
+                        null
+                    }
+                    AudioCapabilities(bitrates, maxInputChannelCount, sampleRates)
+                } else {
+                    null
+                }
+                return TypeCapabilities(
+                    mimeType,
+                    profileLevels,
+                    features,
+                    maxSupportedInstances,
+                    video,
+                    audio
+                )
+            }
+
+            /**
+             * Copies the capabilities from [MediaCodecInfo.CodecCapabilities].
+             */
+            internal fun from(
+                mimeType: String,
+                capabilities: MediaCodecInfo.CodecCapabilities
+            ) = TypeCapabilities(
+                mimeType,
+                capabilities.profileLevels.map { ProfileLevel(it.profile, it.level) }.distinct(),
+                PROBED_FEATURES.associateWith { capabilities.isFeatureSupported(it) },
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    capabilities.maxSupportedInstances
+                } else {
+                    null
+                },
+                capabilities.videoCapabilities?.let {
+                    VideoCapabilities(
+                        it.supportedWidths.toIntRange(),
+                        it.supportedHeights.toIntRange(),
+                        it.supportedFrameRates.toIntRange(),
+                        it.bitrateRange.toIntRange(),
+                        capabilities.encoderCapabilities?.let { encoderCapabilities ->
+                            BITRATE_MODES.filter { mode ->
+                                encoderCapabilities.isBitrateModeSupported(mode)
+                            }
+                        } ?: emptyList()
+                    )
+                },
+                capabilities.audioCapabilities?.let {
+                    AudioCapabilities(
+                        it.bitrateRange.toIntRange(),
+                        it.maxInputChannelCount,
+                        it.supportedSampleRates?.toList()
+                    )
+                }
+            )
+        }
+    }
+
+    /**
+     * A profile and level pair.
+     *
+     * @see MediaCodecInfo.CodecProfileLevel
+     */
+    data class ProfileLevel(val profile: Int, val level: Int) {
+        fun toCodecProfileLevel() = MediaCodecInfo.CodecProfileLevel().apply {
+            profile = this@ProfileLevel.profile
+            level = this@ProfileLevel.level
+        }
+    }
+
+    /**
+     * The video capabilities of an encoder.
+     *
+     * @param bitrateModes the supported bitrate modes
+     * @see MediaCodecInfo.VideoCapabilities
+     * @see MediaCodecInfo.EncoderCapabilities.isBitrateModeSupported
+     */
+    data class VideoCapabilities(
+        val widths: IntRange,
+        val heights: IntRange,
+        val frameRates: IntRange,
+        val bitrates: IntRange,
+        val bitrateModes: List<Int> = emptyList()
+    )
+
+    /**
+     * The audio capabilities of an encoder.
+     *
+     * @param sampleRates the discrete sample rates or `null` if the encoder supports ranges of sample rates
+     * @see MediaCodecInfo.AudioCapabilities
+     */
+    data class AudioCapabilities(
+        val bitrates: IntRange,
+        val maxInputChannelCount: Int,
+        val sampleRates: List<Int>?
+    )
+
+    companion object {
+        private const val MAGIC = 0x53504343 // "SPCC"
+        private const val FORMAT_VERSION = 2
+        private const val UNKNOWN = -1
+
+        /**
+         * The maximum number of elements of a list. It bounds the memory a corrupted file can
+         * allocate.
+         */
+        private const val MAX_COUNT = 4096
+
+        /**
+         * The features that are stored in the snapshot. Other features are queried on the codec.
+         */
+        @SuppressLint("InlinedApi")
+        internal val PROBED_FEATURES = listOf(
+            MediaCodecInfo.CodecCapabilities.FEATURE_IntraRefresh,
+            MediaCodecInfo.CodecCapabilities.FEATURE_QpBounds,
+            MediaCodecInfo.CodecCapabilities.FEATURE_EncodingStatistics,
+            MediaCodecInfo.CodecCapabilities.FEATURE_HdrEditing
+        )
+
+        @SuppressLint("InlinedApi")
+        private val BITRATE_MODES = listOf(
+            MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ,
+            MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR,
+            MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR,
+            MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR_FD
+        )
+
+        /**
+         * Builds the snapshot from the encoders of [codecList].
+         *
+         * @param codecList the codec list
+         * @param fingerprint the current [Build.FINGERPRINT]
+         */
+        fun create(codecList: MediaCodecList, fingerprint: String): CodecCapabilitySnapshot {
+            val encoders = codecList.codecInfos.filter { it.isEncoder }.map { codecInfo ->
+                EncoderInfo(
+                    codecInfo.name,
+                    codecInfo.supportedTypes.mapNotNull { mimeType ->
+                        try {
+                            TypeCapabilities.from(
+                                mimeType,
+                                codecInfo.getCapabilitiesForType(mimeType)
+                            )
+                        } catch (_: IllegalArgumentException) {
+                            null
+                        }
+                    }
+                )
+            }
+            val defaultEncoders = encoders.flatMap { encoder -> encoder.types.map { it.mimeType } }
+                .distinct()
+                .mapNotNull { mimeType ->
+                    val format = MediaFormat().apply { setString(MediaFormat.KEY_MIME, mimeType) }
+                    codecList.findEncoderForFormat(format)?.let { mimeType to it }
+                }
+                .toMap()
+            return CodecCapabilitySnapshot(fingerprint, encoders, defaultEncoders)
+        }
+
+        /**
+         * Reads a snapshot from [file].
+         *
+         * @param file the source file
+         * @param fingerprint the current [Build.FINGERPRINT]
+         * @return the snapshot or `null` if the file does not exist or has been written by another
+         * system build or another version of the format
+         * @throws IOException if the file is corrupted
+         */
+        fun readFrom(file: File, fingerprint: String): CodecCapabilitySnapshot? {
+            if (!file.exists()) {
+                return null
+            }
+            DataInputStream(BufferedInputStream(file.inputStream())).use { input ->
+                if ((input.readInt() != MAGIC) || (input.readInt() != FORMAT_VERSION)) {
+                    return null
+                }
+                val fileFingerprint = input.readUTF()
+                if (fileFingerprint != fingerprint) {
+                    return null
+                }
+                val encoders = List(input.readCount()) { EncoderInfo.readFrom(input) }
+                val defaultEncoders = (0 until input.readCount()).associate {
+                    input.readUTF() to input.readUTF()
+                }
+                return CodecCapabilitySnapshot(fingerprint, encoders, defaultEncoders)
+            }
+        }
+
+        private fun Range<Int>.toIntRange() = lower..upper
+
+        private fun DataOutputStream.writeRange(range: IntRange) {
+            writeInt(range.first)
+            writeInt(range.last)
+        }
+
+        private fun DataInputStream.readRange() = readInt()..readInt()
+
+        private fun DataInputStream.readCount() = checkCount(readInt())
+
+        private fun checkCount(count: Int): Int {
+            if (count !in 0..MAX_COUNT) {
+                throw IOException("Invalid element count: $count")
+            }
+            return count
+        }
+    }
+}
@@ -32,9 +32,10 @@ sealed class EncoderConfig<T : CodecConfig>(val config: T, val mode: EncoderMode
     /**
      * Get media format for the encoder
      * @param requestFallback whether to request a fallback format if the preferred one is not supported
+     * @param encoderName the name of the encoder the format is for or null for the default encoder
      * @return MediaFormat
      */
-    abstract fun buildFormat(requestFallback: Boolean): MediaFormat
+    abstract fun buildFormat(requestFallback: Boolean, encoderName: String? = null): MediaFormat
 
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
@@ -61,8 +62,8 @@ class VideoEncoderConfig(
 ) {
     override val isVideo = true
 
-    override fun buildFormat(requestFallback: Boolean): MediaFormat {
-        val format = config.getFormat(requestFallback)
+    override fun buildFormat(requestFallback: Boolean, encoderName: String?): MediaFormat {
+        val format = config.getFormat(requestFallback, encoderName)
         if (mode == EncoderMode.SURFACE) {
             format.setInteger(
                 MediaFormat.KEY_COLOR_FORMAT,
@@ -115,8 +116,8 @@ class AudioEncoderConfig(audioConfig: AudioCodecConfig, mode: EncoderMode) :
         }
     }
 
-    override fun buildFormat(requestFallback: Boolean) =
-        config.getFormat(requestFallback)
+    override fun buildFormat(requestFallback: Boolean, encoderName: String?) =
+        config.getFormat(requestFallback, encoderName)
 
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.encoders.mediacodec
+
+import kotlin.math.roundToInt
+import kotlin.math.sqrt
+
+/**
+ * The distribution of the encoded frame sizes over a window.
+ *
+ * Frames are added with [add] and the statistics of the window are published by [endWindow].
+ * A key frame burst raises [standardDeviationInBytes] and [maxInBytes]: it is the way to verify
+ * the effect of the rate control options.
+ *
+ * [add], [endWindow] and [reset] must be called from the same thread.
+ */
+internal class FrameSizeStats {
+    private var count = 0
+    private var sumInBytes = 0L
+    private var sumOfSquares = 0.0
+    private var windowMaxInBytes = 0
+
+    /**
+     * The mean frame size of the last window.
+     */
+    @Volatile
+    var meanInBytes = 0
+        private set
+
+    /**
+     * The standard deviation of the frame sizes of the last window.
+     */
+    @Volatile
+    var standardDeviationInBytes = 0
+        private set
+
+    /**
+     * The largest frame of the last window.
+     */
+    @Volatile
+    var maxInBytes = 0
+        private set
+
+    /**
+     * Adds a frame to the current window.
+     *
+     * @param sizeInBytes the frame size
+     */
+    fun add(sizeInBytes: Int) {
+        count++
+        sumInBytes += sizeInBytes
+        sumOfSquares += sizeInBytes.toDouble() * sizeInBytes
+        windowMaxInBytes = maxOf(windowMaxInBytes, sizeInBytes)
+    }
+
+    /**
+     * Publishes the statistics of the current window and starts a new one.
+     */
+    fun endWindow() {
+        if (count == 0) {
+            meanInBytes = 0
+            standardDeviationInBytes = 0
+            maxInBytes = 0
+            return
+        }
+        val mean = sumInBytes.toDouble() / count
+        val variance = (sumOfSquares / count - mean * mean).coerceAtLeast(0.0)
+        meanInBytes = mean.roundToInt()
+        standardDeviationInBytes = sqrt(variance).roundToInt()
+        maxInBytes = windowMaxInBytes
+        clearWindow()
+    }
+
+    /**
+     * Clears the current window and the published statistics.
+     */
+    fun reset() {
+        clearWindow()
+        meanInBytes = 0
+        standardDeviationInBytes = 0
+        maxInBytes = 0
+    }
+
+    private fun clearWindow() {
+        count = 0
+        sumInBytes = 0
+        sumOfSquares = 0.0
+        windowMaxInBytes = 0
+    }
+}
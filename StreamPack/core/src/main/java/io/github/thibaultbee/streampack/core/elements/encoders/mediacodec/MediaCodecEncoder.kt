@@ -27,16 +27,23 @@ import io.github.thibaultbee.streampack.core.elements.data.RawFrame
 import io.github.thibaultbee.streampack.core.elements.encoders.EncoderMode
 import io.github.thibaultbee.streampack.core.elements.encoders.EncoderStats
 import io.github.thibaultbee.streampack.core.elements.encoders.IEncoderInternal
+import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig
 import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.extensions.hasEndOfStreamFlag
 import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.extensions.isKeyFrame
 import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.extensions.isValid
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.extra
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.put
+import io.github.thibaultbee.streampack.core.elements.utils.leak.FrameKind
+import io.github.thibaultbee.streampack.core.elements.utils.leak.FrameLeakDetector
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
 import io.github.thibaultbee.streampack.core.logger.Logger
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
@@ -54,7 +61,7 @@ internal constructor(
     private val listener: IEncoderInternal.IListener,
     private val defaultDispatcher: CoroutineDispatcher,
     private val processDispatcher: CoroutineDispatcher
-) : IEncoderInternal {
+) : IEncoderInternal, MetricsProducer {
     private val coroutineScope = CoroutineScope(SupervisorJob() + defaultDispatcher)
     private val mutex = Mutex()
 
@@ -76,24 +83,50 @@ internal constructor(
                 throw IllegalArgumentException("Bitrate must be positive")
             }
             if (isVideo) {
-                val bundle = Bundle()
-                bundle.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, value)
-                mediaCodec.setParameters(bundle)
                 field = value
+                requestBitrate(bitrateCorrector?.correct(value) ?: value)
             } else {
                 throw UnsupportedOperationException("Audio encoder does not support bitrate change")
             }
         }
 
+    private val bitrateLock = Any()
+
+    /**
+     * The bitrate requested to the codec. It differs from [bitrate] when the bitrate is corrected
+     * or while an update is delayed.
+     */
+    @Volatile
+    private var requestedBitrate = startBitrate
+    private var appliedBitrate = startBitrate
+    private var lastBitrateUpdateTimeMs = 0L
+    private var pendingBitrateUpdateJob: Job? = null
+
+    private val bitrateTracker = BitrateTracker()
+    private val bitrateCorrector =
+        if (isVideo && ((encoderConfig.config as? VideoCodecConfig)?.rateControl?.isBitrateCorrectionEnabled == true)) {
+            BitrateCorrector()
+        } else {
+            null
+        }
+    private var requestedBitrateSumInWindow = 0L
+
     override val config = encoderConfig.config
 
     private val encoderCallback = EncoderCallback()
 
     // Stats tracking
+    @Volatile
     private var outputFrameCount = 0L
+
+    @Volatile
+    private var outputByteCount = 0L
     private var outputFramesInWindow = 0
     private var windowStartTimeMs = 0L
+
+    @Volatile
     private var currentOutputFps = 0f
+    private val frameSizeStats = FrameSizeStats()
     private val statsWindowMs = 1000L // 1 second window for FPS calculation
 
     init {
@@ -118,27 +151,103 @@ internal constructor(
         mediaCodec.setParameters(bundle)
     }
 
+    override fun setSuspended(isSuspended: Boolean) {
+        val bundle = Bundle()
+        bundle.putInt(MediaCodec.PARAMETER_KEY_SUSPEND, if (isSuspended) 1 else 0)
+        mediaCodec.setParameters(bundle)
+    }
+
     /**
      * Get current encoder statistics
      */
     override fun getStats(): EncoderStats {
         return EncoderStats(
             outputFrameCount = outputFrameCount,
-            outputFps = currentOutputFps
+            outputFps = currentOutputFps,
+            requestedBitrate = requestedBitrate,
+            measuredBitrate = bitrateTracker.bitrate,
+            meanOutputFrameSizeInBytes = frameSizeStats.meanInBytes,
+            outputFrameSizeStdDevInBytes = frameSizeStats.standardDeviationInBytes,
+            maxOutputFrameSizeInBytes = frameSizeStats.maxInBytes
         )
     }
 
-    private fun trackOutputFrame() {
+    override fun registerMetrics(registry: MetricsRegistry) {
+        registry.gauge("output_frames") { outputFrameCount }
+        registry.gauge("output_bytes") { outputByteCount }
+        registry.gauge("output_fps") { currentOutputFps }
+        registry.gauge("output_frame_size_mean_bytes") { frameSizeStats.meanInBytes }
+        registry.gauge("output_frame_size_stddev_bytes") { frameSizeStats.standardDeviationInBytes }
+        registry.gauge("output_frame_size_max_bytes") { frameSizeStats.maxInBytes }
+        registry.gauge("bitrate") { bitrate }
+        registry.gauge("requested_bitrate") { requestedBitrate }
+        registry.gauge("measured_bitrate") { bitrateTracker.bitrate }
+    }
+
+    /**
+     * Pushes a bitrate to the codec at most once per [MIN_BITRATE_UPDATE_INTERVAL_IN_MS].
+     * Requests within the interval are coalesced: the last one is pushed at the end of the interval.
+     */
+    private fun requestBitrate(value: Int) {
+        synchronized(bitrateLock) {
+            requestedBitrate = value
+            if (pendingBitrateUpdateJob?.isActive == true) {
+                return
+            }
+            val delayInMs =
+                lastBitrateUpdateTimeMs + MIN_BITRATE_UPDATE_INTERVAL_IN_MS - System.currentTimeMillis()
+            if (delayInMs <= 0) {
+                applyBitrateUnsafe()
+            } else {
+                pendingBitrateUpdateJob = coroutineScope.launch {
+                    delay(delayInMs)
+                    synchronized(bitrateLock) {
+                        try {
+                            applyBitrateUnsafe()
+                        } catch (t: Throwable) {
+                            Logger.w(tag, "Failed to apply bitrate $requestedBitrate: ${t.message}")
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private fun applyBitrateUnsafe() {
+        if (requestedBitrate == appliedBitrate) {
+            return
+        }
+        val bundle = Bundle()
+        bundle.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, requestedBitrate)
+        mediaCodec.setParameters(bundle)
+        appliedBitrate = requestedBitrate
+        lastBitrateUpdateTimeMs = System.currentTimeMillis()
+    }
+
+    private fun trackOutputFrame(sizeInBytes: Int, ptsInUs: Long) {
         val now = System.currentTimeMillis()
         outputFrameCount++
+        outputByteCount += sizeInBytes
         outputFramesInWindow++
-        
+        frameSizeStats.add(sizeInBytes)
+        bitrateTracker.add(ptsInUs, sizeInBytes)
+        requestedBitrateSumInWindow += requestedBitrate
+
         if (windowStartTimeMs == 0L) {
             windowStartTimeMs = now
         }
         val elapsed = now - windowStartTimeMs
         if (elapsed >= statsWindowMs) {
             currentOutputFps = outputFramesInWindow * 1000f / elapsed
+            frameSizeStats.endWindow()
+            bitrateCorrector?.let {
+                it.update(
+                    (requestedBitrateSumInWindow / outputFramesInWindow).toInt(),
+                    bitrateTracker.bitrate
+                )
+                requestBitrate(it.correct(bitrate))
+            }
+            requestedBitrateSumInWindow = 0
             outputFramesInWindow = 0
             windowStartTimeMs = now
         }
@@ -146,9 +255,13 @@ internal constructor(
 
     private fun resetStats() {
         outputFrameCount = 0
+        outputByteCount = 0
         outputFramesInWindow = 0
         windowStartTimeMs = 0
         currentOutputFps = 0f
+        frameSizeStats.reset()
+        bitrateTracker.reset()
+        requestedBitrateSumInWindow = 0
     }
 
     private fun configureUnsafe() {
@@ -161,6 +274,10 @@ internal constructor(
             }
 
             mediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE)
+            synchronized(bitrateLock) {
+                // The codec starts from the format bitrate
+                appliedBitrate = format.getInteger(MediaFormat.KEY_BIT_RATE)
+            }
 
             if (input is SurfaceInput) {
                 input.reset()
@@ -395,8 +512,9 @@ internal constructor(
                         index, outputFormat!!, info, tag
                     )
                     try {
+                        listener.onOutputFrame(frame.frame)
                         listener.outputChannel.send(frame)
-                        trackOutputFrame()
+                        trackOutputFrame(info.size, info.presentationTimeUs)
                     } catch (t: Throwable) {
                         if (state.isRunning) {
                             handleErrorUnsafe(t)
@@ -626,10 +744,12 @@ internal constructor(
      *
      * @param codec the [MediaCodec] instance
      * @param isVideo true if the codec is a video codec, false otherwise
+     * @param leakDetector the detector of the output buffers that are never released
      */
     class FrameFactory(
         private val codec: MediaCodec,
-        private val isVideo: Boolean
+        private val isVideo: Boolean,
+        private val leakDetector: FrameLeakDetector = FrameLeakDetector.default
     ) {
         private var previousPresentationTimeUs = 0L
 
@@ -666,6 +786,7 @@ internal constructor(
             tag: String
         ): FrameWithCloseable {
             val buffer = requireNotNull(codec.getOutputBuffer(index))
+            val lease = leakDetector.acquire(FrameKind.ENCODED)
             return FrameWithCloseable(
                 buffer,
                 ptsInUs, // pts
@@ -682,6 +803,7 @@ internal constructor(
                 },
                 outputFormat,
                 onClosed = {
+                    lease.release()
                     try {
                         codec.releaseOutputBuffer(index, false)
                     } catch (t: Throwable) {
@@ -695,6 +817,8 @@ internal constructor(
     companion object {
         private const val AUDIO_ENCODER_TAG = "AudioEncoder"
         private const val VIDEO_ENCODER_TAG = "VideoEncoder"
+
+        private const val MIN_BITRATE_UPDATE_INTERVAL_IN_MS = 200L
     }
 
 
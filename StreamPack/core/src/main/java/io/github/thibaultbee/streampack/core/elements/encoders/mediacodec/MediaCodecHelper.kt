@@ -15,17 +15,116 @@
  */
 package io.github.thibaultbee.streampack.core.elements.encoders.mediacodec
 
+import android.content.Context
 import android.media.MediaCodecInfo
 import android.media.MediaCodecList
 import android.media.MediaFormat
 import android.os.Build
 import android.util.Range
+import androidx.annotation.RequiresApi
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.isAudio
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.isVideo
+import io.github.thibaultbee.streampack.core.logger.Logger
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.IOException
 import java.security.InvalidParameterException
+import kotlin.math.ceil
 
 object MediaCodecHelper {
+    private const val TAG = "MediaCodecHelper"
+    private const val SNAPSHOT_FILE_NAME = "codec_capabilities.bin"
+
     private val codecList by lazy { MediaCodecList(MediaCodecList.REGULAR_CODECS) }
+    private val codecInfosByName by lazy { codecList.codecInfos.associateBy { it.name } }
+
+    private val snapshotLock = Any()
+
+    @Volatile
+    private var cachedSnapshot: CodecCapabilitySnapshot? = null
+    private var isSnapshotPersisted = false
+
+    /**
+     * The encoder capabilities. If [loadSnapshot] has not been called, they are built from
+     * [MediaCodecList] on first access.
+     */
+    internal val snapshot: CodecCapabilitySnapshot
+        get() = cachedSnapshot ?: synchronized(snapshotLock) {
+            cachedSnapshot ?: buildSnapshot(Build.FINGERPRINT).also { cachedSnapshot = it }
+        }
+
+    /**
+     * Loads the encoder capabilities from the application cache.
+     *
+     * If the cache does not exist or has been written by another system build
+     * ([Build.FINGERPRINT]), the capabilities are built from [MediaCodecList] and persisted.
+     * Afterwards, capability queries are served from memory.
+     *
+     * Call it early in a background scope, when the application starts for example, so that
+     * settings screens do not walk [MediaCodecList] on the main thread.
+     *
+     * @param context the application context
+     */
+    suspend fun loadSnapshot(context: Context) {
+        withContext(Dispatchers.IO) {
+            loadSnapshot(File(context.cacheDir, SNAPSHOT_FILE_NAME), Build.FINGERPRINT)
+        }
+    }
+
+    private fun loadSnapshot(file: File, fingerprint: String): CodecCapabilitySnapshot {
+        synchronized(snapshotLock) {
+            cachedSnapshot?.let {
+                if (!isSnapshotPersisted) {
+                    writeSnapshot(it, file)
+                }
+                return it
+            }
+
+            val startTimeInNs = System.nanoTime()
+            val loadedSnapshot = try {
+                CodecCapabilitySnapshot.readFrom(file, fingerprint)
+            } catch (e: Exception) {
+                // A corrupted file would fail on every start: it is rebuilt
+                Logger.w(TAG, "Failed to read codec capabilities from $file", e)
+                file.delete()
+                null
+            }
+            if (loadedSnapshot != null) {
+                Logger.i(
+                    TAG,
+                    "Codec capabilities loaded in ${(System.nanoTime() - startTimeInNs) / 1000} us"
+                )
+                isSnapshotPersisted = true
+                cachedSnapshot = loadedSnapshot
+                return loadedSnapshot
+            }
+
+            val builtSnapshot = buildSnapshot(fingerprint)
+            writeSnapshot(builtSnapshot, file)
+            cachedSnapshot = builtSnapshot
+            return builtSnapshot
+        }
+    }
+
+    private fun buildSnapshot(fingerprint: String): CodecCapabilitySnapshot {
+        val startTimeInNs = System.nanoTime()
+        return CodecCapabilitySnapshot.create(codecList, fingerprint).also {
+            Logger.i(
+                TAG,
+                "Codec capabilities built in ${(System.nanoTime() - startTimeInNs) / 1000} us"
+            )
+        }
+    }
+
+    private fun writeSnapshot(snapshot: CodecCapabilitySnapshot, file: File) {
+        try {
+            snapshot.writeTo(file)
+            isSnapshotPersisted = true
+        } catch (e: IOException) {
+            Logger.w(TAG, "Failed to write codec capabilities to $file", e)
+        }
+    }
 
     /**
      * On Build.VERSION_CODES.LOLLIPOP, format must not contain a frame rate.
@@ -72,8 +171,8 @@ object MediaCodecHelper {
      * @return the encoder name
      */
     fun findEncoder(mimeType: String): String {
-        val format = MediaFormat().apply { setString(MediaFormat.KEY_MIME, mimeType) }
-        return findEncoder(format)
+        return snapshot.getDefaultEncoder(mimeType)
+            ?: throw InvalidParameterException("Failed to create codec for: $mimeType")
     }
 
     /**
@@ -83,9 +182,8 @@ object MediaCodecHelper {
      * @return the list of supported encoder type
      */
     private fun getEncodersType(filter: ((String) -> Boolean)) =
-        codecList.codecInfos
-            .filter { it.isEncoder }
-            .flatMap { it.supportedTypes.toList() }
+        snapshot.encoders
+            .flatMap { encoder -> encoder.types.map { it.mimeType } }
             .filter { filter(it) }
             .distinct()
 
@@ -96,11 +194,10 @@ object MediaCodecHelper {
      * @return the list of encoders name
      */
     private fun getEncodersName(filter: ((String) -> Boolean)) =
-        codecList.codecInfos
-            .filter { it.isEncoder }
-            .filter { it.supportedTypes.any { type -> filter(type) } }
-            .distinct()
+        snapshot.encoders
+            .filter { encoder -> encoder.types.any { filter(it.mimeType) } }
             .map { it.name }
+            .distinct()
 
     /**
      * Get the encoders for a particular mime type
@@ -120,7 +217,7 @@ object MediaCodecHelper {
      * @see getNamesForType
      */
     fun getTypesForName(name: String): List<String> {
-        return getCodecInfo(name).supportedTypes.toList()
+        return snapshot.getTypes(name) ?: getCodecInfo(name).supportedTypes.toList()
     }
 
     /**
@@ -129,7 +226,8 @@ object MediaCodecHelper {
      * @param name the codec name
      * @return the media codec info
      */
-    fun getCodecInfo(name: String): MediaCodecInfo = codecList.codecInfos.first { it.name == name }
+    fun getCodecInfo(name: String): MediaCodecInfo =
+        codecInfosByName[name] ?: throw NoSuchElementException("No codec named $name")
 
     /**
      * Check if codec is hardware accelerated
@@ -191,6 +289,26 @@ object MediaCodecHelper {
         )
     }
 
+    /**
+     * Get the capabilities of the specified encoder from the snapshot.
+     *
+     * If the snapshot does not contain the encoder, the capabilities are read from the codec.
+     *
+     * @param mimeType the encoder mime type
+     * @param name the encoder name
+     * @return the encoder capabilities
+     */
+    private fun getTypeCapabilities(
+        mimeType: String,
+        name: String = findEncoder(mimeType)
+    ): CodecCapabilitySnapshot.TypeCapabilities {
+        return snapshot.getCapabilities(mimeType, name)
+            ?: CodecCapabilitySnapshot.TypeCapabilities.from(
+                mimeType,
+                getCodecCapabilities(mimeType, name)
+            )
+    }
+
     /**
      * Get encoder supported profile level list for the default encoder.
      *
@@ -200,7 +318,7 @@ object MediaCodecHelper {
     fun getProfileLevel(
         mimeType: String,
     ): List<MediaCodecInfo.CodecProfileLevel> =
-        getCodecCapabilities(mimeType).profileLevels.toSet().toList()
+        getTypeCapabilities(mimeType).profileLevels.map { it.toCodecProfileLevel() }
 
     /**
      * Get encoder supported profile level list for the specified encoder.
@@ -213,7 +331,7 @@ object MediaCodecHelper {
         mimeType: String,
         name: String
     ): List<MediaCodecInfo.CodecProfileLevel> =
-        getCodecCapabilities(mimeType, name).profileLevels.toSet().toList()
+        getTypeCapabilities(mimeType, name).profileLevels.map { it.toCodecProfileLevel() }
 
     /**
      * Get encoder supported profiles list for the default encoder.
@@ -224,7 +342,7 @@ object MediaCodecHelper {
     fun getProfiles(
         mimeType: String,
     ): List<Int> =
-        getProfileLevel(mimeType).map { it.profile }.toSet().toList()
+        getTypeCapabilities(mimeType).profileLevels.map { it.profile }.distinct()
 
     /**
      * Get encoder supported profiles list for the specified encoder.
@@ -237,7 +355,7 @@ object MediaCodecHelper {
         mimeType: String,
         name: String
     ): List<Int> =
-        getProfileLevel(mimeType, name).map { it.profile }.toSet().toList()
+        getTypeCapabilities(mimeType, name).profileLevels.map { it.profile }.distinct()
 
     /**
      * Get encoder maximum supported levels for the default encoder.
@@ -250,7 +368,7 @@ object MediaCodecHelper {
         mimeType: String,
         profile: Int
     ): Int {
-        return getProfileLevel(mimeType)
+        return getTypeCapabilities(mimeType).profileLevels
             .filter { it.profile == profile }
             .maxOf { it.level }
     }
@@ -268,7 +386,7 @@ object MediaCodecHelper {
         name: String,
         profile: Int
     ): Int {
-        return getProfileLevel(mimeType, name)
+        return getTypeCapabilities(mimeType, name).profileLevels
             .filter { it.profile == profile }
             .maxOf { it.level }
     }
@@ -315,7 +433,7 @@ object MediaCodecHelper {
     fun isFeatureSupported(
         mimeType: String,
         feature: String
-    ) = getCodecCapabilities(mimeType).isFeatureSupported(feature)
+    ) = isFeatureSupported(mimeType, findEncoder(mimeType), feature)
 
     /**
      * Whether the encoder supports the specified feature.
@@ -330,7 +448,69 @@ object MediaCodecHelper {
         mimeType: String,
         name: String,
         feature: String
-    ) = getCodecCapabilities(mimeType, name).isFeatureSupported(feature)
+    ) = getTypeCapabilities(mimeType, name).features[feature]
+        ?: getCodecCapabilities(mimeType, name).isFeatureSupported(feature)
+
+    /**
+     * Get the maximum number of concurrent instances of the default encoder.
+     *
+     * @param mimeType the encoder mime type
+     * @return the maximum number of instances or `null` if it is unknown (before Android M)
+     * @see MediaCodecInfo.CodecCapabilities.getMaxSupportedInstances
+     */
+    fun getMaxSupportedInstances(mimeType: String): Int? =
+        getMaxSupportedInstances(mimeType, findEncoder(mimeType))
+
+    /**
+     * Get the maximum number of concurrent instances of the specified encoder.
+     *
+     * @param mimeType the encoder mime type
+     * @param name the encoder name
+     * @return the maximum number of instances or `null` if it is unknown (before Android M)
+     * @see MediaCodecInfo.CodecCapabilities.getMaxSupportedInstances
+     */
+    fun getMaxSupportedInstances(mimeType: String, name: String): Int? {
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            getTypeCapabilities(mimeType, name).maxSupportedInstances
+        } else {
+            null
+        }
+    }
+
+    /**
+     * Whether the default encoders can encode all the [formats] at the same time.
+     *
+     * For each encoder, it checks that every format is supported, that the number of instances
+     * is not above [getMaxSupportedInstances] and, for video, that the cumulated macroblock rate
+     * is covered by one of the advertised performance points (from Android Q).
+     * Capabilities are declared by the device so it is a best effort check.
+     *
+     * @param formats the media formats to encode concurrently
+     * @return true if all formats can be encoded concurrently, otherwise false
+     */
+    fun areFormatsSupportedConcurrently(formats: List<MediaFormat>): Boolean {
+        val formatsByEncoder = try {
+            formats.groupBy { findEncoder(it) }
+        } catch (_: InvalidParameterException) {
+            return false
+        }
+
+        return formatsByEncoder.all { (name, encoderFormats) ->
+            val mimeType = encoderFormats.first().getString(MediaFormat.KEY_MIME) as String
+            if (!encoderFormats.all { isFormatSupported(it, name) }) {
+                return@all false
+            }
+            val maxInstances = getMaxSupportedInstances(mimeType, name)
+            if ((maxInstances != null) && (encoderFormats.size > maxInstances)) {
+                return@all false
+            }
+            if (mimeType.isVideo && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)) {
+                Video.isLoadSupported(mimeType, name, encoderFormats)
+            } else {
+                true
+            }
+        }
+    }
 
     object Video {
         /**
@@ -349,7 +529,7 @@ object MediaCodecHelper {
          * @param mimeType the video encoder mime type
          * @return the encoder video capabilities
          */
-        private fun getVideoCapabilities(mimeType: String): MediaCodecInfo.VideoCapabilities {
+        private fun getVideoCapabilities(mimeType: String): CodecCapabilitySnapshot.VideoCapabilities {
             require(mimeType.isVideo) { "MimeType must be video" }
 
             val encoderName = findEncoder(mimeType)
@@ -366,10 +546,10 @@ object MediaCodecHelper {
         private fun getVideoCapabilities(
             mimeType: String,
             name: String
-        ): MediaCodecInfo.VideoCapabilities {
+        ): CodecCapabilitySnapshot.VideoCapabilities {
             require(mimeType.isVideo) { "MimeType must be video" }
 
-            return getCodecCapabilities(mimeType, name).videoCapabilities!!
+            return getTypeCapabilities(mimeType, name).video!!
         }
 
         /**
@@ -379,7 +559,7 @@ object MediaCodecHelper {
          * @return the range of supported heights
          */
         fun getSupportedHeights(mimeType: String): Range<Int> =
-            getVideoCapabilities(mimeType).supportedHeights
+            getVideoCapabilities(mimeType).heights.toRange()
 
         /**
          * Get video encoder supported heights for the specified video encoder.
@@ -389,7 +569,7 @@ object MediaCodecHelper {
          * @return the range of supported heights
          */
         fun getSupportedHeights(mimeType: String, name: String): Range<Int> =
-            getVideoCapabilities(mimeType, name).supportedHeights
+            getVideoCapabilities(mimeType, name).heights.toRange()
 
         /**
          * Get video encoder supported widths for the default video encoder.
@@ -398,7 +578,7 @@ object MediaCodecHelper {
          * @return the range of supported widths
          */
         fun getSupportedWidths(mimeType: String): Range<Int> =
-            getVideoCapabilities(mimeType).supportedHeights
+            getVideoCapabilities(mimeType).widths.toRange()
 
         /**
          * Get video encoder supported widths for the specified video encoder.
@@ -408,7 +588,7 @@ object MediaCodecHelper {
          * @return the range of supported widths
          */
         fun getSupportedWidths(mimeType: String, name: String): Range<Int> =
-            getVideoCapabilities(mimeType, name).supportedHeights
+            getVideoCapabilities(mimeType, name).widths.toRange()
 
         /**
          * Get video encoder supported frame rate range for the default video encoder.
@@ -417,7 +597,7 @@ object MediaCodecHelper {
          * @return the range of frame in b/s
          */
         fun getFramerateRange(mimeType: String): Range<Int> =
-            getVideoCapabilities(mimeType).supportedFrameRates
+            getVideoCapabilities(mimeType).frameRates.toRange()
 
         /**
          * Get video encoder supported frame rate range for the specified video encoder.
@@ -427,7 +607,7 @@ object MediaCodecHelper {
          * @return the range of frame in b/s
          */
         fun getFramerateRange(mimeType: String, name: String): Range<Int> =
-            getVideoCapabilities(mimeType, name).supportedFrameRates
+            getVideoCapabilities(mimeType, name).frameRates.toRange()
 
         /**
          * Get video encoder supported bitrate for the default video encoder.
@@ -436,7 +616,7 @@ object MediaCodecHelper {
          * @return the range of bitrate in b/s
          */
         fun getBitrateRange(mimeType: String): Range<Int> =
-            getVideoCapabilities(mimeType).bitrateRange
+            getVideoCapabilities(mimeType).bitrates.toRange()
 
         /**
          * Get video encoder supported bitrate for the specified video encoder.
@@ -446,7 +626,80 @@ object MediaCodecHelper {
          * @return the range of bitrate in b/s
          */
         fun getBitrateRange(mimeType: String, name: String): Range<Int> =
-            getVideoCapabilities(mimeType, name).bitrateRange
+            getVideoCapabilities(mimeType, name).bitrates.toRange()
+
+        /**
+         * Whether the default video encoder supports a bitrate mode.
+         *
+         * @param mimeType the video encoder mime type
+         * @param bitrateMode the bitrate mode
+         * @return true if the bitrate mode is supported, otherwise false
+         * @see MediaCodecInfo.EncoderCapabilities.isBitrateModeSupported
+         */
+        fun isBitrateModeSupported(mimeType: String, bitrateMode: Int) =
+            bitrateMode in getVideoCapabilities(mimeType).bitrateModes
+
+        /**
+         * Whether the specified video encoder supports a bitrate mode.
+         *
+         * @param mimeType the video encoder mime type
+         * @param name the video encoder name
+         * @param bitrateMode the bitrate mode
+         * @return true if the bitrate mode is supported, otherwise false
+         * @see MediaCodecInfo.EncoderCapabilities.isBitrateModeSupported
+         */
+        fun isBitrateModeSupported(mimeType: String, name: String, bitrateMode: Int) =
+            bitrateMode in getVideoCapabilities(mimeType, name).bitrateModes
+
+        /**
+         * Whether the specified video encoder can sustain the load of all [formats] at the same
+         * time.
+         *
+         * The load is expressed as a performance point with the largest frame size and the
+         * cumulated macroblock rate of all formats.
+         * If the encoder does not advertise performance points, the load is considered supported.
+         *
+         * @param mimeType the video encoder mime type
+         * @param name the video encoder name
+         * @param formats the video formats to encode concurrently
+         * @return true if the load is supported, otherwise false
+         */
+        @RequiresApi(Build.VERSION_CODES.Q)
+        internal fun isLoadSupported(
+            mimeType: String,
+            name: String,
+            formats: List<MediaFormat>
+        ): Boolean {
+            val performancePoints =
+                getCodecCapabilities(mimeType, name).videoCapabilities?.supportedPerformancePoints
+            if (performancePoints.isNullOrEmpty()) {
+                return true
+            }
+
+            val largestFormat = formats.maxBy { getMacroblockCount(it) }
+            val macroblockRate = formats.sumOf {
+                getMacroblockCount(it) * it.getInteger(MediaFormat.KEY_FRAME_RATE, DEFAULT_FPS)
+            }
+            val frameRate = ceil(
+                macroblockRate.toDouble() / getMacroblockCount(largestFormat)
+            ).toInt()
+            val load = MediaCodecInfo.VideoCapabilities.PerformancePoint(
+                largestFormat.getInteger(MediaFormat.KEY_WIDTH),
+                largestFormat.getInteger(MediaFormat.KEY_HEIGHT),
+                frameRate
+            )
+            return performancePoints.any { it.covers(load) }
+        }
+
+        private fun getMacroblockCount(format: MediaFormat): Int {
+            val width = format.getInteger(MediaFormat.KEY_WIDTH)
+            val height = format.getInteger(MediaFormat.KEY_HEIGHT)
+            return ((width + MACROBLOCK_SIZE - 1) / MACROBLOCK_SIZE) *
+                    ((height + MACROBLOCK_SIZE - 1) / MACROBLOCK_SIZE)
+        }
+
+        private const val MACROBLOCK_SIZE = 16
+        private const val DEFAULT_FPS = 30
     }
 
     object Audio {
@@ -467,7 +720,7 @@ object MediaCodecHelper {
          * @param mimeType the audio encoder mime type
          * @return the encoder audio capabilities
          */
-        private fun getAudioCapabilities(mimeType: String): MediaCodecInfo.AudioCapabilities {
+        private fun getAudioCapabilities(mimeType: String): CodecCapabilitySnapshot.AudioCapabilities {
             require(mimeType.isAudio) { "MimeType must be audio" }
 
             val encoderName = findEncoder(mimeType)
@@ -484,10 +737,10 @@ object MediaCodecHelper {
         private fun getAudioCapabilities(
             mimeType: String,
             name: String
-        ): MediaCodecInfo.AudioCapabilities {
+        ): CodecCapabilitySnapshot.AudioCapabilities {
             require(mimeType.isAudio) { "MimeType must be audio" }
 
-            return getCodecCapabilities(mimeType, name).audioCapabilities!!
+            return getTypeCapabilities(mimeType, name).audio!!
         }
 
         /**
@@ -516,7 +769,7 @@ object MediaCodecHelper {
          * @return the range of bitrate in b/s
          */
         fun getBitrateRange(mimeType: String): Range<Int> =
-            getAudioCapabilities(mimeType).bitrateRange
+            getAudioCapabilities(mimeType).bitrates.toRange()
 
         /**
          * Get audio encoder supported bitrate for the specified audio encoder.
@@ -526,7 +779,7 @@ object MediaCodecHelper {
          * @return the range of bitrate in b/s
          */
         fun getBitrateRange(mimeType: String, name: String): Range<Int> =
-            getAudioCapabilities(mimeType, name).bitrateRange
+            getAudioCapabilities(mimeType, name).bitrates.toRange()
 
         /**
          * Get audio encoder supported sample rates for the default audio encoder.
@@ -535,7 +788,7 @@ object MediaCodecHelper {
          * @return the sample rates list in Hz.
          */
         fun getSupportedSampleRates(mimeType: String): IntArray =
-            getAudioCapabilities(mimeType).supportedSampleRates
+            getSupportedSampleRates(mimeType, findEncoder(mimeType))
 
         /**
          * Get audio encoder supported sample rates for the specified audio encoder.
@@ -544,7 +797,13 @@ object MediaCodecHelper {
          * @param name the audio encoder name
          * @return the sample rates list in Hz.
          */
-        fun getSupportedSampleRates(mimeType: String, name: String): IntArray =
-            getAudioCapabilities(mimeType, name).supportedSampleRates
+        fun getSupportedSampleRates(mimeType: String, name: String): IntArray {
+            val sampleRates = checkNotNull(getAudioCapabilities(mimeType, name).sampleRates) {
+                "Encoder $name does not declare discrete sample rates"
+            }
+            return sampleRates.toIntArray()
+        }
     }
+
+    private fun IntRange.toRange() = Range(first, last)
 }
\ No newline at end of file
@@ -32,11 +32,13 @@ internal object MediaCodecUtils {
         encoderConfig: EncoderConfig<*>,
         requestFallback: Boolean
     ): MediaCodecWithFormat {
-        val format = encoderConfig.buildFormat(requestFallback)
+        var format = encoderConfig.buildFormat(requestFallback)
 
         try {
             val encoderName = MediaCodecHelper.findEncoder(format)
             Logger.i(TAG, "Selected encoder $encoderName")
+            // Options are checked against the default encoder until the encoder is selected
+            format = encoderConfig.buildFormat(requestFallback, encoderName)
             return MediaCodecWithFormat(MediaCodec.createByCodecName(encoderName), format)
         } catch (t: Throwable) {
             Logger.e(TAG, "No encoder found for format $format")
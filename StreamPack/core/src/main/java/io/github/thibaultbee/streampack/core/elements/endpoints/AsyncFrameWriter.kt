@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints
+
+import android.os.Process
+import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
+import io.github.thibaultbee.streampack.core.elements.utils.LatencyHistogram
+import io.github.thibaultbee.streampack.core.elements.utils.pool.ByteBufferPool
+import io.github.thibaultbee.streampack.core.logger.Logger
+import io.github.thibaultbee.streampack.core.pipelines.utils.ThreadUtils
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Configuration of an asynchronous write.
+ *
+ * Frames hold the encoder buffers until they are written. The encoder only has a few buffers,
+ * whatever their size, so above [maxHeldCodecBuffers] queued frames, frames are copied to pooled
+ * buffers and the encoder buffers are released immediately.
+ *
+ * @param capacity the maximum number of queued frames
+ * @param maxHeldCodecBuffers the maximum number of encoder buffers held by queued frames
+ * @param maxQueueSizeInBytes the maximum size of queued frames. Above it, frames are dropped
+ * until the next key frame.
+ */
+data class AsyncWriteConfig(
+    val capacity: Int = DEFAULT_CAPACITY,
+    val maxHeldCodecBuffers: Int = DEFAULT_MAX_HELD_CODEC_BUFFERS,
+    val maxQueueSizeInBytes: Long = DEFAULT_MAX_QUEUE_SIZE_IN_BYTES
+) {
+    init {
+        require(capacity > 0) { "Capacity must be positive" }
+        require(maxHeldCodecBuffers >= 0) { "Max held codec buffers must not be negative" }
+        require(maxQueueSizeInBytes > 0) { "Max queue size must be positive" }
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 240
+        const val DEFAULT_MAX_HELD_CODEC_BUFFERS = 2
+        const val DEFAULT_MAX_QUEUE_SIZE_IN_BYTES = 32L * 1024 * 1024 // 32 MB
+    }
+}
+
+/**
+ * Metrics of an asynchronous write.
+ *
+ * @param queuedFrameCount the number of frames waiting to be written
+ * @param queuedSizeInBytes the size of frames waiting to be written
+ * @param copiedFrameCount the number of frames copied because the maximum number of held encoder
+ * buffers was reached
+ * @param droppedFrameCount the number of frames dropped because the queue was full
+ * @param queueLatency the time between a frame being queued and being written
+ */
+data class AsyncWriteMetrics(
+    val queuedFrameCount: Long,
+    val queuedSizeInBytes: Long,
+    val copiedFrameCount: Long,
+    val droppedFrameCount: Long,
+    val queueLatency: LatencyHistogram.Snapshot
+)
+
+/**
+ * Writes frames on a dedicated thread through a bounded queue.
+ *
+ * [enqueue] never suspends: when the queue is full, frames are dropped until the next key frame
+ * of their stream.
+ *
+ * @param config the write configuration
+ * @param name the name of the writer thread
+ * @param write the write function. It must close the frame.
+ */
+internal class AsyncFrameWriter(
+    private val config: AsyncWriteConfig,
+    name: String,
+    private val write: suspend (FrameWithCloseable, Int) -> Unit
+) {
+    private val executor = ThreadUtils.newFixedThreadPool(
+        1,
+        ThreadUtils.THREAD_NAME_PREFIX + name,
+        Process.THREAD_PRIORITY_BACKGROUND
+    )
+    private val coroutineScope =
+        CoroutineScope(SupervisorJob() + executor.asCoroutineDispatcher())
+
+    private val channel = Channel<Item>(config.capacity, onUndeliveredElement = { it.close() })
+    private val bufferPool = ByteBufferPool(true)
+
+    private val queuedFrameCount = AtomicLong(0)
+    private val queuedSizeInBytes = AtomicLong(0)
+    private val heldCodecBufferCount = AtomicInteger(0)
+    private val copiedFrameCount = AtomicLong(0)
+    private val droppedFrameCount = AtomicLong(0)
+    private val queueLatency = LatencyHistogram()
+
+    /**
+     * Streams whose frames are dropped until the next key frame.
+     */
+    private val streamIdsWaitingForKeyFrame = ConcurrentHashMap.newKeySet<Int>()
+
+    val metrics: AsyncWriteMetrics
+        get() = AsyncWriteMetrics(
+            queuedFrameCount.get(),
+            queuedSizeInBytes.get(),
+            copiedFrameCount.get(),
+            droppedFrameCount.get(),
+            queueLatency.snapshot()
+        )
+
+    init {
+        coroutineScope.launch {
+            for (item in channel) {
+                when (item) {
+                    is Item.QueuedFrame -> {
+                        queueLatency.record((System.nanoTime() - item.enqueueTimeNs) / 1000)
+                        try {
+                            write(item.closeableFrame, item.streamId)
+                        } catch (e: CancellationException) {
+                            throw e
+                        } catch (t: Throwable) {
+                            Logger.e(TAG, "Error while writing frame: ${t.message}")
+                        }
+                    }
+
+                    is Item.Flush -> item.deferred.complete(Unit)
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues a frame to be written.
+     *
+     * @param closeableFrame the frame to write
+     * @param streamId the stream id of the frame
+     */
+    fun enqueue(closeableFrame: FrameWithCloseable, streamId: Int) {
+        val frame = closeableFrame.frame
+        if (streamIdsWaitingForKeyFrame.contains(streamId)) {
+            if (frame.isKeyFrame) {
+                streamIdsWaitingForKeyFrame.remove(streamId)
+            } else {
+                drop(closeableFrame)
+                return
+            }
+        }
+
+        val sizeInBytes = frame.rawBuffer.remaining().toLong()
+        if (queuedSizeInBytes.get() + sizeInBytes > config.maxQueueSizeInBytes) {
+            dropUntilKeyFrame(closeableFrame, streamId)
+            return
+        }
+
+        val queuedFrame =
+            if (heldCodecBufferCount.incrementAndGet() > config.maxHeldCodecBuffers) {
+                heldCodecBufferCount.decrementAndGet()
+                copy(closeableFrame)
+            } else {
+                FrameWithCloseable(frame) {
+                    heldCodecBufferCount.decrementAndGet()
+                    closeableFrame.close()
+                }
+            }
+
+        queuedFrameCount.incrementAndGet()
+        queuedSizeInBytes.addAndGet(sizeInBytes)
+        val trackedFrame = FrameWithCloseable(queuedFrame.frame) {
+            queuedFrameCount.decrementAndGet()
+            queuedSizeInBytes.addAndGet(-sizeInBytes)
+            queuedFrame.close()
+        }
+
+        val result = channel.trySend(Item.QueuedFrame(trackedFrame, streamId, System.nanoTime()))
+        if (result.isFailure) {
+            droppedFrameCount.incrementAndGet()
+            streamIdsWaitingForKeyFrame.add(streamId)
+            trackedFrame.close()
+        }
+    }
+
+    private fun copy(closeableFrame: FrameWithCloseable): FrameWithCloseable {
+        val frame = closeableFrame.frame
+        val buffer = bufferPool.get(frame.rawBuffer.remaining())
+        buffer.put(frame.rawBuffer.duplicate())
+        buffer.flip()
+        closeableFrame.close()
+        copiedFrameCount.incrementAndGet()
+        return FrameWithCloseable(frame.copy(rawBuffer = buffer)) {
+            try {
+                bufferPool.put(buffer)
+            } catch (_: IllegalStateException) {
+                // Pool is closed
+            }
+        }
+    }
+
+    private fun dropUntilKeyFrame(closeableFrame: FrameWithCloseable, streamId: Int) {
+        if (droppedFrameCount.get() == 0L) {
+            Logger.w(TAG, "Write queue is full: dropping frames")
+        }
+        streamIdsWaitingForKeyFrame.add(streamId)
+        drop(closeableFrame)
+    }
+
+    private fun drop(closeableFrame: FrameWithCloseable) {
+        droppedFrameCount.incrementAndGet()
+        closeableFrame.close()
+    }
+
+    /**
+     * Waits until all the frames queued before this call have been written.
+     */
+    suspend fun flush() {
+        val deferred = CompletableDeferred<Unit>()
+        channel.send(Item.Flush(deferred))
+        deferred.await()
+    }
+
+    /**
+     * Drops all queued frames and stops the writer thread.
+     */
+    fun release() {
+        channel.cancel()
+        coroutineScope.cancel()
+        executor.shutdown()
+        bufferPool.close()
+    }
+
+    private sealed interface Item {
+        fun close()
+
+        class QueuedFrame(
+            val closeableFrame: FrameWithCloseable,
+            val streamId: Int,
+            val enqueueTimeNs: Long
+        ) : Item {
+            override fun close() = closeableFrame.close()
+        }
+
+        class Flush(val deferred: CompletableDeferred<Unit>) : Item {
+            override fun close() {
+                deferred.complete(Unit)
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "AsyncFrameWriter"
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints
+
+import android.content.Context
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.createDefaultTsServiceInfo
+import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.CompositeEndpoint
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.TsMuxer
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.data.TSServiceInfo
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.ChunkedFileOutputStreamSink
+import io.github.thibaultbee.streampack.core.elements.utils.ChunkedFileOutputStream
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import io.github.thibaultbee.streampack.core.elements.utils.trace.Traceable
+import io.github.thibaultbee.streampack.core.pipelines.IDispatcherProvider
+import kotlinx.coroutines.CoroutineDispatcher
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * An [IEndpointInternal] that writes the stream as MPEG-TS files of a fixed size.
+ *
+ * Files are written by a [ChunkedFileOutputStreamSink]. Each completed file is reported to the
+ * listeners added with [addListener], so that it can be uploaded while recording. Concatenate the
+ * files in their index order to get the whole recording.
+ *
+ * The media descriptor is the recording file, for example `file:///.../record.ts`. Files are
+ * named after it: `record_0`, `record_1`,...
+ *
+ * By default, frames are written in [write]. With an [AsyncWriteConfig], frames are queued and
+ * written on a dedicated thread so that a slow storage does not block the encoders.
+ *
+ * @param chunkSize the size of each file in bytes
+ * @param ioDispatcher the dispatcher of the file writes
+ * @param asyncWriteConfig the asynchronous write configuration or null for synchronous writes
+ */
+class ChunkedTsFileEndpoint private constructor(
+    private val muxer: TsMuxer,
+    private val sink: ChunkedFileOutputStreamSink,
+    private val endpoint: CompositeEndpoint,
+    asyncWriteConfig: AsyncWriteConfig?
+) : IEndpointInternal by endpoint, Traceable by endpoint, MetricsProducer {
+    constructor(
+        chunkSize: Int,
+        ioDispatcher: CoroutineDispatcher,
+        asyncWriteConfig: AsyncWriteConfig? = null
+    ) : this(TsMuxer(), ChunkedFileOutputStreamSink(chunkSize, ioDispatcher), asyncWriteConfig)
+
+    private constructor(
+        muxer: TsMuxer,
+        sink: ChunkedFileOutputStreamSink,
+        asyncWriteConfig: AsyncWriteConfig?
+    ) : this(muxer, sink, CompositeEndpoint(muxer, sink), asyncWriteConfig)
+
+    private val asyncWriter =
+        asyncWriteConfig?.let { AsyncFrameWriter(it, "chunk-writer", ::writeFrame) }
+
+    private val writtenFrameCount = AtomicLong(0)
+    private val writtenSizeInBytes = AtomicLong(0)
+
+    override val metrics: Metrics
+        get() = Metrics(
+            writtenFrameCount.get(),
+            writtenSizeInBytes.get(),
+            asyncWriter?.metrics
+        )
+
+    override fun registerMetrics(registry: MetricsRegistry) {
+        endpoint.registerMetrics(registry)
+        registry.gauge("written_frames") { writtenFrameCount.get() }
+        registry.gauge("written_bytes") { writtenSizeInBytes.get() }
+        if (asyncWriter != null) {
+            registry.gauge("queued_frames") { asyncWriter.metrics.queuedFrameCount }
+            registry.gauge("queued_bytes") { asyncWriter.metrics.queuedSizeInBytes }
+            registry.gauge("dropped_frames") { asyncWriter.metrics.droppedFrameCount }
+        }
+    }
+
+    /**
+     * Adds a listener of the completed files.
+     *
+     * @param listener the listener to add
+     */
+    fun addListener(listener: ChunkedFileOutputStream.Listener) = sink.addListener(listener)
+
+    /**
+     * Removes a listener of the completed files.
+     *
+     * @param listener the listener to remove
+     */
+    fun removeListener(listener: ChunkedFileOutputStream.Listener) = sink.removeListener(listener)
+
+    override suspend fun open(descriptor: MediaDescriptor) {
+        muxer.removeServices()
+        muxer.addService(
+            descriptor.getCustomData(TSServiceInfo::class.java) ?: createDefaultTsServiceInfo()
+        )
+        endpoint.open(descriptor)
+    }
+
+    override suspend fun write(closeableFrame: FrameWithCloseable, streamPid: Int) {
+        if (asyncWriter != null) {
+            asyncWriter.enqueue(closeableFrame, streamPid)
+        } else {
+            writeFrame(closeableFrame, streamPid)
+        }
+    }
+
+    private suspend fun writeFrame(closeableFrame: FrameWithCloseable, streamPid: Int) {
+        val sizeInBytes = closeableFrame.frame.rawBuffer.remaining()
+        // The frame is closed by the muxer
+        endpoint.write(closeableFrame, streamPid)
+        writtenFrameCount.incrementAndGet()
+        writtenSizeInBytes.addAndGet(sizeInBytes.toLong())
+    }
+
+    override suspend fun stopStream() {
+        // Writes the queued frames before the last file is completed
+        asyncWriter?.flush()
+        endpoint.stopStream()
+    }
+
+    override suspend fun release() {
+        asyncWriter?.release()
+        endpoint.release()
+    }
+
+    /**
+     * Metrics of a [ChunkedTsFileEndpoint].
+     *
+     * @param writtenFrameCount the number of frames written to the muxer
+     * @param writtenSizeInBytes the size of the frames written to the muxer, without the MPEG-TS
+     * overhead
+     * @param asyncWrite the asynchronous write metrics or null for synchronous writes
+     */
+    data class Metrics(
+        val writtenFrameCount: Long,
+        val writtenSizeInBytes: Long,
+        val asyncWrite: AsyncWriteMetrics?
+    )
+}
+
+/**
+ * A factory to build a [ChunkedTsFileEndpoint].
+ *
+ * @param chunkSize the size of each file in bytes
+ * @param asyncWriteConfig the asynchronous write configuration or null for synchronous writes
+ */
+class ChunkedTsFileEndpointFactory(
+    private val chunkSize: Int,
+    private val asyncWriteConfig: AsyncWriteConfig? = null
+) : IEndpointInternal.Factory {
+    override fun create(
+        context: Context,
+        dispatcherProvider: IDispatcherProvider
+    ): IEndpointInternal = ChunkedTsFileEndpoint(chunkSize, dispatcherProvider.io, asyncWriteConfig)
+}
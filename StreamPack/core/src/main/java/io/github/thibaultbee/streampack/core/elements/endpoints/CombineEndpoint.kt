@@ -17,24 +17,38 @@ package io.github.thibaultbee.streampack.core.elements.endpoints
 
 import android.content.Context
 import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.data.Frame
 import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
 import io.github.thibaultbee.streampack.core.elements.encoders.CodecConfig
+import io.github.thibaultbee.streampack.core.elements.utils.LatencyHistogram
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.intersect
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import io.github.thibaultbee.streampack.core.elements.utils.pool.ByteBufferPool
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineTracer
+import io.github.thibaultbee.streampack.core.elements.utils.trace.Traceable
 import io.github.thibaultbee.streampack.core.logger.Logger
 import io.github.thibaultbee.streampack.core.pipelines.IDispatcherProvider
 import io.github.thibaultbee.streampack.core.pipelines.utils.MultiThrowable
-import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.combineTransform
 import kotlinx.coroutines.flow.merge
 import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeout
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 
 
 /**
@@ -46,6 +60,31 @@ import kotlinx.coroutines.launch
 fun CombineEndpoint(vararg endpoints: IEndpointInternal, coroutineDispatcher: CoroutineDispatcher) =
     CombineEndpoint(endpoints.toList(), coroutineDispatcher)
 
+/**
+ * Write metrics of an endpoint of a [CombineEndpoint].
+ *
+ * @param endpoint the endpoint
+ * @param queuedFrameCount the number of frames waiting to be written
+ * @param writtenFrameCount the number of frames written
+ * @param droppedFrameCount the number of frames dropped because the queue was full or because
+ * the endpoint was waiting for a key frame after a drop
+ * @param copiedFrameCount the number of frames copied because the endpoint already held the
+ * maximum number of encoder buffers
+ * @param failedWriteCount the number of writes that threw
+ * @param isDegraded whether the last write of the endpoint failed
+ * @param latency the time between a frame being queued and being written
+ */
+data class EndpointWriteMetrics(
+    val endpoint: IEndpoint,
+    val queuedFrameCount: Int,
+    val writtenFrameCount: Long,
+    val droppedFrameCount: Long,
+    val copiedFrameCount: Long,
+    val failedWriteCount: Long,
+    val isDegraded: Boolean,
+    val latency: LatencyHistogram.Snapshot
+)
+
 /**
  * Combines multiple endpoints into one.
  * This endpoint will write frames to all endpoints if they are opened.
@@ -56,16 +95,43 @@ fun CombineEndpoint(vararg endpoints: IEndpointInternal, coroutineDispatcher: Co
  * For specific behavior like reconnecting your remote endpoint, you can create a custom endpoint that
  * inherits from [CombineEndpoint] and override [open], [close], [startStream], [stopStream].
  *
+ * Each endpoint has its own bounded queue and writer coroutine so that a slow endpoint does not
+ * delay the others. When the queue of an endpoint is full, its frames are dropped until the next
+ * key frame. An endpoint that fails to write is degraded but the others keep being written.
+ * [write] throws when every opened endpoint is degraded.
+ *
+ * Queued frames hold the encoder buffers until they are written. The encoder only has a few
+ * buffers, so an endpoint holds at most [maxHeldCodecBuffers] of them: the next frames are copied
+ * to pooled buffers. That way, a slow endpoint does not starve the encoder of the others.
+ *
  * @param endpointInternals List of endpoints to combine
  * @param coroutineDispatcher Coroutine dispatcher to use for frame writing
+ * @param queueCapacity the number of frames that can be queued per endpoint
+ * @param timeoutInMs the timeout of [open] and [startStream] per endpoint
+ * @param maxHeldCodecBuffers the maximum number of encoder buffers held per endpoint
  */
 open class CombineEndpoint(
     protected val endpointInternals: List<IEndpointInternal>,
-    coroutineDispatcher: CoroutineDispatcher
+    coroutineDispatcher: CoroutineDispatcher,
+    queueCapacity: Int = DEFAULT_QUEUE_CAPACITY,
+    private val timeoutInMs: Long = DEFAULT_TIMEOUT_MS,
+    private val maxHeldCodecBuffers: Int = DEFAULT_MAX_HELD_CODEC_BUFFERS
 ) :
-    IEndpointInternal {
+    IEndpointInternal, Traceable, MetricsProducer {
+    init {
+        require(maxHeldCodecBuffers >= 0) { "Max held codec buffers must not be negative" }
+    }
+
     private val coroutineScope = CoroutineScope(SupervisorJob() + coroutineDispatcher)
 
+    private val writers = endpointInternals.associateWith { EndpointWriter(it, queueCapacity) }
+
+    override var tracer: PipelineTracer? = null
+        set(value) {
+            field = value
+            endpointInternals.forEach { (it as? Traceable)?.tracer = value }
+        }
+
     /**
      * Internal map of endpoint streamId to real streamIds
      */
@@ -116,12 +182,23 @@ open class CombineEndpoint(
     }
 
     /**
-     * Throws [UnsupportedOperationException] because [CombineEndpoint] does not have metrics.
+     * The list of [EndpointWriteMetrics] of each endpoint.
      *
-     * Call [IEndpoint.metrics] on each endpoint to get their metrics.
+     * Call [IEndpoint.metrics] on each endpoint to get their own metrics.
      */
-    override val metrics: Any
-        get() = throw UnsupportedOperationException("CombineEndpoint does not have metrics.")
+    override val metrics: List<EndpointWriteMetrics>
+        get() = writers.values.map { it.getMetrics() }
+
+    /**
+     * Registers the write metrics and the metrics of each endpoint, prefixed by the endpoint index.
+     */
+    override fun registerMetrics(registry: MetricsRegistry) {
+        endpointInternals.forEachIndexed { index, endpoint ->
+            val endpointRegistry = registry.child(index.toString())
+            writers.getValue(endpoint).registerMetrics(endpointRegistry.child("writer"))
+            (endpoint as? MetricsProducer)?.registerMetrics(endpointRegistry)
+        }
+    }
 
     private fun createNewStreamId(): Int {
         var i = 0
@@ -170,12 +247,10 @@ open class CombineEndpoint(
         require(descriptor.descriptors.size == endpointInternals.size) {
             "CombineDescriptor must have the same number of descriptors as endpoints."
         }
-        endpointInternals.forEachIndexed { index, endpoint ->
-            try {
-                endpoint.open(descriptor.descriptors[index])
-            } catch (t: Throwable) {
-                Logger.e(TAG, "Failed to open endpoint $endpoint", t)
-            }
+        runConcurrently(endpointInternals) { index, endpoint ->
+            endpoint.open(descriptor.descriptors[index])
+        }.forEach { (endpoint, t) ->
+            Logger.e(TAG, "Failed to open endpoint $endpoint", t)
         }
     }
 
@@ -193,10 +268,51 @@ open class CombineEndpoint(
     }
 
     /**
-     * Starts all endpoints
+     * Starts all endpoints concurrently.
+     *
+     * It only throws if every endpoint fails to start.
      */
     override suspend fun startStream() {
-        endpointInternals.forEach { endpoint -> endpoint.startStream() }
+        val failures = runConcurrently(endpointInternals) { _, endpoint ->
+            endpoint.startStream()
+        }
+        if (failures.size == endpointInternals.size) {
+            val throwables = failures.map { it.second }
+            if (throwables.size == 1) {
+                throw throwables.first()
+            }
+            throw MultiThrowable(throwables)
+        }
+        failures.forEach { (endpoint, t) ->
+            Logger.e(TAG, "Failed to start endpoint $endpoint", t)
+        }
+    }
+
+    /**
+     * Runs [block] for all [endpoints] concurrently, each with its own timeout.
+     *
+     * @return the endpoints that failed with their throwable
+     */
+    private suspend fun runConcurrently(
+        endpoints: List<IEndpointInternal>,
+        block: suspend (Int, IEndpointInternal) -> Unit
+    ): List<Pair<IEndpointInternal, Throwable>> = kotlinx.coroutines.coroutineScope {
+        endpoints.mapIndexed { index, endpoint ->
+            async {
+                try {
+                    withTimeout(timeoutInMs) {
+                        block(index, endpoint)
+                    }
+                    null
+                } catch (e: TimeoutCancellationException) {
+                    Pair(endpoint, e)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (t: Throwable) {
+                    Pair(endpoint, t)
+                }
+            }
+        }.awaitAll().filterNotNull()
     }
 
     /**
@@ -210,54 +326,53 @@ open class CombineEndpoint(
                 Logger.e(TAG, "Failed to stop endpoint $endpoint", t)
             }
         }
+        writers.values.forEach { it.reset() }
         endpointsToStreamIdsMap.clear()
     }
 
     /**
-     * Writes frame to all opened endpoints.
+     * Queues frame to all opened endpoints.
+     *
+     * The frame is closed once every endpoint has written it, copied it or dropped it. If no
+     * endpoint is opened (for example, while they reconnect), the frame is dropped.
      *
-     * If all endpoints write fails, it throws the exception of the first endpoint that failed.
+     * It throws if the last write of every opened endpoint failed, so that the pipeline stops.
      */
     override suspend fun write(closeableFrame: FrameWithCloseable, streamPid: Int) {
         val frame = closeableFrame.frame
-        val throwables = mutableListOf<Throwable>()
+        val openedWriters = writers.values.filter { it.endpoint.isOpenFlow.value }
+        if (openedWriters.isEmpty()) {
+            closeableFrame.close()
+            return
+        }
+        val throwables = openedWriters.mapNotNull { it.throwable }
+        if (throwables.size == openedWriters.size) {
+            closeableFrame.close()
+            if (throwables.size == 1) {
+                throw throwables.first()
+            }
+            throw MultiThrowable(throwables)
+        }
 
         /**
-         * Track the number of frames written and processed to call onFrameProcessed only once
-         * when all endpoints have processed the frame.
+         * Track the number of endpoints that have not processed the frame yet to close it only
+         * once when all endpoints have processed the frame.
          */
-        val deferreds = mutableListOf<Deferred<*>>()
-
-        endpointInternals.filter { it.isOpenFlow.value }.forEach { endpoint ->
-            try {
-                val deferred = CompletableDeferred<Unit>()
-                val duplicatedFrame = FrameWithCloseable(
-                    frame.copy(rawBuffer = frame.rawBuffer.duplicate()),
-                    { deferred.complete(Unit) })
-
-                val endpointStreamId = endpointsToStreamIdsMap[Pair(endpoint, streamPid)]!!
-                deferreds += deferred
-                endpoint.write(duplicatedFrame, endpointStreamId)
-            } catch (t: Throwable) {
-                Logger.e(TAG, "Failed to get stream id for endpoint $endpoint", t)
-                throwables += t
+        val remainingCount = AtomicInteger(openedWriters.size)
+        val onProcessed = {
+            if (remainingCount.decrementAndGet() == 0) {
+                closeableFrame.close()
             }
         }
 
-        coroutineScope.launch {
-            deferreds.forEach { it.await() }
-            closeableFrame.close()
-        }
-
-        if (throwables.isNotEmpty()) {
-            if (endpoints.none { it.isOpenFlow.value }) {
-                /**
-                 * If no endpoint is opened, the exception is thrown directly to stop the pipeline.
-                 */
-                if (throwables.size == 1) {
-                    throw throwables.first()
-                }
-                throw MultiThrowable(throwables)
+        openedWriters.forEach { writer ->
+            val duplicatedFrame = writer.duplicate(frame, onProcessed)
+            val endpointStreamId = endpointsToStreamIdsMap[Pair(writer.endpoint, streamPid)]
+            if (endpointStreamId == null) {
+                Logger.e(TAG, "Failed to get stream id for endpoint ${writer.endpoint}")
+                duplicatedFrame.close()
+            } else {
+                writer.enqueue(duplicatedFrame, endpointStreamId)
             }
         }
     }
@@ -271,12 +386,212 @@ open class CombineEndpoint(
             }
         }
         coroutineScope.coroutineContext.cancelChildren()
+        writers.values.forEach { it.release() }
     }
 
     companion object {
         private const val TAG = "CombineEndpoint"
+
+        /**
+         * Default number of frames that can be queued per endpoint.
+         */
+        const val DEFAULT_QUEUE_CAPACITY = 120
+
+        /**
+         * Default number of encoder buffers held per endpoint.
+         */
+        const val DEFAULT_MAX_HELD_CODEC_BUFFERS = 2
+
+        /**
+         * Default timeout of [open] and [startStream] per endpoint.
+         */
+        const val DEFAULT_TIMEOUT_MS = 10_000L
     }
 
+    /**
+     * Writes the frames of an endpoint from its own queue.
+     */
+    private inner class EndpointWriter(
+        val endpoint: IEndpointInternal,
+        queueCapacity: Int
+    ) {
+        private val channel = Channel<QueuedFrame>(
+            queueCapacity,
+            onUndeliveredElement = { it.closeableFrame.close() })
+
+        private val bufferPool = ByteBufferPool(true)
+
+        private val queuedFrameCount = AtomicInteger(0)
+        private val heldCodecBufferCount = AtomicInteger(0)
+        private val writtenFrameCount = AtomicLong(0)
+        private val droppedFrameCount = AtomicLong(0)
+        private val copiedFrameCount = AtomicLong(0)
+        private val failedWriteCount = AtomicLong(0)
+        private val latency = LatencyHistogram()
+
+        /**
+         * The failure of the last write or null if it succeeded.
+         */
+        @Volatile
+        var throwable: Throwable? = null
+            private set
+
+        private val isDegraded: Boolean
+            get() = throwable != null
+
+        /**
+         * Streams whose frames are dropped until the next key frame.
+         */
+        private val streamIdsWaitingForKeyFrame = ConcurrentHashMap.newKeySet<Int>()
+
+        init {
+            coroutineScope.launch {
+                for (queuedFrame in channel) {
+                    queuedFrameCount.decrementAndGet()
+                    write(queuedFrame)
+                }
+            }
+        }
+
+        /**
+         * Duplicates [frame] for this endpoint.
+         *
+         * The duplicate shares the encoder buffer until the endpoint holds [maxHeldCodecBuffers]
+         * of them. Then, the frame is copied to a pooled buffer and [onProcessed] is called
+         * immediately.
+         *
+         * @param frame the encoded frame
+         * @param onProcessed called once this endpoint does not need the encoder buffer anymore
+         */
+        fun duplicate(frame: Frame, onProcessed: () -> Unit): FrameWithCloseable {
+            if (heldCodecBufferCount.incrementAndGet() <= maxHeldCodecBuffers) {
+                return FrameWithCloseable(frame.copy(rawBuffer = frame.rawBuffer.duplicate())) {
+                    heldCodecBufferCount.decrementAndGet()
+                    onProcessed()
+                }
+            }
+            heldCodecBufferCount.decrementAndGet()
+
+            val buffer = bufferPool.get(frame.rawBuffer.remaining())
+            buffer.put(frame.rawBuffer.duplicate())
+            buffer.flip()
+            copiedFrameCount.incrementAndGet()
+            onProcessed()
+            return FrameWithCloseable(frame.copy(rawBuffer = buffer)) {
+                try {
+                    bufferPool.put(buffer)
+                } catch (_: IllegalStateException) {
+                    // Pool is closed
+                }
+            }
+        }
+
+        fun enqueue(closeableFrame: FrameWithCloseable, streamId: Int) {
+            if (streamIdsWaitingForKeyFrame.contains(streamId)) {
+                if (closeableFrame.frame.isKeyFrame) {
+                    streamIdsWaitingForKeyFrame.remove(streamId)
+                } else {
+                    drop(closeableFrame)
+                    return
+                }
+            }
+
+            queuedFrameCount.incrementAndGet()
+            val result = channel.trySend(
+                QueuedFrame(closeableFrame, streamId, System.nanoTime())
+            )
+            if (result.isFailure) {
+                queuedFrameCount.decrementAndGet()
+                if (droppedFrameCount.get() == 0L) {
+                    Logger.w(TAG, "Queue of endpoint $endpoint is full: dropping frames")
+                }
+                // Next frames depend on the dropped frame
+                streamIdsWaitingForKeyFrame.add(streamId)
+                drop(closeableFrame)
+            }
+        }
+
+        private fun drop(closeableFrame: FrameWithCloseable) {
+            droppedFrameCount.incrementAndGet()
+            closeableFrame.close()
+        }
+
+        private suspend fun write(queuedFrame: QueuedFrame) {
+            try {
+                endpoint.write(queuedFrame.closeableFrame, queuedFrame.streamId)
+                writtenFrameCount.incrementAndGet()
+                latency.record((System.nanoTime() - queuedFrame.enqueueTimeNs) / 1000)
+                if (isDegraded) {
+                    Logger.i(TAG, "Endpoint $endpoint has recovered")
+                    throwable = null
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (t: Throwable) {
+                failedWriteCount.incrementAndGet()
+                if (!isDegraded) {
+                    Logger.e(TAG, "Failed to write to endpoint $endpoint", t)
+                }
+                throwable = t
+            }
+        }
+
+        /**
+         * Drops all queued frames.
+         */
+        fun flush() {
+            while (true) {
+                val queuedFrame = channel.tryReceive().getOrNull() ?: break
+                queuedFrameCount.decrementAndGet()
+                queuedFrame.closeableFrame.close()
+            }
+        }
+
+        /**
+         * Drops all queued frames and resets the state of the stream.
+         */
+        fun reset() {
+            flush()
+            streamIdsWaitingForKeyFrame.clear()
+            throwable = null
+        }
+
+        /**
+         * Drops all queued frames and releases the pooled buffers.
+         */
+        fun release() {
+            flush()
+            bufferPool.close()
+        }
+
+        fun registerMetrics(registry: MetricsRegistry) {
+            registry.gauge("queued_frames") { queuedFrameCount.get() }
+            registry.gauge("written_frames") { writtenFrameCount.get() }
+            registry.gauge("dropped_frames") { droppedFrameCount.get() }
+            registry.gauge("copied_frames") { copiedFrameCount.get() }
+            registry.gauge("failed_writes") { failedWriteCount.get() }
+            registry.gauge("degraded") { if (isDegraded) 1 else 0 }
+            registry.histogram("latency", latency)
+        }
+
+        fun getMetrics() = EndpointWriteMetrics(
+            endpoint,
+            queuedFrameCount.get(),
+            writtenFrameCount.get(),
+            droppedFrameCount.get(),
+            copiedFrameCount.get(),
+            failedWriteCount.get(),
+            isDegraded,
+            latency.snapshot()
+        )
+    }
+
+    private class QueuedFrame(
+        val closeableFrame: FrameWithCloseable,
+        val streamId: Int,
+        val enqueueTimeNs: Long
+    )
+
     /**
      * A [MediaDescriptor] that combines multiple [MediaDescriptor]s.
      */
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints
+
+import java.io.IOException
+
+/**
+ * Class that encapsulates the rejection of a connection by the server (invalid stream key or
+ * stream ID, wrong credentials,...).
+ *
+ * Connecting again fails the same way: [ReconnectEndpoint] does not retry on this error.
+ */
+class ConnectionRejectedException(message: String? = null, cause: Throwable? = null) :
+    IOException(message, cause) {
+    constructor(message: String) : this(message, null)
+    constructor(cause: Throwable) : this(cause.message, cause)
+}
@@ -23,9 +23,15 @@ import io.github.thibaultbee.streampack.core.elements.encoders.CodecConfig
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.CompositeEndpoint
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.TsMuxer
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.data.TSServiceInfo
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.relay.ITsRelay
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.ContentSink
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.FileSink
 import io.github.thibaultbee.streampack.core.elements.utils.ConflatedJob
+import io.github.thibaultbee.streampack.core.elements.utils.av.video.TimingSeiInjectable
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineTracer
+import io.github.thibaultbee.streampack.core.elements.utils.trace.Traceable
 import io.github.thibaultbee.streampack.core.logger.Logger
 import io.github.thibaultbee.streampack.core.pipelines.IDispatcherProvider
 import kotlinx.coroutines.CoroutineDispatcher
@@ -48,7 +54,7 @@ open class DynamicEndpoint(
     private val context: Context,
     private val defaultDispatcher: CoroutineDispatcher,
     private val ioDispatcher: CoroutineDispatcher
-) : IEndpointInternal {
+) : IEndpointInternal, Traceable, MetricsProducer, TimingSeiInjectable {
     private val coroutineScope = CoroutineScope(defaultDispatcher)
     private val mutex = Mutex()
 
@@ -63,7 +69,9 @@ open class DynamicEndpoint(
     private var flvContentEndpoint: IEndpointInternal? = null
     private var tsFileEndpoint: IEndpointInternal? = null
     private var tsContentEndpoint: IEndpointInternal? = null
+    private var hlsEndpoint: IEndpointInternal? = null
     private var srtEndpoint: IEndpointInternal? = null
+    private var srtRelayEndpoint: IEndpointInternal? = null
     private var rtmpEndpoint: IEndpointInternal? = null
 
     private val isOpenJob = ConflatedJob()
@@ -87,6 +95,58 @@ open class DynamicEndpoint(
     override val metrics: Any
         get() = endpoint?.metrics ?: throw IllegalStateException("Endpoint is not opened")
 
+    @Volatile
+    override var tracer: PipelineTracer? = null
+        set(value) {
+            field = value
+            (endpoint as? Traceable)?.tracer = value
+        }
+
+    /**
+     * Applies to the current endpoint and to the endpoints opened later, if they support timing
+     * messages.
+     */
+    @Volatile
+    override var isTimingSeiEnabled = false
+        set(value) {
+            field = value
+            (endpoint as? TimingSeiInjectable)?.isTimingSeiEnabled = value
+        }
+
+    @Volatile
+    private var metricsRegistry: MetricsRegistry? = null
+
+    /**
+     * Registers the metrics of the current endpoint. They are replaced when another endpoint is
+     * opened.
+     */
+    override fun registerMetrics(registry: MetricsRegistry) {
+        metricsRegistry = registry
+        registerEndpointMetrics(endpoint)
+    }
+
+    private fun registerEndpointMetrics(endpoint: IEndpointInternal?) {
+        val registry = metricsRegistry ?: return
+        registry.unregisterAll()
+        (endpoint as? MetricsProducer)?.registerMetrics(registry)
+    }
+
+    /**
+     * Whether the SRT endpoint can relay an incoming MPEG-TS stream through [tsRelay].
+     *
+     * Relaying locks and rewrites every packet, so it is disabled by default. Applies from the next
+     * [open].
+     */
+    @Volatile
+    var isTsRelayEnabled = false
+
+    /**
+     * The MPEG-TS relay of the current endpoint or null if the current endpoint does not support
+     * relaying (only SRT does, when [isTsRelayEnabled] was set before [open]).
+     */
+    val tsRelay: ITsRelay?
+        get() = ((endpoint as? CompositeEndpoint)?.sink as? ITsRelay)
+
     init {
         coroutineScope.launch {
             isOpenFlows.collect { isOpenFlow ->
@@ -175,6 +235,9 @@ open class DynamicEndpoint(
 
     private fun prepareEndpoint(mediaDescriptor: MediaDescriptor): IEndpointInternal {
         val endpoint = getEndpoint(mediaDescriptor.type)
+        (endpoint as? Traceable)?.tracer = tracer
+        (endpoint as? TimingSeiInjectable)?.isTimingSeiEnabled = isTimingSeiEnabled
+        registerEndpointMetrics(endpoint)
 
         if (endpoint is CompositeEndpoint) {
             if (endpoint.muxer is TsMuxer) {
@@ -195,12 +258,14 @@ open class DynamicEndpoint(
                 MediaContainerType.MP4, MediaContainerType.WEBM, MediaContainerType.OGG, MediaContainerType.THREEGP -> getMediaMuxerEndpoint()
                 MediaContainerType.TS -> getTsFileEndpoint()
                 MediaContainerType.FLV -> getFlvFileEndpoint()
+                MediaContainerType.HLS -> getHlsEndpoint()
             }
 
             MediaSinkType.CONTENT -> when (type.containerType) {
                 MediaContainerType.MP4, MediaContainerType.WEBM, MediaContainerType.OGG, MediaContainerType.THREEGP -> getMediaMuxerEndpoint()
                 MediaContainerType.TS -> getTsContentEndpoint()
                 MediaContainerType.FLV -> getFlvContentEndpoint()
+                MediaContainerType.HLS -> throw UnsupportedOperationException("HLS is only supported for files")
             }
 
             MediaSinkType.SRT -> getSrtEndpoint()
@@ -250,7 +315,21 @@ open class DynamicEndpoint(
         return tsContentEndpoint!!
     }
 
+    private fun getHlsEndpoint(): IEndpointInternal {
+        if (hlsEndpoint == null) {
+            hlsEndpoint = HlsEndpoint(ioDispatcher)
+        }
+        return hlsEndpoint!!
+    }
+
     private fun getSrtEndpoint(): IEndpointInternal {
+        if (isTsRelayEnabled) {
+            if (srtRelayEndpoint == null) {
+                srtRelayEndpoint =
+                    Endpoints.createSrtEndpoint(null, ioDispatcher, withTsRelay = true)
+            }
+            return srtRelayEndpoint!!
+        }
         if (srtEndpoint == null) {
             srtEndpoint = Endpoints.createSrtEndpoint(null, ioDispatcher)
         }
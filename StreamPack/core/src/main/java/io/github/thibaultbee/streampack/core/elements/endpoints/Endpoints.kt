@@ -5,6 +5,7 @@ import io.github.thibaultbee.streampack.core.elements.endpoints.composites.Compo
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.CompositeEndpoints
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.TsMuxer
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.data.TSServiceInfo
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.TsRelaySink
 import kotlinx.coroutines.CoroutineDispatcher
 
 object Endpoints {
@@ -87,17 +88,21 @@ object Endpoints {
     }
 
     /**
-     * Creates an endpoint for SRT (with a TS muxer)
+     * Creates an endpoint for SRT (with a TS muxer).
+     *
+     * @param withTsRelay whether the sink is a [TsRelaySink] so that an incoming MPEG-TS stream can
+     * be relayed
      */
     internal fun createSrtEndpoint(
         serviceInfo: TSServiceInfo?,
-        coroutineDispatcher: CoroutineDispatcher
+        coroutineDispatcher: CoroutineDispatcher,
+        withTsRelay: Boolean = false
     ): IEndpointInternal {
         val sink = CompositeEndpoints.createSrtSink(coroutineDispatcher)
         val muxer = TsMuxer()
         if (serviceInfo != null) {
             muxer.addService(serviceInfo)
         }
-        return CompositeEndpoint(muxer, sink)
+        return CompositeEndpoint(muxer, if (withTsRelay) TsRelaySink(sink) else sink)
     }
 }
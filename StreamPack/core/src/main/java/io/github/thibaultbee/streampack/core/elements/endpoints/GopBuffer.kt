@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints
+
+import io.github.thibaultbee.streampack.core.elements.data.Frame
+import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
+import io.github.thibaultbee.streampack.core.elements.data.isVideo
+import io.github.thibaultbee.streampack.core.elements.utils.pool.ByteBufferPool
+import java.nio.ByteBuffer
+
+/**
+ * A bounded buffer of the last encoded frames that always starts on a key frame.
+ *
+ * Frames are copied to pooled buffers so that the encoder buffers are released immediately. The
+ * buffer keeps the frames from the last video key frame that is at least [retentionInUs] older than
+ * the newest frame. For audio only streams, every frame is a key frame.
+ *
+ * Above [maxSizeInBytes], the oldest GOPs are dropped.
+ *
+ * This class is not thread-safe.
+ *
+ * @param maxSizeInBytes the maximum size of the buffered frames
+ * @param retentionInUs the minimum duration of buffered frames. 0 to keep from the last key frame.
+ */
+internal class GopBuffer(
+    private val maxSizeInBytes: Long,
+    private val retentionInUs: Long = 0
+) {
+    init {
+        require(maxSizeInBytes > 0) { "Max size must be positive: $maxSizeInBytes" }
+        require(retentionInUs >= 0) { "Retention must not be negative: $retentionInUs" }
+    }
+
+    private val bufferPool = ByteBufferPool(true)
+    private val entries = ArrayDeque<Entry>()
+    private var anchorCount = 0
+
+    /**
+     * Whether frames are only trimmed to [maxSizeInBytes].
+     */
+    var isRetentionPaused = false
+
+    /**
+     * Whether the streams have a video stream. If not, all frames are key frames.
+     */
+    var hasVideo = true
+
+    /**
+     * The size of the buffered frames in bytes.
+     */
+    var sizeInBytes = 0L
+        private set
+
+    /**
+     * The number of buffered frames.
+     */
+    val size: Int
+        get() = entries.size
+
+    /**
+     * Whether the buffer starts on a key frame.
+     */
+    val startsWithKeyFrame: Boolean
+        get() = entries.firstOrNull()?.isAnchor == true
+
+    /**
+     * Copies a frame to the buffer. The frame is not closed.
+     *
+     * @param frame the frame to copy
+     * @param streamId the stream id of the frame
+     */
+    fun add(frame: Frame, streamId: Int) {
+        val buffer = bufferPool.get(frame.rawBuffer.remaining())
+        buffer.put(frame.rawBuffer.duplicate())
+        buffer.flip()
+        val isVideo = frame.isVideo
+        val isAnchor = !hasVideo || (isVideo && frame.isKeyFrame)
+        entries.addLast(Entry(frame.copy(rawBuffer = buffer), streamId, isVideo, isAnchor))
+        sizeInBytes += buffer.remaining()
+        if (isAnchor) {
+            anchorCount++
+        }
+        trim(frame.ptsInUs)
+    }
+
+    /**
+     * Takes all the frames. If the buffer does not start on a key frame, the frames before the first
+     * key frame are dropped.
+     *
+     * @return the frames, from the oldest. They must be closed.
+     */
+    fun takeFromKeyFrame(): List<BufferedFrame> {
+        while (entries.isNotEmpty() && !entries.first().isAnchor) {
+            removeFirst()
+        }
+        return takeAll()
+    }
+
+    /**
+     * Takes all the frames.
+     *
+     * @return the frames, from the oldest. They must be closed.
+     */
+    fun takeAll(): List<BufferedFrame> {
+        val frames = entries.map { entry ->
+            val buffer = entry.frame.rawBuffer
+            BufferedFrame(
+                FrameWithCloseable(entry.frame) { release(buffer) },
+                entry.streamId,
+                entry.isVideo
+            )
+        }
+        entries.clear()
+        anchorCount = 0
+        sizeInBytes = 0
+        return frames
+    }
+
+    /**
+     * Drops all the frames.
+     */
+    fun clear() {
+        while (entries.isNotEmpty()) {
+            removeFirst()
+        }
+    }
+
+    /**
+     * Drops all the frames and releases the buffers.
+     */
+    fun release() {
+        clear()
+        bufferPool.close()
+    }
+
+    private fun trim(newestPtsInUs: Long) {
+        if (!isRetentionPaused) {
+            val boundaryInUs = newestPtsInUs - retentionInUs
+            while ((anchorCount >= 2) && (getSecondAnchor().frame.ptsInUs <= boundaryInUs)) {
+                removeGop()
+            }
+        }
+        while (sizeInBytes > maxSizeInBytes) {
+            removeGop()
+        }
+    }
+
+    private fun getSecondAnchor(): Entry {
+        var isFirstFound = false
+        for (entry in entries) {
+            if (entry.isAnchor) {
+                if (isFirstFound) {
+                    return entry
+                }
+                isFirstFound = true
+            }
+        }
+        throw IllegalStateException("No second key frame")
+    }
+
+    /**
+     * Removes the first frame and the following frames until the next key frame.
+     */
+    private fun removeGop() {
+        if (entries.isEmpty()) {
+            return
+        }
+        removeFirst()
+        while (entries.isNotEmpty() && !entries.first().isAnchor) {
+            removeFirst()
+        }
+    }
+
+    private fun removeFirst() {
+        val entry = entries.removeFirst()
+        if (entry.isAnchor) {
+            anchorCount--
+        }
+        sizeInBytes -= entry.frame.rawBuffer.remaining()
+        release(entry.frame.rawBuffer)
+    }
+
+    private fun release(buffer: ByteBuffer) {
+        try {
+            bufferPool.put(buffer)
+        } catch (_: IllegalStateException) {
+            // Pool is closed
+        }
+    }
+
+    private class Entry(
+        val frame: Frame,
+        val streamId: Int,
+        val isVideo: Boolean,
+        val isAnchor: Boolean
+    )
+
+    /**
+     * A frame taken from the buffer.
+     *
+     * @param closeableFrame the frame. It must be closed to return its buffer to the pool.
+     * @param streamId the stream id of the frame
+     * @param isVideo whether the frame is a video frame
+     */
+    class BufferedFrame(
+        val closeableFrame: FrameWithCloseable,
+        val streamId: Int,
+        val isVideo: Boolean
+    )
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints
+
+import android.content.Context
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.createDefaultTsServiceInfo
+import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
+import io.github.thibaultbee.streampack.core.elements.data.isVideo
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.CompositeEndpoint
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.TsMuxer
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.data.TSServiceInfo
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.hls.HlsConfig
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.hls.HlsSink
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.trace.Traceable
+import io.github.thibaultbee.streampack.core.pipelines.IDispatcherProvider
+import kotlinx.coroutines.CoroutineDispatcher
+
+/**
+ * An [IEndpointInternal] that writes the stream as HLS segments with their `m3u8` playlist.
+ *
+ * The encoded frames are muxed to MPEG-TS and cut in segments on key frames (and in partial
+ * segments for Low-Latency HLS) by a [HlsSink]. The output can be served by a local web server
+ * or uploaded later.
+ *
+ * The media descriptor is the playlist file, for example `file:///.../live.m3u8`.
+ *
+ * @param ioDispatcher the dispatcher of the file writes
+ * @param config the segmentation configuration
+ */
+class HlsEndpoint private constructor(
+    private val muxer: TsMuxer,
+    private val sink: HlsSink,
+    private val endpoint: CompositeEndpoint
+) : IEndpointInternal by endpoint, Traceable by endpoint, MetricsProducer by endpoint {
+    constructor(ioDispatcher: CoroutineDispatcher, config: HlsConfig = HlsConfig()) : this(
+        TsMuxer(),
+        HlsSink(ioDispatcher, config)
+    )
+
+    private constructor(muxer: TsMuxer, sink: HlsSink) : this(
+        muxer,
+        sink,
+        CompositeEndpoint(muxer, sink)
+    )
+
+    override suspend fun open(descriptor: MediaDescriptor) {
+        muxer.removeServices()
+        muxer.addService(
+            descriptor.getCustomData(TSServiceInfo::class.java) ?: createDefaultTsServiceInfo()
+        )
+        endpoint.open(descriptor)
+    }
+
+    override suspend fun write(closeableFrame: FrameWithCloseable, streamPid: Int) {
+        val frame = closeableFrame.frame
+        try {
+            sink.prepareFrame(frame.ptsInUs, frame.isVideo, frame.isKeyFrame)
+        } catch (t: Throwable) {
+            closeableFrame.close()
+            throw t
+        }
+        endpoint.write(closeableFrame, streamPid)
+    }
+}
+
+/**
+ * A factory to build a [HlsEndpoint].
+ *
+ * @param config the segmentation configuration
+ */
+class HlsEndpointFactory(
+    private val config: HlsConfig = HlsConfig()
+) : IEndpointInternal.Factory {
+    override fun create(
+        context: Context,
+        dispatcherProvider: IDispatcherProvider
+    ): IEndpointInternal = HlsEndpoint(dispatcherProvider.io, config)
+}
@@ -9,7 +9,8 @@ enum class MediaContainerType(val values: Set<String>) {
     FLV("flv"),
     THREEGP("3gp", "3gpp"),
     WEBM("webm"),
-    OGG("ogg");
+    OGG("ogg"),
+    HLS("m3u8");
 
     constructor(vararg values: String) : this(values.toSet())
 
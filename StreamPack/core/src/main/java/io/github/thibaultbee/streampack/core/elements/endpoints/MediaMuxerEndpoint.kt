@@ -25,7 +25,14 @@ import android.os.Build
 import android.os.ParcelFileDescriptor
 import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
 import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
+import io.github.thibaultbee.streampack.core.elements.data.isVideo
 import io.github.thibaultbee.streampack.core.elements.encoders.CodecConfig
+import io.github.thibaultbee.streampack.core.elements.utils.LatencyHistogram
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineTracer
+import io.github.thibaultbee.streampack.core.elements.utils.trace.TraceStage
+import io.github.thibaultbee.streampack.core.elements.utils.trace.Traceable
 import io.github.thibaultbee.streampack.core.logger.Logger
 import io.github.thibaultbee.streampack.core.pipelines.IDispatcherProvider
 import kotlinx.coroutines.CoroutineDispatcher
@@ -36,17 +43,47 @@ import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 import java.security.InvalidParameterException
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * An [IEndpointInternal] implementation of the [MediaMuxer].
+ *
+ * By default, frames are written in [write]. With an [AsyncWriteConfig], frames are queued and
+ * written on a dedicated thread so that a slow storage does not block the encoders.
+ *
+ * @param context the application context
+ * @param ioDispatcher the dispatcher of synchronous writes
+ * @param asyncWriteConfig the asynchronous write configuration or null for synchronous writes
  */
 class MediaMuxerEndpoint(
     private val context: Context,
-    private val ioDispatcher: CoroutineDispatcher
-) : IEndpointInternal {
+    private val ioDispatcher: CoroutineDispatcher,
+    asyncWriteConfig: AsyncWriteConfig? = null
+) : IEndpointInternal, Traceable, MetricsProducer {
     private var mediaMuxer: MediaMuxer? = null
     private val mutex = Mutex()
 
+    private val asyncWriter =
+        asyncWriteConfig?.let { AsyncFrameWriter(it, "muxer-writer", ::writeFrame) }
+
+    private val writtenFrameCount = AtomicLong(0)
+    private val writtenSizeInBytes = AtomicLong(0)
+    private val writeLatency = LatencyHistogram()
+
+    @Volatile
+    override var tracer: PipelineTracer? = null
+
+    override fun registerMetrics(registry: MetricsRegistry) {
+        registry.gauge("written_frames") { writtenFrameCount.get() }
+        registry.gauge("written_bytes") { writtenSizeInBytes.get() }
+        registry.histogram("write_latency", writeLatency)
+        if (asyncWriter != null) {
+            registry.gauge("queued_frames") { asyncWriter.metrics.queuedFrameCount }
+            registry.gauge("queued_bytes") { asyncWriter.metrics.queuedSizeInBytes }
+            registry.gauge("dropped_frames") { asyncWriter.metrics.droppedFrameCount }
+        }
+    }
+
     private var containerType: MediaContainerType? = null
     private var fileDescriptor: ParcelFileDescriptor? = null
 
@@ -64,8 +101,13 @@ class MediaMuxerEndpoint(
 
     override fun getInfo(type: MediaDescriptor.Type) = Companion.getInfo(type)
 
-    override val metrics: Any
-        get() = TODO("Not yet implemented")
+    override val metrics: Metrics
+        get() = Metrics(
+            writtenFrameCount.get(),
+            writtenSizeInBytes.get(),
+            writeLatency.snapshot(),
+            asyncWriter?.metrics
+        )
 
     private val _isOpenFlow = MutableStateFlow(false)
     override val isOpenFlow = _isOpenFlow.asStateFlow()
@@ -143,13 +185,30 @@ class MediaMuxerEndpoint(
 
     override suspend fun write(
         closeableFrame: FrameWithCloseable, streamPid: Int
-    ) = withContext(ioDispatcher) {
+    ) {
+        if (asyncWriter != null) {
+            tracer?.record(
+                TraceStage.SINK_ENQUEUE,
+                closeableFrame.frame.isVideo,
+                closeableFrame.frame.ptsInUs
+            )
+            asyncWriter.enqueue(closeableFrame, streamPid)
+        } else {
+            withContext(ioDispatcher) {
+                writeFrame(closeableFrame, streamPid)
+            }
+        }
+    }
+
+    private suspend fun writeFrame(
+        closeableFrame: FrameWithCloseable, streamPid: Int
+    ) {
         val frame = closeableFrame.frame
         mutex.withLock {
             try {
                 if (state != State.STARTED && state != State.PENDING_START) {
                     Logger.w(TAG, "Trying to write while not started. Current state: $state")
-                    return@withContext
+                    return
                 }
 
                 val mediaMuxer = requireNotNull(mediaMuxer) { "MediaMuxer is not initialized" }
@@ -174,7 +233,12 @@ class MediaMuxerEndpoint(
                         )
                     }
                     try {
+                        val startTimeNs = System.nanoTime()
                         mediaMuxer.writeSampleData(trackId, frame.rawBuffer, info)
+                        writeLatency.record((System.nanoTime() - startTimeNs) / 1000)
+                        writtenFrameCount.incrementAndGet()
+                        writtenSizeInBytes.addAndGet(info.size.toLong())
+                        tracer?.record(TraceStage.SINK_WRITE, frame.isVideo, frame.ptsInUs)
                     } catch (e: IllegalStateException) {
                         Logger.w(TAG, "MediaMuxer is in an illegal state. ${e.message}")
                     }
@@ -248,6 +312,8 @@ class MediaMuxerEndpoint(
     }
 
     override suspend fun stopStream() {
+        // Writes the queued frames before finalizing the file
+        asyncWriter?.flush()
         mutex.withLock {
             when (state) {
                 State.PENDING_STOP, State.STOPPED, State.ERROR, State.IDLE, State.CONFIGURED -> {
@@ -302,6 +368,7 @@ class MediaMuxerEndpoint(
     }
 
     override suspend fun release() {
+        asyncWriter?.release()
         mutex.withLock {
             setState(State.PENDING_RELEASE)
             closeUnsafe()
@@ -309,6 +376,21 @@ class MediaMuxerEndpoint(
         }
     }
 
+    /**
+     * Metrics of a [MediaMuxerEndpoint].
+     *
+     * @param writtenFrameCount the number of frames written to the [MediaMuxer]
+     * @param writtenSizeInBytes the size of the frames written to the [MediaMuxer]
+     * @param writeLatency the duration of [MediaMuxer.writeSampleData]
+     * @param asyncWrite the asynchronous write metrics or null for synchronous writes
+     */
+    data class Metrics(
+        val writtenFrameCount: Long,
+        val writtenSizeInBytes: Long,
+        val writeLatency: LatencyHistogram.Snapshot,
+        val asyncWrite: AsyncWriteMetrics?
+    )
+
     private fun addTrack(mediaMuxer: MediaMuxer, streamId: Int, format: MediaFormat) {
         if (streamIdToTrackId[streamId] == null) {
             streamIdToTrackId[streamId] = mediaMuxer.addTrack(format)
@@ -496,11 +578,15 @@ class MediaMuxerEndpoint(
 
 /**
  * Factory for [MediaMuxerEndpoint].
+ *
+ * @param asyncWriteConfig the asynchronous write configuration or null for synchronous writes
  */
-class MediaMuxerEndpointFactory : IEndpointInternal.Factory {
+class MediaMuxerEndpointFactory(
+    private val asyncWriteConfig: AsyncWriteConfig? = null
+) : IEndpointInternal.Factory {
     override fun create(
         context: Context, dispatcherProvider: IDispatcherProvider
     ): IEndpointInternal {
-        return MediaMuxerEndpoint(context, dispatcherProvider.io)
+        return MediaMuxerEndpoint(context, dispatcherProvider.io, asyncWriteConfig)
     }
 }
\ No newline at end of file
@@ -0,0 +1,574 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints
+
+import android.content.Context
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
+import io.github.thibaultbee.streampack.core.elements.encoders.CodecConfig
+import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig
+import io.github.thibaultbee.streampack.core.elements.utils.av.video.TimingSeiInjectable
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineTracer
+import io.github.thibaultbee.streampack.core.elements.utils.trace.Traceable
+import io.github.thibaultbee.streampack.core.logger.Logger
+import io.github.thibaultbee.streampack.core.pipelines.IDispatcherProvider
+import io.github.thibaultbee.streampack.core.utils.extensions.isConnectionRejectedException
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Configuration of the reconnection of a [ReconnectEndpoint].
+ *
+ * @param replayDurationInMs the duration of frames written again after a reconnection. The stream
+ * resumes from the key frame before it. 0 to resume from the last key frame.
+ * @param maxBufferSizeInBytes the maximum size of the frames buffered during the reconnection. The
+ * oldest GOPs are dropped above it.
+ * @param maxReconnectDurationInMs the duration after which the reconnection is abandoned. The
+ * endpoint is then closed with the last error.
+ * @param minRetryDelayInMs the delay before the second connection attempt. The first attempt is
+ * immediate.
+ * @param maxRetryDelayInMs the maximum delay between 2 connection attempts
+ */
+data class ReconnectConfig(
+    val replayDurationInMs: Long = 0,
+    val maxBufferSizeInBytes: Long = DEFAULT_MAX_BUFFER_SIZE_IN_BYTES,
+    val maxReconnectDurationInMs: Long = DEFAULT_MAX_RECONNECT_DURATION_IN_MS,
+    val minRetryDelayInMs: Long = DEFAULT_MIN_RETRY_DELAY_IN_MS,
+    val maxRetryDelayInMs: Long = DEFAULT_MAX_RETRY_DELAY_IN_MS
+) {
+    init {
+        require(replayDurationInMs >= 0) { "Replay duration must not be negative" }
+        require(maxBufferSizeInBytes > 0) { "Max buffer size must be positive" }
+        require(maxReconnectDurationInMs >= 0) { "Max reconnect duration must not be negative" }
+        require(minRetryDelayInMs > 0) { "Min retry delay must be positive" }
+        require(maxRetryDelayInMs >= minRetryDelayInMs) { "Max retry delay must be greater than min retry delay" }
+    }
+
+    companion object {
+        const val DEFAULT_MAX_BUFFER_SIZE_IN_BYTES = 16L * 1024 * 1024 // 16 MB
+        const val DEFAULT_MAX_RECONNECT_DURATION_IN_MS = 30_000L
+        const val DEFAULT_MIN_RETRY_DELAY_IN_MS = 250L
+        const val DEFAULT_MAX_RETRY_DELAY_IN_MS = 2_000L
+    }
+}
+
+/**
+ * An [IEndpointInternal] that reconnects its [endpoint] when the connection is lost while
+ * streaming, without stopping the encoders.
+ *
+ * The last GOPs are kept in memory while streaming. When a write fails or when [endpoint] closes,
+ * the endpoint stays opened for the pipeline and frames are buffered while [endpoint] is reopened.
+ * Once [endpoint] is back, the stream resumes from the last key frame (or [ReconnectConfig.replayDurationInMs]
+ * before) and the buffered frames are written in a burst. Their timestamps are shifted so that the
+ * first resumed frame is timestamped at the resume time.
+ *
+ * If the connection is not back after [ReconnectConfig.maxReconnectDurationInMs], the endpoint is
+ * closed and the last error is emitted to [throwableFlow], as without reconnection.
+ *
+ * A [ConnectionRejectedException] (invalid stream key or stream ID, wrong credentials,...) is not
+ * retried: connecting again would be rejected the same way. The endpoint is closed right away.
+ *
+ * Buffering copies every frame: it can be disabled with [isReconnectEnabled].
+ *
+ * @param endpoint the endpoint to reconnect
+ * @param coroutineDispatcher the dispatcher of the reconnection
+ * @param config the reconnection configuration
+ * @param timeProvider the time provider. Must have the timebase of the frame timestamps.
+ */
+class ReconnectEndpoint(
+    val endpoint: IEndpointInternal,
+    coroutineDispatcher: CoroutineDispatcher,
+    private val config: ReconnectConfig = ReconnectConfig(),
+    private val timeProvider: TimeProvider = TimeUtils.systemTimeProvider
+) : IEndpointInternal, Traceable, MetricsProducer, TimingSeiInjectable {
+    private val coroutineScope = CoroutineScope(SupervisorJob() + coroutineDispatcher)
+    private val mutex = Mutex()
+
+    /**
+     * Protects the buffer and the reconnection state.
+     */
+    private val lock = Any()
+    private val gopBuffer = GopBuffer(config.maxBufferSizeInBytes, config.replayDurationInMs * 1000)
+
+    private var descriptor: MediaDescriptor? = null
+    private var streamIds = emptyMap<CodecConfig, Int>()
+
+    /**
+     * Maps the stream ids returned to the caller to the stream ids of the current connection.
+     */
+    @Volatile
+    private var streamIdMap = emptyMap<Int, Int>()
+    private var videoStreamIds = emptySet<Int>()
+    private val streamIdsWaitingForKeyFrame = ConcurrentHashMap.newKeySet<Int>()
+
+    @Volatile
+    private var isStreaming = false
+
+    @Volatile
+    private var timestampOffsetInUs = 0L
+    private var reconnectJob: Job? = null
+
+    private val reconnectCount = AtomicLong(0)
+    private val failedReconnectCount = AtomicLong(0)
+
+    @Volatile
+    private var lastReconnectDurationInMs: Long? = null
+
+    /**
+     * Whether the endpoint reconnects when the connection is lost. If `false`, the errors are
+     * emitted as if [endpoint] was used directly.
+     *
+     * It is applied on the next [startStream].
+     */
+    @Volatile
+    var isReconnectEnabled = true
+
+    @Volatile
+    private var isReconnectActive = false
+
+    /**
+     * Called when the stream resumes without a video key frame. The listener should request a key
+     * frame to the video encoder.
+     */
+    @Volatile
+    var keyFrameRequestListener: (() -> Unit)? = null
+
+    private val _isOpenFlow = MutableStateFlow(false)
+    override val isOpenFlow: StateFlow<Boolean> = _isOpenFlow.asStateFlow()
+
+    private val _throwableFlow = MutableStateFlow<Throwable?>(null)
+    override val throwableFlow: StateFlow<Throwable?> = _throwableFlow.asStateFlow()
+
+    private val _isReconnectingFlow = MutableStateFlow(false)
+
+    /**
+     * Whether the endpoint is reconnecting. Frames are buffered meanwhile.
+     */
+    val isReconnectingFlow: StateFlow<Boolean> = _isReconnectingFlow.asStateFlow()
+
+    override val info: IEndpoint.IEndpointInfo
+        get() = endpoint.info
+
+    override fun getInfo(type: MediaDescriptor.Type) = endpoint.getInfo(type)
+
+    override val metrics: Any
+        get() = endpoint.metrics
+
+    override var tracer: PipelineTracer?
+        get() = (endpoint as? Traceable)?.tracer
+        set(value) {
+            (endpoint as? Traceable)?.tracer = value
+        }
+
+    override var isTimingSeiEnabled: Boolean
+        get() = (endpoint as? TimingSeiInjectable)?.isTimingSeiEnabled ?: false
+        set(value) {
+            (endpoint as? TimingSeiInjectable)?.isTimingSeiEnabled = value
+        }
+
+    /**
+     * Registers the metrics of [endpoint] and the gauges:
+     * - `reconnect.count`: the number of successful reconnections
+     * - `reconnect.failed_count`: the number of abandoned reconnections
+     * - `reconnect.last_duration_ms`: the duration of the last reconnection
+     * - `reconnect.buffered_bytes`: the size of the buffered frames
+     */
+    override fun registerMetrics(registry: MetricsRegistry) {
+        (endpoint as? MetricsProducer)?.registerMetrics(registry)
+        val reconnectRegistry = registry.child(RECONNECT_METRICS)
+        reconnectRegistry.gauge("count") { reconnectCount.get() }
+        reconnectRegistry.gauge("failed_count") { failedReconnectCount.get() }
+        reconnectRegistry.gauge("last_duration_ms") { lastReconnectDurationInMs }
+        reconnectRegistry.gauge("buffered_bytes") { synchronized(lock) { gopBuffer.sizeInBytes } }
+    }
+
+    init {
+        coroutineScope.launch {
+            endpoint.isOpenFlow.collect { isOpen ->
+                if (isOpen || !isReconnectActive || !isStreaming) {
+                    if (!isReconnectingFlow.value) {
+                        _isOpenFlow.value = isOpen
+                    }
+                } else {
+                    startReconnection(ClosedException("Connection closed"))
+                }
+            }
+        }
+        coroutineScope.launch {
+            endpoint.throwableFlow.filterNotNull().collect { throwable ->
+                if (isReconnectActive && isStreaming) {
+                    startReconnection(throwable)
+                } else {
+                    _throwableFlow.value = throwable
+                }
+            }
+        }
+    }
+
+    override suspend fun open(descriptor: MediaDescriptor) {
+        mutex.withLock {
+            endpoint.open(descriptor)
+            this.descriptor = descriptor
+            _throwableFlow.value = null
+            _isOpenFlow.value = true
+        }
+    }
+
+    override suspend fun addStreams(streamConfigs: List<CodecConfig>): Map<CodecConfig, Int> {
+        return mutex.withLock {
+            endpoint.addStreams(streamConfigs).also { setStreamIds(streamIds + it) }
+        }
+    }
+
+    override suspend fun addStream(streamConfig: CodecConfig): Int {
+        return mutex.withLock {
+            endpoint.addStream(streamConfig).also { setStreamIds(streamIds + (streamConfig to it)) }
+        }
+    }
+
+    private fun setStreamIds(streamIds: Map<CodecConfig, Int>) {
+        this.streamIds = streamIds
+        streamIdMap = streamIds.values.associateWith { it }
+        videoStreamIds = streamIds.filterKeys { it is VideoCodecConfig }.values.toSet()
+        synchronized(lock) {
+            gopBuffer.hasVideo = videoStreamIds.isNotEmpty()
+        }
+    }
+
+    override suspend fun write(closeableFrame: FrameWithCloseable, streamPid: Int) {
+        if (isReconnectActive && isStreaming) {
+            synchronized(lock) {
+                gopBuffer.add(closeableFrame.frame, streamPid)
+                if (isReconnectingFlow.value) {
+                    closeableFrame.close()
+                    return
+                }
+            }
+        }
+
+        try {
+            writeToEndpoint(closeableFrame, streamPid)
+        } catch (e: CancellationException) {
+            throw e
+        } catch (t: Throwable) {
+            if (isReconnectActive && isStreaming) {
+                startReconnection(t)
+            } else {
+                throw t
+            }
+        }
+    }
+
+    /**
+     * Writes a frame to the current connection with the current timestamp offset.
+     */
+    private suspend fun writeToEndpoint(closeableFrame: FrameWithCloseable, streamPid: Int) {
+        val frame = closeableFrame.frame
+        if (streamIdsWaitingForKeyFrame.contains(streamPid)) {
+            if (frame.isKeyFrame) {
+                streamIdsWaitingForKeyFrame.remove(streamPid)
+            } else {
+                closeableFrame.close()
+                return
+            }
+        }
+
+        val streamId = streamIdMap[streamPid]
+        if (streamId == null) {
+            closeableFrame.close()
+            throw IllegalArgumentException("Unknown stream id: $streamPid")
+        }
+
+        val offsetInUs = timestampOffsetInUs
+        val rebasedFrame = if (offsetInUs == 0L) {
+            closeableFrame
+        } else {
+            FrameWithCloseable(
+                frame.copy(
+                    ptsInUs = frame.ptsInUs + offsetInUs,
+                    dtsInUs = frame.dtsInUs?.plus(offsetInUs)
+                )
+            ) { closeableFrame.close() }
+        }
+        endpoint.write(rebasedFrame, streamId)
+    }
+
+    override suspend fun startStream() {
+        mutex.withLock {
+            endpoint.startStream()
+            timestampOffsetInUs = 0
+            streamIdsWaitingForKeyFrame.clear()
+            isReconnectActive = isReconnectEnabled
+            isStreaming = true
+        }
+    }
+
+    override suspend fun stopStream() {
+        isStreaming = false
+        reconnectJob?.cancelAndJoin()
+        reconnectJob = null
+        mutex.withLock {
+            synchronized(lock) {
+                gopBuffer.clear()
+                gopBuffer.isRetentionPaused = false
+                _isReconnectingFlow.value = false
+            }
+            try {
+                endpoint.stopStream()
+            } finally {
+                // Streams are added again on the next start
+                setStreamIds(emptyMap())
+            }
+        }
+    }
+
+    override suspend fun close() {
+        isStreaming = false
+        reconnectJob?.cancelAndJoin()
+        reconnectJob = null
+        mutex.withLock {
+            synchronized(lock) {
+                gopBuffer.clear()
+                _isReconnectingFlow.value = false
+            }
+            try {
+                endpoint.close()
+            } finally {
+                descriptor = null
+                setStreamIds(emptyMap())
+                _isOpenFlow.value = false
+            }
+        }
+    }
+
+    override suspend fun release() {
+        try {
+            stopStream()
+        } catch (t: Throwable) {
+            Logger.w(TAG, "Can't stop endpoint: ${t.message}")
+        }
+        try {
+            close()
+        } finally {
+            endpoint.release()
+            coroutineScope.cancel()
+            synchronized(lock) {
+                gopBuffer.release()
+            }
+        }
+    }
+
+    private fun startReconnection(cause: Throwable) {
+        synchronized(lock) {
+            if (!isStreaming || isReconnectingFlow.value) {
+                return
+            }
+            _isReconnectingFlow.value = true
+        }
+        Logger.w(TAG, "Connection lost: ${cause.message}. Reconnecting")
+        reconnectJob = coroutineScope.launch {
+            reconnect(cause)
+        }
+    }
+
+    private suspend fun reconnect(cause: Throwable) {
+        if (cause.isConnectionRejectedException) {
+            abandon(cause)
+            return
+        }
+        val startTimeInMs = timeProvider.uptimeUs() / 1000
+        var lastThrowable = cause
+        var retryDelayInMs = 0L
+        while (true) {
+            delay(retryDelayInMs)
+            try {
+                mutex.withLock {
+                    reopen()
+                    resume()
+                }
+                val durationInMs = timeProvider.uptimeUs() / 1000 - startTimeInMs
+                lastReconnectDurationInMs = durationInMs
+                reconnectCount.incrementAndGet()
+                Logger.i(TAG, "Reconnected in $durationInMs ms")
+                return
+            } catch (e: CancellationException) {
+                throw e
+            } catch (t: Throwable) {
+                lastThrowable = t
+                Logger.w(TAG, "Reconnection attempt failed: ${t.message}")
+                synchronized(lock) {
+                    gopBuffer.isRetentionPaused = false
+                }
+                if (t.isConnectionRejectedException) {
+                    abandon(t)
+                    return
+                }
+            }
+
+            if (timeProvider.uptimeUs() / 1000 - startTimeInMs >= config.maxReconnectDurationInMs) {
+                abandon(lastThrowable)
+                return
+            }
+            retryDelayInMs = if (retryDelayInMs == 0L) {
+                config.minRetryDelayInMs
+            } else {
+                minOf(retryDelayInMs * 2, config.maxRetryDelayInMs)
+            }
+        }
+    }
+
+    private suspend fun reopen() {
+        val descriptor = requireNotNull(descriptor) { "Endpoint is not opened" }
+        try {
+            endpoint.stopStream()
+        } catch (t: Throwable) {
+            Logger.w(TAG, "Can't stop endpoint: ${t.message}")
+        }
+        try {
+            endpoint.close()
+        } catch (t: Throwable) {
+            Logger.w(TAG, "Can't close endpoint: ${t.message}")
+        }
+
+        endpoint.open(descriptor)
+        val newStreamIds = endpoint.addStreams(streamIds.keys.toList())
+        streamIdMap = streamIds.entries.associate { (config, streamId) ->
+            streamId to newStreamIds.getValue(config)
+        }
+        endpoint.startStream()
+    }
+
+    /**
+     * Writes the buffered frames from the resume point until the buffer is empty, then writes the
+     * frames directly.
+     */
+    private suspend fun resume() {
+        var frames = synchronized(lock) {
+            gopBuffer.isRetentionPaused = true
+            gopBuffer.takeFromKeyFrame()
+        }
+
+        val hasVideoKeyFrame = frames.any { it.isVideo && it.closeableFrame.frame.isKeyFrame }
+        if (!hasVideoKeyFrame && videoStreamIds.isNotEmpty()) {
+            streamIdsWaitingForKeyFrame.addAll(videoStreamIds)
+            keyFrameRequestListener?.invoke()
+        }
+        timestampOffsetInUs = frames.firstOrNull()?.let {
+            timeProvider.uptimeUs() - it.closeableFrame.frame.ptsInUs
+        } ?: 0
+
+        while (frames.isNotEmpty()) {
+            frames.forEachIndexed { index, bufferedFrame ->
+                try {
+                    writeToEndpoint(bufferedFrame.closeableFrame, bufferedFrame.streamId)
+                } catch (t: Throwable) {
+                    frames.drop(index + 1).forEach { it.closeableFrame.close() }
+                    throw t
+                }
+            }
+            frames = synchronized(lock) {
+                gopBuffer.takeAll().also {
+                    if (it.isEmpty()) {
+                        gopBuffer.isRetentionPaused = false
+                        _isReconnectingFlow.value = false
+                    }
+                }
+            }
+        }
+        synchronized(lock) {
+            gopBuffer.isRetentionPaused = false
+            _isReconnectingFlow.value = false
+        }
+    }
+
+    private suspend fun abandon(throwable: Throwable) {
+        if (throwable.isConnectionRejectedException) {
+            Logger.e(TAG, "Reconnection abandoned: connection rejected", throwable)
+        } else {
+            Logger.e(
+                TAG,
+                "Reconnection abandoned after ${config.maxReconnectDurationInMs} ms",
+                throwable
+            )
+        }
+        failedReconnectCount.incrementAndGet()
+        isStreaming = false
+        mutex.withLock {
+            synchronized(lock) {
+                gopBuffer.clear()
+                gopBuffer.isRetentionPaused = false
+                _isReconnectingFlow.value = false
+            }
+            try {
+                endpoint.stopStream()
+            } catch (t: Throwable) {
+                Logger.w(TAG, "Can't stop endpoint: ${t.message}")
+            }
+            try {
+                endpoint.close()
+            } catch (t: Throwable) {
+                Logger.w(TAG, "Can't close endpoint: ${t.message}")
+            }
+        }
+        _isOpenFlow.value = false
+        _throwableFlow.value = throwable
+    }
+
+    companion object {
+        private const val TAG = "ReconnectEndpoint"
+
+        private const val RECONNECT_METRICS = "reconnect"
+    }
+}
+
+/**
+ * A factory to build a [ReconnectEndpoint].
+ *
+ * @param endpointFactory the factory of the reconnected endpoint
+ * @param config the reconnection configuration
+ */
+class ReconnectEndpointFactory(
+    private val endpointFactory: IEndpointInternal.Factory = DynamicEndpointFactory(),
+    private val config: ReconnectConfig = ReconnectConfig()
+) : IEndpointInternal.Factory {
+    override fun create(
+        context: Context,
+        dispatcherProvider: IDispatcherProvider
+    ): IEndpointInternal = ReconnectEndpoint(
+        endpointFactory.create(context, dispatcherProvider),
+        dispatcherProvider.default,
+        config
+    )
+}
@@ -18,6 +18,7 @@ package io.github.thibaultbee.streampack.core.elements.endpoints.composites
 import android.content.Context
 import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
 import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
+import io.github.thibaultbee.streampack.core.elements.data.isVideo
 import io.github.thibaultbee.streampack.core.elements.encoders.CodecConfig
 import io.github.thibaultbee.streampack.core.elements.endpoints.IEndpoint
 import io.github.thibaultbee.streampack.core.elements.endpoints.IEndpointInternal
@@ -26,6 +27,14 @@ import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxer
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.IMuxerInternal
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.ISinkInternal
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.SinkConfiguration
+import io.github.thibaultbee.streampack.core.elements.utils.LatencyHistogram
+import io.github.thibaultbee.streampack.core.elements.utils.av.video.TimingSeiInjectable
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.Counter
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineTracer
+import io.github.thibaultbee.streampack.core.elements.utils.trace.TraceStage
+import io.github.thibaultbee.streampack.core.elements.utils.trace.Traceable
 import io.github.thibaultbee.streampack.core.pipelines.IDispatcherProvider
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
@@ -41,7 +50,7 @@ class CompositeEndpoint(
     override val muxer: IMuxerInternal,
     override val sink: ISinkInternal
 ) :
-    ICompositeEndpointInternal {
+    ICompositeEndpointInternal, Traceable, MetricsProducer, TimingSeiInjectable {
     /**
      * The video and audio configurations.
      * It is used to configure the sink.
@@ -54,18 +63,52 @@ class CompositeEndpoint(
     override val metrics: Any
         get() = sink.metrics
 
+    @Volatile
+    override var tracer: PipelineTracer? = null
+
+    /**
+     * Only applies if [muxer] supports timing messages.
+     */
+    override var isTimingSeiEnabled: Boolean
+        get() = (muxer as? TimingSeiInjectable)?.isTimingSeiEnabled ?: false
+        set(value) {
+            (muxer as? TimingSeiInjectable)?.isTimingSeiEnabled = value
+        }
+
+    @Volatile
+    private var packetCounter: Counter? = null
+
+    @Volatile
+    private var byteCounter: Counter? = null
+
+    @Volatile
+    private var writeLatency: LatencyHistogram? = null
+
     init {
         muxer.listener = object :
             IMuxerInternal.IMuxerListener {
             override fun onOutputFrame(packet: Packet) {
+                val size = packet.buffer.remaining()
+                val startTimeNs = System.nanoTime()
                 // TODO: remove runBlocking
                 runBlocking {
                     sink.write(packet)
                 }
+                writeLatency?.record((System.nanoTime() - startTimeNs) / 1000)
+                packetCounter?.increment()
+                byteCounter?.increment(size.toLong())
             }
         }
     }
 
+    override fun registerMetrics(registry: MetricsRegistry) {
+        packetCounter = registry.counter("muxer.packets")
+        byteCounter = registry.counter("muxer.bytes")
+        writeLatency = registry.histogram("sink.write_latency")
+        (muxer as? MetricsProducer)?.registerMetrics(registry.child("muxer"))
+        (sink as? MetricsProducer)?.registerMetrics(registry.child("sink"))
+    }
+
     override val isOpenFlow: StateFlow<Boolean>
         get() = sink.isOpenFlow
 
@@ -82,7 +125,20 @@ class CompositeEndpoint(
     override suspend fun write(
         closeableFrame: FrameWithCloseable,
         streamPid: Int
-    ) = muxer.write(closeableFrame, streamPid)
+    ) {
+        val tracer = tracer
+        if (tracer == null) {
+            muxer.write(closeableFrame, streamPid)
+            return
+        }
+        // The frame is closed by the muxer
+        val frame = closeableFrame.frame
+        val isVideo = frame.isVideo
+        val ptsInUs = frame.ptsInUs
+        muxer.write(closeableFrame, streamPid)
+        // Muxers write the packets of a frame to the sink before returning
+        tracer.record(TraceStage.SINK_WRITE, isVideo, ptsInUs)
+    }
 
     override suspend fun addStreams(streamConfigs: List<CodecConfig>): Map<CodecConfig, Int> {
         return mutex.withLock {
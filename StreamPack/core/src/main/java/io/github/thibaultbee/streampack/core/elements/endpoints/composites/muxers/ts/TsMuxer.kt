@@ -34,17 +34,23 @@ import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxer
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.utils.av.OpusControlHeader
 import io.github.thibaultbee.streampack.core.elements.utils.av.audio.aac.ADTSFrameWriter
 import io.github.thibaultbee.streampack.core.elements.utils.av.audio.aac.LATMFrameWriter
+import io.github.thibaultbee.streampack.core.elements.utils.av.video.TimingSei
+import io.github.thibaultbee.streampack.core.elements.utils.av.video.TimingSeiInjectable
 import io.github.thibaultbee.streampack.core.elements.utils.pool.ByteBufferPool
 import java.nio.ByteBuffer
 import java.util.MissingFormatArgumentException
 import kotlin.random.Random
 
-class TsMuxer : IMuxerInternal {
+class TsMuxer : IMuxerInternal, TimingSeiInjectable {
     private val byteBufferPool = ByteBufferPool(true)
 
     override val info by lazy { TSMuxerInfo }
     private val tsServices = mutableListOf<Service>()
     private val tsPes = mutableListOf<Pes>()
+    private val timingSeiInjectors = mutableMapOf<Short, TimingSei.Injector>()
+
+    @Volatile
+    override var isTimingSeiEnabled = false
 
     private var isStarted = false
 
@@ -82,6 +88,11 @@ class TsMuxer : IMuxerInternal {
         try {
             val pes = getPes(streamPid.toShort())
             val mimeType = pes.stream.config.mimeType
+            val timingSei = if (isTimingSeiEnabled) {
+                getTimingSeiInjector(pes.stream)?.create(frame.ptsInUs)
+            } else {
+                null
+            }
             val newFrame = when {
                 mimeType == MediaFormat.MIMETYPE_VIDEO_AVC -> {
                     // Copy sps & pps before buffer
@@ -90,17 +101,18 @@ class TsMuxer : IMuxerInternal {
                             throw MissingFormatArgumentException("Missing extra for AVC")
                         }
                         val buffer =
-                            ByteBuffer.allocate(6 + frame.extra.sumOf { it.limit() } + frame.rawBuffer.limit())
+                            ByteBuffer.allocate(6 + frame.extra.sumOf { it.limit() } + (timingSei?.remaining() ?: 0) + frame.rawBuffer.limit())
                         // Add access unit delimiter (AUD) before the AVC access unit
                         buffer.putInt(0x00000001)
                         buffer.put(0x09.toByte())
                         buffer.put(0xf0.toByte())
                         frame.extra.forEach { buffer.put(it) }
+                        timingSei?.let { buffer.put(it) }
                         buffer.put(frame.rawBuffer)
                         buffer.rewind()
                         frame.copy(rawBuffer = buffer)
                     } else {
-                        frame
+                        prependTimingSei(frame, timingSei)
                     }
                 }
 
@@ -111,18 +123,19 @@ class TsMuxer : IMuxerInternal {
                             throw MissingFormatArgumentException("Missing extra for HEVC")
                         }
                         val buffer =
-                            ByteBuffer.allocate(7 + frame.extra.sumOf { it.limit() } + frame.rawBuffer.limit())
+                            ByteBuffer.allocate(7 + frame.extra.sumOf { it.limit() } + (timingSei?.remaining() ?: 0) + frame.rawBuffer.limit())
                         // Add access unit delimiter (AUD) before the HEVC access unit
                         buffer.putInt(0x00000001)
                         buffer.put(0x46.toByte())
                         buffer.put(0x01.toByte())
                         buffer.put(0x50.toByte())
                         frame.extra.forEach { buffer.put(it) }
+                        timingSei?.let { buffer.put(it) }
                         buffer.put(frame.rawBuffer)
                         buffer.rewind()
                         frame.copy(rawBuffer = buffer)
                     } else {
-                        frame
+                        prependTimingSei(frame, timingSei)
                     }
                 }
 
@@ -165,6 +178,35 @@ class TsMuxer : IMuxerInternal {
         }
     }
 
+    /**
+     * Gets the timing message injector of a stream or `null` if the stream does not support
+     * timing messages.
+     */
+    private fun getTimingSeiInjector(stream: Stream): TimingSei.Injector? {
+        val mimeType = stream.config.mimeType
+        if (!TimingSei.Injector.isSupported(mimeType)) {
+            return null
+        }
+        return timingSeiInjectors.getOrPut(stream.pid) { TimingSei.Injector(mimeType) }
+    }
+
+    /**
+     * Prepends a timing SEI NAL unit to a video access unit.
+     *
+     * @param frame the video frame
+     * @param timingSei the SEI NAL unit or `null` if timing messages are disabled
+     */
+    private fun prependTimingSei(frame: Frame, timingSei: ByteBuffer?): Frame {
+        if (timingSei == null) {
+            return frame
+        }
+        val buffer = ByteBuffer.allocate(timingSei.remaining() + frame.rawBuffer.remaining())
+        buffer.put(timingSei)
+        buffer.put(frame.rawBuffer)
+        buffer.rewind()
+        return frame.copy(rawBuffer = buffer)
+    }
+
     /**
      * Generates MPEG-TS table and elementary stream from the frame
      * @param pes Pes containing infos on the stream
@@ -396,6 +438,7 @@ class TsMuxer : IMuxerInternal {
     private fun removeStreams(service: Service, streams: List<Stream>) {
         streams.forEach {
             tsPes.remove(getPes(it.pid))
+            timingSeiInjectors.remove(it.pid)
         }
         service.streams.removeAll(streams)
 
@@ -417,6 +460,7 @@ class TsMuxer : IMuxerInternal {
     private fun removeStreams(service: Service) {
         service.streams.forEach {
             tsPes.remove(getPes(it.pid))
+            timingSeiInjectors.remove(it.pid)
         }
         service.streams.clear()
     }
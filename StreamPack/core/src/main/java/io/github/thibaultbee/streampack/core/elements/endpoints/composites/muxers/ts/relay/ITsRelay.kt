@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.relay
+
+import kotlinx.coroutines.flow.StateFlow
+import java.nio.ByteBuffer
+
+/**
+ * Relays an incoming MPEG-TS stream to an outgoing MPEG-TS stream without decoding and
+ * re-encoding it.
+ *
+ * The incoming elementary streams replace the ones of the muxer when their codecs match. PIDs,
+ * continuity counters, PCR and timestamps are rewritten so that the outgoing stream stays
+ * continuous. Switches between the muxer and the relayed stream happen on video key frames.
+ */
+interface ITsRelay {
+    /**
+     * The current relay mode.
+     */
+    val relayModeFlow: StateFlow<TsRelayMode>
+
+    /**
+     * Requests a relay mode.
+     *
+     * Switching to [TsRelayMode.RELAY] waits for a key frame of the relayed stream. Switching to
+     * [TsRelayMode.TRANSCODE] waits for a key frame of the muxer: request a key frame from the
+     * video encoder to switch faster.
+     *
+     * @param mode [TsRelayMode.RELAY] or [TsRelayMode.TRANSCODE]
+     */
+    fun requestRelayMode(mode: TsRelayMode)
+
+    /**
+     * Relays incoming MPEG-TS packets.
+     *
+     * Packets are dropped when the relay is not in [TsRelayMode.RELAY] or
+     * [TsRelayMode.SWITCHING_TO_TRANSCODE] mode.
+     *
+     * @param buffer a buffer of 188 bytes MPEG-TS packets. It is modified.
+     */
+    suspend fun relay(buffer: ByteBuffer)
+
+    /**
+     * Signals that incoming packets were lost before the next [relay] call.
+     *
+     * Losses inside a PID are also detected from the continuity counters but a loss of a multiple
+     * of 16 packets is not. The relayed streams resume on their next key frame.
+     */
+    fun notifyPacketsLost()
+}
+
+/**
+ * Mode of a [ITsRelay].
+ */
+enum class TsRelayMode {
+    /**
+     * Elementary streams come from the muxer.
+     */
+    TRANSCODE,
+
+    /**
+     * Elementary streams come from the muxer until the next key frame of the relayed stream.
+     */
+    SWITCHING_TO_RELAY,
+
+    /**
+     * Elementary streams come from the relayed stream.
+     */
+    RELAY,
+
+    /**
+     * Elementary streams come from the relayed stream until the next key frame of the muxer.
+     */
+    SWITCHING_TO_TRANSCODE
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.relay
+
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.packets.TS
+import java.nio.ByteBuffer
+
+/**
+ * Reads and rewrites fields of MPEG-TS packets in place.
+ *
+ * All functions take the absolute position of the packet in the buffer.
+ */
+internal object TsPackets {
+    const val PAT_PID = 0x0000
+    const val SDT_PID = 0x0011
+    const val MAX_PID = 0x1FFF
+
+    private const val TIMESTAMP_MASK = 0x1FFFFFFFFL // 33 bits
+
+    fun isSynced(buffer: ByteBuffer, position: Int) = buffer.get(position) == TS.SYNC_BYTE
+
+    fun getPid(buffer: ByteBuffer, position: Int) =
+        ((buffer.get(position + 1).toInt() and 0x1F) shl 8) or (buffer.get(position + 2)
+            .toInt() and 0xFF)
+
+    fun setPid(buffer: ByteBuffer, position: Int, pid: Int) {
+        buffer.put(
+            position + 1,
+            ((buffer.get(position + 1).toInt() and 0xE0) or (pid shr 8)).toByte()
+        )
+        buffer.put(position + 2, pid.toByte())
+    }
+
+    fun isPayloadUnitStart(buffer: ByteBuffer, position: Int) =
+        (buffer.get(position + 1).toInt() and 0x40) != 0
+
+    fun hasAdaptationField(buffer: ByteBuffer, position: Int) =
+        (buffer.get(position + 3).toInt() and 0x20) != 0
+
+    fun hasPayload(buffer: ByteBuffer, position: Int) =
+        (buffer.get(position + 3).toInt() and 0x10) != 0
+
+    fun getContinuityCounter(buffer: ByteBuffer, position: Int) =
+        buffer.get(position + 3).toInt() and 0xF
+
+    fun setContinuityCounter(buffer: ByteBuffer, position: Int, continuityCounter: Int) {
+        buffer.put(
+            position + 3,
+            ((buffer.get(position + 3).toInt() and 0xF0) or (continuityCounter and 0xF)).toByte()
+        )
+    }
+
+    /**
+     * Gets the position of the payload or -1 if the packet has no payload.
+     */
+    fun getPayloadPosition(buffer: ByteBuffer, position: Int): Int {
+        if (!hasPayload(buffer, position)) {
+            return -1
+        }
+        val payloadPosition = if (hasAdaptationField(buffer, position)) {
+            position + 5 + (buffer.get(position + 4).toInt() and 0xFF)
+        } else {
+            position + 4
+        }
+        return if (payloadPosition < position + TS.PACKET_SIZE) payloadPosition else -1
+    }
+
+    private fun getAdaptationFieldFlags(buffer: ByteBuffer, position: Int): Int {
+        if (!hasAdaptationField(buffer, position)) {
+            return 0
+        }
+        if ((buffer.get(position + 4).toInt() and 0xFF) == 0) {
+            return 0
+        }
+        return buffer.get(position + 5).toInt() and 0xFF
+    }
+
+    fun isRandomAccess(buffer: ByteBuffer, position: Int) =
+        (getAdaptationFieldFlags(buffer, position) and 0x40) != 0
+
+    /**
+     * Sets the discontinuity indicator of the adaptation field.
+     *
+     * @return false if the packet has no adaptation field to carry it
+     */
+    fun setDiscontinuityIndicator(buffer: ByteBuffer, position: Int): Boolean {
+        if (!hasAdaptationField(buffer, position) || ((buffer.get(position + 4)
+                .toInt() and 0xFF) == 0)
+        ) {
+            return false
+        }
+        buffer.put(position + 5, (buffer.get(position + 5).toInt() or 0x80).toByte())
+        return true
+    }
+
+    fun isDiscontinuity(buffer: ByteBuffer, position: Int) =
+        (getAdaptationFieldFlags(buffer, position) and 0x80) != 0
+
+    private fun hasPcr(buffer: ByteBuffer, position: Int) =
+        ((getAdaptationFieldFlags(buffer, position) and 0x10) != 0) && ((buffer.get(position + 4)
+            .toInt() and 0xFF) >= 7)
+
+    /**
+     * Gets the PCR base (90 kHz) or null if the packet has no PCR.
+     */
+    fun getPcrBase(buffer: ByteBuffer, position: Int): Long? {
+        if (!hasPcr(buffer, position)) {
+            return null
+        }
+        val p = position + 6
+        return ((buffer.get(p).toLong() and 0xFF) shl 25) or
+                ((buffer.get(p + 1).toLong() and 0xFF) shl 17) or
+                ((buffer.get(p + 2).toLong() and 0xFF) shl 9) or
+                ((buffer.get(p + 3).toLong() and 0xFF) shl 1) or
+                ((buffer.get(p + 4).toLong() and 0x80) shr 7)
+    }
+
+    private fun setPcrBase(buffer: ByteBuffer, position: Int, pcrBase: Long) {
+        val p = position + 6
+        buffer.put(p, (pcrBase shr 25).toByte())
+        buffer.put(p + 1, (pcrBase shr 17).toByte())
+        buffer.put(p + 2, (pcrBase shr 9).toByte())
+        buffer.put(p + 3, (pcrBase shr 1).toByte())
+        buffer.put(
+            p + 4,
+            (((pcrBase and 0x1) shl 7) or (buffer.get(p + 4).toLong() and 0x7F)).toByte()
+        )
+    }
+
+    /**
+     * Gets the position of the elementary stream data of a packet that starts a PES or -1.
+     */
+    fun getPesDataPosition(buffer: ByteBuffer, position: Int): Int {
+        val pesPosition = getPesHeaderPosition(buffer, position)
+        if (pesPosition < 0) {
+            return -1
+        }
+        val dataPosition = pesPosition + 9 + (buffer.get(pesPosition + 8).toInt() and 0xFF)
+        return if (dataPosition < position + TS.PACKET_SIZE) dataPosition else -1
+    }
+
+    private fun getPesHeaderPosition(buffer: ByteBuffer, position: Int): Int {
+        if (!isPayloadUnitStart(buffer, position)) {
+            return -1
+        }
+        val pesPosition = getPayloadPosition(buffer, position)
+        if ((pesPosition < 0) || (pesPosition + 9 > position + TS.PACKET_SIZE)) {
+            return -1
+        }
+        if ((buffer.get(pesPosition).toInt() != 0) || (buffer.get(pesPosition + 1)
+                .toInt() != 0) || (buffer.get(pesPosition + 2).toInt() != 1)
+        ) {
+            return -1
+        }
+        return pesPosition
+    }
+
+    /**
+     * Adds an offset to the PCR and to the PES timestamps of a packet.
+     *
+     * @param offset the offset in 90 kHz
+     */
+    fun offsetTimestamps(buffer: ByteBuffer, position: Int, offset: Long) {
+        getPcrBase(buffer, position)?.let {
+            setPcrBase(buffer, position, (it + offset) and TIMESTAMP_MASK)
+        }
+
+        val pesPosition = getPesHeaderPosition(buffer, position)
+        if (pesPosition < 0) {
+            return
+        }
+        val ptsDtsFlags = (buffer.get(pesPosition + 7).toInt() shr 6) and 0x3
+        if ((ptsDtsFlags and 0x2) != 0 && (pesPosition + 14 <= position + TS.PACKET_SIZE)) {
+            offsetTimestamp(buffer, pesPosition + 9, offset)
+        }
+        if ((ptsDtsFlags == 0x3) && (pesPosition + 19 <= position + TS.PACKET_SIZE)) {
+            offsetTimestamp(buffer, pesPosition + 14, offset)
+        }
+    }
+
+    private fun offsetTimestamp(buffer: ByteBuffer, p: Int, offset: Long) {
+        val timestamp = (((buffer.get(p).toLong() shr 1) and 0x7) shl 30) or
+                ((buffer.get(p + 1).toLong() and 0xFF) shl 22) or
+                (((buffer.get(p + 2).toLong() and 0xFF) shr 1) shl 15) or
+                ((buffer.get(p + 3).toLong() and 0xFF) shl 7) or
+                ((buffer.get(p + 4).toLong() and 0xFF) shr 1)
+        val newTimestamp = (timestamp + offset) and TIMESTAMP_MASK
+        buffer.put(
+            p,
+            ((buffer.get(p).toLong() and 0xF0) or ((newTimestamp shr 29) and 0x0E) or 0x1).toByte()
+        )
+        buffer.put(p + 1, (newTimestamp shr 22).toByte())
+        buffer.put(p + 2, (((newTimestamp shr 14) and 0xFE) or 0x1).toByte())
+        buffer.put(p + 3, (newTimestamp shr 7).toByte())
+        buffer.put(p + 4, (((newTimestamp shl 1) and 0xFE) or 0x1).toByte())
+    }
+
+    /**
+     * Gets the position of the PSI section of a packet and checks its table id.
+     *
+     * @return the position of the section or -1 if the packet does not start a section of
+     * [tableId] that fits in the packet.
+     */
+    fun getSectionPosition(buffer: ByteBuffer, position: Int, tableId: Int): Int {
+        if (!isPayloadUnitStart(buffer, position)) {
+            return -1
+        }
+        val payloadPosition = getPayloadPosition(buffer, position)
+        if (payloadPosition < 0) {
+            return -1
+        }
+        val sectionPosition =
+            payloadPosition + 1 + (buffer.get(payloadPosition).toInt() and 0xFF)
+        if (sectionPosition + 3 > position + TS.PACKET_SIZE) {
+            return -1
+        }
+        if ((buffer.get(sectionPosition).toInt() and 0xFF) != tableId) {
+            return -1
+        }
+        return if (getSectionEnd(buffer, sectionPosition) <= position + TS.PACKET_SIZE) {
+            sectionPosition
+        } else {
+            -1
+        }
+    }
+
+    /**
+     * Gets the end of the section (including its CRC).
+     */
+    fun getSectionEnd(buffer: ByteBuffer, sectionPosition: Int) =
+        sectionPosition + 3 + (((buffer.get(sectionPosition + 1)
+            .toInt() and 0x0F) shl 8) or (buffer.get(sectionPosition + 2).toInt() and 0xFF))
+
+    /**
+     * Whether the elementary stream data starts with a key frame NAL unit (IDR or parameter sets).
+     */
+    fun startsWithKeyFrame(buffer: ByteBuffer, position: Int, streamType: Int): Boolean {
+        val dataPosition = getPesDataPosition(buffer, position)
+        if (dataPosition < 0) {
+            return false
+        }
+        val end = position + TS.PACKET_SIZE
+        var i = dataPosition
+        while (i + 3 < end) {
+            if ((buffer.get(i).toInt() == 0) && (buffer.get(i + 1)
+                    .toInt() == 0) && (buffer.get(i + 2).toInt() == 1)
+            ) {
+                val header = buffer.get(i + 3).toInt() and 0xFF
+                when (streamType) {
+                    TsProgram.STREAM_TYPE_H264 -> {
+                        val type = header and 0x1F
+                        if ((type == 5) || (type == 7)) {
+                            return true
+                        }
+                    }
+
+                    TsProgram.STREAM_TYPE_HEVC -> {
+                        val type = (header shr 1) and 0x3F
+                        if ((type in 16..21) || (type in 32..34)) {
+                            return true
+                        }
+                    }
+                }
+                i += 3
+            } else {
+                i++
+            }
+        }
+        return false
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.relay
+
+import java.nio.ByteBuffer
+
+/**
+ * The first program of a MPEG-TS stream as described by its PAT and PMT.
+ *
+ * @param pmtPid the PID of the PMT
+ * @param pcrPid the PID that carries the PCR
+ * @param streams the elementary streams
+ */
+internal data class TsProgram(
+    val pmtPid: Int,
+    val pcrPid: Int,
+    val streams: List<ElementaryStream>
+) {
+    /**
+     * The first video stream or null.
+     */
+    val videoStream: ElementaryStream?
+        get() = streams.firstOrNull { it.isVideo }
+
+    /**
+     * An elementary stream of a [TsProgram].
+     *
+     * @param pid the PID of the stream
+     * @param streamType the MPEG-TS stream type
+     */
+    data class ElementaryStream(val pid: Int, val streamType: Int) {
+        val isVideo = streamType in VIDEO_STREAM_TYPES
+    }
+
+    /**
+     * Follows the PAT and the PMT of a stream.
+     *
+     * Only sections that fit in one packet are parsed. It is always the case for the few streams
+     * of a live contribution.
+     */
+    class Parser {
+        private var pmtPid = -1
+
+        /**
+         * The last parsed program or null if PAT and PMT have not been received yet.
+         */
+        var program: TsProgram? = null
+            private set
+
+        /**
+         * Whether the PID carries PSI.
+         */
+        fun isPsi(pid: Int) =
+            (pid == TsPackets.PAT_PID) || (pid == TsPackets.SDT_PID) || (pid == pmtPid)
+
+        /**
+         * Parses a packet if it carries a PAT or the PMT.
+         *
+         * @return true if the program has changed
+         */
+        fun parse(buffer: ByteBuffer, position: Int, pid: Int): Boolean {
+            return when (pid) {
+                TsPackets.PAT_PID -> {
+                    parsePat(buffer, position)
+                    false
+                }
+
+                pmtPid -> parsePmt(buffer, position)
+                else -> false
+            }
+        }
+
+        private fun parsePat(buffer: ByteBuffer, position: Int) {
+            val section = TsPackets.getSectionPosition(buffer, position, PAT_TABLE_ID)
+            if (section < 0) {
+                return
+            }
+            val end = TsPackets.getSectionEnd(buffer, section) - CRC_SIZE
+            var i = section + 8
+            while (i + 4 <= end) {
+                val programNumber =
+                    ((buffer.get(i).toInt() and 0xFF) shl 8) or (buffer.get(i + 1).toInt() and 0xFF)
+                if (programNumber != 0) {
+                    pmtPid = ((buffer.get(i + 2).toInt() and 0x1F) shl 8) or (buffer.get(i + 3)
+                        .toInt() and 0xFF)
+                    return
+                }
+                i += 4
+            }
+        }
+
+        private fun parsePmt(buffer: ByteBuffer, position: Int): Boolean {
+            val section = TsPackets.getSectionPosition(buffer, position, PMT_TABLE_ID)
+            if (section < 0) {
+                return false
+            }
+            val end = TsPackets.getSectionEnd(buffer, section) - CRC_SIZE
+            val pcrPid = ((buffer.get(section + 8).toInt() and 0x1F) shl 8) or (buffer.get(
+                section + 9
+            ).toInt() and 0xFF)
+            val programInfoLength = ((buffer.get(section + 10).toInt() and 0x0F) shl 8) or
+                    (buffer.get(section + 11).toInt() and 0xFF)
+
+            val streams = mutableListOf<ElementaryStream>()
+            var i = section + 12 + programInfoLength
+            while (i + 5 <= end) {
+                val streamType = buffer.get(i).toInt() and 0xFF
+                val pid = ((buffer.get(i + 1).toInt() and 0x1F) shl 8) or (buffer.get(i + 2)
+                    .toInt() and 0xFF)
+                val esInfoLength = ((buffer.get(i + 3).toInt() and 0x0F) shl 8) or
+                        (buffer.get(i + 4).toInt() and 0xFF)
+                streams.add(ElementaryStream(pid, streamType))
+                i += 5 + esInfoLength
+            }
+
+            val newProgram = TsProgram(pmtPid, pcrPid, streams)
+            if (newProgram == program) {
+                return false
+            }
+            program = newProgram
+            return true
+        }
+
+        fun reset() {
+            pmtPid = -1
+            program = null
+        }
+    }
+
+    companion object {
+        const val STREAM_TYPE_H264 = 0x1B
+        const val STREAM_TYPE_HEVC = 0x24
+
+        private val VIDEO_STREAM_TYPES = setOf(0x01, 0x02, 0x10, STREAM_TYPE_H264, STREAM_TYPE_HEVC)
+
+        private const val PAT_TABLE_ID = 0x00
+        private const val PMT_TABLE_ID = 0x02
+        private const val CRC_SIZE = 4
+    }
+}
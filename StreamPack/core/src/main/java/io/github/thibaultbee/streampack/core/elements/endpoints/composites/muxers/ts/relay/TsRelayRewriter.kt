@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.relay
+
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.packets.TS
+import io.github.thibaultbee.streampack.core.logger.Logger
+import java.nio.ByteBuffer
+
+/**
+ * Merges the packets of a muxer and of a relayed stream into a single MPEG-TS stream.
+ *
+ * The muxer always provides the PSI (PAT, PMT and SDT). The elementary streams come from either
+ * the muxer or the relayed stream depending on [mode]. The relayed elementary streams are mapped
+ * to the muxer ones with the same stream type and their PCR and timestamps are offset to follow
+ * the muxer clock. Continuity counters are rewritten for all outgoing packets.
+ *
+ * Lost relayed packets (a gap of their continuity counters or [onRelayedPacketsLost]) are not
+ * hidden by the rewritten continuity counters: the relayed elementary stream resumes on its next
+ * PES start (next key frame for video) with the discontinuity indicator set.
+ *
+ * This class is not thread-safe.
+ *
+ * @param nanoTimeProvider the monotonic clock in ns
+ */
+internal class TsRelayRewriter(private val nanoTimeProvider: () -> Long = System::nanoTime) {
+    private val muxerParser = TsProgram.Parser()
+    private val relayedParser = TsProgram.Parser()
+
+    /**
+     * Muxer PID of each relayed PID or -1 if the relayed PID is not relayed.
+     */
+    private val pidMapping = IntArray(TsPackets.MAX_PID + 1) { -1 }
+    private var isCompatible = false
+
+    private val continuityCounters = IntArray(TsPackets.MAX_PID + 1)
+
+    /**
+     * Whether the elementary stream of a PID waits for a PES start after a switch.
+     */
+    private val isWaitingForUnitStart = BooleanArray(TsPackets.MAX_PID + 1)
+
+    /**
+     * Last continuity counter of each relayed PID or -1 if it is unknown.
+     */
+    private val relayedContinuityCounters = IntArray(TsPackets.MAX_PID + 1) { -1 }
+
+    /**
+     * Whether the next outgoing packet of a PID must signal a discontinuity.
+     */
+    private val hasDiscontinuity = BooleanArray(TsPackets.MAX_PID + 1)
+
+    /**
+     * Whether the relayed video waits for a key frame after lost packets.
+     */
+    private var isWaitingForRelayedKeyFrame = false
+
+    private var lastMuxerPcrBase: Long? = null
+    private var lastMuxerPcrTimeInNs = 0L
+    private var lastRelayedPcrBase: Long? = null
+    private var timestampOffset = 0L
+
+    var mode = TsRelayMode.TRANSCODE
+        private set
+
+    /**
+     * Requests a mode. It is applied with the next packets.
+     */
+    fun requestMode(requestedMode: TsRelayMode) {
+        mode = when (requestedMode) {
+            TsRelayMode.RELAY, TsRelayMode.SWITCHING_TO_RELAY -> when (mode) {
+                TsRelayMode.TRANSCODE -> TsRelayMode.SWITCHING_TO_RELAY
+                TsRelayMode.SWITCHING_TO_TRANSCODE -> TsRelayMode.RELAY
+                else -> mode
+            }
+
+            TsRelayMode.TRANSCODE, TsRelayMode.SWITCHING_TO_TRANSCODE -> when (mode) {
+                TsRelayMode.RELAY -> TsRelayMode.SWITCHING_TO_TRANSCODE
+                TsRelayMode.SWITCHING_TO_RELAY -> TsRelayMode.TRANSCODE
+                else -> mode
+            }
+        }
+    }
+
+    /**
+     * Filters and rewrites muxer packets in place.
+     *
+     * @param buffer the muxer packets. Its limit is updated to the remaining packets.
+     */
+    fun processMuxerPackets(buffer: ByteBuffer) = compact(buffer) { position ->
+        processMuxerPacket(buffer, position)
+    }
+
+    /**
+     * Filters and rewrites relayed packets in place.
+     *
+     * @param buffer the relayed packets. Its limit is updated to the remaining packets.
+     */
+    fun processRelayedPackets(buffer: ByteBuffer) = compact(buffer) { position ->
+        processRelayedPacket(buffer, position)
+    }
+
+    /**
+     * Signals that relayed packets were lost before the next relayed packets, for example
+     * because the relayed stream could not be read fast enough.
+     */
+    fun onRelayedPacketsLost() {
+        relayedContinuityCounters.fill(-1)
+        resyncRelayedStreams()
+    }
+
+    /**
+     * Resets the state for a new outgoing stream.
+     */
+    fun reset() {
+        muxerParser.reset()
+        relayedParser.reset()
+        pidMapping.fill(-1)
+        isCompatible = false
+        continuityCounters.fill(0)
+        isWaitingForUnitStart.fill(false)
+        relayedContinuityCounters.fill(-1)
+        hasDiscontinuity.fill(false)
+        isWaitingForRelayedKeyFrame = false
+        lastMuxerPcrBase = null
+        lastRelayedPcrBase = null
+        timestampOffset = 0
+        mode = TsRelayMode.TRANSCODE
+    }
+
+    private fun processMuxerPacket(buffer: ByteBuffer, position: Int): Boolean {
+        val pid = TsPackets.getPid(buffer, position)
+        if (muxerParser.parse(buffer, position, pid)) {
+            updatePidMapping()
+        }
+        if (muxerParser.isPsi(pid)) {
+            return write(buffer, position, pid)
+        }
+
+        TsPackets.getPcrBase(buffer, position)?.let {
+            lastMuxerPcrBase = it
+            lastMuxerPcrTimeInNs = nanoTimeProvider()
+        }
+
+        if ((mode == TsRelayMode.SWITCHING_TO_TRANSCODE) && (pid == muxerParser.program?.videoStream?.pid) &&
+            TsPackets.isPayloadUnitStart(buffer, position) && TsPackets.isRandomAccess(
+                buffer,
+                position
+            )
+        ) {
+            Logger.i(TAG, "Muxer key frame: switching to transcode")
+            switchTo(TsRelayMode.TRANSCODE)
+        }
+
+        return when (mode) {
+            TsRelayMode.TRANSCODE, TsRelayMode.SWITCHING_TO_RELAY -> write(buffer, position, pid)
+            TsRelayMode.RELAY, TsRelayMode.SWITCHING_TO_TRANSCODE -> false
+        }
+    }
+
+    private fun processRelayedPacket(buffer: ByteBuffer, position: Int): Boolean {
+        val pid = TsPackets.getPid(buffer, position)
+        if (relayedParser.parse(buffer, position, pid)) {
+            updatePidMapping()
+        }
+        if (relayedParser.isPsi(pid)) {
+            // PSI always come from the muxer
+            return false
+        }
+        if (!checkRelayedContinuity(buffer, position, pid)) {
+            return false
+        }
+
+        TsPackets.getPcrBase(buffer, position)?.let {
+            lastRelayedPcrBase = it
+        }
+
+        val muxerPid = pidMapping[pid]
+        if (muxerPid < 0) {
+            return false
+        }
+
+        if ((mode == TsRelayMode.SWITCHING_TO_RELAY) && (muxerPid == muxerParser.program?.videoStream?.pid) && isRelayedKeyFrame(
+                buffer,
+                position,
+                pid
+            )
+        ) {
+            val muxerPcrBase = lastMuxerPcrBase
+            val relayedPcrBase = lastRelayedPcrBase
+            if ((muxerPcrBase != null) && (relayedPcrBase != null)) {
+                val elapsedTimeIn90kHz =
+                    (nanoTimeProvider() - lastMuxerPcrTimeInNs) * 90 / 1_000_000
+                timestampOffset = muxerPcrBase + elapsedTimeIn90kHz - relayedPcrBase
+                Logger.i(TAG, "Relayed key frame: switching to relay")
+                switchTo(TsRelayMode.RELAY)
+            }
+        }
+
+        return when (mode) {
+            TsRelayMode.RELAY, TsRelayMode.SWITCHING_TO_TRANSCODE -> {
+                if (isWaitingForRelayedKeyFrame && (muxerPid == muxerParser.program?.videoStream?.pid)) {
+                    if (!isRelayedKeyFrame(buffer, position, pid)) {
+                        return false
+                    }
+                    isWaitingForRelayedKeyFrame = false
+                }
+                TsPackets.offsetTimestamps(buffer, position, timestampOffset)
+                TsPackets.setPid(buffer, position, muxerPid)
+                write(buffer, position, muxerPid)
+            }
+
+            TsRelayMode.TRANSCODE, TsRelayMode.SWITCHING_TO_RELAY -> false
+        }
+    }
+
+    /**
+     * Checks the continuity counter of a relayed packet.
+     *
+     * @return false if the packet is a duplicate and must be dropped
+     */
+    private fun checkRelayedContinuity(buffer: ByteBuffer, position: Int, pid: Int): Boolean {
+        if (!TsPackets.hasPayload(buffer, position)) {
+            return true
+        }
+        val continuityCounter = TsPackets.getContinuityCounter(buffer, position)
+        val lastContinuityCounter = relayedContinuityCounters[pid]
+        relayedContinuityCounters[pid] = continuityCounter
+        if ((lastContinuityCounter < 0) || (continuityCounter == ((lastContinuityCounter + 1) and 0xF))) {
+            return true
+        }
+        if ((continuityCounter == lastContinuityCounter) && !TsPackets.isDiscontinuity(buffer, position)) {
+            // A packet may be sent twice
+            return false
+        }
+
+        val muxerPid = pidMapping[pid]
+        if (muxerPid >= 0) {
+            Logger.w(
+                TAG,
+                "Relayed packets lost on PID $pid: expected continuity counter ${(lastContinuityCounter + 1) and 0xF} but got $continuityCounter"
+            )
+            resyncRelayedStream(muxerPid)
+        }
+        return true
+    }
+
+    private fun resyncRelayedStreams() {
+        muxerParser.program?.streams?.forEach {
+            resyncRelayedStream(it.pid)
+        }
+    }
+
+    /**
+     * Drops the relayed elementary stream of [muxerPid] until its next PES start (next key frame
+     * for video) and signals the discontinuity downstream.
+     */
+    private fun resyncRelayedStream(muxerPid: Int) {
+        // Outgoing elementary streams only come from the relayed stream in these modes
+        if ((mode != TsRelayMode.RELAY) && (mode != TsRelayMode.SWITCHING_TO_TRANSCODE)) {
+            return
+        }
+        isWaitingForUnitStart[muxerPid] = true
+        hasDiscontinuity[muxerPid] = true
+        if (muxerPid == muxerParser.program?.videoStream?.pid) {
+            isWaitingForRelayedKeyFrame = true
+        }
+    }
+
+    private fun isRelayedKeyFrame(buffer: ByteBuffer, position: Int, pid: Int): Boolean {
+        if (!TsPackets.isPayloadUnitStart(buffer, position)) {
+            return false
+        }
+        if (TsPackets.isRandomAccess(buffer, position)) {
+            return true
+        }
+        val streamType =
+            relayedParser.program?.streams?.firstOrNull { it.pid == pid }?.streamType ?: return false
+        return TsPackets.startsWithKeyFrame(buffer, position, streamType)
+    }
+
+    private fun switchTo(newMode: TsRelayMode) {
+        mode = newMode
+        muxerParser.program?.streams?.forEach {
+            isWaitingForUnitStart[it.pid] = true
+        }
+        // Both sources already resume on a key frame with continuous timestamps
+        hasDiscontinuity.fill(false)
+        isWaitingForRelayedKeyFrame = false
+    }
+
+    /**
+     * Rewrites the continuity counter of an outgoing packet and signals pending discontinuities.
+     *
+     * @return false if the packet must be dropped because its elementary stream waits for a PES
+     * start
+     */
+    private fun write(buffer: ByteBuffer, position: Int, pid: Int): Boolean {
+        if (isWaitingForUnitStart[pid]) {
+            if (!TsPackets.isPayloadUnitStart(buffer, position)) {
+                return false
+            }
+            isWaitingForUnitStart[pid] = false
+        }
+
+        if (hasDiscontinuity[pid] && TsPackets.hasPayload(buffer, position)) {
+            hasDiscontinuity[pid] = false
+            if (!TsPackets.setDiscontinuityIndicator(buffer, position)) {
+                // No adaptation field to carry the indicator: skips a continuity counter so that
+                // the loss is still visible downstream
+                continuityCounters[pid] = (continuityCounters[pid] + 1) and 0xF
+            }
+        }
+
+        val continuityCounter = if (TsPackets.hasPayload(buffer, position)) {
+            val continuityCounter = continuityCounters[pid]
+            continuityCounters[pid] = (continuityCounter + 1) and 0xF
+            continuityCounter
+        } else {
+            // Continuity counter is not incremented for packets without payload
+            (continuityCounters[pid] - 1) and 0xF
+        }
+        TsPackets.setContinuityCounter(buffer, position, continuityCounter)
+        return true
+    }
+
+    private fun updatePidMapping() {
+        pidMapping.fill(-1)
+        val muxerProgram = muxerParser.program
+        val relayedProgram = relayedParser.program
+        if ((muxerProgram == null) || (relayedProgram == null)) {
+            isCompatible = false
+            return
+        }
+
+        val unmappedStreams = relayedProgram.streams.toMutableList()
+        muxerProgram.streams.forEach { muxerStream ->
+            val relayedStream =
+                unmappedStreams.firstOrNull { it.streamType == muxerStream.streamType }
+            if (relayedStream != null) {
+                pidMapping[relayedStream.pid] = muxerStream.pid
+                unmappedStreams.remove(relayedStream)
+            }
+        }
+
+        val wasCompatible = isCompatible
+        isCompatible = (muxerProgram.videoStream != null) &&
+                muxerProgram.streams.all { muxerStream -> pidMapping.contains(muxerStream.pid) } &&
+                (pidMapping[relayedProgram.pcrPid] == muxerProgram.pcrPid)
+        if (!isCompatible) {
+            pidMapping.fill(-1)
+            if (wasCompatible || (mode != TsRelayMode.TRANSCODE)) {
+                Logger.w(
+                    TAG,
+                    "Relayed streams $relayedProgram do not match muxer streams $muxerProgram"
+                )
+            }
+            when (mode) {
+                TsRelayMode.SWITCHING_TO_RELAY -> mode = TsRelayMode.TRANSCODE
+                TsRelayMode.RELAY -> mode = TsRelayMode.SWITCHING_TO_TRANSCODE
+                else -> Unit
+            }
+        }
+    }
+
+    /**
+     * Keeps the packets for which [keep] returns true at the beginning of the buffer.
+     */
+    private inline fun compact(buffer: ByteBuffer, keep: (Int) -> Boolean) {
+        val start = buffer.position()
+        var writePosition = start
+        var readPosition = start
+        while (readPosition + TS.PACKET_SIZE <= buffer.limit()) {
+            if (TsPackets.isSynced(buffer, readPosition) && keep(readPosition)) {
+                if (writePosition != readPosition) {
+                    for (i in 0 until TS.PACKET_SIZE) {
+                        buffer.put(writePosition + i, buffer.get(readPosition + i))
+                    }
+                }
+                writePosition += TS.PACKET_SIZE
+            }
+            readPosition += TS.PACKET_SIZE
+        }
+        buffer.limit(writePosition)
+    }
+
+    companion object {
+        private const val TAG = "TsRelayRewriter"
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.utils
+
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.packets.TS
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.relay.TsPackets
+import io.github.thibaultbee.streampack.core.elements.utils.av.video.TimingSei
+import java.nio.ByteBuffer
+
+/**
+ * Finds the [TimingSei] messages in a MPEG-TS stream, for example on the receiver side of a
+ * SRT stream.
+ *
+ * The stream is read packet by packet. A message split over 2 packets of the same PID is found
+ * when the second packet is scanned.
+ */
+class TsTimingSeiScanner {
+    private val carries = mutableMapOf<Int, ByteArray>()
+
+    /**
+     * Scans MPEG-TS packets.
+     *
+     * @param data the packets. It must start on a packet boundary.
+     * @param offset the start of the packets
+     * @param length the length of the packets. A trailing partial packet is ignored.
+     * @return the timing messages found in the packets
+     */
+    fun scan(data: ByteArray, offset: Int = 0, length: Int = data.size - offset): List<TimingSei> {
+        val buffer = ByteBuffer.wrap(data)
+        val timingSeis = mutableListOf<TimingSei>()
+        var position = offset
+        while (position + TS.PACKET_SIZE <= offset + length) {
+            scanPacket(buffer, position)?.let { timingSeis.add(it) }
+            position += TS.PACKET_SIZE
+        }
+        return timingSeis
+    }
+
+    private fun scanPacket(buffer: ByteBuffer, position: Int): TimingSei? {
+        if (!TsPackets.isSynced(buffer, position)) {
+            return null
+        }
+        val payloadPosition = TsPackets.getPayloadPosition(buffer, position)
+        if (payloadPosition < 0) {
+            return null
+        }
+        val pid = TsPackets.getPid(buffer, position)
+        val carry = carries[pid] ?: EMPTY
+        val data = carry + buffer.array().copyOfRange(payloadPosition, position + TS.PACKET_SIZE)
+
+        val timingSei = TimingSei.find(data)
+        carries[pid] = if (timingSei != null) {
+            EMPTY
+        } else {
+            data.copyOfRange(maxOf(0, data.size - CARRY_SIZE), data.size)
+        }
+        return timingSei
+    }
+
+    /**
+     * Forgets the partial messages, for example after a reconnection.
+     */
+    fun reset() {
+        carries.clear()
+    }
+
+    companion object {
+        private val EMPTY = ByteArray(0)
+
+        /**
+         * Enough bytes to hold the UUID and the escaped fields of a message.
+         */
+        private const val CARRY_SIZE = 48
+    }
+}
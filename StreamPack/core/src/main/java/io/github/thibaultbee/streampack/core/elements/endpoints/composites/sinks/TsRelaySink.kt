@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks
+
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.data.Packet
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.packets.TS
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.relay.ITsRelay
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.relay.TsRelayMode
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.relay.TsRelayRewriter
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.utils.MuxerConst
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.nio.ByteBuffer
+
+/**
+ * A [ISinkInternal] for MPEG-TS muxers that can relay an incoming MPEG-TS stream.
+ *
+ * In [TsRelayMode.TRANSCODE] mode, muxer packets are written unchanged (except for continuity
+ * counters).
+ *
+ * @param sink the sink to write to
+ */
+class TsRelaySink(private val sink: ISinkInternal) : ISinkInternal, ITsRelay, MetricsProducer {
+    private val mutex = Mutex()
+    private val rewriter = TsRelayRewriter()
+
+    @Volatile
+    private var requestedMode: TsRelayMode? = null
+
+    @Volatile
+    private var hasLostPackets = false
+
+    private val _relayModeFlow = MutableStateFlow(TsRelayMode.TRANSCODE)
+    override val relayModeFlow: StateFlow<TsRelayMode> = _relayModeFlow.asStateFlow()
+
+    override val isOpenFlow: StateFlow<Boolean>
+        get() = sink.isOpenFlow
+
+    override val metrics: Any
+        get() = sink.metrics
+
+    override fun registerMetrics(registry: MetricsRegistry) {
+        (sink as? MetricsProducer)?.registerMetrics(registry)
+    }
+
+    override fun configure(config: SinkConfiguration) = sink.configure(config)
+
+    override suspend fun open(mediaDescriptor: MediaDescriptor) = sink.open(mediaDescriptor)
+
+    override fun requestRelayMode(mode: TsRelayMode) {
+        requestedMode = mode
+    }
+
+    override fun notifyPacketsLost() {
+        hasLostPackets = true
+    }
+
+    override suspend fun write(packet: Packet): Int {
+        return mutex.withLock {
+            applyRequestedMode()
+            rewriter.processMuxerPackets(packet.buffer)
+            updateRelayMode()
+            if (packet.buffer.hasRemaining()) {
+                sink.write(packet)
+            } else {
+                0
+            }
+        }
+    }
+
+    override suspend fun relay(buffer: ByteBuffer) {
+        mutex.withLock {
+            applyRequestedMode()
+            if (hasLostPackets) {
+                hasLostPackets = false
+                rewriter.onRelayedPacketsLost()
+            }
+            rewriter.processRelayedPackets(buffer)
+            updateRelayMode()
+
+            // Sinks expect at most MAX_OUTPUT_PACKET_NUMBER packets per write
+            val limit = buffer.limit()
+            while (buffer.hasRemaining()) {
+                val chunk = buffer.duplicate()
+                chunk.limit(
+                    minOf(limit, buffer.position() + TS.PACKET_SIZE * MuxerConst.MAX_OUTPUT_PACKET_NUMBER)
+                )
+                buffer.position(chunk.limit())
+                sink.write(Packet(chunk.slice(), 0))
+            }
+        }
+    }
+
+    private fun applyRequestedMode() {
+        requestedMode?.let {
+            requestedMode = null
+            rewriter.requestMode(it)
+        }
+    }
+
+    private fun updateRelayMode() {
+        _relayModeFlow.value = rewriter.mode
+    }
+
+    override suspend fun startStream() {
+        mutex.withLock {
+            hasLostPackets = false
+            rewriter.reset()
+            updateRelayMode()
+        }
+        sink.startStream()
+    }
+
+    override suspend fun stopStream() {
+        sink.stopStream()
+    }
+
+    override suspend fun close() = sink.close()
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.hls
+
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.TimeZone
+
+/**
+ * A HLS media playlist (`m3u8`).
+ *
+ * Segments are added as they are written. With [partTargetDurationInUs], the partial segments of
+ * the last segments are listed for Low-Latency HLS. Partial segments are byte ranges of their
+ * segment so that they do not need their own files.
+ *
+ * @param targetDurationInUs the maximum duration of a segment. The `EXT-X-TARGETDURATION` is
+ * rounded up to the second and it never changes: the segments must not be longer.
+ * @param partTargetDurationInUs the maximum duration of a partial segment or `null` without
+ * partial segments
+ * @param windowSize the number of segments in the playlist. 0 to keep every segment: the playlist
+ * is then an `EVENT` playlist.
+ */
+class HlsPlaylist(
+    private val targetDurationInUs: Long,
+    private val partTargetDurationInUs: Long? = null,
+    private val windowSize: Int = 0
+) {
+    private val segments = ArrayDeque<Segment>()
+    private var currentSegment: CurrentSegment? = null
+
+    /**
+     * The sequence number of the first segment of the playlist.
+     */
+    var mediaSequenceNumber = 0L
+        private set
+
+    /**
+     * Whether the playlist has ended. No segment can be added.
+     */
+    var isEnded = false
+        private set
+
+    /**
+     * The segments of the playlist, without the current segment.
+     */
+    val completedSegments: List<Segment>
+        get() = segments.toList()
+
+    init {
+        require(targetDurationInUs > 0) { "Target duration must be positive" }
+        partTargetDurationInUs?.let {
+            require(it in 1..targetDurationInUs) { "Part target duration must be positive and at most the target duration" }
+        }
+        require(windowSize >= 0) { "Window size must not be negative" }
+    }
+
+    /**
+     * Starts a new segment. Its partial segments are listed until [endSegment].
+     *
+     * @param uri the URI of the segment, relative to the playlist
+     * @param programDateTimeInMs the wall clock time of the first sample or `null`
+     */
+    fun startSegment(uri: String, programDateTimeInMs: Long? = null) {
+        check(!isEnded) { "Playlist has ended" }
+        check(currentSegment == null) { "Current segment is not ended" }
+        currentSegment = CurrentSegment(uri, programDateTimeInMs)
+    }
+
+    /**
+     * Adds a partial segment to the current segment.
+     */
+    fun addPart(part: Part) {
+        val segment = checkNotNull(currentSegment) { "No segment started" }
+        segment.parts.add(part)
+    }
+
+    /**
+     * Ends the current segment.
+     *
+     * @param durationInUs the duration of the segment
+     * @return the segments that left the playlist window
+     */
+    fun endSegment(durationInUs: Long): List<Segment> {
+        val segment = checkNotNull(currentSegment) { "No segment started" }
+        currentSegment = null
+        segments.add(
+            Segment(
+                mediaSequenceNumber + segments.size,
+                segment.uri,
+                durationInUs,
+                segment.parts.toList(),
+                segment.programDateTimeInMs
+            )
+        )
+
+        val removedSegments = mutableListOf<Segment>()
+        if (windowSize > 0) {
+            while (segments.size > windowSize) {
+                removedSegments.add(segments.removeFirst())
+                mediaSequenceNumber++
+            }
+        }
+        return removedSegments
+    }
+
+    /**
+     * Ends the playlist. The current segment must have been ended.
+     */
+    fun end() {
+        check(currentSegment == null) { "Current segment is not ended" }
+        isEnded = true
+    }
+
+    fun toM3u8(): String {
+        val builder = StringBuilder()
+        builder.appendLine("#EXTM3U")
+        builder.appendLine("#EXT-X-VERSION:${if (partTargetDurationInUs != null) 6 else 3}")
+        builder.appendLine("#EXT-X-TARGETDURATION:$targetDurationInS")
+        if (windowSize == 0) {
+            builder.appendLine("#EXT-X-PLAYLIST-TYPE:EVENT")
+        }
+        partTargetDurationInUs?.let {
+            builder.appendLine("#EXT-X-SERVER-CONTROL:PART-HOLD-BACK=${formatSeconds(PART_HOLD_BACK_FACTOR * it)}")
+            builder.appendLine("#EXT-X-PART-INF:PART-TARGET=${formatSeconds(it)}")
+        }
+        builder.appendLine("#EXT-X-MEDIA-SEQUENCE:$mediaSequenceNumber")
+
+        // Partial segments are only listed for the last 3 target durations
+        val partWindowInUs = PART_WINDOW_FACTOR * targetDurationInS * 1_000_000L
+        var durationAfterInUs = 0L
+        val numOfSegmentsWithParts = segments.reversed().takeWhile {
+            val isInWindow = durationAfterInUs < partWindowInUs
+            durationAfterInUs += it.durationInUs
+            isInWindow
+        }.size
+        val firstSegmentWithPartsIndex = segments.size - numOfSegmentsWithParts
+
+        segments.forEachIndexed { index, segment ->
+            segment.programDateTimeInMs?.let {
+                builder.appendLine("#EXT-X-PROGRAM-DATE-TIME:${formatDateTime(it)}")
+            }
+            if (index >= firstSegmentWithPartsIndex) {
+                segment.parts.forEach { builder.appendPart(segment.uri, it) }
+            }
+            builder.appendLine("#EXTINF:${formatSeconds(segment.durationInUs)},")
+            builder.appendLine(segment.uri)
+        }
+        currentSegment?.let { segment ->
+            if (partTargetDurationInUs != null) {
+                segment.programDateTimeInMs?.let {
+                    builder.appendLine("#EXT-X-PROGRAM-DATE-TIME:${formatDateTime(it)}")
+                }
+                segment.parts.forEach { builder.appendPart(segment.uri, it) }
+            }
+        }
+        if (isEnded) {
+            builder.appendLine("#EXT-X-ENDLIST")
+        }
+        return builder.toString()
+    }
+
+    /**
+     * The target duration in seconds: [targetDurationInUs] rounded up to the second.
+     */
+    val targetDurationInS = (targetDurationInUs + 999_999) / 1_000_000
+
+    private fun StringBuilder.appendPart(uri: String, part: Part) {
+        append("#EXT-X-PART:DURATION=${formatSeconds(part.durationInUs)},URI=\"$uri\"")
+        append(",BYTERANGE=\"${part.length}@${part.offset}\"")
+        if (part.isIndependent) {
+            append(",INDEPENDENT=YES")
+        }
+        appendLine()
+    }
+
+    /**
+     * A partial segment.
+     *
+     * @param durationInUs the duration of the partial segment
+     * @param offset the offset of the partial segment in its segment
+     * @param length the size of the partial segment in bytes
+     * @param isIndependent whether the partial segment starts with a key frame
+     */
+    data class Part(
+        val durationInUs: Long,
+        val offset: Long,
+        val length: Long,
+        val isIndependent: Boolean
+    )
+
+    /**
+     * A segment of the playlist.
+     *
+     * @param sequenceNumber the media sequence number of the segment
+     * @param uri the URI of the segment, relative to the playlist
+     * @param durationInUs the duration of the segment
+     * @param parts the partial segments of the segment
+     * @param programDateTimeInMs the wall clock time of the first sample or `null`
+     */
+    data class Segment(
+        val sequenceNumber: Long,
+        val uri: String,
+        val durationInUs: Long,
+        val parts: List<Part>,
+        val programDateTimeInMs: Long?
+    )
+
+    private class CurrentSegment(val uri: String, val programDateTimeInMs: Long?) {
+        val parts = mutableListOf<Part>()
+    }
+
+    companion object {
+        private const val PART_HOLD_BACK_FACTOR = 3
+        private const val PART_WINDOW_FACTOR = 3
+
+        private fun formatSeconds(durationInUs: Long) =
+            String.format(Locale.US, "%.3f", durationInUs / 1_000_000.0)
+
+        private fun formatDateTime(timeInMs: Long): String {
+            val format = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US)
+            format.timeZone = TimeZone.getTimeZone("UTC")
+            return format.format(Date(timeInMs))
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.hls
+
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig
+import io.github.thibaultbee.streampack.core.elements.endpoints.MediaSinkType
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.data.Packet
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.AbstractSink
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.SinkConfiguration
+import io.github.thibaultbee.streampack.core.logger.Logger
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Configuration of a [HlsSink].
+ *
+ * @param segmentDurationInUs the minimum duration of a segment. Segments are cut on the first key
+ * frame after it.
+ * @param maxKeyFrameIntervalInUs the maximum interval between two video key frames. The playlist
+ * target duration is [segmentDurationInUs] plus this interval, rounded up to the second. If null,
+ * it is the GOP duration of the video encoder ([VideoCodecConfig.gopDurationInS]).
+ * @param partDurationInUs the maximum duration of a partial segment for Low-Latency HLS. `null`
+ * to disable partial segments.
+ * @param windowSize the number of segments in the playlist. Segments that leave the playlist are
+ * deleted once they are a window older. 0 to keep every segment: the playlist can then be played
+ * from the start.
+ * @param bufferSize the size of the write buffer. It is allocated once.
+ */
+data class HlsConfig(
+    val segmentDurationInUs: Long = DEFAULT_SEGMENT_DURATION_IN_US,
+    val partDurationInUs: Long? = DEFAULT_PART_DURATION_IN_US,
+    val maxKeyFrameIntervalInUs: Long? = null,
+    val windowSize: Int = 0,
+    val bufferSize: Int = DEFAULT_BUFFER_SIZE
+) {
+    init {
+        require(segmentDurationInUs > 0) { "Segment duration must be positive" }
+        partDurationInUs?.let {
+            require(it in 1..segmentDurationInUs) { "Part duration must be positive and at most the segment duration" }
+        }
+        maxKeyFrameIntervalInUs?.let {
+            require(it > 0) { "Max key frame interval must be positive" }
+        }
+        require(windowSize >= 0) { "Window size must not be negative" }
+        require(bufferSize > 0) { "Buffer size must be positive" }
+    }
+
+    companion object {
+        const val DEFAULT_SEGMENT_DURATION_IN_US = 4_000_000L
+        const val DEFAULT_PART_DURATION_IN_US = 1_000_000L
+        const val DEFAULT_BUFFER_SIZE = 188 * 1024 // 1024 MPEG-TS packets
+    }
+}
+
+/**
+ * A sink that writes a MPEG-TS stream as HLS segments and maintains their `m3u8` playlist.
+ *
+ * The media descriptor is the playlist file. Segments are written next to it and named after it:
+ * `live.m3u8` has segments `live_0.ts`, `live_1.ts`,...
+ *
+ * Segments and partial segments are cut by [prepareFrame] that must be called before a frame is
+ * muxed: segments start on a key frame (with the PAT and PMT the MPEG-TS muxer writes before key
+ * frames). A segment is never cut in the middle of a GOP: if the key frames are further apart
+ * than expected, the segment is longer than the target duration. Data is written through a buffer that is flushed at the end of each partial segment,
+ * before the playlist is updated. The playlist is replaced atomically.
+ *
+ * @param coroutineDispatcher the dispatcher of the file writes
+ * @param config the segmentation configuration
+ * @param wallClockInMs the clock of the program date time of the segments
+ */
+class HlsSink(
+    private val coroutineDispatcher: CoroutineDispatcher,
+    private val config: HlsConfig = HlsConfig(),
+    private val wallClockInMs: () -> Long = { System.currentTimeMillis() }
+) : AbstractSink() {
+    override val supportedSinkTypes: List<MediaSinkType> = listOf(MediaSinkType.FILE)
+
+    private val mutex = Mutex()
+    private val buffer = ByteBuffer.allocateDirect(config.bufferSize)
+
+    private val _isOpenFlow = MutableStateFlow(false)
+    override val isOpenFlow = _isOpenFlow.asStateFlow()
+
+    private var playlistFile: File? = null
+    private var playlist: HlsPlaylist? = null
+
+    /**
+     * Whether segments are cut on video frames. Otherwise, they are cut on audio frames.
+     */
+    @Volatile
+    private var hasVideo = false
+
+    /**
+     * The maximum interval between two key frames: from [HlsConfig.maxKeyFrameIntervalInUs] or
+     * from the video encoder GOP.
+     */
+    @Volatile
+    private var keyFrameIntervalInUs = 0L
+
+    private var channel: FileChannel? = null
+    private var nextSequenceNumber = 0L
+    private var segmentSize = 0L
+    private var segmentStartPtsInUs = 0L
+    private var partStartPtsInUs = 0L
+    private var partOffset = 0L
+    private var isPartIndependent = false
+    private var isSegmentTooLong = false
+    private var lastPtsInUs: Long? = null
+    private var frameIntervalInUs = 0L
+
+    /**
+     * The segments that left the playlist and that are not deleted yet.
+     */
+    private val removedSegments = ArrayDeque<HlsPlaylist.Segment>()
+
+    override suspend fun openImpl(mediaDescriptor: MediaDescriptor) {
+        withContext(coroutineDispatcher) {
+            mutex.withLock {
+                if (playlistFile != null) {
+                    throw IllegalStateException("Sink is already opened")
+                }
+                val file = File(requireNotNull(mediaDescriptor.uri.path) { "Playlist path is missing" })
+                val filesDir = file.absoluteFile.parentFile!!
+                if (!filesDir.exists()) {
+                    require(filesDir.mkdirs()) { "Cannot create directory $filesDir" }
+                }
+                require(filesDir.canWrite()) { "Cannot write in directory $filesDir" }
+
+                playlistFile = file.absoluteFile
+                _isOpenFlow.emit(true)
+            }
+        }
+    }
+
+    override fun configure(config: SinkConfiguration) {
+        val videoConfig = config.streamConfigs.filterIsInstance<VideoCodecConfig>().firstOrNull()
+        hasVideo = videoConfig != null
+        keyFrameIntervalInUs = this.config.maxKeyFrameIntervalInUs
+            ?: videoConfig?.let { (it.gopDurationInS * 1_000_000).toLong() }
+                    ?: 0
+    }
+
+    override suspend fun startStream() {
+        mutex.withLock {
+            requireNotNull(playlistFile) { "Open the sink before starting the stream" }
+            playlist = HlsPlaylist(
+                config.segmentDurationInUs + keyFrameIntervalInUs,
+                config.partDurationInUs,
+                config.windowSize
+            )
+            nextSequenceNumber = 0
+            lastPtsInUs = null
+            frameIntervalInUs = 0
+            removedSegments.clear()
+        }
+    }
+
+    /**
+     * Cuts the current segment or partial segment if needed. Must be called before the frame is
+     * written to the muxer.
+     *
+     * @param ptsInUs the frame timestamp
+     * @param isVideo whether the frame is a video frame
+     * @param isKeyFrame whether the frame is a key frame
+     */
+    suspend fun prepareFrame(ptsInUs: Long, isVideo: Boolean, isKeyFrame: Boolean) {
+        mutex.withLock {
+            val playlist = playlist ?: return
+            val isCutFrame = isVideo == hasVideo
+            val isIndependent = isCutFrame && (isKeyFrame || !hasVideo)
+            if (channel == null) {
+                withContext(coroutineDispatcher) {
+                    openSegment(playlist, ptsInUs, isIndependent)
+                }
+            } else if (isCutFrame) {
+                val partDurationInUs = config.partDurationInUs
+                if (isIndependent && (ptsInUs - segmentStartPtsInUs >= config.segmentDurationInUs)) {
+                    withContext(coroutineDispatcher) {
+                        closeSegment(playlist, ptsInUs)
+                        openSegment(playlist, ptsInUs, true)
+                        writePlaylist(playlist)
+                    }
+                } else if ((partDurationInUs != null) && (ptsInUs > partStartPtsInUs)
+                    && (ptsInUs + frameIntervalInUs - partStartPtsInUs > partDurationInUs)
+                ) {
+                    // Cuts before the part would be longer than its target with the next frame
+                    withContext(coroutineDispatcher) {
+                        closePart(playlist, ptsInUs)
+                        isPartIndependent = isIndependent
+                        writePlaylist(playlist)
+                    }
+                }
+
+                if (!isSegmentTooLong
+                    && (ptsInUs - segmentStartPtsInUs > playlist.targetDurationInS * 1_000_000)
+                ) {
+                    Logger.w(
+                        TAG,
+                        "No key frame for ${ptsInUs - segmentStartPtsInUs} us: segment is longer than the target duration"
+                    )
+                    isSegmentTooLong = true
+                }
+            }
+
+            if (isCutFrame) {
+                lastPtsInUs?.let {
+                    frameIntervalInUs = maxOf(0, ptsInUs - it)
+                }
+                lastPtsInUs = ptsInUs
+            }
+        }
+    }
+
+    override suspend fun write(packet: Packet): Int {
+        return withContext(coroutineDispatcher) {
+            mutex.withLock {
+                val playlist = requireNotNull(playlist) { "Start the stream before writing" }
+                if (channel == null) {
+                    openSegment(playlist, packet.ts, false)
+                }
+                val channel = channel!!
+                val src = packet.buffer
+                val size = src.remaining()
+                if (size > buffer.remaining()) {
+                    flushBuffer(channel)
+                }
+                if (size > buffer.capacity()) {
+                    while (src.hasRemaining()) {
+                        channel.write(src)
+                    }
+                } else {
+                    buffer.put(src)
+                }
+                segmentSize += size
+                size
+            }
+        }
+    }
+
+    override suspend fun stopStream() {
+        withContext(coroutineDispatcher) {
+            mutex.withLock {
+                val playlist = playlist ?: return@withLock
+                this@HlsSink.playlist = null
+                try {
+                    if (channel != null) {
+                        closeSegment(playlist, (lastPtsInUs ?: segmentStartPtsInUs) + frameIntervalInUs)
+                    }
+                    playlist.end()
+                    writePlaylist(playlist)
+                } catch (t: Throwable) {
+                    Logger.e(TAG, "Failed to end playlist: ${t.message}")
+                    closeChannel()
+                }
+            }
+        }
+    }
+
+    override suspend fun close() {
+        stopStream()
+        withContext(coroutineDispatcher) {
+            mutex.withLock {
+                closeChannel()
+                playlistFile = null
+                _isOpenFlow.emit(false)
+            }
+        }
+    }
+
+    private fun openSegment(playlist: HlsPlaylist, ptsInUs: Long, isIndependent: Boolean) {
+        val playlistFile = playlistFile!!
+        val uri = "${playlistFile.nameWithoutExtension}_${nextSequenceNumber++}.ts"
+        channel = FileOutputStream(File(playlistFile.parentFile, uri)).channel
+        segmentSize = 0
+        segmentStartPtsInUs = ptsInUs
+        partStartPtsInUs = ptsInUs
+        partOffset = 0
+        isPartIndependent = isIndependent
+        isSegmentTooLong = false
+        playlist.startSegment(uri, wallClockInMs())
+    }
+
+    private fun closePart(playlist: HlsPlaylist, ptsInUs: Long) {
+        flushBuffer(channel!!)
+        val length = segmentSize - partOffset
+        if (length > 0) {
+            playlist.addPart(
+                HlsPlaylist.Part(
+                    ptsInUs - partStartPtsInUs,
+                    partOffset,
+                    length,
+                    isPartIndependent
+                )
+            )
+        }
+        partStartPtsInUs = ptsInUs
+        partOffset = segmentSize
+    }
+
+    private fun closeSegment(playlist: HlsPlaylist, ptsInUs: Long) {
+        if (config.partDurationInUs != null) {
+            closePart(playlist, ptsInUs)
+        } else {
+            flushBuffer(channel!!)
+        }
+        closeChannel()
+        val removed = playlist.endSegment(ptsInUs - segmentStartPtsInUs)
+        deleteRemovedSegments(removed)
+    }
+
+    private fun closeChannel() {
+        try {
+            channel?.close()
+        } catch (e: IOException) {
+            Logger.w(TAG, "Failed to close segment: ${e.message}")
+        } finally {
+            channel = null
+            buffer.clear()
+        }
+    }
+
+    private fun flushBuffer(channel: FileChannel) {
+        buffer.flip()
+        while (buffer.hasRemaining()) {
+            channel.write(buffer)
+        }
+        buffer.clear()
+    }
+
+    /**
+     * Deletes the segments that left the playlist a window ago: players that loaded an older
+     * playlist can still download them.
+     */
+    private fun deleteRemovedSegments(removed: List<HlsPlaylist.Segment>) {
+        removedSegments.addAll(removed)
+        val filesDir = playlistFile!!.parentFile
+        while (removedSegments.size > config.windowSize) {
+            val segment = removedSegments.removeFirst()
+            if (!File(filesDir, segment.uri).delete()) {
+                Logger.w(TAG, "Failed to delete segment ${segment.uri}")
+            }
+        }
+    }
+
+    private fun writePlaylist(playlist: HlsPlaylist) {
+        val playlistFile = playlistFile!!
+        val tmpFile = File(playlistFile.parentFile, "${playlistFile.name}.tmp")
+        tmpFile.writeText(playlist.toM3u8())
+        if (!tmpFile.renameTo(playlistFile)) {
+            throw IOException("Failed to write playlist $playlistFile")
+        }
+    }
+
+    companion object {
+        private const val TAG = "HlsSink"
+    }
+}
@@ -64,13 +64,13 @@ class AudioFrameProcessor : IFrameProcessor<RawFrame>, IAudioFrameProcessor {
             return
         }
 
-        // Direct buffer: chunked absolute writes (does not change position/limit)
+        // Direct buffer (e.g. encoder input buffer): chunked bulk writes on a duplicate (does not
+        // change position/limit)
+        val target = buffer.duplicate()
         var off = 0
         while (off < len) {
             val n = min(len - off, zeroChunk.size)
-            for (i in 0 until n) {
-                buffer.put(pos + off + i, 0.toByte())
-            }
+            target.put(zeroChunk, 0, n)
             off += n
         }
     }
@@ -33,17 +33,22 @@ import io.github.thibaultbee.streampack.core.elements.utils.extensions.rotate
 import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
 import io.github.thibaultbee.streampack.core.elements.utils.time.Timebase
 import io.github.thibaultbee.streampack.core.elements.utils.time.VideoTimebaseConverter
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineTracer
+import io.github.thibaultbee.streampack.core.elements.utils.trace.TraceStage
+import io.github.thibaultbee.streampack.core.elements.utils.trace.Traceable
 import io.github.thibaultbee.streampack.core.logger.Logger
 import io.github.thibaultbee.streampack.core.pipelines.DispatcherProvider.Companion.THREAD_NAME_GL
 import io.github.thibaultbee.streampack.core.pipelines.IVideoDispatcherProvider
 import io.github.thibaultbee.streampack.core.pipelines.utils.HandlerThreadExecutor
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.math.max
 
 
 private class DefaultSurfaceProcessor(
     private val dynamicRangeProfile: DynamicRangeProfile,
     private val glThread: HandlerThreadExecutor,
-) : ISurfaceProcessorInternal, SurfaceTexture.OnFrameAvailableListener {
+) : ISurfaceProcessorInternal, SurfaceTexture.OnFrameAvailableListener, Traceable {
     private val renderer = OpenGlRenderer()
 
     private val glHandler = glThread.handler
@@ -58,9 +63,26 @@ private class DefaultSurfaceProcessor(
     private val surfaceInputs: MutableList<SurfaceInput> = mutableListOf()
     private val surfaceInputsToTimeConverterMap: MutableMap<SurfaceTexture, VideoTimebaseConverter> =
         hashMapOf()
+    private val disabledSurfaceTextures: MutableSet<SurfaceTexture> = hashSetOf()
+
+    private var lastRenderedSurfaceTexture: SurfaceTexture? = null
+    private var lastRenderedTimestampNs = 0L
+    private var lastRenderTimeNs = 0L
+
+    /**
+     * Frames with a timestamp lower or equal are dropped. It keeps timestamps increasing after a
+     * held frame.
+     */
+    private var minTimestampNs = Long.MIN_VALUE
+
+    private var frameHold: FrameHold? = null
+    private val frameHoldTicker = Runnable { onFrameHoldTick() }
 
     private val pendingSnapshots = mutableListOf<PendingSnapshot>()
 
+    @Volatile
+    override var tracer: PipelineTracer? = null
+
     init {
         Logger.d(TAG, "Setting dynamic range profile to $dynamicRangeProfile")
 
@@ -105,21 +127,36 @@ private class DefaultSurfaceProcessor(
         executeSafely {
             val surfaceInput = surfaceInputs.find { it.surface == surface }
             if (surfaceInput != null) {
-                val surfaceTexture = surfaceInput.surfaceTexture
-                surfaceTexture.setOnFrameAvailableListener(null, glHandler)
-                surfaceTexture.release()
-                surface.release()
-
-                surfaceInputsToTimeConverterMap.remove(surfaceTexture)
-                surfaceInputs.remove(surfaceInput)
-
-                checkReadyToRelease()
+                val frameHold = frameHold
+                if ((frameHold != null) && (frameHold.surfaceTexture == surfaceInput.surfaceTexture)) {
+                    // The held frame belongs to this input: it is released when the hold ends
+                    surfaceInput.surfaceTexture.setOnFrameAvailableListener(null, glHandler)
+                    frameHold.removedInputs.add(surfaceInput)
+                } else {
+                    releaseSurfaceInput(surfaceInput)
+                }
             } else {
                 Logger.w(TAG, "Surface not found")
             }
         }
     }
 
+    private fun releaseSurfaceInput(surfaceInput: SurfaceInput) {
+        val surfaceTexture = surfaceInput.surfaceTexture
+        surfaceTexture.setOnFrameAvailableListener(null, glHandler)
+        surfaceTexture.release()
+        surfaceInput.surface.release()
+
+        surfaceInputsToTimeConverterMap.remove(surfaceTexture)
+        disabledSurfaceTextures.remove(surfaceTexture)
+        surfaceInputs.remove(surfaceInput)
+        if (lastRenderedSurfaceTexture == surfaceTexture) {
+            lastRenderedSurfaceTexture = null
+        }
+
+        checkReadyToRelease()
+    }
+
     override fun setTimebase(surface: Surface, timebase: Timebase) {
         executeSafely {
             val surfaceInput = surfaceInputs.find { it.surface == surface }
@@ -135,6 +172,147 @@ private class DefaultSurfaceProcessor(
         }
     }
 
+    override fun setInputSurfaceEnabled(surface: Surface, isEnabled: Boolean) {
+        executeSafely {
+            val surfaceInput = surfaceInputs.find { it.surface == surface }
+            if (surfaceInput != null) {
+                if (isEnabled) {
+                    disabledSurfaceTextures.remove(surfaceInput.surfaceTexture)
+                    // Consumes the frame that has been skipped during the hold
+                    if (frameHold?.skippedSurfaceTextures?.remove(surfaceInput.surfaceTexture) == true) {
+                        onFrameAvailable(surfaceInput.surfaceTexture)
+                    }
+                } else {
+                    disabledSurfaceTextures.add(surfaceInput.surfaceTexture)
+                }
+            } else {
+                Logger.w(TAG, "Surface not found")
+            }
+        }
+    }
+
+    override fun startFrameHold(
+        fps: Int,
+        timeoutInMs: Long,
+        onHoldEnded: (FrameHoldStats) -> Unit
+    ) {
+        require(fps > 0) { "Frame rate must be positive" }
+        if (isReleaseRequested.get()) {
+            return
+        }
+
+        executeSafely {
+            frameHold?.let { endFrameHold(it, null).forEach(::drainSurfaceTexture) }
+
+            val surfaceTexture = lastRenderedSurfaceTexture
+            if (surfaceTexture == null) {
+                Logger.w(TAG, "No frame to hold")
+                return@executeSafely
+            }
+
+            val frameHold = FrameHold(
+                surfaceTexture,
+                TimeUnit.SECONDS.toNanos(1) / fps,
+                TimeUtils.systemTimeProvider.uptimeNs() + TimeUnit.MILLISECONDS.toNanos(timeoutInMs),
+                lastRenderTimeNs,
+                onHoldEnded
+            )
+            // Transformations of the held frame. Output surfaces might be replaced during the hold.
+            surfaceOutputs.filterIsInstance<SurfaceOutput>().forEach {
+                val matrix = FloatArray(16)
+                it.updateTransformMatrix(matrix, textureMatrix)
+                frameHold.outputMatrices[it.targetSurface] = matrix
+            }
+            this.frameHold = frameHold
+            glHandler.postDelayed(frameHoldTicker, frameHold.tickIntervalInMs)
+            Logger.i(TAG, "Holding last frame at $fps fps")
+        }
+    }
+
+    override fun stopFrameHold() {
+        if (isReleaseRequested.get()) {
+            return
+        }
+
+        executeSafely {
+            frameHold?.let { endFrameHold(it, null).forEach(::drainSurfaceTexture) }
+        }
+    }
+
+    // Executed on GL thread
+    private fun onFrameHoldTick() {
+        val frameHold = frameHold ?: return
+        val nowNs = TimeUtils.systemTimeProvider.uptimeNs()
+        if (isReleaseRequested.get() || (nowNs >= frameHold.deadlineNs)) {
+            Logger.w(TAG, "Frame hold timed out")
+            endFrameHold(frameHold, null).forEach(::drainSurfaceTexture)
+            return
+        }
+
+        if ((nowNs - lastRenderTimeNs) >= frameHold.frameIntervalNs) {
+            // Keeps the same latency as the held input
+            val timestampNs = lastRenderedTimestampNs + (nowNs - lastRenderTimeNs)
+            surfaceOutputs.filterIsInstance<SurfaceOutput>().forEach {
+                try {
+                    if (it.isStreaming()) {
+                        val matrix = frameHold.outputMatrices.getOrPut(it.targetSurface) {
+                            FloatArray(16).apply { it.updateTransformMatrix(this, textureMatrix) }
+                        }
+                        renderer.render(timestampNs, matrix, it.targetSurface)
+                    }
+                } catch (t: Throwable) {
+                    Logger.e(TAG, "Error while rendering held frame", t)
+                }
+            }
+            lastRenderedTimestampNs = timestampNs
+            lastRenderTimeNs = nowNs
+            minTimestampNs = timestampNs
+            frameHold.heldFrameCount++
+        }
+
+        glHandler.postDelayed(frameHoldTicker, frameHold.tickIntervalInMs)
+    }
+
+    /**
+     * Ends the frame hold.
+     *
+     * @param cutOverTimeNs the time of the first frame of the new input or null if there is none
+     * @return the surface textures whose frames have been skipped during the hold. They have to be
+     * drained once the current frame has been rendered.
+     */
+    private fun endFrameHold(frameHold: FrameHold, cutOverTimeNs: Long?): Set<SurfaceTexture> {
+        glHandler.removeCallbacks(frameHoldTicker)
+        this.frameHold = null
+
+        frameHold.removedInputs.forEach { releaseSurfaceInput(it) }
+
+        val stats = FrameHoldStats(
+            cutOverTimeNs?.let { TimeUnit.NANOSECONDS.toMillis(it - frameHold.lastFrameTimeNs) },
+            frameHold.heldFrameCount
+        )
+        Logger.i(
+            TAG,
+            "Frame hold ended: gap ${stats.gapDurationInMs} ms, ${stats.heldFrameCount} held frames"
+        )
+        try {
+            frameHold.onHoldEnded(stats)
+        } catch (t: Throwable) {
+            Logger.e(TAG, "Error in frame hold listener", t)
+        }
+        return frameHold.skippedSurfaceTextures
+    }
+
+    private fun drainSurfaceTexture(surfaceTexture: SurfaceTexture) {
+        if (!surfaceInputsToTimeConverterMap.containsKey(surfaceTexture)) {
+            return
+        }
+        try {
+            surfaceTexture.updateTexImage()
+        } catch (e: RuntimeException) {
+            Logger.w(TAG, "updateTexImage failed (surface likely released): ${e.message}")
+        }
+    }
+
     override fun addOutputSurface(surfaceOutput: ISurfaceOutput) {
         if (isReleaseRequested.get()) {
             return
@@ -208,6 +386,7 @@ private class DefaultSurfaceProcessor(
         }
         executeSafely(block = {
             if (!isReleased) {
+                frameHold?.let { endFrameHold(it, null) }
                 isReleased = true
 
                 checkReadyToRelease()
@@ -244,6 +423,14 @@ private class DefaultSurfaceProcessor(
             return
         }
 
+        val isDisabled = disabledSurfaceTextures.contains(surfaceTexture)
+        var frameHold = frameHold
+        if (isDisabled && (frameHold != null)) {
+            // Latching the frame would replace the held frame: it is consumed when the hold ends
+            frameHold.skippedSurfaceTextures.add(surfaceTexture)
+            return
+        }
+
         // Guard against race condition where frame callback fires after surface is released
         // This can happen when removeInputSurface is called while a frame is being processed
         try {
@@ -253,18 +440,43 @@ private class DefaultSurfaceProcessor(
             Logger.w(TAG, "updateTexImage failed (surface likely released): ${e.message}")
             return
         }
+        // Frames of a disabled input are consumed to keep its producer running but never rendered
+        if (isDisabled) {
+            return
+        }
         surfaceTexture.getTransformMatrix(textureMatrix)
 
         val timeConverter = surfaceInputsToTimeConverterMap[surfaceTexture]!!
+        val timestampNs = timeConverter.convertToUptimeNs(surfaceTexture.timestamp)
+        val nowNs = TimeUtils.systemTimeProvider.uptimeNs()
+        val tracer = tracer
+        tracer?.record(TraceStage.CAPTURE, true, timestampNs / 1000)
+
+        var surfaceTexturesToDrain = emptySet<SurfaceTexture>()
+        if (frameHold != null) {
+            if (surfaceTexture == frameHold.surfaceTexture) {
+                frameHold.lastFrameTimeNs = nowNs
+            } else {
+                // First frame of the new input: cut over
+                surfaceTexturesToDrain = endFrameHold(frameHold, nowNs)
+                frameHold = null
+            }
+        }
+
+        if (timestampNs <= minTimestampNs) {
+            // Frame is older than the last held frame
+            surfaceTexturesToDrain.forEach(::drainSurfaceTexture)
+            return
+        }
+        minTimestampNs = Long.MIN_VALUE
 
         surfaceOutputs.filterIsInstance<SurfaceOutput>().forEach {
             try {
                 it.updateTransformMatrix(surfaceOutputMatrix, textureMatrix)
+                frameHold?.outputMatrices?.put(it.targetSurface, surfaceOutputMatrix.clone())
                 if (it.isStreaming()) {
                     renderer.render(
-                        timeConverter.convertToUptimeNs(
-                            surfaceTexture.timestamp
-                        ),
+                        timestampNs,
                         surfaceOutputMatrix,
                         it.targetSurface
                     )
@@ -273,6 +485,10 @@ private class DefaultSurfaceProcessor(
                 Logger.e(TAG, "Error while rendering frame", t)
             }
         }
+        tracer?.record(TraceStage.RENDER, true, timestampNs / 1000)
+        lastRenderedSurfaceTexture = surfaceTexture
+        lastRenderedTimestampNs = timestampNs
+        lastRenderTimeNs = nowNs
 
         // Surface, size and transform matrix for JPEG Surface if exists
         if (pendingSnapshots.isNotEmpty()) {
@@ -290,6 +506,8 @@ private class DefaultSurfaceProcessor(
                 failAllPendingSnapshots(e)
             }
         }
+
+        surfaceTexturesToDrain.forEach(::drainSurfaceTexture)
     }
 
     /**
@@ -390,6 +608,28 @@ private class DefaultSurfaceProcessor(
 
     private data class SurfaceInput(val surface: Surface, val surfaceTexture: SurfaceTexture)
 
+    /**
+     * State of a frame hold. Only accessed on GL thread.
+     *
+     * @param surfaceTexture the input whose last frame is held
+     * @param frameIntervalNs the interval between two held frames
+     * @param deadlineNs the time after which the hold ends
+     * @param lastFrameTimeNs the time of the last frame of [surfaceTexture]
+     */
+    private class FrameHold(
+        val surfaceTexture: SurfaceTexture,
+        val frameIntervalNs: Long,
+        val deadlineNs: Long,
+        var lastFrameTimeNs: Long,
+        val onHoldEnded: (FrameHoldStats) -> Unit
+    ) {
+        val tickIntervalInMs = max(TimeUnit.NANOSECONDS.toMillis(frameIntervalNs) / 2, 1)
+        val outputMatrices = mutableMapOf<Surface, FloatArray>()
+        val removedInputs = mutableSetOf<SurfaceInput>()
+        val skippedSurfaceTextures = mutableSetOf<SurfaceTexture>()
+        var heldFrameCount = 0
+    }
+
     private data class PendingSnapshot(
         @IntRange(from = 0, to = 359)
         val rotationDegrees: Int,
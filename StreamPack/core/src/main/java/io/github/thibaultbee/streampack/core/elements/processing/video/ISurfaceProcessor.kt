@@ -43,6 +43,35 @@ interface ISurfaceProcessorInternal : ISurfaceProcessor, Releasable {
 
     fun setTimebase(surface: Surface, timebase: Timebase)
 
+    /**
+     * Enables or disables the rendering of an input surface.
+     *
+     * Frames of a disabled input surface are consumed but they are not rendered to the output
+     * surfaces. It allows to keep a standby source running without displaying it.
+     *
+     * @param surface the input surface created by [createInputSurface]
+     * @param isEnabled whether the frames of [surface] are rendered
+     */
+    fun setInputSurfaceEnabled(surface: Surface, isEnabled: Boolean)
+
+    /**
+     * Starts to hold the last rendered frame.
+     *
+     * While holding, the last rendered frame is rendered again to the output surfaces at [fps]
+     * until a frame of another enabled input surface is available. It hides the gap between two
+     * video sources. The held input surface is not removed until the hold ends.
+     *
+     * @param fps the frame rate at which the last frame is rendered again
+     * @param timeoutInMs the maximum duration of the hold
+     * @param onHoldEnded called on the processor thread when the hold ends
+     */
+    fun startFrameHold(fps: Int, timeoutInMs: Long, onHoldEnded: (FrameHoldStats) -> Unit)
+
+    /**
+     * Stops holding the last rendered frame if any.
+     */
+    fun stopFrameHold()
+
     fun addOutputSurface(surfaceOutput: ISurfaceOutput)
 
     fun removeOutputSurface(surfaceOutput: ISurfaceOutput)
@@ -63,3 +92,16 @@ interface ISurfaceProcessorInternal : ISurfaceProcessor, Releasable {
         ): ISurfaceProcessorInternal
     }
 }
+
+/**
+ * Statistics of a frame hold.
+ *
+ * @param gapDurationInMs the duration between the last frame of the held input surface and the
+ * first frame of the new input surface. It is null if the hold has been stopped or has timed out
+ * before a new frame.
+ * @param heldFrameCount the number of times the last frame has been rendered again
+ */
+data class FrameHoldStats(
+    val gapDurationInMs: Long?,
+    val heldFrameCount: Int
+)
@@ -23,14 +23,15 @@ import android.media.audiofx.AudioEffect
 import android.os.Build
 import androidx.annotation.RequiresPermission
 import io.github.thibaultbee.streampack.core.elements.data.RawFrame
+import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
 import io.github.thibaultbee.streampack.core.elements.sources.audio.AudioSourceConfig
 import io.github.thibaultbee.streampack.core.elements.sources.audio.IAudioSourceInternal
 import io.github.thibaultbee.streampack.core.elements.sources.audio.audiorecord.AudioRecordEffect.Companion.isValidUUID
 import io.github.thibaultbee.streampack.core.elements.sources.audio.audiorecord.AudioRecordEffect.Factory.Companion.getFactoryForEffectType
 import io.github.thibaultbee.streampack.core.elements.sources.audio.audiorecord.AudioRecordSource.Companion.isEffectAvailable
-import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.type
 import io.github.thibaultbee.streampack.core.elements.utils.pool.IReadOnlyRawFrameFactory
+import io.github.thibaultbee.streampack.core.elements.utils.time.AudioClock
 import io.github.thibaultbee.streampack.core.logger.Logger
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
@@ -54,6 +55,8 @@ internal sealed class AudioRecordSource : IAudioSourceInternal, IAudioRecordSour
     override val isStreamingFlow = _isStreamingFlow.asStateFlow()
 
     private val audioTimestamp = AudioTimestamp()
+    private var audioClock: AudioClock? = null
+    private var bytesPerFrame = 0
 
     protected abstract fun buildAudioRecord(
         config: AudioSourceConfig,
@@ -75,6 +78,9 @@ internal sealed class AudioRecordSource : IAudioSourceInternal, IAudioRecordSour
         }
 
         bufferSize = getMinBufferSize(config)
+        audioClock = AudioClock(config.sampleRate)
+        bytesPerFrame = AudioCodecConfig.getNumberOfChannels(config.channelConfig) *
+                AudioCodecConfig.getNumOfBytesPerSample(config.byteFormat)
 
         audioRecord = buildAudioRecord(config, bufferSize!!).also {
             val previousEffects = processor?.getAll() ?: emptyList()
@@ -107,6 +113,8 @@ internal sealed class AudioRecordSource : IAudioSourceInternal, IAudioRecordSour
 
         processor?.setEnabled(true)
 
+        // Frame positions restart with the recording
+        audioClock?.reset()
         audioRecord.startRecording()
         _isStreamingFlow.tryEmit(true)
     }
@@ -134,39 +142,43 @@ internal sealed class AudioRecordSource : IAudioSourceInternal, IAudioRecordSour
         audioRecord = null
     }
 
-    private fun getTimestampInUs(audioRecord: AudioRecord): Long {
-        // Get timestamp from AudioRecord
-        // If we can not get timestamp through getTimestamp, we timestamp audio sample.
-        var timestamp: Long = -1
+    /**
+     * Gets the timestamp of the first frame of a read from the frame counter of [audioClock].
+     *
+     * [AudioRecord.getTimestamp] anchors the counter to the capture time of a frame. Otherwise,
+     * the counter is anchored to the time of the read.
+     */
+    private fun getTimestampInUs(
+        audioRecord: AudioRecord,
+        audioClock: AudioClock,
+        length: Int
+    ): Long {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             if (audioRecord.getTimestamp(
                     audioTimestamp,
                     AudioTimestamp.TIMEBASE_MONOTONIC
                 ) == AudioRecord.SUCCESS
             ) {
-                timestamp = audioTimestamp.nanoTime / 1000 // to us
+                audioClock.onTimestamp(audioTimestamp.framePosition, audioTimestamp.nanoTime)
             }
         }
-
-        // Fallback
-        if (timestamp < 0) {
-            timestamp = TimeUtils.currentTime()
-        }
-
-        return timestamp
+        return audioClock.onFramesRead((length / bytesPerFrame).coerceAtLeast(1))
     }
 
-
     override fun fillAudioFrame(frame: RawFrame): RawFrame {
         val audioRecord = requireNotNull(audioRecord) { "Audio source is not initialized" }
         if (audioRecord.recordingState != AudioRecord.RECORDSTATE_RECORDING) {
             throw IllegalStateException("Audio source is not recording")
         }
 
+        val audioClock = requireNotNull(audioClock) { "Audio source is not configured" }
+
         val buffer = frame.rawBuffer
-        val length = audioRecord.read(buffer, buffer.remaining())
+        // Encoder input buffers can be much larger than the record buffer: do not wait to fill them
+        val length = audioRecord.read(buffer, minOf(buffer.remaining(), bufferSize ?: buffer.remaining()))
         if (length > 0) {
-            frame.timestampInUs = getTimestampInUs(audioRecord)
+            buffer.limit(buffer.position() + length)
+            frame.timestampInUs = getTimestampInUs(audioRecord, audioClock, length)
             return frame
         } else {
             frame.close()
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.sources.audio.mixer
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.abs
+import kotlin.math.exp
+import kotlin.math.roundToInt
+
+/**
+ * Mixes 16-bit PCM inputs.
+ *
+ * Each [MixerInput] is written by its own producer thread and resampled to the output format.
+ * Mixed samples go through a peak limiter: its gain drops instantly to keep the samples under
+ * [limiterThreshold] and recovers in [LIMITER_RELEASE_TIME_IN_S].
+ *
+ * [mix] does not allocate once the frame size is known. It must be called from a single thread.
+ *
+ * @param inputCount the number of inputs
+ */
+class AudioMixer(inputCount: Int) {
+    /**
+     * The inputs of the mixer.
+     */
+    val inputs = List(inputCount) { MixerInput(it) }
+
+    /**
+     * The limiter threshold relative to full scale in ]0, 1].
+     */
+    @Volatile
+    var limiterThreshold = DEFAULT_LIMITER_THRESHOLD
+        set(value) {
+            require(value > 0f && value <= 1f) { "Limiter threshold must be in ]0, 1]: $value" }
+            field = value
+        }
+
+    /**
+     * The output sample rate.
+     */
+    var sampleRate = 0
+        private set
+
+    /**
+     * The output channel count.
+     */
+    var channelCount = 0
+        private set
+
+    private var mixBuffer = FloatArray(0)
+    private var limiterGain = 1f
+    private var limiterRelease = 0f
+
+    /**
+     * Configures the mixer and its inputs. Must not be called while mixing.
+     *
+     * @param sampleRate the output sample rate
+     * @param channelCount the output channel count: 1 or 2
+     * @param inputSampleRates the sample rate of each input
+     * @param targetLatencyInUs the duration buffered by each input
+     */
+    fun configure(
+        sampleRate: Int,
+        channelCount: Int,
+        inputSampleRates: List<Int>,
+        targetLatencyInUs: Long = DEFAULT_TARGET_LATENCY_IN_US
+    ) {
+        require(sampleRate > 0) { "Invalid sample rate: $sampleRate" }
+        require(channelCount in 1..MixerInput.MAX_CHANNEL_COUNT) { "Unsupported channel count: $channelCount" }
+        require(inputSampleRates.size == inputs.size) {
+            "Expected ${inputs.size} input sample rates but got ${inputSampleRates.size}"
+        }
+        require(targetLatencyInUs > 0) { "Invalid target latency: $targetLatencyInUs" }
+
+        this.sampleRate = sampleRate
+        this.channelCount = channelCount
+        limiterRelease = (1 - exp(-1.0 / (LIMITER_RELEASE_TIME_IN_S * sampleRate))).toFloat()
+        inputs.forEachIndexed { index, input ->
+            input.configure(inputSampleRates[index], sampleRate, channelCount, targetLatencyInUs)
+        }
+        reset()
+    }
+
+    /**
+     * Resets the inputs and the limiter. Must not be called while mixing or writing.
+     */
+    fun reset() {
+        inputs.forEach { it.reset() }
+        limiterGain = 1f
+    }
+
+    /**
+     * Mixes [frameCount] frames into [buffer] as 16-bit little endian PCM.
+     *
+     * Samples are written from the position of [buffer]. Its position is not modified.
+     *
+     * @param buffer the output buffer
+     * @param frameCount the number of frames to mix
+     */
+    fun mix(buffer: ByteBuffer, frameCount: Int) {
+        check(sampleRate > 0) { "Mixer is not configured" }
+        val sampleCount = frameCount * channelCount
+        require(buffer.remaining() >= sampleCount * BYTES_PER_SAMPLE) {
+            "Buffer is too small for $frameCount frames: ${buffer.remaining()}"
+        }
+        if (mixBuffer.size < sampleCount) {
+            mixBuffer = FloatArray(sampleCount)
+        }
+        val mix = mixBuffer
+        mix.fill(0f, 0, sampleCount)
+
+        for (input in inputs) {
+            input.mixInto(mix, frameCount)
+        }
+
+        if (buffer.order() != ByteOrder.LITTLE_ENDIAN) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN)
+        }
+        val threshold = limiterThreshold * Short.MAX_VALUE
+        var gain = limiterGain
+        var index = buffer.position()
+        for (frame in 0 until frameCount) {
+            val offset = frame * channelCount
+            var peak = 0f
+            for (channel in 0 until channelCount) {
+                peak = maxOf(peak, abs(mix[offset + channel]))
+            }
+            if (peak * gain > threshold) {
+                gain = threshold / peak
+            } else {
+                gain += (1f - gain) * limiterRelease
+            }
+            for (channel in 0 until channelCount) {
+                val sample = (mix[offset + channel] * gain).roundToInt()
+                    .coerceIn(Short.MIN_VALUE.toInt(), Short.MAX_VALUE.toInt())
+                buffer.putShort(index, sample.toShort())
+                index += BYTES_PER_SAMPLE
+            }
+        }
+        limiterGain = gain
+    }
+
+    companion object {
+        private const val BYTES_PER_SAMPLE = 2
+
+        /**
+         * Default duration buffered by each input.
+         */
+        const val DEFAULT_TARGET_LATENCY_IN_US = 60_000L
+
+        /**
+         * Default limiter threshold: -1 dBFS.
+         */
+        const val DEFAULT_LIMITER_THRESHOLD = 0.89f
+
+        private const val LIMITER_RELEASE_TIME_IN_S = 0.1
+    }
+}
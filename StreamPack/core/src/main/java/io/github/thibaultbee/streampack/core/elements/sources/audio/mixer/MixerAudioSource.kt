@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.sources.audio.mixer
+
+import android.content.Context
+import android.media.AudioFormat
+import android.os.Process
+import io.github.thibaultbee.streampack.core.elements.data.RawFrame
+import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
+import io.github.thibaultbee.streampack.core.elements.sources.audio.AudioSourceConfig
+import io.github.thibaultbee.streampack.core.elements.sources.audio.IAudioSource
+import io.github.thibaultbee.streampack.core.elements.sources.audio.IAudioSourceInternal
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import io.github.thibaultbee.streampack.core.elements.utils.pool.IReadOnlyRawFrameFactory
+import io.github.thibaultbee.streampack.core.elements.utils.pool.RawFrameFactory
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import io.github.thibaultbee.streampack.core.logger.Logger
+import io.github.thibaultbee.streampack.core.pipelines.utils.ThreadUtils
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * The public interface of the mixer audio source.
+ */
+interface IMixerAudioSource : IAudioSource {
+    /**
+     * The mixed sources.
+     */
+    val sources: List<IAudioSource>
+
+    /**
+     * The mixer inputs, in the same order as [sources], to set their gain and mute them.
+     */
+    val inputs: List<MixerInput>
+
+    /**
+     * The limiter threshold relative to full scale in ]0, 1].
+     */
+    var limiterThreshold: Float
+}
+
+/**
+ * An audio source that mixes several audio sources.
+ *
+ * Each source is pulled on its own thread into the ring buffer of its [MixerInput]. Frames of
+ * [FRAME_SAMPLE_COUNT] samples are mixed at the pace of the system clock: the mixer is the clock of
+ * the output. Timestamps of the sources are not used: sources are aligned by their buffered
+ * duration.
+ *
+ * The sources must output 16-bit PCM.
+ *
+ * @param sources the sources to mix
+ * @param sourceConfigs the configuration of each source. `null` to use the mixer configuration.
+ * @param targetLatencyInUs the duration buffered for each source
+ */
+class MixerAudioSource internal constructor(
+    override val sources: List<IAudioSourceInternal>,
+    private val sourceConfigs: List<AudioSourceConfig?>,
+    private val targetLatencyInUs: Long
+) : IAudioSourceInternal, IMixerAudioSource, MetricsProducer {
+    private val mixer = AudioMixer(sources.size)
+    override val inputs = mixer.inputs
+
+    override var limiterThreshold: Float
+        get() = mixer.limiterThreshold
+        set(value) {
+            mixer.limiterThreshold = value
+        }
+
+    private val _isStreamingFlow = MutableStateFlow(false)
+    override val isStreamingFlow = _isStreamingFlow.asStateFlow()
+
+    private val dispatcher = ThreadUtils.newFixedThreadPool(
+        sources.size,
+        ThreadUtils.THREAD_NAME_AUDIO_PREFIX + THREAD_NAME_MIXER,
+        Process.THREAD_PRIORITY_AUDIO
+    ).asCoroutineDispatcher()
+    private val coroutineScope = CoroutineScope(SupervisorJob() + dispatcher)
+    private var pullJobs = emptyList<Job>()
+
+    private val frameFactories = List(sources.size) { RawFrameFactory(false) }
+    private val sourceChannelCounts = IntArray(sources.size)
+
+    private var bytesPerFrame = 0
+
+    /**
+     * System time of the first mixed frame.
+     */
+    private var startTimeInUs = -1L
+    private var mixedFrameCount = 0L
+
+    init {
+        require(sources.isNotEmpty()) { "At least one source is required" }
+        require(sourceConfigs.size == sources.size) { "Expected one configuration per source" }
+    }
+
+    override fun registerMetrics(registry: MetricsRegistry) {
+        inputs.forEach { input ->
+            val inputRegistry = registry.child("input${input.index}")
+            inputRegistry.gauge("latency_us") { input.stats.latencyInUs }
+            inputRegistry.gauge("underruns") { input.stats.underrunCount }
+            inputRegistry.gauge("dropped_frames") { input.stats.droppedFrameCount }
+        }
+    }
+
+    override suspend fun configure(config: AudioSourceConfig) {
+        require(config.byteFormat == AudioFormat.ENCODING_PCM_16BIT) { "Mixer only supports 16-bit PCM" }
+        check(!isStreamingFlow.value) { "Can't configure the mixer while streaming" }
+
+        val inputSampleRates = sources.mapIndexed { index, source ->
+            val sourceConfig = sourceConfigs[index] ?: config
+            require(sourceConfig.byteFormat == AudioFormat.ENCODING_PCM_16BIT) {
+                "Source $index must output 16-bit PCM"
+            }
+            source.configure(sourceConfig)
+            sourceChannelCounts[index] = AudioCodecConfig.getNumberOfChannels(sourceConfig.channelConfig)
+            sourceConfig.sampleRate
+        }
+
+        val channelCount = AudioCodecConfig.getNumberOfChannels(config.channelConfig)
+        mixer.configure(config.sampleRate, channelCount, inputSampleRates, targetLatencyInUs)
+        bytesPerFrame = channelCount * BYTES_PER_SAMPLE
+    }
+
+    override suspend fun startStream() {
+        if (isStreamingFlow.value) {
+            Logger.d(TAG, "Already running")
+            return
+        }
+        check(bytesPerFrame > 0) { "Mixer is not configured" }
+        mixer.reset()
+        startTimeInUs = -1
+        mixedFrameCount = 0
+
+        var startedSourceCount = 0
+        sources.forEachIndexed { index, source ->
+            try {
+                source.startStream()
+                startedSourceCount++
+            } catch (t: Throwable) {
+                Logger.e(TAG, "Failed to start source $index: ${t.message}")
+            }
+        }
+        check(startedSourceCount > 0) { "No mixer source could be started" }
+
+        pullJobs = sources.indices.map { index ->
+            coroutineScope.launch { pull(index) }
+        }
+        _isStreamingFlow.emit(true)
+    }
+
+    /**
+     * Pulls frames from a source into its mixer input. Reads are blocking.
+     */
+    private suspend fun CoroutineScope.pull(index: Int) {
+        val source = sources[index]
+        val input = inputs[index]
+        val frameFactory = frameFactories[index]
+        var isFailureLogged = false
+        while (isActive) {
+            val frame = try {
+                source.getAudioFrame(frameFactory)
+            } catch (t: Throwable) {
+                if (!isActive) {
+                    break
+                }
+                // Stalled or stopped source
+                if (!isFailureLogged) {
+                    Logger.w(TAG, "Failed to get frame from source $index: ${t.message}")
+                    isFailureLogged = true
+                }
+                delay(PULL_RETRY_DELAY_IN_MS)
+                continue
+            }
+            isFailureLogged = false
+            try {
+                input.write(frame.rawBuffer, sourceChannelCounts[index])
+            } finally {
+                frame.close()
+            }
+        }
+    }
+
+    override suspend fun stopStream() {
+        if (!isStreamingFlow.value) {
+            Logger.d(TAG, "Not running")
+            return
+        }
+        _isStreamingFlow.emit(false)
+
+        // Stopping the sources unblocks their reads
+        pullJobs.forEach { it.cancel() }
+        sources.forEachIndexed { index, source ->
+            try {
+                source.stopStream()
+            } catch (t: Throwable) {
+                Logger.w(TAG, "Failed to stop source $index: ${t.message}")
+            }
+        }
+        pullJobs.joinAll()
+        pullJobs = emptyList()
+        frameFactories.forEach { it.clear() }
+    }
+
+    override fun release() {
+        _isStreamingFlow.tryEmit(false)
+        coroutineScope.cancel()
+        sources.forEachIndexed { index, source ->
+            try {
+                source.release()
+            } catch (t: Throwable) {
+                Logger.w(TAG, "Failed to release source $index: ${t.message}")
+            }
+        }
+        dispatcher.close()
+        frameFactories.forEach { it.close() }
+    }
+
+    /**
+     * Mixes as many frames as [frame] can contain. Blocks until the frames are due.
+     */
+    override fun fillAudioFrame(frame: RawFrame): RawFrame {
+        check(bytesPerFrame > 0) { "Mixer is not configured" }
+        val frameCount = frame.rawBuffer.remaining() / bytesPerFrame
+        if (frameCount == 0) {
+            frame.close()
+            throw IllegalArgumentException("Frame is too small: ${frame.rawBuffer.remaining()}")
+        }
+
+        frame.timestampInUs = waitForFrames(frameCount)
+        mixer.mix(frame.rawBuffer, frameCount)
+        return frame
+    }
+
+    override fun getAudioFrame(frameFactory: IReadOnlyRawFrameFactory): RawFrame {
+        check(bytesPerFrame > 0) { "Mixer is not configured" }
+        return fillAudioFrame(frameFactory.create(FRAME_SAMPLE_COUNT * bytesPerFrame, 0))
+    }
+
+    /**
+     * Waits until the last of [frameCount] frames is due.
+     *
+     * @return the timestamp of the first frame
+     */
+    private fun waitForFrames(frameCount: Int): Long {
+        val sampleRate = mixer.sampleRate
+        val nowInUs = TimeUtils.currentTime()
+        if (startTimeInUs < 0) {
+            startTimeInUs = nowInUs
+        }
+        var dueTimeInUs = startTimeInUs + (mixedFrameCount + frameCount) * 1_000_000L / sampleRate
+        val lateInUs = nowInUs - dueTimeInUs
+        if (lateInUs > MAX_LATE_IN_US) {
+            // The consumer stalled: skip the missed time instead of catching up in burst
+            startTimeInUs += lateInUs
+            dueTimeInUs += lateInUs
+        } else if (lateInUs < 0) {
+            LockSupport.parkNanos(-lateInUs * 1000)
+        }
+
+        // Buffered audio has been captured before the mix
+        val timestampInUs =
+            startTimeInUs + mixedFrameCount * 1_000_000L / sampleRate - targetLatencyInUs
+        mixedFrameCount += frameCount
+        return timestampInUs
+    }
+
+    companion object {
+        private const val TAG = "MixerAudioSource"
+
+        private const val THREAD_NAME_MIXER = "mixer-"
+        private const val BYTES_PER_SAMPLE = 2
+        private const val PULL_RETRY_DELAY_IN_MS = 10L
+
+        /**
+         * Above this delay, the mixer skips the missed frames.
+         */
+        private const val MAX_LATE_IN_US = 200_000L
+
+        /**
+         * Number of samples per channel of frames returned by [getAudioFrame].
+         */
+        const val FRAME_SAMPLE_COUNT = 1024
+    }
+}
+
+/**
+ * A factory to create a [MixerAudioSource].
+ *
+ * @param inputs the sources to mix
+ * @param targetLatencyInUs the duration buffered for each source
+ */
+class MixerAudioSourceFactory(
+    private val inputs: List<Input>,
+    private val targetLatencyInUs: Long = AudioMixer.DEFAULT_TARGET_LATENCY_IN_US
+) : IAudioSourceInternal.Factory {
+    /**
+     * Creates a factory of sources configured like the mixer.
+     *
+     * @param sourceFactories the factories of the sources to mix
+     */
+    constructor(vararg sourceFactories: IAudioSourceInternal.Factory) :
+            this(sourceFactories.map { Input(it) })
+
+    init {
+        require(inputs.isNotEmpty()) { "At least one source is required" }
+    }
+
+    override suspend fun create(context: Context): IAudioSourceInternal {
+        return MixerAudioSource(
+            inputs.map { it.sourceFactory.create(context) },
+            inputs.map { it.config },
+            targetLatencyInUs
+        )
+    }
+
+    override fun isSourceEquals(source: IAudioSourceInternal?): Boolean {
+        return (source is MixerAudioSource) && (source.sources.size == inputs.size) &&
+                inputs.zip(source.sources).all { (input, mixedSource) ->
+                    input.sourceFactory.isSourceEquals(mixedSource)
+                }
+    }
+
+    /**
+     * A source to mix.
+     *
+     * @param sourceFactory the factory of the source
+     * @param config the configuration of the source. `null` to use the mixer configuration. It
+     * must be 16-bit PCM. The sample rate and the channel count are converted.
+     */
+    class Input(
+        val sourceFactory: IAudioSourceInternal.Factory,
+        val config: AudioSourceConfig? = null
+    )
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.sources.audio.mixer
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * An input of an [AudioMixer].
+ *
+ * The producer thread writes 16-bit PCM at the input sample rate with [write]. The mixer thread
+ * resamples the buffered samples to the output sample rate. The resampling ratio is slightly
+ * adjusted to keep the buffered duration around the target latency, so inputs whose clocks drift
+ * from the output clock stay aligned.
+ *
+ * [gain] and [isMuted] can be changed from any thread.
+ *
+ * @param index the index of the input in the mixer
+ */
+class MixerInput internal constructor(val index: Int) {
+    /**
+     * The gain applied to the input. 1 is unity gain.
+     */
+    @Volatile
+    var gain = 1f
+        set(value) {
+            require(value >= 0f) { "Gain must be positive: $value" }
+            field = value
+        }
+
+    /**
+     * Whether the input is muted. A muted input is still consumed.
+     */
+    @Volatile
+    var isMuted = false
+
+    private val underrunCount = AtomicLong(0)
+    private val droppedFrameCount = AtomicLong(0)
+    private val maxWriteFrameCount = AtomicInteger(0)
+
+    @Volatile
+    private var ringBuffer: PcmRingBuffer? = null
+    private var inputSampleRate = 0
+    private var channelCount = 0
+    private var baseRatio = 1.0
+    private var targetFrameCount = 0
+
+    // Producer state
+    private var writeSamples = ShortArray(0)
+
+    // Consumer state
+    private var readSamples = ShortArray(0)
+    private val previousFrame = FloatArray(MAX_CHANNEL_COUNT)
+    private var position = 0.0
+    private var isPrimed = false
+
+    /**
+     * Gets the statistics of the input.
+     */
+    val stats: MixerInputStats
+        get() {
+            val bufferedFrameCount = (ringBuffer?.available ?: 0) / channelCount.coerceAtLeast(1)
+            return MixerInputStats(
+                latencyInUs = if (inputSampleRate > 0) bufferedFrameCount * 1_000_000L / inputSampleRate else 0,
+                underrunCount = underrunCount.get(),
+                droppedFrameCount = droppedFrameCount.get()
+            )
+        }
+
+    /**
+     * Configures the input. Must not be called while mixing.
+     *
+     * @param inputSampleRate the sample rate of the written samples
+     * @param outputSampleRate the sample rate of the mixer
+     * @param channelCount the channel count of the mixer
+     * @param targetLatencyInUs the duration to buffer
+     */
+    internal fun configure(
+        inputSampleRate: Int,
+        outputSampleRate: Int,
+        channelCount: Int,
+        targetLatencyInUs: Long
+    ) {
+        require(inputSampleRate > 0) { "Invalid sample rate: $inputSampleRate" }
+        require(channelCount in 1..MAX_CHANNEL_COUNT) { "Unsupported channel count: $channelCount" }
+        this.inputSampleRate = inputSampleRate
+        this.channelCount = channelCount
+        baseRatio = inputSampleRate.toDouble() / outputSampleRate
+        targetFrameCount = (targetLatencyInUs * inputSampleRate / 1_000_000).toInt().coerceAtLeast(1)
+        val capacityInFrames = maxOf(inputSampleRate, targetFrameCount * MAX_LATENCY_FACTOR * 2)
+        ringBuffer = PcmRingBuffer(capacityInFrames * channelCount)
+        reset()
+    }
+
+    /**
+     * Resets the buffered samples and the statistics. Must not be called while mixing or writing.
+     */
+    internal fun reset() {
+        ringBuffer?.clear()
+        underrunCount.set(0)
+        droppedFrameCount.set(0)
+        maxWriteFrameCount.set(0)
+        previousFrame.fill(0f)
+        position = 0.0
+        isPrimed = false
+    }
+
+    /**
+     * Writes 16-bit little endian PCM from the producer thread.
+     *
+     * Samples are read from the position to the limit of [buffer]. Its position is not modified.
+     *
+     * @param buffer the samples
+     * @param inputChannelCount the channel count of [buffer]. Mono and stereo are converted to the
+     * channel count of the mixer.
+     */
+    internal fun write(buffer: ByteBuffer, inputChannelCount: Int) {
+        val ringBuffer = ringBuffer ?: return
+        require(inputChannelCount in 1..MAX_CHANNEL_COUNT) { "Unsupported channel count: $inputChannelCount" }
+        if (buffer.order() != ByteOrder.LITTLE_ENDIAN) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN)
+        }
+        val frameCount = buffer.remaining() / (BYTES_PER_SAMPLE * inputChannelCount)
+        if (frameCount == 0) {
+            return
+        }
+        val sampleCount = frameCount * channelCount
+        if (writeSamples.size < sampleCount) {
+            writeSamples = ShortArray(sampleCount)
+        }
+
+        var index = buffer.position()
+        for (frame in 0 until frameCount) {
+            val outIndex = frame * channelCount
+            if (inputChannelCount == channelCount) {
+                for (channel in 0 until channelCount) {
+                    writeSamples[outIndex + channel] = buffer.getShort(index)
+                    index += BYTES_PER_SAMPLE
+                }
+            } else if (inputChannelCount == 1) {
+                // Mono to stereo
+                val sample = buffer.getShort(index)
+                writeSamples[outIndex] = sample
+                writeSamples[outIndex + 1] = sample
+                index += BYTES_PER_SAMPLE
+            } else {
+                // Stereo to mono
+                val left = buffer.getShort(index).toInt()
+                val right = buffer.getShort(index + BYTES_PER_SAMPLE).toInt()
+                writeSamples[outIndex] = ((left + right) shr 1).toShort()
+                index += 2 * BYTES_PER_SAMPLE
+            }
+        }
+
+        if (frameCount > maxWriteFrameCount.get()) {
+            maxWriteFrameCount.set(frameCount)
+        }
+        val written = ringBuffer.write(writeSamples, 0, sampleCount)
+        if (written < sampleCount) {
+            droppedFrameCount.addAndGet(((sampleCount - written) / channelCount).toLong())
+        }
+    }
+
+    /**
+     * Resamples and adds [frameCount] frames to [mix] from the mixer thread.
+     *
+     * Nothing is added while the input buffers up to its target latency, after an underrun.
+     */
+    internal fun mixInto(mix: FloatArray, frameCount: Int) {
+        val ringBuffer = ringBuffer ?: return
+        val channelCount = channelCount
+        // A producer that writes large chunks needs more buffering
+        val targetFrameCount = maxOf(targetFrameCount, maxWriteFrameCount.get() + frameCount)
+        var availableFrameCount = ringBuffer.available / channelCount
+
+        if (!isPrimed) {
+            if (availableFrameCount < targetFrameCount) {
+                return
+            }
+            // The first frame is the start of the interpolation
+            ringBuffer.peek(getReadSamples(channelCount), 0, channelCount)
+            for (channel in 0 until channelCount) {
+                previousFrame[channel] = readSamples[channel].toFloat()
+            }
+            ringBuffer.skip(channelCount)
+            availableFrameCount--
+            position = 0.0
+            isPrimed = true
+        }
+
+        // Bounds the latency after a stall of the mixer
+        if (availableFrameCount > targetFrameCount * MAX_LATENCY_FACTOR) {
+            val skippedFrameCount = availableFrameCount - targetFrameCount
+            ringBuffer.skip(skippedFrameCount * channelCount)
+            droppedFrameCount.addAndGet(skippedFrameCount.toLong())
+            availableFrameCount = targetFrameCount
+        }
+
+        val error = (availableFrameCount - targetFrameCount).toDouble() / targetFrameCount
+        val ratio = baseRatio * (1 + (error * ALIGNMENT_GAIN).coerceIn(
+            -MAX_RATIO_CORRECTION,
+            MAX_RATIO_CORRECTION
+        ))
+        val end = position + frameCount * ratio
+        val consumedFrameCount = end.toInt()
+        // Interpolation of the last output frame might need the next input frame
+        val neededFrameCount = consumedFrameCount + 1
+        if (availableFrameCount < neededFrameCount) {
+            underrunCount.incrementAndGet()
+            isPrimed = false
+            return
+        }
+
+        val samples = getReadSamples(neededFrameCount * channelCount)
+        ringBuffer.peek(samples, 0, neededFrameCount * channelCount)
+
+        if (!isMuted) {
+            val gain = gain
+            for (frame in 0 until frameCount) {
+                val framePosition = position + frame * ratio
+                val index = framePosition.toInt()
+                val fraction = (framePosition - index).toFloat()
+                for (channel in 0 until channelCount) {
+                    // Index 0 is the previous frame, index i is the input frame i - 1
+                    val from = if (index == 0) {
+                        previousFrame[channel]
+                    } else {
+                        samples[(index - 1) * channelCount + channel].toFloat()
+                    }
+                    val to = samples[index * channelCount + channel].toFloat()
+                    mix[frame * channelCount + channel] += (from + (to - from) * fraction) * gain
+                }
+            }
+        }
+
+        if (consumedFrameCount > 0) {
+            for (channel in 0 until channelCount) {
+                previousFrame[channel] =
+                    samples[(consumedFrameCount - 1) * channelCount + channel].toFloat()
+            }
+            ringBuffer.skip(consumedFrameCount * channelCount)
+        }
+        position = end - consumedFrameCount
+    }
+
+    /**
+     * Gets the consumer scratch buffer. It only grows when frames are larger than before.
+     */
+    private fun getReadSamples(size: Int): ShortArray {
+        if (readSamples.size < size) {
+            readSamples = ShortArray(size)
+        }
+        return readSamples
+    }
+
+    companion object {
+        internal const val MAX_CHANNEL_COUNT = 2
+        private const val BYTES_PER_SAMPLE = 2
+
+        /**
+         * Buffered duration above which samples are dropped, relative to the target latency.
+         */
+        private const val MAX_LATENCY_FACTOR = 4
+
+        /**
+         * Correction of the resampling ratio relative to the buffering error.
+         */
+        private const val ALIGNMENT_GAIN = 0.01
+
+        /**
+         * Maximum correction of the resampling ratio. 0.5% is not audible.
+         */
+        private const val MAX_RATIO_CORRECTION = 0.005
+    }
+}
+
+/**
+ * Statistics of a [MixerInput].
+ *
+ * @param latencyInUs the buffered duration
+ * @param underrunCount the number of times the input had not enough samples to mix
+ * @param droppedFrameCount the number of frames dropped because the buffer was full or the
+ * latency was too high
+ */
+data class MixerInputStats(
+    val latencyInUs: Long,
+    val underrunCount: Long,
+    val droppedFrameCount: Long
+)
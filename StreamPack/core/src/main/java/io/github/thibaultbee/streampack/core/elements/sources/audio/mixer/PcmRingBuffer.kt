@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.sources.audio.mixer
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A lock-free single producer, single consumer ring buffer of 16-bit PCM samples.
+ *
+ * [write] must only be called from the producer thread. [peek], [skip] and [clear] must only be
+ * called from the consumer thread. None of them allocates.
+ *
+ * @param capacity the capacity in samples
+ */
+class PcmRingBuffer(val capacity: Int) {
+    init {
+        require(capacity > 0) { "Capacity must be positive: $capacity" }
+    }
+
+    private val samples = ShortArray(capacity)
+
+    /**
+     * Total number of samples written. Only modified by the producer.
+     */
+    private val writeIndex = AtomicLong(0)
+
+    /**
+     * Total number of samples read. Only modified by the consumer.
+     */
+    private val readIndex = AtomicLong(0)
+
+    /**
+     * The number of samples that can be read.
+     */
+    val available: Int
+        get() = (writeIndex.get() - readIndex.get()).toInt()
+
+    /**
+     * Writes samples. Samples that do not fit are dropped.
+     *
+     * @return the number of samples written
+     */
+    fun write(src: ShortArray, offset: Int, length: Int): Int {
+        val write = writeIndex.get()
+        val count = minOf(length, capacity - (write - readIndex.get()).toInt())
+        if (count <= 0) {
+            return 0
+        }
+        val start = (write % capacity).toInt()
+        val firstPart = minOf(count, capacity - start)
+        System.arraycopy(src, offset, samples, start, firstPart)
+        System.arraycopy(src, offset + firstPart, samples, 0, count - firstPart)
+        writeIndex.lazySet(write + count)
+        return count
+    }
+
+    /**
+     * Copies samples without consuming them.
+     *
+     * @return the number of samples copied
+     */
+    fun peek(dst: ShortArray, offset: Int, length: Int): Int {
+        val read = readIndex.get()
+        val count = minOf(length, (writeIndex.get() - read).toInt())
+        if (count <= 0) {
+            return 0
+        }
+        val start = (read % capacity).toInt()
+        val firstPart = minOf(count, capacity - start)
+        System.arraycopy(samples, start, dst, offset, firstPart)
+        System.arraycopy(samples, 0, dst, offset + firstPart, count - firstPart)
+        return count
+    }
+
+    /**
+     * Consumes samples.
+     *
+     * @return the number of samples consumed
+     */
+    fun skip(length: Int): Int {
+        val read = readIndex.get()
+        val count = minOf(length, (writeIndex.get() - read).toInt())
+        if (count <= 0) {
+            return 0
+        }
+        readIndex.lazySet(read + count)
+        return count
+    }
+
+    /**
+     * Consumes all the available samples.
+     */
+    fun clear() {
+        readIndex.set(writeIndex.get())
+    }
+}
@@ -31,6 +31,7 @@ import io.github.thibaultbee.streampack.core.elements.sources.video.camera.contr
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.extensions.cameraManager
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.extensions.cameras
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.extensions.isFpsSupported
+import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CameraDeferredSurface
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CameraDispatcherProvider
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CameraSizes
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CameraSurface
@@ -98,6 +99,14 @@ internal class CameraSource(
 
     private val streamMutex = Mutex()
 
+    /**
+     * The target of the last [getPreviewSize] call. It describes the preview (view size and
+     * surface class) so that a standby camera can declare the same preview in advance.
+     */
+    @Volatile
+    var previewTarget: PreviewTarget? = null
+        private set
+
     init {
         val deviceCameras = manager.cameras
         require(deviceCameras.contains(cameraId)) {
@@ -185,6 +194,7 @@ internal class CameraSource(
 
 
     override fun <T> getPreviewSize(targetSize: Size, targetClass: Class<T>): Size {
+        previewTarget = PreviewTarget(targetSize, targetClass)
         return CameraSizes.getPreviewOutputSize(
             manager.getCameraCharacteristics(cameraId),
             targetSize,
@@ -192,6 +202,23 @@ internal class CameraSource(
         )
     }
 
+    /**
+     * Declares the preview before its surface exists.
+     *
+     * The capture session is created with a deferred preview output, so the next [setPreview]
+     * adds the preview surface without recreating the capture session. The preview surface must
+     * have the size returned by [getPreviewSize] for the same target.
+     *
+     * @param target the preview target, usually the [previewTarget] of the previous camera
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    suspend fun setDeferredPreview(target: PreviewTarget) {
+        val previewSize = getPreviewSize(target.size, target.targetClass)
+        controller.setDeferredOutput(
+            CameraDeferredSurface(PREVIEW_NAME, previewSize, target.targetClass)
+        )
+    }
+
     @RequiresPermission(Manifest.permission.CAMERA)
     override suspend fun startPreview() {
         withContext(defaultDispatcher) {
@@ -272,6 +299,14 @@ internal class CameraSource(
         return "CameraSource(id=$cameraId)"
     }
 
+    /**
+     * The target of a preview.
+     *
+     * @param size the size of the view
+     * @param targetClass the class of the preview surface consumer
+     */
+    data class PreviewTarget(val size: Size, val targetClass: Class<*>)
+
     companion object {
         private const val TAG = "CameraSource"
 
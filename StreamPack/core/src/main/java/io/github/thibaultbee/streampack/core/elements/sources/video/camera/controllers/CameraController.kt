@@ -23,6 +23,7 @@ import android.util.Range
 import androidx.annotation.RequiresPermission
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.sessioncompat.CameraCaptureSessionCompatBuilder
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CameraDispatcherProvider
+import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CameraDeferredSurface
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CameraSurface
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CameraUtils
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CaptureRequestWithTargetsBuilder
@@ -60,6 +61,15 @@ internal class CameraController(
     private val controllerMutex = Mutex()
 
     private val outputs = mutableMapOf<String, CameraSurface>()
+    private val deferredOutputs = mutableMapOf<String, CameraDeferredSurface>()
+
+    /**
+     * The deferred outputs whose surfaces have not been added yet.
+     *
+     * To be used under [controllerMutex]
+     */
+    private val pendingDeferredOutputs: List<CameraDeferredSurface>
+        get() = deferredOutputs.values.filter { !outputs.containsKey(it.name) }
 
     private val _isActiveFlow = MutableStateFlow(false)
     val isActiveFlow = _isActiveFlow.asStateFlow()
@@ -98,7 +108,7 @@ internal class CameraController(
      * Adds an output to the current capture session.
      *
      * If the output is not in the current capture session, the capture session is recreated with
-     * the new output.
+     * the new output, unless the output has been declared with [setDeferredOutput].
      */
     @RequiresPermission(Manifest.permission.CAMERA)
     suspend fun addOutput(output: CameraSurface) {
@@ -111,6 +121,33 @@ internal class CameraController(
                 }
                 outputs[output.name] = output
                 if (isActiveFlow.value) {
+                    if (sessionController?.finalizeDeferredOutput(output) == true) {
+                        Logger.d(TAG, "Deferred output ${output.name} added to the current session")
+                    } else {
+                        restartSessionUnsafe()
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Declares an output whose surface is not available yet.
+     *
+     * The next capture sessions are created with a deferred output configuration so that adding
+     * the surface with [addOutput] does not recreate the capture session. Only from Android O.
+     *
+     * @param output The deferred output
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    suspend fun setDeferredOutput(output: CameraDeferredSurface) {
+        withContext(defaultDispatcher) {
+            controllerMutex.withLock {
+                if (deferredOutputs[output.name] == output) {
+                    return@withContext
+                }
+                deferredOutputs[output.name] = output
+                if (isActiveFlow.value && !outputs.containsKey(output.name)) {
                     restartSessionUnsafe()
                 }
             }
@@ -163,6 +200,7 @@ internal class CameraController(
                 sessionCompat,
                 deviceController,
                 outputs.values.toList(),
+                pendingDeferredOutputs,
                 dynamicRange = dynamicRangeProfile.dynamicRange,
                 fpsRange = fpsRange,
                 captureRequestBuilder
@@ -179,6 +217,7 @@ internal class CameraController(
                     sessionController!!.recreate(
                         deviceController,
                         outputs.values.toList(),
+                        pendingDeferredOutputs,
                         dynamicRange = dynamicRangeProfile.dynamicRange,
                         fpsRange = fpsRange
                     ).apply {
@@ -222,6 +261,7 @@ internal class CameraController(
         sessionController.recreate(
             getDeviceController(),
             outputs.values.toList(),
+            pendingDeferredOutputs,
             dynamicRange = dynamicRangeProfile.dynamicRange,
             fpsRange = fpsRange
         ).apply {
@@ -409,6 +449,7 @@ internal class CameraController(
             }
         }
         outputs.clear()
+        deferredOutputs.clear()
         sessionCompat.release()
         coroutineScope.cancel()
     }
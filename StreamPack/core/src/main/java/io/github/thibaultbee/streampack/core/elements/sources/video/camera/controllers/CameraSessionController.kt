@@ -20,9 +20,12 @@ import android.hardware.camera2.CameraCaptureSession.CaptureCallback
 import android.hardware.camera2.CaptureFailure
 import android.hardware.camera2.CaptureRequest
 import android.hardware.camera2.TotalCaptureResult
+import android.hardware.camera2.params.OutputConfiguration
+import android.os.Build
 import android.util.Range
 import android.view.Surface
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.sessioncompat.ICameraCaptureSessionCompat
+import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CameraDeferredSurface
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CameraSurface
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CameraUtils
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils.CaptureRequestWithTargetsBuilder
@@ -46,7 +49,9 @@ internal class CameraSessionController private constructor(
     private val captureRequestBuilder: CaptureRequestWithTargetsBuilder,
     private val sessionCompat: ICameraCaptureSessionCompat,
     private val captureSession: CameraCaptureSession,
-    private val outputs: List<CameraSurface>,
+    private var outputs: List<CameraSurface>,
+    private val deferredOutputs: List<CameraDeferredSurface>,
+    private val deferredOutputConfigurations: MutableMap<String, OutputConfiguration>,
     val dynamicRange: Long,
     val cameraIsClosedFlow: StateFlow<Boolean>,
     val isClosedFlow: StateFlow<Boolean>
@@ -231,6 +236,42 @@ internal class CameraSessionController private constructor(
         }
     }
 
+    /**
+     * Adds the surface of a deferred output to the current capture session without recreating it.
+     *
+     * @param output The output to add. Its name must be the name of a deferred output.
+     * @return true if the output has been added, false if there is no such deferred output or if
+     * the surface does not match the deferred output configuration.
+     */
+    suspend fun finalizeDeferredOutput(output: CameraSurface): Boolean {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return false
+        }
+        require(output.surface.isValid) { "Output must be valid: $output" }
+
+        return withContext(coroutineScope.coroutineContext) {
+            requestTargetMutex.withLock {
+                captureSessionMutex.withLock {
+                    if (isClosed) {
+                        Logger.w(TAG, "Camera session controller is released")
+                        return@withContext false
+                    }
+                    val outputConfiguration = deferredOutputConfigurations.remove(output.name)
+                        ?: return@withContext false
+                    try {
+                        outputConfiguration.addSurface(output.surface)
+                        captureSession.finalizeOutputConfigurations(listOf(outputConfiguration))
+                        outputs = outputs + output
+                        true
+                    } catch (t: Throwable) {
+                        Logger.w(TAG, "Failed to finalize deferred output $output: $t")
+                        false
+                    }
+                }
+            }
+        }
+    }
+
     suspend fun close() {
         withContext(coroutineScope.coroutineContext) {
             captureSessionMutex.withLock {
@@ -372,12 +413,14 @@ internal class CameraSessionController private constructor(
      *
      * @param cameraDeviceController The [CameraDeviceController] to use.
      * @param outputs The outputs to use. By default it uses the current outputs.
+     * @param deferredOutputs The outputs whose surfaces will be added later
      * @param dynamicRange The dynamic range to use
      * @return A new [CameraSessionController]
      */
     suspend fun recreate(
         cameraDeviceController: CameraDeviceController,
         outputs: List<CameraSurface>,
+        deferredOutputs: List<CameraDeferredSurface>,
         dynamicRange: Long,
         fpsRange: Range<Int>
     ): CameraSessionController = withContext(coroutineScope.coroutineContext) {
@@ -385,7 +428,7 @@ internal class CameraSessionController private constructor(
             require(outputs.isNotEmpty()) { "At least one output is required" }
             require(outputs.all { it.surface.isValid }) { "All outputs $outputs must be valid but ${outputs.filter { !it.surface.isValid }} is invalid" }
 
-            if ((dynamicRange == this@CameraSessionController.dynamicRange) && (outputs == this@CameraSessionController.outputs) && !isClosed) {
+            if ((dynamicRange == this@CameraSessionController.dynamicRange) && (outputs == this@CameraSessionController.outputs) && (deferredOutputs == this@CameraSessionController.deferredOutputs) && !isClosed) {
                 Logger.w(TAG, "Same dynamic range and outputs, returning the same controller")
                 return@withContext this@CameraSessionController
             }
@@ -404,12 +447,15 @@ internal class CameraSessionController private constructor(
             close()
 
             val isClosedFlow = MutableStateFlow(false)
+            val deferredOutputConfigurations =
+                createDeferredOutputConfigurations(deferredOutputs, dynamicRange)
             val newCaptureSession =
                 CameraUtils.createCaptureSession(
                     cameraDeviceController,
                     outputs.map { it.surface },
                     dynamicRange,
-                    isClosedFlow
+                    isClosedFlow,
+                    deferredOutputConfigurations.values.toList()
                 )
 
             val controller = CameraSessionController(
@@ -418,6 +464,8 @@ internal class CameraSessionController private constructor(
                 sessionCompat,
                 newCaptureSession,
                 outputs,
+                deferredOutputs,
+                deferredOutputConfigurations,
                 dynamicRange,
                 cameraDeviceController.isClosedFlow,
                 isClosedFlow.asStateFlow()
@@ -434,11 +482,34 @@ internal class CameraSessionController private constructor(
     companion object {
         private const val TAG = "CameraSessionController"
 
+        /**
+         * Creates the deferred output configurations.
+         *
+         * Deferred outputs require Android O. Before, they are ignored and the surfaces are added
+         * by recreating the capture session.
+         */
+        private fun createDeferredOutputConfigurations(
+            deferredOutputs: List<CameraDeferredSurface>,
+            dynamicRange: Long
+        ): MutableMap<String, OutputConfiguration> {
+            if (deferredOutputs.isEmpty()) {
+                return mutableMapOf()
+            }
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+                Logger.i(TAG, "Deferred outputs are not supported before Android O: $deferredOutputs")
+                return mutableMapOf()
+            }
+            return deferredOutputs.associate {
+                it.name to CameraUtils.createDeferredOutputConfiguration(it, dynamicRange)
+            }.toMutableMap()
+        }
+
         suspend fun create(
             coroutineScope: CoroutineScope,
             sessionCompat: ICameraCaptureSessionCompat,
             cameraDeviceController: CameraDeviceController,
             outputs: List<CameraSurface>,
+            deferredOutputs: List<CameraDeferredSurface>,
             dynamicRange: Long,
             fpsRange: Range<Int>,
             defaultRequestBuilder: CaptureRequestWithTargetsBuilder.() -> Unit = {}
@@ -447,12 +518,15 @@ internal class CameraSessionController private constructor(
             require(outputs.all { it.surface.isValid }) { "All outputs $outputs must be valid but ${outputs.filter { !it.surface.isValid }} is invalid" }
 
             val isClosedFlow = MutableStateFlow(false)
+            val deferredOutputConfigurations =
+                createDeferredOutputConfigurations(deferredOutputs, dynamicRange)
             val captureSession =
                 CameraUtils.createCaptureSession(
                     cameraDeviceController,
                     outputs.map { it.surface },
                     dynamicRange,
-                    isClosedFlow
+                    isClosedFlow,
+                    deferredOutputConfigurations.values.toList()
                 )
 
             val captureRequestBuilder = CaptureRequestWithTargetsBuilder.create(
@@ -469,6 +543,8 @@ internal class CameraSessionController private constructor(
                 sessionCompat,
                 captureSession,
                 outputs,
+                deferredOutputs,
+                deferredOutputConfigurations,
                 dynamicRange,
                 cameraDeviceController.isClosedFlow,
                 isClosedFlow.asStateFlow()
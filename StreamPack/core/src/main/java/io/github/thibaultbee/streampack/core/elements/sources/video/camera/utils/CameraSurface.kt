@@ -15,6 +15,7 @@
  */
 package io.github.thibaultbee.streampack.core.elements.sources.video.camera.utils
 
+import android.util.Size
 import android.view.Surface
 
 /**
@@ -24,3 +25,19 @@ internal data class CameraSurface(
     val name: String,
     val surface: Surface
 )
+
+/**
+ * Data class representing a camera output whose surface is not available yet.
+ *
+ * The capture session is created with a deferred output configuration: the surface is added later
+ * without recreating the capture session.
+ *
+ * @param name the name of the output. The same as the [CameraSurface] that will be added later.
+ * @param size the size of the future surface
+ * @param targetClass the class of the future surface consumer (for example `SurfaceHolder`)
+ */
+internal data class CameraDeferredSurface(
+    val name: String,
+    val size: Size,
+    val targetClass: Class<*>
+)
@@ -24,6 +24,7 @@ import android.hardware.camera2.params.OutputConfiguration
 import android.os.Build
 import android.util.Range
 import android.view.Surface
+import androidx.annotation.RequiresApi
 import androidx.annotation.RequiresPermission
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.CameraException
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.controllers.CameraDeviceController
@@ -91,11 +92,29 @@ internal object CameraUtils {
         }
     }
 
+    /**
+     * Creates a deferred output configuration: its surface is added once available with
+     * [CameraCaptureSession.finalizeOutputConfigurations].
+     *
+     * @param output the deferred output
+     * @param dynamicRange the dynamic range to use
+     */
+    @RequiresApi(Build.VERSION_CODES.O)
+    internal fun createDeferredOutputConfiguration(
+        output: CameraDeferredSurface,
+        dynamicRange: Long
+    ) = OutputConfiguration(output.size, output.targetClass).apply {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            dynamicRangeProfile = dynamicRange
+        }
+    }
+
     internal suspend fun createCaptureSession(
         cameraDeviceController: CameraDeviceController,
         outputs: List<Surface>,
         dynamicRange: Long,
-        isClosedFlow: MutableStateFlow<Boolean>
+        isClosedFlow: MutableStateFlow<Boolean>,
+        deferredOutputConfigurations: List<OutputConfiguration> = emptyList()
     ): CameraCaptureSession = suspendCoroutine { continuation ->
         val cameraId = cameraDeviceController.id
         val callbacks = object : CameraCaptureSession.StateCallback() {
@@ -137,7 +156,7 @@ internal object CameraUtils {
                             dynamicRangeProfile = dynamicRange
                         }
                     }
-                }
+                } + deferredOutputConfigurations
 
                 cameraDeviceController.createCaptureSessionByOutputConfiguration(
                     outputConfigurations, callbacks
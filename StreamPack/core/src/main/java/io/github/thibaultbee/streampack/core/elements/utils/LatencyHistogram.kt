@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A lock-free histogram of latencies.
+ *
+ * Buckets are preallocated and have power of 2 upper bounds in µs: bucket `i` counts latencies
+ * in `[2^(i-1), 2^i[` µs. The last bucket counts all the latencies above.
+ * [record] does not allocate so it can be called for every frame.
+ *
+ * @param bucketCount the number of buckets
+ */
+class LatencyHistogram(val bucketCount: Int = DEFAULT_BUCKET_COUNT) {
+    init {
+        require(bucketCount in 1..Long.SIZE_BITS) { "Bucket count must be in [1, 64]" }
+    }
+
+    private val buckets = AtomicLongArray(bucketCount)
+    private val count = AtomicLong(0)
+    private val sumInUs = AtomicLong(0)
+    private val maxInUs = AtomicLong(0)
+
+    /**
+     * Records a latency.
+     *
+     * @param latencyInUs the latency in µs. Negative values are recorded as 0.
+     */
+    fun record(latencyInUs: Long) {
+        val latency = latencyInUs.coerceAtLeast(0)
+        buckets.incrementAndGet(getBucketIndex(latency))
+        count.incrementAndGet()
+        sumInUs.addAndGet(latency)
+        maxInUs.accumulateAndGet(latency) { previous, new -> if (new > previous) new else previous }
+    }
+
+    /**
+     * Gets a snapshot of the histogram.
+     *
+     * The snapshot is not atomic: latencies recorded during the snapshot might be partially
+     * counted.
+     */
+    fun snapshot(): Snapshot {
+        return Snapshot(
+            List(bucketCount) { buckets.get(it) },
+            count.get(),
+            sumInUs.get(),
+            maxInUs.get()
+        )
+    }
+
+    /**
+     * Resets all the counters.
+     */
+    fun reset() {
+        for (i in 0 until bucketCount) {
+            buckets.set(i, 0)
+        }
+        count.set(0)
+        sumInUs.set(0)
+        maxInUs.set(0)
+    }
+
+    private fun getBucketIndex(latencyInUs: Long): Int {
+        val index = Long.SIZE_BITS - java.lang.Long.numberOfLeadingZeros(latencyInUs)
+        return index.coerceAtMost(bucketCount - 1)
+    }
+
+    /**
+     * A snapshot of a [LatencyHistogram].
+     *
+     * @param bucketCounts the number of latencies per bucket
+     * @param count the number of recorded latencies
+     * @param sumInUs the sum of all recorded latencies in µs
+     * @param maxInUs the maximum recorded latency in µs
+     */
+    data class Snapshot(
+        val bucketCounts: List<Long>,
+        val count: Long,
+        val sumInUs: Long,
+        val maxInUs: Long
+    ) {
+        /**
+         * The mean latency in µs or 0 if there is no latency.
+         */
+        val meanInUs: Long
+            get() = if (count == 0L) 0 else sumInUs / count
+
+        /**
+         * Gets the upper bound of the bucket that contains the given percentile.
+         *
+         * @param percentile the percentile in ]0, 100]
+         * @return the upper bound of the percentile in µs, or 0 if there is no latency. For the
+         * last bucket, [maxInUs] is returned.
+         */
+        fun getPercentileInUs(percentile: Float): Long {
+            require((percentile > 0f) && (percentile <= 100f)) { "Percentile must be in ]0, 100]" }
+            val total = bucketCounts.sum()
+            if (total == 0L) {
+                return 0
+            }
+            val threshold = kotlin.math.ceil(total * percentile / 100.0).toLong()
+            var accumulated = 0L
+            bucketCounts.forEachIndexed { index, bucketCount ->
+                accumulated += bucketCount
+                if (accumulated >= threshold) {
+                    return if (index == bucketCounts.lastIndex) {
+                        maxInUs
+                    } else {
+                        minOf(1L shl index, maxInUs)
+                    }
+                }
+            }
+            return maxInUs
+        }
+    }
+
+    companion object {
+        /**
+         * Default bucket count: up to ~8 s.
+         */
+        const val DEFAULT_BUCKET_COUNT = 24
+    }
+}
@@ -20,8 +20,9 @@ import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
 import io.github.thibaultbee.streampack.core.elements.utils.av.audio.aac.config.ELDSpecificConfig
 import io.github.thibaultbee.streampack.core.elements.utils.av.audio.aac.config.GASpecificConfig
 import io.github.thibaultbee.streampack.core.elements.utils.av.audio.aac.config.SpecificConfig
-import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBuffer
 import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBufferWriter
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitReader
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitWriter
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.put
 import java.nio.ByteBuffer
 
@@ -69,7 +70,7 @@ data class AudioSpecificConfig(
         )
     }
 
-    override fun write(output: BitBuffer) {
+    override fun write(output: BitWriter) {
         TODO("Not yet implemented")
     }
 
@@ -82,7 +83,7 @@ data class AudioSpecificConfig(
             }
         }
 
-        private fun getAudioObjectType(reader: BitBuffer): AudioObjectType {
+        private fun getAudioObjectType(reader: BitReader): AudioObjectType {
             var audioObjectType = reader.getInt(5)
             if (audioObjectType == 0x1F) {
                 audioObjectType = 32 + reader.getInt(6)
@@ -99,7 +100,7 @@ data class AudioSpecificConfig(
             }
         }
 
-        private fun getSamplingFrequency(reader: BitBuffer): Int {
+        private fun getSamplingFrequency(reader: BitReader): Int {
             val samplingFrequencyIndex = reader.getInt(4)
             return if (samplingFrequencyIndex == 0xF) {
                 reader.getInt(24)
@@ -184,11 +185,11 @@ data class AudioSpecificConfig(
         }
 
         fun parse(buffer: ByteBuffer): AudioSpecificConfig {
-            val bitBuffer = BitBuffer(buffer)
+            val bitBuffer = BitReader(buffer)
             return parse(bitBuffer)
         }
 
-        fun parse(bitBuffer: BitBuffer): AudioSpecificConfig {
+        fun parse(bitBuffer: BitReader): AudioSpecificConfig {
             var audioObjectType = getAudioObjectType(bitBuffer)
             val samplingFrequency = getSamplingFrequency(bitBuffer)
             val channelConfiguration = ChannelConfiguration.fromValue(bitBuffer.getShort(4))
@@ -328,12 +329,12 @@ data class AudioSpecificConfig(
             }
         }
 
-        override fun write(output: BitBuffer) {
+        override fun write(output: BitWriter) {
             TODO("Not yet implemented")
         }
 
         companion object {
-            fun parse(reader: BitBuffer): AudioSpecificConfigExtension {
+            fun parse(reader: BitReader): AudioSpecificConfigExtension {
                 val samplingFrequency = getSamplingFrequency(reader)
                 val audioObjectType = getAudioObjectType(reader)
                 val channelConfiguration =
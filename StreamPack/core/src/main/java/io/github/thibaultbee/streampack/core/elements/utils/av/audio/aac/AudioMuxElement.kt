@@ -16,8 +16,9 @@
 package io.github.thibaultbee.streampack.core.elements.utils.av.audio.aac
 
 import io.github.thibaultbee.streampack.core.elements.utils.av.audio.AudioSpecificConfig
-import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBuffer
 import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBufferWriter
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitReader
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitWriter
 import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.ByteBufferWriter
 import java.nio.ByteBuffer
 
@@ -50,7 +51,7 @@ class AudioMuxElement(
     }
 
     override fun write(output: ByteBuffer) {
-        val writer = BitBuffer(output)
+        val writer = BitWriter(output)
 
         if (muxConfigPresent) {
             writer.put(useSameStreamMuxConfig)
@@ -66,13 +67,14 @@ class AudioMuxElement(
             // PayloadMux
             payloadMux.write(writer)
         }
+        writer.flush()
     }
 
     private inner class PayloadLengthInfo : BitBufferWriter() {
         private val payloadSize = payload!!.remaining()
         override val bitSize = ((payloadSize / 255) + 1) * Byte.SIZE_BITS
 
-        override fun write(output: BitBuffer) {
+        override fun write(output: BitWriter) {
             if (streamMuxConfig!!.allStreamsSameTimeFraming == true) {
                 var remainingPayloadLength = payloadSize
                 for (i in 0..(payloadSize - 255) step 255) {
@@ -89,14 +91,14 @@ class AudioMuxElement(
     private inner class PayloadMux : BitBufferWriter() {
         override val bitSize = payload!!.remaining() * Byte.SIZE_BITS
 
-        override fun write(output: BitBuffer) {
+        override fun write(output: BitWriter) {
             output.put(payload!!)
         }
     }
 
     companion object {
         fun parse(buffer: ByteBuffer): AudioMuxElement {
-            val reader = BitBuffer(buffer)
+            val reader = BitReader(buffer)
             val useSameStreamMuxConfig = reader.getBoolean()
             var streamMuxConfig: StreamMuxConfig? = null
             if (!useSameStreamMuxConfig) {
@@ -138,7 +140,7 @@ class StreamMuxConfig(
     private val numSubFrames: Int? = null,
     private val numProgram: Int? = null,
     private val numLayer: Int? = null,
-    private val audioSpecificConfig: BitBuffer? = null, // Because it may not be byte aligned
+    private val audioSpecificConfig: BitReader? = null, // Because it may not be byte aligned
     private val frameLengthType: Int? = null
 ) : BitBufferWriter() {
     override val bitSize = 1 + if (audioMuxVersion == 1) {
@@ -146,7 +148,7 @@ class StreamMuxConfig(
     } else {
         0
     } + if (audioMuxVersionA == 0) {
-        27 + audioSpecificConfig!!.bitEnd
+        27 + audioSpecificConfig!!.bitSize
     } else {
         0
     }
@@ -162,7 +164,7 @@ class StreamMuxConfig(
         }
     }
 
-    override fun write(output: BitBuffer) {
+    override fun write(output: BitWriter) {
         output.put(audioMuxVersion, 1)
         if (audioMuxVersion == 1) {
             output.put(audioMuxVersionA, 1)
@@ -184,11 +186,11 @@ class StreamMuxConfig(
 
     companion object {
         fun parse(buffer: ByteBuffer): StreamMuxConfig {
-            val bitBuffer = BitBuffer(buffer)
+            val bitBuffer = BitReader(buffer)
             return parse(bitBuffer)
         }
 
-        fun parse(bitBuffer: BitBuffer): StreamMuxConfig {
+        fun parse(bitBuffer: BitReader): StreamMuxConfig {
             val audioMuxVersion = bitBuffer.getInt(1)
             val audioMuxVersionA = if (audioMuxVersion == 1) {
                 bitBuffer.getInt(1)
@@ -248,7 +250,7 @@ class StreamMuxConfig(
                 audioMuxVersionA = audioMuxVersionA,
                 allStreamsSameTimeFraming = allStreamsSameTimeFraming,
                 numSubFrames = numSubFrames,
-                audioSpecificConfig = audioSpecificConfigs.firstOrNull()?.toBitBuffer(),
+                audioSpecificConfig = audioSpecificConfigs.firstOrNull()?.toBitReader(),
                 frameLengthType = frameLengthTypes.firstOrNull()
             )
         }
@@ -262,9 +264,9 @@ class StreamMuxConfig(
                 numProgram = 0,
                 numLayer = 0,
                 frameLengthType = 0,
-                audioSpecificConfig = BitBuffer(
+                audioSpecificConfig = BitReader(
                     decoderSpecificInfo,
-                    bitEnd = audioSpecificConfig.bitSize - 1
+                    audioSpecificConfig.bitSize
                 )
             )
         }
@@ -16,18 +16,19 @@
 package io.github.thibaultbee.streampack.core.elements.utils.av.audio.aac
 
 import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBufferWriter
-import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBuffer
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitReader
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitWriter
 
 class ProgramConfigElement : BitBufferWriter() {
     override val bitSize: Int
         get() = TODO("Not yet implemented")
 
-    override fun write(output: BitBuffer) {
+    override fun write(output: BitWriter) {
         TODO("Not yet implemented")
     }
 
     companion object {
-        fun parse(reader: BitBuffer): ProgramConfigElement {
+        fun parse(reader: BitReader): ProgramConfigElement {
             TODO("Not yet implemented")
         }
     }
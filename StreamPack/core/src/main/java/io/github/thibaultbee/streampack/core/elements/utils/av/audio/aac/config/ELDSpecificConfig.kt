@@ -16,8 +16,9 @@
 package io.github.thibaultbee.streampack.core.elements.utils.av.audio.aac.config
 
 import io.github.thibaultbee.streampack.core.elements.utils.av.audio.ChannelConfiguration
-import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBuffer
 import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBufferWriter
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitReader
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitWriter
 
 data class ELDSpecificConfig(
     val channelConfiguration: ChannelConfiguration,
@@ -46,7 +47,7 @@ data class ELDSpecificConfig(
         }
     }
 
-    override fun write(output: BitBuffer) {
+    override fun write(output: BitWriter) {
         TODO("Not yet implemented")
     }
 
@@ -54,7 +55,7 @@ data class ELDSpecificConfig(
         private const val ELDEXT_TERM = 0b0000
 
         fun parse(
-            reader: BitBuffer,
+            reader: BitReader,
             channelConfiguration: ChannelConfiguration
         ): ELDSpecificConfig {
             val frameLengthFlag = reader.getBoolean()
@@ -122,12 +123,12 @@ data class ELDSpecificConfig(
     ) : BitBufferWriter() {
         override val bitSize = (5 + sbrHeaders.size * 8) * Byte.SIZE_BITS
 
-        override fun write(output: BitBuffer) {
+        override fun write(output: BitWriter) {
             sbrHeaders.forEach { it.write(output) }
         }
 
         companion object {
-            fun parse(reader: BitBuffer, channelConfiguration: ChannelConfiguration): LdSbrHeader {
+            fun parse(reader: BitReader, channelConfiguration: ChannelConfiguration): LdSbrHeader {
                 val sbrHeader = mutableListOf<SbrHeader>()
                 val numSbrHeader = when (channelConfiguration) {
                     ChannelConfiguration.CHANNEL_1,
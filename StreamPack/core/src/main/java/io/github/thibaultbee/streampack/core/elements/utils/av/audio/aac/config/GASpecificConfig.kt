@@ -15,7 +15,8 @@
  */
 package io.github.thibaultbee.streampack.core.elements.utils.av.audio.aac.config
 
-import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBuffer
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitReader
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitWriter
 import io.github.thibaultbee.streampack.core.elements.utils.av.audio.AudioObjectType
 import io.github.thibaultbee.streampack.core.elements.utils.av.audio.ChannelConfiguration
 import io.github.thibaultbee.streampack.core.elements.utils.av.audio.aac.ProgramConfigElement
@@ -71,13 +72,13 @@ data class GASpecificConfig(
         }
     }
 
-    override fun write(output: BitBuffer) {
+    override fun write(output: BitWriter) {
         TODO("Not yet implemented")
     }
 
     companion object {
         fun parse(
-            reader: BitBuffer,
+            reader: BitReader,
             channelConfiguration: ChannelConfiguration,
             audioObjectType: AudioObjectType
         ): GASpecificConfig {
@@ -15,8 +15,9 @@
  */
 package io.github.thibaultbee.streampack.core.elements.utils.av.audio.aac.config
 
-import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBuffer
 import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBufferWriter
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitReader
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitWriter
 
 data class SbrHeader(
     val bsAmpRes: Boolean,
@@ -35,12 +36,12 @@ data class SbrHeader(
 ) : BitBufferWriter() {
     override val bitSize = 0
 
-    override fun write(output: BitBuffer) {
+    override fun write(output: BitWriter) {
         TODO("Not yet implemented")
     }
 
     companion object {
-        fun parse(reader: BitBuffer): SbrHeader {
+        fun parse(reader: BitReader): SbrHeader {
             val bsAmpRes = reader.getBoolean()
             val bsStartFreq = reader.get(4)
 
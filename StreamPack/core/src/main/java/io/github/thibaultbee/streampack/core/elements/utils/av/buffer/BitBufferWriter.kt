@@ -19,24 +19,54 @@ import java.nio.ByteBuffer
 
 
 /**
- * For sub classes of a [ByteBufferWriter] that need to write a [ByteBuffer] to a [BitBuffer]
+ * For sub classes of a [ByteBufferWriter] that need to write a [ByteBuffer] bit per bit with a
+ * [BitWriter]
  */
 abstract class BitBufferWriter : ByteBufferWriter() {
     abstract val bitSize: Int
     override val size by lazy { (bitSize + Byte.SIZE_BITS - 1) / Byte.SIZE_BITS }
 
     override fun write(output: ByteBuffer) {
-        val writer = BitBuffer(output)
+        val writer = BitWriter(output)
         write(writer)
+        writer.flush()
     }
 
-    abstract fun write(output: BitBuffer)
+    abstract fun write(output: BitWriter)
 
+    /**
+     * Writes to a [BitBuffer].
+     */
+    @Deprecated("Use write(BitWriter) instead")
+    fun write(output: BitBuffer) {
+        if (bitSize > 0) {
+            @Suppress("DEPRECATION")
+            output.put(toBitBuffer())
+        }
+    }
+
+    /**
+     * Writes to a new buffer.
+     *
+     * @return a reader of the [bitSize] written bits
+     */
+    fun toBitReader(): BitReader {
+        val buffer = ByteBuffer.allocate(size)
+        write(buffer)
+        buffer.rewind()
+        return BitReader(buffer, bitSize)
+    }
+
+    /**
+     * Writes to a new buffer.
+     *
+     * @return a [BitBuffer] to read the [bitSize] written bits
+     */
+    @Deprecated("Use toBitReader() instead", ReplaceWith("toBitReader()"))
     fun toBitBuffer(): BitBuffer {
         val buffer = ByteBuffer.allocate(size)
-        val output = BitBuffer(buffer)
-        write(output)
+        write(buffer)
         buffer.rewind()
-        return output
+        return BitBuffer(buffer, bitEnd = bitSize - 1)
     }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.av.buffer
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Reads bits from a [ByteBuffer], most significant bit first.
+ *
+ * Bits are loaded in a 64-bit cache, up to 8 bytes at once, so most reads are a shift of the
+ * cache. Unlike [BitBuffer], the position of [buffer] is not modified.
+ *
+ * @param buffer the buffer to read from its position
+ * @param bitSize the number of bits to read. By default, up to the limit of [buffer].
+ */
+class BitReader(
+    private val buffer: ByteBuffer,
+    val bitSize: Int = buffer.remaining() * Byte.SIZE_BITS
+) {
+    private var nextBytePosition = buffer.position()
+    private val isLittleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN
+
+    /**
+     * The unread bits of the cache, left aligned. Bits after [cachedBits] are always 0.
+     */
+    private var cache = 0L
+    private var cachedBits = 0
+
+    /**
+     * The bits that are not loaded in the cache yet.
+     */
+    private var unloadedBits = bitSize
+
+    init {
+        require(bitSize >= 0) { "bitSize must be >= 0" }
+        require(bitSize <= buffer.remaining() * Byte.SIZE_BITS) { "Buffer must be longer than bitSize" }
+    }
+
+    /**
+     * The number of bits read since the start.
+     */
+    val bitPosition: Int
+        get() = bitSize - bitRemaining
+
+    val bitRemaining: Int
+        get() = cachedBits + unloadedBits
+
+    val hasRemaining: Boolean
+        get() = bitRemaining > 0
+
+    fun getBoolean(): Boolean {
+        if (cachedBits == 0) {
+            refill()
+            if (cachedBits == 0) {
+                throw IllegalStateException("No more bits to read")
+            }
+        }
+        val bit = cache < 0
+        cache = cache shl 1
+        cachedBits--
+        return bit
+    }
+
+    fun get(numBits: Int) = getLong(numBits).toByte()
+
+    fun getShort(numBits: Int) = getLong(numBits).toShort()
+
+    fun getInt(numBits: Int) = getLong(numBits).toInt()
+
+    /**
+     * Reads [numBits] bits.
+     *
+     * @param numBits the number of bits, from 0 to 64
+     * @return the bits, right aligned
+     */
+    fun getLong(numBits: Int): Long {
+        require(numBits in 0..Long.SIZE_BITS) { "numBits must be between 0 and 64: $numBits" }
+        if (numBits > bitRemaining) {
+            throw IllegalStateException("No more bits to read")
+        }
+        if (numBits == 0) {
+            return 0
+        }
+        if (numBits <= cachedBits) {
+            return take(numBits)
+        }
+
+        // Spans over the cache: take what is left, then the rest from the refilled cache
+        val lowBits = numBits - cachedBits
+        val high = if (cachedBits > 0) take(cachedBits) else 0L
+        refill()
+        return (high shl lowBits) or take(lowBits)
+    }
+
+    /**
+     * Reads an unsigned Exp-Golomb code (`ue(v)` in H.264/H.265).
+     */
+    fun readUE(): Int {
+        var leadingZeros = 0
+        while (true) {
+            if (cachedBits == 0) {
+                refill()
+                if (cachedBits == 0) {
+                    throw IllegalStateException("No more bits to read")
+                }
+            }
+            // Bits after cachedBits are 0 so they are counted as leading zeros
+            val zeros = java.lang.Long.numberOfLeadingZeros(cache)
+            if (zeros < cachedBits) {
+                leadingZeros += zeros
+                take(zeros + 1)
+                break
+            }
+            leadingZeros += cachedBits
+            take(cachedBits)
+        }
+        check(leadingZeros < Int.SIZE_BITS) { "Exp-Golomb code is too long: $leadingZeros leading zeros" }
+
+        return if (leadingZeros > 0) {
+            ((1L shl leadingZeros) - 1 + getLong(leadingZeros)).toInt()
+        } else {
+            0
+        }
+    }
+
+    /**
+     * Reads a signed Exp-Golomb code (`se(v)` in H.264/H.265).
+     */
+    fun readSE(): Int {
+        val value = readUE().toLong() and 0xFFFFFFFFL
+        return if ((value and 0x1) == 1L) {
+            ((value + 1) shr 1).toInt()
+        } else {
+            -(value shr 1).toInt()
+        }
+    }
+
+    /**
+     * Skips [numBits] bits. Whole bytes are skipped without being read.
+     */
+    fun skip(numBits: Int) {
+        require(numBits >= 0) { "numBits must be >= 0: $numBits" }
+        if (numBits > bitRemaining) {
+            throw IllegalStateException("No more bits to read")
+        }
+        if (numBits <= cachedBits) {
+            if (numBits > 0) {
+                take(numBits)
+            }
+            return
+        }
+
+        var bitsToSkip = numBits - cachedBits
+        cache = 0
+        cachedBits = 0
+        // The cache is empty so the next byte is byte aligned with the bit position
+        val bytesToSkip = bitsToSkip / Byte.SIZE_BITS
+        nextBytePosition += bytesToSkip
+        unloadedBits -= bytesToSkip * Byte.SIZE_BITS
+        bitsToSkip -= bytesToSkip * Byte.SIZE_BITS
+        if (bitsToSkip > 0) {
+            getLong(bitsToSkip)
+        }
+    }
+
+    /**
+     * Skips the bits up to the next byte boundary.
+     *
+     * @return the number of skipped bits
+     */
+    fun align(): Int {
+        val bitsToSkip = (Byte.SIZE_BITS - bitPosition % Byte.SIZE_BITS) % Byte.SIZE_BITS
+        skip(bitsToSkip)
+        return bitsToSkip
+    }
+
+    /**
+     * Takes [numBits] bits from the cache. [numBits] must be from 1 to [cachedBits].
+     */
+    private fun take(numBits: Int): Long {
+        val value = cache ushr (Long.SIZE_BITS - numBits)
+        cache = if (numBits == Long.SIZE_BITS) 0 else cache shl numBits
+        cachedBits -= numBits
+        return value
+    }
+
+    private fun refill() {
+        if ((cachedBits == 0) && (unloadedBits >= Long.SIZE_BITS)) {
+            val value = buffer.getLong(nextBytePosition)
+            cache = if (isLittleEndian) java.lang.Long.reverseBytes(value) else value
+            cachedBits = Long.SIZE_BITS
+            nextBytePosition += Long.SIZE_BYTES
+            unloadedBits -= Long.SIZE_BITS
+            return
+        }
+
+        while ((cachedBits <= Long.SIZE_BITS - Byte.SIZE_BITS) && (unloadedBits > 0)) {
+            val byte = buffer.get(nextBytePosition++).toLong() and 0xFF
+            cache = cache or (byte shl (Long.SIZE_BITS - Byte.SIZE_BITS - cachedBits))
+            val loadedBits = minOf(Byte.SIZE_BITS, unloadedBits)
+            cachedBits += loadedBits
+            unloadedBits -= loadedBits
+        }
+        if ((unloadedBits == 0) && (cachedBits in 1 until Long.SIZE_BITS)) {
+            // Clears the bits of the last byte that are after bitSize
+            cache = cache and (-1L shl (Long.SIZE_BITS - cachedBits))
+        }
+    }
+}
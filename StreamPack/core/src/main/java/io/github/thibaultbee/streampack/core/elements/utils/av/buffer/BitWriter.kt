@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.av.buffer
+
+import io.github.thibaultbee.streampack.core.elements.utils.extensions.toInt
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Writes bits to a [ByteBuffer], most significant bit first.
+ *
+ * Bits are accumulated in a 64-bit cache that is written 8 bytes at once. Call [flush] once
+ * done: it writes the remaining bits and moves the position of [buffer] after the last written
+ * byte. The last byte is padded with 0.
+ *
+ * Unlike [BitBuffer], the written bits replace the content of [buffer].
+ *
+ * @param buffer the buffer to write from its position
+ */
+class BitWriter(private val buffer: ByteBuffer) {
+    private val startPosition = buffer.position()
+    private var nextBytePosition = startPosition
+    private val isLittleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN
+
+    /**
+     * The bits that are not written to [buffer] yet, left aligned.
+     */
+    private var cache = 0L
+    private var cachedBits = 0
+
+    /**
+     * The number of bits written since the start.
+     */
+    val bitPosition: Int
+        get() = (nextBytePosition - startPosition) * Byte.SIZE_BITS + cachedBits
+
+    val bitRemaining: Int
+        get() = (buffer.limit() - startPosition) * Byte.SIZE_BITS - bitPosition
+
+    val hasRemaining: Boolean
+        get() = bitRemaining > 0
+
+    fun put(b: Boolean) {
+        put(b.toInt().toLong(), 1)
+    }
+
+    fun put(i: Int, numBits: Int = Int.SIZE_BITS) {
+        put(i.toLong(), numBits)
+    }
+
+    /**
+     * Writes the [numBits] lowest bits of [value].
+     *
+     * @param value the bits, right aligned
+     * @param numBits the number of bits, from 0 to 64
+     */
+    fun put(value: Long, numBits: Int) {
+        require(numBits in 0..Long.SIZE_BITS) { "numBits must be between 0 and 64: $numBits" }
+        if (numBits > bitRemaining) {
+            throw IllegalStateException("No more bits to write")
+        }
+        if (numBits == 0) {
+            return
+        }
+        val bits = if (numBits == Long.SIZE_BITS) value else value and ((1L shl numBits) - 1)
+        val freeBits = Long.SIZE_BITS - cachedBits
+        if (numBits < freeBits) {
+            cache = cache or (bits shl (freeBits - numBits))
+            cachedBits += numBits
+        } else {
+            // Fills the cache, writes it and keeps the low bits that did not fit
+            val lowBits = numBits - freeBits
+            cache = cache or (bits ushr lowBits)
+            writeCache()
+            cache = if (lowBits > 0) bits shl (Long.SIZE_BITS - lowBits) else 0
+            cachedBits = lowBits
+        }
+    }
+
+    /**
+     * Writes an unsigned Exp-Golomb code (`ue(v)` in H.264/H.265).
+     *
+     * @param value the value, from 0 to 2^32 - 2
+     */
+    fun putUE(value: Long) {
+        require(value in 0..0xFFFFFFFEL) { "Value out of Exp-Golomb range: $value" }
+        val codeNum = value + 1
+        val significantBits = Long.SIZE_BITS - java.lang.Long.numberOfLeadingZeros(codeNum)
+        // Leading zeros are written by the code number itself
+        put(codeNum, 2 * significantBits - 1)
+    }
+
+    fun putUE(value: Int) = putUE(value.toLong())
+
+    /**
+     * Writes a signed Exp-Golomb code (`se(v)` in H.264/H.265).
+     */
+    fun putSE(value: Int) {
+        putUE(if (value > 0) 2L * value - 1 else -2L * value)
+    }
+
+    fun put(b: Short, numBits: Int = Byte.SIZE_BITS) {
+        put(b.toLong(), numBits)
+    }
+
+    fun put(b: Byte, numBits: Int = Byte.SIZE_BITS) {
+        put(b.toLong(), numBits)
+    }
+
+    /**
+     * Writes the remaining bytes of [src]. Aligned bytes are copied in bulk and unaligned bytes
+     * 8 at once.
+     */
+    fun put(src: ByteBuffer) {
+        if (src.remaining() * Byte.SIZE_BITS > bitRemaining) {
+            throw IllegalStateException("No more bits to write")
+        }
+        if (cachedBits % Byte.SIZE_BITS == 0) {
+            writeCachedBytes()
+            val output = buffer.duplicate()
+            output.position(nextBytePosition)
+            nextBytePosition += src.remaining()
+            output.put(src)
+        } else {
+            val isSrcLittleEndian = src.order() == ByteOrder.LITTLE_ENDIAN
+            while (src.remaining() >= Long.SIZE_BYTES) {
+                val value = src.getLong()
+                put(if (isSrcLittleEndian) java.lang.Long.reverseBytes(value) else value, Long.SIZE_BITS)
+            }
+            while (src.hasRemaining()) {
+                put(src.get().toLong(), Byte.SIZE_BITS)
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining bits of [reader]. They are read from [reader].
+     */
+    fun put(reader: BitReader) {
+        while (reader.bitRemaining >= Long.SIZE_BITS) {
+            put(reader.getLong(Long.SIZE_BITS), Long.SIZE_BITS)
+        }
+        val bitRemaining = reader.bitRemaining
+        put(reader.getLong(bitRemaining), bitRemaining)
+    }
+
+    /**
+     * Writes 0 bits up to the next byte boundary.
+     *
+     * @return the number of written bits
+     */
+    fun align(): Int {
+        val padding = (Byte.SIZE_BITS - cachedBits % Byte.SIZE_BITS) % Byte.SIZE_BITS
+        put(0L, padding)
+        return padding
+    }
+
+    /**
+     * Writes the cached bits to the buffer and moves its position after the last written byte.
+     *
+     * Writing can continue after a flush.
+     */
+    fun flush() {
+        writeCachedBytes()
+        if (cachedBits > 0) {
+            // The partial byte is written again by the next flush
+            buffer.put(nextBytePosition, (cache ushr (Long.SIZE_BITS - Byte.SIZE_BITS)).toByte())
+            buffer.position(nextBytePosition + 1)
+        } else {
+            buffer.position(nextBytePosition)
+        }
+    }
+
+    /**
+     * Writes the full cache.
+     */
+    private fun writeCache() {
+        buffer.putLong(
+            nextBytePosition,
+            if (isLittleEndian) java.lang.Long.reverseBytes(cache) else cache
+        )
+        nextBytePosition += Long.SIZE_BYTES
+        cache = 0
+        cachedBits = 0
+    }
+
+    /**
+     * Writes the whole bytes of the cache. The bits of a partial byte stay in the cache.
+     */
+    private fun writeCachedBytes() {
+        while (cachedBits >= Byte.SIZE_BITS) {
+            buffer.put(nextBytePosition++, (cache ushr (Long.SIZE_BITS - Byte.SIZE_BITS)).toByte())
+            cache = cache shl Byte.SIZE_BITS
+            cachedBits -= Byte.SIZE_BITS
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.av.video
+
+import android.media.MediaFormat
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+
+/**
+ * A muxer or an endpoint that can inject [TimingSei] messages in its video streams.
+ *
+ * Each endpoint has its own setting so that, for example, a local recording of the same frames
+ * does not carry the messages.
+ */
+interface TimingSeiInjectable {
+    /**
+     * Whether the timing messages are injected in the video streams. It applies from the next
+     * frame.
+     */
+    var isTimingSeiEnabled: Boolean
+}
+
+/**
+ * A timing message embedded in the video elementary stream to measure the glass-to-glass latency.
+ *
+ * It is a H.264/H.265 user data unregistered SEI message identified by [UUID]. Its payload is the
+ * capture time of the frame and a frame counter. Decoders ignore it.
+ *
+ * The capture time is a wall clock: the measured latency is only exact if the sender and the
+ * receiver clocks are synchronized, for example in a loopback on the same device.
+ *
+ * @param captureTimeInUs the capture time in microseconds since the epoch
+ * @param frameCounter the frame counter. It wraps around.
+ */
+data class TimingSei(val captureTimeInUs: Long, val frameCounter: Int) {
+    /**
+     * Writes the SEI NAL unit with a start code.
+     *
+     * @param mimeType the video mime type: [MediaFormat.MIMETYPE_VIDEO_AVC] or [MediaFormat.MIMETYPE_VIDEO_HEVC]
+     * @return the NAL unit
+     */
+    fun toByteBuffer(mimeType: String): ByteBuffer {
+        val header = when (mimeType) {
+            MediaFormat.MIMETYPE_VIDEO_AVC -> AVC_SEI_HEADER
+            MediaFormat.MIMETYPE_VIDEO_HEVC -> HEVC_PREFIX_SEI_HEADER
+            else -> throw IllegalArgumentException("Unsupported mime type: $mimeType")
+        }
+        val payload = ByteBuffer.allocate(PAYLOAD_SIZE)
+            .put(UUID)
+            .putLong(captureTimeInUs)
+            .putInt(frameCounter)
+            .array()
+
+        val output = ByteArrayOutputStream(START_CODE.size + header.size + PAYLOAD_SIZE + 8)
+        output.write(START_CODE)
+        output.write(header)
+        // SEI message: payload type, payload size, payload, then RBSP trailing bits
+        writeWithEmulationPrevention(
+            output,
+            byteArrayOf(USER_DATA_UNREGISTERED, PAYLOAD_SIZE.toByte()) + payload
+        )
+        output.write(RBSP_TRAILING_BITS)
+        return ByteBuffer.wrap(output.toByteArray())
+    }
+
+    /**
+     * Injects [TimingSei] messages in the frames of a video stream.
+     *
+     * @param mimeType the video mime type
+     * @param timeProvider the time provider of the frame timestamps
+     * @param wallClockInUs the wall clock in microseconds since the epoch
+     */
+    class Injector(
+        private val mimeType: String,
+        private val timeProvider: TimeProvider = TimeUtils.systemTimeProvider,
+        private val wallClockInUs: () -> Long = { System.currentTimeMillis() * 1000 }
+    ) {
+        private var frameCounter = 0
+
+        init {
+            require(isSupported(mimeType)) { "Unsupported mime type: $mimeType" }
+        }
+
+        /**
+         * Creates the SEI NAL unit of a frame.
+         *
+         * The capture time is deduced from the frame timestamp, so the time spent in the
+         * encoder is part of the latency.
+         *
+         * @param ptsInUs the frame timestamp
+         * @return the NAL unit with a start code
+         */
+        fun create(ptsInUs: Long): ByteBuffer {
+            val ageInUs = timeProvider.uptimeUs() - ptsInUs
+            return TimingSei(wallClockInUs() - ageInUs, frameCounter++).toByteBuffer(mimeType)
+        }
+
+        companion object {
+            /**
+             * Whether timing messages can be injected in a video stream.
+             *
+             * @param mimeType the video mime type
+             */
+            fun isSupported(mimeType: String) =
+                (mimeType == MediaFormat.MIMETYPE_VIDEO_AVC) || (mimeType == MediaFormat.MIMETYPE_VIDEO_HEVC)
+        }
+    }
+
+    companion object {
+        /**
+         * The UUID of the timing messages. It contains no 0 byte so it is never escaped.
+         */
+        val UUID = byteArrayOf(
+            0x4C, 0x53, 0x54, 0x69, 0x6D, 0x69, 0x6E, 0x67,
+            0x7A, 0x3E, 0x91.toByte(), 0xC5.toByte(), 0x2B, 0xD8.toByte(), 0x66, 0x17
+        )
+
+        private val START_CODE = byteArrayOf(0x00, 0x00, 0x00, 0x01)
+        private val AVC_SEI_HEADER = byteArrayOf(0x06)
+        private val HEVC_PREFIX_SEI_HEADER = byteArrayOf(0x4E, 0x01)
+        private const val USER_DATA_UNREGISTERED: Byte = 5
+        private const val RBSP_TRAILING_BITS = 0x80
+        private const val PAYLOAD_SIZE = 16 + 8 + 4
+
+        private fun writeWithEmulationPrevention(output: ByteArrayOutputStream, data: ByteArray) {
+            var zeroCount = 0
+            data.forEach { byte ->
+                if ((zeroCount == 2) && ((byte.toInt() and 0xFF) <= 3)) {
+                    output.write(0x03)
+                    zeroCount = 0
+                }
+                output.write(byte.toInt())
+                zeroCount = if (byte.toInt() == 0) zeroCount + 1 else 0
+            }
+        }
+
+        /**
+         * Finds a timing message in a part of a video elementary stream.
+         *
+         * @param data the elementary stream
+         * @param offset the start of the part
+         * @param length the length of the part
+         * @return the first timing message or `null` if there is none or if it is truncated
+         */
+        fun find(data: ByteArray, offset: Int = 0, length: Int = data.size - offset): TimingSei? {
+            val end = offset + length
+            var position = indexOfUuid(data, offset, end)
+            while (position >= 0) {
+                val fields = unescape(data, position + UUID.size, end, 12)
+                if (fields != null) {
+                    val buffer = ByteBuffer.wrap(fields)
+                    return TimingSei(buffer.getLong(), buffer.getInt())
+                }
+                position = indexOfUuid(data, position + 1, end)
+            }
+            return null
+        }
+
+        /**
+         * Gets the position of the first [UUID] in [data] that could be a timing message, or -1.
+         */
+        private fun indexOfUuid(data: ByteArray, from: Int, end: Int): Int {
+            var position = from
+            while (position <= end - UUID.size) {
+                if (data.regionMatches(position, UUID)) {
+                    return position
+                }
+                position++
+            }
+            return -1
+        }
+
+        private fun ByteArray.regionMatches(position: Int, other: ByteArray): Boolean {
+            for (i in other.indices) {
+                if (this[position + i] != other[i]) {
+                    return false
+                }
+            }
+            return true
+        }
+
+        /**
+         * Reads [count] bytes removing the emulation prevention bytes, or `null` if [end] is
+         * reached before.
+         */
+        private fun unescape(data: ByteArray, from: Int, end: Int, count: Int): ByteArray? {
+            val result = ByteArray(count)
+            var size = 0
+            var zeroCount = 0
+            var position = from
+            while ((size < count) && (position < end)) {
+                val byte = data[position++]
+                if ((zeroCount == 2) && (byte.toInt() == 0x03)) {
+                    zeroCount = 0
+                    continue
+                }
+                result[size++] = byte
+                zeroCount = if (byte.toInt() == 0) zeroCount + 1 else 0
+            }
+            return if (size == count) result else null
+        }
+    }
+}
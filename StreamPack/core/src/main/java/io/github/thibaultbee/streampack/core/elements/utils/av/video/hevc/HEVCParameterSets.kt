@@ -15,9 +15,8 @@
  */
 package io.github.thibaultbee.streampack.core.elements.utils.av.video.hevc
 
-import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBuffer
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitReader
 import io.github.thibaultbee.streampack.core.elements.utils.av.video.ChromaFormat
-import io.github.thibaultbee.streampack.core.elements.utils.av.video.H26XBitBuffer
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.extractRbsp
 import java.nio.ByteBuffer
 
@@ -36,7 +35,7 @@ data class SequenceParameterSets(
     companion object {
         fun parse(buffer: ByteBuffer): SequenceParameterSets {
             val rbsp = buffer.extractRbsp(2)
-            val reader = H26XBitBuffer(rbsp)
+            val reader = BitReader(rbsp)
             reader.getLong(16) // Dropping nal_unit_header: forbidden_zero_bit / nal_unit_type / nuh_layer_id / nuh_temporal_id_plus1
 
             val videoParameterSetId = reader.get(4)
@@ -104,10 +103,10 @@ data class ProfileTierLevel(
 ) {
     companion object {
         fun parse(buffer: ByteBuffer, maxNumSubLayersMinus1: Byte) =
-            parse(BitBuffer(buffer), maxNumSubLayersMinus1)
+            parse(BitReader(buffer), maxNumSubLayersMinus1)
 
         fun parse(
-            reader: BitBuffer,
+            reader: BitReader,
             maxNumSubLayersMinus1: Byte
         ): ProfileTierLevel {
             val generalProfileSpace = reader.get(2)
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.leak
+
+import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
+import io.github.thibaultbee.streampack.core.elements.data.RawFrame
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import io.github.thibaultbee.streampack.core.logger.Logger
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The kinds of frames that own a resource.
+ */
+enum class FrameKind {
+    /**
+     * A [FrameWithCloseable] that owns a `MediaCodec` output buffer.
+     */
+    ENCODED,
+
+    /**
+     * A [RawFrame] that owns a pooled buffer.
+     */
+    RAW
+}
+
+/**
+ * A frame that has not been closed for too long.
+ *
+ * @param kind the kind of frame
+ * @param ageInMs the time since the frame creation in ms
+ * @param allocationSite the stack trace of the frame creation
+ */
+data class FrameLeak(
+    val kind: FrameKind,
+    val ageInMs: Long,
+    val allocationSite: Throwable
+)
+
+/**
+ * The ownership of a frame resource. It must be released exactly once, when the frame is closed.
+ */
+class FrameLease internal constructor(
+    private val detector: FrameLeakDetector?,
+    private val kind: FrameKind,
+    private val id: Long
+) {
+    private val isReleased = AtomicBoolean(false)
+
+    /**
+     * Releases the frame resource.
+     */
+    fun release() {
+        if (detector == null) {
+            return
+        }
+        if (isReleased.getAndSet(true)) {
+            Logger.w(TAG, "${kind.name.lowercase()} frame closed more than once")
+            return
+        }
+        detector.onReleased(kind, id)
+    }
+
+    internal companion object {
+        private const val TAG = "FrameLease"
+
+        /**
+         * A lease that is not tracked.
+         */
+        val UNTRACKED = FrameLease(null, FrameKind.RAW, 0)
+    }
+}
+
+/**
+ * Detects frames whose resource is never released.
+ *
+ * Encoded frames hold a `MediaCodec` output buffer until [FrameWithCloseable.close] and pooled raw
+ * frames hold their buffer until [RawFrame.close]. A frame that is never closed starves the encoder
+ * or leaks direct memory without any error. The frame factories [acquire] a [FrameLease] per frame
+ * and release it when the frame is closed.
+ *
+ * Outstanding frames are always counted. Depending on [mode], frames are also tracked with their
+ * creation time and allocation site so that [report] can tell where leaked frames come from:
+ * - [Mode.SAMPLED] tracks 1 frame out of [samplingInterval]. A frame type that always leaks is
+ * eventually tracked at a negligible cost.
+ * - [Mode.STRICT] tracks every frame. It captures a stack trace per frame: use it for debugging.
+ *
+ * @param timeProvider the time provider of the frame ages
+ */
+class FrameLeakDetector(
+    private val timeProvider: TimeProvider = TimeUtils.systemTimeProvider
+) : MetricsProducer {
+    /**
+     * The tracking modes.
+     */
+    enum class Mode {
+        /**
+         * Frames are neither counted nor tracked.
+         */
+        DISABLED,
+
+        /**
+         * Frames are counted and 1 frame out of [samplingInterval] is tracked.
+         */
+        SAMPLED,
+
+        /**
+         * Frames are counted and tracked.
+         */
+        STRICT
+    }
+
+    /**
+     * The tracking mode. Frames created before a change keep the mode of their creation.
+     */
+    @Volatile
+    var mode = Mode.SAMPLED
+
+    /**
+     * The number of frames per tracked frame in [Mode.SAMPLED].
+     */
+    @Volatile
+    var samplingInterval = DEFAULT_SAMPLING_INTERVAL
+        set(value) {
+            require(value > 0) { "Sampling interval must be positive: $value" }
+            field = value
+        }
+
+    /**
+     * The age in ms after which an outstanding frame is considered leaked.
+     */
+    @Volatile
+    var leakThresholdInMs = DEFAULT_LEAK_THRESHOLD_IN_MS
+        set(value) {
+            require(value >= 0) { "Leak threshold must not be negative: $value" }
+            field = value
+        }
+
+    private val outstandingCounts = Array(KINDS.size) { AtomicLong(0) }
+    private val leakCount = AtomicLong(0)
+    private val acquiredCount = AtomicLong(0)
+    private val nextId = AtomicLong(0)
+    private val records = ConcurrentHashMap<Long, Record>()
+
+    /**
+     * Acquires the lease of a new frame.
+     *
+     * @param kind the kind of frame
+     * @return the lease to release when the frame is closed
+     */
+    fun acquire(kind: FrameKind): FrameLease {
+        val mode = mode
+        if (mode == Mode.DISABLED) {
+            return FrameLease.UNTRACKED
+        }
+        outstandingCounts[kind.ordinal].incrementAndGet()
+        val isTracked =
+            (mode == Mode.STRICT) || (acquiredCount.getAndIncrement() % samplingInterval == 0L)
+        val id = if (isTracked) {
+            nextId.incrementAndGet().also {
+                records[it] = Record(
+                    kind,
+                    timeProvider.uptimeUs(),
+                    Throwable("${kind.name.lowercase()} frame allocation site")
+                )
+            }
+        } else {
+            UNTRACKED_ID
+        }
+        return FrameLease(this, kind, id)
+    }
+
+    internal fun onReleased(kind: FrameKind, id: Long) {
+        outstandingCounts[kind.ordinal].decrementAndGet()
+        if (id != UNTRACKED_ID) {
+            records.remove(id)
+        }
+    }
+
+    /**
+     * Gets the number of frames of [kind] that are not closed.
+     */
+    fun getOutstandingCount(kind: FrameKind) = outstandingCounts[kind.ordinal].get()
+
+    /**
+     * Gets the tracked frames that are not closed after [minAgeInMs].
+     *
+     * @param minAgeInMs the minimum age of the returned frames
+     * @return the leaked frames, from the oldest
+     */
+    fun getLeaks(minAgeInMs: Long = leakThresholdInMs): List<FrameLeak> {
+        val nowInUs = timeProvider.uptimeUs()
+        return records.values.map {
+            FrameLeak(it.kind, (nowInUs - it.creationTimeInUs) / 1000, it.allocationSite)
+        }.filter { it.ageInMs >= minAgeInMs }.sortedByDescending { it.ageInMs }
+    }
+
+    /**
+     * Logs the tracked frames that are not closed after [minAgeInMs]. Each leak is logged once.
+     *
+     * @param minAgeInMs the minimum age of the reported frames
+     * @return the newly reported leaks
+     */
+    fun report(minAgeInMs: Long = leakThresholdInMs): List<FrameLeak> {
+        val nowInUs = timeProvider.uptimeUs()
+        val leaks = mutableListOf<FrameLeak>()
+        records.values.forEach {
+            val ageInMs = (nowInUs - it.creationTimeInUs) / 1000
+            if ((ageInMs >= minAgeInMs) && it.isReported.compareAndSet(false, true)) {
+                leaks += FrameLeak(it.kind, ageInMs, it.allocationSite)
+            }
+        }
+        leakCount.addAndGet(leaks.size.toLong())
+        leaks.forEach {
+            Logger.w(
+                TAG,
+                "Leaked ${it.kind.name.lowercase()} frame: not closed after ${it.ageInMs} ms",
+                it.allocationSite
+            )
+        }
+        if (leaks.isNotEmpty()) {
+            Logger.w(
+                TAG,
+                "Outstanding frames: ${KINDS.joinToString { "${it.name.lowercase()}=${getOutstandingCount(it)}" }}"
+            )
+        }
+        return leaks
+    }
+
+    /**
+     * Registers the gauges:
+     * - `<kind>.outstanding`: the number of frames that are not closed
+     * - `oldest_age_ms`: the age of the oldest tracked frame
+     * - `leaks`: the number of reported leaks
+     */
+    override fun registerMetrics(registry: MetricsRegistry) {
+        KINDS.forEach { kind ->
+            registry.gauge("${kind.name.lowercase()}.outstanding") { getOutstandingCount(kind) }
+        }
+        registry.gauge("oldest_age_ms") {
+            records.values.minOfOrNull { it.creationTimeInUs }?.let {
+                (timeProvider.uptimeUs() - it) / 1000
+            }
+        }
+        registry.gauge("leaks") { leakCount.get() }
+    }
+
+    private class Record(
+        val kind: FrameKind,
+        val creationTimeInUs: Long,
+        val allocationSite: Throwable
+    ) {
+        val isReported = AtomicBoolean(false)
+    }
+
+    companion object {
+        private const val TAG = "FrameLeakDetector"
+
+        private val KINDS = FrameKind.values().toList()
+
+        private const val UNTRACKED_ID = 0L
+
+        /**
+         * Default number of frames per tracked frame in [Mode.SAMPLED].
+         */
+        const val DEFAULT_SAMPLING_INTERVAL = 64
+
+        /**
+         * Default age in ms after which an outstanding frame is considered leaked. Frames are
+         * usually closed in a few ms, even behind a muxer queue.
+         */
+        const val DEFAULT_LEAK_THRESHOLD_IN_MS = 5_000L
+
+        /**
+         * The detector of the frame factories of the library.
+         */
+        val default = FrameLeakDetector()
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.metrics
+
+import java.io.Closeable
+import java.io.File
+import java.io.FileOutputStream
+import java.io.OutputStream
+import java.util.Locale
+
+/**
+ * Writes [MetricsSnapshot]s as one compact line each, for post-stream analysis.
+ *
+ * A line is the snapshot timestamp in µs followed by space separated `name=value` fields:
+ * - counters: `name=123`
+ * - gauges: `name=1.5`
+ * - histograms: `name=count/mean/p50/p99/max` in µs
+ *
+ * For example: `1234567 output0.video.encoder.fps=30 latency.video.mux=30/41000/65536/65536/52000`
+ *
+ * @param outputStream the stream to write to. It is closed by [close].
+ */
+class MetricsLineExporter(outputStream: OutputStream) : Closeable {
+    /**
+     * Appends the lines to [file].
+     */
+    constructor(file: File) : this(FileOutputStream(file, true))
+
+    private val writer = outputStream.bufferedWriter()
+
+    /**
+     * Writes a snapshot.
+     */
+    @Synchronized
+    fun export(snapshot: MetricsSnapshot) {
+        writer.write(format(snapshot))
+        writer.newLine()
+        writer.flush()
+    }
+
+    @Synchronized
+    override fun close() {
+        writer.close()
+    }
+
+    companion object {
+        /**
+         * Formats a snapshot as a line without line separator.
+         */
+        fun format(snapshot: MetricsSnapshot): String {
+            val builder = StringBuilder()
+            builder.append(snapshot.timestampInUs)
+            snapshot.counters.forEach { (name, value) ->
+                builder.append(' ').append(name).append('=').append(value)
+            }
+            snapshot.gauges.forEach { (name, value) ->
+                builder.append(' ').append(name).append('=').append(formatDouble(value))
+            }
+            snapshot.histograms.forEach { (name, histogram) ->
+                builder.append(' ').append(name).append('=')
+                    .append(histogram.count).append('/')
+                    .append(histogram.meanInUs).append('/')
+                    .append(histogram.getPercentileInUs(50f)).append('/')
+                    .append(histogram.getPercentileInUs(99f)).append('/')
+                    .append(histogram.maxInUs)
+            }
+            return builder.toString()
+        }
+
+        private fun formatDouble(value: Double): String {
+            return if ((value % 1.0 == 0.0) && (value in Long.MIN_VALUE.toDouble()..Long.MAX_VALUE.toDouble())) {
+                value.toLong().toString()
+            } else {
+                String.format(Locale.US, "%.3f", value).trimEnd('0').trimEnd('.')
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.metrics
+
+import io.github.thibaultbee.streampack.core.elements.utils.LatencyHistogram
+import java.util.TreeMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A monotonic counter. Updates are lock-free.
+ */
+class Counter internal constructor() {
+    private val count = AtomicLong(0)
+
+    /**
+     * The current count.
+     */
+    val value: Long
+        get() = count.get()
+
+    /**
+     * Adds [delta] to the counter.
+     */
+    fun increment(delta: Long = 1) {
+        count.addAndGet(delta)
+    }
+}
+
+/**
+ * A value that is either set by its owner or read from a callback when sampled.
+ *
+ * @param reader the callback that reads the value. `null` if the value is set with [set].
+ */
+class Gauge internal constructor(private val reader: (() -> Number?)? = null) {
+    @Volatile
+    private var lastValue = 0.0
+
+    /**
+     * The current value. `null` if the callback has no value.
+     */
+    val value: Double?
+        get() = if (reader != null) reader.invoke()?.toDouble() else lastValue
+
+    /**
+     * Sets the value of a gauge without callback.
+     */
+    fun set(value: Double) {
+        check(reader == null) { "Gauge is read from a callback" }
+        lastValue = value
+    }
+}
+
+/**
+ * A component that registers its metrics to a [MetricsRegistry].
+ */
+interface MetricsProducer {
+    /**
+     * Registers the metrics of the component.
+     *
+     * Gauges must not block: they are read by the sampler of the registry.
+     *
+     * @param registry the registry to register to. Its prefix is set by the caller.
+     */
+    fun registerMetrics(registry: MetricsRegistry)
+}
+
+/**
+ * A registry of named counters, gauges and histograms.
+ *
+ * Components register their metrics once and update them on their hot path: updates are lock-free
+ * and do not allocate. A [MetricsSampler] reads all the metrics on a fixed cadence so the readers
+ * never access the components directly.
+ *
+ * Names are dot separated. A registry created by [child] shares the metrics of its parent and
+ * prefixes the names it registers.
+ */
+class MetricsRegistry private constructor(
+    private val metrics: ConcurrentHashMap<String, Any>,
+    private val prefix: String
+) {
+    constructor() : this(ConcurrentHashMap(), "")
+
+    /**
+     * Creates a registry that prefixes the names with [name].
+     *
+     * @param name the prefix without the trailing dot
+     */
+    fun child(name: String): MetricsRegistry {
+        require(name.isNotEmpty()) { "Name must not be empty" }
+        return MetricsRegistry(metrics, "$prefix$name.")
+    }
+
+    /**
+     * Gets or creates a counter.
+     */
+    fun counter(name: String): Counter = getOrPut(name) { Counter() }
+
+    /**
+     * Gets or creates a gauge set by its owner.
+     */
+    fun gauge(name: String): Gauge = getOrPut(name) { Gauge() }
+
+    /**
+     * Registers a gauge read from [reader] when sampled. It replaces the previous gauge of the same
+     * name.
+     *
+     * @param reader the callback that reads the value. It returns `null` when there is no value.
+     */
+    fun gauge(name: String, reader: () -> Number?): Gauge {
+        return Gauge(reader).also { metrics[prefix + name] = it }
+    }
+
+    /**
+     * Gets or creates a histogram.
+     */
+    fun histogram(name: String): LatencyHistogram = getOrPut(name) { LatencyHistogram() }
+
+    /**
+     * Registers an existing histogram. It replaces the previous histogram of the same name.
+     */
+    fun histogram(name: String, histogram: LatencyHistogram) {
+        metrics[prefix + name] = histogram
+    }
+
+    /**
+     * Removes a metric.
+     */
+    fun unregister(name: String) {
+        metrics.remove(prefix + name)
+    }
+
+    /**
+     * Removes all the metrics of this registry, including the metrics of its children.
+     */
+    fun unregisterAll() {
+        metrics.keys.removeAll { it.startsWith(prefix) }
+    }
+
+    /**
+     * Reads all the metrics of this registry.
+     *
+     * Gauges that throw or have no value are skipped.
+     *
+     * @param timestampInUs the timestamp of the snapshot
+     */
+    fun snapshot(timestampInUs: Long): MetricsSnapshot {
+        val counters = TreeMap<String, Long>()
+        val gauges = TreeMap<String, Double>()
+        val histograms = TreeMap<String, LatencyHistogram.Snapshot>()
+        metrics.forEach { (name, metric) ->
+            if (!name.startsWith(prefix)) {
+                return@forEach
+            }
+            when (metric) {
+                is Counter -> counters[name] = metric.value
+                is Gauge -> try {
+                    metric.value?.let { gauges[name] = it }
+                } catch (_: Throwable) {
+                    // Component is not ready
+                }
+
+                is LatencyHistogram -> histograms[name] = metric.snapshot()
+            }
+        }
+        return MetricsSnapshot(timestampInUs, counters, gauges, histograms)
+    }
+
+    private inline fun <reified T : Any> getOrPut(name: String, crossinline create: () -> T): T {
+        val metric = metrics.computeIfAbsent(prefix + name) { create() }
+        require(metric is T) { "Metric ${prefix + name} is a ${metric.javaClass.simpleName}" }
+        return metric
+    }
+}
+
+/**
+ * The values of the metrics of a [MetricsRegistry] at a given time.
+ *
+ * @param timestampInUs the time of the snapshot in µs
+ * @param counters the counters by name
+ * @param gauges the gauges by name
+ * @param histograms the histograms by name
+ */
+data class MetricsSnapshot(
+    val timestampInUs: Long,
+    val counters: Map<String, Long>,
+    val gauges: Map<String, Double>,
+    val histograms: Map<String, LatencyHistogram.Snapshot>
+)
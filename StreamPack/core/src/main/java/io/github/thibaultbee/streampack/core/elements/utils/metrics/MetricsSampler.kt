@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.metrics
+
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+
+/**
+ * Samples a [MetricsRegistry] on a fixed cadence and emits the snapshots to all its subscribers.
+ *
+ * The registry is read once per period whatever the number of subscribers. Slow subscribers miss
+ * the oldest snapshots instead of delaying the sampler.
+ *
+ * @param registry the registry to sample
+ * @param dispatcher the dispatcher of the sampling coroutine
+ * @param periodInMs the sampling period in ms
+ * @param timeProvider the time provider of the snapshot timestamps
+ */
+class MetricsSampler(
+    private val registry: MetricsRegistry,
+    dispatcher: CoroutineDispatcher,
+    val periodInMs: Long = DEFAULT_PERIOD_IN_MS,
+    private val timeProvider: TimeProvider = TimeUtils.systemTimeProvider
+) {
+    init {
+        require(periodInMs > 0) { "Period must be positive: $periodInMs" }
+    }
+
+    private val coroutineScope = CoroutineScope(SupervisorJob() + dispatcher)
+    private var job: Job? = null
+
+    private val _snapshotFlow = MutableSharedFlow<MetricsSnapshot>(
+        replay = 1,
+        extraBufferCapacity = SUBSCRIBER_BUFFER_CAPACITY,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+
+    /**
+     * The snapshots of the registry. The last snapshot is replayed to new subscribers.
+     */
+    val snapshotFlow: SharedFlow<MetricsSnapshot> = _snapshotFlow.asSharedFlow()
+
+    /**
+     * Whether the sampler is running.
+     */
+    val isRunning: Boolean
+        get() = job?.isActive == true
+
+    /**
+     * Starts sampling every [periodInMs]. Does nothing if already started.
+     */
+    @Synchronized
+    fun start() {
+        if (isRunning) {
+            return
+        }
+        job = coroutineScope.launch {
+            while (isActive) {
+                delay(periodInMs)
+                sample()
+            }
+        }
+    }
+
+    /**
+     * Stops sampling and emits a last snapshot.
+     */
+    @Synchronized
+    fun stop() {
+        val job = job ?: return
+        this.job = null
+        job.cancel()
+        sample()
+    }
+
+    /**
+     * Samples the registry immediately.
+     *
+     * @return the emitted snapshot
+     */
+    fun sample(): MetricsSnapshot {
+        return registry.snapshot(timeProvider.uptimeUs()).also {
+            _snapshotFlow.tryEmit(it)
+        }
+    }
+
+    /**
+     * Stops sampling. The sampler can't be started again.
+     */
+    fun release() {
+        coroutineScope.cancel()
+        job = null
+    }
+
+    companion object {
+        /**
+         * Default sampling period in ms.
+         */
+        const val DEFAULT_PERIOD_IN_MS = 1000L
+
+        private const val SUBSCRIBER_BUFFER_CAPACITY = 16
+    }
+}
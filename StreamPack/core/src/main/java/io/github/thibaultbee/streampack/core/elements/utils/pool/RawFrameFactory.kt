@@ -16,6 +16,8 @@
 package io.github.thibaultbee.streampack.core.elements.utils.pool
 
 import io.github.thibaultbee.streampack.core.elements.data.RawFrame
+import io.github.thibaultbee.streampack.core.elements.utils.leak.FrameKind
+import io.github.thibaultbee.streampack.core.elements.utils.leak.FrameLeakDetector
 import io.github.thibaultbee.streampack.core.logger.Logger
 
 /**
@@ -28,9 +30,15 @@ fun RawFrameFactory(isDirect: Boolean): RawFrameFactory {
 /**
  * A factory to create [RawFrame].
  */
-class RawFrameFactory(private val bufferPool: ByteBufferPool) : IRawFrameFactory {
+class RawFrameFactory(
+    private val bufferPool: ByteBufferPool,
+    private val leakDetector: FrameLeakDetector = FrameLeakDetector.default
+) : IRawFrameFactory {
     override fun create(bufferSize: Int, timestampInUs: Long): RawFrame {
-        return RawFrame(bufferPool.get(bufferSize), timestampInUs) { rawFrame ->
+        val buffer = bufferPool.get(bufferSize)
+        val lease = leakDetector.acquire(FrameKind.RAW)
+        return RawFrame(buffer, timestampInUs) { rawFrame ->
+            lease.release()
             try {
                 bufferPool.put(rawFrame.rawBuffer)
             } catch (t: Throwable) {
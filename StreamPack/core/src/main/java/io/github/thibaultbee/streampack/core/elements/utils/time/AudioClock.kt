@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.time
+
+import io.github.thibaultbee.streampack.core.logger.Logger
+import kotlin.math.abs
+import kotlin.math.roundToLong
+
+/**
+ * Timestamps audio frames from a running sample counter.
+ *
+ * The timestamp of a frame is the timestamp of the previous frame plus its duration, so
+ * consecutive frames are exactly contiguous. The counter is anchored to the [Timebase.UPTIME]
+ * clock with pairs of frame position and time, such as
+ * [android.media.AudioTimestamp.framePosition] and [android.media.AudioTimestamp.nanoTime].
+ * Without anchor, the time of the read is used: the first frame of a read was captured at least
+ * its duration before the read returned.
+ *
+ * The sample clock of an audio device drifts from the system clock. The clock follows the anchors
+ * by:
+ *  - estimating the actual frame rate from anchors that are [RATE_WINDOW_IN_S] apart,
+ *  - slewing the remaining error by at most [MAX_SLEW_RATE] of the frame duration,
+ *  - jumping forward when frames have been lost ([MAX_ERROR_IN_US]).
+ *
+ * Timestamps never go backward.
+ *
+ * This class is not thread-safe: it is expected to be called from the audio capture thread.
+ *
+ * @param sampleRate the sample rate in Hz
+ * @param timeProvider the provider of the time of reads when there is no anchor
+ */
+class AudioClock(
+    val sampleRate: Int,
+    private val timeProvider: TimeProvider = TimeUtils.systemTimeProvider
+) {
+    private val nominalFrameDurationInUs = 1_000_000.0 / sampleRate
+
+    /**
+     * The number of frames read since the last [reset].
+     */
+    var framesRead = 0L
+        private set
+
+    /**
+     * The estimated difference between the frame rate of the device and [sampleRate] in parts
+     * per million. Positive when the device clock is slower than the system clock.
+     */
+    var driftInPpm = 0.0
+        private set
+
+    private val frameDurationInUs: Double
+        get() = nominalFrameDurationInUs * (1 + driftInPpm / 1_000_000)
+
+    private var anchor: Anchor? = null
+    private var rateReference: Anchor? = null
+
+    private var nextTimestampInUs = Double.NaN
+    private var lastTimestampInUs = Long.MIN_VALUE
+
+    init {
+        require(sampleRate > 0) { "Invalid sample rate: $sampleRate" }
+    }
+
+    /**
+     * Resets the counter and the anchors. To call when the capture (re)starts.
+     *
+     * The estimated drift is kept: it belongs to the device.
+     */
+    fun reset() {
+        framesRead = 0
+        anchor = null
+        rateReference = null
+        nextTimestampInUs = Double.NaN
+        lastTimestampInUs = Long.MIN_VALUE
+    }
+
+    /**
+     * Anchors the frame counter to the system clock.
+     *
+     * @param framePosition the position of a frame since the last [reset], counted as
+     * [onFramesRead] does
+     * @param timeInNs the time the frame was captured in [Timebase.UPTIME]
+     */
+    fun onTimestamp(framePosition: Long, timeInNs: Long) {
+        val newAnchor = Anchor(framePosition, timeInNs / 1000.0)
+        if (newAnchor == anchor) {
+            return
+        }
+        anchor = newAnchor
+
+        val reference = rateReference
+        if ((reference == null) || (framePosition <= reference.framePosition)) {
+            rateReference = newAnchor
+            return
+        }
+        val frameCount = framePosition - reference.framePosition
+        if (frameCount < sampleRate.toLong() * RATE_WINDOW_IN_S) {
+            return
+        }
+        val measuredDriftInPpm =
+            ((newAnchor.timeInUs - reference.timeInUs) / (frameCount * nominalFrameDurationInUs) - 1) * 1_000_000
+        if (abs(measuredDriftInPpm) <= MAX_DRIFT_IN_PPM) {
+            driftInPpm += (measuredDriftInPpm - driftInPpm) * RATE_SMOOTHING
+        } else {
+            Logger.w(TAG, "Discarding frame rate measurement: $measuredDriftInPpm ppm")
+        }
+        rateReference = newAnchor
+    }
+
+    /**
+     * Counts frames that have been read and returns the timestamp of the first one.
+     *
+     * @param frameCount the number of frames read
+     * @return the timestamp of the first frame in [Timebase.UPTIME] in µs
+     */
+    fun onFramesRead(frameCount: Int): Long {
+        require(frameCount > 0) { "Invalid frame count: $frameCount" }
+        val nowInUs = timeProvider.uptimeUs()
+        val durationInUs = frameCount * frameDurationInUs
+
+        // Latest possible capture time of the first frame
+        val latestInUs = nowInUs - durationInUs
+        val targetInUs = anchor?.let {
+            val anchoredInUs = it.timeInUs + (framesRead - it.framePosition) * frameDurationInUs
+            // An anchor in the future comes from a reset of the device position
+            if (anchoredInUs <= nowInUs) anchoredInUs else null
+        } ?: latestInUs
+
+        var timestampInUs = if (nextTimestampInUs.isNaN()) {
+            targetInUs
+        } else {
+            val errorInUs = targetInUs - nextTimestampInUs
+            if (errorInUs > MAX_ERROR_IN_US) {
+                Logger.i(TAG, "Audio clock is late by $errorInUs us: frames have been lost")
+                targetInUs
+            } else {
+                val maxSlewInUs = durationInUs * MAX_SLEW_RATE
+                nextTimestampInUs + (errorInUs * SLEW_GAIN).coerceIn(-maxSlewInUs, maxSlewInUs)
+            }
+        }
+        if (timestampInUs.roundToLong() <= lastTimestampInUs) {
+            timestampInUs = (lastTimestampInUs + 1).toDouble()
+        }
+
+        framesRead += frameCount
+        nextTimestampInUs = timestampInUs + durationInUs
+        lastTimestampInUs = timestampInUs.roundToLong()
+        return lastTimestampInUs
+    }
+
+    private data class Anchor(val framePosition: Long, val timeInUs: Double)
+
+    companion object {
+        private const val TAG = "AudioClock"
+
+        /**
+         * Minimum distance between anchors to measure the frame rate.
+         */
+        const val RATE_WINDOW_IN_S = 60
+
+        /**
+         * Drift above this is considered as a discontinuity.
+         */
+        const val MAX_DRIFT_IN_PPM = 2_000.0
+
+        /**
+         * Maximum correction of a timestamp relative to the duration of its frames.
+         */
+        const val MAX_SLEW_RATE = 0.005
+
+        /**
+         * A clock late by more than this jumps forward.
+         */
+        const val MAX_ERROR_IN_US = 100_000.0
+
+        private const val RATE_SMOOTHING = 0.5
+        private const val SLEW_GAIN = 0.05
+    }
+}
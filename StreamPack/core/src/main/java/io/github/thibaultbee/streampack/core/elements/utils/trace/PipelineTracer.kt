@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.trace
+
+import io.github.thibaultbee.streampack.core.elements.utils.LatencyHistogram
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import java.io.OutputStream
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The stages of the pipeline where frames are traced.
+ */
+enum class TraceStage {
+    /**
+     * The frame is delivered by the source.
+     */
+    CAPTURE,
+
+    /**
+     * The video frame is rendered to the encoder surface.
+     */
+    RENDER,
+
+    /**
+     * The audio frame is queued to the encoder.
+     */
+    ENCODER_INPUT,
+
+    /**
+     * The encoded frame is output by the encoder.
+     */
+    ENCODER_OUTPUT,
+
+    /**
+     * The encoded frame is written to the endpoint.
+     */
+    MUX,
+
+    /**
+     * The muxed frame is queued for the sink.
+     */
+    SINK_ENQUEUE,
+
+    /**
+     * The muxed frame is written by the sink.
+     */
+    SINK_WRITE
+}
+
+/**
+ * A component that records the frames it processes to a [PipelineTracer].
+ */
+interface Traceable {
+    /**
+     * The tracer. `null` to disable tracing.
+     */
+    var tracer: PipelineTracer?
+}
+
+/**
+ * The latency of each stage of the pipeline.
+ *
+ * Latencies are measured from the capture timestamp of the frames, so each stage includes the
+ * previous ones. Stages that are not traced have an empty snapshot.
+ *
+ * @param audio the audio latency per stage
+ * @param video the video latency per stage
+ */
+data class PipelineLatency(
+    val audio: Map<TraceStage, LatencyHistogram.Snapshot>,
+    val video: Map<TraceStage, LatencyHistogram.Snapshot>
+)
+
+/**
+ * Aggregates the latency of frames at each [TraceStage].
+ *
+ * Frames are identified by their presentation timestamp: it is their capture time in the
+ * [TimeUtils.currentTime] timebase, so the latency at a stage is the time elapsed since the
+ * capture. Histograms are preallocated and lock-free: [record] does not allocate and can be called
+ * from any thread for every frame.
+ *
+ * A trace of the last events can be recorded with [startTrace] and written with [dumpTrace] for
+ * offline analysis.
+ *
+ * @param timeProvider the time provider. Must have the timebase of the frame timestamps.
+ */
+class PipelineTracer(
+    private val timeProvider: TimeProvider = TimeUtils.systemTimeProvider
+) : MetricsProducer {
+    /**
+     * Whether frames are recorded.
+     */
+    @Volatile
+    var isEnabled = true
+
+    private val histograms = Array(2 * STAGES.size) { LatencyHistogram() }
+
+    @Volatile
+    private var traceBuffer: TraceBuffer? = null
+
+    private val _latencyFlow = MutableStateFlow(snapshot())
+
+    /**
+     * The latency per stage. It is updated by [publish].
+     */
+    val latencyFlow: StateFlow<PipelineLatency> = _latencyFlow.asStateFlow()
+
+    /**
+     * Records a frame at a stage.
+     *
+     * @param stage the stage
+     * @param isVideo whether the frame is a video frame
+     * @param timestampInUs the presentation timestamp of the frame in µs
+     */
+    fun record(stage: TraceStage, isVideo: Boolean, timestampInUs: Long) {
+        if (!isEnabled) {
+            return
+        }
+        val nowInUs = timeProvider.uptimeUs()
+        histograms[getIndex(stage, isVideo)].record(nowInUs - timestampInUs)
+        traceBuffer?.add(nowInUs, timestampInUs, stage, isVideo)
+    }
+
+    /**
+     * Gets the current latency per stage.
+     */
+    fun snapshot(): PipelineLatency {
+        return PipelineLatency(
+            audio = STAGES.associateWith { histograms[getIndex(it, false)].snapshot() },
+            video = STAGES.associateWith { histograms[getIndex(it, true)].snapshot() }
+        )
+    }
+
+    /**
+     * Emits the current latency to [latencyFlow].
+     */
+    fun publish() {
+        _latencyFlow.value = snapshot()
+    }
+
+    /**
+     * Resets the histograms.
+     */
+    fun reset() {
+        histograms.forEach { it.reset() }
+        publish()
+    }
+
+    /**
+     * Registers the histogram of each stage as `audio.<stage>` and `video.<stage>`.
+     */
+    override fun registerMetrics(registry: MetricsRegistry) {
+        STAGES.forEach { stage ->
+            val name = stage.name.lowercase()
+            registry.histogram("audio.$name", histograms[getIndex(stage, false)])
+            registry.histogram("video.$name", histograms[getIndex(stage, true)])
+        }
+    }
+
+    /**
+     * Starts recording a trace of the last [capacity] events. It replaces the previous trace.
+     *
+     * @param capacity the number of events kept
+     */
+    fun startTrace(capacity: Int = DEFAULT_TRACE_CAPACITY) {
+        traceBuffer = TraceBuffer(capacity)
+    }
+
+    /**
+     * Stops recording the trace. The recorded events are dropped.
+     */
+    fun stopTrace() {
+        traceBuffer = null
+    }
+
+    /**
+     * Writes the recorded events, from the oldest, as CSV lines:
+     * `time_us,pts_us,media,stage,latency_us`.
+     *
+     * Events recorded while dumping might be partially written: stop recording before dumping to
+     * get a consistent trace.
+     *
+     * @param outputStream the stream to write to. It is not closed.
+     * @return the number of written events
+     */
+    fun dumpTrace(outputStream: OutputStream): Int {
+        val traceBuffer = traceBuffer ?: return 0
+        val writer = outputStream.bufferedWriter()
+        writer.write("time_us,pts_us,media,stage,latency_us\n")
+        val count = traceBuffer.forEach { timeInUs, timestampInUs, stage, isVideo ->
+            writer.write(
+                "$timeInUs,$timestampInUs,${if (isVideo) "video" else "audio"},${stage.name.lowercase()},${timeInUs - timestampInUs}\n"
+            )
+        }
+        writer.flush()
+        return count
+    }
+
+    private fun getIndex(stage: TraceStage, isVideo: Boolean) =
+        stage.ordinal * 2 + if (isVideo) 1 else 0
+
+    /**
+     * A preallocated ring buffer of events. Writers reserve a slot with an atomic counter.
+     */
+    private class TraceBuffer(private val capacity: Int) {
+        init {
+            require(capacity > 0) { "Trace capacity must be positive: $capacity" }
+        }
+
+        private val events = LongArray(capacity * EVENT_SIZE)
+        private val nextIndex = AtomicLong(0)
+
+        fun add(timeInUs: Long, timestampInUs: Long, stage: TraceStage, isVideo: Boolean) {
+            val offset = (nextIndex.getAndIncrement() % capacity).toInt() * EVENT_SIZE
+            events[offset] = timeInUs
+            events[offset + 1] = timestampInUs
+            events[offset + 2] = (stage.ordinal.toLong() shl 1) or if (isVideo) 1L else 0L
+        }
+
+        fun forEach(block: (timeInUs: Long, timestampInUs: Long, stage: TraceStage, isVideo: Boolean) -> Unit): Int {
+            val end = nextIndex.get()
+            val start = maxOf(0, end - capacity)
+            for (index in start until end) {
+                val offset = (index % capacity).toInt() * EVENT_SIZE
+                val tag = events[offset + 2]
+                block(
+                    events[offset],
+                    events[offset + 1],
+                    STAGES[(tag shr 1).toInt()],
+                    (tag and 1L) == 1L
+                )
+            }
+            return (end - start).toInt()
+        }
+
+        companion object {
+            private const val EVENT_SIZE = 3
+        }
+    }
+
+    companion object {
+        private val STAGES = TraceStage.values().toList()
+
+        /**
+         * Default number of events kept by a trace: a few minutes of audio and video.
+         */
+        const val DEFAULT_TRACE_CAPACITY = 100_000
+    }
+}
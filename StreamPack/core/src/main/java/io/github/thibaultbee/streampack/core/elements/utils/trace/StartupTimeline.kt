@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.trace
+
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.update
+
+/**
+ * The phases of a stream start.
+ *
+ * Phases can overlap: for example, the connection to the server can run while the encoders are
+ * being configured. Times are relative to the creation of the timeline.
+ *
+ * The pipeline records [ENCODERS_START], [ENDPOINT_START], [FIRST_VIDEO_FRAME] and
+ * [FIRST_AUDIO_FRAME]. Callers add their own phases with [measure] and [mark].
+ *
+ * @param timeProvider the time provider
+ */
+class StartupTimeline(
+    private val timeProvider: TimeProvider = TimeUtils.systemTimeProvider
+) {
+    private val originInUs = timeProvider.uptimeUs()
+
+    private val _phasesFlow = MutableStateFlow<List<Phase>>(emptyList())
+
+    /**
+     * The recorded phases, in the order they ended.
+     */
+    val phasesFlow: StateFlow<List<Phase>> = _phasesFlow.asStateFlow()
+
+    /**
+     * The recorded phases, in the order they ended.
+     */
+    val phases: List<Phase>
+        get() = phasesFlow.value
+
+    private val elapsedInMs: Long
+        get() = (timeProvider.uptimeUs() - originInUs) / 1000
+
+    /**
+     * Runs [block] and records its duration as phase [name]. The phase is recorded even if
+     * [block] fails.
+     *
+     * @param name the phase name
+     * @param block the phase
+     * @return the result of [block]
+     */
+    suspend fun <T> measure(name: String, block: suspend () -> T): T {
+        val startInMs = elapsedInMs
+        try {
+            return block()
+        } finally {
+            add(Phase(name, startInMs, elapsedInMs))
+        }
+    }
+
+    /**
+     * Records an instant event as phase [name]. Only the first event of a name is recorded.
+     *
+     * @param name the phase name
+     */
+    fun mark(name: String) {
+        val timeInMs = elapsedInMs
+        _phasesFlow.update { phases ->
+            if (phases.any { it.name == name }) {
+                phases
+            } else {
+                phases + Phase(name, timeInMs, timeInMs)
+            }
+        }
+    }
+
+    /**
+     * Gets a recorded phase.
+     *
+     * @param name the phase name
+     * @return the phase or `null` if it has not been recorded
+     */
+    operator fun get(name: String) = phases.lastOrNull { it.name == name }
+
+    /**
+     * Suspends until phase [name] is recorded.
+     *
+     * @param name the phase name
+     * @return the phase
+     */
+    suspend fun await(name: String): Phase {
+        return phasesFlow.first { phases -> phases.any { it.name == name } }
+            .last { it.name == name }
+    }
+
+    private fun add(phase: Phase) {
+        _phasesFlow.update { it + phase }
+    }
+
+    override fun toString(): String {
+        return phases.joinToString(", ") {
+            if (it.durationInMs == 0L) {
+                "${it.name}@${it.startInMs}ms"
+            } else {
+                "${it.name} ${it.startInMs}-${it.endInMs}ms"
+            }
+        }
+    }
+
+    /**
+     * A phase of the start.
+     *
+     * @param name the phase name
+     * @param startInMs the start time since the creation of the timeline
+     * @param endInMs the end time since the creation of the timeline
+     */
+    data class Phase(val name: String, val startInMs: Long, val endInMs: Long) {
+        /**
+         * The duration of the phase. 0 for an instant event.
+         */
+        val durationInMs: Long
+            get() = endInMs - startInMs
+    }
+
+    companion object {
+        /**
+         * The start of the encoders.
+         */
+        const val ENCODERS_START = "encoders_start"
+
+        /**
+         * The start of the endpoint. For RTMP, it is the stream publication.
+         */
+        const val ENDPOINT_START = "endpoint_start"
+
+        /**
+         * The first video frame written to the endpoint.
+         */
+        const val FIRST_VIDEO_FRAME = "first_video_frame"
+
+        /**
+         * The first audio frame written to the endpoint.
+         */
+        const val FIRST_AUDIO_FRAME = "first_audio_frame"
+    }
+}
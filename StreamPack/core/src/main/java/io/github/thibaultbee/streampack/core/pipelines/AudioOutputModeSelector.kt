@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.pipelines
+
+import android.content.Context
+import android.os.Build
+import io.github.thibaultbee.streampack.core.logger.Logger
+import io.github.thibaultbee.streampack.core.pipelines.StreamerPipeline.AudioOutputMode
+
+/**
+ * Selects the [AudioOutputMode] of the device.
+ *
+ * [AudioOutputMode.CALLBACK] is selected unless it has already failed on the same system build
+ * ([Build.FINGERPRINT]). The failure is persisted by [reportCallbackFailure], so that the next
+ * pipelines fall back to [AudioOutputMode.PUSH]. A system update tries callback mode again.
+ *
+ * @param context the application context
+ */
+class AudioOutputModeSelector(context: Context) {
+    private val preferences =
+        context.applicationContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+
+    /**
+     * Whether callback mode has failed on the current system build.
+     */
+    val hasCallbackFailed: Boolean
+        get() = preferences.getString(KEY_FAILED_FINGERPRINT, null) == Build.FINGERPRINT
+
+    /**
+     * Gets the audio output mode to use.
+     *
+     * @return [AudioOutputMode.PUSH] if callback mode has failed, otherwise [AudioOutputMode.CALLBACK]
+     */
+    fun select() = if (hasCallbackFailed) {
+        AudioOutputMode.PUSH
+    } else {
+        AudioOutputMode.CALLBACK
+    }
+
+    /**
+     * Reports that callback mode does not work on this device. The next [select] returns
+     * [AudioOutputMode.PUSH].
+     *
+     * @param t the failure
+     */
+    fun reportCallbackFailure(t: Throwable) {
+        if (hasCallbackFailed) {
+            return
+        }
+        Logger.w(TAG, "Audio callback mode failed: falling back to push mode: ${t.message}")
+        preferences.edit().putString(KEY_FAILED_FINGERPRINT, Build.FINGERPRINT).apply()
+    }
+
+    /**
+     * Forgets the callback mode failure.
+     */
+    fun reset() {
+        preferences.edit().remove(KEY_FAILED_FINGERPRINT).apply()
+    }
+
+    companion object {
+        private const val TAG = "AudioOutputModeSelector"
+
+        private const val PREFERENCES_NAME = "io.github.thibaultbee.streampack.audio_output_mode"
+        private const val KEY_FAILED_FINGERPRINT = "callback_failed_fingerprint"
+    }
+}
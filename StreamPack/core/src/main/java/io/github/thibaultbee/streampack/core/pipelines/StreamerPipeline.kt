@@ -17,6 +17,7 @@ package io.github.thibaultbee.streampack.core.pipelines
 
 import android.content.Context
 import io.github.thibaultbee.streampack.core.elements.data.RawFrame
+import io.github.thibaultbee.streampack.core.elements.encoders.IEncoderInternal.IAsyncByteBufferInput.OnFrameRequestedListener
 import io.github.thibaultbee.streampack.core.elements.endpoints.DynamicEndpointFactory
 import io.github.thibaultbee.streampack.core.elements.endpoints.IEndpointInternal
 import io.github.thibaultbee.streampack.core.elements.processing.video.DefaultSurfaceProcessorFactory
@@ -27,6 +28,10 @@ import io.github.thibaultbee.streampack.core.elements.utils.RotationValue
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.displayRotation
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.isCompatibleWith
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.runningHistoryNotNull
+import io.github.thibaultbee.streampack.core.elements.utils.leak.FrameLeakDetector
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsSampler
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineTracer
 import io.github.thibaultbee.streampack.core.interfaces.IStreamer
 import io.github.thibaultbee.streampack.core.interfaces.IWithAudioSource
 import io.github.thibaultbee.streampack.core.interfaces.IWithVideoRotation
@@ -50,19 +55,24 @@ import io.github.thibaultbee.streampack.core.pipelines.outputs.IVideoPipelineOut
 import io.github.thibaultbee.streampack.core.pipelines.outputs.IVideoSurfacePipelineOutputInternal
 import io.github.thibaultbee.streampack.core.pipelines.outputs.SurfaceDescriptor
 import io.github.thibaultbee.streampack.core.pipelines.outputs.encoding.EncodingPipelineOutput
+import io.github.thibaultbee.streampack.core.pipelines.outputs.encoding.IConfigurableAudioEncodingPipelineOutput
 import io.github.thibaultbee.streampack.core.pipelines.outputs.encoding.IConfigurableAudioVideoEncodingPipelineOutput
+import io.github.thibaultbee.streampack.core.pipelines.outputs.encoding.IConfigurableVideoEncodingPipelineOutput
 import io.github.thibaultbee.streampack.core.pipelines.outputs.encoding.IEncodingPipelineOutput
 import io.github.thibaultbee.streampack.core.pipelines.outputs.isStreaming
 import io.github.thibaultbee.streampack.core.pipelines.utils.MultiThrowable
 import io.github.thibaultbee.streampack.core.pipelines.utils.SourceConfigUtils
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.collectLatest
 import kotlinx.coroutines.flow.drop
 import kotlinx.coroutines.joinAll
 import kotlinx.coroutines.launch
@@ -71,7 +81,9 @@ import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 import java.io.Closeable
+import java.nio.ByteBuffer
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * The main pipeline for the streamer.
@@ -79,7 +91,7 @@ import java.util.concurrent.atomic.AtomicBoolean
  * @param context the application context
  * @param withAudio whether the streamer has audio. It will create necessary audio components.
  * @param withVideo whether the streamer has video. It will create necessary video components.
- * @param audioOutputMode the audio output mode. It can be [AudioOutputMode.PUSH] or [AudioOutputMode.CALLBACK]. Only use [AudioOutputMode.CALLBACK] when you have a single output and its implements [IAudioCallbackPipelineOutputInternal]. By default, it is [AudioOutputMode.PUSH].
+ * @param audioOutputMode the audio output mode. It can be [AudioOutputMode.PUSH] or [AudioOutputMode.CALLBACK]. Only use [AudioOutputMode.CALLBACK] when you have a single output and its implements [IAudioCallbackPipelineOutputInternal]. In [AudioOutputMode.CALLBACK], repeated failures are reported to [AudioOutputModeSelector]. By default, it is [AudioOutputMode.PUSH].
  * @param surfaceProcessorFactory the factory to create the surface processor
  * @param dispatcherProvider the coroutine dispatcher
  */
@@ -97,6 +109,34 @@ open class StreamerPipeline(
     private val _throwableFlow = MutableStateFlow<Throwable?>(null)
     override val throwableFlow = _throwableFlow.asStateFlow()
 
+    /**
+     * The latency tracer of the pipeline.
+     *
+     * Its [PipelineTracer.latencyFlow] is updated every second while streaming.
+     */
+    val tracer = PipelineTracer()
+
+    /**
+     * The registry of the metrics of the inputs and the outputs.
+     *
+     * Metrics of outputs are prefixed by `output<index>`, in the order they are added.
+     */
+    val metricsRegistry = MetricsRegistry()
+
+    /**
+     * The sampler of [metricsRegistry]. It samples every second while streaming.
+     */
+    val metricsSampler = MetricsSampler(metricsRegistry, dispatcherProvider.default)
+
+    /**
+     * The detector of the frames that are never closed. It is shared by all the pipelines.
+     *
+     * Its leaks are reported when the pipeline stops streaming and when it is released.
+     */
+    val frameLeakDetector = FrameLeakDetector.default
+
+    private val nextOutputIndex = AtomicInteger(0)
+
     // INPUTS
     private val inputMutex = Mutex()
     private val _audioInput = if (withAudio) {
@@ -104,13 +144,17 @@ open class StreamerPipeline(
             AudioOutputMode.PUSH -> AudioInput(
                 context,
                 AudioInput.PushConfig(::queueAudioFrame),
-                dispatcherProvider
+                dispatcherProvider,
+                tracer,
+                metricsRegistry.child(AUDIO_INPUT_METRICS)
             )
 
             AudioOutputMode.CALLBACK -> AudioInput(
                 context,
                 AudioInput.CallbackConfig(),
-                dispatcherProvider
+                dispatcherProvider,
+                tracer,
+                metricsRegistry.child(AUDIO_INPUT_METRICS)
             )
         }
     } else {
@@ -119,7 +163,13 @@ open class StreamerPipeline(
     override val audioInput: IAudioInput? = _audioInput
 
     private val _videoInput = if (withVideo) {
-        VideoInput(context, surfaceProcessorFactory, dispatcherProvider) {
+        VideoInput(
+            context,
+            surfaceProcessorFactory,
+            dispatcherProvider,
+            tracer = tracer,
+            onRequestKeyFrame = ::requestVideoKeyFrame
+        ) {
             getOutputSurfaces()
         }
     } else {
@@ -168,6 +218,24 @@ open class StreamerPipeline(
     init {
         require(withAudio || withVideo) { "At least one of audio or video must be set" }
 
+        tracer.registerMetrics(metricsRegistry.child(LATENCY_METRICS))
+        frameLeakDetector.registerMetrics(metricsRegistry.child(FRAMES_METRICS))
+        coroutineScope.launch {
+            isStreamingFlow.collectLatest { isStreaming ->
+                if (isStreaming) {
+                    tracer.reset()
+                    metricsSampler.start()
+                } else {
+                    metricsSampler.stop()
+                }
+                while (isStreaming) {
+                    delay(LATENCY_PUBLISH_PERIOD_IN_MS)
+                    tracer.publish()
+                }
+                tracer.publish()
+            }
+        }
+
         _videoInput?.let { input ->
             coroutineScope.launch {
                 input.isStreamingFlow.collect { isStreaming ->
@@ -236,6 +304,7 @@ open class StreamerPipeline(
         safeStreamingOutputCall { streamingOutputs ->
             val audioStreamingOutput =
                 streamingOutputs.keys.filterIsInstance<IAudioSyncPipelineOutputInternal>()
+                    .filter { it.withAudio }
             if (audioStreamingOutput.isEmpty()) {
                 Logger.w(TAG, "No audio streaming output to process the frame")
                 frame.close()
@@ -300,6 +369,17 @@ open class StreamerPipeline(
         }
     }
 
+    /**
+     * Requests a key frame to the video encoders of the streaming outputs.
+     * To be called when the video source has been switched.
+     */
+    private suspend fun requestVideoKeyFrame() {
+        safeStreamingOutputCall { streamingOutputs ->
+            streamingOutputs.keys.filterIsInstance<IConfigurableVideoEncodingPipelineOutput>()
+                .forEach { it.videoEncoder?.requestKeyFrame() }
+        }
+    }
+
     /**
      * Whether the output surface needs to be mirrored.
      */
@@ -328,6 +408,10 @@ open class StreamerPipeline(
      * @param withVideo whether the output has video. If the [StreamerPipeline] does not have video, it will be ignored.
      * @param endpointFactory the endpoint factory to add the output to
      * @param targetRotation the target rotation of the output
+     * @param sharedAudioOutput an audio output of this pipeline whose encoded audio is also written
+     * to the endpoint of the new output. It avoids to encode the same audio twice, for example, when
+     * the same source is streamed at 2 different video resolutions. If set, the new output has no
+     * audio encoder and its audio configuration is the [sharedAudioOutput] one.
      * @param dispatcherProvider the dispatcher provider for the encoding output
      *
      * @return the [EncodingPipelineOutput] created
@@ -336,13 +420,23 @@ open class StreamerPipeline(
         withAudio: Boolean = this.withAudio,
         withVideo: Boolean = this.withVideo,
         endpointFactory: IEndpointInternal.Factory = DynamicEndpointFactory(),
-        @RotationValue targetRotation: Int = context.displayRotation
+        @RotationValue targetRotation: Int = context.displayRotation,
+        sharedAudioOutput: IConfigurableAudioEncodingPipelineOutput? = null
     ): IConfigurableAudioVideoEncodingPipelineOutput {
         if (isReleaseRequested.get()) {
             throw IllegalStateException("Pipeline is released")
         }
         require(withAudio || withVideo) { "At least one of audio or video must be set" }
-        val withAudioCorrected = if (this@StreamerPipeline.withAudio) {
+        if (sharedAudioOutput != null) {
+            require(sharedAudioOutput is EncodingPipelineOutput) {
+                "Shared audio output must be created by a pipeline"
+            }
+            require(sharedAudioOutput.withAudio) { "Shared audio output must have audio" }
+            require(safeOutputCall { outputs -> outputs.contains(sharedAudioOutput) }) {
+                "Shared audio output must be an output of this pipeline"
+            }
+        }
+        val withAudioCorrected = if (this@StreamerPipeline.withAudio && (sharedAudioOutput == null)) {
             withAudio
         } else {
             false
@@ -361,7 +455,10 @@ open class StreamerPipeline(
                     withVideoCorrected,
                     endpointFactory,
                     targetRotation,
-                    dispatcherProvider
+                    dispatcherProvider,
+                    sharedAudioOutput as EncodingPipelineOutput?,
+                    tracer,
+                    metricsRegistry.child("output${nextOutputIndex.getAndIncrement()}")
                 )
             addOutput(output)
         }
@@ -551,7 +648,31 @@ open class StreamerPipeline(
             "Only one audio output is allowed for sync source but already $numOfAudioOutput found"
         }
 
-        output.audioFrameRequestedListener = audioInput.frameRequestedListener
+        output.audioFrameRequestedListener =
+            CallbackFailureListener(audioInput.frameRequestedListener)
+    }
+
+    /**
+     * Reports callback mode to [AudioOutputModeSelector] when the frames requested by the encoder
+     * keep failing, so that the next pipelines fall back to [AudioOutputMode.PUSH].
+     */
+    private inner class CallbackFailureListener(
+        private val listener: OnFrameRequestedListener
+    ) : OnFrameRequestedListener {
+        private var consecutiveFailureCount = 0
+
+        override suspend fun onFrameRequested(buffer: ByteBuffer): RawFrame {
+            try {
+                return listener.onFrameRequested(buffer).also { consecutiveFailureCount = 0 }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (t: Throwable) {
+                if (++consecutiveFailureCount == MAX_CONSECUTIVE_CALLBACK_FAILURES) {
+                    AudioOutputModeSelector(context).reportCallbackFailure(t)
+                }
+                throw t
+            }
+        }
     }
 
     private fun addConfigurableAudioOutput(
@@ -939,6 +1060,7 @@ open class StreamerPipeline(
             }
 
             stopStreamOutputs()
+            frameLeakDetector.report()
         }
     }
 
@@ -1009,7 +1131,9 @@ open class StreamerPipeline(
 
             // Outputs
             releaseOutputs()
+            frameLeakDetector.report()
 
+            metricsSampler.release()
             coroutineScope.cancel()
         }
     }
@@ -1044,6 +1168,17 @@ open class StreamerPipeline(
 
     companion object {
         private const val TAG = "StreamerPipeline"
+
+        private const val LATENCY_PUBLISH_PERIOD_IN_MS = 1000L
+
+        /**
+         * About 1 s of audio frames.
+         */
+        private const val MAX_CONSECUTIVE_CALLBACK_FAILURES = 50
+
+        private const val AUDIO_INPUT_METRICS = "audio.input"
+        private const val LATENCY_METRICS = "latency"
+        private const val FRAMES_METRICS = "frames"
     }
 
     /**
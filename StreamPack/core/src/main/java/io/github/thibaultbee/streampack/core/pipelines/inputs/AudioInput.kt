@@ -17,6 +17,7 @@ package io.github.thibaultbee.streampack.core.pipelines.inputs
 
 import android.content.Context
 import io.github.thibaultbee.streampack.core.elements.data.RawFrame
+import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
 import io.github.thibaultbee.streampack.core.elements.encoders.IEncoderInternal.IAsyncByteBufferInput.OnFrameRequestedListener
 import io.github.thibaultbee.streampack.core.elements.interfaces.Releasable
 import io.github.thibaultbee.streampack.core.elements.interfaces.Streamable
@@ -27,13 +28,20 @@ import io.github.thibaultbee.streampack.core.elements.sources.audio.AudioSourceC
 import io.github.thibaultbee.streampack.core.elements.sources.audio.IAudioSource
 import io.github.thibaultbee.streampack.core.elements.sources.audio.IAudioSourceInternal
 import io.github.thibaultbee.streampack.core.elements.utils.ConflatedJob
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.Counter
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
 import io.github.thibaultbee.streampack.core.elements.utils.pool.IRawFrameFactory
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineTracer
+import io.github.thibaultbee.streampack.core.elements.utils.trace.TraceStage
 import io.github.thibaultbee.streampack.core.logger.Logger
 import io.github.thibaultbee.streampack.core.pipelines.DispatcherProvider.Companion.THREAD_NAME_AUDIO_PREPROCESSING
 import io.github.thibaultbee.streampack.core.pipelines.IAudioDispatcherProvider
 import io.github.thibaultbee.streampack.core.pipelines.inputs.AudioInput.PushConfig
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
@@ -108,7 +116,9 @@ val IAudioInput.withSource: Boolean
 internal class AudioInput(
     private val context: Context,
     config: Config,
-    private val dispatcherProvider: IAudioDispatcherProvider
+    private val dispatcherProvider: IAudioDispatcherProvider,
+    private val tracer: PipelineTracer? = null,
+    private val metricsRegistry: MetricsRegistry? = null
 ) : IAudioInput {
     private val coroutineScope = CoroutineScope(dispatcherProvider.default)
     private var isStreamingJob = ConflatedJob()
@@ -145,7 +155,11 @@ internal class AudioInput(
     private val port = if (config is PushConfig) {
         PushAudioPort(frameProcessorInternal, config, dispatcherProvider)
     } else {
-        CallbackAudioPort(frameProcessorInternal) // No threading needed, called from encoder thread
+        CallbackAudioPort(
+            frameProcessorInternal,
+            tracer,
+            metricsRegistry?.counter("silence_frames")
+        ) // No threading needed, called from encoder thread
     }
 
     // CONFIG
@@ -230,16 +244,28 @@ internal class AudioInput(
 
                 when (port) {
                     is PushAudioPort -> {
-                        port.setInput(newAudioSource::getAudioFrame)
+                        port.setInput { frameFactory ->
+                            newAudioSource.getAudioFrame(frameFactory).also {
+                                tracer?.record(TraceStage.CAPTURE, false, it.timestampInUs)
+                            }
+                        }
                     }
 
                     is CallbackAudioPort -> {
-                        port.setInput(newAudioSource::fillAudioFrame)
+                        port.setInput { frame ->
+                            newAudioSource.fillAudioFrame(frame).also {
+                                tracer?.record(TraceStage.CAPTURE, false, it.timestampInUs)
+                            }
+                        }
                     }
                 }
 
                 // Replace audio source
                 sourceInternalFlow.emit(newAudioSource)
+                metricsRegistry?.child(SOURCE_METRICS)?.let { registry ->
+                    registry.unregisterAll()
+                    (newAudioSource as? MetricsProducer)?.registerMetrics(registry)
+                }
 
                 // Stop previous audio source
                 try {
@@ -279,9 +305,11 @@ internal class AudioInput(
                         "setAudioSourceConfig: Audio source is not set yet"
                     )
                     _sourceConfigFlow.emit(newAudioSourceConfig)
+                    port.setSourceConfig(newAudioSourceConfig)
                     updatePortContinuous()
                 } catch (t: Throwable) {
                     _sourceConfigFlow.emit(null)
+                    port.setSourceConfig(null)
                     throw t
                 }
             }
@@ -398,6 +426,8 @@ internal class AudioInput(
 
     companion object {
         private const val TAG = "AudioInput"
+
+        private const val SOURCE_METRICS = "source"
     }
 
     internal sealed class Config
@@ -412,6 +442,7 @@ private sealed interface IAudioPort<T> : Streamable, Releasable {
     suspend fun setInput(getFrame: T)
     suspend fun removeInput()
     fun setContinuous(continuous: Boolean, frameDurationUs: Long)
+    fun setSourceConfig(sourceConfig: AudioSourceConfig?)
 }
 
 private class PushAudioPort(
@@ -441,6 +472,8 @@ private class PushAudioPort(
         audioPullPush.frameDurationUs = frameDurationUs
     }
 
+    override fun setSourceConfig(sourceConfig: AudioSourceConfig?) = Unit
+
     override fun startStream() {
         audioPullPush.startStream()
     }
@@ -454,38 +487,114 @@ private class PushAudioPort(
     }
 }
 
-private class CallbackAudioPort(private val audioFrameProcessor: AudioFrameProcessor) :
-    IAudioPort<(frame: RawFrame) -> RawFrame> {
+/**
+ * An audio port where the encoder requests the frames.
+ *
+ * The source writes directly in the encoder input buffer and the processor mutes and measures it in
+ * place: there is no intermediate frame and no thread hop.
+ *
+ * In continuous mode, when the source fails to fill the buffer, the buffer is filled with silence
+ * paced to real time, so the encoder keeps a continuous audio track.
+ */
+private class CallbackAudioPort(
+    private val audioFrameProcessor: AudioFrameProcessor,
+    private val tracer: PipelineTracer?,
+    private val silenceFrameCounter: Counter?
+) : IAudioPort<(frame: RawFrame) -> RawFrame> {
     private var getFrame: ((frame: RawFrame) -> RawFrame)? = null
     private val mutex = Mutex()
 
+    @Volatile
     private var continuous = false
-    private var frameDurationUs = 0L
-    private var lastPts = -1L
 
-    var audioFrameRequestedListener: OnFrameRequestedListener =
+    @Volatile
+    private var bytesPerSecond = 0
+
+    @Volatile
+    private var bytesPerFrame = 0
+
+    // Only accessed from the encoder thread
+    private var nextTimestampInUs = -1L
+    private var lastFrameSize = 0
+    private var isStalled = false
+    private var silence = ByteArray(0)
+
+    val audioFrameRequestedListener: OnFrameRequestedListener =
         object : OnFrameRequestedListener {
             override suspend fun onFrameRequested(buffer: ByteBuffer): RawFrame {
                 val frame = mutex.withLock {
                     val getFrame = this@CallbackAudioPort.getFrame
                     if (getFrame == null) {
-                        if (continuous && audioFrameProcessor.isMuted) {
-                            // CRASH PREVENTION: Handle source stalls with default timing
-                            val duration = if (frameDurationUs > 0) frameDurationUs else 20000L
-                            val nextPts = if (lastPts == -1L) 0L else (lastPts + duration)
-                            lastPts = nextPts
-                            return@withLock RawFrame(buffer, nextPts)
+                        check(continuous) { "Audio frame requested listener is not set yet" }
+                        return@withLock null
+                    }
+                    try {
+                        getFrame(RawFrame(buffer, 0)).also { onSourceFrame(it) }
+                    } catch (t: Throwable) {
+                        if (!continuous) {
+                            throw t
+                        }
+                        if (!isStalled) {
+                            Logger.w(TAG, "Audio source stalled: filling with silence: ${t.message}")
+                            isStalled = true
                         }
-                        throw IllegalStateException("Audio frame requested listener is not set yet")
+                        null
                     }
-                    val rawFrame = getFrame(RawFrame(buffer, 0))
-                    lastPts = rawFrame.timestampInUs
-                    rawFrame
+                } ?: createSilentFrame(buffer)
+                return audioFrameProcessor.processFrame(frame).also {
+                    tracer?.record(TraceStage.ENCODER_INPUT, false, it.timestampInUs)
                 }
-                return audioFrameProcessor.processFrame(frame)
             }
         }
 
+    private fun onSourceFrame(frame: RawFrame) {
+        val size = frame.rawBuffer.remaining()
+        if (size > 0) {
+            lastFrameSize = size
+        }
+        if (bytesPerSecond > 0) {
+            nextTimestampInUs = frame.timestampInUs + getDurationInUs(size)
+        }
+        if (isStalled) {
+            Logger.i(TAG, "Audio source recovered")
+            isStalled = false
+        }
+    }
+
+    /**
+     * Fills [buffer] with silence that follows the last frame. Waits until the silence is due.
+     */
+    private suspend fun createSilentFrame(buffer: ByteBuffer): RawFrame {
+        val bytesPerSecond = bytesPerSecond
+        val bytesPerFrame = bytesPerFrame
+        check(bytesPerSecond > 0) { "Audio source is not configured" }
+
+        buffer.clear()
+        val defaultSize = bytesPerSecond / 1000 * DEFAULT_SILENCE_DURATION_IN_MS
+        val maxSize = if (lastFrameSize > 0) lastFrameSize else defaultSize
+        val size = minOf(buffer.remaining(), maxSize).let { it - it % bytesPerFrame }
+        check(size > 0) { "Buffer is too small: ${buffer.remaining()}" }
+        if (silence.size < size) {
+            silence = ByteArray(size)
+        }
+        buffer.duplicate().put(silence, 0, size)
+        buffer.limit(size)
+        silenceFrameCounter?.increment()
+
+        val durationInUs = getDurationInUs(size)
+        val nowInUs = TimeUtils.currentTime()
+        // Never goes back in time and does not build a backlog after a long stall
+        val timestampInUs = maxOf(nextTimestampInUs, nowInUs - durationInUs)
+        nextTimestampInUs = timestampInUs + durationInUs
+        val waitInUs = nextTimestampInUs - nowInUs
+        if (waitInUs > 0) {
+            delay(waitInUs / 1000)
+        }
+        return RawFrame(buffer, timestampInUs)
+    }
+
+    private fun getDurationInUs(size: Int) = size * 1_000_000L / bytesPerSecond
+
     override suspend fun setInput(getFrame: (frame: RawFrame) -> RawFrame) {
         mutex.withLock {
             this.getFrame = getFrame
@@ -500,12 +609,35 @@ private class CallbackAudioPort(private val audioFrameProcessor: AudioFrameProce
 
     override fun setContinuous(continuous: Boolean, frameDurationUs: Long) {
         this.continuous = continuous
-        this.frameDurationUs = frameDurationUs
     }
 
-    override fun startStream() = Unit
+    override fun setSourceConfig(sourceConfig: AudioSourceConfig?) {
+        if (sourceConfig == null) {
+            bytesPerSecond = 0
+            bytesPerFrame = 0
+            return
+        }
+        bytesPerFrame = AudioCodecConfig.getNumberOfChannels(sourceConfig.channelConfig) *
+                AudioCodecConfig.getNumOfBytesPerSample(sourceConfig.byteFormat)
+        bytesPerSecond = bytesPerFrame * sourceConfig.sampleRate
+    }
+
+    override fun startStream() {
+        nextTimestampInUs = -1L
+        lastFrameSize = 0
+        isStalled = false
+    }
 
     override fun stopStream() = Unit
 
     override fun release() = Unit
+
+    companion object {
+        private const val TAG = "CallbackAudioPort"
+
+        /**
+         * Duration of silent frames before the source has produced a frame.
+         */
+        private const val DEFAULT_SILENCE_DURATION_IN_MS = 20
+    }
 }
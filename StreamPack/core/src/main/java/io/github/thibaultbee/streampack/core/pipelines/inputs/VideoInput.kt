@@ -15,10 +15,13 @@
  */
 package io.github.thibaultbee.streampack.core.pipelines.inputs
 
+import android.annotation.SuppressLint
 import android.content.Context
 import android.graphics.Bitmap
+import android.os.SystemClock
 import android.view.Surface
 import androidx.annotation.IntRange
+import io.github.thibaultbee.streampack.core.elements.processing.video.FrameHoldStats
 import io.github.thibaultbee.streampack.core.elements.processing.video.ISurfaceProcessorInternal
 import io.github.thibaultbee.streampack.core.elements.processing.video.outputs.ISurfaceOutput
 import io.github.thibaultbee.streampack.core.elements.processing.video.outputs.SurfaceOutput
@@ -32,19 +35,24 @@ import io.github.thibaultbee.streampack.core.elements.sources.video.camera.Camer
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.CameraSourceFactory
 import io.github.thibaultbee.streampack.core.elements.utils.ConflatedJob
 import io.github.thibaultbee.streampack.core.elements.utils.av.video.DynamicRangeProfile
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineTracer
+import io.github.thibaultbee.streampack.core.elements.utils.trace.Traceable
 import io.github.thibaultbee.streampack.core.logger.Logger
 import io.github.thibaultbee.streampack.core.pipelines.IVideoDispatcherProvider
 import io.github.thibaultbee.streampack.core.pipelines.outputs.SurfaceDescriptor
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.cancelChildren
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.drop
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
 import java.io.File
 import java.io.FileOutputStream
 import java.io.OutputStream
@@ -75,6 +83,58 @@ interface IVideoInput {
      */
     suspend fun setSource(videoSourceFactory: IVideoSourceInternal.Factory)
 
+    /**
+     * The standby video source.
+     *
+     * A standby source is created and running ahead of time but its frames are not rendered.
+     * Calling [setSource] with a factory that matches the standby source only retargets the
+     * rendering to it.
+     */
+    val standbySourceFlow: StateFlow<IVideoSource?>
+
+    /**
+     * Sets the standby video source.
+     *
+     * The source is created, configured and started but its frames are discarded until it becomes
+     * the active source through [setSource]. The previous standby source is released.
+     * The video source configuration must be set before.
+     *
+     * On most devices, only one camera can be opened at a time. In this case, this method throws
+     * and the caller must fallback to a regular [setSource].
+     *
+     * If the current camera is previewing, a standby camera is created with a deferred preview
+     * output for the same preview target (from Android O): the preview surface is added after the
+     * switch without recreating the capture session.
+     *
+     * @param videoSourceFactory the standby video source factory
+     * @param fps the frame rate of the standby source while it is not active. A lower frame rate
+     * saves power. If null, the configured frame rate is used.
+     */
+    suspend fun setStandbySource(
+        videoSourceFactory: IVideoSourceInternal.Factory,
+        fps: Int? = null
+    )
+
+    /**
+     * Releases the standby video source if any.
+     */
+    suspend fun releaseStandbySource()
+
+    /**
+     * Information about the last video source switch.
+     *
+     * While streaming, the last frame of the previous source is rendered again until the first
+     * frame of the new source. The gap between both sources is updated once the new source
+     * renders its first frame.
+     *
+     * Switching to the standby source only retargets the rendering but the preview surface can
+     * only be added to the standby source after the switch. For a camera, the standby capture
+     * session has a deferred preview output so the surface is added without rebuilding the session,
+     * unless the preview surface does not match it: see
+     * [VideoSourceSwitchInfo.previewRestartDurationInMs].
+     */
+    val sourceSwitchInfoFlow: StateFlow<VideoSourceSwitchInfo?>
+
     /**
      * Whether the video input has a configuration.
      * It is true if the video source has been configured.
@@ -145,6 +205,30 @@ suspend fun IVideoInput.takeJpegSnapshot(
     bitmap.compress(Bitmap.CompressFormat.JPEG, quality, outputStream)
 }
 
+/**
+ * Information about a video source switch.
+ *
+ * @param durationInMs the time between the switch request and the new source being rendered
+ * @param isFromStandby whether the new source was the standby source
+ * @param gapDurationInMs the time between the last frame of the previous source and the first
+ * frame of the new source. It is null until the new source renders its first frame.
+ * @param heldFrameCount the number of times the last frame of the previous source has been
+ * rendered again to fill the gap
+ * @param previewRestartDurationInMs the time between the switch request and the preview of the new
+ * source being started. A standby source has no preview surface: the preview (for example
+ * `PreviewView`) adds it after the switch. A standby camera declares a deferred preview output to
+ * avoid rebuilding its capture session, otherwise (before Android O or if the preview surface does
+ * not match) the session is rebuilt and the frames of the new source may stall. It is null until
+ * the preview is started and for sources that were already previewing.
+ */
+data class VideoSourceSwitchInfo(
+    val durationInMs: Long,
+    val isFromStandby: Boolean,
+    val gapDurationInMs: Long? = null,
+    val heldFrameCount: Int = 0,
+    val previewRestartDurationInMs: Long? = null
+)
+
 /**
  * Whether the pipeline has a video source.
  */
@@ -159,18 +243,24 @@ internal class VideoInput(
     private val surfaceProcessorFactory: ISurfaceProcessorInternal.Factory,
     private val dispatcherProvider: IVideoDispatcherProvider,
     dynamicRangeProfileHint: DynamicRangeProfile = DynamicRangeProfile.sdr,
+    private val tracer: PipelineTracer? = null,
+    private val onRequestKeyFrame: suspend () -> Unit = {},
     private val onUpdateOutputSurface: suspend () -> List<Triple<SurfaceDescriptor, Boolean, () -> Boolean>>
 ) : IVideoInput {
     private val coroutineScope = CoroutineScope(dispatcherProvider.default)
     private var isStreamingJob = ConflatedJob()
     private var infoProviderJob = ConflatedJob()
+    private var standbyJob = ConflatedJob()
+    private var previewRestartJob = ConflatedJob()
 
     private var isReleaseRequested = AtomicBoolean(false)
 
     private val sourceMutex = Mutex()
 
     override var processor: ISurfaceProcessorInternal =
-        surfaceProcessorFactory.create(dynamicRangeProfileHint, dispatcherProvider)
+        surfaceProcessorFactory.create(dynamicRangeProfileHint, dispatcherProvider).apply {
+            (this as? Traceable)?.tracer = tracer
+        }
         private set
 
     // SOURCE
@@ -185,6 +275,15 @@ internal class VideoInput(
     private val source: IVideoSourceInternal?
         get() = sourceInternalFlow.value
 
+    // STANDBY
+    private val standbySourceInternalFlow = MutableStateFlow<IVideoSourceInternal?>(null)
+
+    override val standbySourceFlow: StateFlow<IVideoSource?> =
+        standbySourceInternalFlow.asStateFlow()
+
+    private val _sourceSwitchInfoFlow = MutableStateFlow<VideoSourceSwitchInfo?>(null)
+    override val sourceSwitchInfoFlow = _sourceSwitchInfoFlow.asStateFlow()
+
     // CONFIG
     private val _sourceConfigFlow = MutableStateFlow<VideoSourceConfig?>(null)
 
@@ -211,6 +310,7 @@ internal class VideoInput(
             throw IllegalStateException("Input is released")
         }
 
+        val switchStartTimeInMs = SystemClock.elapsedRealtime()
         withContext(dispatcherProvider.default) {
             sourceMutex.withLock {
                 val previousVideoSource = sourceInternalFlow.value
@@ -221,6 +321,19 @@ internal class VideoInput(
                     return@withContext
                 }
 
+                val standbySource = standbySourceInternalFlow.value
+                if ((standbySource != null) && videoSourceFactory.isSourceEquals(standbySource)) {
+                    switchToStandbySourceUnsafe(previousVideoSource, standbySource, isStreaming)
+                    emitSourceSwitchInfo(switchStartTimeInMs, isFromStandby = true)
+                    collectPreviewRestart(standbySource, switchStartTimeInMs)
+                    return@withContext
+                }
+
+                if ((standbySource is CameraSource) && (videoSourceFactory is CameraSourceFactory)) {
+                    // Frees the standby camera: the new camera might not be openable otherwise.
+                    releaseStandbySourceUnsafe()
+                }
+
                 if ((previousVideoSource is CameraSource) && (videoSourceFactory is CameraSourceFactory)) {
                     if (previousVideoSource.cameraId == videoSourceFactory.cameraId) {
                         Logger.i(
@@ -229,116 +342,428 @@ internal class VideoInput(
                         )
                         return@withContext
                     }
+                }
 
-                    /**
-                     * It is not possible to have 2 camera sources at the same time because of
-                     * camera2 API. If the new video source is a camera source and the current one
-                     * is a camera source, we release the current one ASAP.
-                     */
-                    previousVideoSource.stopStream()
-                    previousVideoSource.release()
+                if (isStreaming) {
+                    startFrameHold()
+                }
+                try {
+                    setNewSourceUnsafe(previousVideoSource, videoSourceFactory, isStreaming)
+                } catch (t: Throwable) {
+                    processor.stopFrameHold()
+                    throw t
                 }
 
-                // Prepare new video source
-                val newVideoSource = videoSourceFactory.create(context, dispatcherProvider)
+                if (previousVideoSource != null) {
+                    emitSourceSwitchInfo(switchStartTimeInMs, isFromStandby = false)
+                }
+            }
+        }
+    }
 
-                sourceConfig?.let {
-                    newVideoSource.configure(it)
-                    addSourceSurface(
-                        it,
-                        processor,
-                        newVideoSource
-                    )
-                } ?: Logger.w(
-                    TAG, "Video source configuration is not set"
+    /**
+     * Creates the new video source and replaces the previous one.
+     *
+     * To be used under [sourceMutex]
+     */
+    private suspend fun setNewSourceUnsafe(
+        previousVideoSource: IVideoSourceInternal?,
+        videoSourceFactory: IVideoSourceInternal.Factory,
+        isStreaming: Boolean
+    ) {
+        if ((previousVideoSource is CameraSource) && (videoSourceFactory is CameraSourceFactory)) {
+            /**
+             * It is not possible to have 2 camera sources at the same time because of
+             * camera2 API. If the new video source is a camera source and the current one
+             * is a camera source, we release the current one ASAP.
+             */
+            previousVideoSource.stopStream()
+            previousVideoSource.release()
+        }
+
+        // Prepare new video source
+        val newVideoSource = videoSourceFactory.create(context, dispatcherProvider)
+
+        sourceConfig?.let {
+            newVideoSource.configure(it)
+            addSourceSurface(
+                it,
+                processor,
+                newVideoSource
+            )
+        } ?: Logger.w(
+            TAG, "Video source configuration is not set"
+        )
+
+        collectInfoProvider(newVideoSource)
+
+        // Start new video source
+        if (isStreaming) {
+            Logger.e(TAG, "Starting new video source streaming")
+            try {
+                previousVideoSource?.stopStream()
+            } catch (t: Throwable) {
+                Logger.w(
+                    TAG,
+                    "setVideoSource: Can't stop previous video source: ${t.message}"
                 )
+            }
 
-                infoProviderJob += coroutineScope.launch {
-                    /**
-                     * First emission is the current value, we skip it.
-                     */
-                    newVideoSource.infoProviderFlow.drop(1).collect { infoProvider ->
-                        try {
-                            updateOutputSurfaces(infoProvider)
-                        } catch (t: Throwable) {
-                            Logger.w(
-                                TAG,
-                                "setVideoSource: Can't update output surfaces after info provider changed: ${t.message}"
-                            )
-                        }
-                    }
-                }
+            updateOutputSurfacesUnsafe(newVideoSource.infoProviderFlow.value)
 
-                // Start new video source
-                if (isStreaming) {
-                    Logger.e(TAG, "Starting new video source streaming")
-                    try {
-                        previousVideoSource.stopStream()
-                    } catch (t: Throwable) {
-                        Logger.w(
-                            TAG,
-                            "setVideoSource: Can't stop previous video source: ${t.message}"
-                        )
-                    }
+            try {
+                newVideoSource.startStream()
+            } catch (t: Throwable) {
+                Logger.w(
+                    TAG,
+                    "setVideoSource: Can't start new video source: ${t.message}."
+                )
+                throw t
+            }
+        } else {
+            updateOutputSurfacesUnsafe(newVideoSource.infoProviderFlow.value)
+        }
+
+        collectIsStreaming(newVideoSource)
+
+        releasePreviousSourceUnsafe(previousVideoSource)
+
+        // Replace video source
+        sourceInternalFlow.emit(newVideoSource)
+    }
+
+    /**
+     * Makes the standby source the active source.
+     *
+     * The standby source is already running and its output surface is already an input of the
+     * [processor]: only the rendering is retargeted.
+     *
+     * To be used under [sourceMutex]
+     */
+    private suspend fun switchToStandbySourceUnsafe(
+        previousVideoSource: IVideoSourceInternal?,
+        standbySource: IVideoSourceInternal,
+        isStreaming: Boolean
+    ) {
+        Logger.i(TAG, "Switching to standby video source $standbySource")
+        standbyJob.cancel()
+        standbySourceInternalFlow.emit(null)
+
+        if (isStreaming) {
+            startFrameHold()
+        }
+
+        // Restores the nominal frame rate
+        sourceConfig?.let {
+            try {
+                standbySource.configure(it)
+            } catch (t: Throwable) {
+                Logger.w(TAG, "switchToStandbySource: Can't configure standby source: ${t.message}")
+            }
+        }
+
+        if (previousVideoSource is ISurfaceSourceInternal) {
+            previousVideoSource.getOutput()?.let { processor.setInputSurfaceEnabled(it, false) }
+        }
+
+        collectInfoProvider(standbySource)
+        updateOutputSurfacesUnsafe(standbySource.infoProviderFlow.value)
+        (standbySource as ISurfaceSourceInternal).getOutput()?.let {
+            processor.setInputSurfaceEnabled(it, true)
+        }
+
+        if (!isStreaming) {
+            try {
+                standbySource.stopStream()
+            } catch (t: Throwable) {
+                Logger.w(TAG, "switchToStandbySource: Can't stop standby source: ${t.message}")
+            }
+        }
+
+        collectIsStreaming(standbySource)
+
+        releasePreviousSourceUnsafe(previousVideoSource)
 
-                    updateOutputSurfacesUnsafe(newVideoSource.infoProviderFlow.value)
+        sourceInternalFlow.emit(standbySource)
+    }
+
+    override suspend fun setStandbySource(
+        videoSourceFactory: IVideoSourceInternal.Factory,
+        fps: Int?
+    ) {
+        if (isReleaseRequested.get()) {
+            throw IllegalStateException("Input is released")
+        }
+
+        withContext(dispatcherProvider.default) {
+            sourceMutex.withLock {
+                if (videoSourceFactory.isSourceEquals(standbySourceInternalFlow.value)) {
+                    Logger.i(TAG, "Standby video source is already set, skipping")
+                    return@withContext
+                }
+                if (videoSourceFactory.isSourceEquals(sourceInternalFlow.value)) {
+                    Logger.i(TAG, "Standby video source is the current video source, skipping")
+                    return@withContext
+                }
+                val sourceConfig = requireNotNull(sourceConfig) {
+                    "Video source configuration must be set before setting a standby source"
+                }
 
+                releaseStandbySourceUnsafe()
+
+                val standbySource = videoSourceFactory.create(context, dispatcherProvider)
+                var surface: Surface? = null
+                try {
+                    require(standbySource is ISurfaceSourceInternal) {
+                        "Standby video source must be a surface source"
+                    }
+                    standbySource.configure(fps?.let { sourceConfig.copy(fps = it) }
+                        ?: sourceConfig)
+                    declareStandbyPreview(standbySource)
+
+                    surface = processor.createInputSurface(
+                        standbySource.infoProviderFlow.value.getSurfaceSize(
+                            sourceConfig.resolution
+                        ), standbySource.timebase
+                    )
+                    processor.setInputSurfaceEnabled(surface, false)
+                    standbySource.setOutput(surface)
+                    standbySource.startStream()
+                } catch (t: Throwable) {
+                    Logger.w(TAG, "setStandbySource: Can't start standby source: ${t.message}")
                     try {
-                        newVideoSource.startStream()
+                        (standbySource as? ISurfaceSourceInternal)?.resetOutput()
+                        surface?.let { processor.removeInputSurface(it) }
+                        standbySource.release()
                     } catch (t: Throwable) {
                         Logger.w(
                             TAG,
-                            "setVideoSource: Can't start new video source: ${t.message}."
+                            "setStandbySource: Can't release standby source: ${t.message}"
                         )
-                        throw t
                     }
-                } else {
-                    updateOutputSurfacesUnsafe(newVideoSource.infoProviderFlow.value)
+                    throw t
                 }
 
-                isStreamingJob += coroutineScope.launch {
-                    newVideoSource.isStreamingFlow.collect { isStreaming ->
-                        if ((!isStreaming) && isStreamingFlow.value) {
-                            Logger.i(TAG, "Video source has been stopped.")
-                            stopStream()
+                standbyJob += coroutineScope.launch {
+                    /**
+                     * First emission is the current value, we skip it.
+                     */
+                    standbySource.isStreamingFlow.drop(1).collect { isStreaming ->
+                        if (!isStreaming) {
+                            Logger.i(TAG, "Standby video source has been stopped.")
+                            // Releasing cancels this job
+                            withContext(NonCancellable) {
+                                releaseStandbySource()
+                            }
                         }
                     }
                 }
 
-                // Gets and resets output surface from previous video source.
-                if (previousVideoSource is ISurfaceSourceInternal) {
-                    try {
-                        val surface = previousVideoSource.getOutput()
-                        previousVideoSource.resetOutput()
-                        surface?.let { processor.removeInputSurface(surface) }
-                    } catch (t: Throwable) {
-                        Logger.w(
-                            TAG,
-                            "setVideoSource: Can't reset previous video source output surface: ${t.message}"
-                        )
-                    }
+                standbySourceInternalFlow.emit(standbySource)
+                Logger.i(TAG, "Standby video source $standbySource is ready")
+            }
+        }
+    }
+
+    /**
+     * Declares the preview of the current camera on the standby camera, so that its capture
+     * session is created with a deferred preview output.
+     *
+     * To be used under [sourceMutex]
+     */
+    @SuppressLint("MissingPermission")
+    private suspend fun declareStandbyPreview(standbySource: IVideoSourceInternal) {
+        if (standbySource !is CameraSource) {
+            return
+        }
+        val currentSource = sourceInternalFlow.value as? CameraSource ?: return
+        if (!currentSource.isPreviewingFlow.value) {
+            return
+        }
+        val previewTarget = currentSource.previewTarget ?: return
+        try {
+            standbySource.setDeferredPreview(previewTarget)
+        } catch (t: Throwable) {
+            Logger.w(TAG, "setStandbySource: Can't declare standby preview: ${t.message}")
+        }
+    }
+
+    override suspend fun releaseStandbySource() {
+        if (isReleaseRequested.get()) {
+            return
+        }
+
+        withContext(dispatcherProvider.default) {
+            sourceMutex.withLock {
+                releaseStandbySourceUnsafe()
+            }
+        }
+    }
+
+    /**
+     * To be used under [sourceMutex]
+     */
+    private suspend fun releaseStandbySourceUnsafe() {
+        standbyJob.cancel()
+        val standbySource = standbySourceInternalFlow.value ?: return
+        standbySourceInternalFlow.emit(null)
+
+        try {
+            standbySource.stopStream()
+        } catch (t: Throwable) {
+            Logger.w(TAG, "releaseStandbySource: Can't stop standby source: ${t.message}")
+        }
+        if (standbySource is ISurfaceSourceInternal) {
+            try {
+                val surface = standbySource.getOutput()
+                standbySource.resetOutput()
+                surface?.let { processor.removeInputSurface(it) }
+            } catch (t: Throwable) {
+                Logger.w(
+                    TAG,
+                    "releaseStandbySource: Can't reset standby source output surface: ${t.message}"
+                )
+            }
+        }
+        try {
+            standbySource.release()
+        } catch (t: Throwable) {
+            Logger.w(TAG, "releaseStandbySource: Can't release standby source: ${t.message}")
+        }
+        Logger.i(TAG, "Standby video source $standbySource released")
+    }
+
+    private suspend fun emitSourceSwitchInfo(switchStartTimeInMs: Long, isFromStandby: Boolean) {
+        val info = VideoSourceSwitchInfo(
+            SystemClock.elapsedRealtime() - switchStartTimeInMs,
+            isFromStandby
+        )
+        Logger.i(TAG, "Video source switched in ${info.durationInMs} ms (standby: $isFromStandby)")
+        _sourceSwitchInfoFlow.emit(info)
+    }
+
+    /**
+     * Measures the time until the preview of a source that was on standby is started.
+     */
+    private fun collectPreviewRestart(videoSource: IVideoSourceInternal, switchStartTimeInMs: Long) {
+        if ((videoSource !is IPreviewableSource) || videoSource.isPreviewingFlow.value) {
+            return
+        }
+        previewRestartJob += coroutineScope.launch {
+            withTimeoutOrNull(PREVIEW_RESTART_TIMEOUT_MS) {
+                videoSource.isPreviewingFlow.first { it }
+            } ?: return@launch
+            val durationInMs = SystemClock.elapsedRealtime() - switchStartTimeInMs
+            Logger.i(TAG, "Preview of the new video source restarted in $durationInMs ms")
+
+            sourceMutex.withLock {
+                if (sourceInternalFlow.value !== videoSource) {
+                    return@withLock
                 }
+                _sourceSwitchInfoFlow.value?.let {
+                    _sourceSwitchInfoFlow.emit(it.copy(previewRestartDurationInMs = durationInMs))
+                }
+            }
+        }
+    }
 
-                val isPreviewing =
-                    (previousVideoSource as? IPreviewableSource)?.isPreviewingFlow?.value
-                        ?: false
-                /**
-                 * Release previous video source only if it's not previewing.
-                 * If it's previewing, it will be released when preview is stopped.
-                 */
-                if (!isPreviewing) {
-                    try {
-                        previousVideoSource?.release()
-                    } catch (t: Throwable) {
-                        Logger.w(
-                            TAG,
-                            "setVideoSource: Can't release previous video source: ${t.message}"
+    /**
+     * Renders the last frame of the current source until the first frame of the next source.
+     */
+    private fun startFrameHold() {
+        val fps = sourceConfig?.fps ?: return
+        processor.startFrameHold(fps, MAX_FRAME_HOLD_DURATION_MS, ::onFrameHoldEnded)
+    }
+
+    // Called on the processor thread
+    private fun onFrameHoldEnded(stats: FrameHoldStats) {
+        val gapDurationInMs = stats.gapDurationInMs ?: return
+        coroutineScope.launch {
+            // The new source might start on a predicted frame: restarts the GOP on its first frame
+            try {
+                onRequestKeyFrame()
+            } catch (t: Throwable) {
+                Logger.w(TAG, "Can't request key frame after source switch: ${t.message}")
+            }
+
+            // Waits for the end of the switch
+            sourceMutex.withLock {
+                _sourceSwitchInfoFlow.value?.let {
+                    _sourceSwitchInfoFlow.emit(
+                        it.copy(
+                            gapDurationInMs = gapDurationInMs,
+                            heldFrameCount = stats.heldFrameCount
                         )
-                    }
+                    )
                 }
+            }
+        }
+    }
 
-                // Replace video source
-                sourceInternalFlow.emit(newVideoSource)
+    private fun collectInfoProvider(videoSource: IVideoSourceInternal) {
+        infoProviderJob += coroutineScope.launch {
+            /**
+             * First emission is the current value, we skip it.
+             */
+            videoSource.infoProviderFlow.drop(1).collect { infoProvider ->
+                try {
+                    updateOutputSurfaces(infoProvider)
+                } catch (t: Throwable) {
+                    Logger.w(
+                        TAG,
+                        "setVideoSource: Can't update output surfaces after info provider changed: ${t.message}"
+                    )
+                }
+            }
+        }
+    }
+
+    private fun collectIsStreaming(videoSource: IVideoSourceInternal) {
+        isStreamingJob += coroutineScope.launch {
+            videoSource.isStreamingFlow.collect { isStreaming ->
+                if ((!isStreaming) && isStreamingFlow.value) {
+                    Logger.i(TAG, "Video source has been stopped.")
+                    stopStream()
+                }
+            }
+        }
+    }
+
+    /**
+     * Resets the output surface of the previous video source and releases it.
+     *
+     * To be used under [sourceMutex]
+     */
+    private suspend fun releasePreviousSourceUnsafe(previousVideoSource: IVideoSourceInternal?) {
+        // Gets and resets output surface from previous video source.
+        if (previousVideoSource is ISurfaceSourceInternal) {
+            try {
+                val surface = previousVideoSource.getOutput()
+                previousVideoSource.resetOutput()
+                surface?.let { processor.removeInputSurface(surface) }
+            } catch (t: Throwable) {
+                Logger.w(
+                    TAG,
+                    "setVideoSource: Can't reset previous video source output surface: ${t.message}"
+                )
+            }
+        }
+
+        val isPreviewing =
+            (previousVideoSource as? IPreviewableSource)?.isPreviewingFlow?.value
+                ?: false
+        /**
+         * Release previous video source only if it's not previewing.
+         * If it's previewing, it will be released when preview is stopped.
+         */
+        if (!isPreviewing) {
+            try {
+                previousVideoSource?.release()
+            } catch (t: Throwable) {
+                Logger.w(
+                    TAG,
+                    "setVideoSource: Can't release previous video source: ${t.message}"
+                )
             }
         }
     }
@@ -360,6 +785,9 @@ internal class VideoInput(
                 }
                 require(!isStreamingFlow.value) { "Can't change video source configuration while streaming" }
 
+                // The standby source surface is sized for the previous configuration
+                releaseStandbySourceUnsafe()
+
                 try {
                     applySourceConfig(
                         sourceConfig,
@@ -427,6 +855,7 @@ internal class VideoInput(
                 videoSourceConfig.dynamicRangeProfile,
                 dispatcherProvider
             )
+        (newSurfaceProcessor as? Traceable)?.tracer = tracer
         // Re-adds source surface
         addSourceSurface(videoSourceConfig, newSurfaceProcessor)
 
@@ -689,6 +1118,7 @@ internal class VideoInput(
         withContext(dispatcherProvider.default) {
             sourceMutex.withLock {
                 _isStreamingFlow.emit(false)
+                releaseStandbySourceUnsafe()
                 try {
                     releaseSurfaceProcessor()
                 } catch (t: Throwable) {
@@ -726,5 +1156,11 @@ internal class VideoInput(
 
     companion object {
         private const val TAG = "VideoInput"
+
+        /**
+         * Maximum duration of the last frame hold during a source switch.
+         */
+        private const val MAX_FRAME_HOLD_DURATION_MS = 10_000L
+        private const val PREVIEW_RESTART_TIMEOUT_MS = 10_000L
     }
 }
\ No newline at end of file
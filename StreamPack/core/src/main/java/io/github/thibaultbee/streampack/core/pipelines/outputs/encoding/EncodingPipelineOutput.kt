@@ -18,6 +18,7 @@ package io.github.thibaultbee.streampack.core.pipelines.outputs.encoding
 import android.content.Context
 import android.view.Surface
 import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.data.Frame
 import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
 import io.github.thibaultbee.streampack.core.elements.data.RawFrame
 import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
@@ -32,10 +33,17 @@ import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.VideoE
 import io.github.thibaultbee.streampack.core.elements.encoders.rotateFromNaturalOrientation
 import io.github.thibaultbee.streampack.core.elements.endpoints.IEndpoint
 import io.github.thibaultbee.streampack.core.elements.endpoints.IEndpointInternal
+import io.github.thibaultbee.streampack.core.elements.endpoints.ReconnectEndpoint
 import io.github.thibaultbee.streampack.core.elements.sources.video.VideoSourceConfig
 import io.github.thibaultbee.streampack.core.elements.utils.RotationValue
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.flush
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.sourceConfig
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineTracer
+import io.github.thibaultbee.streampack.core.elements.utils.trace.StartupTimeline
+import io.github.thibaultbee.streampack.core.elements.utils.trace.TraceStage
+import io.github.thibaultbee.streampack.core.elements.utils.trace.Traceable
 import io.github.thibaultbee.streampack.core.logger.Logger
 import io.github.thibaultbee.streampack.core.pipelines.DispatcherProvider.Companion.THREAD_NAME_ENCODER_PREFIX
 import io.github.thibaultbee.streampack.core.pipelines.DispatcherProvider.Companion.THREAD_NAME_ENCODING_OUTPUT_PREFIX
@@ -50,6 +58,8 @@ import io.github.thibaultbee.streampack.core.pipelines.outputs.SurfaceDescriptor
 import io.github.thibaultbee.streampack.core.pipelines.outputs.isStreaming
 import io.github.thibaultbee.streampack.core.regulator.controllers.IBitrateRegulatorController
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.consumeEach
@@ -60,13 +70,17 @@ import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.drop
 import kotlinx.coroutines.flow.filter
 import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.supervisorScope
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
+import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * An implementation of [IEncodingPipelineOutputInternal] that manages encoding and endpoint for
@@ -78,6 +92,12 @@ import java.util.concurrent.atomic.AtomicBoolean
  * @param endpointFactory The endpoint factory implementation
  * @param defaultRotation The default rotation in [Surface] rotation ([Surface.ROTATION_0], ...). By default, it is the current device orientation.
  * @param dispatcherProvider The dispatcher provider to use for coroutine dispatching
+ * @param sharedAudioOutput The output whose encoded audio frames are also written to this output
+ * endpoint. It avoids to encode the same audio twice. If set, this output has no audio encoder and
+ * [withAudio] must be `false`.
+ * @param tracer The latency tracer. `null` to disable tracing.
+ * @param metricsRegistry The registry of the metrics of the encoders and the endpoint. `null` to
+ * disable metrics.
  */
 internal class EncodingPipelineOutput(
     private val context: Context,
@@ -85,7 +105,10 @@ internal class EncodingPipelineOutput(
     override val withVideo: Boolean,
     endpointFactory: IEndpointInternal.Factory,
     @RotationValue defaultRotation: Int,
-    private val dispatcherProvider: IDispatcherProvider
+    private val dispatcherProvider: IDispatcherProvider,
+    private val sharedAudioOutput: EncodingPipelineOutput? = null,
+    private val tracer: PipelineTracer? = null,
+    private val metricsRegistry: MetricsRegistry? = null
 ) : IConfigurableAudioVideoEncodingPipelineOutput, IEncodingPipelineOutputInternal,
     IVideoSurfacePipelineOutputInternal, IAudioSyncPipelineOutputInternal,
     IAudioCallbackPipelineOutputInternal {
@@ -105,6 +128,21 @@ internal class EncodingPipelineOutput(
     private var audioStreamId: Int? = null
     private var videoStreamId: Int? = null
 
+    /**
+     * Listeners of the encoded audio frames of this output.
+     * They are the outputs that share this output audio encoder.
+     */
+    private val encodedAudioFrameListeners = CopyOnWriteArrayList<(FrameWithCloseable) -> Unit>()
+
+    /**
+     * Receives the encoded audio frames of [sharedAudioOutput].
+     */
+    private val sharedAudioFrameListener = { closeableFrame: FrameWithCloseable ->
+        if (audioEncoderListener.outputChannel.trySend(closeableFrame).isFailure) {
+            closeableFrame.close()
+        }
+    }
+
     // INPUTS
     override var audioFrameRequestedListener: IEncoderInternal.IAsyncByteBufferInput.OnFrameRequestedListener? =
         null
@@ -130,6 +168,7 @@ internal class EncodingPipelineOutput(
         set(value) {
             audioInput = value?.input as? IEncoderInternal.ISyncByteBufferInput
             field = value
+            registerEncoderMetrics(value, AUDIO_ENCODER_METRICS)
         }
     override val audioEncoder: IEncoder?
         get() = audioEncoderInternal
@@ -140,12 +179,22 @@ internal class EncodingPipelineOutput(
         dispatcherProvider.createVideoDispatcher(1, THREAD_NAME_ENCODER_PREFIX)
 
     private var videoEncoderInternal: IEncoderInternal? = null
+        set(value) {
+            field = value
+            registerEncoderMetrics(value, VIDEO_ENCODER_METRICS)
+        }
     override val videoEncoder: IEncoder?
         get() = videoEncoderInternal
 
     // ENDPOINT
     private val endpointInternal: IEndpointInternal =
-        endpointFactory.create(context, dispatcherProvider)
+        endpointFactory.create(context, dispatcherProvider).apply {
+            (this as? Traceable)?.tracer = tracer
+            metricsRegistry?.let { (this as? MetricsProducer)?.registerMetrics(it.child(ENDPOINT_METRICS)) }
+            (this as? ReconnectEndpoint)?.keyFrameRequestListener = {
+                videoEncoderInternal?.requestKeyFrame()
+            }
+        }
     override val endpoint: IEndpoint = endpointInternal
 
     /**
@@ -195,6 +244,23 @@ internal class EncodingPipelineOutput(
     private val _isStreamingFlow = MutableStateFlow(false)
     override val isStreamingFlow = _isStreamingFlow.asStateFlow()
 
+    /**
+     * Whether the endpoint accepts frames. While the endpoint starts, the first encoded frames
+     * wait in the encoder output channels.
+     */
+    private val isEndpointStartedFlow = MutableStateFlow(true)
+
+    /**
+     * The timeline the phases of the next [startStream] are recorded to.
+     */
+    override var startupTimeline: StartupTimeline? = null
+
+    @Volatile
+    private var audioStartupTimeline: StartupTimeline? = null
+
+    @Volatile
+    private var videoStartupTimeline: StartupTimeline? = null
+
     /**
      * Called when audio configuration is set.
      * The purpose is to validate and apply audio configuration to the source.
@@ -238,6 +304,10 @@ internal class EncodingPipelineOutput(
             onInternalError(t)
         }
 
+        override fun onOutputFrame(frame: Frame) {
+            tracer?.record(TraceStage.ENCODER_OUTPUT, false, frame.ptsInUs)
+        }
+
         override val outputChannel =
             Channel<FrameWithCloseable>(Channel.UNLIMITED, onUndeliveredElement = {
                 it.close()
@@ -249,21 +319,55 @@ internal class EncodingPipelineOutput(
             onInternalError(t)
         }
 
+        override fun onOutputFrame(frame: Frame) {
+            tracer?.record(TraceStage.ENCODER_OUTPUT, true, frame.ptsInUs)
+        }
+
         override val outputChannel =
             Channel<FrameWithCloseable>(Channel.UNLIMITED, onUndeliveredElement = {
                 it.close()
             })
     }
 
+    // METRICS
+    private val audioWrittenFrameCounter = metricsRegistry?.counter("audio.written_frames")
+    private val audioWrittenByteCounter = metricsRegistry?.counter("audio.written_bytes")
+    private val videoWrittenFrameCounter = metricsRegistry?.counter("video.written_frames")
+    private val videoWrittenByteCounter = metricsRegistry?.counter("video.written_bytes")
+
+    private fun registerEncoderMetrics(encoder: IEncoderInternal?, name: String) {
+        val registry = metricsRegistry?.child(name) ?: return
+        registry.unregisterAll()
+        (encoder as? MetricsProducer)?.registerMetrics(registry)
+    }
+
     init {
-        if (withAudio) {
+        require(!(withAudio && (sharedAudioOutput != null))) {
+            "Output can't have its own audio and a shared audio at the same time"
+        }
+        if (withAudio || (sharedAudioOutput != null)) {
             coroutineScope.launch(audioOutputDispatcher) {
                 // Audio
                 audioEncoderListener.outputChannel.consumeEach { closeableFrame ->
                     try {
+                        val frame = forwardEncodedAudioFrame(closeableFrame)
+                        if (!awaitEndpointStarted()) {
+                            frame.close()
+                            return@consumeEach
+                        }
                         audioStreamId?.let {
-                            endpointInternal.write(closeableFrame, it)
-                        } ?: Logger.w(TAG, "Audio frame received but audio stream is not set")
+                            tracer?.record(TraceStage.MUX, false, frame.frame.ptsInUs)
+                            audioWrittenFrameCounter?.increment()
+                            audioWrittenByteCounter?.increment(frame.frame.rawBuffer.remaining().toLong())
+                            endpointInternal.write(frame, it)
+                            audioStartupTimeline?.let { timeline ->
+                                timeline.mark(StartupTimeline.FIRST_AUDIO_FRAME)
+                                audioStartupTimeline = null
+                            }
+                        } ?: run {
+                            Logger.w(TAG, "Audio frame received but audio stream is not set")
+                            frame.close()
+                        }
                     } catch (t: Throwable) {
                         onInternalError(t)
                     }
@@ -275,8 +379,19 @@ internal class EncodingPipelineOutput(
                 // Video
                 videoEncoderListener.outputChannel.consumeEach { closeableFrame ->
                     try {
+                        if (!awaitEndpointStarted()) {
+                            closeableFrame.close()
+                            return@consumeEach
+                        }
                         videoStreamId?.let {
+                            tracer?.record(TraceStage.MUX, true, closeableFrame.frame.ptsInUs)
+                            videoWrittenFrameCounter?.increment()
+                            videoWrittenByteCounter?.increment(closeableFrame.frame.rawBuffer.remaining().toLong())
                             endpointInternal.write(closeableFrame, it)
+                            videoStartupTimeline?.let { timeline ->
+                                timeline.mark(StartupTimeline.FIRST_VIDEO_FRAME)
+                                videoStartupTimeline = null
+                            }
                         } ?: Logger.w(TAG, "Video frame received but video stream is not set")
                     } catch (t: Throwable) {
                         onInternalError(t)
@@ -298,6 +413,65 @@ internal class EncodingPipelineOutput(
         }
     }
 
+    /**
+     * Suspends until the endpoint accepts frames.
+     *
+     * @return false if the stream has been stopped meanwhile
+     */
+    private suspend fun awaitEndpointStarted(): Boolean {
+        if (isEndpointStartedFlow.value) {
+            return true
+        }
+        isEndpointStartedFlow.first { it }
+        return isStreaming
+    }
+
+    /**
+     * Sends a copy of an encoded audio frame to each [encodedAudioFrameListeners].
+     *
+     * The original frame is closed once this output and all the listeners have closed their copy.
+     *
+     * @return the frame to write to this output endpoint
+     */
+    private fun forwardEncodedAudioFrame(closeableFrame: FrameWithCloseable): FrameWithCloseable {
+        val listeners = encodedAudioFrameListeners.toList()
+        if (listeners.isEmpty()) {
+            return closeableFrame
+        }
+
+        val frame = closeableFrame.frame
+        val remainingCount = AtomicInteger(listeners.size + 1)
+        val onProcessed = { _: FrameWithCloseable ->
+            if (remainingCount.decrementAndGet() == 0) {
+                closeableFrame.close()
+            }
+        }
+        listeners.forEach { listener ->
+            listener(
+                FrameWithCloseable(
+                    frame.copy(rawBuffer = frame.rawBuffer.duplicate()),
+                    onProcessed
+                )
+            )
+        }
+        return FrameWithCloseable(frame.copy(rawBuffer = frame.rawBuffer.duplicate()), onProcessed)
+    }
+
+    /**
+     * Adds a listener of the encoded audio frames.
+     * The listener must close the frames.
+     */
+    private fun addEncodedAudioFrameListener(listener: (FrameWithCloseable) -> Unit) {
+        encodedAudioFrameListeners.addIfAbsent(listener)
+    }
+
+    /**
+     * Removes a listener of the encoded audio frames.
+     */
+    private fun removeEncodedAudioFrameListener(listener: (FrameWithCloseable) -> Unit) {
+        encodedAudioFrameListeners.remove(listener)
+    }
+
     private val _audioCodecConfigFlow = MutableStateFlow<AudioCodecConfig?>(null)
     override val audioCodecConfigFlow = _audioCodecConfigFlow.asStateFlow()
     override val audioSourceConfigFlow = audioCodecConfigFlow.map { it?.sourceConfig }.stateIn(
@@ -309,6 +483,13 @@ internal class EncodingPipelineOutput(
     private val audioCodecConfig: AudioCodecConfig?
         get() = audioCodecConfigFlow.value
 
+    /**
+     * The audio configuration of the audio stream of the endpoint: either this output audio
+     * configuration or the [sharedAudioOutput] one.
+     */
+    private val streamAudioCodecConfig: AudioCodecConfig?
+        get() = audioCodecConfig ?: sharedAudioOutput?.audioCodecConfig
+
     override suspend fun setAudioCodecConfig(audioCodecConfig: AudioCodecConfig) {
         require(withAudio) { "Audio is not enabled" }
         withContextMutex {
@@ -404,6 +585,7 @@ internal class EncodingPipelineOutput(
             frame.close()
             throw t
         }
+        tracer?.record(TraceStage.ENCODER_INPUT, false, frame.timestampInUs)
         input.queueInputFrame(
             frame
         )
@@ -581,7 +763,12 @@ internal class EncodingPipelineOutput(
         if (withVideo) {
             requireNotNull(videoCodecConfig) { "Video configuration must be set" }
         }
+        if (sharedAudioOutput != null) {
+            requireNotNull(streamAudioCodecConfig) { "Shared audio configuration must be set" }
+        }
 
+        val timeline = startupTimeline
+        startupTimeline = null
         try {
             _isStreamingFlow.emit(true)
 
@@ -596,7 +783,8 @@ internal class EncodingPipelineOutput(
                 }
             }
 
-            audioCodecConfig?.let {
+            val audioConfig = streamAudioCodecConfig
+            audioConfig?.let {
                 streams.add(it)
             }
 
@@ -604,31 +792,60 @@ internal class EncodingPipelineOutput(
             orientedVideoConfig?.let {
                 videoStreamId = streamsIdMap[it]
             }
-            audioCodecConfig?.let { audioStreamId = streamsIdMap[it] }
-
-            streamEventListener?.onStartStream()
+            audioConfig?.let { audioStreamId = streamsIdMap[it] }
 
-            val audioEncoderJob = audioEncoderInternal?.let {
-                coroutineScope.launch {
-                    it.startStream()
+            sharedAudioOutput?.let {
+                if (!it.isStreaming) {
+                    Logger.w(TAG, "Shared audio output is not streaming: no audio until it starts")
                 }
+                it.addEncodedAudioFrameListener(sharedAudioFrameListener)
             }
 
-            val videoEncoderJob = videoEncoderInternal?.let {
-                coroutineScope.launch {
-                    it.startStream()
+            streamEventListener?.onStartStream()
+
+            audioStartupTimeline = timeline
+            videoStartupTimeline = timeline
+
+            // The encoders start while the endpoint starts (the RTMP publication for example).
+            // Their first frames wait in the output channels until the endpoint is started.
+            isEndpointStartedFlow.emit(false)
+            supervisorScope {
+                val encodersStart = async {
+                    measure(timeline, StartupTimeline.ENCODERS_START) {
+                        listOfNotNull(audioEncoderInternal, videoEncoderInternal).map {
+                            async { it.startStream() }
+                        }.awaitAll()
+                    }
                 }
+                val endpointStart = async {
+                    measure(timeline, StartupTimeline.ENDPOINT_START) {
+                        endpointInternal.startStream()
+                    }
+                }
+                encodersStart.await()
+                endpointStart.await()
             }
-
-            audioEncoderJob?.join()
-            videoEncoderJob?.join()
-
-            endpointInternal.startStream()
+            isEndpointStartedFlow.emit(true)
 
             bitrateRegulatorController?.start()
         } catch (t: Throwable) {
             stopStreamUnsafe()
             throw t
+        } finally {
+            // Releases the frames waiting for the endpoint. They are dropped if the start failed.
+            isEndpointStartedFlow.emit(true)
+        }
+    }
+
+    private suspend fun <T> measure(
+        timeline: StartupTimeline?,
+        name: String,
+        block: suspend () -> T
+    ): T {
+        return if (timeline != null) {
+            timeline.measure(name, block)
+        } else {
+            block()
         }
     }
 
@@ -679,6 +896,9 @@ internal class EncodingPipelineOutput(
 
         streamEventListener?.onStopStream()
 
+        audioStartupTimeline = null
+        videoStartupTimeline = null
+
         stopStreamElements()
 
         _isStreamingFlow.emit(false)
@@ -705,6 +925,15 @@ internal class EncodingPipelineOutput(
             Logger.w(TAG, "Can't stop bitrate regulator controller: ${t.message}")
         }
 
+        sharedAudioOutput?.let {
+            it.removeEncodedAudioFrameListener(sharedAudioFrameListener)
+            audioStreamId = null
+            // Shared frames must be closed to release the shared audio encoder buffers
+            while (true) {
+                audioEncoderListener.outputChannel.tryReceive().getOrNull()?.close() ?: break
+            }
+        }
+
         // Encoders
         val audioEncoderJob = audioEncoderInternal?.let {
             coroutineScope.launch {
@@ -761,6 +990,8 @@ internal class EncodingPipelineOutput(
     private suspend fun releaseUnsafe() {
         _isStreamingFlow.emit(false)
 
+        sharedAudioOutput?.removeEncodedAudioFrameListener(sharedAudioFrameListener)
+
         // Encoders
         try {
             audioEncoderInternal?.release()
@@ -768,6 +999,7 @@ internal class EncodingPipelineOutput(
             Logger.w(TAG, "Can't release audio encoder: ${t.message}")
         } finally {
             audioEncoderInternal = null
+            encodedAudioFrameListeners.clear()
             audioEncoderListener.outputChannel.cancel()
         }
 
@@ -787,6 +1019,7 @@ internal class EncodingPipelineOutput(
         } catch (t: Throwable) {
             Logger.w(TAG, "Can't release endpoint: ${t.message}")
         }
+        metricsRegistry?.unregisterAll()
 
         audioOutputDispatcher.cancel()
         audioEncoderDispatcher.cancel()
@@ -890,11 +1123,16 @@ internal class EncodingPipelineOutput(
                 "videoCodecConfig=${videoCodecConfigFlow.value}, " +
                 "targetRotation=$targetRotation, " +
                 "isOpen=${isOpenFlow.value}, " +
-                "bitrateRegulatorController=$bitrateRegulatorController" +
+                "bitrateRegulatorController=$bitrateRegulatorController, " +
+                "hasSharedAudio=${sharedAudioOutput != null}" +
                 ")"
     }
 
     companion object {
         private const val TAG = "EncodingPipelineOutput"
+
+        private const val AUDIO_ENCODER_METRICS = "audio.encoder"
+        private const val VIDEO_ENCODER_METRICS = "video.encoder"
+        private const val ENDPOINT_METRICS = "endpoint"
     }
 }
@@ -19,6 +19,7 @@ import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
 import io.github.thibaultbee.streampack.core.elements.encoders.IEncoder
 import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig
 import io.github.thibaultbee.streampack.core.elements.endpoints.IEndpoint
+import io.github.thibaultbee.streampack.core.elements.utils.trace.StartupTimeline
 import io.github.thibaultbee.streampack.core.interfaces.IOpenableStreamer
 import io.github.thibaultbee.streampack.core.interfaces.IWithVideoRotation
 import io.github.thibaultbee.streampack.core.pipelines.outputs.IConfigurableAudioPipelineOutput
@@ -120,4 +121,10 @@ interface IConfigurableAudioVideoEncodingPipelineOutput :
 internal interface IEncodingPipelineOutputInternal : IConfigurableAudioVideoEncodingPipelineOutput,
     IConfigurableAudioPipelineOutputInternal,
     IConfigurableVideoPipelineOutputInternal,
-    IPipelineEventOutputInternal
\ No newline at end of file
+    IPipelineEventOutputInternal {
+    /**
+     * The timeline the phases of the next [startStream] are recorded to. It is reset by
+     * [startStream].
+     */
+    var startupTimeline: StartupTimeline?
+}
@@ -37,7 +37,12 @@ import io.github.thibaultbee.streampack.core.elements.sources.video.mediaproject
 import io.github.thibaultbee.streampack.core.elements.utils.RotationValue
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.displayRotation
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.isCompatibleWith
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsLineExporter
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsSnapshot
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineLatency
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineTracer
 import io.github.thibaultbee.streampack.core.interfaces.setCameraId
+import io.github.thibaultbee.streampack.core.logger.Logger
 import io.github.thibaultbee.streampack.core.pipelines.DispatcherProvider
 import io.github.thibaultbee.streampack.core.pipelines.IDispatcherProvider
 import io.github.thibaultbee.streampack.core.pipelines.StreamerPipeline
@@ -50,6 +55,7 @@ import io.github.thibaultbee.streampack.core.streamers.single.AudioConfig
 import io.github.thibaultbee.streampack.core.streamers.single.VideoConfig
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.combineTransform
@@ -189,7 +195,10 @@ suspend fun DualStreamer(
 /**
  * A class that handles 2 outputs.
  *
- * For example, you can use it to live stream and record simultaneously.
+ * For example, you can use it to live stream and record simultaneously or to live stream the same
+ * source at 2 resolutions (e.g. 1080p to a main endpoint and 480p to a low bandwidth endpoint).
+ * The video source is rendered once to both video encoders. Each output has its own bitrate
+ * regulation with [IConfigurableAudioVideoEncodingPipelineOutput.addBitrateRegulatorController].
  *
  * @param context the application context
  * @param withAudio `true` to capture audio. It can't be changed after instantiation.
@@ -198,6 +207,9 @@ suspend fun DualStreamer(
  * @param secondEndpointFactory the [IEndpointInternal] implementation of the second output. By default, it is a [DynamicEndpoint].
  * @param defaultRotation the default rotation in [Surface] rotation ([Surface.ROTATION_0], ...). By default, it is the current device orientation.
  * @param surfaceProcessorFactory the [ISurfaceProcessorInternal.Factory] implementation to use to create the video processor. By default, it is a [DefaultSurfaceProcessorFactory].
+ * @param dispatcherProvider the [IDispatcherProvider] implementation. By default, it is a [DispatcherProvider].
+ * @param shareAudioEncoder `true` to encode audio once and write it to both outputs. In that case,
+ * only [DualStreamerAudioConfig.firstAudioConfig] is applied. It can't be changed after instantiation.
  */
 open class DualStreamer(
     protected val context: Context,
@@ -208,6 +220,7 @@ open class DualStreamer(
     @RotationValue defaultRotation: Int = context.displayRotation,
     surfaceProcessorFactory: ISurfaceProcessorInternal.Factory = DefaultSurfaceProcessorFactory(),
     dispatcherProvider: IDispatcherProvider = DispatcherProvider(),
+    val shareAudioEncoder: Boolean = false
 ) : IDualStreamer, IAudioDualStreamer, IVideoDualStreamer {
     private val coroutineScope = CoroutineScope(dispatcherProvider.default)
 
@@ -236,7 +249,11 @@ open class DualStreamer(
     private val secondPipelineOutput: IEncodingPipelineOutputInternal =
         runBlocking(dispatcherProvider.default) {
             pipeline.createEncodingOutput(
-                withAudio, withVideo, secondEndpointFactory, defaultRotation
+                withAudio,
+                withVideo,
+                secondEndpointFactory,
+                defaultRotation,
+                if (withAudio && shareAudioEncoder) firstPipelineOutput else null
             ) as IEncodingPipelineOutputInternal
         }
 
@@ -273,6 +290,23 @@ open class DualStreamer(
      */
     override val isStreamingFlow: StateFlow<Boolean> = pipeline.isStreamingFlow
 
+    /**
+     * The latency tracer of the pipeline. It can record a trace of the frames for offline
+     * analysis.
+     */
+    val tracer: PipelineTracer = pipeline.tracer
+
+    /**
+     * The latency of each stage of the pipeline. It is updated every second while streaming.
+     */
+    val latencyFlow: StateFlow<PipelineLatency> = tracer.latencyFlow
+
+    /**
+     * The metrics of the sources, the encoders and the endpoints, sampled every second while
+     * streaming. Use [MetricsLineExporter] to write them to a file.
+     */
+    val metricsFlow: SharedFlow<MetricsSnapshot> = pipeline.metricsSampler.snapshotFlow
+
     /**
      * Closes the outputs.
      * Same as calling [first.close] and [second.close].
@@ -325,10 +359,16 @@ open class DualStreamer(
         } catch (t: Throwable) {
             throwables += t
         }
-        try {
-            audioConfig.secondAudioConfig.let { secondPipelineOutput.setAudioCodecConfig(it) }
-        } catch (t: Throwable) {
-            throwables += t
+        if (shareAudioEncoder) {
+            if (audioConfig.secondAudioConfig != audioConfig.firstAudioConfig) {
+                Logger.w(TAG, "Audio encoder is shared: second audio configuration is ignored")
+            }
+        } else {
+            try {
+                audioConfig.secondAudioConfig.let { secondPipelineOutput.setAudioCodecConfig(it) }
+            } catch (t: Throwable) {
+                throwables += t
+            }
         }
         if (throwables.isNotEmpty()) {
             if (throwables.size == 1) {
@@ -353,6 +393,13 @@ open class DualStreamer(
     override suspend fun setVideoConfig(videoConfig: DualStreamerVideoConfig) {
         val throwables = mutableListOf<Throwable>()
 
+        if (!videoConfig.isConcurrentEncodingSupported) {
+            Logger.w(
+                TAG,
+                "Video encoders might not support ${videoConfig.firstVideoConfig} and ${videoConfig.secondVideoConfig} at the same time"
+            )
+        }
+
         val firstVideoCodecConfig = firstPipelineOutput.videoCodecConfigFlow.value
         if ((firstVideoCodecConfig != null) && (!firstVideoCodecConfig.isCompatibleWith(videoConfig.firstVideoConfig))) {
             firstPipelineOutput.invalidateVideoCodecConfig()
@@ -418,6 +465,10 @@ open class DualStreamer(
         pipeline.release()
         coroutineScope.cancel()
     }
+
+    companion object {
+        private const val TAG = "DualStreamer"
+    }
 }
 
 /**
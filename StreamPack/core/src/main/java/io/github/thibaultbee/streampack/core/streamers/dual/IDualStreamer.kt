@@ -29,6 +29,7 @@ import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig.
 import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig.Companion.DEFAULT_RESOLUTION
 import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig.Companion.getBestLevel
 import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig.Companion.getBestProfile
+import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.MediaCodecHelper
 import io.github.thibaultbee.streampack.core.elements.utils.ByteFormatValue
 import io.github.thibaultbee.streampack.core.elements.utils.ChannelConfigValue
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.isCompatibleWith
@@ -241,6 +242,23 @@ internal constructor(
      * Video dynamic range profile.
      */
     val dynamicRangeProfile = firstVideoConfig.dynamicRangeProfile
+
+    /**
+     * Whether the default video encoders can encode both configurations at the same time.
+     *
+     * It is a best effort check based on the encoder declared capabilities.
+     *
+     * @see MediaCodecHelper.areFormatsSupportedConcurrently
+     */
+    val isConcurrentEncodingSupported: Boolean by lazy {
+        try {
+            MediaCodecHelper.areFormatsSupportedConcurrently(
+                listOf(firstVideoConfig.getFormat(false), secondVideoConfig.getFormat(false))
+            )
+        } catch (_: Throwable) {
+            false
+        }
+    }
 }
 
 interface IAudioDualStreamer : IAudioStreamer<DualStreamerAudioConfig>
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.streamers.single
+
+import android.os.StatFs
+import android.util.Size
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.encoders.IEncoder
+import io.github.thibaultbee.streampack.core.elements.encoders.VideoRateControl
+import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.MediaCodecHelper
+import io.github.thibaultbee.streampack.core.elements.endpoints.AsyncWriteConfig
+import io.github.thibaultbee.streampack.core.elements.endpoints.ChunkedTsFileEndpoint
+import io.github.thibaultbee.streampack.core.elements.endpoints.ChunkedTsFileEndpointFactory
+import io.github.thibaultbee.streampack.core.elements.endpoints.MediaMuxerEndpoint
+import io.github.thibaultbee.streampack.core.elements.endpoints.MediaMuxerEndpointFactory
+import io.github.thibaultbee.streampack.core.elements.endpoints.MediaSinkType
+import io.github.thibaultbee.streampack.core.elements.utils.ChunkedFileOutputStream
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import io.github.thibaultbee.streampack.core.logger.Logger
+import io.github.thibaultbee.streampack.core.pipelines.outputs.encoding.IEncodingPipelineOutputInternal
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+/**
+ * Configuration of a [LocalRecording].
+ *
+ * The recording video configuration is the live video configuration with [videoBitrate] and
+ * [resolution]: both encoders are fed by the same render pass so they share the frame rate.
+ *
+ * @param videoBitrate the fixed video bitrate of the recording in bits/s
+ * @param resolution the resolution of the recording or `null` for the live resolution. A resolution
+ * above the live one changes the source resolution: add the recording before the live stream
+ * starts.
+ * @param asyncWriteConfig the asynchronous write configuration of the recording file
+ * @param statsPeriodInMs the period of [LocalRecording.statsFlow]
+ * @param chunkSizeInBytes the size of the recording files or `null` for a single file. When set,
+ * the recording is written as MPEG-TS files of this size by a [ChunkedTsFileEndpoint] and the
+ * completed files are reported to [LocalRecording.addChunkListener].
+ */
+data class LocalRecordingConfig(
+    val videoBitrate: Int = DEFAULT_VIDEO_BITRATE,
+    val resolution: Size? = null,
+    val asyncWriteConfig: AsyncWriteConfig = AsyncWriteConfig(),
+    val statsPeriodInMs: Long = DEFAULT_STATS_PERIOD_IN_MS,
+    val chunkSizeInBytes: Int? = null
+) {
+    init {
+        require(videoBitrate > 0) { "Video bitrate must be positive" }
+        require(statsPeriodInMs > 0) { "Stats period must be positive" }
+        require((chunkSizeInBytes == null) || (chunkSizeInBytes > 0)) { "Chunk size must be positive" }
+    }
+
+    /**
+     * Creates the endpoint factory of the recording.
+     */
+    internal fun createEndpointFactory() = if (chunkSizeInBytes != null) {
+        ChunkedTsFileEndpointFactory(chunkSizeInBytes, asyncWriteConfig)
+    } else {
+        MediaMuxerEndpointFactory(asyncWriteConfig)
+    }
+
+    /**
+     * Gets the video configuration of the recording.
+     *
+     * @param liveVideoConfig the live video configuration
+     */
+    fun getVideoConfig(liveVideoConfig: VideoConfig) = liveVideoConfig.copy(
+        startBitrate = videoBitrate,
+        resolution = resolution ?: liveVideoConfig.resolution,
+        // Neither low latency nor bitrate correction: the bitrate is fixed
+        rateControl = VideoRateControl()
+    )
+
+    /**
+     * Whether the default video encoder can encode the live stream and the recording at the same
+     * time.
+     *
+     * It is a best effort check based on the encoder declared capabilities.
+     *
+     * @param liveVideoConfig the live video configuration
+     * @see MediaCodecHelper.areFormatsSupportedConcurrently
+     */
+    fun isConcurrentEncodingSupported(liveVideoConfig: VideoConfig) = try {
+        MediaCodecHelper.areFormatsSupportedConcurrently(
+            listOf(
+                liveVideoConfig.getFormat(false),
+                getVideoConfig(liveVideoConfig).getFormat(false)
+            )
+        )
+    } catch (_: Throwable) {
+        false
+    }
+
+    companion object {
+        const val DEFAULT_VIDEO_BITRATE = 12_000_000
+        const val DEFAULT_STATS_PERIOD_IN_MS = 1_000L
+    }
+}
+
+/**
+ * Statistics of a [LocalRecording].
+ *
+ * @param writtenSizeInBytes the size written to the storage since the recording start
+ * @param throughputInBps the storage write throughput of the last period in bits/s
+ * @param availableSizeInBytes the available size of the storage or `null` if it is unknown
+ * @param remainingDurationInMs the estimated recording duration the storage can still hold or
+ * `null` if it is unknown
+ * @param droppedFrameCount the number of frames dropped because the storage was too slow
+ */
+data class LocalRecordingStats(
+    val writtenSizeInBytes: Long,
+    val throughputInBps: Long,
+    val availableSizeInBytes: Long?,
+    val remainingDurationInMs: Long?,
+    val droppedFrameCount: Long
+)
+
+/**
+ * A high bitrate local recording of the live stream of a [SingleStreamer].
+ *
+ * The recording has its own video encoder at a fixed bitrate while the live video encoder
+ * adapts its bitrate to the network. It is fed by the same render pass as the live video
+ * encoder and it writes the encoded audio of the live stream. Frames are written to the file on
+ * a dedicated thread: a slow storage drops recording frames but never blocks the live stream.
+ * An error of the recording stops the recording only.
+ *
+ * The recording stops with the live stream.
+ *
+ * Use [SingleStreamer.addLocalRecording] to create it.
+ */
+class LocalRecording internal constructor(
+    internal val output: IEncodingPipelineOutputInternal,
+    private val config: LocalRecordingConfig,
+    private val liveAudioBitrateProvider: () -> Int?,
+    private val coroutineScope: CoroutineScope,
+    timeProvider: TimeProvider = TimeUtils.systemTimeProvider
+) {
+    private val storageUsageMeter = StorageUsageMeter(timeProvider)
+    private var statsJob: Job? = null
+
+    private val _statsFlow = MutableStateFlow<LocalRecordingStats?>(null)
+
+    /**
+     * The recording statistics, updated every [LocalRecordingConfig.statsPeriodInMs] while
+     * recording.
+     */
+    val statsFlow: StateFlow<LocalRecordingStats?> = _statsFlow.asStateFlow()
+
+    /**
+     * Whether the recording is running.
+     */
+    val isStreamingFlow: StateFlow<Boolean> = output.isStreamingFlow
+
+    /**
+     * The last error of the recording.
+     */
+    val throwableFlow: StateFlow<Throwable?> = output.throwableFlow
+
+    /**
+     * The video configuration of the recording.
+     */
+    val videoConfigFlow: StateFlow<VideoConfig?> = output.videoCodecConfigFlow
+
+    /**
+     * The video encoder of the recording.
+     */
+    val videoEncoder: IEncoder?
+        get() = output.videoEncoder
+
+    /**
+     * The size written by the recording endpoint and the number of frames it dropped.
+     */
+    private val writeMetrics: Pair<Long, Long>
+        get() = when (val endpoint = output.endpoint) {
+            is MediaMuxerEndpoint -> endpoint.metrics.let {
+                it.writtenSizeInBytes to (it.asyncWrite?.droppedFrameCount ?: 0)
+            }
+
+            is ChunkedTsFileEndpoint -> endpoint.metrics.let {
+                it.writtenSizeInBytes to (it.asyncWrite?.droppedFrameCount ?: 0)
+            }
+
+            else -> 0L to 0L
+        }
+
+    /**
+     * Adds a listener of the completed files of a recording with
+     * [LocalRecordingConfig.chunkSizeInBytes]. Add it before [startStream].
+     *
+     * @param listener the listener to add
+     */
+    fun addChunkListener(listener: ChunkedFileOutputStream.Listener) {
+        val endpoint = output.endpoint
+        check(endpoint is ChunkedTsFileEndpoint) { "Recording is not chunked" }
+        endpoint.addListener(listener)
+    }
+
+    /**
+     * Starts recording to [descriptor].
+     *
+     * It must be a local file (MP4, WebM,... or MPEG-TS for a chunked recording). The available
+     * storage is only known for [MediaSinkType.FILE] descriptors.
+     *
+     * @param descriptor the media descriptor of the recording file
+     */
+    suspend fun startStream(descriptor: MediaDescriptor) {
+        output.open(descriptor)
+        try {
+            output.startStream()
+        } catch (t: Throwable) {
+            output.close()
+            throw t
+        }
+
+        val storageDir = if (descriptor.type.sinkType == MediaSinkType.FILE) {
+            descriptor.uri.path?.let { File(it).parentFile }
+        } else {
+            null
+        }
+        startStats(storageDir)
+    }
+
+    /**
+     * Stops the recording and finalizes the file.
+     */
+    suspend fun stopStream() {
+        statsJob?.cancel()
+        statsJob = null
+        try {
+            output.stopStream()
+        } finally {
+            output.close()
+        }
+    }
+
+    private fun startStats(storageDir: File?) {
+        statsJob?.cancel()
+        val (initialWrittenSizeInBytes, initialDroppedFrameCount) = writeMetrics
+        storageUsageMeter.reset()
+        statsJob = coroutineScope.launch {
+            // The recording also stops with the live stream
+            while (isActive && isStreamingFlow.value) {
+                delay(config.statsPeriodInMs)
+                val (writtenSizeInBytes, droppedFrameCount) = writeMetrics
+                val availableSizeInBytes = storageDir?.let {
+                    try {
+                        StatFs(it.path).availableBytes
+                    } catch (t: Throwable) {
+                        Logger.w(TAG, "Can't get available storage of $it: ${t.message}")
+                        null
+                    }
+                }
+                val expectedBitrate = (videoConfigFlow.value?.startBitrate ?: config.videoBitrate) +
+                        (liveAudioBitrateProvider() ?: 0)
+                _statsFlow.value = storageUsageMeter.sample(
+                    writtenSizeInBytes - initialWrittenSizeInBytes,
+                    availableSizeInBytes,
+                    expectedBitrate,
+                    droppedFrameCount - initialDroppedFrameCount
+                )
+            }
+        }
+    }
+
+    /**
+     * Removes the recording from the streamer. It can't be used afterwards.
+     */
+    internal suspend fun release() {
+        statsJob?.cancel()
+        statsJob = null
+        output.release()
+    }
+
+    companion object {
+        private const val TAG = "LocalRecording"
+    }
+}
+
+/**
+ * Measures the storage write throughput of a recording and estimates how long the storage can
+ * hold it.
+ */
+internal class StorageUsageMeter(private val timeProvider: TimeProvider) {
+    private var startTimeInNs = timeProvider.uptimeNs()
+    private var lastTimeInNs = startTimeInNs
+    private var lastSizeInBytes = 0L
+
+    /**
+     * Restarts the measure.
+     */
+    fun reset() {
+        startTimeInNs = timeProvider.uptimeNs()
+        lastTimeInNs = startTimeInNs
+        lastSizeInBytes = 0
+    }
+
+    /**
+     * @param writtenSizeInBytes the size written since [reset]
+     * @param availableSizeInBytes the available size of the storage or `null` if it is unknown
+     * @param expectedBitrate the configured bitrate of the recording in bits/s
+     * @param droppedFrameCount the number of frames dropped since [reset]
+     */
+    fun sample(
+        writtenSizeInBytes: Long,
+        availableSizeInBytes: Long?,
+        expectedBitrate: Int,
+        droppedFrameCount: Long
+    ): LocalRecordingStats {
+        val nowInNs = timeProvider.uptimeNs()
+        val throughputInBps = bitrate(writtenSizeInBytes - lastSizeInBytes, nowInNs - lastTimeInNs)
+        lastTimeInNs = nowInNs
+        lastSizeInBytes = writtenSizeInBytes
+
+        // Encoders may exceed their configured bitrate: the worst of both is used
+        val bitrate = maxOf(
+            expectedBitrate.toLong(),
+            bitrate(writtenSizeInBytes, nowInNs - startTimeInNs)
+        )
+        val remainingDurationInMs = availableSizeInBytes?.let { availableSize ->
+            if (bitrate > 0) {
+                availableSize * Byte.SIZE_BITS * 1000 / bitrate
+            } else {
+                null
+            }
+        }
+        return LocalRecordingStats(
+            writtenSizeInBytes,
+            throughputInBps,
+            availableSizeInBytes,
+            remainingDurationInMs,
+            droppedFrameCount
+        )
+    }
+
+    private fun bitrate(sizeInBytes: Long, durationInNs: Long): Long {
+        val durationInUs = TimeUnit.NANOSECONDS.toMicros(durationInNs)
+        return if (durationInUs > 0) {
+            sizeInBytes * Byte.SIZE_BITS * 1_000_000 / durationInUs
+        } else {
+            0
+        }
+    }
+}
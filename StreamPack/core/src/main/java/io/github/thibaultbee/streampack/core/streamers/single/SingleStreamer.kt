@@ -40,7 +40,14 @@ import io.github.thibaultbee.streampack.core.elements.sources.video.camera.exten
 import io.github.thibaultbee.streampack.core.elements.sources.video.mediaprojection.MediaProjectionVideoSourceFactory
 import io.github.thibaultbee.streampack.core.elements.utils.RotationValue
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.displayRotation
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsLineExporter
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsSnapshot
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineLatency
+import io.github.thibaultbee.streampack.core.elements.utils.trace.PipelineTracer
+import io.github.thibaultbee.streampack.core.elements.utils.trace.StartupTimeline
 import io.github.thibaultbee.streampack.core.interfaces.setCameraId
+import io.github.thibaultbee.streampack.core.logger.Logger
+import io.github.thibaultbee.streampack.core.pipelines.AudioOutputModeSelector
 import io.github.thibaultbee.streampack.core.pipelines.DispatcherProvider
 import io.github.thibaultbee.streampack.core.pipelines.IDispatcherProvider
 import io.github.thibaultbee.streampack.core.pipelines.StreamerPipeline
@@ -51,11 +58,14 @@ import io.github.thibaultbee.streampack.core.streamers.infos.IConfigurationInfo
 import io.github.thibaultbee.streampack.core.streamers.infos.StreamerConfigurationInfo
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.merge
 import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 
 
 /**
@@ -181,6 +191,7 @@ suspend fun SingleStreamer(
  * @param endpointFactory the [IEndpointInternal.Factory] implementation. By default, it is a [DynamicEndpointFactory].
  * @param defaultRotation the default rotation in [Surface] rotation ([Surface.ROTATION_0], ...). By default, it is the current device orientation.
  * @param surfaceProcessorFactory the [ISurfaceProcessorInternal.Factory] implementation. By default, it is a [DefaultSurfaceProcessorFactory].
+ * @param audioOutputMode the audio output mode. By default, it is selected by [AudioOutputModeSelector]: [StreamerPipeline.AudioOutputMode.CALLBACK], where the audio source writes directly in the encoder input buffers, unless it has already failed on this device. Then it falls back to [StreamerPipeline.AudioOutputMode.PUSH].
  */
 open class SingleStreamer(
     protected val context: Context,
@@ -190,14 +201,18 @@ open class SingleStreamer(
     @RotationValue defaultRotation: Int = context.displayRotation,
     surfaceProcessorFactory: ISurfaceProcessorInternal.Factory = DefaultSurfaceProcessorFactory(),
     dispatcherProvider: IDispatcherProvider = DispatcherProvider(),
+    audioOutputMode: StreamerPipeline.AudioOutputMode = AudioOutputModeSelector(context).select(),
 ) : ISingleStreamer, IAudioSingleStreamer, IVideoSingleStreamer {
     private val coroutineScope: CoroutineScope = CoroutineScope(dispatcherProvider.default)
 
+    @RotationValue
+    private var targetRotation = defaultRotation
+
     private val pipeline = StreamerPipeline(
         context,
         withAudio,
         withVideo,
-        audioOutputMode = StreamerPipeline.AudioOutputMode.CALLBACK,
+        audioOutputMode = audioOutputMode,
         surfaceProcessorFactory,
         dispatcherProvider
     )
@@ -223,6 +238,23 @@ open class SingleStreamer(
 
     override val isStreamingFlow: StateFlow<Boolean> = pipeline.isStreamingFlow
 
+    /**
+     * The latency tracer of the pipeline. It can record a trace of the frames for offline
+     * analysis.
+     */
+    val tracer: PipelineTracer = pipeline.tracer
+
+    /**
+     * The latency of each stage of the pipeline. It is updated every second while streaming.
+     */
+    val latencyFlow: StateFlow<PipelineLatency> = tracer.latencyFlow
+
+    /**
+     * The metrics of the sources, the encoders and the endpoints, sampled every second while
+     * streaming. Use [MetricsLineExporter] to write them to a file.
+     */
+    val metricsFlow: SharedFlow<MetricsSnapshot> = pipeline.metricsSampler.snapshotFlow
+
     // AUDIO
     /**
      * The audio input.
@@ -257,6 +289,7 @@ open class SingleStreamer(
      */
     override suspend fun setTargetRotation(@RotationValue rotation: Int) {
         pipeline.setTargetRotation(rotation)
+        targetRotation = rotation
     }
 
     /**
@@ -383,6 +416,22 @@ open class SingleStreamer(
      */
     override suspend fun startStream() = pipelineOutput.startStream()
 
+    /**
+     * Starts audio/video stream and records its phases to [timeline].
+     *
+     * The encoders and the endpoint start concurrently. The timeline gets
+     * [StartupTimeline.ENCODERS_START], [StartupTimeline.ENDPOINT_START] and, once they are
+     * written to the endpoint, [StartupTimeline.FIRST_VIDEO_FRAME] and
+     * [StartupTimeline.FIRST_AUDIO_FRAME].
+     *
+     * @param timeline the timeline to record to
+     * @see [startStream]
+     */
+    suspend fun startStream(timeline: StartupTimeline) {
+        pipelineOutput.startupTimeline = timeline
+        startStream()
+    }
+
     /**
      * Stops audio/video stream.
      *
@@ -401,6 +450,77 @@ open class SingleStreamer(
         coroutineScope.cancel()
     }
 
+    // LOCAL RECORDING
+    private val localRecordingMutex = Mutex()
+    private var localRecording: LocalRecording? = null
+
+    /**
+     * Adds a high bitrate local recording of the live stream.
+     *
+     * The recording has its own video encoder, fed by the same render pass as the live video
+     * encoder, and reuses the live encoded audio. Its video configuration is derived from the
+     * current video configuration so call it after [setVideoConfig]. Start it with
+     * [LocalRecording.startStream] once the live stream is started.
+     *
+     * Only one local recording can be added.
+     *
+     * @param config the recording configuration
+     * @return the local recording
+     * @throws ConcurrentEncodingException if the video encoder can't encode the live stream and
+     * the recording at the same time
+     * @see LocalRecordingConfig.isConcurrentEncodingSupported
+     */
+    suspend fun addLocalRecording(config: LocalRecordingConfig = LocalRecordingConfig()): LocalRecording =
+        localRecordingMutex.withLock {
+            require(withVideo) { "Local recording requires video" }
+            check(localRecording == null) { "A local recording has already been added" }
+            val liveVideoConfig =
+                requireNotNull(videoConfigFlow.value) { "Video configuration must be set" }
+            if (!config.isConcurrentEncodingSupported(liveVideoConfig)) {
+                throw ConcurrentEncodingException(
+                    "Video encoder can't encode $liveVideoConfig and ${config.getVideoConfig(liveVideoConfig)} at the same time"
+                )
+            }
+
+            val output = pipeline.createEncodingOutput(
+                withVideo = true,
+                endpointFactory = config.createEndpointFactory(),
+                targetRotation = targetRotation,
+                sharedAudioOutput = if (withAudio) pipelineOutput else null
+            ) as IEncodingPipelineOutputInternal
+            try {
+                output.setVideoCodecConfig(config.getVideoConfig(liveVideoConfig))
+            } catch (t: Throwable) {
+                pipeline.removeOutput(output)
+                output.release()
+                throw t
+            }
+
+            LocalRecording(
+                output,
+                config,
+                { audioConfigFlow.value?.startBitrate },
+                coroutineScope
+            ).also { localRecording = it }
+        }
+
+    /**
+     * Stops and removes the local recording added with [addLocalRecording].
+     */
+    suspend fun removeLocalRecording() {
+        localRecordingMutex.withLock {
+            val recording = localRecording ?: return
+            localRecording = null
+            try {
+                recording.stopStream()
+            } catch (t: Throwable) {
+                Logger.w(TAG, "Can't stop local recording: ${t.message}")
+            }
+            pipeline.removeOutput(recording.output)
+            recording.release()
+        }
+    }
+
     /**
      * Adds a bitrate regulator controller.
      *
@@ -16,9 +16,15 @@
 package io.github.thibaultbee.streampack.core.utils.extensions
 
 import io.github.thibaultbee.streampack.core.elements.endpoints.ClosedException
+import io.github.thibaultbee.streampack.core.elements.endpoints.ConnectionRejectedException
 
 /**
  * Whether the [Throwable] is a [ClosedException]
  */
 val Throwable.isClosedException: Boolean
-    get() = this is ClosedException
\ No newline at end of file
+    get() = this is ClosedException
+/**
+ * Whether the [Throwable] is a [ConnectionRejectedException]
+ */
+val Throwable.isConnectionRejectedException: Boolean
+    get() = this is ConnectionRejectedException
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.configuration
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.fail
+import org.junit.Test
+
+class LiveLatencyConfigTest {
+    private val config = LiveLatencyConfig(
+        isEnabled = true,
+        targetLatencyMs = 1000,
+        maxLatencyMs = 4000,
+        maxPlaybackSpeed = 1.1f
+    )
+
+    @Test
+    fun `no catch up at or below the target`() {
+        assertEquals(1f, config.getCatchUpSpeed(800, isCatchingUp = false), DELTA)
+        assertEquals(1f, config.getCatchUpSpeed(1000, isCatchingUp = false), DELTA)
+        assertEquals(1f, config.getCatchUpSpeed(1000, isCatchingUp = true), DELTA)
+    }
+
+    @Test
+    fun `catch up starts above the tolerance and stops at the target`() {
+        // Tolerance is a quarter of the target latency
+        assertEquals(1f, config.getCatchUpSpeed(1250, isCatchingUp = false), DELTA)
+        assertEquals(1.03f, config.getCatchUpSpeed(1300, isCatchingUp = false), DELTA)
+        // Once catching up, it continues below the tolerance
+        assertEquals(1.02f, config.getCatchUpSpeed(1200, isCatchingUp = true), DELTA)
+    }
+
+    @Test
+    fun `catch up speed grows with the excess latency`() {
+        assertEquals(1.05f, config.getCatchUpSpeed(1500, isCatchingUp = false), DELTA)
+        assertEquals(1.08f, config.getCatchUpSpeed(1800, isCatchingUp = false), DELTA)
+    }
+
+    @Test
+    fun `catch up speed is bounded`() {
+        // Small excess: minimum speed so that the catch up is not endless
+        assertEquals(1.02f, config.getCatchUpSpeed(1050, isCatchingUp = true), DELTA)
+        // Large excess: maximum playback speed
+        assertEquals(1.1f, config.getCatchUpSpeed(3000, isCatchingUp = false), DELTA)
+    }
+
+    @Test
+    fun `max latency must be above target latency`() {
+        try {
+            LiveLatencyConfig(targetLatencyMs = 1000, maxLatencyMs = 1000)
+            fail("Max latency equal to the target latency must throw")
+        } catch (_: IllegalArgumentException) {
+        }
+    }
+
+    companion object {
+        private const val DELTA = 0.0001f
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.encoders.mediacodec
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class BitrateCorrectorTest {
+    @Test
+    fun `overshooting encoder converges on the target`() {
+        val corrector = BitrateCorrector()
+        val target = 2_000_000
+
+        repeat(10) {
+            val requested = corrector.correct(target)
+            // The encoder outputs 30% more than requested
+            corrector.update(requested, (requested * 1.3).toInt())
+        }
+
+        val measured = corrector.correct(target) * 1.3
+        assertEquals(target.toDouble(), measured, target * 0.05)
+    }
+
+    @Test
+    fun `undershoot is corrected slower than overshoot`() {
+        val overshoot = BitrateCorrector()
+        overshoot.update(1_000_000, 1_300_000)
+        val undershoot = BitrateCorrector()
+        undershoot.update(1_000_000, 770_000)
+
+        assertTrue(1f - overshoot.factor > undershoot.factor - 1f)
+    }
+
+    @Test
+    fun `factor is bounded`() {
+        val corrector = BitrateCorrector()
+
+        // Static scene
+        repeat(20) { corrector.update(corrector.correct(2_000_000), 100_000) }
+
+        assertEquals(1.5f, corrector.factor, 0f)
+    }
+
+    @Test
+    fun `small error is ignored`() {
+        val corrector = BitrateCorrector()
+
+        corrector.update(1_000_000, 980_000)
+        corrector.update(1_000_000, 0)
+
+        assertEquals(1f, corrector.factor, 0f)
+    }
+}
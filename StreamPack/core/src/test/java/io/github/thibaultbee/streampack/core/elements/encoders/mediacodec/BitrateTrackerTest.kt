@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.encoders.mediacodec
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class BitrateTrackerTest {
+    @Test
+    fun `bitrate is measured on timestamps`() {
+        val tracker = BitrateTracker()
+
+        // 30 fps at 2 Mb/s
+        repeat(60) { tracker.add(it * 33_333L, 8_333) }
+
+        assertEquals(2_000_000.0, tracker.bitrate.toDouble(), 2_000.0)
+    }
+
+    @Test
+    fun `old frames leave the window`() {
+        val tracker = BitrateTracker()
+
+        repeat(30) { tracker.add(it * 33_333L, 50_000) }
+        repeat(30) { tracker.add(1_000_000L + it * 33_333L, 4_166) }
+
+        assertEquals(1_000_000.0, tracker.bitrate.toDouble(), 1_000.0)
+    }
+
+    @Test
+    fun `single frame is not measured`() {
+        val tracker = BitrateTracker()
+
+        tracker.add(0, 10_000)
+        assertEquals(0, tracker.bitrate)
+
+        tracker.add(0, 10_000)
+        assertEquals(0, tracker.bitrate)
+    }
+
+    @Test
+    fun `timestamps going backward restart the measure`() {
+        val tracker = BitrateTracker()
+
+        repeat(30) { tracker.add(5_000_000L + it * 33_333L, 50_000) }
+        tracker.add(0, 4_166)
+        tracker.add(33_333, 4_166)
+
+        assertEquals(1_000_000.0, tracker.bitrate.toDouble(), 1_000.0)
+    }
+
+    @Test
+    fun `window grows with the frame rate`() {
+        val tracker = BitrateTracker()
+
+        // 240 fps at 1 Mb/s
+        repeat(480) { tracker.add(it * 4_167L, 521) }
+
+        assertEquals(1_000_000.0, tracker.bitrate.toDouble(), 1_000.0)
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.encoders.mediacodec
+
+import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.CodecCapabilitySnapshot.AudioCapabilities
+import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.CodecCapabilitySnapshot.EncoderInfo
+import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.CodecCapabilitySnapshot.ProfileLevel
+import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.CodecCapabilitySnapshot.TypeCapabilities
+import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.CodecCapabilitySnapshot.VideoCapabilities
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.IOException
+import java.nio.ByteBuffer
+
+class CodecCapabilitySnapshotTest {
+    @get:Rule
+    val rootFolder: TemporaryFolder = TemporaryFolder()
+
+    private val snapshot = CodecCapabilitySnapshot(
+        FINGERPRINT,
+        listOf(
+            EncoderInfo(
+                "c2.video.encoder",
+                listOf(
+                    TypeCapabilities(
+                        "video/avc",
+                        listOf(ProfileLevel(1, 512), ProfileLevel(8, 2048)),
+                        mapOf("intra-refresh" to true, "qp-bounds" to false),
+                        16,
+                        VideoCapabilities(2..4096, 2..2304, 1..120, 1..120_000_000, listOf(1, 2)),
+                        null
+                    ),
+                    TypeCapabilities(
+                        "video/hevc",
+                        listOf(ProfileLevel(1, 1024)),
+                        emptyMap(),
+                        null,
+                        VideoCapabilities(64..1920, 64..1088, 1..60, 1..40_000_000),
+                        null
+                    )
+                )
+            ),
+            EncoderInfo(
+                "c2.audio.encoder",
+                listOf(
+                    TypeCapabilities(
+                        "audio/mp4a-latm",
+                        listOf(ProfileLevel(2, 0), ProfileLevel(5, 0)),
+                        emptyMap(),
+                        8,
+                        null,
+                        AudioCapabilities(8_000..960_000, 6, listOf(44_100, 48_000))
+                    ),
+                    TypeCapabilities(
+                        "audio/opus",
+                        emptyList(),
+                        emptyMap(),
+                        8,
+                        null,
+                        AudioCapabilities(6_000..510_000, 2, null)
+                    )
+                )
+            )
+        ),
+        mapOf(
+            "video/avc" to "c2.video.encoder",
+            "video/hevc" to "c2.video.encoder",
+            "audio/mp4a-latm" to "c2.audio.encoder",
+            "audio/opus" to "c2.audio.encoder"
+        )
+    )
+
+    @Test
+    fun `snapshot is read as written`() {
+        val file = rootFolder.newFile()
+        snapshot.writeTo(file)
+
+        assertEquals(snapshot, CodecCapabilitySnapshot.readFrom(file, FINGERPRINT))
+        assertFalse(rootFolder.root.listFiles()!!.any { it.name.endsWith(".tmp") })
+    }
+
+    @Test
+    fun `snapshot of another system build is ignored`() {
+        val file = rootFolder.newFile()
+        snapshot.writeTo(file)
+
+        assertNull(CodecCapabilitySnapshot.readFrom(file, "another/fingerprint"))
+    }
+
+    @Test
+    fun `missing snapshot is ignored`() {
+        val file = rootFolder.root.resolve("missing.bin")
+
+        assertNull(CodecCapabilitySnapshot.readFrom(file, FINGERPRINT))
+    }
+
+    @Test
+    fun `unknown file is ignored`() {
+        val file = rootFolder.newFile()
+        file.writeBytes(ByteArray(16) { 0x7F })
+
+        assertNull(CodecCapabilitySnapshot.readFrom(file, FINGERPRINT))
+    }
+
+    @Test(expected = IOException::class)
+    fun `truncated snapshot throws`() {
+        val file = rootFolder.newFile()
+        snapshot.writeTo(file)
+        file.writeBytes(file.readBytes().copyOf(file.length().toInt() / 2))
+
+        CodecCapabilitySnapshot.readFrom(file, FINGERPRINT)
+    }
+
+    @Test(expected = IOException::class)
+    fun `garbled element count throws`() {
+        val file = rootFolder.newFile()
+        snapshot.writeTo(file)
+        val bytes = file.readBytes()
+        // Encoder count: after the magic, the format version and the fingerprint
+        val countPosition = 4 + 4 + 2 + FINGERPRINT.toByteArray().size
+        ByteBuffer.wrap(bytes).putInt(countPosition, Int.MAX_VALUE)
+        file.writeBytes(bytes)
+
+        CodecCapabilitySnapshot.readFrom(file, FINGERPRINT)
+    }
+
+    @Test
+    fun `capabilities are found by encoder and mime type`() {
+        assertEquals("c2.video.encoder", snapshot.getDefaultEncoder("video/hevc"))
+        assertNull(snapshot.getDefaultEncoder("video/av01"))
+        assertEquals(listOf("video/avc", "video/hevc"), snapshot.getTypes("c2.video.encoder"))
+        assertNull(snapshot.getTypes("c2.unknown.encoder"))
+        assertEquals(
+            listOf(44_100, 48_000),
+            snapshot.getCapabilities("audio/mp4a-latm", "c2.audio.encoder")?.audio?.sampleRates
+        )
+        assertNull(snapshot.getCapabilities("audio/opus", "c2.video.encoder"))
+    }
+
+    companion object {
+        private const val FINGERPRINT = "brand/product/device:14/AP1A/1234:user/release-keys"
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.encoders.mediacodec
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class FrameSizeStatsTest {
+    @Test
+    fun `statistics are published at the end of the window`() {
+        val stats = FrameSizeStats()
+
+        stats.add(1_000)
+        stats.add(3_000)
+        assertEquals(0, stats.meanInBytes)
+
+        stats.endWindow()
+        assertEquals(2_000, stats.meanInBytes)
+        assertEquals(1_000, stats.standardDeviationInBytes)
+        assertEquals(3_000, stats.maxInBytes)
+    }
+
+    @Test
+    fun `key frame burst raises the deviation`() {
+        val stats = FrameSizeStats()
+
+        repeat(30) { stats.add(5_000) }
+        stats.endWindow()
+        assertEquals(0, stats.standardDeviationInBytes)
+
+        stats.add(50_000)
+        repeat(29) { stats.add(5_000) }
+        stats.endWindow()
+        assertEquals(6_500, stats.meanInBytes)
+        assertEquals(8_078, stats.standardDeviationInBytes)
+        assertEquals(50_000, stats.maxInBytes)
+    }
+
+    @Test
+    fun `empty window publishes zeros`() {
+        val stats = FrameSizeStats()
+
+        stats.add(1_000)
+        stats.endWindow()
+        stats.endWindow()
+
+        assertEquals(0, stats.meanInBytes)
+        assertEquals(0, stats.maxInBytes)
+    }
+
+    @Test
+    fun `reset clears the window`() {
+        val stats = FrameSizeStats()
+
+        stats.add(1_000)
+        stats.endWindow()
+        stats.add(9_000)
+        stats.reset()
+        stats.add(2_000)
+        stats.endWindow()
+
+        assertEquals(2_000, stats.meanInBytes)
+        assertEquals(2_000, stats.maxInBytes)
+    }
+}
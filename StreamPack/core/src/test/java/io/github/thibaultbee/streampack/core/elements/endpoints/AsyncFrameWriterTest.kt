@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints
+
+import android.media.MediaFormat
+import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
+import io.github.thibaultbee.streampack.core.elements.utils.FakeFrames
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.random.Random
+
+class AsyncFrameWriterTest {
+    private val closedFrameCount = AtomicInteger(0)
+
+    private fun createFrame(size: Int = 1024, isKeyFrame: Boolean = true) = FrameWithCloseable(
+        FakeFrames.create(
+            MediaFormat.MIMETYPE_AUDIO_AAC,
+            buffer = ByteBuffer.wrap(Random.nextBytes(size)),
+            isKeyFrame = isKeyFrame
+        ),
+        { closedFrameCount.incrementAndGet() }
+    )
+
+    @Test
+    fun `frames are written in order`() = runBlocking {
+        val writtenTimestamps = Collections.synchronizedList(mutableListOf<Long>())
+        val writer = AsyncFrameWriter(AsyncWriteConfig(), "test") { closeableFrame, _ ->
+            writtenTimestamps.add(closeableFrame.frame.ptsInUs)
+            closeableFrame.close()
+        }
+
+        val frames = List(10) { createFrame() }
+        frames.forEach { writer.enqueue(it, 0) }
+        writer.flush()
+
+        assertEquals(frames.map { it.frame.ptsInUs }, writtenTimestamps)
+        assertEquals(10, closedFrameCount.get())
+        assertEquals(0, writer.metrics.queuedFrameCount)
+        assertEquals(0, writer.metrics.queuedSizeInBytes)
+        writer.release()
+    }
+
+    @Test
+    fun `frames above the held codec buffer count are copied`() = runBlocking {
+        val gate = CompletableDeferred<Unit>()
+        val writtenBuffers = Collections.synchronizedList(mutableListOf<ByteArray>())
+        val writer = AsyncFrameWriter(
+            AsyncWriteConfig(maxHeldCodecBuffers = 1),
+            "test"
+        ) { closeableFrame, _ ->
+            gate.await()
+            val buffer = closeableFrame.frame.rawBuffer
+            writtenBuffers.add(ByteArray(buffer.remaining()).apply { buffer.get(this) })
+            closeableFrame.close()
+        }
+
+        val frames = List(3) { createFrame(1024) }
+        val expectedBuffers = frames.map {
+            val buffer = it.frame.rawBuffer.duplicate()
+            ByteArray(buffer.remaining()).apply { buffer.get(this) }
+        }
+        frames.forEach { writer.enqueue(it, 0) }
+
+        // Only the first frame holds its buffer
+        assertEquals(2, closedFrameCount.get())
+        assertEquals(2, writer.metrics.copiedFrameCount)
+
+        gate.complete(Unit)
+        writer.flush()
+        assertEquals(3, closedFrameCount.get())
+        expectedBuffers.forEachIndexed { index, expected ->
+            assertArrayEquals(expected, writtenBuffers[index])
+        }
+        writer.release()
+    }
+
+    @Test
+    fun `small frames do not hold more codec buffers than allowed`() = runBlocking {
+        val gate = CompletableDeferred<Unit>()
+        val writer = AsyncFrameWriter(
+            AsyncWriteConfig(maxHeldCodecBuffers = 2),
+            "test"
+        ) { closeableFrame, _ ->
+            gate.await()
+            closeableFrame.close()
+        }
+
+        repeat(20) { writer.enqueue(createFrame(16), 0) }
+
+        assertEquals(18, closedFrameCount.get())
+        assertEquals(18, writer.metrics.copiedFrameCount)
+
+        gate.complete(Unit)
+        writer.flush()
+        assertEquals(20, closedFrameCount.get())
+        writer.release()
+    }
+
+    @Test
+    fun `full queue drops frames until next key frame`() = runBlocking {
+        val gate = CompletableDeferred<Unit>()
+        val writtenFrameCount = AtomicInteger(0)
+        val writer = AsyncFrameWriter(
+            AsyncWriteConfig(maxQueueSizeInBytes = 2048),
+            "test"
+        ) { closeableFrame, _ ->
+            gate.await()
+            writtenFrameCount.incrementAndGet()
+            closeableFrame.close()
+        }
+
+        writer.enqueue(createFrame(), 0)
+        writer.enqueue(createFrame(isKeyFrame = false), 0)
+        // Queue is full
+        writer.enqueue(createFrame(isKeyFrame = false), 0)
+        gate.complete(Unit)
+        writer.flush()
+
+        // Waiting for a key frame
+        writer.enqueue(createFrame(isKeyFrame = false), 0)
+        writer.enqueue(createFrame(isKeyFrame = true), 0)
+        writer.flush()
+
+        assertEquals(3, writtenFrameCount.get())
+        assertEquals(2, writer.metrics.droppedFrameCount)
+        assertEquals(5, closedFrameCount.get())
+        writer.release()
+    }
+}
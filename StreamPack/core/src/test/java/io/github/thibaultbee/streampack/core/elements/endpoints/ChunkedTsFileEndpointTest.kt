@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints
+
+import android.media.MediaCodecInfo
+import android.media.MediaFormat
+import androidx.core.net.toUri
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.UriMediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.packets.TS
+import io.github.thibaultbee.streampack.core.elements.utils.ChunkedFileOutputStream
+import io.github.thibaultbee.streampack.core.elements.utils.FakeFramesWithCloseable
+import io.github.thibaultbee.streampack.core.elements.utils.MockUtils
+import io.github.thibaultbee.streampack.core.elements.utils.StubLogger
+import io.github.thibaultbee.streampack.core.logger.Logger
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+class ChunkedTsFileEndpointTest {
+    @get:Rule
+    val rootFolder: TemporaryFolder = TemporaryFolder()
+
+    private val videoConfig = VideoCodecConfig(
+        mimeType = MediaFormat.MIMETYPE_VIDEO_AVC,
+        resolution = MockUtils.mockSize(1280, 720),
+        profile = MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline,
+        level = MediaCodecInfo.CodecProfileLevel.AVCLevel31
+    )
+
+    private val files = mutableListOf<Pair<Int, Boolean>>()
+    private val listener = object : ChunkedFileOutputStream.Listener {
+        override fun onFileAvailable(index: Int, isLast: Boolean, file: File) {
+            assertTrue(file.exists())
+            files.add(index to isLast)
+        }
+    }
+
+    init {
+        Logger.logger = StubLogger()
+    }
+
+    private suspend fun record(endpoint: ChunkedTsFileEndpoint, numOfFrames: Int) {
+        val file = File(rootFolder.newFolder(), "record.ts")
+        endpoint.addListener(listener)
+        endpoint.open(UriMediaDescriptor(file.toUri()))
+        val streamPid = endpoint.addStreams(listOf(videoConfig))[videoConfig]!!
+        endpoint.startStream()
+        repeat(numOfFrames) {
+            endpoint.write(
+                FakeFramesWithCloseable.create(
+                    MediaFormat.MIMETYPE_VIDEO_AVC,
+                    pts = it * 33_000L
+                ),
+                streamPid
+            )
+        }
+        endpoint.stopStream()
+        endpoint.close()
+    }
+
+    @Test
+    fun `completed files are reported in order`() = runTest {
+        val endpoint = ChunkedTsFileEndpoint(10 * TS.PACKET_SIZE, Dispatchers.IO)
+
+        record(endpoint, 20)
+
+        assertTrue(files.size > 1)
+        files.forEachIndexed { i, (index, isLast) ->
+            assertEquals(i, index)
+            assertEquals(i == files.lastIndex, isLast)
+        }
+        assertEquals(20L, endpoint.metrics.writtenFrameCount)
+        assertFalse(endpoint.metrics.writtenSizeInBytes == 0L)
+        endpoint.release()
+    }
+
+    @Test
+    fun `queued frames are written before the last file is completed`() = runTest {
+        val endpoint =
+            ChunkedTsFileEndpoint(10 * TS.PACKET_SIZE, Dispatchers.IO, AsyncWriteConfig())
+
+        record(endpoint, 20)
+
+        assertEquals(20L, endpoint.metrics.writtenFrameCount)
+        assertEquals(0L, endpoint.metrics.asyncWrite!!.droppedFrameCount)
+        assertTrue(files.last().second)
+        endpoint.release()
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints
+
+import android.media.MediaFormat
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
+import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
+import io.github.thibaultbee.streampack.core.elements.encoders.CodecConfig
+import io.github.thibaultbee.streampack.core.elements.utils.FakeFrames
+import io.github.thibaultbee.streampack.core.pipelines.utils.MultiThrowable
+import io.mockk.mockk
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeout
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class CombineEndpointTest {
+    private val closedFrameCount = AtomicInteger(0)
+
+    private fun createFrame(isKeyFrame: Boolean = true) = FrameWithCloseable(
+        FakeFrames.create(MediaFormat.MIMETYPE_AUDIO_AAC, isKeyFrame = isKeyFrame),
+        { closedFrameCount.incrementAndGet() }
+    )
+
+    private suspend fun CombineEndpoint.openAndAddStream(): Int {
+        open(
+            CombineEndpoint.CombineDescriptor(
+                endpoints.map { mockk<MediaDescriptor>(relaxed = true) })
+        )
+        return addStream(AudioCodecConfig(mimeType = MediaFormat.MIMETYPE_AUDIO_AAC))
+    }
+
+    /**
+     * Waits on a real dispatcher because endpoint writers run on [Dispatchers.Default].
+     */
+    private suspend fun waitUntil(condition: () -> Boolean) =
+        withContext(Dispatchers.Default) {
+            withTimeout(5_000) {
+                while (!condition()) {
+                    delay(10)
+                }
+            }
+        }
+
+    @Test
+    fun `frame is closed once all endpoints have written it`() = runTest {
+        val fastEndpoint = FakeEndpoint()
+        val slowEndpoint = FakeEndpoint(writeDelayInMs = 200)
+        val endpoint = CombineEndpoint(listOf(fastEndpoint, slowEndpoint), Dispatchers.Default)
+        val streamId = endpoint.openAndAddStream()
+
+        endpoint.write(createFrame(), streamId)
+
+        waitUntil { fastEndpoint.writtenFrameCount.get() == 1 }
+        assertEquals(0, closedFrameCount.get())
+        waitUntil { closedFrameCount.get() == 1 }
+        assertEquals(1, slowEndpoint.writtenFrameCount.get())
+        endpoint.release()
+    }
+
+    @Test
+    fun `slow endpoint does not delay other endpoints`() = runTest {
+        val fastEndpoint = FakeEndpoint()
+        val slowEndpoint = FakeEndpoint(writeDelayInMs = 1_000)
+        val endpoint = CombineEndpoint(listOf(fastEndpoint, slowEndpoint), Dispatchers.Default)
+        val streamId = endpoint.openAndAddStream()
+
+        repeat(5) {
+            endpoint.write(createFrame(), streamId)
+        }
+
+        waitUntil { fastEndpoint.writtenFrameCount.get() == 5 }
+        assertTrue(slowEndpoint.writtenFrameCount.get() < 5)
+        assertTrue(endpoint.metrics.first { it.endpoint == slowEndpoint }.queuedFrameCount > 0)
+        endpoint.release()
+    }
+
+    @Test
+    fun `full queue drops frames until next key frame`() = runTest {
+        val gate = CompletableDeferred<Unit>()
+        val blockedEndpoint = FakeEndpoint(gate = gate)
+        val endpoint =
+            CombineEndpoint(listOf(blockedEndpoint), Dispatchers.Default, queueCapacity = 2)
+        val streamId = endpoint.openAndAddStream()
+
+        // Taken by the writer that is blocked
+        endpoint.write(createFrame(), streamId)
+        waitUntil { endpoint.metrics.first().queuedFrameCount == 0 }
+
+        endpoint.write(createFrame(isKeyFrame = false), streamId)
+        endpoint.write(createFrame(isKeyFrame = false), streamId)
+        // Queue is full
+        endpoint.write(createFrame(isKeyFrame = false), streamId)
+        gate.complete(Unit)
+        waitUntil { blockedEndpoint.writtenFrameCount.get() == 3 }
+
+        // Waiting for a key frame
+        endpoint.write(createFrame(isKeyFrame = false), streamId)
+        endpoint.write(createFrame(isKeyFrame = true), streamId)
+        waitUntil { blockedEndpoint.writtenFrameCount.get() == 4 }
+
+        val metrics = endpoint.metrics.first()
+        assertEquals(2, metrics.droppedFrameCount)
+        assertEquals(4, metrics.writtenFrameCount)
+        waitUntil { closedFrameCount.get() == 6 }
+        endpoint.release()
+    }
+
+    @Test
+    fun `failing endpoint does not stop other endpoints`() = runTest {
+        val failingEndpoint = FakeEndpoint(throwOnWrite = true)
+        val workingEndpoint = FakeEndpoint()
+        val endpoint =
+            CombineEndpoint(listOf(failingEndpoint, workingEndpoint), Dispatchers.Default)
+        val streamId = endpoint.openAndAddStream()
+
+        repeat(3) {
+            endpoint.write(createFrame(), streamId)
+        }
+
+        waitUntil { workingEndpoint.writtenFrameCount.get() == 3 }
+        waitUntil { closedFrameCount.get() == 3 }
+        val failingMetrics = endpoint.metrics.first { it.endpoint == failingEndpoint }
+        assertTrue(failingMetrics.isDegraded)
+        assertEquals(3, failingMetrics.failedWriteCount)
+        assertFalse(endpoint.metrics.first { it.endpoint == workingEndpoint }.isDegraded)
+        endpoint.release()
+    }
+
+    @Test
+    fun `write throws once every endpoint failed`() = runTest {
+        val endpoint = CombineEndpoint(
+            listOf(FakeEndpoint(throwOnWrite = true), FakeEndpoint(throwOnWrite = true)),
+            Dispatchers.Default
+        )
+        val streamId = endpoint.openAndAddStream()
+
+        endpoint.write(createFrame(), streamId)
+        waitUntil { endpoint.metrics.all { it.isDegraded } }
+
+        try {
+            endpoint.write(createFrame(), streamId)
+            throw AssertionError("Exception expected")
+        } catch (_: MultiThrowable) {
+        }
+        waitUntil { closedFrameCount.get() == 2 }
+        endpoint.release()
+    }
+
+    @Test
+    fun `frame is dropped when no endpoint is opened`() = runTest {
+        val endpoint = CombineEndpoint(listOf(FakeEndpoint()), Dispatchers.Default)
+
+        endpoint.write(createFrame(), 0)
+
+        assertEquals(1, closedFrameCount.get())
+        endpoint.release()
+    }
+
+    @Test
+    fun `blocked endpoint does not hold the encoder buffers of a fast endpoint`() = runTest {
+        val gate = CompletableDeferred<Unit>()
+        val blockedEndpoint = FakeEndpoint(gate = gate)
+        val fastEndpoint = FakeEndpoint()
+        val endpoint = CombineEndpoint(
+            listOf(blockedEndpoint, fastEndpoint),
+            Dispatchers.Default,
+            maxHeldCodecBuffers = 2
+        )
+        val streamId = endpoint.openAndAddStream()
+
+        // Like an encoder, only produces a frame when one of its buffers is free
+        val codecBufferCount = 4
+        val frameCount = 20
+        repeat(frameCount) { i ->
+            waitUntil { i - closedFrameCount.get() < codecBufferCount }
+            endpoint.write(createFrame(), streamId)
+        }
+
+        waitUntil { fastEndpoint.writtenFrameCount.get() == frameCount }
+        assertEquals(0, blockedEndpoint.writtenFrameCount.get())
+        assertEquals(
+            frameCount - 2L,
+            endpoint.metrics.first { it.endpoint == blockedEndpoint }.copiedFrameCount
+        )
+
+        gate.complete(Unit)
+        waitUntil { blockedEndpoint.writtenFrameCount.get() == frameCount }
+        waitUntil { closedFrameCount.get() == frameCount }
+        endpoint.release()
+    }
+
+    @Test
+    fun `stop stream stops waiting for a key frame`() = runTest {
+        val gate = CompletableDeferred<Unit>()
+        val blockedEndpoint = FakeEndpoint(gate = gate)
+        val endpoint =
+            CombineEndpoint(listOf(blockedEndpoint), Dispatchers.Default, queueCapacity = 1)
+        val streamId = endpoint.openAndAddStream()
+
+        // Taken by the writer that is blocked
+        endpoint.write(createFrame(), streamId)
+        waitUntil { endpoint.metrics.first().queuedFrameCount == 0 }
+        endpoint.write(createFrame(isKeyFrame = false), streamId)
+        // Queue is full: waiting for a key frame
+        endpoint.write(createFrame(isKeyFrame = false), streamId)
+
+        endpoint.stopStream()
+        gate.complete(Unit)
+        val newStreamId =
+            endpoint.addStream(AudioCodecConfig(mimeType = MediaFormat.MIMETYPE_AUDIO_AAC))
+        endpoint.write(createFrame(isKeyFrame = false), newStreamId)
+
+        waitUntil { blockedEndpoint.writtenFrameCount.get() == 2 }
+        endpoint.release()
+    }
+
+    @Test
+    fun `open times out per endpoint`() = runTest {
+        val hangingEndpoint = FakeEndpoint(openDelayInMs = 60_000)
+        val workingEndpoint = FakeEndpoint()
+        val endpoint = CombineEndpoint(
+            listOf(hangingEndpoint, workingEndpoint),
+            Dispatchers.Default,
+            timeoutInMs = 100
+        )
+
+        withContext(Dispatchers.Default) {
+            endpoint.open(
+                CombineEndpoint.CombineDescriptor(
+                    listOf(mockk(relaxed = true), mockk(relaxed = true))
+                )
+            )
+        }
+
+        assertFalse(hangingEndpoint.isOpenFlow.value)
+        assertTrue(workingEndpoint.isOpenFlow.value)
+        endpoint.release()
+    }
+
+    @Test
+    fun `start stream only throws if all endpoints fail`() = runTest {
+        val endpoint = CombineEndpoint(
+            listOf(FakeEndpoint(throwOnStart = true), FakeEndpoint()),
+            Dispatchers.Default
+        )
+        endpoint.startStream()
+
+        val failingEndpoint = CombineEndpoint(
+            listOf(FakeEndpoint(throwOnStart = true)),
+            Dispatchers.Default
+        )
+        try {
+            failingEndpoint.startStream()
+            throw AssertionError("Exception expected")
+        } catch (_: IllegalStateException) {
+        }
+        endpoint.release()
+        failingEndpoint.release()
+    }
+
+    private class FakeEndpoint(
+        private val writeDelayInMs: Long = 0,
+        private val openDelayInMs: Long = 0,
+        private val throwOnWrite: Boolean = false,
+        private val throwOnStart: Boolean = false,
+        private val gate: CompletableDeferred<Unit>? = null
+    ) : IEndpointInternal {
+        val writtenFrameCount = AtomicInteger(0)
+        private var streamCount = 0
+
+        private val _isOpenFlow = MutableStateFlow(false)
+        override val isOpenFlow: StateFlow<Boolean> = _isOpenFlow.asStateFlow()
+
+        override val throwableFlow: StateFlow<Throwable?> = MutableStateFlow(null)
+
+        override val info: IEndpoint.IEndpointInfo = mockk()
+
+        override fun getInfo(type: MediaDescriptor.Type): IEndpoint.IEndpointInfo = info
+
+        override val metrics: Any = Unit
+
+        override suspend fun open(descriptor: MediaDescriptor) {
+            delay(openDelayInMs)
+            _isOpenFlow.value = true
+        }
+
+        override suspend fun write(closeableFrame: FrameWithCloseable, streamPid: Int) {
+            try {
+                gate?.await()
+                delay(writeDelayInMs)
+                if (throwOnWrite) {
+                    throw IllegalStateException("Write failed")
+                }
+                writtenFrameCount.incrementAndGet()
+            } finally {
+                closeableFrame.close()
+            }
+        }
+
+        override suspend fun addStreams(streamConfigs: List<CodecConfig>) =
+            streamConfigs.associateWith { addStream(it) }
+
+        override suspend fun addStream(streamConfig: CodecConfig) = streamCount++
+
+        override suspend fun startStream() {
+            if (throwOnStart) {
+                throw IllegalStateException("Start failed")
+            }
+        }
+
+        override suspend fun stopStream() {
+            streamCount = 0
+        }
+
+        override suspend fun close() {
+            _isOpenFlow.value = false
+        }
+    }
+}
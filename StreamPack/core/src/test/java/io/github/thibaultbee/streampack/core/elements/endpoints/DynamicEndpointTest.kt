@@ -52,6 +52,14 @@ class DynamicEndpointTest {
         dynamicEndpoint.close()
     }
 
+    @Test
+    fun `test open hls file descriptor`() = runTest {
+        val dynamicEndpoint = DynamicEndpoint(context, Dispatchers.Default, Dispatchers.IO)
+        dynamicEndpoint.open(DescriptorUtils.createFileDescriptor("dynamic.m3u8"))
+        assertTrue(dynamicEndpoint.isOpenFlow.value)
+        dynamicEndpoint.close()
+    }
+
     @Test
     fun `test open unknown file extension`() = runTest {
         val dynamicEndpoint = DynamicEndpoint(context, Dispatchers.Default, Dispatchers.IO)
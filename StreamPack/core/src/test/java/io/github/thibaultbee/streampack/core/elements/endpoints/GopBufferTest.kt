@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints
+
+import android.media.MediaFormat
+import io.github.thibaultbee.streampack.core.elements.utils.FakeFrames
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+class GopBufferTest {
+    private fun createVideoFrame(pts: Long, isKeyFrame: Boolean, size: Int = 1024) =
+        FakeFrames.create(
+            MediaFormat.MIMETYPE_VIDEO_AVC,
+            buffer = ByteBuffer.wrap(Random.nextBytes(size)),
+            pts = pts,
+            isKeyFrame = isKeyFrame
+        )
+
+    private fun GopBuffer.takeTimestamps(): List<Long> {
+        return takeFromKeyFrame().map {
+            it.closeableFrame.close()
+            it.closeableFrame.frame.ptsInUs
+        }
+    }
+
+    @Test
+    fun `buffer starts on the last key frame`() {
+        val buffer = GopBuffer(Long.MAX_VALUE)
+        listOf(true, false, false, true, false).forEachIndexed { index, isKeyFrame ->
+            buffer.add(createVideoFrame(index.toLong(), isKeyFrame), 0)
+        }
+
+        assertEquals(listOf(3L, 4L), buffer.takeTimestamps())
+        assertEquals(0, buffer.size)
+        assertEquals(0, buffer.sizeInBytes)
+        buffer.release()
+    }
+
+    @Test
+    fun `retention keeps the key frame before the retention duration`() {
+        val buffer = GopBuffer(Long.MAX_VALUE, retentionInUs = 100)
+        listOf(true, false, true, false, true, false).forEachIndexed { index, isKeyFrame ->
+            buffer.add(createVideoFrame(index * 50L, isKeyFrame), 0)
+        }
+
+        assertEquals(listOf(100L, 150L, 200L, 250L), buffer.takeTimestamps())
+        buffer.release()
+    }
+
+    @Test
+    fun `oldest GOPs are dropped above max size`() {
+        val buffer = GopBuffer(3000)
+        buffer.isRetentionPaused = true
+        listOf(true, false, true, false).forEachIndexed { index, isKeyFrame ->
+            buffer.add(createVideoFrame(index.toLong(), isKeyFrame), 0)
+        }
+
+        assertEquals(2048, buffer.sizeInBytes)
+        assertEquals(listOf(2L, 3L), buffer.takeTimestamps())
+        buffer.release()
+    }
+
+    @Test
+    fun `frames before the first key frame are dropped`() {
+        val buffer = GopBuffer(Long.MAX_VALUE)
+        listOf(false, false, true, false).forEachIndexed { index, isKeyFrame ->
+            buffer.add(createVideoFrame(index.toLong(), isKeyFrame), 0)
+        }
+
+        assertEquals(false, buffer.startsWithKeyFrame)
+        assertEquals(listOf(2L, 3L), buffer.takeTimestamps())
+        buffer.release()
+    }
+
+    @Test
+    fun `all frames are key frames without video`() {
+        val buffer = GopBuffer(Long.MAX_VALUE, retentionInUs = 10).apply { hasVideo = false }
+        repeat(5) {
+            buffer.add(createVideoFrame(it * 10L, false), 0)
+        }
+
+        assertEquals(listOf(30L, 40L), buffer.takeTimestamps())
+        buffer.release()
+    }
+
+    @Test
+    fun `buffered frames are copies`() {
+        val buffer = GopBuffer(Long.MAX_VALUE)
+        val frame = createVideoFrame(0, true)
+        val expected = frame.rawBuffer.duplicate().let { ByteArray(it.remaining()).apply { it.get(this) } }
+
+        buffer.add(frame, 3)
+        frame.rawBuffer.duplicate().put(ByteArray(frame.rawBuffer.remaining()))
+
+        val bufferedFrames = buffer.takeFromKeyFrame()
+        assertEquals(1, bufferedFrames.size)
+        assertEquals(3, bufferedFrames[0].streamId)
+        assertTrue(bufferedFrames[0].isVideo)
+        val rawBuffer = bufferedFrames[0].closeableFrame.frame.rawBuffer
+        assertArrayEquals(expected, ByteArray(rawBuffer.remaining()).apply { rawBuffer.get(this) })
+        bufferedFrames[0].closeableFrame.close()
+        buffer.release()
+    }
+}
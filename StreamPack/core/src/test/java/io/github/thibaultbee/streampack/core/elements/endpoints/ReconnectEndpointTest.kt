@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints
+
+import android.media.MediaFormat
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.data.FrameWithCloseable
+import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
+import io.github.thibaultbee.streampack.core.elements.encoders.CodecConfig
+import io.github.thibaultbee.streampack.core.elements.utils.FakeFrames
+import io.github.thibaultbee.streampack.core.elements.utils.StubLogger
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import io.github.thibaultbee.streampack.core.logger.Logger
+import io.mockk.mockk
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+
+class ReconnectEndpointTest {
+    private val closedFrameCount = AtomicInteger(0)
+    private val timeProvider = object : TimeProvider {
+        override fun uptimeNs() = 1_000_000_000L
+
+        override fun realtimeNs() = 1_000_000_000L
+    }
+
+    @Before
+    fun setUp() {
+        Logger.logger = StubLogger()
+    }
+
+    private fun createFrame(pts: Long) = FrameWithCloseable(
+        FakeFrames.create(MediaFormat.MIMETYPE_AUDIO_AAC, pts = pts, isKeyFrame = true),
+        { closedFrameCount.incrementAndGet() }
+    )
+
+    private suspend fun ReconnectEndpoint.openAndStart(): Int {
+        open(mockk<MediaDescriptor>(relaxed = true))
+        val streamId = addStream(AudioCodecConfig(mimeType = MediaFormat.MIMETYPE_AUDIO_AAC))
+        startStream()
+        return streamId
+    }
+
+    private suspend fun waitUntil(condition: () -> Boolean) =
+        withTimeout(5_000) {
+            while (!condition()) {
+                delay(10)
+            }
+        }
+
+    @Test
+    fun `stream resumes with rebased timestamps after a write error`() = runBlocking {
+        val fakeEndpoint = FakeEndpoint()
+        val endpoint = ReconnectEndpoint(
+            fakeEndpoint,
+            Dispatchers.Default,
+            timeProvider = timeProvider
+        )
+        val streamId = endpoint.openAndStart()
+
+        endpoint.write(createFrame(10), streamId)
+        fakeEndpoint.isWriteFailing = true
+        endpoint.write(createFrame(20), streamId)
+        assertTrue(endpoint.isReconnectingFlow.value)
+
+        waitUntil { !endpoint.isReconnectingFlow.value }
+        endpoint.write(createFrame(30), streamId)
+
+        assertEquals(2, fakeEndpoint.openCount.get())
+        assertEquals(listOf(10L, 1_000_000L, 1_000_010L), fakeEndpoint.writtenTimestamps)
+        assertEquals(3, closedFrameCount.get())
+        assertTrue(endpoint.isOpenFlow.value)
+        assertNull(endpoint.throwableFlow.value)
+        endpoint.release()
+    }
+
+    @Test
+    fun `endpoint is closed when reconnection is abandoned`() = runBlocking {
+        val fakeEndpoint = FakeEndpoint()
+        val endpoint = ReconnectEndpoint(
+            fakeEndpoint,
+            Dispatchers.Default,
+            ReconnectConfig(maxReconnectDurationInMs = 0),
+            timeProvider
+        )
+        val streamId = endpoint.openAndStart()
+
+        fakeEndpoint.isWriteFailing = true
+        fakeEndpoint.isOpenFailing = true
+        endpoint.write(createFrame(10), streamId)
+
+        waitUntil { !endpoint.isOpenFlow.value }
+        assertFalse(endpoint.isReconnectingFlow.value)
+        assertNotNull(endpoint.throwableFlow.value)
+        assertEquals(1, closedFrameCount.get())
+        endpoint.release()
+    }
+
+    @Test
+    fun `write error is thrown when reconnection is disabled`() = runBlocking {
+        val fakeEndpoint = FakeEndpoint()
+        val endpoint = ReconnectEndpoint(fakeEndpoint, Dispatchers.Default).apply {
+            isReconnectEnabled = false
+        }
+        val streamId = endpoint.openAndStart()
+
+        fakeEndpoint.isWriteFailing = true
+        try {
+            endpoint.write(createFrame(10), streamId)
+            fail("Write must fail")
+        } catch (_: IllegalStateException) {
+        }
+        assertFalse(endpoint.isReconnectingFlow.value)
+        assertEquals(1, fakeEndpoint.openCount.get())
+        endpoint.release()
+    }
+
+    @Test
+    fun `rejected connection is not reconnected`() = runBlocking {
+        val fakeEndpoint = FakeEndpoint()
+        val endpoint = ReconnectEndpoint(fakeEndpoint, Dispatchers.Default, timeProvider = timeProvider)
+        val streamId = endpoint.openAndStart()
+
+        fakeEndpoint.isWriteRejected = true
+        endpoint.write(createFrame(10), streamId)
+
+        waitUntil { !endpoint.isOpenFlow.value }
+        assertFalse(endpoint.isReconnectingFlow.value)
+        assertTrue(endpoint.throwableFlow.value is ConnectionRejectedException)
+        assertEquals(1, fakeEndpoint.openCount.get())
+        endpoint.release()
+    }
+
+    @Test
+    fun `reconnection is abandoned when the connection is rejected`() = runBlocking {
+        val fakeEndpoint = FakeEndpoint()
+        val endpoint = ReconnectEndpoint(fakeEndpoint, Dispatchers.Default, timeProvider = timeProvider)
+        val streamId = endpoint.openAndStart()
+
+        fakeEndpoint.isWriteFailing = true
+        fakeEndpoint.isOpenRejected = true
+        endpoint.write(createFrame(10), streamId)
+
+        // Default max reconnect duration is 30 s: the rejection must not be retried until then
+        waitUntil { !endpoint.isOpenFlow.value }
+        assertFalse(endpoint.isReconnectingFlow.value)
+        assertTrue(endpoint.throwableFlow.value is ConnectionRejectedException)
+        assertEquals(1, fakeEndpoint.openCount.get())
+        endpoint.release()
+    }
+
+    private class FakeEndpoint : IEndpointInternal {
+        val openCount = AtomicInteger(0)
+        val writtenTimestamps: MutableList<Long> = Collections.synchronizedList(mutableListOf())
+
+        /**
+         * Whether writes fail until the next [open].
+         */
+        @Volatile
+        var isWriteFailing = false
+
+        @Volatile
+        var isOpenFailing = false
+
+        @Volatile
+        var isOpenRejected = false
+
+        @Volatile
+        var isWriteRejected = false
+
+        private var streamCount = 0
+
+        private val _isOpenFlow = MutableStateFlow(false)
+        override val isOpenFlow: StateFlow<Boolean> = _isOpenFlow.asStateFlow()
+
+        override val throwableFlow: StateFlow<Throwable?> = MutableStateFlow(null)
+
+        override val info: IEndpoint.IEndpointInfo = mockk()
+
+        override fun getInfo(type: MediaDescriptor.Type): IEndpoint.IEndpointInfo = info
+
+        override val metrics: Any = Unit
+
+        override suspend fun open(descriptor: MediaDescriptor) {
+            if (isOpenRejected) {
+                throw ConnectionRejectedException("Open rejected")
+            }
+            if (isOpenFailing) {
+                throw IllegalStateException("Open failed")
+            }
+            openCount.incrementAndGet()
+            isWriteFailing = false
+            _isOpenFlow.value = true
+        }
+
+        override suspend fun write(closeableFrame: FrameWithCloseable, streamPid: Int) {
+            try {
+                if (isWriteRejected) {
+                    throw ConnectionRejectedException("Write rejected")
+                }
+                if (isWriteFailing) {
+                    throw IllegalStateException("Write failed")
+                }
+                writtenTimestamps.add(closeableFrame.frame.ptsInUs)
+            } finally {
+                closeableFrame.close()
+            }
+        }
+
+        override suspend fun addStreams(streamConfigs: List<CodecConfig>) =
+            streamConfigs.associateWith { addStream(it) }
+
+        override suspend fun addStream(streamConfig: CodecConfig) = streamCount++
+
+        override suspend fun startStream() = Unit
+
+        override suspend fun stopStream() = Unit
+
+        override suspend fun close() {
+            _isOpenFlow.value = false
+        }
+    }
+}
@@ -19,7 +19,10 @@ import android.media.MediaCodecInfo
 import android.media.MediaFormat
 import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
 import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.data.Packet
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.IMuxerInternal
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.utils.TSConst
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.utils.TsTimingSeiScanner
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.utils.Utils.createFakeServiceInfo
 import io.github.thibaultbee.streampack.core.elements.utils.FakeFramesWithCloseable
 import io.github.thibaultbee.streampack.core.elements.utils.MockUtils
@@ -239,6 +242,43 @@ class TsMuxerTest {
         )
     }
 
+    @Test
+    fun `timing SEI is only injected when enabled`() {
+        val config = VideoCodecConfig(
+            mimeType = MediaFormat.MIMETYPE_VIDEO_AVC,
+            resolution = MockUtils.mockSize(1280, 720),
+            profile = MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline,
+            level = MediaCodecInfo.CodecProfileLevel.AVCLevel31
+        )
+        val service = createFakeServiceInfo()
+        val packets = mutableListOf<ByteArray>()
+
+        val tsMux = TsMuxer().apply {
+            addService(service)
+            listener = object : IMuxerInternal.IMuxerListener {
+                override fun onOutputFrame(packet: Packet) {
+                    packets.add(ByteArray(packet.buffer.remaining()).apply { packet.buffer.get(this) })
+                }
+            }
+        }
+        val streamPid =
+            tsMux.addStreams(service, listOf(config))[config]!!
+        val scanner = TsTimingSeiScanner()
+
+        tsMux.write(
+            FakeFramesWithCloseable.create(mimeType = MediaFormat.MIMETYPE_VIDEO_AVC), streamPid
+        )
+        assertTrue(packets.flatMap { scanner.scan(it) }.isEmpty())
+
+        // Applies to the streams that are already added
+        packets.clear()
+        tsMux.isTimingSeiEnabled = true
+        tsMux.write(
+            FakeFramesWithCloseable.create(mimeType = MediaFormat.MIMETYPE_VIDEO_AVC), streamPid
+        )
+        assertEquals(1, packets.flatMap { scanner.scan(it) }.size)
+    }
+
     @Test
     fun `encode aac frame test`() {
         val config = AudioCodecConfig(mimeType = MediaFormat.MIMETYPE_AUDIO_AAC)
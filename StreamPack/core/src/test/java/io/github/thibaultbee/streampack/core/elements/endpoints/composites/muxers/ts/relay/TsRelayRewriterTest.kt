@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.relay
+
+import android.media.MediaCodecInfo
+import android.media.MediaFormat
+import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
+import io.github.thibaultbee.streampack.core.elements.encoders.CodecConfig
+import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.data.Packet
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.IMuxerInternal
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.TsMuxer
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.packets.TS
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.utils.Utils.createFakeServiceInfo
+import io.github.thibaultbee.streampack.core.elements.utils.FakeFramesWithCloseable
+import io.github.thibaultbee.streampack.core.elements.utils.MockUtils
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class TsRelayRewriterTest {
+    private val avcConfig = VideoCodecConfig(
+        mimeType = MediaFormat.MIMETYPE_VIDEO_AVC,
+        resolution = MockUtils.mockSize(1280, 720),
+        profile = MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline,
+        level = MediaCodecInfo.CodecProfileLevel.AVCLevel31
+    )
+    private val hevcConfig = VideoCodecConfig(
+        mimeType = MediaFormat.MIMETYPE_VIDEO_HEVC,
+        resolution = MockUtils.mockSize(1280, 720),
+        profile = MediaCodecInfo.CodecProfileLevel.HEVCProfileMain,
+        level = MediaCodecInfo.CodecProfileLevel.HEVCMainTierLevel31
+    )
+    private val aacConfig = AudioCodecConfig(mimeType = MediaFormat.MIMETYPE_AUDIO_AAC)
+
+    private val rewriter = TsRelayRewriter { 0L }
+    private val outputPackets = mutableListOf<ByteBuffer>()
+
+    /**
+     * Whether a relayed packet reaches the rewriter.
+     */
+    private var relayedPacketFilter: (ByteBuffer) -> Boolean = { true }
+
+    /**
+     * Muxer streams are video then audio.
+     */
+    private val muxer = FakeTsMuxer(listOf(avcConfig, aacConfig)) {
+        rewriter.processMuxerPackets(it)
+        output(it)
+    }
+
+    private fun createRelayedMuxer(configs: List<CodecConfig>) = FakeTsMuxer(configs) {
+        val buffer = filter(it, relayedPacketFilter)
+        rewriter.processRelayedPackets(buffer)
+        output(buffer)
+    }
+
+    private fun filter(buffer: ByteBuffer, keep: (ByteBuffer) -> Boolean): ByteBuffer {
+        val filteredBuffer = ByteBuffer.allocate(buffer.remaining())
+        while (buffer.hasRemaining()) {
+            val packet = ByteArray(TS.PACKET_SIZE)
+            buffer.get(packet)
+            if (keep(ByteBuffer.wrap(packet))) {
+                filteredBuffer.put(packet)
+            }
+        }
+        filteredBuffer.flip()
+        return filteredBuffer
+    }
+
+    private fun output(buffer: ByteBuffer) {
+        while (buffer.hasRemaining()) {
+            val packet = ByteArray(TS.PACKET_SIZE)
+            buffer.get(packet)
+            outputPackets.add(ByteBuffer.wrap(packet))
+        }
+    }
+
+    private fun outputPids() = outputPackets.map { TsPackets.getPid(it, 0) }.toSet()
+
+    private fun switchToRelay(relayedMuxer: FakeTsMuxer) {
+        muxer.writeVideo(isKeyFrame = true)
+        rewriter.requestMode(TsRelayMode.RELAY)
+        relayedMuxer.writeVideo(isKeyFrame = true)
+    }
+
+    @Test
+    fun `relayed streams replace muxer streams on relayed key frame`() {
+        // Audio then video: PIDs are swapped compared to the muxer
+        val relayedMuxer = createRelayedMuxer(listOf(aacConfig, avcConfig))
+
+        muxer.writeVideo(isKeyFrame = true)
+        rewriter.requestMode(TsRelayMode.RELAY)
+        assertEquals(TsRelayMode.SWITCHING_TO_RELAY, rewriter.mode)
+
+        outputPackets.clear()
+        relayedMuxer.writeAudio()
+        assertEquals(TsRelayMode.SWITCHING_TO_RELAY, rewriter.mode)
+        assertTrue(outputPackets.isEmpty())
+
+        relayedMuxer.writeVideo(isKeyFrame = true)
+        assertEquals(TsRelayMode.RELAY, rewriter.mode)
+        relayedMuxer.writeAudio()
+        assertEquals(setOf(muxer.videoPid, muxer.audioPid), outputPids())
+
+        // Only PSI of the muxer are written
+        outputPackets.clear()
+        muxer.writeVideo(isKeyFrame = true)
+        muxer.writeAudio()
+        assertTrue(outputPids().none { it == muxer.videoPid || it == muxer.audioPid })
+    }
+
+    @Test
+    fun `switch back to transcode on muxer key frame`() {
+        val relayedMuxer = createRelayedMuxer(listOf(avcConfig, aacConfig))
+        switchToRelay(relayedMuxer)
+        assertEquals(TsRelayMode.RELAY, rewriter.mode)
+
+        rewriter.requestMode(TsRelayMode.TRANSCODE)
+        assertEquals(TsRelayMode.SWITCHING_TO_TRANSCODE, rewriter.mode)
+
+        outputPackets.clear()
+        muxer.writeVideo(isKeyFrame = false)
+        assertTrue(outputPids().none { it == muxer.videoPid })
+        relayedMuxer.writeVideo(isKeyFrame = false)
+        assertTrue(outputPids().contains(muxer.videoPid))
+
+        outputPackets.clear()
+        muxer.writeVideo(isKeyFrame = true)
+        assertEquals(TsRelayMode.TRANSCODE, rewriter.mode)
+        assertTrue(outputPids().contains(muxer.videoPid))
+
+        outputPackets.clear()
+        relayedMuxer.writeVideo(isKeyFrame = true)
+        assertTrue(outputPackets.isEmpty())
+    }
+
+    @Test
+    fun `continuity counters are continuous across switches`() {
+        val relayedMuxer = createRelayedMuxer(listOf(avcConfig, aacConfig))
+        switchToRelay(relayedMuxer)
+        relayedMuxer.writeVideo(isKeyFrame = false)
+        relayedMuxer.writeAudio()
+        rewriter.requestMode(TsRelayMode.TRANSCODE)
+        muxer.writeVideo(isKeyFrame = true)
+        muxer.writeAudio()
+
+        val lastContinuityCounters = mutableMapOf<Int, Int>()
+        outputPackets.forEach { packet ->
+            val pid = TsPackets.getPid(packet, 0)
+            val continuityCounter = packet.get(3).toInt() and 0xF
+            lastContinuityCounters[pid]?.let {
+                assertEquals("Discontinuity on PID $pid", (it + 1) and 0xF, continuityCounter)
+            }
+            lastContinuityCounters[pid] = continuityCounter
+        }
+    }
+
+    @Test
+    fun `lost relayed packets resume on next relayed key frame`() {
+        val relayedMuxer = createRelayedMuxer(listOf(avcConfig, aacConfig))
+        switchToRelay(relayedMuxer)
+
+        // Drops the second packet of a video frame
+        var videoPacketCount = 0
+        relayedPacketFilter = { packet ->
+            (TsPackets.getPid(packet, 0) != relayedMuxer.videoPid) || (++videoPacketCount != 2)
+        }
+        relayedMuxer.writeVideo(isKeyFrame = false)
+        relayedPacketFilter = { true }
+
+        outputPackets.clear()
+        relayedMuxer.writeVideo(isKeyFrame = false)
+        assertTrue(outputPids().none { it == muxer.videoPid })
+        relayedMuxer.writeAudio()
+        assertTrue(outputPids().contains(muxer.audioPid))
+
+        outputPackets.clear()
+        relayedMuxer.writeVideo(isKeyFrame = true)
+        assertEquals(TsRelayMode.RELAY, rewriter.mode)
+        val videoPackets = outputPackets.filter { TsPackets.getPid(it, 0) == muxer.videoPid }
+        assertTrue(TsPackets.isDiscontinuity(videoPackets.first(), 0))
+        assertFalse(TsPackets.isDiscontinuity(videoPackets.last(), 0))
+    }
+
+    @Test
+    fun `notified packet loss resumes on next relayed key frame`() {
+        val relayedMuxer = createRelayedMuxer(listOf(avcConfig, aacConfig))
+        switchToRelay(relayedMuxer)
+
+        rewriter.onRelayedPacketsLost()
+        outputPackets.clear()
+        relayedMuxer.writeVideo(isKeyFrame = false)
+        assertTrue(outputPackets.isEmpty())
+
+        relayedMuxer.writeVideo(isKeyFrame = true)
+        assertTrue(outputPids().contains(muxer.videoPid))
+    }
+
+    @Test
+    fun `relayed timestamps follow muxer clock`() {
+        val relayedMuxer = createRelayedMuxer(listOf(avcConfig, aacConfig))
+        muxer.writeVideo(isKeyFrame = true)
+        val muxerPcrBase = outputPackets.firstNotNullOf { TsPackets.getPcrBase(it, 0) }
+
+        outputPackets.clear()
+        rewriter.requestMode(TsRelayMode.RELAY)
+        relayedMuxer.writeVideo(isKeyFrame = true)
+
+        // The clock does not move: the first relayed PCR is the last muxer PCR
+        assertEquals(muxerPcrBase, outputPackets.firstNotNullOf { TsPackets.getPcrBase(it, 0) })
+    }
+
+    @Test
+    fun `incompatible relayed streams are not relayed`() {
+        val relayedMuxer = createRelayedMuxer(listOf(hevcConfig, aacConfig))
+        muxer.writeVideo(isKeyFrame = true)
+        rewriter.requestMode(TsRelayMode.RELAY)
+
+        outputPackets.clear()
+        relayedMuxer.writeVideo(isKeyFrame = true)
+        assertEquals(TsRelayMode.TRANSCODE, rewriter.mode)
+        assertTrue(outputPackets.isEmpty())
+    }
+
+    private class FakeTsMuxer(
+        configs: List<CodecConfig>,
+        onPackets: (ByteBuffer) -> Unit
+    ) {
+        private val muxer = TsMuxer()
+        private val pids: Map<CodecConfig, Int>
+        private var ptsInUs = 1_000_000L
+
+        init {
+            val service = createFakeServiceInfo()
+            muxer.listener = object : IMuxerInternal.IMuxerListener {
+                override fun onOutputFrame(packet: Packet) {
+                    val buffer = ByteBuffer.allocate(packet.buffer.remaining())
+                    buffer.put(packet.buffer)
+                    buffer.flip()
+                    onPackets(buffer)
+                }
+            }
+            muxer.addService(service)
+            pids = muxer.addStreams(service, configs)
+            muxer.startStream()
+        }
+
+        val videoPid: Int
+            get() = pids.entries.first { it.key is VideoCodecConfig }.value
+
+        val audioPid: Int
+            get() = pids.entries.first { it.key is AudioCodecConfig }.value
+
+        fun writeVideo(isKeyFrame: Boolean) {
+            val config = pids.keys.first { it is VideoCodecConfig }
+            ptsInUs += 33_333
+            muxer.write(
+                FakeFramesWithCloseable.create(
+                    mimeType = config.mimeType,
+                    pts = ptsInUs,
+                    isKeyFrame = isKeyFrame
+                ),
+                videoPid
+            )
+        }
+
+        fun writeAudio() {
+            ptsInUs += 21_333
+            muxer.write(
+                FakeFramesWithCloseable.create(
+                    mimeType = MediaFormat.MIMETYPE_AUDIO_AAC,
+                    pts = ptsInUs
+                ),
+                audioPid
+            )
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.utils
+
+import android.media.MediaFormat
+import io.github.thibaultbee.streampack.core.elements.utils.av.video.TimingSei
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class TsTimingSeiScannerTest {
+    private val timingSei = TimingSei(1_735_689_600_123_456, 3)
+    private val nalUnit = timingSei.toByteBuffer(MediaFormat.MIMETYPE_VIDEO_AVC).let {
+        ByteArray(it.remaining()).apply { it.get(this) }
+    }
+
+    @Test
+    fun `timing SEI in a packet is found`() {
+        val scanner = TsTimingSeiScanner()
+        val packet = createPacket(VIDEO_PID, ByteArray(20) + nalUnit)
+
+        assertEquals(listOf(timingSei), scanner.scan(packet))
+    }
+
+    @Test
+    fun `timing SEI split over two packets is found once`() {
+        val scanner = TsTimingSeiScanner()
+        // The UUID is cut in the middle
+        val payload = ByteArray(TS_PAYLOAD_SIZE - 12) + nalUnit + ByteArray(100)
+        val packets = createPacket(VIDEO_PID, payload.copyOf(TS_PAYLOAD_SIZE)) +
+                createPacket(AUDIO_PID, ByteArray(TS_PAYLOAD_SIZE) { 0x55 }) +
+                createPacket(VIDEO_PID, payload.copyOfRange(TS_PAYLOAD_SIZE, payload.size))
+
+        assertEquals(listOf(timingSei), scanner.scan(packets))
+        assertTrue(scanner.scan(createPacket(VIDEO_PID, ByteArray(10))).isEmpty())
+    }
+
+    @Test
+    fun `timing SEI split over two calls is found`() {
+        val scanner = TsTimingSeiScanner()
+        val payload = ByteArray(TS_PAYLOAD_SIZE - 20) + nalUnit + ByteArray(100)
+
+        assertTrue(scanner.scan(createPacket(VIDEO_PID, payload.copyOf(TS_PAYLOAD_SIZE))).isEmpty())
+        assertEquals(
+            listOf(timingSei),
+            scanner.scan(createPacket(VIDEO_PID, payload.copyOfRange(TS_PAYLOAD_SIZE, payload.size)))
+        )
+    }
+
+    @Test
+    fun `timing SEI split over two PIDs is not found`() {
+        val scanner = TsTimingSeiScanner()
+        val payload = ByteArray(TS_PAYLOAD_SIZE - 12) + nalUnit + ByteArray(100)
+        val packets = createPacket(VIDEO_PID, payload.copyOf(TS_PAYLOAD_SIZE)) +
+                createPacket(AUDIO_PID, payload.copyOfRange(TS_PAYLOAD_SIZE, payload.size))
+
+        assertTrue(scanner.scan(packets).isEmpty())
+    }
+
+    /**
+     * Creates a packet with a payload only. The payload is padded with 0xFF.
+     */
+    private fun createPacket(pid: Int, payload: ByteArray): ByteArray {
+        require(payload.size <= TS_PAYLOAD_SIZE)
+        val packet = ByteArray(188) { 0xFF.toByte() }
+        packet[0] = 0x47
+        packet[1] = (pid shr 8).toByte()
+        packet[2] = pid.toByte()
+        packet[3] = 0x10
+        payload.copyInto(packet, 4)
+        return packet
+    }
+
+    companion object {
+        private const val TS_PAYLOAD_SIZE = 184
+        private const val VIDEO_PID = 0x100
+        private const val AUDIO_PID = 0x101
+    }
+}
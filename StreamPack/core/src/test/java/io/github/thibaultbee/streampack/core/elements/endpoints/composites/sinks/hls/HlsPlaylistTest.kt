@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.hls
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class HlsPlaylistTest {
+    @Test
+    fun `playlist lists segments and partial segments`() {
+        val playlist = HlsPlaylist(4_000_000, 1_000_000)
+        playlist.startSegment("live_0.ts", 0)
+        playlist.addPart(HlsPlaylist.Part(1_000_000, 0, 1000, true))
+        playlist.addPart(HlsPlaylist.Part(1_000_000, 1000, 500, false))
+        playlist.endSegment(2_000_000)
+        playlist.startSegment("live_1.ts", 2_000)
+        playlist.addPart(HlsPlaylist.Part(500_000, 0, 300, true))
+
+        assertEquals(
+            """
+            #EXTM3U
+            #EXT-X-VERSION:6
+            #EXT-X-TARGETDURATION:4
+            #EXT-X-PLAYLIST-TYPE:EVENT
+            #EXT-X-SERVER-CONTROL:PART-HOLD-BACK=3.000
+            #EXT-X-PART-INF:PART-TARGET=1.000
+            #EXT-X-MEDIA-SEQUENCE:0
+            #EXT-X-PROGRAM-DATE-TIME:1970-01-01T00:00:00.000Z
+            #EXT-X-PART:DURATION=1.000,URI="live_0.ts",BYTERANGE="1000@0",INDEPENDENT=YES
+            #EXT-X-PART:DURATION=1.000,URI="live_0.ts",BYTERANGE="500@1000"
+            #EXTINF:2.000,
+            live_0.ts
+            #EXT-X-PROGRAM-DATE-TIME:1970-01-01T00:00:02.000Z
+            #EXT-X-PART:DURATION=0.500,URI="live_1.ts",BYTERANGE="300@0",INDEPENDENT=YES
+
+            """.trimIndent(),
+            playlist.toM3u8()
+        )
+    }
+
+    @Test
+    fun `window removes the oldest segments`() {
+        val playlist = HlsPlaylist(1_000_000, windowSize = 2)
+        val removedSegments = (0 until 3).flatMap {
+            playlist.startSegment("live_$it.ts")
+            playlist.endSegment(1_000_000)
+        }
+
+        assertEquals(listOf("live_0.ts"), removedSegments.map { it.uri })
+        assertEquals(1, playlist.mediaSequenceNumber)
+        assertEquals(listOf(1L, 2L), playlist.completedSegments.map { it.sequenceNumber })
+        val m3u8 = playlist.toM3u8()
+        assertTrue(m3u8.contains("#EXT-X-VERSION:3\n"))
+        assertTrue(m3u8.contains("#EXT-X-MEDIA-SEQUENCE:1\n"))
+        assertFalse(m3u8.contains("live_0.ts"))
+        assertFalse(m3u8.contains("#EXT-X-PLAYLIST-TYPE"))
+        assertFalse(m3u8.contains("#EXT-X-PART"))
+    }
+
+    @Test
+    fun `partial segments are only listed for the last target durations`() {
+        val playlist = HlsPlaylist(1_000_000, 500_000)
+        repeat(5) {
+            playlist.startSegment("live_$it.ts")
+            playlist.addPart(HlsPlaylist.Part(500_000, 0, 100, true))
+            playlist.addPart(HlsPlaylist.Part(500_000, 100, 100, false))
+            playlist.endSegment(1_000_000)
+        }
+
+        val m3u8 = playlist.toM3u8()
+        assertFalse(m3u8.contains("URI=\"live_0.ts\""))
+        assertFalse(m3u8.contains("URI=\"live_1.ts\""))
+        (2 until 5).forEach {
+            assertTrue(m3u8.contains("URI=\"live_$it.ts\""))
+        }
+        (0 until 5).forEach {
+            assertTrue(m3u8.contains("\nlive_$it.ts\n"))
+        }
+    }
+
+    @Test
+    fun `target duration is rounded up and never changes`() {
+        val playlist = HlsPlaylist(2_500_000)
+        assertTrue(playlist.toM3u8().contains("#EXT-X-TARGETDURATION:3\n"))
+
+        playlist.startSegment("live_0.ts")
+        playlist.endSegment(1_000_000)
+        playlist.startSegment("live_1.ts")
+        playlist.endSegment(3_000_000)
+
+        assertEquals(3, playlist.targetDurationInS)
+        assertTrue(playlist.toM3u8().contains("#EXT-X-TARGETDURATION:3\n"))
+    }
+
+    @Test
+    fun `ended playlist has an end tag`() {
+        val playlist = HlsPlaylist(2_000_000)
+        playlist.startSegment("live_0.ts")
+        playlist.endSegment(2_000_000)
+        playlist.end()
+
+        assertTrue(playlist.isEnded)
+        assertTrue(playlist.toM3u8().endsWith("live_0.ts\n#EXT-X-ENDLIST\n"))
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun `segment can not be started after the end`() {
+        val playlist = HlsPlaylist(2_000_000)
+        playlist.end()
+        playlist.startSegment("live_0.ts")
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun `segment can not be started before the current segment ends`() {
+        val playlist = HlsPlaylist(2_000_000)
+        playlist.startSegment("live_0.ts")
+        playlist.startSegment("live_1.ts")
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.hls
+
+import androidx.core.net.toUri
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.UriMediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.data.Packet
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.SinkConfiguration
+import io.github.thibaultbee.streampack.core.elements.utils.StubLogger
+import io.github.thibaultbee.streampack.core.logger.Logger
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.nio.ByteBuffer
+
+@RunWith(RobolectricTestRunner::class)
+class HlsSinkTest {
+    @get:Rule
+    val rootFolder: TemporaryFolder = TemporaryFolder()
+
+    init {
+        Logger.logger = StubLogger()
+    }
+
+    private val playlistFile: File
+        get() = File(rootFolder.root, "live.m3u8")
+
+    private suspend fun HlsSink.writeVideo(
+        numOfFrames: Int,
+        keyFrameInterval: Int = 30,
+        videoConfig: VideoCodecConfig = VideoCodecConfig()
+    ) {
+        open(UriMediaDescriptor(playlistFile.toUri()))
+        configure(SinkConfiguration(listOf(videoConfig)))
+        startStream()
+        // 30 fps with a key frame every second by default
+        repeat(numOfFrames) {
+            val ptsInUs = it * 1_000_000L / 30
+            prepareFrame(ptsInUs, true, it % keyFrameInterval == 0)
+            write(Packet(ByteBuffer.wrap(ByteArray(PACKET_SIZE) { _ -> it.toByte() }), ptsInUs))
+        }
+        stopStream()
+    }
+
+    @Test
+    fun `segments are cut on key frames`() = runTest {
+        val sink = HlsSink(
+            Dispatchers.IO,
+            HlsConfig(segmentDurationInUs = 1_000_000, partDurationInUs = 500_000),
+            wallClockInMs = { 0 }
+        )
+        sink.writeVideo(75)
+
+        val segmentFiles = (0 until 3).map { File(rootFolder.root, "live_$it.ts") }
+        assertEquals(
+            listOf(30 * PACKET_SIZE, 30 * PACKET_SIZE, 15 * PACKET_SIZE).map { it.toLong() },
+            segmentFiles.map { it.length() }
+        )
+        assertEquals(30.toByte(), segmentFiles[1].readBytes().first())
+        assertFalse(File(rootFolder.root, "live_3.ts").exists())
+
+        val m3u8 = playlistFile.readText()
+        assertTrue(m3u8.contains("#EXTINF:1.000,\nlive_0.ts\n#EXT-X-PROGRAM-DATE-TIME"))
+        assertTrue(m3u8.contains("#EXTINF:1.000,\nlive_1.ts\n"))
+        assertTrue(m3u8.contains("#EXTINF:0.500,\nlive_2.ts\n#EXT-X-ENDLIST\n"))
+        assertTrue(
+            m3u8.contains(
+                "#EXT-X-PART:DURATION=0.500,URI=\"live_0.ts\",BYTERANGE=\"2820@0\",INDEPENDENT=YES\n" +
+                        "#EXT-X-PART:DURATION=0.500,URI=\"live_0.ts\",BYTERANGE=\"2820@2820\"\n"
+            )
+        )
+        assertFalse(File(rootFolder.root, "live.m3u8.tmp").exists())
+
+        sink.close()
+    }
+
+    @Test
+    fun `segments out of the window are deleted`() = runTest {
+        val sink = HlsSink(
+            Dispatchers.IO,
+            HlsConfig(segmentDurationInUs = 1_000_000, partDurationInUs = null, windowSize = 1)
+        )
+        sink.writeVideo(120)
+
+        assertFalse(File(rootFolder.root, "live_0.ts").exists())
+        assertFalse(File(rootFolder.root, "live_1.ts").exists())
+        // Removed from the playlist but kept for the players that loaded the previous playlist
+        assertTrue(File(rootFolder.root, "live_2.ts").exists())
+        assertTrue(File(rootFolder.root, "live_3.ts").exists())
+
+        val m3u8 = playlistFile.readText()
+        assertTrue(m3u8.contains("#EXT-X-MEDIA-SEQUENCE:3\n"))
+        assertFalse(m3u8.contains("live_2.ts"))
+        assertFalse(m3u8.contains("#EXT-X-PART"))
+
+        sink.close()
+    }
+
+    @Test
+    fun `target duration is derived from the GOP duration`() = runTest {
+        val sink = HlsSink(
+            Dispatchers.IO,
+            HlsConfig(segmentDurationInUs = 1_000_000, partDurationInUs = null)
+        )
+        // A key frame every 2 s
+        sink.writeVideo(
+            120,
+            keyFrameInterval = 60,
+            videoConfig = VideoCodecConfig(gopDurationInS = 2f)
+        )
+
+        val segmentFiles = (0 until 2).map { File(rootFolder.root, "live_$it.ts") }
+        assertEquals(
+            listOf(60 * PACKET_SIZE, 60 * PACKET_SIZE).map { it.toLong() },
+            segmentFiles.map { it.length() }
+        )
+
+        val m3u8 = playlistFile.readText()
+        assertTrue(m3u8.contains("#EXT-X-TARGETDURATION:3\n"))
+        assertTrue(m3u8.contains("#EXTINF:2.000,\nlive_0.ts\n"))
+        assertTrue(m3u8.contains("#EXTINF:2.000,\nlive_1.ts\n#EXT-X-ENDLIST\n"))
+
+        sink.close()
+    }
+
+    @Test
+    fun `segments are not cut without key frames`() = runTest {
+        val sink = HlsSink(
+            Dispatchers.IO,
+            HlsConfig(
+                segmentDurationInUs = 1_000_000,
+                partDurationInUs = null,
+                maxKeyFrameIntervalInUs = 1_000_000
+            )
+        )
+        // A key frame every 4 s
+        sink.writeVideo(120, keyFrameInterval = 120)
+
+        assertEquals(120L * PACKET_SIZE, File(rootFolder.root, "live_0.ts").length())
+        assertFalse(File(rootFolder.root, "live_1.ts").exists())
+
+        val m3u8 = playlistFile.readText()
+        assertTrue(m3u8.contains("#EXT-X-TARGETDURATION:2\n"))
+        assertTrue(m3u8.contains("#EXTINF:4.000,\nlive_0.ts\n#EXT-X-ENDLIST\n"))
+
+        sink.close()
+    }
+
+    @Test
+    fun `write before start throws`() = runTest {
+        val sink = HlsSink(Dispatchers.IO)
+        sink.open(UriMediaDescriptor(playlistFile.toUri()))
+        try {
+            sink.write(Packet(ByteBuffer.allocate(PACKET_SIZE), 0))
+            throw AssertionError("Write before start must throw")
+        } catch (_: IllegalArgumentException) {
+        } finally {
+            sink.close()
+        }
+    }
+
+    @Test
+    fun `stopStream only must not throw`() = runTest {
+        HlsSink(Dispatchers.IO).stopStream()
+    }
+
+    companion object {
+        private const val PACKET_SIZE = 188
+    }
+}
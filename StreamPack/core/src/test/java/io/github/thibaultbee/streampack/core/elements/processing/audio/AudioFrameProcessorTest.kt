@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.processing.audio
+
+import io.github.thibaultbee.streampack.core.elements.data.RawFrame
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class AudioFrameProcessorTest {
+    @Test
+    fun `mute fills a direct buffer with silence in place`() {
+        val processor = AudioFrameProcessor().apply { isMuted = true }
+        // Larger than the internal zero chunk
+        val buffer = ByteBuffer.allocateDirect(10_000)
+        repeat(buffer.capacity()) { buffer.put(it, 1) }
+        buffer.position(100)
+        buffer.limit(9_000)
+        val frame = RawFrame(buffer, 0)
+
+        val processedFrame = processor.processFrame(frame)
+
+        assertSame(frame, processedFrame)
+        assertEquals(100, buffer.position())
+        assertEquals(9_000, buffer.limit())
+        for (i in 0 until buffer.capacity()) {
+            val expected = if (i in 100 until 9_000) 0 else 1
+            assertEquals("Byte $i", expected.toByte(), buffer.get(i))
+        }
+    }
+
+    @Test
+    fun `levels are measured without moving the buffer`() {
+        var levels: AudioLevelData? = null
+        val processor = AudioFrameProcessor().apply {
+            channelCount = 2
+            audioLevelCallback = { levels = it }
+        }
+        val buffer = ByteBuffer.allocateDirect(400).order(ByteOrder.LITTLE_ENDIAN)
+        repeat(100) {
+            buffer.putShort(16384)
+            buffer.putShort(-32767)
+        }
+        buffer.flip()
+
+        processor.processFrame(RawFrame(buffer, 0))
+
+        assertEquals(0, buffer.position())
+        assertEquals(400, buffer.limit())
+        val measuredLevels = requireNotNull(levels)
+        assertEquals(0.5f, measuredLevels.peakLeft, 0.001f)
+        assertEquals(0.5f, measuredLevels.rmsLeft, 0.001f)
+        assertEquals(1f, measuredLevels.peakRight, 0.001f)
+        assertEquals(1f, measuredLevels.rmsRight, 0.001f)
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.sources.audio.mixer
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class AudioMixerTest {
+    @Test
+    fun `mix inputs with gain`() {
+        val mixer = AudioMixer(2)
+        mixer.configure(SAMPLE_RATE, 1, listOf(SAMPLE_RATE, SAMPLE_RATE), TARGET_LATENCY_IN_US)
+        mixer.inputs[1].gain = 0.5f
+        writeConstant(mixer.inputs[0], 1000, 1, 480)
+        writeConstant(mixer.inputs[1], 2000, 1, 480)
+
+        val output = mix(mixer, 100, 1)
+
+        output.forEach { assertEquals(2000, it.toInt()) }
+    }
+
+    @Test
+    fun `muted input is consumed but not mixed`() {
+        val mixer = AudioMixer(2)
+        mixer.configure(SAMPLE_RATE, 1, listOf(SAMPLE_RATE, SAMPLE_RATE), TARGET_LATENCY_IN_US)
+        mixer.inputs[1].isMuted = true
+        writeConstant(mixer.inputs[0], 1000, 1, 480)
+        writeConstant(mixer.inputs[1], 2000, 1, 480)
+        val latencyInUs = mixer.inputs[1].stats.latencyInUs
+
+        val output = mix(mixer, 100, 1)
+
+        output.forEach { assertEquals(1000, it.toInt()) }
+        assertTrue(mixer.inputs[1].stats.latencyInUs < latencyInUs)
+    }
+
+    @Test
+    fun `limiter keeps samples under threshold`() {
+        val mixer = AudioMixer(2)
+        mixer.configure(SAMPLE_RATE, 1, listOf(SAMPLE_RATE, SAMPLE_RATE), TARGET_LATENCY_IN_US)
+        writeConstant(mixer.inputs[0], 30000, 1, 480)
+        writeConstant(mixer.inputs[1], 30000, 1, 480)
+
+        val output = mix(mixer, 100, 1)
+
+        val threshold = AudioMixer.DEFAULT_LIMITER_THRESHOLD * Short.MAX_VALUE
+        output.forEach { assertEquals(threshold, it.toFloat(), 1f) }
+    }
+
+    @Test
+    fun `input outputs silence until it has buffered its target latency`() {
+        val mixer = AudioMixer(1)
+        mixer.configure(SAMPLE_RATE, 1, listOf(SAMPLE_RATE), TARGET_LATENCY_IN_US)
+        writeConstant(mixer.inputs[0], 1000, 1, 96)
+
+        val output = mix(mixer, 100, 1)
+
+        output.forEach { assertEquals(0, it.toInt()) }
+        assertEquals(0, mixer.inputs[0].stats.underrunCount)
+    }
+
+    @Test
+    fun `underrun outputs silence and is counted`() {
+        val mixer = AudioMixer(1)
+        mixer.configure(SAMPLE_RATE, 1, listOf(SAMPLE_RATE), TARGET_LATENCY_IN_US)
+        writeConstant(mixer.inputs[0], 1000, 1, 200)
+
+        mix(mixer, 100, 1).forEach { assertEquals(1000, it.toInt()) }
+        mix(mixer, 100, 1).forEach { assertEquals(0, it.toInt()) }
+        assertEquals(1, mixer.inputs[0].stats.underrunCount)
+    }
+
+    @Test
+    fun `stereo input is downmixed to mono`() {
+        val mixer = AudioMixer(1)
+        mixer.configure(SAMPLE_RATE, 1, listOf(SAMPLE_RATE), TARGET_LATENCY_IN_US)
+        repeat(10) {
+            mixer.inputs[0].write(pcm(48) { if (it % 2 == 0) 1000 else 3000 }, 2)
+        }
+
+        mix(mixer, 100, 1).forEach { assertEquals(2000, it.toInt()) }
+    }
+
+    @Test
+    fun `mono input is upmixed to stereo`() {
+        val mixer = AudioMixer(1)
+        mixer.configure(SAMPLE_RATE, 2, listOf(SAMPLE_RATE), TARGET_LATENCY_IN_US)
+        writeConstant(mixer.inputs[0], 1000, 1, 480)
+
+        mix(mixer, 100, 2).forEach { assertEquals(1000, it.toInt()) }
+    }
+
+    @Test
+    fun `input is resampled to the output sample rate`() {
+        val mixer = AudioMixer(1)
+        mixer.configure(SAMPLE_RATE, 1, listOf(SAMPLE_RATE / 2), TARGET_LATENCY_IN_US)
+        // A ramp of 10 per input sample
+        var value = 0
+        repeat(10) {
+            mixer.inputs[0].write(pcm(40) { value.also { value += 10 } }, 1)
+        }
+
+        val output = mix(mixer, 200, 1)
+
+        // Output is a ramp of 5 per output sample
+        for (i in 1 until output.size) {
+            val step = output[i] - output[i - 1]
+            assertTrue("Step $step at $i", step in 4..6)
+        }
+    }
+
+    @Test
+    fun `drifting inputs stay aligned`() {
+        val mixer = AudioMixer(2)
+        mixer.configure(SAMPLE_RATE, 1, listOf(SAMPLE_RATE, SAMPLE_RATE))
+        // One input is 1000 ppm faster, the other 1000 ppm slower than the output clock
+        val rates = doubleArrayOf(1.001, 0.999)
+        val writtenFrames = DoubleArray(2)
+        val writtenFrameCounts = LongArray(2)
+
+        // 60 s of audio
+        repeat(60 * SAMPLE_RATE / FRAME_COUNT) {
+            for (i in 0..1) {
+                writtenFrames[i] += FRAME_COUNT * rates[i]
+                val frameCount = (writtenFrames[i] - writtenFrameCounts[i]).toInt()
+                writeConstant(mixer.inputs[i], 1000, 1, frameCount)
+                writtenFrameCounts[i] += frameCount
+            }
+            mix(mixer, FRAME_COUNT, 1)
+        }
+
+        mixer.inputs.forEach {
+            val stats = it.stats
+            assertEquals(0, stats.underrunCount)
+            assertEquals(0, stats.droppedFrameCount)
+            // Latency is measured after the mix consumed a frame
+            assertTrue(
+                "Latency is ${stats.latencyInUs} us",
+                stats.latencyInUs in 1..AudioMixer.DEFAULT_TARGET_LATENCY_IN_US
+            )
+        }
+    }
+
+    private fun pcm(sampleCount: Int, sample: (Int) -> Int): ByteBuffer {
+        val buffer = ByteBuffer.allocate(sampleCount * 2).order(ByteOrder.LITTLE_ENDIAN)
+        for (i in 0 until sampleCount) {
+            buffer.putShort(sample(i).toShort())
+        }
+        buffer.flip()
+        return buffer
+    }
+
+    /**
+     * Writes in chunks of [CHUNK_FRAME_COUNT] frames.
+     */
+    private fun writeConstant(input: MixerInput, value: Int, channelCount: Int, frameCount: Int) {
+        var remaining = frameCount
+        while (remaining > 0) {
+            val chunkFrameCount = minOf(remaining, CHUNK_FRAME_COUNT)
+            input.write(pcm(chunkFrameCount * channelCount) { value }, channelCount)
+            remaining -= chunkFrameCount
+        }
+    }
+
+    private fun mix(mixer: AudioMixer, frameCount: Int, channelCount: Int): ShortArray {
+        val buffer = ByteBuffer.allocate(frameCount * channelCount * 2)
+        mixer.mix(buffer, frameCount)
+        assertEquals(0, buffer.position())
+        val samples = ShortArray(frameCount * channelCount)
+        buffer.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples)
+        return samples
+    }
+
+    companion object {
+        private const val SAMPLE_RATE = 48_000
+        private const val TARGET_LATENCY_IN_US = 1_000L
+        private const val CHUNK_FRAME_COUNT = 48
+        private const val FRAME_COUNT = 1024
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.sources.audio.mixer
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.concurrent.thread
+
+class PcmRingBufferTest {
+    @Test
+    fun `peek and skip wrap around`() {
+        val ringBuffer = PcmRingBuffer(4)
+        assertEquals(3, ringBuffer.write(shortArrayOf(1, 2, 3), 0, 3))
+        assertEquals(2, ringBuffer.skip(2))
+        assertEquals(3, ringBuffer.write(shortArrayOf(4, 5, 6), 0, 3))
+
+        val samples = ShortArray(4)
+        assertEquals(4, ringBuffer.peek(samples, 0, 4))
+        assertArrayEquals(shortArrayOf(3, 4, 5, 6), samples)
+        // Peek does not consume
+        assertEquals(4, ringBuffer.available)
+    }
+
+    @Test
+    fun `write drops samples when full`() {
+        val ringBuffer = PcmRingBuffer(4)
+        assertEquals(4, ringBuffer.write(shortArrayOf(1, 2, 3, 4, 5, 6), 0, 6))
+        assertEquals(0, ringBuffer.write(shortArrayOf(7), 0, 1))
+        assertEquals(4, ringBuffer.available)
+    }
+
+    @Test
+    fun `read more than available returns available samples`() {
+        val ringBuffer = PcmRingBuffer(8)
+        ringBuffer.write(shortArrayOf(1, 2), 0, 2)
+
+        val samples = ShortArray(4)
+        assertEquals(2, ringBuffer.peek(samples, 0, 4))
+        assertEquals(2, ringBuffer.skip(4))
+        assertEquals(0, ringBuffer.available)
+    }
+
+    @Test
+    fun `clear consumes all samples`() {
+        val ringBuffer = PcmRingBuffer(8)
+        ringBuffer.write(shortArrayOf(1, 2, 3), 0, 3)
+        ringBuffer.clear()
+        assertEquals(0, ringBuffer.available)
+    }
+
+    @Test
+    fun `concurrent producer and consumer keep sample order`() {
+        val ringBuffer = PcmRingBuffer(64)
+        val sampleCount = 100_000
+        val producer = thread {
+            val chunk = ShortArray(7)
+            var next = 0
+            while (next < sampleCount) {
+                val length = minOf(chunk.size, sampleCount - next)
+                for (i in 0 until length) {
+                    chunk[i] = (next + i).toShort()
+                }
+                next += ringBuffer.write(chunk, 0, length)
+            }
+        }
+
+        val chunk = ShortArray(5)
+        var expected = 0
+        while (expected < sampleCount) {
+            val count = ringBuffer.peek(chunk, 0, chunk.size)
+            for (i in 0 until count) {
+                assertEquals((expected + i).toShort(), chunk[i])
+            }
+            expected += ringBuffer.skip(count)
+        }
+        producer.join()
+    }
+}
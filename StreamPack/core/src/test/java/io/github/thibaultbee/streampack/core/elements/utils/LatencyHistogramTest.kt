@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class LatencyHistogramTest {
+    @Test
+    fun `record latencies in power of 2 buckets`() {
+        val histogram = LatencyHistogram(8)
+        histogram.record(0)
+        histogram.record(1)
+        histogram.record(3)
+        histogram.record(1_000_000)
+
+        val snapshot = histogram.snapshot()
+        assertEquals(4, snapshot.count)
+        assertEquals(1, snapshot.bucketCounts[0])
+        assertEquals(1, snapshot.bucketCounts[1])
+        assertEquals(1, snapshot.bucketCounts[2])
+        // Above the last bucket upper bound
+        assertEquals(1, snapshot.bucketCounts[7])
+        assertEquals(1_000_000, snapshot.maxInUs)
+        assertEquals(1_000_004 / 4, snapshot.meanInUs)
+    }
+
+    @Test
+    fun `negative latency is recorded as 0`() {
+        val histogram = LatencyHistogram()
+        histogram.record(-10)
+
+        val snapshot = histogram.snapshot()
+        assertEquals(1, snapshot.bucketCounts[0])
+        assertEquals(0, snapshot.sumInUs)
+    }
+
+    @Test
+    fun `percentile returns bucket upper bound`() {
+        val histogram = LatencyHistogram()
+        repeat(99) { histogram.record(100) }
+        histogram.record(5_000)
+
+        val snapshot = histogram.snapshot()
+        assertEquals(128, snapshot.getPercentileInUs(50f))
+        assertEquals(128, snapshot.getPercentileInUs(99f))
+        assertEquals(5_000, snapshot.getPercentileInUs(100f))
+    }
+
+    @Test
+    fun `empty histogram percentile is 0`() {
+        assertEquals(0, LatencyHistogram().snapshot().getPercentileInUs(99f))
+    }
+
+    @Test
+    fun `reset clears all counters`() {
+        val histogram = LatencyHistogram()
+        histogram.record(100)
+        histogram.reset()
+
+        val snapshot = histogram.snapshot()
+        assertEquals(0, snapshot.count)
+        assertEquals(0, snapshot.maxInUs)
+        assertEquals(0, snapshot.bucketCounts.sum())
+    }
+}
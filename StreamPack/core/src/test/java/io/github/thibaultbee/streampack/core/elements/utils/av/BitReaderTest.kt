@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.av
+
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBuffer
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitReader
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitWriter
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class BitReaderTest {
+    @Test
+    fun `read non aligned bits`() {
+        val reader = BitReader(ByteBuffer.wrap(byteArrayOf(0x01, 0x02, 0x03, 0x04)))
+
+        assertFalse(reader.getBoolean())
+        assertEquals(0x02, reader.getLong(8))
+        assertEquals(0x04, reader.getLong(8))
+        assertEquals(0x06, reader.getLong(8))
+        assertEquals(0x04, reader.getLong(7))
+        assertFalse(reader.hasRemaining)
+    }
+
+    @Test
+    fun `read over the cache`() {
+        val array = ByteArray(20) { (it * 37 + 11).toByte() }
+        val reader = BitReader(ByteBuffer.wrap(array))
+
+        assertEquals(array[0].toLong() and 0xFF, reader.getLong(8))
+        assertEquals(ByteBuffer.wrap(array, 1, 8).getLong(), reader.getLong(64))
+        reader.getLong(4)
+        val expected = ByteBuffer.wrap(array, 9, 8).getLong() shl 4 or
+                ((array[17].toLong() and 0xF0) ushr 4)
+        assertEquals(expected, reader.getLong(64))
+        assertEquals(20, reader.bitRemaining)
+    }
+
+    @Test
+    fun `read is independent of the buffer order`() {
+        val buffer = ByteBuffer.wrap(ByteArray(16) { it.toByte() }).order(ByteOrder.LITTLE_ENDIAN)
+        val reader = BitReader(buffer)
+
+        assertEquals(0x0001020304050607L, reader.getLong(64))
+        assertEquals(0, buffer.position())
+    }
+
+    @Test
+    fun `read limited bits`() {
+        val reader = BitReader(ByteBuffer.wrap(byteArrayOf(0x01, 0xFF.toByte())), 12)
+
+        assertEquals(12, reader.bitRemaining)
+        assertEquals(0x01F, reader.getLong(12))
+        try {
+            reader.getBoolean()
+            fail("Should throw exception")
+        } catch (t: Throwable) {
+            assertTrue(t is IllegalStateException)
+        }
+    }
+
+    @Test
+    fun `read from buffer position`() {
+        val buffer = ByteBuffer.wrap(byteArrayOf(0x00, 0x7F, 0x01))
+        buffer.position(1)
+        val reader = BitReader(buffer)
+
+        assertEquals(16, reader.bitRemaining)
+        assertEquals(0x7F01, reader.getInt(16))
+    }
+
+    @Test
+    fun `read Exp-Golomb codes`() {
+        // ue: 0 -> 1, 1 -> 010, 2 -> 011, 7 -> 0001000, se: -1 -> 011, 2 -> 00100
+        val reader = BitReader(ByteBuffer.wrap(byteArrayOf(0b10100110.toByte(), 0b00100001, 0b10010000.toByte())))
+
+        assertEquals(0, reader.readUE())
+        assertEquals(1, reader.readUE())
+        assertEquals(2, reader.readUE())
+        assertEquals(7, reader.readUE())
+        assertEquals(-1, reader.readSE())
+        assertEquals(2, reader.readSE())
+    }
+
+    @Test
+    fun `read long Exp-Golomb code over the cache`() {
+        // 50 bits of padding, then ue(2^20 + 4): 20 zeros, 1 and 20 bits of value 5
+        val buffer = ByteBuffer.allocate(16)
+        buffer.put(8, 0x02)
+        buffer.put(11, 0xA0.toByte())
+        val reader = BitReader(buffer)
+        reader.getLong(50)
+
+        assertEquals((1 shl 20) + 4, reader.readUE())
+        assertEquals(128 - 91, reader.bitRemaining)
+    }
+
+    @Test
+    fun `read same Exp-Golomb codes as BitBuffer`() {
+        val values = IntArray(1024) { (it * 7919) % 2048 }
+        val buffer = ByteBuffer.allocate(4096)
+        val writer = BitWriter(buffer)
+        values.forEach { writer.putUE(it) }
+        writer.flush()
+        val bitSize = buffer.position() * Byte.SIZE_BITS
+        buffer.rewind()
+
+        val bitBuffer = BitBuffer(buffer.duplicate())
+        val reader = BitReader(buffer.duplicate(), bitSize)
+        values.forEach {
+            assertEquals(it, bitBuffer.readUE())
+            assertEquals(it, reader.readUE())
+        }
+    }
+
+    @Test
+    fun `skip and align`() {
+        val reader = BitReader(ByteBuffer.wrap(ByteArray(32) { it.toByte() }))
+
+        reader.skip(3)
+        assertEquals(5, reader.align())
+        assertEquals(0, reader.align())
+        reader.skip(8 * 20)
+        assertEquals(21, reader.getInt(8))
+        assertEquals(8 * 22, reader.bitPosition)
+    }
+
+    /**
+     * The Exp-Golomb decoding that was used with [BitBuffer]: one read per leading zero.
+     */
+    private fun BitBuffer.readUE(): Int {
+        var leadingZeros = 0
+        while (!getBoolean()) {
+            leadingZeros++
+        }
+        return if (leadingZeros > 0) {
+            (1 shl leadingZeros) - 1 + getInt(leadingZeros)
+        } else {
+            0
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.av
+
+import android.media.AudioFormat
+import android.media.MediaFormat
+import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
+import io.github.thibaultbee.streampack.core.elements.utils.ResourcesUtils
+import io.github.thibaultbee.streampack.core.elements.utils.av.audio.AudioSpecificConfig
+import io.github.thibaultbee.streampack.core.elements.utils.av.audio.aac.LATMFrameWriter
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBuffer
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitReader
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitWriter
+import io.github.thibaultbee.streampack.core.elements.utils.av.video.hevc.SequenceParameterSets
+import org.junit.Ignore
+import org.junit.Test
+import java.nio.ByteBuffer
+
+/**
+ * Compares [BitBuffer] with [BitReader] and [BitWriter] on the hot paths: the LATM frame
+ * writing of the TS muxer and the parsing of parameter sets.
+ *
+ * Results are printed. It is ignored with the unit tests: run it manually. The outputs of both
+ * implementations are compared in [BitReaderTest] and [BitWriterTest].
+ */
+@Ignore("Benchmark")
+class BitReaderWriterBenchmark {
+    private val payload =
+        ResourcesUtils.readByteBuffer("test-samples/audio/latm/aac-lc-44100Hz-mono/frame.raw")
+
+    @Test
+    fun latmFrameWriting() {
+        val config = AudioCodecConfig(
+            mimeType = MediaFormat.MIMETYPE_AUDIO_AAC,
+            sampleRate = 44100,
+            channelConfig = AudioFormat.CHANNEL_IN_MONO,
+        )
+        val decoderSpecificInfo = AudioSpecificConfig.fromAudioConfig(config).toByteBuffer()
+
+        // An AudioMuxElement header of 45 bits puts the payload off the byte boundaries
+        val size = (45 + payload.remaining() * Byte.SIZE_BITS + 7) / Byte.SIZE_BITS
+        val (_, bitBufferTimeInNs) = measure {
+            val output = ByteBuffer.allocate(size)
+            val writer = BitBuffer(output)
+            writer.put(0x0A5A5A, 21)
+            writer.put(0xA5A5A5, 24)
+            writer.put(payload.duplicate())
+            output
+        }
+        val (_, bitWriterTimeInNs) = measure {
+            val output = ByteBuffer.allocate(size)
+            val writer = BitWriter(output)
+            writer.put(0x0A5A5A, 21)
+            writer.put(0xA5A5A5, 24)
+            writer.put(payload.duplicate())
+            writer.flush()
+            output
+        }
+
+        val (_, latmTimeInNs) = measure {
+            LATMFrameWriter.fromDecoderSpecificInfo(
+                payload.duplicate(),
+                decoderSpecificInfo.duplicate()
+            ).toByteBuffer()
+        }
+
+        println(
+            "LATM frame of ${payload.remaining()} bytes: BitBuffer ${bitBufferTimeInNs / 1000.0} us, " +
+                    "BitWriter ${bitWriterTimeInNs / 1000.0} us, LATMFrameWriter ${latmTimeInNs / 1000.0} us"
+        )
+    }
+
+    @Test
+    fun expGolombParsing() {
+        val values = IntArray(1024) { (it * 7919) % 2048 }
+        val buffer = ByteBuffer.allocate(4096)
+        val writer = BitWriter(buffer)
+        values.forEach { writer.putUE(it) }
+        writer.flush()
+        val bitSize = buffer.position() * Byte.SIZE_BITS
+        buffer.rewind()
+
+        val (_, bitBufferTimeInNs) = measure {
+            val reader = BitBuffer(buffer.duplicate())
+            var sum = 0L
+            repeat(values.size) {
+                sum += reader.readUE()
+            }
+            sum
+        }
+        val (_, bitReaderTimeInNs) = measure {
+            val reader = BitReader(buffer.duplicate(), bitSize)
+            var sum = 0L
+            repeat(values.size) {
+                sum += reader.readUE()
+            }
+            sum
+        }
+        val (_, spsTimeInNs) = measure {
+            SequenceParameterSets.parse(ByteBuffer.wrap(HEVC_SPS))
+        }
+
+        println(
+            "${values.size} Exp-Golomb codes: BitBuffer ${bitBufferTimeInNs / 1000.0} us, " +
+                    "BitReader ${bitReaderTimeInNs / 1000.0} us, HEVC SPS parsing ${spsTimeInNs / 1000.0} us"
+        )
+    }
+
+    /**
+     * The Exp-Golomb decoding that was used with [BitBuffer]: one read per leading zero.
+     */
+    private fun BitBuffer.readUE(): Int {
+        var leadingZeros = 0
+        while (!getBoolean()) {
+            leadingZeros++
+        }
+        return if (leadingZeros > 0) {
+            (1 shl leadingZeros) - 1 + getInt(leadingZeros)
+        } else {
+            0
+        }
+    }
+
+    /**
+     * Runs [block] [WARMUP_ITERATIONS] times, then [ITERATIONS] times.
+     *
+     * @return the last result and the mean duration of an iteration
+     */
+    private inline fun <T> measure(block: () -> T): Pair<T, Long> {
+        var result = block()
+        repeat(WARMUP_ITERATIONS) {
+            result = block()
+        }
+        val startTimeInNs = System.nanoTime()
+        repeat(ITERATIONS) {
+            result = block()
+        }
+        return Pair(result, (System.nanoTime() - startTimeInNs) / ITERATIONS)
+    }
+
+    companion object {
+        private const val WARMUP_ITERATIONS = 2000
+        private const val ITERATIONS = 2000
+
+        private val HEVC_SPS = byteArrayOf(
+            0x42, 0x01, 0x01, 0x01, 0x60, 0x00, 0x00, 0x03, 0x00, 0x80.toByte(), 0x00, 0x00, 0x03,
+            0x00, 0x00, 0x03, 0x00, 0x78, 0xA0.toByte(), 0x03, 0xC0.toByte(), 0x80.toByte(), 0x32,
+            0x16, 0x59, 0xDE.toByte(), 0x49, 0x1B, 0x6B, 0x80.toByte(), 0x40, 0x00, 0x00,
+            0xFA.toByte(), 0x00, 0x00, 0x17, 0x70, 0x02
+        )
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.av
+
+import io.github.thibaultbee.streampack.core.elements.utils.ResourcesUtils
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBuffer
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitBufferWriter
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitReader
+import io.github.thibaultbee.streampack.core.elements.utils.av.buffer.BitWriter
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class BitWriterTest {
+    @Test
+    fun `write non aligned bits`() {
+        val buffer = ByteBuffer.allocate(4)
+        val writer = BitWriter(buffer)
+        writer.put(false)
+        writer.put(0x02, 8)
+        writer.put(0x04, 8)
+        writer.put(0x06, 8)
+        writer.put(0x04, 7)
+        writer.flush()
+
+        assertArrayEquals(byteArrayOf(0x01, 0x02, 0x03, 0x04), buffer.array())
+        assertEquals(4, buffer.position())
+    }
+
+    @Test
+    fun `write only the lowest bits`() {
+        val buffer = ByteBuffer.allocate(1)
+        val writer = BitWriter(buffer)
+        writer.put(0xFF, 4)
+        writer.put(-1, 2)
+        writer.flush()
+
+        assertArrayEquals(byteArrayOf(0xFC.toByte()), buffer.array())
+    }
+
+    @Test
+    fun `write pads the last byte`() {
+        val buffer = ByteBuffer.wrap(byteArrayOf(0x00, 0x7F))
+        val writer = BitWriter(buffer)
+        writer.put(0xFF, 8)
+        writer.put(0x1, 1)
+        writer.flush()
+
+        assertArrayEquals(byteArrayOf(0xFF.toByte(), 0x80.toByte()), buffer.array())
+        assertEquals(2, buffer.position())
+    }
+
+    @Test
+    fun `write is independent of the buffer order`() {
+        val buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+        val writer = BitWriter(buffer)
+        writer.put(0x0001020304050607L, 64)
+        writer.flush()
+
+        assertArrayEquals(ByteArray(8) { it.toByte() }, buffer.array())
+    }
+
+    @Test
+    fun `write unaligned byte buffer`() {
+        val src = ByteArray(21) { (it * 13 + 5).toByte() }
+        val buffer = ByteBuffer.allocate(23)
+        val writer = BitWriter(buffer)
+        writer.put(0x5, 3)
+        writer.put(ByteBuffer.wrap(src))
+        writer.put(0x1F, 5)
+        writer.flush()
+
+        val reader = BitReader(ByteBuffer.wrap(buffer.array()))
+        assertEquals(0x5, reader.getInt(3))
+        src.forEach { assertEquals(it, reader.get(8)) }
+        assertEquals(0x1F, reader.getInt(5))
+    }
+
+    @Test
+    fun `write aligned byte buffer`() {
+        val buffer = ByteBuffer.allocate(5)
+        val writer = BitWriter(buffer)
+        writer.put(0x01, 8)
+        writer.put(ByteBuffer.wrap(byteArrayOf(0x02, 0x03, 0x04)))
+        writer.put(0x05, 8)
+        writer.flush()
+
+        assertArrayEquals(byteArrayOf(0x01, 0x02, 0x03, 0x04, 0x05), buffer.array())
+    }
+
+    @Test
+    fun `write limited bit reader`() {
+        val reader = BitReader(ByteBuffer.wrap(byteArrayOf(0x01, 0x02, 0x03, 0x07)), 30)
+        val buffer = ByteBuffer.allocate(4)
+        val writer = BitWriter(buffer)
+        writer.put(reader)
+        writer.flush()
+
+        assertArrayEquals(byteArrayOf(0x01, 0x02, 0x03, 0x04), buffer.array())
+    }
+
+    @Test
+    fun `write Exp-Golomb codes`() {
+        val buffer = ByteBuffer.allocate(32)
+        val writer = BitWriter(buffer)
+        val values = listOf(0L, 1L, 2L, 7L, 255L, 65_535L, 0xFFFFFFFEL)
+        values.forEach { writer.putUE(it) }
+        writer.putSE(-1)
+        writer.putSE(2)
+        writer.flush()
+
+        val reader = BitReader(ByteBuffer.wrap(buffer.array()))
+        values.forEach { assertEquals(it.toInt(), reader.readUE()) }
+        assertEquals(-1, reader.readSE())
+        assertEquals(2, reader.readSE())
+    }
+
+    @Test
+    fun `write same bits as BitBuffer`() {
+        val payload =
+            ResourcesUtils.readByteBuffer("test-samples/audio/latm/aac-lc-44100Hz-mono/frame.raw")
+        // An AudioMuxElement header of 45 bits puts the payload off the byte boundaries
+        val size = (45 + payload.remaining() * Byte.SIZE_BITS + 7) / Byte.SIZE_BITS
+
+        val bitBufferOutput = ByteBuffer.allocate(size)
+        val bitBuffer = BitBuffer(bitBufferOutput)
+        bitBuffer.put(0x0A5A5A, 21)
+        bitBuffer.put(0xA5A5A5, 24)
+        bitBuffer.put(payload.duplicate())
+
+        val bitWriterOutput = ByteBuffer.allocate(size)
+        val bitWriter = BitWriter(bitWriterOutput)
+        bitWriter.put(0x0A5A5A, 21)
+        bitWriter.put(0xA5A5A5, 24)
+        bitWriter.put(payload.duplicate())
+        bitWriter.flush()
+
+        assertArrayEquals(bitBufferOutput.array(), bitWriterOutput.array())
+    }
+
+    @Suppress("DEPRECATION")
+    @Test
+    fun `deprecated BitBuffer bridges write the same bits`() {
+        val bitBufferWriter = object : BitBufferWriter() {
+            override val bitSize = 13
+
+            override fun write(output: BitWriter) {
+                output.put(0x1ABC, 13)
+            }
+        }
+        val buffer = ByteBuffer.allocate(3)
+        val bitBuffer = BitBuffer(buffer)
+        bitBuffer.put(0x5, 3)
+        bitBufferWriter.write(bitBuffer)
+
+        assertArrayEquals(
+            byteArrayOf(0xBA.toByte(), 0xBC.toByte(), 0x00),
+            buffer.array()
+        )
+        assertEquals(0x1ABC, bitBufferWriter.toBitBuffer().getInt(13))
+    }
+
+    @Test
+    fun `write over limit`() {
+        val writer = BitWriter(ByteBuffer.allocate(2))
+        writer.put(0, 10)
+
+        try {
+            writer.put(0, 7)
+            fail("Should throw exception")
+        } catch (t: Throwable) {
+            assertTrue(t is IllegalStateException)
+        }
+    }
+}
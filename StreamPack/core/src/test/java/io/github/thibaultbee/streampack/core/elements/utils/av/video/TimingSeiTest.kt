@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.av.video
+
+import android.media.MediaFormat
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class TimingSeiTest {
+    @Test
+    fun `AVC timing SEI is found as written`() {
+        val timingSei = TimingSei(1_735_689_600_123_456, 42)
+        val nalUnit = timingSei.toByteBuffer(MediaFormat.MIMETYPE_VIDEO_AVC).toByteArray()
+
+        assertArrayEquals(byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x06, 0x05, 28), nalUnit.copyOf(7))
+        assertEquals(0x80.toByte(), nalUnit.last())
+        assertEquals(timingSei, TimingSei.find(nalUnit))
+    }
+
+    @Test
+    fun `HEVC timing SEI is found as written`() {
+        val timingSei = TimingSei(1_735_689_600_123_456, 7)
+        val nalUnit = timingSei.toByteBuffer(MediaFormat.MIMETYPE_VIDEO_HEVC).toByteArray()
+
+        assertArrayEquals(
+            byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x4E, 0x01, 0x05, 28),
+            nalUnit.copyOf(8)
+        )
+        assertEquals(timingSei, TimingSei.find(nalUnit))
+    }
+
+    @Test
+    fun `start code emulation is prevented`() {
+        // Contains 00 00 01 and 00 00 03 sequences
+        val timingSei = TimingSei(0x0000_0100_0000_0300L, 0)
+        val nalUnit = timingSei.toByteBuffer(MediaFormat.MIMETYPE_VIDEO_AVC).toByteArray()
+
+        val body = nalUnit.copyOfRange(4, nalUnit.size)
+        for (i in 0 until body.size - 2) {
+            assertFalse(
+                "Start code emulation at $i",
+                (body[i].toInt() == 0) && (body[i + 1].toInt() == 0) && (body[i + 2].toInt() in 0..2)
+            )
+        }
+        assertEquals(timingSei, TimingSei.find(nalUnit))
+    }
+
+    @Test
+    fun `timing SEI is found in an access unit`() {
+        val timingSei = TimingSei(1_735_689_600_000_000, 1)
+        val accessUnit = byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x09, 0xF0.toByte()) +
+                timingSei.toByteBuffer(MediaFormat.MIMETYPE_VIDEO_AVC).toByteArray() +
+                byteArrayOf(0x00, 0x00, 0x00, 0x01, 0x41, 0x9A.toByte(), 0x02)
+
+        assertEquals(timingSei, TimingSei.find(accessUnit))
+    }
+
+    @Test
+    fun `truncated timing SEI is not found`() {
+        val nalUnit = TimingSei(1_735_689_600_000_000, 1)
+            .toByteBuffer(MediaFormat.MIMETYPE_VIDEO_AVC).toByteArray()
+
+        assertNull(TimingSei.find(nalUnit, 0, nalUnit.size - 8))
+    }
+
+    @Test
+    fun `capture time is deduced from the frame timestamp`() {
+        val timeProvider = FakeTimeProvider(uptimeInUs = 10_000_000)
+        val injector = TimingSei.Injector(
+            MediaFormat.MIMETYPE_VIDEO_AVC,
+            timeProvider
+        ) { 1_735_689_600_000_000 }
+
+        val first = TimingSei.find(injector.create(9_900_000).toByteArray())
+        val second = TimingSei.find(injector.create(9_950_000).toByteArray())
+
+        // The frames were captured 100 ms and 50 ms ago
+        assertEquals(TimingSei(1_735_689_599_900_000, 0), first)
+        assertEquals(TimingSei(1_735_689_599_950_000, 1), second)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun `injector rejects unsupported mime types`() {
+        TimingSei.Injector(MediaFormat.MIMETYPE_VIDEO_VP9)
+    }
+
+    private fun java.nio.ByteBuffer.toByteArray() = ByteArray(remaining()).also { get(it) }
+
+    private class FakeTimeProvider(private val uptimeInUs: Long) : TimeProvider {
+        override fun uptimeNs() = uptimeInUs * 1000
+
+        override fun realtimeNs() = uptimeInUs * 1000
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.leak
+
+import io.github.thibaultbee.streampack.core.elements.utils.StubLogger
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
+import io.github.thibaultbee.streampack.core.elements.utils.pool.ByteBufferPool
+import io.github.thibaultbee.streampack.core.elements.utils.pool.RawFrameFactory
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import io.github.thibaultbee.streampack.core.logger.Logger
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class FrameLeakDetectorTest {
+    private val timeProvider = FakeTimeProvider()
+
+    @Before
+    fun setUp() {
+        Logger.logger = StubLogger()
+    }
+
+    @Test
+    fun `outstanding frames are counted until closed`() {
+        val detector = FrameLeakDetector(timeProvider)
+        val frameFactory = RawFrameFactory(ByteBufferPool(false), detector)
+
+        val frame1 = frameFactory.create(10, 0)
+        val frame2 = frameFactory.create(10, 0)
+        assertEquals(2, detector.getOutstandingCount(FrameKind.RAW))
+        assertEquals(0, detector.getOutstandingCount(FrameKind.ENCODED))
+
+        frame1.close()
+        frame2.close()
+        assertEquals(0, detector.getOutstandingCount(FrameKind.RAW))
+    }
+
+    @Test
+    fun `frame closed twice is released once`() {
+        val detector = FrameLeakDetector(timeProvider)
+
+        detector.acquire(FrameKind.RAW)
+        val lease = detector.acquire(FrameKind.RAW)
+        lease.release()
+        lease.release()
+
+        assertEquals(1, detector.getOutstandingCount(FrameKind.RAW))
+    }
+
+    @Test
+    fun `strict mode reports old frames once`() {
+        val detector = FrameLeakDetector(timeProvider).apply {
+            mode = FrameLeakDetector.Mode.STRICT
+            leakThresholdInMs = 1000
+        }
+
+        timeProvider.timeInUs = 0
+        detector.acquire(FrameKind.ENCODED)
+        timeProvider.timeInUs = 500_000
+        detector.acquire(FrameKind.RAW)
+        detector.acquire(FrameKind.RAW).release()
+
+        timeProvider.timeInUs = 1_200_000
+        val leaks = detector.report()
+        assertEquals(1, leaks.size)
+        assertEquals(FrameKind.ENCODED, leaks[0].kind)
+        assertEquals(1200, leaks[0].ageInMs)
+        assertTrue(leaks[0].allocationSite.stackTrace.any { it.methodName.contains("strict mode") })
+
+        assertTrue(detector.report().isEmpty())
+        assertEquals(2, detector.getLeaks(0).size)
+    }
+
+    @Test
+    fun `sampled mode tracks one frame per interval`() {
+        val detector = FrameLeakDetector(timeProvider).apply {
+            mode = FrameLeakDetector.Mode.SAMPLED
+            samplingInterval = 4
+        }
+
+        repeat(8) { detector.acquire(FrameKind.RAW) }
+
+        assertEquals(8, detector.getOutstandingCount(FrameKind.RAW))
+        assertEquals(2, detector.getLeaks(0).size)
+    }
+
+    @Test
+    fun `disabled mode does not count frames`() {
+        val detector = FrameLeakDetector(timeProvider).apply {
+            mode = FrameLeakDetector.Mode.DISABLED
+        }
+
+        detector.acquire(FrameKind.RAW).release()
+        detector.acquire(FrameKind.RAW)
+
+        assertEquals(0, detector.getOutstandingCount(FrameKind.RAW))
+        assertTrue(detector.getLeaks(0).isEmpty())
+    }
+
+    @Test
+    fun `metrics expose outstanding frames and leaks`() {
+        val detector = FrameLeakDetector(timeProvider).apply {
+            mode = FrameLeakDetector.Mode.STRICT
+        }
+        val registry = MetricsRegistry()
+        detector.registerMetrics(registry.child("frames"))
+
+        timeProvider.timeInUs = 0
+        detector.acquire(FrameKind.ENCODED)
+        timeProvider.timeInUs = 3_000_000
+        detector.report(2000)
+
+        val gauges = registry.snapshot(0).gauges
+        assertEquals(1.0, gauges.getValue("frames.encoded.outstanding"), 0.0)
+        assertEquals(0.0, gauges.getValue("frames.raw.outstanding"), 0.0)
+        assertEquals(3000.0, gauges.getValue("frames.oldest_age_ms"), 0.0)
+        assertEquals(1.0, gauges.getValue("frames.leaks"), 0.0)
+    }
+
+    private class FakeTimeProvider : TimeProvider {
+        var timeInUs = 0L
+
+        override fun uptimeNs() = timeInUs * 1000
+
+        override fun realtimeNs() = timeInUs * 1000
+    }
+}
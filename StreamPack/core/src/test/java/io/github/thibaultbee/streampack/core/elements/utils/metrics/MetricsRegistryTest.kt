@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.metrics
+
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+
+class MetricsRegistryTest {
+    @Test
+    fun `child registry prefixes names`() {
+        val registry = MetricsRegistry()
+        val child = registry.child("output0").child("video")
+
+        child.counter("frames").increment(3)
+        child.gauge("fps").set(29.97)
+        child.histogram("latency").record(1000)
+
+        val snapshot = registry.snapshot(0)
+        assertEquals(mapOf("output0.video.frames" to 3L), snapshot.counters)
+        assertEquals(mapOf("output0.video.fps" to 29.97), snapshot.gauges)
+        assertEquals(1, snapshot.histograms.getValue("output0.video.latency").count)
+    }
+
+    @Test
+    fun `metrics are shared by name`() {
+        val registry = MetricsRegistry()
+
+        assertSame(registry.counter("frames"), registry.counter("frames"))
+        assertSame(registry.child("a").counter("frames"), registry.counter("a.frames"))
+        try {
+            registry.gauge("frames")
+            fail("A counter can't be read as a gauge")
+        } catch (_: IllegalArgumentException) {
+        }
+    }
+
+    @Test
+    fun `gauges are read when sampled`() {
+        val registry = MetricsRegistry()
+        var value: Int? = null
+        registry.gauge("value") { value }
+        registry.gauge("failing") { throw IllegalStateException() }
+
+        assertTrue(registry.snapshot(0).gauges.isEmpty())
+        value = 42
+        assertEquals(mapOf("value" to 42.0), registry.snapshot(0).gauges)
+    }
+
+    @Test
+    fun `unregister all only removes the child metrics`() {
+        val registry = MetricsRegistry()
+        registry.counter("root")
+        val child = registry.child("child")
+        child.counter("a")
+        child.child("grandchild").counter("b")
+
+        child.unregisterAll()
+
+        assertEquals(setOf("root"), registry.snapshot(0).counters.keys)
+        assertTrue(child.snapshot(0).counters.isEmpty())
+    }
+
+    @Test
+    fun `line exporter writes compact lines`() {
+        val registry = MetricsRegistry()
+        registry.counter("bytes").increment(1024)
+        registry.gauge("fps").set(30.0)
+        registry.gauge("rtt").set(12.25)
+        registry.histogram("latency").apply {
+            record(3)
+            record(5)
+        }
+        val outputStream = ByteArrayOutputStream()
+
+        MetricsLineExporter(outputStream).use {
+            it.export(registry.snapshot(1234))
+        }
+
+        assertEquals(
+            "1234 bytes=1024 fps=30 rtt=12.25 latency=2/4/4/5/5\n",
+            outputStream.toString()
+        )
+    }
+
+    @Test
+    fun `sampler samples once per period`() = runTest {
+        val registry = MetricsRegistry()
+        var readCount = 0
+        registry.gauge("reads") { ++readCount }
+        val sampler = MetricsSampler(
+            registry,
+            StandardTestDispatcher(testScheduler),
+            1000,
+            FakeTimeProvider()
+        )
+
+        sampler.start()
+        sampler.start()
+        advanceTimeBy(2500)
+        runCurrent()
+        assertEquals(2, readCount)
+
+        sampler.stop()
+        assertFalse(sampler.isRunning)
+        // A last sample is emitted on stop
+        assertEquals(3, readCount)
+        assertEquals(3.0, sampler.snapshotFlow.replayCache.single().gauges.getValue("reads"), 0.0)
+
+        advanceTimeBy(2000)
+        runCurrent()
+        assertEquals(3, readCount)
+        sampler.release()
+    }
+
+    private class FakeTimeProvider : TimeProvider {
+        override fun uptimeNs() = 0L
+
+        override fun realtimeNs() = 0L
+    }
+}
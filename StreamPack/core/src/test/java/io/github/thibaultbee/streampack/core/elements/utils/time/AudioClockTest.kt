@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.time
+
+import io.github.thibaultbee.streampack.core.elements.utils.StubLogger
+import io.github.thibaultbee.streampack.core.logger.Logger
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.Random
+import kotlin.math.abs
+
+/**
+ * Simulates an audio device whose sample clock drifts from the system clock.
+ */
+class AudioClockTest {
+    private val timeProvider = FakeTimeProvider()
+
+    @Before
+    fun setUp() {
+        Logger.logger = StubLogger()
+    }
+
+    @Test
+    fun `timestamps follow anchors of a drifting device`() {
+        val device = SimulatedDevice(driftInPpm = 80.0)
+        val clock = AudioClock(SAMPLE_RATE, timeProvider)
+
+        val maxErrorInUs = device.run(clock, durationInS = 3600, warmUpInS = 30, withAnchors = true)
+
+        assertTrue("Max error is $maxErrorInUs us", maxErrorInUs < 1_000)
+        assertEquals(80.0, clock.driftInPpm, 5.0)
+    }
+
+    @Test
+    fun `timestamps follow anchors of a fast device`() {
+        val device = SimulatedDevice(driftInPpm = -300.0)
+        val clock = AudioClock(SAMPLE_RATE, timeProvider)
+
+        val maxErrorInUs = device.run(clock, durationInS = 600, warmUpInS = 30, withAnchors = true)
+
+        assertTrue("Max error is $maxErrorInUs us", maxErrorInUs < 1_000)
+        assertEquals(-300.0, clock.driftInPpm, 5.0)
+    }
+
+    @Test
+    fun `timestamps without anchors follow read time`() {
+        val device = SimulatedDevice(driftInPpm = 50.0, maxReadJitterInUs = 10_000)
+        val clock = AudioClock(SAMPLE_RATE, timeProvider)
+
+        val maxErrorInUs = device.run(clock, durationInS = 600, warmUpInS = 30, withAnchors = false)
+
+        // Timestamps are late by the read latency
+        assertTrue("Max error is $maxErrorInUs us", maxErrorInUs < 15_000)
+    }
+
+    @Test
+    fun `lost frames make the clock jump forward`() {
+        val device = SimulatedDevice(driftInPpm = 0.0, gapAtInS = 60, gapInUs = 500_000)
+        val clock = AudioClock(SAMPLE_RATE, timeProvider)
+
+        val maxErrorInUs = device.run(clock, durationInS = 120, warmUpInS = 10, withAnchors = true)
+
+        assertTrue("Max error is $maxErrorInUs us", maxErrorInUs < 1_000)
+    }
+
+    @Test
+    fun `timestamps never go backward`() {
+        val clock = AudioClock(SAMPLE_RATE, timeProvider)
+        timeProvider.nowInUs = 10_000_000
+
+        clock.onTimestamp(0, 9_000_000_000)
+        val first = clock.onFramesRead(FRAME_COUNT)
+        // Anchor 1 s earlier than the previous one
+        clock.onTimestamp(FRAME_COUNT.toLong(), 8_000_000_000)
+        timeProvider.nowInUs += FRAME_DURATION_IN_US
+        val second = clock.onFramesRead(FRAME_COUNT)
+
+        assertTrue(second > first)
+        assertEquals(
+            FRAME_DURATION_IN_US.toDouble(),
+            (second - first).toDouble(),
+            FRAME_DURATION_IN_US * AudioClock.MAX_SLEW_RATE + 1
+        )
+    }
+
+    @Test
+    fun `anchor in the future is ignored`() {
+        val clock = AudioClock(SAMPLE_RATE, timeProvider)
+        timeProvider.nowInUs = 10_000_000
+
+        val first = clock.onFramesRead(FRAME_COUNT)
+        // Device position has been reset
+        clock.onTimestamp(0, 10_010_000_000)
+        timeProvider.nowInUs += FRAME_DURATION_IN_US
+        val second = clock.onFramesRead(FRAME_COUNT)
+
+        assertEquals(
+            FRAME_DURATION_IN_US.toDouble(),
+            (second - first).toDouble(),
+            FRAME_DURATION_IN_US * AudioClock.MAX_SLEW_RATE + 1
+        )
+    }
+
+    @Test
+    fun `reset restarts the frame counter`() {
+        val clock = AudioClock(SAMPLE_RATE, timeProvider)
+        timeProvider.nowInUs = 10_000_000
+        clock.onFramesRead(FRAME_COUNT)
+        assertEquals(FRAME_COUNT.toLong(), clock.framesRead)
+
+        clock.reset()
+        assertEquals(0, clock.framesRead)
+
+        clock.onTimestamp(0, 20_000_000_000)
+        timeProvider.nowInUs = 30_000_000
+        assertEquals(20_000_000, clock.onFramesRead(FRAME_COUNT))
+    }
+
+    private class FakeTimeProvider : TimeProvider {
+        var nowInUs = 0L
+
+        override fun uptimeNs() = nowInUs * 1000
+
+        override fun realtimeNs() = nowInUs * 1000
+    }
+
+    /**
+     * An audio device that captures [SAMPLE_RATE] frames per second of its own clock.
+     *
+     * @param driftInPpm the drift of the device clock from the system clock
+     * @param maxReadJitterInUs the maximum scheduling delay of a read
+     * @param gapAtInS when frames are lost (overrun)
+     * @param gapInUs the duration of lost frames
+     */
+    private inner class SimulatedDevice(
+        private val driftInPpm: Double,
+        private val maxReadJitterInUs: Int = 2_000,
+        private val gapAtInS: Int = Int.MAX_VALUE,
+        private val gapInUs: Long = 0
+    ) {
+        private val random = Random(RANDOM_SEED)
+        private val startInUs = 1_000_000_000.0
+        private val frameDurationInUs = 1_000_000.0 / SAMPLE_RATE * (1 + driftInPpm / 1_000_000)
+
+        /**
+         * Frames are lost between two reads.
+         */
+        private val gapPosition =
+            if (gapAtInS == Int.MAX_VALUE) Long.MAX_VALUE else gapAtInS.toLong() * SAMPLE_RATE / FRAME_COUNT * FRAME_COUNT
+
+        /**
+         * Capture time of a frame, as positions do not count lost frames.
+         */
+        private fun captureTimeInUs(framePosition: Long): Double {
+            val timeInUs = startInUs + framePosition * frameDurationInUs
+            return if (framePosition >= gapPosition) timeInUs + gapInUs else timeInUs
+        }
+
+        /**
+         * Reads frames and checks timestamps.
+         *
+         * @return the maximum error after [warmUpInS]
+         */
+        fun run(clock: AudioClock, durationInS: Int, warmUpInS: Int, withAnchors: Boolean): Long {
+            var framePosition = 0L
+            var previousTimestampInUs = Long.MIN_VALUE
+            var maxErrorInUs = 0L
+            while (framePosition < durationInS.toLong() * SAMPLE_RATE) {
+                val endOfReadInUs = captureTimeInUs(framePosition + FRAME_COUNT)
+                timeProvider.nowInUs =
+                    (endOfReadInUs + READ_LATENCY_IN_US + random.nextInt(maxReadJitterInUs)).toLong()
+
+                if (withAnchors) {
+                    // Timestamp of a recently captured frame
+                    val anchorPosition = framePosition + FRAME_COUNT - random.nextInt(FRAME_COUNT)
+                    val noiseInUs = random.nextGaussian() * ANCHOR_NOISE_IN_US
+                    clock.onTimestamp(
+                        anchorPosition,
+                        ((captureTimeInUs(anchorPosition) + noiseInUs) * 1000).toLong()
+                    )
+                }
+
+                val timestampInUs = clock.onFramesRead(FRAME_COUNT)
+                assertTrue(
+                    "Timestamp $timestampInUs is not after $previousTimestampInUs",
+                    timestampInUs > previousTimestampInUs
+                )
+                previousTimestampInUs = timestampInUs
+
+                if (framePosition >= warmUpInS.toLong() * SAMPLE_RATE) {
+                    val errorInUs = abs(timestampInUs - captureTimeInUs(framePosition).toLong())
+                    maxErrorInUs = maxOf(maxErrorInUs, errorInUs)
+                }
+                framePosition += FRAME_COUNT
+            }
+            return maxErrorInUs
+        }
+    }
+
+    companion object {
+        private const val SAMPLE_RATE = 48_000
+        private const val FRAME_COUNT = 1024
+        private const val FRAME_DURATION_IN_US = FRAME_COUNT * 1_000_000L / SAMPLE_RATE
+        private const val READ_LATENCY_IN_US = 3_000
+        private const val ANCHOR_NOISE_IN_US = 200.0
+        private const val RANDOM_SEED = 42L
+    }
+}
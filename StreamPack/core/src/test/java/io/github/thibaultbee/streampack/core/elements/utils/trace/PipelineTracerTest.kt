@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.trace
+
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+
+class PipelineTracerTest {
+    private val timeProvider = FakeTimeProvider()
+
+    @Test
+    fun `latency is measured from the frame timestamp`() {
+        val tracer = PipelineTracer(timeProvider)
+
+        timeProvider.timeInUs = 10_000
+        tracer.record(TraceStage.ENCODER_OUTPUT, true, 4_000)
+        timeProvider.timeInUs = 12_000
+        tracer.record(TraceStage.ENCODER_OUTPUT, true, 8_000)
+
+        val snapshot = tracer.snapshot().video.getValue(TraceStage.ENCODER_OUTPUT)
+        assertEquals(2, snapshot.count)
+        assertEquals(5_000, snapshot.meanInUs)
+        assertEquals(6_000, snapshot.maxInUs)
+    }
+
+    @Test
+    fun `audio and video stages are separated`() {
+        val tracer = PipelineTracer(timeProvider)
+
+        timeProvider.timeInUs = 1_000
+        tracer.record(TraceStage.MUX, false, 0)
+        tracer.record(TraceStage.CAPTURE, true, 0)
+
+        val latency = tracer.snapshot()
+        assertEquals(1, latency.audio.getValue(TraceStage.MUX).count)
+        assertEquals(0, latency.audio.getValue(TraceStage.CAPTURE).count)
+        assertEquals(0, latency.video.getValue(TraceStage.MUX).count)
+        assertEquals(1, latency.video.getValue(TraceStage.CAPTURE).count)
+    }
+
+    @Test
+    fun `disabled tracer does not record`() {
+        val tracer = PipelineTracer(timeProvider).apply { isEnabled = false }
+
+        tracer.record(TraceStage.MUX, false, 0)
+
+        assertEquals(0, tracer.snapshot().audio.getValue(TraceStage.MUX).count)
+    }
+
+    @Test
+    fun `reset clears and publishes the latency`() {
+        val tracer = PipelineTracer(timeProvider)
+        tracer.record(TraceStage.MUX, false, 0)
+        tracer.publish()
+        assertEquals(1, tracer.latencyFlow.value.audio.getValue(TraceStage.MUX).count)
+
+        tracer.reset()
+
+        assertEquals(0, tracer.latencyFlow.value.audio.getValue(TraceStage.MUX).count)
+    }
+
+    @Test
+    fun `trace keeps the last events`() {
+        val tracer = PipelineTracer(timeProvider)
+        tracer.startTrace(2)
+
+        timeProvider.timeInUs = 100
+        tracer.record(TraceStage.CAPTURE, false, 0)
+        timeProvider.timeInUs = 200
+        tracer.record(TraceStage.RENDER, true, 50)
+        timeProvider.timeInUs = 300
+        tracer.record(TraceStage.SINK_WRITE, true, 50)
+
+        val outputStream = ByteArrayOutputStream()
+        assertEquals(2, tracer.dumpTrace(outputStream))
+        assertEquals(
+            listOf(
+                "time_us,pts_us,media,stage,latency_us",
+                "200,50,video,render,150",
+                "300,50,video,sink_write,250"
+            ),
+            outputStream.toString().trim().lines()
+        )
+    }
+
+    @Test
+    fun `no trace is dumped when trace is stopped`() {
+        val tracer = PipelineTracer(timeProvider)
+        tracer.startTrace()
+        tracer.record(TraceStage.CAPTURE, false, 0)
+        tracer.stopTrace()
+
+        val outputStream = ByteArrayOutputStream()
+        assertEquals(0, tracer.dumpTrace(outputStream))
+        assertEquals(0, outputStream.size())
+    }
+
+    private class FakeTimeProvider : TimeProvider {
+        var timeInUs = 0L
+
+        override fun uptimeNs() = timeInUs * 1000
+
+        override fun realtimeNs() = timeInUs * 1000
+    }
+}
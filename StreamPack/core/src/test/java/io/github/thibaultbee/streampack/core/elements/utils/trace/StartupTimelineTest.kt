@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.elements.utils.trace
+
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import kotlinx.coroutines.async
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.fail
+import org.junit.Test
+
+class StartupTimelineTest {
+    private val timeProvider = FakeTimeProvider()
+
+    @Test
+    fun `phases are relative to the creation of the timeline`() = runTest {
+        timeProvider.timeInUs = 5_000_000
+        val timeline = StartupTimeline(timeProvider)
+
+        timeline.measure("connect") {
+            timeProvider.timeInUs += 240_000
+        }
+        timeProvider.timeInUs += 60_000
+        timeline.mark(StartupTimeline.FIRST_VIDEO_FRAME)
+
+        assertEquals(StartupTimeline.Phase("connect", 0, 240), timeline["connect"])
+        assertEquals(300, timeline[StartupTimeline.FIRST_VIDEO_FRAME]?.startInMs)
+        assertEquals(0, timeline[StartupTimeline.FIRST_VIDEO_FRAME]?.durationInMs)
+        assertEquals("connect 0-240ms, first_video_frame@300ms", timeline.toString())
+    }
+
+    @Test
+    fun `failed phase is recorded`() = runTest {
+        val timeline = StartupTimeline(timeProvider)
+
+        try {
+            timeline.measure("connect") {
+                timeProvider.timeInUs += 1_000
+                throw IllegalStateException("refused")
+            }
+            fail("Exception expected")
+        } catch (_: IllegalStateException) {
+        }
+
+        assertEquals(1, timeline["connect"]?.durationInMs)
+    }
+
+    @Test
+    fun `only the first mark is recorded`() {
+        val timeline = StartupTimeline(timeProvider)
+
+        timeline.mark(StartupTimeline.FIRST_AUDIO_FRAME)
+        timeProvider.timeInUs += 10_000
+        timeline.mark(StartupTimeline.FIRST_AUDIO_FRAME)
+
+        assertEquals(1, timeline.phases.size)
+        assertEquals(0, timeline[StartupTimeline.FIRST_AUDIO_FRAME]?.startInMs)
+        assertNull(timeline[StartupTimeline.FIRST_VIDEO_FRAME])
+    }
+
+    @Test
+    fun `await returns once the phase is recorded`() = runTest {
+        val timeline = StartupTimeline(timeProvider)
+
+        val phase = async { timeline.await(StartupTimeline.FIRST_VIDEO_FRAME) }
+        testScheduler.runCurrent()
+        assertFalse(phase.isCompleted)
+
+        timeProvider.timeInUs = 2_000
+        timeline.mark(StartupTimeline.FIRST_VIDEO_FRAME)
+
+        assertEquals(2, phase.await().startInMs)
+    }
+
+    private class FakeTimeProvider : TimeProvider {
+        var timeInUs = 0L
+
+        override fun uptimeNs() = timeInUs * 1000
+
+        override fun realtimeNs() = timeInUs * 1000
+    }
+}
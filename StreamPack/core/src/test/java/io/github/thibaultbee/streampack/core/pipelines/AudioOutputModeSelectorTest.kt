@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.pipelines
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import io.github.thibaultbee.streampack.core.pipelines.StreamerPipeline.AudioOutputMode
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.shadows.ShadowBuild
+
+@RunWith(AndroidJUnit4::class)
+class AudioOutputModeSelectorTest {
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
+    @After
+    fun tearDown() {
+        AudioOutputModeSelector(context).reset()
+    }
+
+    @Test
+    fun `callback mode is selected by default`() {
+        assertEquals(AudioOutputMode.CALLBACK, AudioOutputModeSelector(context).select())
+    }
+
+    @Test
+    fun `push mode is selected after a callback failure`() {
+        AudioOutputModeSelector(context).reportCallbackFailure(IllegalStateException("Failure"))
+
+        assertEquals(AudioOutputMode.PUSH, AudioOutputModeSelector(context).select())
+    }
+
+    @Test
+    fun `callback mode is selected again after a system update`() {
+        ShadowBuild.setFingerprint("old")
+        AudioOutputModeSelector(context).reportCallbackFailure(IllegalStateException("Failure"))
+
+        ShadowBuild.setFingerprint("new")
+        assertEquals(AudioOutputMode.CALLBACK, AudioOutputModeSelector(context).select())
+    }
+}
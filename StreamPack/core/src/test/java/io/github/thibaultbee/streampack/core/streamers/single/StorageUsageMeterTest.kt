@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.core.streamers.single
+
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class StorageUsageMeterTest {
+    private val timeProvider = FakeTimeProvider()
+
+    @Test
+    fun `throughput is measured per period`() {
+        val meter = StorageUsageMeter(timeProvider)
+
+        timeProvider.timeInMs = 1_000
+        assertEquals(8_000_000L, meter.sample(1_000_000, null, 4_000_000, 0).throughputInBps)
+
+        timeProvider.timeInMs = 2_000
+        val stats = meter.sample(1_250_000, null, 4_000_000, 2)
+        assertEquals(2_000_000L, stats.throughputInBps)
+        assertEquals(1_250_000L, stats.writtenSizeInBytes)
+        assertEquals(2L, stats.droppedFrameCount)
+    }
+
+    @Test
+    fun `remaining duration uses the highest of configured and measured bitrates`() {
+        val meter = StorageUsageMeter(timeProvider)
+
+        // Measured: 8 Mb/s
+        timeProvider.timeInMs = 1_000
+        assertEquals(
+            100_000L,
+            meter.sample(1_000_000, 100_000_000, 4_000_000, 0).remainingDurationInMs
+        )
+
+        // Measured: 5 Mb/s on average
+        timeProvider.timeInMs = 2_000
+        assertEquals(
+            160_000L,
+            meter.sample(1_250_000, 100_000_000, 4_000_000, 0).remainingDurationInMs
+        )
+
+        // Measured: 0.8 Mb/s
+        meter.reset()
+        timeProvider.timeInMs = 3_000
+        assertEquals(
+            200_000L,
+            meter.sample(100_000, 100_000_000, 4_000_000, 0).remainingDurationInMs
+        )
+    }
+
+    @Test
+    fun `remaining duration is unknown without available size`() {
+        val meter = StorageUsageMeter(timeProvider)
+
+        timeProvider.timeInMs = 1_000
+        val stats = meter.sample(1_000_000, null, 4_000_000, 0)
+        assertNull(stats.availableSizeInBytes)
+        assertNull(stats.remainingDurationInMs)
+    }
+
+    private class FakeTimeProvider : TimeProvider {
+        var timeInMs = 0L
+
+        override fun uptimeNs() = timeInMs * 1_000_000
+
+        override fun realtimeNs() = uptimeNs()
+    }
+}
@@ -22,6 +22,8 @@ import io.github.komedia.komuxer.flv.tags.FLVData
 import io.github.thibaultbee.streampack.core.elements.data.Frame
 import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
 import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig
+import io.github.thibaultbee.streampack.core.elements.utils.av.video.TimingSei
+import java.nio.ByteBuffer
 
 /**
  * Internal FLV stream handler.
@@ -60,6 +62,19 @@ internal class VideoFlvStream(codecConfig: VideoCodecConfig) : FlvStream() {
 
     private val frameFactory = FlvVideoDataFactory.createFactory(codecConfig)
 
+    private val timingSeiInjector =
+        if (TimingSei.Injector.isSupported(codecConfig.mimeType)) {
+            TimingSei.Injector(codecConfig.mimeType)
+        } else {
+            null
+        }
+
+    /**
+     * Whether a timing SEI NAL unit is prepended to the access units.
+     */
+    @Volatile
+    var isTimingSeiEnabled = false
+
     override fun createImpl(frame: Frame): List<FLVData> {
         var withSequenceStart = false
         if ((!sentSequenceStart) && (frame.isKeyFrame)) {
@@ -67,6 +82,22 @@ internal class VideoFlvStream(codecConfig: VideoCodecConfig) : FlvStream() {
             withSequenceStart = true
             sentSequenceStart = true
         }
-        return frameFactory.create(frame, withSequenceStart)
+        return frameFactory.create(prependTimingSei(frame), withSequenceStart)
+    }
+
+    /**
+     * Prepends a timing SEI NAL unit to the access unit. It is converted to AVCC with the rest of
+     * the access unit.
+     */
+    private fun prependTimingSei(frame: Frame): Frame {
+        if (!isTimingSeiEnabled) {
+            return frame
+        }
+        val timingSei = timingSeiInjector?.create(frame.ptsInUs) ?: return frame
+        val buffer = ByteBuffer.allocate(timingSei.remaining() + frame.rawBuffer.remaining())
+        buffer.put(timingSei)
+        buffer.put(frame.rawBuffer)
+        buffer.rewind()
+        return frame.copy(rawBuffer = buffer)
     }
 }
@@ -23,6 +23,7 @@ import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
 import io.github.thibaultbee.streampack.core.elements.encoders.CodecConfig
 import io.github.thibaultbee.streampack.core.elements.encoders.VideoCodecConfig
 import io.github.thibaultbee.streampack.core.elements.utils.ChannelWithCloseableData
+import io.github.thibaultbee.streampack.core.elements.utils.av.video.TimingSeiInjectable
 import io.github.thibaultbee.streampack.core.logger.Logger
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
@@ -34,12 +35,19 @@ import kotlinx.coroutines.sync.withLock
  *
  * Internal FLV frames handler for FLV based processing (RTMP and FLV files).
  */
-class FlvTagBuilder(val channel: ChannelWithCloseableData<FLVTag>) {
+class FlvTagBuilder(val channel: ChannelWithCloseableData<FLVTag>) : TimingSeiInjectable {
     private val mutex = Mutex()
 
     private var audioStream: AudioFlvStream? = null
     private var videoStream: VideoFlvStream? = null
 
+    @Volatile
+    override var isTimingSeiEnabled = false
+        set(value) {
+            field = value
+            videoStream?.isTimingSeiEnabled = value
+        }
+
     val hasAudio: Boolean
         get() = audioStream != null
 
@@ -72,7 +80,9 @@ class FlvTagBuilder(val channel: ChannelWithCloseableData<FLVTag>) {
                 if (videoStream != null) {
                     throw IllegalStateException("Video stream already added")
                 }
-                videoStream = VideoFlvStream(streamConfig)
+                videoStream = VideoFlvStream(streamConfig).apply {
+                    isTimingSeiEnabled = this@FlvTagBuilder.isTimingSeiEnabled
+                }
                 VIDEO_STREAM_PID
             }
         }
@@ -29,6 +29,10 @@ import io.github.thibaultbee.streampack.core.elements.endpoints.IEndpoint
 import io.github.thibaultbee.streampack.core.elements.endpoints.IEndpointInternal
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.CompositeEndpoint.EndpointInfo
 import io.github.thibaultbee.streampack.core.elements.utils.ChannelWithCloseableData
+import io.github.thibaultbee.streampack.core.elements.utils.LatencyHistogram
+import io.github.thibaultbee.streampack.core.elements.utils.av.video.TimingSeiInjectable
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
 import io.github.thibaultbee.streampack.core.elements.utils.useConsumeEach
 import io.github.thibaultbee.streampack.core.logger.Logger
 import io.github.thibaultbee.streampack.core.pipelines.IDispatcherProvider
@@ -51,13 +55,14 @@ import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 import kotlinx.io.EOFException
 import java.io.IOException
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * An endpoint that send frame to an RTMP server.
  */
 class RtmpEndpoint internal constructor(
     defaultDispatcher: CoroutineDispatcher, val ioDispatcher: CoroutineDispatcher
-) : IEndpointInternal {
+) : IEndpointInternal, MetricsProducer, TimingSeiInjectable {
     private val coroutineScope = CoroutineScope(SupervisorJob() + defaultDispatcher)
     private val mutex = Mutex()
 
@@ -66,6 +71,12 @@ class RtmpEndpoint internal constructor(
     )
     private val flvTagBuilder = FlvTagBuilder(flvTagChannel)
 
+    override var isTimingSeiEnabled: Boolean
+        get() = flvTagBuilder.isTimingSeiEnabled
+        set(value) {
+            flvTagBuilder.isTimingSeiEnabled = value
+        }
+
     private val selectorManager = SelectorManager(ioDispatcher)
     private val connectionBuilder = RtmpConnectionBuilder(selectorManager)
     private var rtmpClient: RtmpClient? = null
@@ -74,8 +85,25 @@ class RtmpEndpoint internal constructor(
     private var startUpTimestamp = INVALID_TIMESTAMP
     private val timestampMutex = Mutex()
 
-    override val metrics: Any
-        get() = TODO("Not yet implemented")
+    private val writtenTagCount = AtomicLong(0)
+    private val timedOutTagCount = AtomicLong(0)
+    private val failedWriteCount = AtomicLong(0)
+    private val writeLatency = LatencyHistogram()
+
+    override val metrics: Metrics
+        get() = Metrics(
+            writtenTagCount.get(),
+            timedOutTagCount.get(),
+            failedWriteCount.get(),
+            writeLatency.snapshot()
+        )
+
+    override fun registerMetrics(registry: MetricsRegistry) {
+        registry.gauge("written_tags") { writtenTagCount.get() }
+        registry.gauge("timed_out_tags") { timedOutTagCount.get() }
+        registry.gauge("failed_writes") { failedWriteCount.get() }
+        registry.histogram("write_latency", writeLatency)
+    }
 
     private val _isOpenFlow = MutableStateFlow(false)
     override val isOpenFlow = _isOpenFlow.asStateFlow()
@@ -155,12 +183,17 @@ class RtmpEndpoint internal constructor(
 
     private suspend fun write(flvTag: FLVTag) {
         try {
+            val startTimeNs = System.nanoTime()
             safeClient { rtmpClient ->
                 rtmpClient.write(flvTag)
             }
+            writeLatency.record((System.nanoTime() - startTimeNs) / 1000)
+            writtenTagCount.incrementAndGet()
         } catch (_: TimeoutCancellationException) {
+            timedOutTagCount.incrementAndGet()
             Logger.w(TAG, "Frame dropped due to timeout")
         } catch (t: Throwable) {
+            failedWriteCount.incrementAndGet()
             Logger.w(TAG, "Error while writing FLV data: $t")
             // Socket is closed automatically on error
         }
@@ -251,6 +284,21 @@ class RtmpEndpoint internal constructor(
         coroutineScope.cancel()
     }
 
+    /**
+     * The metrics of the RTMP connection.
+     *
+     * @param writtenTagCount the number of FLV tags written to the connection
+     * @param timedOutTagCount the number of FLV tags dropped because the write timed out
+     * @param failedWriteCount the number of failed writes
+     * @param writeLatency the write duration of the FLV tags
+     */
+    data class Metrics(
+        val writtenTagCount: Long,
+        val timedOutTagCount: Long,
+        val failedWriteCount: Long,
+        val writeLatency: LatencyHistogram.Snapshot
+    )
+
     companion object {
         private const val TAG = "RtmpEndpoint"
 
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.ext.srt.elements.endpoints.composites.sinks
+
+import io.github.thibaultbee.srtdroid.core.models.Stats
+
+/**
+ * Measures the send rate of an SRT socket between two reads of its stats.
+ *
+ * [SrtSink] does not clear the stats on read, so [Stats.mbpsSendRate] is the average since the
+ * connection. The send rate is computed from the deltas of [Stats.byteSentTotal] instead.
+ *
+ * Each reader must use its own instance. This class is not thread-safe.
+ */
+class SrtSendRateMeter {
+    private var previousByteSentTotal = -1L
+    private var previousTimestampInMs = -1L
+
+    /**
+     * Updates the meter with new stats.
+     *
+     * @param stats the SRT stats
+     * @return the send rate in Mb/s since the previous update or `null` on the first update of a
+     * connection
+     */
+    fun update(stats: Stats) = update(stats.byteSentTotal, stats.msTimeStamp)
+
+    /**
+     * Updates the meter.
+     *
+     * @param byteSentTotal the number of bytes sent since the connection
+     * @param timestampInMs the time since the connection in ms
+     * @return the send rate in Mb/s since the previous update or `null` on the first update of a
+     * connection
+     */
+    fun update(byteSentTotal: Long, timestampInMs: Long): Double? {
+        val sendRate = if ((previousByteSentTotal in 0..byteSentTotal)
+            && (previousTimestampInMs in 0 until timestampInMs)
+        ) {
+            (byteSentTotal - previousByteSentTotal) * 8.0 / ((timestampInMs - previousTimestampInMs) * 1000.0)
+        } else {
+            // First update or new connection
+            null
+        }
+        if (timestampInMs != previousTimestampInMs) {
+            previousByteSentTotal = byteSentTotal
+            previousTimestampInMs = timestampInMs
+        }
+        return sendRate
+    }
+}
@@ -25,35 +25,85 @@ import io.github.thibaultbee.srtdroid.ktx.CoroutineSrtSocket
 import io.github.thibaultbee.srtdroid.ktx.connect
 import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
 import io.github.thibaultbee.streampack.core.elements.endpoints.ClosedException
+import io.github.thibaultbee.streampack.core.elements.endpoints.ConnectionRejectedException
 import io.github.thibaultbee.streampack.core.elements.endpoints.MediaSinkType
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.data.Packet
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.data.SrtPacket
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.AbstractSink
 import io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.SinkConfiguration
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsProducer
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsRegistry
 import io.github.thibaultbee.streampack.core.logger.Logger
 import io.github.thibaultbee.streampack.ext.srt.configuration.mediadescriptor.SrtMediaDescriptor
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.withTimeoutOrNull
 import java.io.IOException
 
-class SrtSink(private val coroutineDispatcher: CoroutineDispatcher) : AbstractSink() {
+class SrtSink(private val coroutineDispatcher: CoroutineDispatcher) : AbstractSink(),
+    MetricsProducer {
     override val supportedSinkTypes: List<MediaSinkType> = listOf(MediaSinkType.SRT)
 
     private var socket: CoroutineSrtSocket? = null
     private var completionException: Throwable? = null
     private var isOnError: Boolean = false
 
+    /**
+     * Whether a packet has been sent on the current connection. A connection closed before is a
+     * rejection by the server.
+     */
+    private var hasSentPacket = false
+
     private var bitrate = 0L
 
     /**
      * Get SRT stats
+     *
+     * Reading the stats does not reset them, so several readers can read them. Interval fields
+     * such as [Stats.pktSndLoss] and rates such as [Stats.mbpsSendRate] are computed since the
+     * connection: compute deltas of the `Total` fields instead (see [SrtSendRateMeter]).
      */
     override val metrics: Stats
-        get() = socket?.bistats(clear = true, instantaneous = true)
+        get() = socket?.bistats(clear = false, instantaneous = true)
             ?: throw IllegalStateException("Socket is not initialized")
 
+    override fun registerMetrics(registry: MetricsRegistry) {
+        // Gauges are only read by the sampler
+        val sendRateMeter = SrtSendRateMeter()
+        registry.gauge("bandwidth_mbps") { socketStats?.mbpsBandwidth }
+        registry.gauge("send_rate_mbps") { socketStats?.let { sendRateMeter.update(it) } }
+        registry.gauge("rtt_ms") { socketStats?.msRTT }
+        registry.gauge("flight_packets") { socketStats?.pktFlightSize }
+        registry.gauge("send_buffer_packets") { socketStats?.pktSndBuf }
+        registry.gauge("send_loss_packets") { socketStats?.pktSndLossTotal }
+    }
+
+    @Volatile
+    private var cachedStats: Pair<Long, Stats>? = null
+
+    /**
+     * The stats, read at most once per [STATS_CACHE_DURATION_IN_MS] for all the gauges of a
+     * sample. `null` if the socket is not connected.
+     */
+    private val socketStats: Stats?
+        get() {
+            val nowInMs = System.currentTimeMillis()
+            cachedStats?.let { (timeInMs, stats) ->
+                if (nowInMs - timeInMs < STATS_CACHE_DURATION_IN_MS) {
+                    return stats
+                }
+            }
+            val socket = socket ?: return null
+            if (!socket.isConnected) {
+                return null
+            }
+            return socket.bistats(clear = false, instantaneous = true).also {
+                cachedStats = Pair(nowInMs, it)
+            }
+        }
+
     private val _isOpenFlow = MutableStateFlow(false)
     override val isOpenFlow = _isOpenFlow.asStateFlow()
 
@@ -82,9 +132,12 @@ class SrtSink(private val coroutineDispatcher: CoroutineDispatcher) : AbstractSi
             it.setSockFlag(SockOpt.TRANSTYPE, Transtype.LIVE)
             completionException = null
             isOnError = false
+            hasSentPacket = false
+            val socketCompletion = CompletableDeferred<Unit>()
             it.socketContext.invokeOnCompletion { t ->
                 completionException = t
                 _isOpenFlow.tryEmit(false)
+                socketCompletion.complete(Unit)
             }
             
             // Connect with timeout to prevent hanging indefinitely
@@ -99,15 +152,18 @@ class SrtSink(private val coroutineDispatcher: CoroutineDispatcher) : AbstractSi
                 throw IOException("SRT connection timeout after 5 seconds")
             }
             
-            // Give the server a moment to reject the connection if stream ID is wrong
-            // Some servers accept the connection but immediately close it for invalid stream IDs
-            kotlinx.coroutines.delay(100)
-            
-            // Check if socket is still connected after brief delay
-            // If server rejected stream ID, socket will be disconnected by now
-            if (!it.isConnected) {
+            // Some servers accept the connection but immediately close it for invalid stream IDs.
+            // Give them a moment to reject it. This wait overlaps the source and encoder
+            // readiness waits of the stream start, and returns as soon as the socket closes.
+            withTimeoutOrNull(REJECTION_TIMEOUT_IN_MS) {
+                socketCompletion.await()
+            }
+            if (!it.isConnected || (completionException != null)) {
                 socket = null
-                throw IOException("SRT connection rejected by server (possibly invalid stream ID or credentials)")
+                throw ConnectionRejectedException(
+                    "SRT connection rejected by server (possibly invalid stream ID or credentials)",
+                    completionException
+                )
             }
         }
         _isOpenFlow.emit(true)
@@ -148,7 +204,7 @@ class SrtSink(private val coroutineDispatcher: CoroutineDispatcher) : AbstractSi
         // Pick up completionException if any
         completionException?.let {
             isOnError = true
-            throw ClosedException(it)
+            throw closedException(it)
         }
 
         val socket = requireNotNull(socket) { "SrtEndpoint is not initialized" }
@@ -161,18 +217,33 @@ class SrtSink(private val coroutineDispatcher: CoroutineDispatcher) : AbstractSi
         }
 
         try {
-            return socket.send(packet.buffer, buildMsgCtrl(packet))
+            return socket.send(packet.buffer, buildMsgCtrl(packet)).also {
+                hasSentPacket = true
+            }
         } catch (t: Throwable) {
             isOnError = true
             if (completionException != null) {
                 // Socket already closed
-                throw ClosedException(completionException!!)
+                throw closedException(completionException!!)
             }
             close()
-            throw ClosedException(t)
+            throw closedException(t)
         }
     }
 
+    /**
+     * A connection closed before the first packet is a late rejection of the stream ID: it is not
+     * worth reconnecting.
+     */
+    private fun closedException(cause: Throwable) = if (hasSentPacket) {
+        ClosedException(cause)
+    } else {
+        ConnectionRejectedException(
+            "SRT connection closed by server before the first packet (possibly invalid stream ID or credentials)",
+            cause
+        )
+    }
+
     override suspend fun startStream() {
         val socket = requireNotNull(socket) { "SrtEndpoint is not initialized" }
         
@@ -180,7 +251,10 @@ class SrtSink(private val coroutineDispatcher: CoroutineDispatcher) : AbstractSi
         // This can happen with half-alive servers or late rejection of invalid stream ID
         if (!socket.isConnected) {
             Logger.w(TAG, "SRT socket disconnected between open() and startStream()")
-            throw IOException("SRT connection lost before stream could start")
+            throw ConnectionRejectedException(
+                "SRT connection lost before stream could start (possibly invalid stream ID or credentials)",
+                completionException
+            )
         }
 
         socket.setSockFlag(SockOpt.MAXBW, 0L)
@@ -211,5 +285,12 @@ class SrtSink(private val coroutineDispatcher: CoroutineDispatcher) : AbstractSi
         private const val TAG = "SrtSink"
 
         private const val PAYLOAD_SIZE = 1316
+
+        private const val STATS_CACHE_DURATION_IN_MS = 100L
+
+        /**
+         * The maximum time to wait for a server to reject the connection after the connect.
+         */
+        private const val REJECTION_TIMEOUT_IN_MS = 100L
     }
 }
\ No newline at end of file
@@ -42,12 +42,24 @@ class DefaultSrtBitrateRegulator(
         const val SEND_PACKET_THRESHOLD = 50
     }
 
+    /**
+     * Total of lost packets at the previous update. Stats are not reset on read.
+     */
+    private var previousSndLossTotal = -1
+
     override fun update(stats: Stats, currentVideoBitrate: Int, currentAudioBitrate: Int) {
         val estimatedBandwidth = (stats.mbpsBandwidth * 1000000).toInt()
+        val sndLoss = if (previousSndLossTotal in 0..stats.pktSndLossTotal) {
+            stats.pktSndLossTotal - previousSndLossTotal
+        } else {
+            // First update or new connection
+            0
+        }
+        previousSndLossTotal = stats.pktSndLossTotal
 
         if (currentVideoBitrate > bitrateRegulatorConfig.videoBitrateRange.lower) {
             val newVideoBitrate = when {
-                stats.pktSndLoss > 0 -> {
+                sndLoss > 0 -> {
                     // Detected packet loss - quickly react
                     currentVideoBitrate - max(
                         currentVideoBitrate * 20 / 100, // too late - drop bitrate by 20 %
@@ -0,0 +1,21 @@
+plugins {
+    id(libs.plugins.android.library.get().pluginId)
+    id(libs.plugins.kotlin.android.get().pluginId)
+    id("android-library-convention")
+}
+
+description = "Background upload of recorded files extension for StreamPack."
+
+android {
+    namespace = "io.github.thibaultbee.streampack.ext.upload"
+}
+
+dependencies {
+    implementation(project(":streampack-core"))
+
+    implementation(libs.kotlinx.coroutines.android)
+    implementation(libs.androidx.core.ktx)
+
+    testImplementation(libs.junit)
+    testImplementation(libs.kotlinx.coroutines.test)
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.ext.upload
+
+import java.security.MessageDigest
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.TimeZone
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * Signs requests with AWS Signature Version 4, as S3-compatible storages expect.
+ *
+ * @param accessKeyId the access key ID
+ * @param secretAccessKey the secret access key
+ * @param region the region, for example `us-east-1`
+ * @param service the service, `s3` for S3
+ */
+internal class AwsV4Signer(
+    private val accessKeyId: String,
+    private val secretAccessKey: String,
+    private val region: String,
+    private val service: String = "s3"
+) {
+    /**
+     * Computes the `Authorization` header of a request.
+     *
+     * @param method the HTTP method
+     * @param canonicalPath the URI-encoded path
+     * @param headers the headers to sign. They must contain `host`, `x-amz-date` and
+     * `x-amz-content-sha256`.
+     * @param payloadHash the hex SHA-256 of the body or `UNSIGNED-PAYLOAD`
+     * @param timeInMs the request time. It must be the time of the `x-amz-date` header.
+     */
+    fun authorization(
+        method: String,
+        canonicalPath: String,
+        headers: Map<String, String>,
+        payloadHash: String,
+        timeInMs: Long
+    ): String {
+        val sortedHeaders = headers.map { (name, value) -> name.lowercase(Locale.US) to value.trim() }
+            .sortedBy { it.first }
+        val signedHeaders = sortedHeaders.joinToString(";") { it.first }
+        val canonicalRequest = listOf(
+            method,
+            canonicalPath,
+            "", // No query
+            sortedHeaders.joinToString("") { "${it.first}:${it.second}\n" },
+            signedHeaders,
+            payloadHash
+        ).joinToString("\n")
+
+        val date = formatDate(timeInMs)
+        val scope = "$date/$region/$service/$TERMINATOR"
+        val stringToSign = listOf(
+            ALGORITHM,
+            formatDateTime(timeInMs),
+            scope,
+            sha256Hex(canonicalRequest.toByteArray())
+        ).joinToString("\n")
+
+        var key = hmacSha256("AWS4$secretAccessKey".toByteArray(), date)
+        key = hmacSha256(key, region)
+        key = hmacSha256(key, service)
+        key = hmacSha256(key, TERMINATOR)
+        val signature = hmacSha256(key, stringToSign).toHex()
+
+        return "$ALGORITHM Credential=$accessKeyId/$scope, SignedHeaders=$signedHeaders, Signature=$signature"
+    }
+
+    companion object {
+        private const val ALGORITHM = "AWS4-HMAC-SHA256"
+        private const val TERMINATOR = "aws4_request"
+
+        const val UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD"
+
+        /**
+         * Formats the time of the `x-amz-date` header.
+         */
+        fun formatDateTime(timeInMs: Long) = format("yyyyMMdd'T'HHmmss'Z'", timeInMs)
+
+        private fun formatDate(timeInMs: Long) = format("yyyyMMdd", timeInMs)
+
+        private fun format(pattern: String, timeInMs: Long): String {
+            val format = SimpleDateFormat(pattern, Locale.US)
+            format.timeZone = TimeZone.getTimeZone("UTC")
+            return format.format(Date(timeInMs))
+        }
+
+        /**
+         * URI-encodes a path. `/` is kept.
+         */
+        fun encodePath(path: String): String {
+            val builder = StringBuilder()
+            path.toByteArray().forEach { byte ->
+                val c = (byte.toInt() and 0xFF).toChar()
+                if ((c in 'A'..'Z') || (c in 'a'..'z') || (c in '0'..'9') || (c in "-_.~/")) {
+                    builder.append(c)
+                } else {
+                    builder.append(String.format(Locale.US, "%%%02X", byte.toInt() and 0xFF))
+                }
+            }
+            return builder.toString()
+        }
+
+        internal fun sha256Hex(data: ByteArray) =
+            MessageDigest.getInstance("SHA-256").digest(data).toHex()
+
+        private fun hmacSha256(key: ByteArray, data: String): ByteArray {
+            val mac = Mac.getInstance("HmacSHA256")
+            mac.init(SecretKeySpec(key, "HmacSHA256"))
+            return mac.doFinal(data.toByteArray())
+        }
+
+        private fun ByteArray.toHex() = joinToString("") { String.format(Locale.US, "%02x", it) }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.ext.upload
+
+import io.github.thibaultbee.streampack.core.elements.utils.ChunkedFileOutputStream
+import io.github.thibaultbee.streampack.core.logger.Logger
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runInterruptible
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Configuration of a [ChunkUploader].
+ *
+ * @param parallelism the number of files uploaded at the same time
+ * @param minRetryDelayInMs the delay before the first retry of a failed upload
+ * @param maxRetryDelayInMs the maximum delay between 2 retries of a failed upload
+ * @param deleteAfterUpload whether files are deleted once uploaded
+ * @param bufferSize the size of the read buffer of an upload
+ */
+data class UploadConfig(
+    val parallelism: Int = DEFAULT_PARALLELISM,
+    val minRetryDelayInMs: Long = DEFAULT_MIN_RETRY_DELAY_IN_MS,
+    val maxRetryDelayInMs: Long = DEFAULT_MAX_RETRY_DELAY_IN_MS,
+    val deleteAfterUpload: Boolean = false,
+    val bufferSize: Int = DEFAULT_BUFFER_SIZE
+) {
+    init {
+        require(parallelism > 0) { "Parallelism must be positive" }
+        require(minRetryDelayInMs > 0) { "Min retry delay must be positive" }
+        require(maxRetryDelayInMs >= minRetryDelayInMs) { "Max retry delay must be greater than min retry delay" }
+        require(bufferSize > 0) { "Buffer size must be positive" }
+    }
+
+    companion object {
+        const val DEFAULT_PARALLELISM = 2
+        const val DEFAULT_MIN_RETRY_DELAY_IN_MS = 1_000L
+        const val DEFAULT_MAX_RETRY_DELAY_IN_MS = 60_000L
+        const val DEFAULT_BUFFER_SIZE = 16 * 1024
+    }
+}
+
+/**
+ * Uploads the files of a [ChunkedFileOutputStream] in the background, as they are completed.
+ *
+ * Add it as a listener of the stream (for example with
+ * [io.github.thibaultbee.streampack.core.elements.endpoints.composites.sinks.ChunkedFileOutputStreamSink.addListener]).
+ * Completed files are added to an [UploadQueue] persisted in [queueFile] and uploaded by
+ * [UploadConfig.parallelism] workers. Failed uploads are retried with an exponential backoff.
+ * The files that are still queued are uploaded again by the next [ChunkUploader] with the same
+ * [queueFile], for example after a restart of the application. A file is uploaded again from
+ * its start.
+ *
+ * All uploads share [bandwidthLimiter] so that they can yield to a live stream.
+ *
+ * @param queueFile the file the upload queue is persisted to
+ * @param target where files are uploaded to
+ * @param ioDispatcher the dispatcher of the uploads
+ * @param bandwidthLimiter the bandwidth limiter of the uploads
+ * @param config the upload configuration
+ * @param keyGenerator generates the name of a file on the server
+ */
+class ChunkUploader(
+    queueFile: File,
+    private val target: UploadTarget,
+    ioDispatcher: CoroutineDispatcher,
+    private val bandwidthLimiter: UploadBandwidthLimiter = UploadBandwidthLimiter({ null }),
+    private val config: UploadConfig = UploadConfig(),
+    private val keyGenerator: (File) -> String = { it.name }
+) : ChunkedFileOutputStream.Listener {
+    private val coroutineScope = CoroutineScope(SupervisorJob() + ioDispatcher)
+    private val queue = UploadQueue(queueFile)
+    private val entries = Channel<UploadQueue.Entry>(Channel.UNLIMITED)
+
+    private val _pendingCountFlow = MutableStateFlow(queue.size)
+
+    /**
+     * The number of files that are not uploaded yet.
+     */
+    val pendingCountFlow: StateFlow<Int> = _pendingCountFlow.asStateFlow()
+
+    private val _sentBytes = AtomicLong(0)
+
+    /**
+     * The number of bytes sent since the creation, failed uploads included.
+     */
+    val sentBytes: Long
+        get() = _sentBytes.get()
+
+    init {
+        queue.pendingEntries.forEach { entries.trySend(it) }
+        repeat(config.parallelism) {
+            coroutineScope.launch {
+                for (entry in entries) {
+                    upload(entry)
+                }
+            }
+        }
+    }
+
+    override fun onFileAvailable(index: Int, isLast: Boolean, file: File) {
+        enqueue(file)
+    }
+
+    /**
+     * Adds a file to the upload queue.
+     */
+    fun enqueue(file: File) {
+        val entry = UploadQueue.Entry(file.absolutePath, keyGenerator(file))
+        if (queue.add(entry)) {
+            _pendingCountFlow.value = queue.size
+            entries.trySend(entry)
+        }
+    }
+
+    /**
+     * Stops the uploads. Files that are not uploaded stay in the queue file.
+     */
+    fun release() {
+        entries.close()
+        coroutineScope.cancel()
+    }
+
+    private suspend fun upload(entry: UploadQueue.Entry) {
+        var retryDelayInMs = config.minRetryDelayInMs
+        while (true) {
+            val file = File(entry.path)
+            if (!file.exists()) {
+                Logger.w(TAG, "File ${entry.path} does not exist anymore: not uploaded")
+                break
+            }
+            try {
+                uploadFile(file, entry.key)
+                Logger.i(TAG, "Uploaded ${entry.key}")
+                if (config.deleteAfterUpload && !file.delete()) {
+                    Logger.w(TAG, "Failed to delete ${entry.path}")
+                }
+                break
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Logger.w(TAG, "Failed to upload ${entry.key}: ${e.message}. Retry in $retryDelayInMs ms")
+                delay(retryDelayInMs)
+                retryDelayInMs = minOf(retryDelayInMs * 2, config.maxRetryDelayInMs)
+            }
+        }
+        queue.remove(entry)
+        _pendingCountFlow.value = queue.size
+    }
+
+    private suspend fun uploadFile(file: File, key: String) {
+        val length = file.length()
+        val connection = target.openConnection(key, length)
+        try {
+            connection.doOutput = true
+            connection.setFixedLengthStreamingMode(length)
+            val buffer = ByteArray(config.bufferSize)
+            file.inputStream().use { input ->
+                runInterruptible { connection.outputStream }.use { output ->
+                    while (true) {
+                        val size = input.read(buffer)
+                        if (size < 0) {
+                            break
+                        }
+                        bandwidthLimiter.acquire(size)
+                        runInterruptible { output.write(buffer, 0, size) }
+                        _sentBytes.addAndGet(size.toLong())
+                    }
+                }
+            }
+            val responseCode = runInterruptible { connection.responseCode }
+            if (responseCode !in 200..299) {
+                throw IOException("Server responded $responseCode")
+            }
+        } finally {
+            connection.disconnect()
+        }
+    }
+
+    companion object {
+        private const val TAG = "ChunkUploader"
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.ext.upload
+
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * A token bucket shared by the uploads.
+ *
+ * The bitrate is read from [bitrateProvider] every time tokens are missing, so the limit follows
+ * the uplink left by the live stream (see [yieldingTo]).
+ *
+ * @param bitrateProvider the bitrate allowed to the uploads in bits/s. 0 pauses the uploads.
+ * `null` for no limit.
+ * @param timeProvider the time provider
+ * @param burstDurationInMs the duration of the data that can be sent at once after an idle time
+ */
+class UploadBandwidthLimiter(
+    private val bitrateProvider: () -> Long?,
+    private val timeProvider: TimeProvider = TimeUtils.systemTimeProvider,
+    private val burstDurationInMs: Long = DEFAULT_BURST_DURATION_IN_MS
+) {
+    private val mutex = Mutex()
+    private var availableBytes = 0.0
+    private var lastRefillTimeInNs: Long? = null
+
+    init {
+        require(burstDurationInMs > 0) { "Burst duration must be positive" }
+    }
+
+    /**
+     * Suspends until [numOfBytes] can be sent.
+     */
+    suspend fun acquire(numOfBytes: Int) {
+        require(numOfBytes >= 0) { "Number of bytes must not be negative" }
+        // Uploads are served one after the other
+        mutex.withLock {
+            while (true) {
+                val bitrate = bitrateProvider()
+                if (bitrate == null) {
+                    lastRefillTimeInNs = null
+                    availableBytes = 0.0
+                    return
+                }
+                refill(bitrate, numOfBytes)
+                if (availableBytes >= numOfBytes) {
+                    availableBytes -= numOfBytes
+                    return
+                }
+                val waitTimeInMs = if (bitrate > 0) {
+                    ((numOfBytes - availableBytes) * Byte.SIZE_BITS * 1000 / bitrate).toLong() + 1
+                } else {
+                    MAX_WAIT_TIME_IN_MS
+                }
+                // The bitrate is read again after at most MAX_WAIT_TIME_IN_MS
+                delay(minOf(waitTimeInMs, MAX_WAIT_TIME_IN_MS))
+            }
+        }
+    }
+
+    private fun refill(bitrate: Long, numOfBytes: Int) {
+        val nowInNs = timeProvider.uptimeNs()
+        val elapsedTimeInNs = lastRefillTimeInNs?.let { nowInNs - it } ?: 0
+        lastRefillTimeInNs = nowInNs
+        val burstBytes = maxOf(
+            bitrate.toDouble() / Byte.SIZE_BITS * burstDurationInMs / 1000,
+            numOfBytes.toDouble()
+        )
+        availableBytes = minOf(
+            availableBytes + bitrate.toDouble() / Byte.SIZE_BITS * elapsedTimeInNs / 1_000_000_000,
+            burstBytes
+        )
+    }
+
+    companion object {
+        const val DEFAULT_BURST_DURATION_IN_MS = 250L
+        const val DEFAULT_SPARE_CAPACITY_SHARE = 0.5f
+        private const val MAX_WAIT_TIME_IN_MS = 500L
+
+        /**
+         * Creates a bitrate provider that gives the uploads a share of the uplink capacity the
+         * live stream does not use, so that uploads never compete with it.
+         *
+         * @param linkCapacityProvider the estimated uplink capacity in bits/s (for example, the
+         * SRT bandwidth estimation) or `null` when there is no live stream
+         * @param liveBitrateProvider the live stream bitrate in bits/s
+         * @param share the share of the spare capacity given to the uploads, from 0 to 1
+         * @return the bitrate provider. It is `null` (no limit) without live stream.
+         */
+        fun yieldingTo(
+            linkCapacityProvider: () -> Long?,
+            liveBitrateProvider: () -> Long,
+            share: Float = DEFAULT_SPARE_CAPACITY_SHARE
+        ): () -> Long? {
+            require(share in 0f..1f) { "Share must be between 0 and 1" }
+            return {
+                linkCapacityProvider()?.let { linkCapacity ->
+                    maxOf(0L, ((linkCapacity - liveBitrateProvider()) * share).toLong())
+                }
+            }
+        }
+    }
+}
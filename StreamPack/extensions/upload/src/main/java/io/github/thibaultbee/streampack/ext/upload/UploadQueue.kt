@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.ext.upload
+
+import io.github.thibaultbee.streampack.core.logger.Logger
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+
+/**
+ * A queue of files to upload that is persisted to [file] on every change, so that uploads can
+ * resume after a restart.
+ *
+ * @param file the file the queue is persisted to
+ */
+class UploadQueue(private val file: File) {
+    private val entries = mutableListOf<Entry>()
+
+    init {
+        entries.addAll(readFrom(file))
+    }
+
+    /**
+     * The entries that are not uploaded yet, oldest first.
+     */
+    val pendingEntries: List<Entry>
+        get() = synchronized(this) { entries.toList() }
+
+    val size: Int
+        get() = synchronized(this) { entries.size }
+
+    /**
+     * Adds an entry. It is ignored if it is already queued.
+     *
+     * @return `true` if the entry has been added
+     */
+    fun add(entry: Entry): Boolean {
+        synchronized(this) {
+            if (entries.contains(entry)) {
+                return false
+            }
+            entries.add(entry)
+            persist()
+            return true
+        }
+    }
+
+    /**
+     * Removes an uploaded entry.
+     */
+    fun remove(entry: Entry) {
+        synchronized(this) {
+            if (entries.remove(entry)) {
+                persist()
+            }
+        }
+    }
+
+    private fun persist() {
+        try {
+            writeTo(file, entries)
+        } catch (e: IOException) {
+            // The queue still works in memory
+            Logger.e(TAG, "Failed to persist upload queue: ${e.message}")
+        }
+    }
+
+    /**
+     * A file to upload.
+     *
+     * @param path the absolute path of the file
+     * @param key the name of the file on the server
+     */
+    data class Entry(val path: String, val key: String)
+
+    companion object {
+        private const val TAG = "UploadQueue"
+
+        private const val MAGIC = 0x55504C51 // "UPLQ"
+        private const val FORMAT_VERSION = 1
+
+        private fun writeTo(file: File, entries: List<Entry>) {
+            val tmpFile = File(file.parentFile, "${file.name}.tmp")
+            try {
+                DataOutputStream(BufferedOutputStream(tmpFile.outputStream())).use { output ->
+                    output.writeInt(MAGIC)
+                    output.writeInt(FORMAT_VERSION)
+                    output.writeInt(entries.size)
+                    entries.forEach {
+                        output.writeUTF(it.path)
+                        output.writeUTF(it.key)
+                    }
+                }
+                if (!tmpFile.renameTo(file)) {
+                    throw IOException("Failed to rename $tmpFile to $file")
+                }
+            } finally {
+                tmpFile.delete()
+            }
+        }
+
+        /**
+         * Reads the persisted entries. A missing or unreadable file is an empty queue.
+         */
+        private fun readFrom(file: File): List<Entry> {
+            if (!file.exists()) {
+                return emptyList()
+            }
+            return try {
+                DataInputStream(BufferedInputStream(file.inputStream())).use { input ->
+                    if ((input.readInt() != MAGIC) || (input.readInt() != FORMAT_VERSION)) {
+                        Logger.w(TAG, "Unknown upload queue format: ignored")
+                        return emptyList()
+                    }
+                    List(input.readInt()) { Entry(input.readUTF(), input.readUTF()) }
+                }
+            } catch (e: IOException) {
+                Logger.e(TAG, "Failed to read upload queue: ${e.message}")
+                emptyList()
+            }
+        }
+    }
+}
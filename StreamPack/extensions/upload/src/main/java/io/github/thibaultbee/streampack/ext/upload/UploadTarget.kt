@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.ext.upload
+
+import java.net.HttpURLConnection
+import java.net.URL
+
+/**
+ * Where files are uploaded to.
+ */
+interface UploadTarget {
+    /**
+     * Creates the request that uploads a file. The body is written by the caller.
+     *
+     * @param key the name of the file on the server
+     * @param contentLength the size of the file in bytes
+     * @return the connection, not connected yet
+     */
+    fun openConnection(key: String, contentLength: Long): HttpURLConnection
+}
+
+/**
+ * Uploads files with a HTTP(S) `PUT` to `baseUrl/key`.
+ *
+ * It also works with presigned or public-write S3-compatible buckets.
+ *
+ * @param baseUrl the URL files are uploaded under
+ * @param headers the headers added to every request, for example an `Authorization` header
+ * @param timeoutInMs the connect and read timeout
+ */
+class HttpUploadTarget(
+    private val baseUrl: String,
+    private val headers: Map<String, String> = emptyMap(),
+    private val timeoutInMs: Int = DEFAULT_TIMEOUT_IN_MS
+) : UploadTarget {
+    override fun openConnection(key: String, contentLength: Long): HttpURLConnection {
+        val url = URL("${baseUrl.trimEnd('/')}/${AwsV4Signer.encodePath(key)}")
+        return (url.openConnection() as HttpURLConnection).apply {
+            requestMethod = "PUT"
+            connectTimeout = timeoutInMs
+            readTimeout = timeoutInMs
+            setRequestProperty("Content-Type", CONTENT_TYPE)
+            headers.forEach { (name, value) -> setRequestProperty(name, value) }
+        }
+    }
+
+    companion object {
+        const val DEFAULT_TIMEOUT_IN_MS = 15_000
+        internal const val CONTENT_TYPE = "application/octet-stream"
+    }
+}
+
+/**
+ * Uploads files to a S3-compatible storage with a signed `PUT` to `endpoint/bucket/key`
+ * (path-style).
+ *
+ * The body is not hashed (`UNSIGNED-PAYLOAD`) so that files are read once.
+ *
+ * @param endpoint the storage URL, for example `https://s3.eu-west-3.amazonaws.com`
+ * @param region the region of the bucket
+ * @param bucket the bucket
+ * @param accessKeyId the access key ID
+ * @param secretAccessKey the secret access key
+ * @param timeoutInMs the connect and read timeout
+ * @param wallClockInMs the clock of the signature
+ */
+class S3UploadTarget(
+    private val endpoint: String,
+    region: String,
+    private val bucket: String,
+    accessKeyId: String,
+    secretAccessKey: String,
+    private val timeoutInMs: Int = HttpUploadTarget.DEFAULT_TIMEOUT_IN_MS,
+    private val wallClockInMs: () -> Long = { System.currentTimeMillis() }
+) : UploadTarget {
+    private val signer = AwsV4Signer(accessKeyId, secretAccessKey, region)
+
+    override fun openConnection(key: String, contentLength: Long): HttpURLConnection {
+        val path = AwsV4Signer.encodePath("/$bucket/$key")
+        val url = URL("${endpoint.trimEnd('/')}$path")
+        val timeInMs = wallClockInMs()
+        val host = if ((url.port == -1) || (url.port == url.defaultPort)) {
+            url.host
+        } else {
+            "${url.host}:${url.port}"
+        }
+        val signedHeaders = mapOf(
+            "host" to host,
+            "x-amz-content-sha256" to AwsV4Signer.UNSIGNED_PAYLOAD,
+            "x-amz-date" to AwsV4Signer.formatDateTime(timeInMs)
+        )
+        val authorization = signer.authorization(
+            "PUT",
+            url.path,
+            signedHeaders,
+            AwsV4Signer.UNSIGNED_PAYLOAD,
+            timeInMs
+        )
+
+        return (url.openConnection() as HttpURLConnection).apply {
+            requestMethod = "PUT"
+            connectTimeout = timeoutInMs
+            readTimeout = timeoutInMs
+            setRequestProperty("Content-Type", HttpUploadTarget.CONTENT_TYPE)
+            // Host is set by the connection
+            signedHeaders.filterKeys { it != "host" }
+                .forEach { (name, value) -> setRequestProperty(name, value) }
+            setRequestProperty("Authorization", authorization)
+        }
+    }
+}
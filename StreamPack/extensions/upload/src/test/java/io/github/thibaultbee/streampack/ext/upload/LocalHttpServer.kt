@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.ext.upload
+
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.InputStream
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.SocketException
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.concurrent.thread
+
+/**
+ * A minimal HTTP/1.1 server on the loopback interface that stands in for an upload server.
+ *
+ * Every connection serves a single request.
+ *
+ * @param responseCode returns the response code of a request
+ */
+class LocalHttpServer(
+    private val responseCode: (Request) -> Int = { 200 }
+) : Closeable {
+    private val serverSocket = ServerSocket(0, 50, InetAddress.getLoopbackAddress())
+
+    val url = "http://127.0.0.1:${serverSocket.localPort}"
+
+    /**
+     * The received requests, whatever their response code.
+     */
+    val requests = CopyOnWriteArrayList<Request>()
+
+    init {
+        thread(isDaemon = true, name = "LocalHttpServer") {
+            try {
+                while (true) {
+                    val socket = serverSocket.accept()
+                    thread(isDaemon = true) { serve(socket) }
+                }
+            } catch (_: SocketException) {
+                // Closed
+            }
+        }
+    }
+
+    private fun serve(socket: Socket) {
+        socket.use {
+            val input = socket.getInputStream().buffered()
+            val (method, path) = input.readLine().split(" ")
+            val headers = mutableMapOf<String, String>()
+            while (true) {
+                val line = input.readLine()
+                if (line.isEmpty()) {
+                    break
+                }
+                val name = line.substringBefore(':').trim().lowercase()
+                headers[name] = line.substringAfter(':').trim()
+            }
+            val contentLength = headers["content-length"]?.toInt() ?: 0
+            val body = ByteArray(contentLength)
+            var offset = 0
+            while (offset < contentLength) {
+                val size = input.read(body, offset, contentLength - offset)
+                if (size < 0) {
+                    break
+                }
+                offset += size
+            }
+
+            val request = Request(method, path, headers, body.copyOf(offset))
+            requests.add(request)
+            val code = responseCode(request)
+            socket.getOutputStream().apply {
+                write("HTTP/1.1 $code Status\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".toByteArray())
+                flush()
+            }
+        }
+    }
+
+    private fun InputStream.readLine(): String {
+        val line = ByteArrayOutputStream()
+        while (true) {
+            val c = read()
+            if ((c < 0) || (c == '\n'.code)) {
+                break
+            }
+            if (c != '\r'.code) {
+                line.write(c)
+            }
+        }
+        return line.toString(Charsets.US_ASCII.name())
+    }
+
+    override fun close() {
+        serverSocket.close()
+    }
+
+    /**
+     * A received request.
+     *
+     * @param headers the headers, with lower case names
+     */
+    class Request(
+        val method: String,
+        val path: String,
+        val headers: Map<String, String>,
+        val body: ByteArray
+    )
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.ext.upload
+
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeProvider
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.currentTime
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class UploadBandwidthLimiterTest {
+    private fun TestScope.createTimeProvider() = object : TimeProvider {
+        override fun uptimeNs() = currentTime * 1_000_000
+
+        override fun realtimeNs() = uptimeNs()
+    }
+
+    @Test
+    fun `bitrate is respected`() = runTest {
+        // 10 kB/s
+        val limiter = UploadBandwidthLimiter({ 80_000 }, createTimeProvider())
+
+        repeat(10) {
+            limiter.acquire(1_000)
+        }
+
+        assertTrue("Sent in $currentTime ms", currentTime in 990L..1_020L)
+    }
+
+    @Test
+    fun `null bitrate does not limit`() = runTest {
+        val limiter = UploadBandwidthLimiter({ null }, createTimeProvider())
+
+        repeat(10) {
+            limiter.acquire(1_000_000)
+        }
+
+        assertEquals(0L, currentTime)
+    }
+
+    @Test
+    fun `0 bitrate pauses until the bitrate is raised`() = runTest {
+        var bitrate: Long? = 0
+        val limiter = UploadBandwidthLimiter({ bitrate }, createTimeProvider())
+
+        var isAcquired = false
+        launch {
+            limiter.acquire(1_000)
+            isAcquired = true
+        }
+        advanceTimeBy(5_000)
+        runCurrent()
+        assertFalse(isAcquired)
+
+        bitrate = null
+        advanceTimeBy(1_000)
+        runCurrent()
+        assertTrue(isAcquired)
+    }
+
+    @Test
+    fun `uploads get a share of the spare uplink`() {
+        var linkCapacity: Long? = 6_000_000
+        var liveBitrate = 4_000_000L
+        val bitrateProvider = UploadBandwidthLimiter.yieldingTo(
+            { linkCapacity },
+            { liveBitrate },
+            0.5f
+        )
+
+        assertEquals(1_000_000L, bitrateProvider())
+
+        // Live stream uses more than the estimated capacity
+        liveBitrate = 7_000_000L
+        assertEquals(0L, bitrateProvider())
+
+        // No live stream
+        linkCapacity = null
+        assertNull(bitrateProvider())
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.ext.upload
+
+import io.github.thibaultbee.streampack.ext.upload.utils.StubLogger
+import io.github.thibaultbee.streampack.core.logger.Logger
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class UploadQueueTest {
+    @get:Rule
+    val rootFolder: TemporaryFolder = TemporaryFolder()
+
+    init {
+        Logger.logger = StubLogger()
+    }
+
+    private val queueFile: File
+        get() = File(rootFolder.root, "uploads.queue")
+
+    @Test
+    fun `entries are persisted`() {
+        val entries = listOf(
+            UploadQueue.Entry("/records/chunk_0", "chunk_0"),
+            UploadQueue.Entry("/records/chunk_1", "chunk_1"),
+            UploadQueue.Entry("/records/chunk_2", "chunk_2")
+        )
+        UploadQueue(queueFile).apply {
+            entries.forEach { assertTrue(add(it)) }
+            assertFalse(add(entries[0]))
+            remove(entries[1])
+        }
+
+        assertEquals(listOf(entries[0], entries[2]), UploadQueue(queueFile).pendingEntries)
+    }
+
+    @Test
+    fun `missing file gives an empty queue`() {
+        assertEquals(0, UploadQueue(queueFile).size)
+    }
+
+    @Test
+    fun `corrupted file gives an empty queue`() {
+        queueFile.writeBytes(byteArrayOf(0x55, 0x50, 0x4C, 0x51, 0x00))
+
+        val queue = UploadQueue(queueFile)
+        assertEquals(0, queue.size)
+
+        assertTrue(queue.add(UploadQueue.Entry("/records/chunk_0", "chunk_0")))
+        assertEquals(1, UploadQueue(queueFile).size)
+    }
+}
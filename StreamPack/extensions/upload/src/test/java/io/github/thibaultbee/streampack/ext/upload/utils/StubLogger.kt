@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2025 Thibault B.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.github.thibaultbee.streampack.ext.upload.utils
+
+import io.github.thibaultbee.streampack.core.logger.ILogger
+
+class StubLogger : ILogger {
+    override fun e(tag: String, message: String, tr: Throwable?) = println("E:$tag:$message")
+    override fun w(tag: String, message: String, tr: Throwable?) = println("W:$tag:$message")
+    override fun i(tag: String, message: String, tr: Throwable?) = println("I:$tag:$message")
+    override fun v(tag: String, message: String, tr: Throwable?) = println("V:$tag:$message")
+    override fun d(tag: String, message: String, tr: Throwable?) = println("D:$tag:$message")
+}
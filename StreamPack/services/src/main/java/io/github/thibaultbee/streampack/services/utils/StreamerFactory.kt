@@ -16,6 +16,8 @@
 package io.github.thibaultbee.streampack.services.utils
 
 import android.content.Context
+import io.github.thibaultbee.streampack.core.elements.endpoints.DynamicEndpointFactory
+import io.github.thibaultbee.streampack.core.elements.endpoints.IEndpointInternal
 import io.github.thibaultbee.streampack.core.elements.utils.RotationValue
 import io.github.thibaultbee.streampack.core.elements.utils.extensions.displayRotation
 import io.github.thibaultbee.streampack.core.interfaces.IStreamer
@@ -45,11 +47,13 @@ interface StreamerFactory<T : IStreamer> {
  * @param withAudio true if the streamer have an audio source
  * @param withVideo true if the streamer have a video source
  * @param defaultRotation the default rotation in [Surface] rotation ([Surface.ROTATION_0], ...). By default, it is the current device orientation.
+ * @param endpointFactory the [IEndpointInternal.Factory] implementation. By default, it is a [DynamicEndpointFactory].
  */
 open class SingleStreamerFactory(
     private val withAudio: Boolean,
     private val withVideo: Boolean,
-    @RotationValue private val defaultRotation: Int? = null
+    @RotationValue private val defaultRotation: Int? = null,
+    private val endpointFactory: IEndpointInternal.Factory = DynamicEndpointFactory()
 ) :
     StreamerFactory<ISingleStreamer> {
     override fun create(context: Context): ISingleStreamer {
@@ -57,6 +61,7 @@ open class SingleStreamerFactory(
             context,
             withAudio,
             withVideo,
+            endpointFactory = endpointFactory,
             defaultRotation = defaultRotation ?: context.displayRotation
         )
     }
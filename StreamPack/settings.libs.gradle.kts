@@ -16,3 +16,6 @@ project(":extension-rtmp").name = "streampack-rtmp"
 include(":extension-srt")
 project(":extension-srt").projectDir = File(rootDir, "extensions/srt")
 project(":extension-srt").name = "streampack-srt"
+include(":extension-upload")
+project(":extension-upload").projectDir = File(rootDir, "extensions/upload")
+project(":extension-upload").name = "streampack-upload"
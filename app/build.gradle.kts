@@ -96,6 +96,7 @@ dependencies {
     implementation("io.github.thibaultbee.streampack:streampack-services:3.0.1-SNAPSHOT")
     implementation("io.github.thibaultbee.streampack:streampack-rtmp:3.0.1-SNAPSHOT")
     implementation("io.github.thibaultbee.streampack:streampack-srt:3.0.1-SNAPSHOT")
+    implementation("io.github.thibaultbee.streampack:streampack-upload:3.0.1-SNAPSHOT")
 
     implementation("com.herohan:UVCAndroid:1.0.11")
     implementation("com.google.code.gson:gson:2.11.0")
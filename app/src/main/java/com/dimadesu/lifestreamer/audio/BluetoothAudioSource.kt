@@ -6,6 +6,7 @@ import android.media.AudioManager
 import android.media.AudioDeviceInfo
 import android.media.AudioFormat
 import android.media.AudioRecord
+import android.media.AudioTimestamp
 import android.media.MediaRecorder
 import android.os.Build
 import android.util.Log
@@ -14,6 +15,7 @@ import com.dimadesu.lifestreamer.data.storage.DataStoreRepository
 import com.dimadesu.lifestreamer.utils.dataStore
 import kotlinx.coroutines.flow.first
 import io.github.thibaultbee.streampack.core.elements.data.RawFrame
+import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
 import io.github.thibaultbee.streampack.core.elements.sources.audio.AudioSourceConfig
 import io.github.thibaultbee.streampack.core.elements.sources.audio.IAudioSourceInternal
 import io.github.thibaultbee.streampack.core.elements.sources.audio.IAudioFrameSourceInternal
@@ -21,6 +23,7 @@ import io.github.thibaultbee.streampack.core.elements.interfaces.SuspendConfigur
 import io.github.thibaultbee.streampack.core.elements.interfaces.SuspendStreamable
 import io.github.thibaultbee.streampack.core.elements.interfaces.Releasable
 import io.github.thibaultbee.streampack.core.elements.utils.pool.IReadOnlyRawFrameFactory
+import io.github.thibaultbee.streampack.core.elements.utils.time.AudioClock
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.suspendCancellableCoroutine
@@ -51,6 +54,10 @@ class BluetoothAudioSource(
     private var audioRecord: AudioRecord? = null
     private var bufferSize: Int = 0
 
+    private val audioTimestamp = AudioTimestamp()
+    private var audioClock: AudioClock? = null
+    private var bytesPerFrame = 0
+
     private val _isStreamingFlow = MutableStateFlow(false)
     override val isStreamingFlow = _isStreamingFlow.asStateFlow()
 
@@ -75,6 +82,9 @@ class BluetoothAudioSource(
         ).also { if (it <= 0) throw IllegalArgumentException("Invalid buffer size: $it") }
 
         currentConfig = config
+        audioClock = AudioClock(config.sampleRate)
+        bytesPerFrame = AudioCodecConfig.getNumberOfChannels(config.channelConfig) *
+                AudioCodecConfig.getNumOfBytesPerSample(config.byteFormat)
 
         audioRecord = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             val audioFormat = AudioFormat.Builder()
@@ -157,6 +167,8 @@ class BluetoothAudioSource(
             }
         }
 
+        // Frame positions restart with the recording
+        audioClock?.reset()
         ar.startRecording()
         _isStreamingFlow.tryEmit(true)
     }
@@ -230,10 +242,19 @@ class BluetoothAudioSource(
             throw IllegalStateException("Audio source is not recording")
         }
 
+        val audioClock = requireNotNull(audioClock) { "Audio source is not configured" }
+
         val buffer = frame.rawBuffer
-        val length = ar.read(buffer, buffer.remaining())
+        // Encoder input buffers can be much larger than the record buffer: do not wait to fill them
+        val length = ar.read(buffer, minOf(buffer.remaining(), bufferSize))
         if (length > 0) {
-            frame.timestampInUs = System.nanoTime() / 1000L
+            buffer.limit(buffer.position() + length)
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N &&
+                ar.getTimestamp(audioTimestamp, AudioTimestamp.TIMEBASE_MONOTONIC) == AudioRecord.SUCCESS
+            ) {
+                audioClock.onTimestamp(audioTimestamp.framePosition, audioTimestamp.nanoTime)
+            }
+            frame.timestampInUs = audioClock.onFramesRead((length / bytesPerFrame).coerceAtLeast(1))
             return frame
         } else {
             frame.close()
@@ -2,6 +2,7 @@ package com.dimadesu.lifestreamer.audio
 
 import android.content.Context
 import io.github.thibaultbee.streampack.core.elements.data.RawFrame
+import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
 import io.github.thibaultbee.streampack.core.elements.sources.audio.AudioSourceConfig
 import io.github.thibaultbee.streampack.core.elements.sources.audio.IAudioSourceInternal
 import io.github.thibaultbee.streampack.core.elements.sources.audio.IAudioFrameSourceInternal
@@ -9,6 +10,8 @@ import io.github.thibaultbee.streampack.core.elements.interfaces.SuspendConfigur
 import io.github.thibaultbee.streampack.core.elements.interfaces.SuspendStreamable
 import io.github.thibaultbee.streampack.core.elements.interfaces.Releasable
 import io.github.thibaultbee.streampack.core.elements.utils.pool.IReadOnlyRawFrameFactory
+import io.github.thibaultbee.streampack.core.elements.utils.time.AudioClock
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.sync.Mutex
@@ -25,7 +28,9 @@ class NetworkAudioSource : IAudioSourceInternal, IAudioFrameSourceInternal, Susp
     override val isStreamingFlow = _isStreamingFlow.asStateFlow()
 
     private var currentConfig: AudioSourceConfig? = null
-    private val frameQueue = ConcurrentLinkedQueue<ByteArray>()
+    private val frameQueue = ConcurrentLinkedQueue<PcmChunk>()
+    private var audioClock: AudioClock? = null
+    private var bytesPerFrame = 0
     private val mutex = Mutex()
 
     /**
@@ -33,15 +38,19 @@ class NetworkAudioSource : IAudioSourceInternal, IAudioFrameSourceInternal, Susp
      */
     fun pushPcmData(data: ByteArray) {
         if (_isStreamingFlow.value) {
-            frameQueue.offer(data)
+            frameQueue.offer(PcmChunk(data, TimeUtils.systemTimeProvider.uptimeNs()))
         }
     }
 
     override suspend fun configure(config: AudioSourceConfig) {
         currentConfig = config
+        audioClock = AudioClock(config.sampleRate)
+        bytesPerFrame = AudioCodecConfig.getNumberOfChannels(config.channelConfig) *
+                AudioCodecConfig.getNumOfBytesPerSample(config.byteFormat)
     }
 
     override suspend fun startStream() {
+        audioClock?.reset()
         _isStreamingFlow.emit(true)
     }
 
@@ -55,26 +64,36 @@ class NetworkAudioSource : IAudioSourceInternal, IAudioFrameSourceInternal, Susp
     }
 
     override fun fillAudioFrame(frame: RawFrame): RawFrame {
-        val data = frameQueue.poll()
-        if (data != null) {
+        val chunk = frameQueue.poll()
+        val audioClock = audioClock
+        if (chunk != null && audioClock != null) {
             val buffer = frame.rawBuffer
-            val fillSize = minOf(data.size, buffer.remaining())
-            buffer.put(data, 0, fillSize)
-            frame.timestampInUs = System.nanoTime() / 1000L
+            val fillSize = minOf(chunk.data.size, buffer.remaining())
+            buffer.duplicate().put(chunk.data, 0, fillSize)
+            buffer.limit(buffer.position() + fillSize)
+            val frameCount = (fillSize / bytesPerFrame).coerceAtLeast(1)
+            // The last frame of a chunk is received with it
+            audioClock.onTimestamp(audioClock.framesRead + frameCount, chunk.arrivalTimeInNs)
+            frame.timestampInUs = audioClock.onFramesRead(frameCount)
             return frame
         } else {
-            // Stall detected - RawFramePullPush will catch null and inject SilentFrame
+            // Stall: the audio input fills the gap with silence
             frame.close()
-            return null as RawFrame // Explicit null to signal stall
+            throw IllegalStateException("No network audio available")
         }
     }
 
     override fun getAudioFrame(frameFactory: IReadOnlyRawFrameFactory): RawFrame {
-        val cfg = currentConfig ?: return null as RawFrame
+        requireNotNull(currentConfig) { "Audio source is not configured" }
         // Assume standard frame size if queue empty, or match incoming data size
-        val size = frameQueue.peek()?.size ?: 1024 
+        val size = frameQueue.peek()?.data?.size ?: 1024
         return fillAudioFrame(frameFactory.create(size, 0))
     }
+
+    /**
+     * PCM data with the uptime it was received at.
+     */
+    private class PcmChunk(val data: ByteArray, val arrivalTimeInNs: Long)
 }
 
 class NetworkAudioSourceFactory : IAudioSourceInternal.Factory {
@@ -3,6 +3,7 @@ package com.dimadesu.lifestreamer.bitrate
 import android.util.Log
 import io.github.thibaultbee.srtdroid.core.models.Stats
 import io.github.thibaultbee.streampack.core.configuration.BitrateRegulatorConfig
+import io.github.thibaultbee.streampack.ext.srt.elements.endpoints.composites.sinks.SrtSendRateMeter
 import io.github.thibaultbee.streampack.ext.srt.regulator.SrtBitrateRegulator
 import kotlin.math.max
 import kotlin.math.min
@@ -55,6 +56,7 @@ class BelaboxSrtBelaRegulator(
     private var rttMin: Double = 200.0
     private var rttJitter: Double = 0.0
     private var throughput: Double = 0.0
+    private val sendRateMeter = SrtSendRateMeter()
     private var nextBitrateIncrTimeNs: Long = System.nanoTime()
     private var nextBitrateDecrTimeNs: Long = System.nanoTime()
     private var curBitrate: Long = 0L
@@ -147,7 +149,8 @@ class BelaboxSrtBelaRegulator(
         val deltaRtt = updateAverageRttDelta(rtt)
         updateRttMin(rtt)
         updateRttJitter(deltaRtt)
-        updateThroughput(stats.mbpsSendRate)
+        // Stats are not cleared on read: mbpsSendRate is the average since the connection
+        updateThroughput(sendRateMeter.update(stats))
 
         // srtdroid Stats doesn't expose every optional field the Swift version used.
         // Use a sensible default SRT latency when not available.
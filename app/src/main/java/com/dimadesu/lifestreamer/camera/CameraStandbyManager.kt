@@ -0,0 +1,194 @@
+package com.dimadesu.lifestreamer.camera
+
+import android.app.ActivityManager
+import android.content.Context
+import android.os.BatteryManager
+import android.os.Build
+import android.os.PowerManager
+import android.util.Log
+import io.github.thibaultbee.streampack.core.elements.sources.video.IVideoSource
+import io.github.thibaultbee.streampack.core.elements.sources.video.camera.CameraSourceFactory
+import io.github.thibaultbee.streampack.core.elements.sources.video.camera.ICameraSource
+import io.github.thibaultbee.streampack.core.elements.sources.video.camera.extensions.cameraManager
+import io.github.thibaultbee.streampack.core.elements.sources.video.camera.extensions.cameras
+import io.github.thibaultbee.streampack.core.pipelines.inputs.IVideoInput
+
+/**
+ * Standby camera settings.
+ *
+ * @param isEnabled whether a standby camera is kept open while streaming
+ * @param pairedCameraId the camera to keep in standby. If null, the next camera of the camera
+ * switch order ([android.hardware.camera2.CameraManager.getCameraIdList]) is used.
+ */
+data class CameraStandbyConfig(
+    val isEnabled: Boolean = false,
+    val pairedCameraId: String? = null
+)
+
+/**
+ * Keeps the next likely camera opened with a ready capture session so that a camera switch only
+ * retargets the encoder surface (see [IVideoInput.setStandbySource]).
+ *
+ * Holding two cameras costs power and memory, so a standby camera is only held while streaming,
+ * when the device advertises the camera pair as concurrent and when the device is not
+ * constrained (low memory, power save, high thermal status or low battery).
+ * If a standby camera fails to open, standby is disabled until the next [reset].
+ *
+ * Concurrent camera pairs can only be queried from Android 11
+ * ([android.hardware.camera2.CameraManager.getConcurrentCameraIds]). Before, opening a second
+ * camera usually evicts the first one, so standby is never used and camera switches always reopen
+ * the camera.
+ */
+class CameraStandbyManager(private val context: Context) {
+    private val cameraManager = context.cameraManager
+    private val powerManager = context.getSystemService(Context.POWER_SERVICE) as PowerManager
+    private val activityManager =
+        context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
+    private val batteryManager =
+        context.getSystemService(Context.BATTERY_SERVICE) as BatteryManager
+
+    @Volatile
+    private var hasFailed = false
+
+    /**
+     * Opens, replaces or releases the standby camera according to the current state.
+     *
+     * @param videoInput the video input that holds the standby source
+     * @param config the standby settings
+     * @param activeSource the current video source
+     * @param isStreaming whether the stream is live
+     */
+    suspend fun update(
+        videoInput: IVideoInput,
+        config: CameraStandbyConfig,
+        activeSource: IVideoSource?,
+        isStreaming: Boolean
+    ) {
+        val activeCameraId = (activeSource as? ICameraSource)?.cameraId
+        val standbyCameraId = if (config.isEnabled && isStreaming && !hasFailed) {
+            activeCameraId?.let { getStandbyCameraId(it, config.pairedCameraId) }
+        } else {
+            null
+        }
+
+        if ((standbyCameraId == null) || !canHoldStandby(activeCameraId!!, standbyCameraId)) {
+            release(videoInput)
+            return
+        }
+
+        if ((videoInput.standbySourceFlow.value as? ICameraSource)?.cameraId == standbyCameraId) {
+            return
+        }
+
+        try {
+            videoInput.setStandbySource(CameraSourceFactory(standbyCameraId), STANDBY_FPS)
+            Log.i(TAG, "Camera $standbyCameraId is in standby")
+        } catch (t: Throwable) {
+            // Device can't hold two opened cameras: fallback to regular camera switch
+            Log.w(TAG, "Failed to open standby camera $standbyCameraId: ${t.message}")
+            hasFailed = true
+            release(videoInput)
+        }
+    }
+
+    /**
+     * Releases the standby camera if any.
+     */
+    suspend fun release(videoInput: IVideoInput) {
+        if (videoInput.standbySourceFlow.value == null) {
+            return
+        }
+        try {
+            videoInput.releaseStandbySource()
+            Log.i(TAG, "Standby camera released")
+        } catch (t: Throwable) {
+            Log.w(TAG, "Failed to release standby camera: ${t.message}")
+        }
+    }
+
+    /**
+     * Allows a new standby attempt after a failure.
+     */
+    fun reset() {
+        hasFailed = false
+    }
+
+    private fun getStandbyCameraId(activeCameraId: String, pairedCameraId: String?): String? {
+        val cameras = cameraManager.cameras
+        if (!pairedCameraId.isNullOrBlank()) {
+            return pairedCameraId.takeIf { it != activeCameraId && cameras.contains(it) }
+        }
+        // Same order as the camera switch button so that the next switch targets the standby camera
+        val cameraIds = cameraManager.cameraIdList
+        val activeIndex = cameraIds.indexOf(activeCameraId)
+        if ((activeIndex == -1) || (cameraIds.size < 2)) {
+            return null
+        }
+        return cameraIds[(activeIndex + 1) % cameraIds.size]
+    }
+
+    private fun canHoldStandby(activeCameraId: String, standbyCameraId: String): Boolean {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            // No way to know if both cameras can be opened: see class documentation.
+            Log.i(TAG, "Standby camera disabled: concurrent cameras can't be queried before Android 11")
+            return false
+        }
+        val isConcurrent = cameraManager.concurrentCameraIds.any {
+            it.contains(activeCameraId) && it.contains(standbyCameraId)
+        }
+        if (!isConcurrent) {
+            Log.d(TAG, "Cameras $activeCameraId and $standbyCameraId can't be opened concurrently")
+            return false
+        }
+        return !isConstrained()
+    }
+
+    private fun isConstrained(): Boolean {
+        val memoryInfo = ActivityManager.MemoryInfo().apply {
+            activityManager.getMemoryInfo(this)
+        }
+        if (activityManager.isLowRamDevice || memoryInfo.lowMemory) {
+            Log.i(TAG, "Standby camera disabled: low memory")
+            return true
+        }
+        if (powerManager.isPowerSaveMode) {
+            Log.i(TAG, "Standby camera disabled: power save mode")
+            return true
+        }
+        if ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) &&
+            (powerManager.currentThermalStatus >= PowerManager.THERMAL_STATUS_SEVERE)
+        ) {
+            Log.i(TAG, "Standby camera disabled: thermal status ${powerManager.currentThermalStatus}")
+            return true
+        }
+        val batteryLevel =
+            batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY)
+        if (!batteryManager.isCharging && (batteryLevel in 0 until MIN_BATTERY_LEVEL)) {
+            Log.i(TAG, "Standby camera disabled: battery level $batteryLevel%")
+            return true
+        }
+        return false
+    }
+
+    companion object {
+        private const val TAG = "CameraStandbyManager"
+
+        /**
+         * Frame rate of the standby camera while it is not rendered.
+         */
+        private const val STANDBY_FPS = 15
+
+        private const val MIN_BATTERY_LEVEL = 20
+
+        /**
+         * Period at which the device constraints are re-evaluated while streaming.
+         */
+        const val GUARD_CHECK_INTERVAL_MS = 30_000L
+
+        /**
+         * Delay before opening a standby camera after a source change. It lets the previous camera
+         * be closed.
+         */
+        const val SETTLE_DELAY_MS = 1_000L
+    }
+}
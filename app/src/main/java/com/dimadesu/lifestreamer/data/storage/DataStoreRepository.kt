@@ -12,14 +12,18 @@ import androidx.datastore.preferences.core.edit
 import androidx.datastore.preferences.core.intPreferencesKey
 import androidx.datastore.preferences.core.stringPreferencesKey
 import com.dimadesu.lifestreamer.ApplicationConstants
+import com.dimadesu.lifestreamer.camera.CameraStandbyConfig
 import com.swissi.lifestreamer.multitool.R
 import com.dimadesu.lifestreamer.models.EndpointType
 import com.dimadesu.lifestreamer.models.FileExtension
+import com.dimadesu.lifestreamer.recording.LocalRecordingSettings
 import com.dimadesu.lifestreamer.utils.appendIfNotEndsWith
 import com.dimadesu.lifestreamer.utils.createVideoContentUri
 import io.github.thibaultbee.streampack.core.configuration.BitrateRegulatorConfig
+import io.github.thibaultbee.streampack.core.configuration.LiveLatencyConfig
 import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
 import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.UriMediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.encoders.VideoRateControl
 import io.github.thibaultbee.streampack.core.streamers.single.AudioConfig
 import io.github.thibaultbee.streampack.core.streamers.single.VideoConfig
 import io.github.thibaultbee.streampack.ext.srt.configuration.mediadescriptor.SrtMediaDescriptor
@@ -118,16 +122,36 @@ class DataStoreRepository(
         val level =
             preferences[stringPreferencesKey(context.getString(R.string.video_level_key))]?.toInt()
                 ?: VideoConfig.getBestLevel(mimeType, profile)
+        val bitrateMode =
+            preferences[stringPreferencesKey(context.getString(R.string.video_bitrate_mode_key))]
+                ?.let { name -> VideoRateControl.BitrateMode.entries.firstOrNull { it.name == name } }
+        val intraRefreshPeriodInFrames =
+            preferences[stringPreferencesKey(context.getString(R.string.video_intra_refresh_period_key))]
+                ?.trim()?.toIntOrNull()?.takeIf { it > 0 }
         VideoConfig(
             mimeType = mimeType,
             startBitrate = startBitrate,
             resolution = resolution,
             fps = fps,
             profile = profile,
-            level = level
+            level = level,
+            rateControl = VideoRateControl(
+                bitrateMode = bitrateMode,
+                intraRefreshPeriodInFrames = intraRefreshPeriodInFrames
+            )
         )
     }.distinctUntilChanged()
 
+    val cameraStandbyConfigFlow: Flow<CameraStandbyConfig> = dataStore.data.map { preferences ->
+        val isEnabled =
+            preferences[booleanPreferencesKey(context.getString(R.string.camera_standby_enable_key))]
+                ?: false
+        val pairedCameraId =
+            preferences[stringPreferencesKey(context.getString(R.string.camera_standby_camera_id_key))]
+                ?.trim()?.takeIf { it.isNotEmpty() }
+        CameraStandbyConfig(isEnabled = isEnabled, pairedCameraId = pairedCameraId)
+    }.distinctUntilChanged()
+
     val endpointDescriptorFlow: Flow<MediaDescriptor> = dataStore.data.map { preferences ->
         val endpointTypeId =
             preferences[stringPreferencesKey(context.getString(R.string.endpoint_type_key))]?.toInt()
@@ -227,6 +251,67 @@ class DataStoreRepository(
             ?: true // Default to true (recommended)
     }.distinctUntilChanged()
 
+    val srtSourceRelayFlow: Flow<Boolean> = dataStore.data.map { preferences ->
+        preferences[booleanPreferencesKey(context.getString(R.string.srt_source_relay_key))]
+            ?: false
+    }.distinctUntilChanged()
+
+    val rtmpSourceMixMicrophoneFlow: Flow<Boolean> = dataStore.data.map { preferences ->
+        preferences[booleanPreferencesKey(context.getString(R.string.rtmp_source_mix_microphone_key))]
+            ?: false
+    }.distinctUntilChanged()
+
+    val streamMetricsExportFlow: Flow<Boolean> = dataStore.data.map { preferences ->
+        preferences[booleanPreferencesKey(context.getString(R.string.stream_metrics_export_key))]
+            ?: false
+    }.distinctUntilChanged()
+
+    val streamFastReconnectFlow: Flow<Boolean> = dataStore.data.map { preferences ->
+        preferences[booleanPreferencesKey(context.getString(R.string.stream_fast_reconnect_key))]
+            ?: false
+    }.distinctUntilChanged()
+
+    val streamTimingSeiFlow: Flow<Boolean> = dataStore.data.map { preferences ->
+        preferences[booleanPreferencesKey(context.getString(R.string.stream_timing_sei_key))]
+            ?: false
+    }.distinctUntilChanged()
+
+    val localRecordingSettingsFlow: Flow<LocalRecordingSettings> = dataStore.data.map { preferences ->
+        val isEnabled =
+            preferences[booleanPreferencesKey(context.getString(R.string.local_recording_enable_key))]
+                ?: false
+        val videoBitrateInMbps =
+            preferences[stringPreferencesKey(context.getString(R.string.local_recording_bitrate_key))]
+                ?.trim()?.toIntOrNull()?.takeIf { it > 0 }
+        val uploadUrl =
+            preferences[stringPreferencesKey(context.getString(R.string.local_recording_upload_url_key))]
+                ?.trim()?.takeIf { it.isNotEmpty() }
+        LocalRecordingSettings(
+            isEnabled = isEnabled,
+            videoBitrate = videoBitrateInMbps?.let { it * 1_000_000 }
+                ?: LocalRecordingSettings().videoBitrate,
+            uploadUrl = uploadUrl
+        )
+    }.distinctUntilChanged()
+
+    val liveLatencyConfigFlow: Flow<LiveLatencyConfig> = dataStore.data.map { preferences ->
+        val isEnabled =
+            preferences[booleanPreferencesKey(context.getString(R.string.rtmp_source_low_latency_key))]
+                ?: false
+        val targetLatencyMs =
+            preferences[intPreferencesKey(context.getString(R.string.rtmp_source_target_latency_key))]
+                ?: LiveLatencyConfig.DEFAULT_TARGET_LATENCY_MS
+        val maxLatencyMs =
+            preferences[intPreferencesKey(context.getString(R.string.rtmp_source_max_latency_key))]
+                ?: LiveLatencyConfig.DEFAULT_MAX_LATENCY_MS
+        LiveLatencyConfig(
+            isEnabled = isEnabled,
+            targetLatencyMs = targetLatencyMs,
+            // Leave room to catch up with playback speed before jumping to live
+            maxLatencyMs = maxOf(maxLatencyMs, targetLatencyMs * 2)
+        )
+    }.distinctUntilChanged()
+
     val bitrateRegulatorConfigFlow: Flow<BitrateRegulatorConfig?> =
         dataStore.data.map { preferences ->
             val isBitrateRegulatorEnable =
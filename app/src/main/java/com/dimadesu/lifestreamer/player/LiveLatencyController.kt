@@ -0,0 +1,144 @@
+package com.dimadesu.lifestreamer.player
+
+import android.os.Handler
+import android.os.SystemClock
+import android.util.Log
+import androidx.media3.common.PlaybackParameters
+import androidx.media3.common.Player
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.exoplayer.ExoPlayer
+import androidx.media3.exoplayer.analytics.AnalyticsListener
+import io.github.thibaultbee.streampack.core.configuration.LiveLatencyConfig
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.abs
+
+/**
+ * Measures and corrects the latency of a pulled live source.
+ *
+ * Progressive live sources (RTMP, SRT/TS) have no live window so ExoPlayer does not manage their
+ * latency. The latency added on the device is the media buffered ahead of the playback position
+ * plus the media held by the transport (the SRT receive buffer). It does not include the network
+ * and the remote encoder latency.
+ *
+ * When [LiveLatencyConfig.isEnabled], the playback speed is raised while the latency is above the
+ * target and, above [LiveLatencyConfig.maxLatencyMs], the buffer is dropped to join the live edge.
+ * Unseekable sources are reloaded from the live edge in that case.
+ *
+ * The controller stops by itself when the player is released.
+ *
+ * @param player the player of the pulled source
+ * @param config the latency settings
+ */
+@UnstableApi
+class LiveLatencyController(
+    private val player: ExoPlayer,
+    private val config: LiveLatencyConfig
+) {
+    private val handler = Handler(player.applicationLooper)
+    private val transportLatencyMs = AtomicLong(0)
+
+    private val _latencyMsFlow = MutableStateFlow<Long?>(null)
+
+    /**
+     * The current source latency in ms or null if the source is not playing.
+     */
+    val latencyMsFlow: StateFlow<Long?> = _latencyMsFlow.asStateFlow()
+
+    private var isRunning = false
+    private var playbackSpeed = 1f
+    private var lastDropTimeMs = 0L
+
+    private val analyticsListener = object : AnalyticsListener {
+        override fun onPlayerReleased(eventTime: AnalyticsListener.EventTime) {
+            stop()
+        }
+    }
+
+    private val checkRunnable = object : Runnable {
+        override fun run() {
+            checkLatency()
+            if (isRunning) {
+                handler.postDelayed(this, CHECK_INTERVAL_MS)
+            }
+        }
+    }
+
+    /**
+     * Starts measuring the latency. Must be called on the player thread.
+     */
+    fun start() {
+        if (isRunning) {
+            return
+        }
+        isRunning = true
+        player.addAnalyticsListener(analyticsListener)
+        handler.postDelayed(checkRunnable, CHECK_INTERVAL_MS)
+    }
+
+    /**
+     * Stops measuring the latency. Must be called on the player thread.
+     */
+    fun stop() {
+        if (!isRunning) {
+            return
+        }
+        isRunning = false
+        handler.removeCallbacks(checkRunnable)
+        try {
+            player.removeAnalyticsListener(analyticsListener)
+        } catch (_: Exception) {
+        }
+        _latencyMsFlow.value = null
+    }
+
+    /**
+     * Reports the media held by the transport before the player, in ms.
+     * It can be called from any thread.
+     */
+    fun onTransportLatency(latencyMs: Long) {
+        transportLatencyMs.set(latencyMs)
+    }
+
+    private fun checkLatency() {
+        if (player.playbackState != Player.STATE_READY) {
+            _latencyMsFlow.value = null
+            return
+        }
+
+        val latencyMs = player.totalBufferedDuration + transportLatencyMs.get()
+        _latencyMsFlow.value = latencyMs
+        if (!config.isEnabled) {
+            return
+        }
+
+        val nowMs = SystemClock.elapsedRealtime()
+        if ((latencyMs > config.maxLatencyMs) && (nowMs - lastDropTimeMs > MIN_DROP_INTERVAL_MS)) {
+            Log.i(TAG, "Latency ${latencyMs}ms above ${config.maxLatencyMs}ms: joining live edge")
+            lastDropTimeMs = nowMs
+            setPlaybackSpeed(1f)
+            player.seekToDefaultPosition()
+            return
+        }
+
+        setPlaybackSpeed(config.getCatchUpSpeed(latencyMs, playbackSpeed > 1f))
+    }
+
+    private fun setPlaybackSpeed(speed: Float) {
+        if ((speed == playbackSpeed) || ((speed != 1f) && (abs(speed - playbackSpeed) < MIN_SPEED_CHANGE))) {
+            return
+        }
+        playbackSpeed = speed
+        player.playbackParameters = PlaybackParameters(speed)
+    }
+
+    companion object {
+        private const val TAG = "LiveLatencyController"
+
+        private const val CHECK_INTERVAL_MS = 500L
+        private const val MIN_DROP_INTERVAL_MS = 5_000L
+        private const val MIN_SPEED_CHANGE = 0.01f
+    }
+}
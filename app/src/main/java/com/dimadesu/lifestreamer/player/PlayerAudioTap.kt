@@ -0,0 +1,256 @@
+package com.dimadesu.lifestreamer.player
+
+import android.content.Context
+import android.util.Log
+import androidx.media3.common.C
+import androidx.media3.common.Format
+import androidx.media3.common.MimeTypes
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.exoplayer.DefaultRenderersFactory
+import androidx.media3.exoplayer.RenderersFactory
+import androidx.media3.exoplayer.audio.AudioSink
+import androidx.media3.exoplayer.audio.ForwardingAudioSink
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Taps the decoded audio of an ExoPlayer before it reaches the audio output.
+ *
+ * The tap wraps the player [AudioSink], so the player must be built with [createRenderersFactory]
+ * and keep its audio track enabled. The audio output still runs (muted by the player volume)
+ * because it is the clock that releases the video frames of the player.
+ *
+ * Decoded buffers are copied as 16-bit PCM with the media time of their first sample, only while
+ * the tap is enabled. [toStreamerTimeUs] maps a media time to the streamer clock from the audio
+ * output position, so the audio stays in sync with the video frames of the same player.
+ */
+@UnstableApi
+class PlayerAudioTap {
+    private val chunks = LinkedBlockingQueue<Chunk>(MAX_CHUNK_COUNT)
+    private val droppedChunkCount = AtomicLong(0)
+
+    @Volatile
+    private var isEnabled = false
+
+    @Volatile
+    private var clockAnchor: ClockAnchor? = null
+
+    @Volatile
+    private var isDiscontinuityPending = true
+
+    /**
+     * The playback speed of the player.
+     */
+    @Volatile
+    var speed = 1f
+        private set
+
+    /**
+     * Starts or stops copying the decoded audio. Stopping drops the copied audio.
+     */
+    fun setEnabled(enabled: Boolean) {
+        isEnabled = enabled
+        isDiscontinuityPending = true
+        chunks.clear()
+    }
+
+    /**
+     * Gets the next decoded buffer.
+     *
+     * @param timeoutUs the maximum time to wait for a buffer
+     * @return the buffer or null if none was decoded in time
+     */
+    fun poll(timeoutUs: Long): Chunk? = chunks.poll(timeoutUs, TimeUnit.MICROSECONDS)
+
+    /**
+     * Maps a media time of the player to the streamer clock.
+     *
+     * @param mediaTimeUs the media time in µs
+     * @return the time in the [TimeUtils.currentTime] time base or null if the player has not
+     * played yet
+     */
+    fun toStreamerTimeUs(mediaTimeUs: Long): Long? {
+        val anchor = clockAnchor ?: return null
+        return anchor.timeUs + ((mediaTimeUs - anchor.mediaTimeUs) / anchor.speed).toLong()
+    }
+
+    /**
+     * Creates a [RenderersFactory] whose audio output goes through this tap.
+     */
+    fun createRenderersFactory(context: Context): RenderersFactory =
+        object : DefaultRenderersFactory(context) {
+            override fun buildAudioSink(
+                context: Context,
+                enableFloatOutput: Boolean,
+                enableAudioTrackPlaybackParams: Boolean
+            ): AudioSink? {
+                return super.buildAudioSink(
+                    context,
+                    enableFloatOutput,
+                    enableAudioTrackPlaybackParams
+                )?.let { TapAudioSink(it) }
+            }
+        }
+
+    private fun offer(chunk: Chunk) {
+        while (!chunks.offer(chunk)) {
+            // The consumer is late: drop the oldest audio
+            chunks.poll()
+            if (droppedChunkCount.getAndIncrement() == 0L) {
+                Log.w(TAG, "Audio tap is full: dropping audio")
+            }
+        }
+    }
+
+    /**
+     * A decoded buffer.
+     *
+     * @param data the interleaved 16-bit PCM samples
+     * @param presentationTimeUs the media time of the first sample
+     * @param sampleRate the sample rate
+     * @param channelCount the number of channels
+     * @param isDiscontinuity whether the buffer does not follow the previous one (seek, format
+     * change or dropped audio)
+     */
+    class Chunk(
+        val data: ByteArray,
+        val presentationTimeUs: Long,
+        val sampleRate: Int,
+        val channelCount: Int,
+        val isDiscontinuity: Boolean
+    ) {
+        val frameCount: Int
+            get() = data.size / (channelCount * BYTES_PER_SAMPLE)
+    }
+
+    private class ClockAnchor(val mediaTimeUs: Long, val timeUs: Long, val speed: Float)
+
+    private inner class TapAudioSink(sink: AudioSink) : ForwardingAudioSink(sink) {
+        private var isTappable = false
+        private var pcmEncoding = C.ENCODING_INVALID
+        private var sampleRate = 0
+        private var channelCount = 0
+        private var isPlaying = false
+
+        /**
+         * The buffer being handled. The sink might consume it over several calls.
+         */
+        private var currentBuffer: ByteBuffer? = null
+        private var currentBufferPresentationTimeUs = C.TIME_UNSET
+        private var currentBufferStartPosition = 0
+
+        override fun configure(
+            inputFormat: Format,
+            specifiedBufferSize: Int,
+            outputChannels: IntArray?
+        ) {
+            super.configure(inputFormat, specifiedBufferSize, outputChannels)
+            pcmEncoding = inputFormat.pcmEncoding
+            sampleRate = inputFormat.sampleRate
+            channelCount = inputFormat.channelCount
+            isTappable = (inputFormat.sampleMimeType == MimeTypes.AUDIO_RAW)
+                    && ((pcmEncoding == C.ENCODING_PCM_16BIT) || (pcmEncoding == C.ENCODING_PCM_FLOAT))
+                    && (sampleRate > 0) && (channelCount > 0)
+            if (!isTappable) {
+                Log.w(TAG, "Audio format is not tappable: $inputFormat")
+            }
+            isDiscontinuityPending = true
+        }
+
+        override fun handleBuffer(
+            buffer: ByteBuffer,
+            presentationTimeUs: Long,
+            encodedAccessUnitCount: Int
+        ): Boolean {
+            val startPosition = buffer.position()
+            val isHandled = super.handleBuffer(buffer, presentationTimeUs, encodedAccessUnitCount)
+            if (isEnabled && isTappable && (buffer.position() > startPosition)) {
+                tap(buffer, startPosition, presentationTimeUs)
+            }
+            return isHandled
+        }
+
+        private fun tap(buffer: ByteBuffer, startPosition: Int, presentationTimeUs: Long) {
+            if ((buffer !== currentBuffer) || (presentationTimeUs != currentBufferPresentationTimeUs)) {
+                currentBuffer = buffer
+                currentBufferPresentationTimeUs = presentationTimeUs
+                currentBufferStartPosition = startPosition
+            }
+            val bytesPerSample = if (pcmEncoding == C.ENCODING_PCM_FLOAT) 4 else BYTES_PER_SAMPLE
+            val consumedFrameCount =
+                (startPosition - currentBufferStartPosition) / (bytesPerSample * channelCount)
+            val chunkPresentationTimeUs =
+                presentationTimeUs + consumedFrameCount * 1_000_000L / sampleRate
+
+            val source = buffer.duplicate().order(ByteOrder.nativeOrder())
+            source.limit(buffer.position())
+            source.position(startPosition)
+            val data = if (pcmEncoding == C.ENCODING_PCM_FLOAT) {
+                val floats = source.asFloatBuffer()
+                val output = ByteBuffer.allocate(floats.remaining() * BYTES_PER_SAMPLE)
+                    .order(ByteOrder.nativeOrder())
+                while (floats.hasRemaining()) {
+                    val sample = floats.get().coerceIn(-1f, 1f)
+                    output.putShort((sample * Short.MAX_VALUE).toInt().toShort())
+                }
+                output.array()
+            } else {
+                ByteArray(source.remaining()).also { source.get(it) }
+            }
+
+            val isDiscontinuity = isDiscontinuityPending
+            isDiscontinuityPending = false
+            offer(Chunk(data, chunkPresentationTimeUs, sampleRate, channelCount, isDiscontinuity))
+        }
+
+        override fun getCurrentPositionUs(sourceEnded: Boolean): Long {
+            val positionUs = super.getCurrentPositionUs(sourceEnded)
+            if (isPlaying && (positionUs != AudioSink.CURRENT_POSITION_NOT_SET)) {
+                val playbackSpeed = playbackParameters.speed
+                speed = playbackSpeed
+                clockAnchor = ClockAnchor(positionUs, TimeUtils.currentTime(), playbackSpeed)
+            }
+            return positionUs
+        }
+
+        override fun play() {
+            super.play()
+            isPlaying = true
+        }
+
+        override fun pause() {
+            super.pause()
+            isPlaying = false
+        }
+
+        override fun flush() {
+            super.flush()
+            currentBuffer = null
+            clockAnchor = null
+            isDiscontinuityPending = true
+        }
+
+        override fun reset() {
+            super.reset()
+            currentBuffer = null
+            clockAnchor = null
+            isPlaying = false
+            isDiscontinuityPending = true
+        }
+    }
+
+    companion object {
+        private const val TAG = "PlayerAudioTap"
+
+        const val BYTES_PER_SAMPLE = 2
+
+        /**
+         * Around 1.5 s of AAC frames.
+         */
+        private const val MAX_CHUNK_COUNT = 64
+    }
+}
@@ -16,38 +16,64 @@
 package com.dimadesu.lifestreamer.player
 
 import android.net.Uri
+import android.os.SystemClock
 import android.util.Log
 import androidx.annotation.OptIn
 import androidx.media3.common.C
 import androidx.media3.common.util.UnstableApi
 import androidx.media3.datasource.BaseDataSource
 import androidx.media3.datasource.DataSpec
-import androidx.media3.extractor.ts.TsExtractor.TS_PACKET_SIZE
+import io.github.thibaultbee.srtdroid.core.enums.SockOpt
 import io.github.thibaultbee.srtdroid.core.enums.Transtype
 import io.github.thibaultbee.srtdroid.core.extensions.connect
 import io.github.thibaultbee.srtdroid.core.models.SrtSocket
 import io.github.thibaultbee.srtdroid.core.models.SrtUrl
+import io.github.thibaultbee.streampack.core.configuration.LiveLatencyConfig
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.utils.TsTimingSeiScanner
 import java.io.IOException
-import java.util.LinkedList
-import java.util.Queue
 import androidx.core.net.toUri
 
 /**
  * ExoPlayer DataSource for SRT protocol.
  * Connects to an SRT server in caller mode and reads MPEG-TS data.
+ *
+ * @param liveLatencyConfig the live latency settings. When enabled, the SRT receive latency is set
+ * from [LiveLatencyConfig.srtReceiveLatencyMs].
+ * @param onReceiveBufferLatency called with the media held in the SRT receive buffer, in ms
+ * @param payloadListener called with a copy of each received payload of MPEG-TS packets while
+ * it is active
+ * @param onGlassToGlassLatency called with the latency of each video frame that carries a timing
+ * SEI, in ms. It is measured on reception, so the player buffer and the decoding are not included.
  */
 @UnstableApi
-class SrtDataSource : BaseDataSource(/*isNetwork*/true) {
+class SrtDataSource(
+    private val liveLatencyConfig: LiveLatencyConfig = LiveLatencyConfig(),
+    private val onReceiveBufferLatency: ((Long) -> Unit)? = null,
+    private val payloadListener: SrtPayloadListener? = null,
+    private val onGlassToGlassLatency: ((Long) -> Unit)? = null
+) : BaseDataSource(/*isNetwork*/true) {
 
     companion object {
         private const val PAYLOAD_SIZE = 1316
         private const val TAG = "SrtDataSource"
+
+        private const val STATS_INTERVAL_MS = 500L
     }
 
-    private val byteQueue: Queue<ByteArray> = LinkedList()
     private var socket: SrtSocket? = null
     private var srtUrl: SrtUrl? = null
 
+    /**
+     * Last received payload and its read position. A payload is only received when the previous
+     * one has been fully read, so [read] only blocks when nothing is buffered.
+     */
+    private var pendingBuffer = ByteArray(0)
+    private var pendingOffset = 0
+
+    private var lastStatsTimeMs = 0L
+
+    private val timingSeiScanner = if (onGlassToGlassLatency != null) TsTimingSeiScanner() else null
+
     override fun open(dataSpec: DataSpec): Long {
         val srtUrl = SrtUrl(dataSpec.uri)
         if (srtUrl.transtype != null) {
@@ -61,6 +87,10 @@ class SrtDataSource : BaseDataSource(/*isNetwork*/true) {
         }
 
         socket = SrtSocket().apply {
+            if (liveLatencyConfig.isEnabled) {
+                // Options of the URL are applied by connect and take precedence
+                setSockFlag(SockOpt.RCVLATENCY, liveLatencyConfig.srtReceiveLatencyMs)
+            }
             Log.i(TAG, "Connecting to ${srtUrl.hostname}:${srtUrl.port}")
             connect(srtUrl)
         }
@@ -70,8 +100,8 @@ class SrtDataSource : BaseDataSource(/*isNetwork*/true) {
 
 
     /**
-     * Receives from SRT socket and feeds into a queue. Depending on the length requested
-     * from ExoPlayer, that amount of bytes is polled from queue and onto the buffer with the given offset.
+     * Receives a payload from SRT socket when the previous one has been read and copies as many
+     * bytes as requested by ExoPlayer to the buffer with the given offset.
      *
      * You cannot directly receive at the given length from the socket, because SRT uses a
      * predetermined payload size that cannot be dynamic.
@@ -82,32 +112,52 @@ class SrtDataSource : BaseDataSource(/*isNetwork*/true) {
             return 0
         }
 
-        socket?.let {
-            var bytesReceived = 0
-            val rcvBuffer = it.recv(PAYLOAD_SIZE)
-            (0 until rcvBuffer.size / TS_PACKET_SIZE).forEach { i ->
-                byteQueue.offer(
-                    rcvBuffer.copyOfRange(
-                        i * TS_PACKET_SIZE,
-                        (i + 1) * TS_PACKET_SIZE
-                    )
-                )
+        val socket = socket ?: throw IOException("Couldn't read bytes at offset: $offset")
+        if (pendingOffset >= pendingBuffer.size) {
+            pendingBuffer = socket.recv(PAYLOAD_SIZE)
+            pendingOffset = 0
+            reportReceiveBufferLatency(socket)
+            if (pendingBuffer.isEmpty()) {
+                return 0
             }
-            var tmpBuffer = byteQueue.poll()
-            var i = 0
-            while (tmpBuffer != null) {
-                System.arraycopy(tmpBuffer, 0, buffer, offset + i * TS_PACKET_SIZE, TS_PACKET_SIZE)
-                bytesReceived += TS_PACKET_SIZE
-                i++
-                if (i * TS_PACKET_SIZE >= length) {
-                    break
+            payloadListener?.let {
+                if (it.isActive) {
+                    it.onPayload(pendingBuffer.copyOf())
                 }
-                tmpBuffer = byteQueue.poll()
             }
+            reportGlassToGlassLatency(pendingBuffer)
+        }
+
+        val bytesRead = minOf(length, pendingBuffer.size - pendingOffset)
+        System.arraycopy(pendingBuffer, pendingOffset, buffer, offset, bytesRead)
+        pendingOffset += bytesRead
+        bytesTransferred(bytesRead)
+        return bytesRead
+    }
+
+    private fun reportReceiveBufferLatency(socket: SrtSocket) {
+        val onReceiveBufferLatency = onReceiveBufferLatency ?: return
+        val nowMs = SystemClock.elapsedRealtime()
+        if (nowMs - lastStatsTimeMs < STATS_INTERVAL_MS) {
+            return
+        }
+        lastStatsTimeMs = nowMs
+        try {
+            onReceiveBufferLatency(
+                socket.bistats(clear = false, instantaneous = true).msRcvBuf.toLong()
+            )
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to get SRT stats: ${e.message}")
+        }
+    }
 
-            return bytesReceived
+    private fun reportGlassToGlassLatency(payload: ByteArray) {
+        val onGlassToGlassLatency = onGlassToGlassLatency ?: return
+        val scanner = timingSeiScanner ?: return
+        val nowMs = System.currentTimeMillis()
+        scanner.scan(payload).forEach {
+            onGlassToGlassLatency(nowMs - it.captureTimeInUs / 1000)
         }
-        throw IOException("Couldn't read bytes at offset: $offset")
     }
 
     override fun getUri(): Uri {
@@ -116,7 +166,9 @@ class SrtDataSource : BaseDataSource(/*isNetwork*/true) {
     }
 
     override fun close() {
-        byteQueue.clear()
+        pendingBuffer = ByteArray(0)
+        pendingOffset = 0
+        timingSeiScanner?.reset()
         socket?.close()
         socket = null
     }
@@ -17,13 +17,31 @@ package com.dimadesu.lifestreamer.player
 
 import androidx.media3.common.util.UnstableApi
 import androidx.media3.datasource.DataSource
+import io.github.thibaultbee.streampack.core.configuration.LiveLatencyConfig
 
 /**
  * Factory for creating SrtDataSource instances.
+ *
+ * @param liveLatencyConfig the live latency settings passed to the data sources
+ * @param onReceiveBufferLatency called with the media held in the SRT receive buffer, in ms
+ * @param payloadListener called with a copy of each received payload of MPEG-TS packets while
+ * it is active
+ * @param onGlassToGlassLatency called with the latency of each video frame that carries a timing
+ * SEI, in ms
  */
 @UnstableApi
-class SrtDataSourceFactory : DataSource.Factory {
+class SrtDataSourceFactory(
+    private val liveLatencyConfig: LiveLatencyConfig = LiveLatencyConfig(),
+    private val onReceiveBufferLatency: ((Long) -> Unit)? = null,
+    private val payloadListener: SrtPayloadListener? = null,
+    private val onGlassToGlassLatency: ((Long) -> Unit)? = null
+) : DataSource.Factory {
     override fun createDataSource(): DataSource {
-        return SrtDataSource()
+        return SrtDataSource(
+            liveLatencyConfig,
+            onReceiveBufferLatency,
+            payloadListener,
+            onGlassToGlassLatency
+        )
     }
 }
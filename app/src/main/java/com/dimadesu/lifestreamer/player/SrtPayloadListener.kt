@@ -0,0 +1,16 @@
+package com.dimadesu.lifestreamer.player
+
+/**
+ * Receives the MPEG-TS payloads of an SRT source.
+ */
+interface SrtPayloadListener {
+    /**
+     * Whether the payloads are needed. When false, [SrtDataSource] does not copy them.
+     */
+    val isActive: Boolean
+
+    /**
+     * Called with a copy of a received payload of MPEG-TS packets.
+     */
+    fun onPayload(payload: ByteArray)
+}
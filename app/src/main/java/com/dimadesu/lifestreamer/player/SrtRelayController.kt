@@ -0,0 +1,183 @@
+package com.dimadesu.lifestreamer.player
+
+import android.util.Log
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.relay.ITsRelay
+import io.github.thibaultbee.streampack.core.elements.endpoints.composites.muxers.ts.relay.TsRelayMode
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import java.nio.ByteBuffer
+
+/**
+ * Forwards the MPEG-TS payloads of an SRT source to the relay of the outgoing SRT stream.
+ *
+ * The relay is looked up for each payload so that it follows stream restarts. It only replaces
+ * the encoded streams when the source codecs match the outgoing ones, on a source key frame.
+ *
+ * When the relay can't keep up, new payloads are dropped and the relay is notified so that it
+ * resumes on the next source key frame instead of relaying corrupted frames.
+ *
+ * @param scope the scope of the forwarding coroutine. [onRelayingChanged] is called on it.
+ * @param relayProvider returns the relay of the outgoing stream or null if it does not support it
+ * @param onRelayingChanged called with true when the outgoing video comes from the source, so that
+ * the video encoder and decoder can be paused, and with false when the outgoing stream needs the
+ * video encoder again. It should then resume the encoder and request a key frame so that the
+ * switch happens quickly.
+ */
+class SrtRelayController(
+    private val scope: CoroutineScope,
+    private val relayProvider: () -> ITsRelay?,
+    private val onRelayingChanged: (Boolean) -> Unit
+) : SrtPayloadListener {
+    private val channel = Channel<Payload>(CHANNEL_CAPACITY)
+
+    /**
+     * Number of payloads dropped since the last queued payload.
+     */
+    private var droppedPayloadCount = 0
+
+    @Volatile
+    override var isActive = false
+        private set
+
+    @Volatile
+    private var relay: ITsRelay? = null
+
+    private var relayModeJob: Job? = null
+
+    /**
+     * Whether the outgoing video comes from the source. Only accessed from [scope].
+     */
+    private var isRelaying = false
+
+    private var lastErrorMessage: String? = null
+
+    init {
+        scope.launch(Dispatchers.IO) {
+            for (payload in channel) {
+                forward(payload)
+            }
+        }
+    }
+
+    /**
+     * Starts relaying the source.
+     */
+    fun start() {
+        if (!isActive) {
+            Log.i(TAG, "Starting SRT source relay")
+        }
+        isActive = true
+    }
+
+    /**
+     * Stops relaying the source. The outgoing stream switches back to the encoders.
+     */
+    fun stop() {
+        if (!isActive) {
+            return
+        }
+        Log.i(TAG, "Stopping SRT source relay")
+        isActive = false
+        // The relay mode collector resumes the encoders once the relay leaves RELAY mode
+        relay?.requestRelayMode(TsRelayMode.TRANSCODE)
+        relay = null
+    }
+
+    /**
+     * Receives a payload of the source.
+     */
+    override fun onPayload(payload: ByteArray) {
+        if (!isActive) {
+            return
+        }
+        // The loss is signaled with the first payload after it
+        if (channel.trySend(Payload(payload, droppedPayloadCount)).isSuccess) {
+            droppedPayloadCount = 0
+        } else {
+            if (droppedPayloadCount == 0) {
+                Log.w(TAG, "SRT source relay is late: dropping payloads")
+            }
+            droppedPayloadCount++
+        }
+    }
+
+    private suspend fun forward(payload: Payload) {
+        if (!isActive) {
+            return
+        }
+        val currentRelay = relayProvider() ?: return
+        if (currentRelay !== relay) {
+            relay = currentRelay
+            watchRelayMode(currentRelay)
+            currentRelay.requestRelayMode(TsRelayMode.RELAY)
+        }
+        if (payload.droppedPayloadCount > 0) {
+            Log.w(TAG, "${payload.droppedPayloadCount} SRT source payloads dropped")
+            currentRelay.notifyPacketsLost()
+        }
+        try {
+            currentRelay.relay(ByteBuffer.wrap(payload.data))
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            // Avoid logging the same error for every payload
+            if (e.message != lastErrorMessage) {
+                Log.w(TAG, "Failed to relay SRT source: ${e.message}")
+                lastErrorMessage = e.message
+            }
+        }
+    }
+
+    /**
+     * Follows the mode of a new relay. The relay of a previous stream does not change anymore.
+     */
+    private fun watchRelayMode(relay: ITsRelay) {
+        scope.launch {
+            relayModeJob?.cancelAndJoin()
+            relayModeJob = scope.launch {
+                relay.relayModeFlow.collect { mode ->
+                    setRelaying(mode == TsRelayMode.RELAY)
+                }
+            }
+        }
+    }
+
+    private fun setRelaying(isRelaying: Boolean) {
+        if (this.isRelaying == isRelaying) {
+            return
+        }
+        Log.i(TAG, if (isRelaying) "Relaying SRT source video" else "Encoding video")
+        this.isRelaying = isRelaying
+        onRelayingChanged(isRelaying)
+    }
+
+    /**
+     * Stops forwarding.
+     */
+    fun release() {
+        stop()
+        channel.close()
+        relayModeJob?.cancel()
+        relayModeJob = null
+        setRelaying(false)
+    }
+
+    /**
+     * @param droppedPayloadCount the number of payloads dropped just before this one
+     */
+    private class Payload(val data: ByteArray, val droppedPayloadCount: Int)
+
+    companion object {
+        private const val TAG = "SrtRelayController"
+
+        /**
+         * About 1 s of payloads at 10 Mb/s.
+         */
+        private const val CHANNEL_CAPACITY = 1024
+    }
+}
@@ -0,0 +1,118 @@
+package com.dimadesu.lifestreamer.player.probe
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+
+/**
+ * Minimal AMF0 encoder and decoder for RTMP commands.
+ *
+ * Values are mapped to [Double], [Boolean], [String], [Map] (objects and ECMA arrays), [List]
+ * (strict arrays) and null.
+ */
+internal object Amf0 {
+    private const val NUMBER = 0x00
+    private const val BOOLEAN = 0x01
+    private const val STRING = 0x02
+    private const val OBJECT = 0x03
+    private const val NULL = 0x05
+    private const val UNDEFINED = 0x06
+    private const val ECMA_ARRAY = 0x08
+    private const val OBJECT_END = 0x09
+    private const val STRICT_ARRAY = 0x0A
+    private const val DATE = 0x0B
+    private const val LONG_STRING = 0x0C
+
+    fun encode(vararg values: Any?): ByteArray {
+        val output = ByteArrayOutputStream()
+        val data = DataOutputStream(output)
+        values.forEach { write(data, it) }
+        return output.toByteArray()
+    }
+
+    private fun write(data: DataOutputStream, value: Any?) {
+        when (value) {
+            null -> data.writeByte(NULL)
+            is Number -> {
+                data.writeByte(NUMBER)
+                data.writeDouble(value.toDouble())
+            }
+
+            is Boolean -> {
+                data.writeByte(BOOLEAN)
+                data.writeBoolean(value)
+            }
+
+            is String -> {
+                data.writeByte(STRING)
+                writeUtf8(data, value)
+            }
+
+            is Map<*, *> -> {
+                data.writeByte(OBJECT)
+                value.forEach { (key, entry) ->
+                    writeUtf8(data, key.toString())
+                    write(data, entry)
+                }
+                data.writeShort(0)
+                data.writeByte(OBJECT_END)
+            }
+
+            else -> throw IllegalArgumentException("Unsupported AMF0 value: $value")
+        }
+    }
+
+    private fun writeUtf8(data: DataOutputStream, value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        data.writeShort(bytes.size)
+        data.write(bytes)
+    }
+
+    /**
+     * Decodes all the values of [buffer].
+     */
+    fun decode(buffer: ByteBuffer): List<Any?> {
+        val values = mutableListOf<Any?>()
+        while (buffer.hasRemaining()) {
+            values.add(read(buffer))
+        }
+        return values
+    }
+
+    private fun read(buffer: ByteBuffer): Any? {
+        return when (val type = buffer.get().toInt() and 0xFF) {
+            NUMBER -> buffer.getDouble()
+            BOOLEAN -> buffer.get() != 0.toByte()
+            STRING -> readUtf8(buffer, buffer.getShort().toInt() and 0xFFFF)
+            LONG_STRING -> readUtf8(buffer, buffer.getInt())
+            OBJECT -> readProperties(buffer)
+            ECMA_ARRAY -> {
+                buffer.getInt() // Approximate count
+                readProperties(buffer)
+            }
+
+            STRICT_ARRAY -> List(buffer.getInt()) { read(buffer) }
+            DATE -> buffer.getDouble().also { buffer.getShort() }
+            NULL, UNDEFINED -> null
+            else -> throw IllegalArgumentException("Unsupported AMF0 type: $type")
+        }
+    }
+
+    private fun readProperties(buffer: ByteBuffer): Map<String, Any?> {
+        val properties = mutableMapOf<String, Any?>()
+        while (true) {
+            val key = readUtf8(buffer, buffer.getShort().toInt() and 0xFFFF)
+            if (key.isEmpty() && ((buffer.get(buffer.position()).toInt() and 0xFF) == OBJECT_END)) {
+                buffer.get()
+                return properties
+            }
+            properties[key] = read(buffer)
+        }
+    }
+
+    private fun readUtf8(buffer: ByteBuffer, length: Int): String {
+        val bytes = ByteArray(length)
+        buffer.get(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+}
@@ -0,0 +1,69 @@
+package com.dimadesu.lifestreamer.player.probe
+
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.container.NalUnitUtil
+
+/**
+ * Collects what a probe learned about the media of a source.
+ *
+ * The bitrate is measured from the first media data during [observationTimeMs]. Servers that
+ * send a cached GOP first make it higher than the source bitrate.
+ *
+ * @param observationTimeMs the time to receive media once the first media data arrived
+ */
+internal class ProbeMediaInfo(private val observationTimeMs: Long) {
+    var videoMimeType: String? = null
+    var audioMimeType: String? = null
+    var width: Int? = null
+    var height: Int? = null
+
+    private var firstMediaTimeMs = -1L
+    private var mediaSizeInBytes = 0L
+
+    /**
+     * Whether the probe received media for [observationTimeMs].
+     */
+    fun isComplete(nowMs: Long) =
+        (firstMediaTimeMs >= 0) && (nowMs - firstMediaTimeMs >= observationTimeMs)
+
+    fun onMedia(sizeInBytes: Int, nowMs: Long) {
+        if (firstMediaTimeMs < 0) {
+            firstMediaTimeMs = nowMs
+        }
+        mediaSizeInBytes += sizeInBytes
+    }
+
+    /**
+     * Sets the resolution from an H.264 SPS.
+     *
+     * @param data the buffer that contains the SPS
+     * @param offset the position of the NAL unit header
+     * @param limit the end of the NAL unit
+     */
+    @UnstableApi
+    fun onH264Sps(data: ByteArray, offset: Int, limit: Int) {
+        try {
+            val sps = NalUnitUtil.parseSpsNalUnit(data, offset, limit)
+            width = sps.width
+            height = sps.height
+        } catch (_: Exception) {
+            // Truncated or unsupported SPS: the resolution stays unknown
+        }
+    }
+
+    fun toResult(nowMs: Long): SourceProbeResult {
+        if (firstMediaTimeMs < 0) {
+            return SourceProbeResult.failed(true, "No media received")
+        }
+        val elapsedMs = nowMs - firstMediaTimeMs
+        return SourceProbeResult(
+            isReachable = true,
+            isLive = true,
+            videoMimeType = videoMimeType,
+            audioMimeType = audioMimeType,
+            width = width,
+            height = height,
+            bitrateInBps = if (elapsedMs > 0) mediaSizeInBytes * 8 * 1000 / elapsedMs else null
+        )
+    }
+}
@@ -0,0 +1,493 @@
+package com.dimadesu.lifestreamer.player.probe
+
+import android.net.Uri
+import android.os.SystemClock
+import androidx.media3.common.MimeTypes
+import androidx.media3.common.util.UnstableApi
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.net.SocketTimeoutException
+import java.nio.ByteBuffer
+import javax.net.ssl.SSLSocketFactory
+import kotlin.random.Random
+
+/**
+ * Probes an RTMP source at the protocol level: handshake, `connect`, `createStream` and `play`
+ * until media arrives. Nothing is decoded: the codecs come from the FLV tag headers, the
+ * resolution from `onMetaData` or the H.264 SPS.
+ *
+ * Calls are blocking. [close] aborts the probe from another thread.
+ *
+ * @param uri the RTMP(S) URL
+ * @param timeoutMs the maximum duration of the probe
+ * @param observationTimeMs the time to receive media once the first media message arrived
+ */
+@UnstableApi
+internal class RtmpProber(
+    private val uri: Uri,
+    private val timeoutMs: Long,
+    observationTimeMs: Long
+) {
+    private val socket: Socket = if (uri.scheme.equals("rtmps", ignoreCase = true)) {
+        SSLSocketFactory.getDefault().createSocket()
+    } else {
+        Socket()
+    }
+    private val mediaInfo = ProbeMediaInfo(observationTimeMs)
+
+    private lateinit var input: DataInputStream
+    private lateinit var output: OutputStream
+    private var receivedSizeInBytes = 0L
+    private var acknowledgedSizeInBytes = 0L
+    private var windowAckSizeInBytes = DEFAULT_WINDOW_ACK_SIZE
+    private var inChunkSize = DEFAULT_CHUNK_SIZE
+    private val chunkStreams = mutableMapOf<Int, ChunkStream>()
+
+    private var deadlineMs = 0L
+    private var isConnected = false
+
+    fun probe(): SourceProbeResult {
+        deadlineMs = SystemClock.elapsedRealtime() + timeoutMs
+        return try {
+            connect()
+            isConnected = true
+            val streamName = getStreamName()
+            sendCommand(COMMAND_CHUNK_STREAM_ID, 0, "createStream", CREATE_STREAM_TRANSACTION_ID, null)
+            val streamId = (awaitResult(CREATE_STREAM_TRANSACTION_ID).getOrNull(3) as? Double)?.toInt()
+                ?: throw IOException("createStream failed")
+            sendBufferLength(streamId)
+            sendCommand(STREAM_CHUNK_STREAM_ID, streamId, "play", 0, null, streamName, -2)
+            receiveMedia()
+        } catch (e: Exception) {
+            SourceProbeResult.failed(isConnected, e.message ?: e.javaClass.simpleName)
+        } finally {
+            close()
+        }
+    }
+
+    fun close() {
+        try {
+            socket.close()
+        } catch (_: IOException) {
+        }
+    }
+
+    private fun connect() {
+        val port = if (uri.port > 0) uri.port else getDefaultPort()
+        socket.connect(InetSocketAddress(uri.host, port), getRemainingTimeMs().toInt())
+        socket.tcpNoDelay = true
+        input = DataInputStream(BufferedInputStream(CountingInputStream(socket.getInputStream())))
+        output = BufferedOutputStream(socket.getOutputStream())
+
+        handshake()
+
+        writeMessage(PROTOCOL_CHUNK_STREAM_ID, MESSAGE_SET_CHUNK_SIZE, 0, intToBytes(OUT_CHUNK_SIZE))
+        val tcUrl = "${uri.scheme}://${uri.host}${if (uri.port > 0) ":${uri.port}" else ""}/${getApp()}"
+        sendCommand(
+            COMMAND_CHUNK_STREAM_ID, 0, "connect", CONNECT_TRANSACTION_ID, mapOf(
+                "app" to getApp(),
+                "flashVer" to "LNX 9,0,124,2",
+                "tcUrl" to tcUrl,
+                "fpad" to false,
+                "capabilities" to 15,
+                "audioCodecs" to 4071,
+                "videoCodecs" to 252,
+                "videoFunction" to 1
+            )
+        )
+        awaitResult(CONNECT_TRANSACTION_ID)
+    }
+
+    private fun handshake() {
+        val c1 = ByteArray(HANDSHAKE_SIZE)
+        // Time and zero fields are left to 0
+        Random.nextBytes(c1, 8)
+        output.write(RTMP_VERSION)
+        output.write(c1)
+        output.flush()
+
+        setReadTimeout()
+        input.readUnsignedByte() // S0
+        val s1 = ByteArray(HANDSHAKE_SIZE)
+        input.readFully(s1)
+        // C2 echoes S1
+        output.write(s1)
+        output.flush()
+        input.readFully(ByteArray(HANDSHAKE_SIZE)) // S2
+    }
+
+    private fun receiveMedia(): SourceProbeResult {
+        while (true) {
+            val nowMs = SystemClock.elapsedRealtime()
+            if (mediaInfo.isComplete(nowMs) || (nowMs >= deadlineMs)) {
+                return mediaInfo.toResult(nowMs)
+            }
+            val message = try {
+                readMessage()
+            } catch (_: SocketTimeoutException) {
+                return mediaInfo.toResult(SystemClock.elapsedRealtime())
+            }
+            when (message.typeId) {
+                MESSAGE_AUDIO -> onAudio(message.payload)
+                MESSAGE_VIDEO -> onVideo(message.payload)
+                MESSAGE_DATA_AMF0, MESSAGE_DATA_AMF3 -> onData(message)
+                MESSAGE_COMMAND_AMF0, MESSAGE_COMMAND_AMF3 -> onStatus(decodeCommand(message))
+            }
+        }
+    }
+
+    private fun awaitResult(transactionId: Int): List<Any?> {
+        while (true) {
+            val message = readMessage()
+            if ((message.typeId != MESSAGE_COMMAND_AMF0) && (message.typeId != MESSAGE_COMMAND_AMF3)) {
+                continue
+            }
+            val command = decodeCommand(message)
+            if ((command.getOrNull(1) as? Double)?.toInt() != transactionId) {
+                continue
+            }
+            when (command.firstOrNull()) {
+                "_result" -> return command
+                "_error" -> throw IOException(getDescription(command) ?: "Command rejected")
+            }
+        }
+    }
+
+    private fun onStatus(command: List<Any?>) {
+        if (command.firstOrNull() != "onStatus") {
+            return
+        }
+        val info = command.getOrNull(3) as? Map<*, *> ?: return
+        if (info["level"] == "error") {
+            throw IOException(info["code"] as? String ?: "Play failed")
+        }
+    }
+
+    private fun onData(message: Message) {
+        val values = try {
+            Amf0.decode(getAmf0Payload(message))
+        } catch (_: Exception) {
+            return
+        }
+        val index = values.indexOf("onMetaData")
+        if (index < 0) {
+            return
+        }
+        val metadata = values.getOrNull(index + 1) as? Map<*, *> ?: return
+        (metadata["width"] as? Double)?.let { mediaInfo.width = mediaInfo.width ?: it.toInt() }
+        (metadata["height"] as? Double)?.let { mediaInfo.height = mediaInfo.height ?: it.toInt() }
+        mediaInfo.videoMimeType = mediaInfo.videoMimeType ?: getVideoMimeType(metadata["videocodecid"])
+        mediaInfo.audioMimeType = mediaInfo.audioMimeType ?: getAudioMimeType(metadata["audiocodecid"])
+    }
+
+    private fun onVideo(payload: ByteArray) {
+        if (payload.isEmpty()) {
+            return
+        }
+        mediaInfo.onMedia(payload.size, SystemClock.elapsedRealtime())
+        val header = payload[0].toInt() and 0xFF
+        if ((header and 0x80) != 0) {
+            // Enhanced RTMP: codec is a FourCC
+            if (payload.size >= 5) {
+                mediaInfo.videoMimeType = getVideoMimeType(String(payload, 1, 4, Charsets.US_ASCII))
+            }
+            return
+        }
+        val codecId = header and 0x0F
+        mediaInfo.videoMimeType = getVideoMimeType(codecId.toDouble())
+        if ((codecId == FLV_CODEC_AVC) && (payload.size > 13) && (payload[1].toInt() == 0)) {
+            // AVC sequence header: AVCDecoderConfigurationRecord
+            val spsCount = payload[10].toInt() and 0x1F
+            if (spsCount > 0) {
+                val spsSize = ((payload[11].toInt() and 0xFF) shl 8) or (payload[12].toInt() and 0xFF)
+                val spsLimit = 13 + spsSize
+                if (spsLimit <= payload.size) {
+                    mediaInfo.onH264Sps(payload, 13, spsLimit)
+                }
+            }
+        }
+    }
+
+    private fun onAudio(payload: ByteArray) {
+        if (payload.isEmpty()) {
+            return
+        }
+        mediaInfo.onMedia(payload.size, SystemClock.elapsedRealtime())
+        val soundFormat = (payload[0].toInt() and 0xFF) shr 4
+        mediaInfo.audioMimeType = if ((soundFormat == FLV_SOUND_FORMAT_EX_HEADER) && (payload.size >= 5)) {
+            getAudioMimeType(String(payload, 1, 4, Charsets.US_ASCII))
+        } else {
+            getAudioMimeType(soundFormat.toDouble())
+        }
+    }
+
+    private fun readMessage(): Message {
+        while (true) {
+            setReadTimeout()
+            val message = readChunk() ?: continue
+            when (message.typeId) {
+                MESSAGE_SET_CHUNK_SIZE -> inChunkSize = ByteBuffer.wrap(message.payload).getInt() and 0x7FFFFFFF
+                MESSAGE_WINDOW_ACK_SIZE -> windowAckSizeInBytes = ByteBuffer.wrap(message.payload).getInt().toLong()
+                MESSAGE_SET_PEER_BANDWIDTH -> writeMessage(
+                    PROTOCOL_CHUNK_STREAM_ID,
+                    MESSAGE_WINDOW_ACK_SIZE,
+                    0,
+                    message.payload.copyOf(4)
+                )
+
+                MESSAGE_USER_CONTROL -> onUserControl(message.payload)
+                else -> return message
+            }
+        }
+    }
+
+    private fun onUserControl(payload: ByteArray) {
+        if ((payload.size >= 6) && (payload[1].toInt() == USER_CONTROL_PING_REQUEST)) {
+            val response = payload.copyOf(6)
+            response[1] = USER_CONTROL_PING_RESPONSE.toByte()
+            writeMessage(PROTOCOL_CHUNK_STREAM_ID, MESSAGE_USER_CONTROL, 0, response)
+        }
+    }
+
+    /**
+     * Reads a chunk.
+     *
+     * @return the message completed by the chunk or null
+     */
+    private fun readChunk(): Message? {
+        val basicHeader = input.readUnsignedByte()
+        val format = basicHeader shr 6
+        val chunkStreamId = when (val id = basicHeader and 0x3F) {
+            0 -> 64 + input.readUnsignedByte()
+            1 -> 64 + input.readUnsignedByte() + input.readUnsignedByte() * 256
+            else -> id
+        }
+        val chunkStream = chunkStreams.getOrPut(chunkStreamId) { ChunkStream() }
+
+        if (format <= 2) {
+            chunkStream.timestamp = readUInt24()
+        }
+        if (format <= 1) {
+            chunkStream.length = readUInt24()
+            chunkStream.typeId = input.readUnsignedByte()
+        }
+        if (format == 0) {
+            chunkStream.streamId = Integer.reverseBytes(input.readInt())
+        }
+        if (format <= 2) {
+            chunkStream.hasExtendedTimestamp = chunkStream.timestamp == EXTENDED_TIMESTAMP
+        }
+        if (chunkStream.hasExtendedTimestamp) {
+            input.readInt()
+        }
+
+        val payload = chunkStream.payload ?: ByteArray(chunkStream.length).also {
+            chunkStream.payload = it
+            chunkStream.receivedSize = 0
+        }
+        val size = minOf(inChunkSize, payload.size - chunkStream.receivedSize)
+        input.readFully(payload, chunkStream.receivedSize, size)
+        chunkStream.receivedSize += size
+        acknowledge()
+
+        if (chunkStream.receivedSize < payload.size) {
+            return null
+        }
+        chunkStream.payload = null
+        return Message(chunkStream.typeId, payload)
+    }
+
+    private fun acknowledge() {
+        if (receivedSizeInBytes - acknowledgedSizeInBytes >= windowAckSizeInBytes / 2) {
+            acknowledgedSizeInBytes = receivedSizeInBytes
+            writeMessage(
+                PROTOCOL_CHUNK_STREAM_ID,
+                MESSAGE_ACK,
+                0,
+                intToBytes(receivedSizeInBytes.toInt())
+            )
+        }
+    }
+
+    private fun sendCommand(chunkStreamId: Int, streamId: Int, vararg values: Any?) {
+        writeMessage(chunkStreamId, MESSAGE_COMMAND_AMF0, streamId, Amf0.encode(*values))
+    }
+
+    private fun sendBufferLength(streamId: Int) {
+        val payload = ByteBuffer.allocate(10)
+            .putShort(USER_CONTROL_SET_BUFFER_LENGTH.toShort())
+            .putInt(streamId)
+            .putInt(BUFFER_LENGTH_MS)
+            .array()
+        writeMessage(PROTOCOL_CHUNK_STREAM_ID, MESSAGE_USER_CONTROL, 0, payload)
+    }
+
+    /**
+     * Writes a message in a single chunk. Messages are smaller than [OUT_CHUNK_SIZE].
+     */
+    private fun writeMessage(chunkStreamId: Int, typeId: Int, streamId: Int, payload: ByteArray) {
+        val header = ByteBuffer.allocate(12)
+            .put(chunkStreamId.toByte())
+            .put(byteArrayOf(0, 0, 0))
+            .put((payload.size shr 16).toByte())
+            .put((payload.size shr 8).toByte())
+            .put(payload.size.toByte())
+            .put(typeId.toByte())
+            .putInt(Integer.reverseBytes(streamId))
+        output.write(header.array())
+        output.write(payload)
+        output.flush()
+    }
+
+    private fun decodeCommand(message: Message): List<Any?> {
+        return try {
+            Amf0.decode(getAmf0Payload(message))
+        } catch (_: Exception) {
+            emptyList()
+        }
+    }
+
+    private fun getAmf0Payload(message: Message): ByteBuffer {
+        val buffer = ByteBuffer.wrap(message.payload)
+        if ((message.typeId == MESSAGE_COMMAND_AMF3) || (message.typeId == MESSAGE_DATA_AMF3)) {
+            // AMF3 messages start with an AMF0 marker byte
+            buffer.get()
+        }
+        return buffer
+    }
+
+    private fun getDescription(command: List<Any?>): String? {
+        val info = command.getOrNull(3) as? Map<*, *> ?: return null
+        return (info["description"] ?: info["code"]) as? String
+    }
+
+    private fun readUInt24(): Int {
+        return (input.readUnsignedByte() shl 16) or
+                (input.readUnsignedByte() shl 8) or
+                input.readUnsignedByte()
+    }
+
+    private fun getRemainingTimeMs(): Long {
+        val remainingTimeMs = deadlineMs - SystemClock.elapsedRealtime()
+        if (remainingTimeMs <= 0) {
+            throw SocketTimeoutException("Probe timed out")
+        }
+        return remainingTimeMs
+    }
+
+    private fun setReadTimeout() {
+        socket.soTimeout = getRemainingTimeMs().toInt()
+    }
+
+    private fun getDefaultPort() =
+        if (uri.scheme.equals("rtmps", ignoreCase = true)) DEFAULT_RTMPS_PORT else DEFAULT_RTMP_PORT
+
+    /**
+     * The application: all the path segments but the last one.
+     */
+    private fun getApp() = uri.pathSegments.dropLast(1).joinToString("/")
+
+    /**
+     * The stream name: the last path segment with the query.
+     */
+    private fun getStreamName(): String {
+        val name = uri.pathSegments.lastOrNull() ?: throw IOException("No stream name in URL")
+        return uri.encodedQuery?.let { "$name?$it" } ?: name
+    }
+
+    private inner class CountingInputStream(input: InputStream) : FilterInputStream(input) {
+        override fun read(): Int {
+            return super.read().also {
+                if (it >= 0) receivedSizeInBytes++
+            }
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            return super.read(b, off, len).also {
+                if (it > 0) receivedSizeInBytes += it
+            }
+        }
+    }
+
+    private class ChunkStream {
+        var timestamp = 0
+        var length = 0
+        var typeId = 0
+        var streamId = 0
+        var hasExtendedTimestamp = false
+        var payload: ByteArray? = null
+        var receivedSize = 0
+    }
+
+    private class Message(val typeId: Int, val payload: ByteArray)
+
+    companion object {
+        private const val RTMP_VERSION = 3
+        private const val HANDSHAKE_SIZE = 1536
+        private const val DEFAULT_RTMP_PORT = 1935
+        private const val DEFAULT_RTMPS_PORT = 443
+        private const val DEFAULT_CHUNK_SIZE = 128
+        private const val OUT_CHUNK_SIZE = 4096
+        private const val DEFAULT_WINDOW_ACK_SIZE = 2_500_000L
+        private const val EXTENDED_TIMESTAMP = 0xFFFFFF
+        private const val BUFFER_LENGTH_MS = 1000
+
+        private const val PROTOCOL_CHUNK_STREAM_ID = 2
+        private const val COMMAND_CHUNK_STREAM_ID = 3
+        private const val STREAM_CHUNK_STREAM_ID = 8
+
+        private const val CONNECT_TRANSACTION_ID = 1
+        private const val CREATE_STREAM_TRANSACTION_ID = 2
+
+        private const val MESSAGE_SET_CHUNK_SIZE = 1
+        private const val MESSAGE_ACK = 3
+        private const val MESSAGE_USER_CONTROL = 4
+        private const val MESSAGE_WINDOW_ACK_SIZE = 5
+        private const val MESSAGE_SET_PEER_BANDWIDTH = 6
+        private const val MESSAGE_AUDIO = 8
+        private const val MESSAGE_VIDEO = 9
+        private const val MESSAGE_DATA_AMF3 = 15
+        private const val MESSAGE_COMMAND_AMF3 = 17
+        private const val MESSAGE_DATA_AMF0 = 18
+        private const val MESSAGE_COMMAND_AMF0 = 20
+
+        private const val USER_CONTROL_SET_BUFFER_LENGTH = 3
+        private const val USER_CONTROL_PING_REQUEST = 6
+        private const val USER_CONTROL_PING_RESPONSE = 7
+
+        private const val FLV_CODEC_AVC = 7
+        private const val FLV_SOUND_FORMAT_EX_HEADER = 9
+
+        private fun intToBytes(value: Int) = ByteBuffer.allocate(4).putInt(value).array()
+
+        /**
+         * Gets the video MIME type from a FLV codec id or an enhanced RTMP FourCC.
+         */
+        private fun getVideoMimeType(codec: Any?) = when (codec) {
+            7.0, "avc1" -> MimeTypes.VIDEO_H264
+            12.0, "hvc1" -> MimeTypes.VIDEO_H265
+            "av01" -> MimeTypes.VIDEO_AV1
+            "vp09" -> MimeTypes.VIDEO_VP9
+            else -> null
+        }
+
+        /**
+         * Gets the audio MIME type from a FLV sound format or an enhanced RTMP FourCC.
+         */
+        private fun getAudioMimeType(codec: Any?) = when (codec) {
+            10.0, "mp4a" -> MimeTypes.AUDIO_AAC
+            2.0, 14.0, ".mp3" -> MimeTypes.AUDIO_MPEG
+            "Opus" -> MimeTypes.AUDIO_OPUS
+            "ac-3" -> MimeTypes.AUDIO_AC3
+            "ec-3" -> MimeTypes.AUDIO_E_AC3
+            else -> null
+        }
+    }
+}
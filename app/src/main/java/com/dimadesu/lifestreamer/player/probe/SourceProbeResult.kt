@@ -0,0 +1,47 @@
+package com.dimadesu.lifestreamer.player.probe
+
+import com.dimadesu.lifestreamer.models.RtmpSourceStatus
+
+/**
+ * Result of a source probe.
+ *
+ * @param isReachable whether the server accepted the connection
+ * @param isLive whether media was received
+ * @param videoMimeType the video codec or null if unknown
+ * @param audioMimeType the audio codec or null if unknown
+ * @param width the video width or null if unknown
+ * @param height the video height or null if unknown
+ * @param bitrateInBps the bitrate observed during the probe or null if no media was received
+ * @param error the reason of the failure or null
+ */
+data class SourceProbeResult(
+    val isReachable: Boolean,
+    val isLive: Boolean = false,
+    val videoMimeType: String? = null,
+    val audioMimeType: String? = null,
+    val width: Int? = null,
+    val height: Int? = null,
+    val bitrateInBps: Long? = null,
+    val error: String? = null
+) {
+    /**
+     * The status of the source button.
+     */
+    val status: RtmpSourceStatus
+        get() = if (isLive) RtmpSourceStatus.READY else RtmpSourceStatus.ERROR
+
+    override fun toString(): String {
+        return if (isLive) {
+            val resolution = if ((width != null) && (height != null)) "${width}x$height" else "?"
+            "live: video=${videoMimeType ?: "?"} $resolution, audio=${audioMimeType ?: "?"}, " +
+                    "bitrate=${bitrateInBps?.let { "${it / 1000} kb/s" } ?: "?"}"
+        } else {
+            "not live (reachable=$isReachable): ${error ?: "no media"}"
+        }
+    }
+
+    companion object {
+        fun failed(isReachable: Boolean, error: String) =
+            SourceProbeResult(isReachable = isReachable, error = error)
+    }
+}
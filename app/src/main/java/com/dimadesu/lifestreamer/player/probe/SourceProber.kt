@@ -0,0 +1,105 @@
+package com.dimadesu.lifestreamer.player.probe
+
+import android.util.Log
+import androidx.core.net.toUri
+import androidx.media3.common.util.UnstableApi
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.awaitCancellation
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+
+/**
+ * Probes the status of pulled sources at the protocol level.
+ *
+ * Unlike preparing an ExoPlayer, probing does not instantiate decoders nor renderers: RTMP
+ * sources are probed with a handshake and a `play` until the first media messages, SRT sources
+ * with a connection and the first MPEG-TS packets.
+ *
+ * @param timeoutMs the maximum duration of a probe
+ * @param observationTimeMs the time to receive media once the first media arrived, to measure
+ * the bitrate
+ * @param ioDispatcher the dispatcher of the blocking probes
+ */
+@UnstableApi
+class SourceProber(
+    private val timeoutMs: Long = DEFAULT_TIMEOUT_MS,
+    private val observationTimeMs: Long = DEFAULT_OBSERVATION_TIME_MS,
+    private val ioDispatcher: CoroutineDispatcher = Dispatchers.IO
+) {
+    /**
+     * Probes a source.
+     *
+     * @param url the RTMP(S) or SRT URL
+     */
+    suspend fun probe(url: String): SourceProbeResult = withContext(ioDispatcher) {
+        val uri = url.toUri()
+        val result = when (uri.scheme?.lowercase()) {
+            "rtmp", "rtmps" -> {
+                val prober = RtmpProber(uri, timeoutMs, observationTimeMs)
+                runCloseable(prober::probe, prober::close)
+            }
+
+            "srt" -> {
+                val prober = SrtProber(uri, timeoutMs, observationTimeMs)
+                runCloseable(prober::probe, prober::close)
+            }
+
+            else -> SourceProbeResult.failed(false, "Unsupported protocol: ${uri.scheme}")
+        }
+        Log.d(TAG, "Probed $url: $result")
+        result
+    }
+
+    /**
+     * Probes sources concurrently.
+     *
+     * @param urls the URLs to probe by source index
+     * @return the results by source index
+     */
+    suspend fun probeAll(urls: Map<Int, String>): Map<Int, SourceProbeResult> = coroutineScope {
+        urls.map { (index, url) ->
+            async { index to probe(url) }
+        }.awaitAll().toMap()
+    }
+
+    /**
+     * Runs a blocking probe. Blocking socket calls are not cancellable, so the probe is closed
+     * from another coroutine on cancellation.
+     */
+    private suspend fun runCloseable(
+        probe: () -> SourceProbeResult,
+        close: () -> Unit
+    ): SourceProbeResult = coroutineScope {
+        val closer = launch {
+            try {
+                awaitCancellation()
+            } finally {
+                close()
+            }
+        }
+        try {
+            probe()
+        } finally {
+            closer.cancel()
+        }
+    }
+
+    companion object {
+        private const val TAG = "SourceProber"
+
+        const val DEFAULT_TIMEOUT_MS = 6000L
+        const val DEFAULT_OBSERVATION_TIME_MS = 1000L
+
+        private val SUPPORTED_SCHEMES = setOf("rtmp", "rtmps", "srt")
+
+        /**
+         * Whether [url] can be probed at the protocol level.
+         */
+        fun isSupported(url: String) =
+            url.substringBefore("://", "").lowercase() in SUPPORTED_SCHEMES
+    }
+}
@@ -0,0 +1,79 @@
+package com.dimadesu.lifestreamer.player.probe
+
+import android.net.Uri
+import android.os.SystemClock
+import androidx.media3.common.util.UnstableApi
+import io.github.thibaultbee.srtdroid.core.enums.SockOpt
+import io.github.thibaultbee.srtdroid.core.extensions.connect
+import io.github.thibaultbee.srtdroid.core.models.SrtSocket
+import io.github.thibaultbee.srtdroid.core.models.SrtUrl
+
+/**
+ * Probes an SRT source: connects and parses the first MPEG-TS packets until media arrives.
+ *
+ * Calls are blocking. [close] aborts the probe from another thread.
+ *
+ * @param uri the SRT URL. Its options are applied on connection.
+ * @param timeoutMs the maximum duration of the probe
+ * @param observationTimeMs the time to receive media once the first payload arrived
+ */
+@UnstableApi
+internal class SrtProber(
+    private val uri: Uri,
+    private val timeoutMs: Long,
+    observationTimeMs: Long
+) {
+    private val socket = SrtSocket()
+    private val mediaInfo = ProbeMediaInfo(observationTimeMs)
+    private val parser = TsProbeParser(mediaInfo)
+
+    fun probe(): SourceProbeResult {
+        val deadlineMs = SystemClock.elapsedRealtime() + timeoutMs
+        var isConnected = false
+        return try {
+            socket.setSockFlag(SockOpt.CONNTIMEO, timeoutMs.toInt())
+            socket.connect(SrtUrl(uri))
+            isConnected = true
+
+            receiveMedia(deadlineMs)
+        } catch (e: Exception) {
+            if (isConnected) {
+                // Receive timeout once connected: report what was received
+                mediaInfo.toResult(SystemClock.elapsedRealtime()).let {
+                    if (it.isLive) it else SourceProbeResult.failed(true, e.message ?: "No media received")
+                }
+            } else {
+                SourceProbeResult.failed(false, e.message ?: e.javaClass.simpleName)
+            }
+        } finally {
+            close()
+        }
+    }
+
+    private fun receiveMedia(deadlineMs: Long): SourceProbeResult {
+        while (true) {
+            val nowMs = SystemClock.elapsedRealtime()
+            if (mediaInfo.isComplete(nowMs) || (nowMs >= deadlineMs)) {
+                return mediaInfo.toResult(nowMs)
+            }
+            socket.setSockFlag(SockOpt.RCVTIMEO, (deadlineMs - nowMs).toInt())
+            val payload = socket.recv(PAYLOAD_SIZE)
+            if (payload.isEmpty()) {
+                continue
+            }
+            mediaInfo.onMedia(payload.size, SystemClock.elapsedRealtime())
+            parser.parse(payload)
+        }
+    }
+
+    fun close() {
+        try {
+            socket.close()
+        } catch (_: Exception) {
+        }
+    }
+
+    companion object {
+        private const val PAYLOAD_SIZE = 1316
+    }
+}
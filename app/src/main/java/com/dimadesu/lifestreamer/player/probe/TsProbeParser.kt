@@ -0,0 +1,169 @@
+package com.dimadesu.lifestreamer.player.probe
+
+import androidx.media3.common.MimeTypes
+import androidx.media3.common.util.UnstableApi
+
+/**
+ * Learns the codecs and the resolution of an MPEG-TS stream from its PAT, PMT and the first
+ * H.264 SPS, without decoding anything.
+ *
+ * @param mediaInfo where the stream information is stored
+ */
+@UnstableApi
+internal class TsProbeParser(private val mediaInfo: ProbeMediaInfo) {
+    private var pmtPid = -1
+    private var videoPid = -1
+    private var videoStreamType = -1
+
+    /**
+     * Video elementary stream data collected until an SPS is found.
+     */
+    private var videoData = ByteArray(0)
+    private var videoDataSize = 0
+    private var searchOffset = 0
+    private var spsOffset = -1
+    private var isSpsSearchDone = false
+
+    /**
+     * Parses a payload of TS packets.
+     */
+    fun parse(payload: ByteArray) {
+        var offset = 0
+        while (offset + PACKET_SIZE <= payload.size) {
+            if (payload[offset] == SYNC_BYTE) {
+                parsePacket(payload, offset)
+            }
+            offset += PACKET_SIZE
+        }
+    }
+
+    private fun parsePacket(packet: ByteArray, offset: Int) {
+        val pid = ((packet[offset + 1].toInt() and 0x1F) shl 8) or (packet[offset + 2].toInt() and 0xFF)
+        val isPayloadUnitStart = (packet[offset + 1].toInt() and 0x40) != 0
+        val adaptationFieldControl = (packet[offset + 3].toInt() shr 4) and 0x03
+        if ((adaptationFieldControl and 0x01) == 0) {
+            return
+        }
+        var payloadOffset = offset + 4
+        if ((adaptationFieldControl and 0x02) != 0) {
+            payloadOffset += 1 + (packet[offset + 4].toInt() and 0xFF)
+        }
+        val end = offset + PACKET_SIZE
+        if (payloadOffset >= end) {
+            return
+        }
+
+        when (pid) {
+            PAT_PID -> if (isPayloadUnitStart) parsePat(packet, payloadOffset, end)
+            pmtPid -> if (isPayloadUnitStart) parsePmt(packet, payloadOffset, end)
+            videoPid -> collectVideo(packet, payloadOffset, end, isPayloadUnitStart)
+        }
+    }
+
+    private fun parsePat(packet: ByteArray, offset: Int, end: Int) {
+        val section = offset + 1 + (packet[offset].toInt() and 0xFF)
+        // First program after the 8 bytes header
+        val program = section + 8
+        if (program + 4 > end) {
+            return
+        }
+        pmtPid = ((packet[program + 2].toInt() and 0x1F) shl 8) or (packet[program + 3].toInt() and 0xFF)
+    }
+
+    private fun parsePmt(packet: ByteArray, offset: Int, end: Int) {
+        val section = offset + 1 + (packet[offset].toInt() and 0xFF)
+        if (section + 12 > end) {
+            return
+        }
+        val sectionLength = ((packet[section + 1].toInt() and 0x0F) shl 8) or (packet[section + 2].toInt() and 0xFF)
+        val sectionEnd = minOf(section + 3 + sectionLength - CRC_SIZE, end)
+        val programInfoLength = ((packet[section + 10].toInt() and 0x0F) shl 8) or (packet[section + 11].toInt() and 0xFF)
+        var stream = section + 12 + programInfoLength
+        while (stream + 5 <= sectionEnd) {
+            val streamType = packet[stream].toInt() and 0xFF
+            val pid = ((packet[stream + 1].toInt() and 0x1F) shl 8) or (packet[stream + 2].toInt() and 0xFF)
+            val infoLength = ((packet[stream + 3].toInt() and 0x0F) shl 8) or (packet[stream + 4].toInt() and 0xFF)
+            getVideoMimeType(streamType)?.let {
+                if (videoPid < 0) {
+                    videoPid = pid
+                    videoStreamType = streamType
+                    mediaInfo.videoMimeType = it
+                }
+            }
+            getAudioMimeType(streamType)?.let {
+                mediaInfo.audioMimeType = mediaInfo.audioMimeType ?: it
+            }
+            stream += 5 + infoLength
+        }
+    }
+
+    private fun collectVideo(packet: ByteArray, offset: Int, end: Int, isPayloadUnitStart: Boolean) {
+        if (isSpsSearchDone || (videoStreamType != STREAM_TYPE_H264)) {
+            return
+        }
+        if (videoDataSize == 0 && !isPayloadUnitStart) {
+            return
+        }
+        val size = end - offset
+        if (videoData.size < videoDataSize + size) {
+            videoData = videoData.copyOf(maxOf(videoData.size * 2, videoDataSize + size, 4096))
+        }
+        System.arraycopy(packet, offset, videoData, videoDataSize, size)
+        videoDataSize += size
+        findSps()
+        if (videoDataSize >= MAX_VIDEO_DATA_SIZE) {
+            isSpsSearchDone = true
+        }
+    }
+
+    /**
+     * Looks for a complete SPS: a NAL unit of type 7 followed by another start code.
+     */
+    private fun findSps() {
+        var i = searchOffset
+        while (i + 3 < videoDataSize) {
+            if ((videoData[i].toInt() == 0) && (videoData[i + 1].toInt() == 0) && (videoData[i + 2].toInt() == 1)) {
+                if (spsOffset >= 0) {
+                    // Trailing zero of a 4 bytes start code is not part of the SPS
+                    val limit = if (videoData[i - 1].toInt() == 0) i - 1 else i
+                    mediaInfo.onH264Sps(videoData, spsOffset, limit)
+                    isSpsSearchDone = true
+                    return
+                }
+                if ((videoData[i + 3].toInt() and 0x1F) == H264_NAL_SPS) {
+                    spsOffset = i + 3
+                }
+                i += 3
+            } else {
+                i++
+            }
+        }
+        searchOffset = i
+    }
+
+    companion object {
+        private const val PACKET_SIZE = 188
+        private const val SYNC_BYTE = 0x47.toByte()
+        private const val PAT_PID = 0
+        private const val CRC_SIZE = 4
+        private const val MAX_VIDEO_DATA_SIZE = 256 * 1024
+        private const val H264_NAL_SPS = 7
+
+        private const val STREAM_TYPE_H264 = 0x1B
+
+        private fun getVideoMimeType(streamType: Int) = when (streamType) {
+            STREAM_TYPE_H264 -> MimeTypes.VIDEO_H264
+            0x24 -> MimeTypes.VIDEO_H265
+            0x02 -> MimeTypes.VIDEO_MPEG2
+            else -> null
+        }
+
+        private fun getAudioMimeType(streamType: Int) = when (streamType) {
+            0x0F, 0x11 -> MimeTypes.AUDIO_AAC
+            0x03, 0x04 -> MimeTypes.AUDIO_MPEG
+            0x81 -> MimeTypes.AUDIO_AC3
+            0x87 -> MimeTypes.AUDIO_E_AC3
+            else -> null
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.dimadesu.lifestreamer.recording
+
+import android.content.Context
+import android.net.Uri
+import android.util.Log
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.UriMediaDescriptor
+import io.github.thibaultbee.streampack.core.streamers.single.ConcurrentEncodingException
+import io.github.thibaultbee.streampack.core.streamers.single.LocalRecordingConfig
+import io.github.thibaultbee.streampack.core.streamers.single.LocalRecordingStats
+import io.github.thibaultbee.streampack.core.streamers.single.SingleStreamer
+import io.github.thibaultbee.streampack.ext.upload.ChunkUploader
+import io.github.thibaultbee.streampack.ext.upload.HttpUploadTarget
+import io.github.thibaultbee.streampack.ext.upload.UploadBandwidthLimiter
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+/**
+ * Local recording settings.
+ *
+ * @param isEnabled whether the live stream is also recorded locally
+ * @param videoBitrate the fixed video bitrate of the recording in bits/s
+ * @param uploadUrl the URL recording chunks are uploaded under (HTTP PUT). If null, recordings
+ * are only kept on the device.
+ */
+data class LocalRecordingSettings(
+    val isEnabled: Boolean = false,
+    val videoBitrate: Int = LocalRecordingConfig.DEFAULT_VIDEO_BITRATE,
+    val uploadUrl: String? = null
+)
+
+/**
+ * Records the live stream at a fixed high bitrate to the app storage while the live video
+ * bitrate follows the network, so that a good copy of the event survives a degraded uplink.
+ *
+ * When an upload URL is set, the recording is written as MPEG-TS chunks and each completed chunk
+ * is uploaded in the background while recording. Uploads only use a share of the uplink the live
+ * stream leaves and they resume after a restart of the app. Otherwise, the recording is a single
+ * MP4 file.
+ *
+ * @param linkCapacityProvider the estimated uplink capacity in bits/s or null when not streaming
+ * @param liveBitrateProvider the live stream bitrate in bits/s
+ */
+class LocalRecordingManager(
+    private val context: Context,
+    private val linkCapacityProvider: () -> Long?,
+    private val liveBitrateProvider: () -> Long
+) {
+    private val recordingsDir =
+        File(context.getExternalFilesDir(null) ?: context.filesDir, RECORDINGS_DIRECTORY)
+
+    private val bandwidthLimiter = UploadBandwidthLimiter(
+        UploadBandwidthLimiter.yieldingTo(linkCapacityProvider, liveBitrateProvider)
+    )
+
+    private var uploader: ChunkUploader? = null
+    private var uploadUrl: String? = null
+
+    private val _statsFlow = MutableStateFlow<LocalRecordingStats?>(null)
+
+    /**
+     * The statistics of the current recording: disk throughput and remaining storage estimate.
+     * Null when not recording.
+     */
+    val statsFlow: StateFlow<LocalRecordingStats?> = _statsFlow.asStateFlow()
+
+    /**
+     * Sets the upload URL. Recordings queued by a previous session are uploaded once it is set.
+     */
+    @Synchronized
+    fun setUploadUrl(url: String?) {
+        if (url == uploadUrl) {
+            return
+        }
+        uploader?.release()
+        uploader = null
+        uploadUrl = url
+        if (url != null) {
+            try {
+                uploader = ChunkUploader(
+                    File(context.filesDir, UPLOAD_QUEUE_FILE),
+                    HttpUploadTarget(url),
+                    Dispatchers.IO,
+                    bandwidthLimiter,
+                    keyGenerator = { "${it.name}.ts" }
+                )
+                Log.i(TAG, "Uploading recordings to $url")
+            } catch (t: Throwable) {
+                Log.w(TAG, "Failed to create uploader for $url: ${t.message}")
+            }
+        }
+    }
+
+    /**
+     * Records the live stream of [streamer] until the live stream stops or the caller is
+     * cancelled. To be called once the live stream is started.
+     */
+    suspend fun record(streamer: SingleStreamer, settings: LocalRecordingSettings) {
+        if (!settings.isEnabled) {
+            return
+        }
+
+        val uploader = synchronized(this) { uploader }
+        val config = LocalRecordingConfig(
+            videoBitrate = settings.videoBitrate,
+            chunkSizeInBytes = if (uploader != null) CHUNK_SIZE_IN_BYTES else null
+        )
+        val recording = try {
+            streamer.addLocalRecording(config)
+        } catch (e: ConcurrentEncodingException) {
+            Log.w(TAG, "Local recording is not supported on this device: ${e.message}")
+            return
+        } catch (t: Throwable) {
+            Log.e(TAG, "Failed to add local recording: ${t.message}", t)
+            return
+        }
+
+        recordingsDir.mkdirs()
+        val date = SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(Date())
+        // Chunks are named after the file: record-<date>_<index>
+        val file = File(recordingsDir, "record-$date.${if (uploader != null) "ts" else "mp4"}")
+        try {
+            // Chunks are queued as soon as they are completed
+            uploader?.let { recording.addChunkListener(it) }
+            recording.startStream(UriMediaDescriptor(Uri.fromFile(file)))
+            Log.i(TAG, "Recording locally to ${file.absolutePath}")
+            coroutineScope {
+                val statsJob = launch {
+                    recording.statsFlow.filterNotNull().collect { _statsFlow.value = it }
+                }
+                // The recording stops with the live stream or on its own error
+                recording.isStreamingFlow.first { !it }
+                recording.throwableFlow.value?.let {
+                    Log.e(TAG, "Local recording stopped: ${it.message}")
+                }
+                statsJob.cancel()
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (t: Throwable) {
+            Log.e(TAG, "Local recording failed: ${t.message}", t)
+        } finally {
+            withContext(NonCancellable) {
+                try {
+                    streamer.removeLocalRecording()
+                } catch (t: Throwable) {
+                    Log.w(TAG, "Failed to remove local recording: ${t.message}")
+                }
+                _statsFlow.value = null
+                Log.i(TAG, "Local recording saved to ${file.absolutePath}")
+            }
+        }
+    }
+
+    /**
+     * Stops the uploads. Queued recordings are uploaded on the next [setUploadUrl].
+     */
+    @Synchronized
+    fun release() {
+        uploader?.release()
+        uploader = null
+        uploadUrl = null
+    }
+
+    companion object {
+        private const val TAG = "LocalRecordingManager"
+
+        private const val RECORDINGS_DIRECTORY = "recordings"
+        private const val UPLOAD_QUEUE_FILE = "recording_uploads.queue"
+
+        /**
+         * About 1 min of recording at the default bitrate.
+         */
+        private const val CHUNK_SIZE_IN_BYTES = 100 * 1024 * 1024
+    }
+}
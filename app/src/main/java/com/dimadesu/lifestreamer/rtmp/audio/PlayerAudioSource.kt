@@ -0,0 +1,313 @@
+package com.dimadesu.lifestreamer.rtmp.audio
+
+import android.content.Context
+import android.media.AudioFormat
+import android.util.Log
+import androidx.media3.common.C
+import androidx.media3.common.audio.AudioProcessor
+import androidx.media3.common.audio.SonicAudioProcessor
+import androidx.media3.common.util.UnstableApi
+import com.dimadesu.lifestreamer.player.PlayerAudioTap
+import io.github.thibaultbee.streampack.core.elements.data.RawFrame
+import io.github.thibaultbee.streampack.core.elements.encoders.AudioCodecConfig
+import io.github.thibaultbee.streampack.core.elements.sources.audio.AudioSourceConfig
+import io.github.thibaultbee.streampack.core.elements.sources.audio.IAudioSourceInternal
+import io.github.thibaultbee.streampack.core.elements.utils.pool.IReadOnlyRawFrameFactory
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.abs
+
+/**
+ * Audio source that streams the decoded audio of an ExoPlayer through a [PlayerAudioTap].
+ *
+ * Unlike [MediaProjectionAudioSource], the audio does not go through the system mixer: it needs
+ * neither a user consent nor an audible player and it is not resampled twice.
+ *
+ * Frames are timestamped with a sample counter anchored to the player clock, so they stay in sync
+ * with the video frames of the same player. The counter is re-anchored on discontinuities and when
+ * it drifts more than [MAX_DRIFT_US] from the player clock. When the player speeds up to catch up
+ * with the live edge, the audio is time-stretched back to real time. When the player does not
+ * decode audio in time, silence is produced.
+ *
+ * @param tap the audio tap of the player
+ */
+@UnstableApi
+class PlayerAudioSource(internal val tap: PlayerAudioTap) : IAudioSourceInternal {
+    private val _isStreamingFlow = MutableStateFlow(false)
+    override val isStreamingFlow: StateFlow<Boolean> = _isStreamingFlow.asStateFlow()
+
+    private var sampleRate = 0
+    private var channelCount = 0
+    private var bytesPerFrame = 0
+
+    private val sonic = SonicAudioProcessor()
+    private var isSonicActive = false
+    private var inputSampleRate = 0
+    private var sonicSpeed = 1f
+
+    /**
+     * Processed audio waiting to be read. In write mode.
+     */
+    private var output = ByteBuffer.allocate(0)
+    private var silence = ByteArray(0)
+
+    /**
+     * Media time of the first sample of [output].
+     */
+    private var outputMediaTimeUs = 0.0
+    private var expectedInputTimeUs = C.TIME_UNSET
+
+    private var anchorTimeUs = C.TIME_UNSET
+    private var frameCountSinceAnchor = 0L
+
+    override suspend fun configure(config: AudioSourceConfig) {
+        require(config.byteFormat == AudioFormat.ENCODING_PCM_16BIT) {
+            "Unsupported byte format: ${config.byteFormat}"
+        }
+        sampleRate = config.sampleRate
+        channelCount = AudioCodecConfig.getNumberOfChannels(config.channelConfig)
+        bytesPerFrame = channelCount * PlayerAudioTap.BYTES_PER_SAMPLE
+        inputSampleRate = 0
+    }
+
+    override suspend fun startStream() {
+        check(sampleRate > 0) { "Audio source is not configured" }
+        reset()
+        tap.setEnabled(true)
+        _isStreamingFlow.emit(true)
+    }
+
+    override suspend fun stopStream() {
+        tap.setEnabled(false)
+        _isStreamingFlow.emit(false)
+    }
+
+    override fun release() {
+        tap.setEnabled(false)
+        _isStreamingFlow.tryEmit(false)
+        sonic.reset()
+    }
+
+    override fun fillAudioFrame(frame: RawFrame): RawFrame {
+        check(_isStreamingFlow.value) { "Audio source is not streaming" }
+
+        val buffer = frame.rawBuffer
+        // Encoder input buffers can be much larger than a frame: bound the latency
+        val maxSizeInBytes = minOf(buffer.remaining(), FRAME_SAMPLE_COUNT * bytesPerFrame)
+        val frameSizeInBytes = maxSizeInBytes - maxSizeInBytes % bytesPerFrame
+        val frameCount = frameSizeInBytes / bytesPerFrame
+        buffer.limit(buffer.position() + frameSizeInBytes)
+        val deadlineUs = TimeUtils.currentTime() + 2 * frameCount * 1_000_000L / sampleRate
+
+        while (true) {
+            while (output.position() < frameSizeInBytes) {
+                val timeoutUs = deadlineUs - TimeUtils.currentTime()
+                val chunk = if (timeoutUs > 0) tap.poll(timeoutUs) else null
+                if (chunk == null) {
+                    break
+                }
+                process(chunk)
+            }
+
+            if (output.position() < frameSizeInBytes) {
+                // The player is late or has no audio: keep the pending audio for the next frame
+                writeSilence(buffer, frameSizeInBytes)
+                frame.timestampInUs = nextTimestampUs(frameCount)
+                return frame
+            }
+
+            val targetTimeUs = tap.toStreamerTimeUs(outputMediaTimeUs.toLong())
+            if (targetTimeUs != null) {
+                val driftUs = getTimestampUs() - targetTimeUs
+                if ((anchorTimeUs == C.TIME_UNSET) || (driftUs < -MAX_DRIFT_US)) {
+                    // Behind the player clock: leave a gap
+                    anchor(targetTimeUs)
+                } else if (driftUs > MAX_DRIFT_US) {
+                    // Ahead of the player clock: drop the audio already covered by previous frames
+                    skipOutput((driftUs * sampleRate / 1_000_000L).toInt())
+                    continue
+                }
+            }
+
+            val target = buffer.duplicate()
+            target.put(output.array(), 0, frameSizeInBytes)
+            consumeOutput(frameSizeInBytes)
+            frame.timestampInUs = nextTimestampUs(frameCount)
+            return frame
+        }
+    }
+
+    override fun getAudioFrame(frameFactory: IReadOnlyRawFrameFactory): RawFrame {
+        check(bytesPerFrame > 0) { "Audio source is not configured" }
+
+        /**
+         * Dummy timestamp: it is overwritten later.
+         */
+        return fillAudioFrame(frameFactory.create(FRAME_SAMPLE_COUNT * bytesPerFrame, 0))
+    }
+
+    private fun reset() {
+        output.clear()
+        expectedInputTimeUs = C.TIME_UNSET
+        anchorTimeUs = C.TIME_UNSET
+        frameCountSinceAnchor = 0
+    }
+
+    private fun process(chunk: PlayerAudioTap.Chunk) {
+        val isDiscontinuity = chunk.isDiscontinuity
+                || (expectedInputTimeUs == C.TIME_UNSET)
+                || (abs(chunk.presentationTimeUs - expectedInputTimeUs) > DISCONTINUITY_THRESHOLD_US)
+        expectedInputTimeUs =
+            chunk.presentationTimeUs + chunk.frameCount * 1_000_000L / chunk.sampleRate
+
+        val speed = tap.speed
+        if ((chunk.sampleRate != inputSampleRate) || (speed != sonicSpeed)) {
+            configureSonic(chunk.sampleRate, speed)
+        } else if (isDiscontinuity && isSonicActive) {
+            sonic.flush()
+        }
+        if (isDiscontinuity) {
+            output.clear()
+            outputMediaTimeUs = chunk.presentationTimeUs.toDouble()
+        }
+
+        val input = ByteBuffer.wrap(mixChannels(chunk.data, chunk.channelCount))
+            .order(ByteOrder.nativeOrder())
+        if (isSonicActive) {
+            sonic.queueInput(input)
+            appendOutput(sonic.output)
+        } else {
+            appendOutput(input)
+        }
+    }
+
+    private fun configureSonic(inputSampleRate: Int, speed: Float) {
+        this.inputSampleRate = inputSampleRate
+        sonicSpeed = speed
+        sonic.setSpeed(speed)
+        sonic.setOutputSampleRateHz(sampleRate)
+        isSonicActive = try {
+            sonic.configure(
+                AudioProcessor.AudioFormat(inputSampleRate, channelCount, C.ENCODING_PCM_16BIT)
+            )
+            sonic.isActive
+        } catch (e: AudioProcessor.UnhandledAudioFormatException) {
+            Log.e(TAG, "Failed to configure resampler: ${e.message}")
+            false
+        }
+        sonic.flush()
+    }
+
+    /**
+     * Converts interleaved 16-bit samples to [channelCount] channels.
+     */
+    private fun mixChannels(data: ByteArray, inputChannelCount: Int): ByteArray {
+        if (inputChannelCount == channelCount) {
+            return data
+        }
+        val input = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder()).asShortBuffer()
+        val frameCount = input.remaining() / inputChannelCount
+        val mixed = ByteBuffer.allocate(frameCount * bytesPerFrame).order(ByteOrder.nativeOrder())
+        for (i in 0 until frameCount) {
+            val offset = i * inputChannelCount
+            if (channelCount == 1) {
+                // Down-mix the front channels
+                val sample = (input.get(offset) + input.get(offset + 1)) / 2
+                mixed.putShort(sample.toShort())
+            } else if (inputChannelCount == 1) {
+                val sample = input.get(offset)
+                mixed.putShort(sample)
+                mixed.putShort(sample)
+            } else {
+                // Keep the front channels
+                mixed.putShort(input.get(offset))
+                mixed.putShort(input.get(offset + 1))
+            }
+        }
+        return mixed.array()
+    }
+
+    private fun appendOutput(data: ByteBuffer) {
+        val size = data.remaining()
+        if (output.remaining() < size) {
+            val newOutput = ByteBuffer.allocate(maxOf(output.capacity() * 2, output.position() + size))
+            output.flip()
+            newOutput.put(output)
+            output = newOutput
+        }
+        output.put(data)
+    }
+
+    private fun consumeOutput(sizeInBytes: Int) {
+        val remainingSize = output.position() - sizeInBytes
+        System.arraycopy(output.array(), sizeInBytes, output.array(), 0, remainingSize)
+        output.position(remainingSize)
+        outputMediaTimeUs += sizeInBytes / bytesPerFrame * sonicSpeed * 1_000_000.0 / sampleRate
+    }
+
+    private fun skipOutput(frameCount: Int) {
+        consumeOutput(minOf(frameCount * bytesPerFrame, output.position()))
+    }
+
+    private fun writeSilence(buffer: ByteBuffer, sizeInBytes: Int) {
+        if (silence.size < sizeInBytes) {
+            silence = ByteArray(sizeInBytes)
+        }
+        buffer.duplicate().put(silence, 0, sizeInBytes)
+    }
+
+    private fun anchor(timeUs: Long) {
+        anchorTimeUs = timeUs
+        frameCountSinceAnchor = 0
+    }
+
+    private fun getTimestampUs() = anchorTimeUs + frameCountSinceAnchor * 1_000_000L / sampleRate
+
+    private fun nextTimestampUs(frameCount: Int): Long {
+        if (anchorTimeUs == C.TIME_UNSET) {
+            anchor(TimeUtils.currentTime())
+        }
+        val timestampUs = getTimestampUs()
+        frameCountSinceAnchor += frameCount
+        return timestampUs
+    }
+
+    companion object {
+        private const val TAG = "PlayerAudioSource"
+
+        /**
+         * Number of samples per channel in a frame: one AAC frame.
+         */
+        private const val FRAME_SAMPLE_COUNT = 1024
+
+        /**
+         * Maximum gap between consecutive buffers of the player before they are considered
+         * discontinuous.
+         */
+        private const val DISCONTINUITY_THRESHOLD_US = 10_000L
+
+        /**
+         * Maximum difference between the frame timestamps and the player clock. Below, the sample
+         * counter is kept to avoid jitter.
+         */
+        private const val MAX_DRIFT_US = 40_000L
+    }
+}
+
+/**
+ * Factory for [PlayerAudioSource].
+ *
+ * @param tap the audio tap of the player
+ */
+@UnstableApi
+class PlayerAudioSourceFactory(private val tap: PlayerAudioTap) : IAudioSourceInternal.Factory {
+    override suspend fun create(context: Context): IAudioSourceInternal = PlayerAudioSource(tap)
+
+    override fun isSourceEquals(source: IAudioSourceInternal?): Boolean {
+        return source is PlayerAudioSource && source.tap === tap
+    }
+}
@@ -33,6 +33,7 @@ import com.dimadesu.lifestreamer.data.storage.DataStoreRepository
 import com.dimadesu.lifestreamer.bitrate.AdaptiveSrtBitrateRegulatorController
 import com.dimadesu.lifestreamer.utils.dataStore
 import com.dimadesu.lifestreamer.models.StreamStatus
+import io.github.thibaultbee.streampack.core.elements.endpoints.DynamicEndpoint
 import io.github.thibaultbee.streampack.core.elements.endpoints.MediaSinkType
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
@@ -49,8 +50,22 @@ import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.distinctUntilChanged
 import kotlinx.coroutines.flow.drop
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.filterNotNull
+import com.dimadesu.lifestreamer.camera.CameraStandbyManager
+import com.dimadesu.lifestreamer.recording.LocalRecordingManager
 import com.dimadesu.lifestreamer.audio.BluetoothAudioSource
 import com.dimadesu.lifestreamer.audio.ScoOrchestrator
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsLineExporter
+import io.github.thibaultbee.streampack.core.elements.utils.metrics.MetricsSnapshot
+import io.github.thibaultbee.streampack.core.elements.utils.time.TimeUtils
+import io.github.thibaultbee.streampack.core.streamers.single.SingleStreamer
+import io.github.thibaultbee.streampack.core.elements.endpoints.ReconnectEndpoint
+import io.github.thibaultbee.streampack.core.elements.endpoints.ReconnectEndpointFactory
+import java.io.File
+import java.text.SimpleDateFormat
+import java.util.Date
+import io.github.thibaultbee.streampack.core.elements.utils.av.video.TimingSeiInjectable
 
 /**
  * CameraStreamerService extending StreamerService for camera streaming
@@ -58,8 +73,10 @@ import com.dimadesu.lifestreamer.audio.ScoOrchestrator
 class CameraStreamerService : StreamerService<ISingleStreamer>(
     streamerFactory = SingleStreamerFactory(
         withAudio = true, 
-        withVideo = true 
+        withVideo = true,
         // Remove defaultRotation - let StreamPack detect it automatically and we'll update it dynamically
+        // Reconnection is enabled by the fast reconnect setting
+        endpointFactory = ReconnectEndpointFactory()
     ),
     notificationId = 1001,
     channelId = "multitool_camera_streaming_channel", 
@@ -75,6 +92,13 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
         const val ACTION_EXIT_APP = "com.swissi.lifestreamer.multitool.action.EXIT_APP"
         const val ACTION_OPEN_FROM_NOTIFICATION = "com.swissi.lifestreamer.multitool.ACTION_OPEN_FROM_NOTIFICATION"
 
+        // Output FPS of the video encoder of the single streamer output
+        private const val VIDEO_FPS_METRIC = "output0.video.encoder.output_fps"
+        // SRT bandwidth estimation of the single streamer output
+        private const val LIVE_OUTPUT_METRICS_PREFIX = "output0."
+        private const val SRT_BANDWIDTH_METRIC_SUFFIX = ".sink.bandwidth_mbps"
+        private const val METRICS_DIRECTORY = "metrics"
+
         /**
          * Convert rotation constant to readable string for logging
          */
@@ -136,6 +160,12 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
 
     // Coroutine scope for periodic notification updates
     private val serviceScope = CoroutineScope(SupervisorJob() + Dispatchers.Main.immediate)
+
+    // Keeps the next likely camera opened while streaming for fast camera switching
+    private val cameraStandbyManager by lazy { CameraStandbyManager(this) }
+    private val localRecordingManager by lazy {
+        LocalRecordingManager(this, ::uplinkCapacity, ::liveBitrate)
+    }
     
     // Track if cleanup (close) is still running after stop
     // This prevents race conditions where start is called while previous stop is still cleaning up
@@ -144,6 +174,11 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
     var isCleanupInProgress = false
     
     private var statusUpdaterJob: Job? = null
+    private var metricsCollectorJob: Job? = null
+    private var localRecordingJob: Job? = null
+    // Last metrics sampled by the streamer. Readers never poll the encoder or the endpoint.
+    @Volatile
+    private var latestMetrics: MetricsSnapshot? = null
     // Cache last notification state to avoid re-posting identical notifications
     private var lastNotificationKey: String? = null
     // Critical error flow for the UI to show dialogs (non-transient errors)
@@ -306,6 +341,11 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
 
         // Start periodic notification updater to reflect runtime status
         startStatusUpdater()
+        startMetricsCollector()
+        startFastReconnectCollector()
+        startSrtRelayCollector()
+        startTimingSeiCollector()
+        startLocalRecordingCollector()
         
         // Observe service status changes for immediate notification updates
         // (STARTING, CONNECTING, ERROR, STREAMING, NOT_STREAMING)
@@ -354,6 +394,36 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
                 }
         }
         
+        // Open or release the standby camera when the stream, the source or the settings change
+        serviceScope.launch(Dispatchers.Default) {
+            val videoInput = (streamer as? IWithVideoSource)?.videoInput ?: return@launch
+            launch {
+                videoInput.sourceSwitchInfoFlow.filterNotNull().collect { info ->
+                    Log.i(TAG, "Video source switched in ${info.durationInMs} ms (standby: ${info.isFromStandby}, preview restart: ${info.previewRestartDurationInMs} ms)")
+                }
+            }
+            combine(
+                storageRepository.cameraStandbyConfigFlow,
+                streamer.isStreamingFlow,
+                videoInput.sourceFlow
+            ) { config, isStreaming, source -> Triple(config, isStreaming, source) }
+                .collectLatest { (config, isStreaming, source) ->
+                    if (!isStreaming) {
+                        cameraStandbyManager.reset()
+                    } else {
+                        delay(CameraStandbyManager.SETTLE_DELAY_MS)
+                    }
+                    while (isActive) {
+                        cameraStandbyManager.update(videoInput, config, source, isStreaming)
+                        if (!isStreaming) {
+                            break
+                        }
+                        // Re-evaluates power and memory constraints while live
+                        delay(CameraStandbyManager.GUARD_CHECK_INTERVAL_MS)
+                    }
+                }
+        }
+
         // Observe audio config changes and update passthrough if monitoring is active
         serviceScope.launch {
             storageRepository.audioConfigFlow
@@ -411,6 +481,11 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
     override fun onDestroy() {
         // Stop periodic updater
         stopStatusUpdater()
+        metricsCollectorJob?.cancel()
+        metricsCollectorJob = null
+        localRecordingJob?.cancel()
+        localRecordingJob = null
+        localRecordingManager.release()
 
         // Clean up local rotation provider if we registered one
         try {
@@ -544,6 +619,7 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
         releaseNetworkWakeLock()
         // clear start time
         streamingStartTime = null
+        latestMetrics = null
         // Clear uptime so UI hides the uptime display immediately
         try { _uptimeFlow.tryEmit(null) } catch (_: Throwable) {}
         
@@ -651,10 +727,7 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
                     
                     // Emit encoder stats (or null when not streaming) to flow for UI consumers
                     val encoderStatsText = if (isStreamingNow) {
-                        try {
-                            val stats = videoEncoderRef?.getStats()
-                            stats?.let { s -> "%.1f fps".format(java.util.Locale.US, s.outputFps) }
-                        } catch (_: Throwable) { null }
+                        sampledVideoFps()?.let { fps -> "%.1f fps".format(java.util.Locale.US, fps) }
                     } else null
                     try { _encoderStatsFlow.emit(encoderStatsText) } catch (_: Throwable) {}
                     val bitrateText = videoBitrate?.let { b ->
@@ -690,6 +763,156 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
         statusUpdaterJob = null
     }
 
+    /**
+     * Collects the metrics sampled by the streamer every second. The status updater reads the
+     * last sample, and samples are written to a file while streaming when the export is enabled.
+     */
+    private fun startMetricsCollector() {
+        val singleStreamer = streamer as? SingleStreamer ?: return
+        metricsCollectorJob?.cancel()
+        metricsCollectorJob = serviceScope.launch {
+            combine(
+                storageRepository.streamMetricsExportFlow,
+                singleStreamer.isStreamingFlow
+            ) { isExportEnabled, isStreaming -> isExportEnabled && isStreaming }
+                .distinctUntilChanged()
+                .collectLatest { isExporting ->
+                    val exporter = if (isExporting) createMetricsExporter() else null
+                    // The last sample of the previous stream is replayed: skip it
+                    val startTimeInUs = TimeUtils.currentTime()
+                    try {
+                        singleStreamer.metricsFlow.collect { snapshot ->
+                            latestMetrics = snapshot
+                            if ((exporter != null) && (snapshot.timestampInUs >= startTimeInUs)) {
+                                withContext(Dispatchers.IO) { exporter.export(snapshot) }
+                            }
+                        }
+                    } finally {
+                        exporter?.let { withContext(NonCancellable + Dispatchers.IO) { it.close() } }
+                    }
+                }
+        }
+    }
+
+    /**
+     * Applies the latency timing setting to the live stream endpoint. It applies from the next
+     * frame. The local recording has its own endpoint, so it never carries the timing messages.
+     */
+    private fun startTimingSeiCollector() {
+        val endpoint = streamer.endpoint as? TimingSeiInjectable ?: return
+        serviceScope.launch {
+            storageRepository.streamTimingSeiFlow.collect { isEnabled ->
+                endpoint.isTimingSeiEnabled = isEnabled
+            }
+        }
+    }
+
+    /**
+     * Applies the SRT source relay setting to the endpoint. The SRT output only accepts relayed
+     * packets when the setting is enabled before the stream starts.
+     */
+    private fun startSrtRelayCollector() {
+        val endpoint = streamer.endpoint
+        val dynamicEndpoint =
+            ((endpoint as? ReconnectEndpoint)?.endpoint ?: endpoint) as? DynamicEndpoint ?: return
+        serviceScope.launch {
+            storageRepository.srtSourceRelayFlow.collect { isEnabled ->
+                dynamicEndpoint.isTsRelayEnabled = isEnabled
+            }
+        }
+    }
+
+    /**
+     * Applies the fast reconnect setting to the endpoint. With fast reconnect, the encoders keep
+     * running while the endpoint reconnects and the stream resumes from the last key frame.
+     */
+    private fun startFastReconnectCollector() {
+        val endpoint = streamer.endpoint as? ReconnectEndpoint ?: return
+        serviceScope.launch {
+            storageRepository.streamFastReconnectFlow.collect { isEnabled ->
+                endpoint.isReconnectEnabled = isEnabled
+            }
+        }
+        serviceScope.launch {
+            endpoint.isReconnectingFlow.drop(1).collect { isReconnecting ->
+                if (isReconnecting) {
+                    Log.i(TAG, "Connection lost: reconnecting endpoint with encoders running")
+                    _reconnectionStatusMessage.value = "Reconnecting..."
+                } else {
+                    Log.i(TAG, "Endpoint reconnection ended")
+                    _reconnectionStatusMessage.value = null
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the live stream locally at a fixed high bitrate while streaming when it is enabled.
+     * The settings apply to the next stream. When an upload URL is set, the recording chunks are
+     * uploaded while recording.
+     */
+    private fun startLocalRecordingCollector() {
+        val singleStreamer = streamer as? SingleStreamer ?: return
+        serviceScope.launch(Dispatchers.IO) {
+            storageRepository.localRecordingSettingsFlow.collect { settings ->
+                localRecordingManager.setUploadUrl(settings.uploadUrl)
+            }
+        }
+        localRecordingJob?.cancel()
+        localRecordingJob = serviceScope.launch {
+            singleStreamer.isStreamingFlow.collectLatest { isStreaming ->
+                if (isStreaming) {
+                    localRecordingManager.record(
+                        singleStreamer,
+                        storageRepository.localRecordingSettingsFlow.first()
+                    )
+                }
+            }
+        }
+    }
+
+    /**
+     * The uplink capacity estimated by SRT in bits/s, or null when not streaming. Without
+     * estimation, the capacity is the live bitrate so that uploads wait for the end of the stream.
+     */
+    private fun uplinkCapacity(): Long? {
+        if (!streamer.isStreamingFlow.value) {
+            return null
+        }
+        val bandwidthInMbps = latestMetrics?.gauges?.entries?.firstOrNull { (key, _) ->
+            key.startsWith(LIVE_OUTPUT_METRICS_PREFIX) && key.endsWith(SRT_BANDWIDTH_METRIC_SUFFIX)
+        }?.value ?: return liveBitrate()
+        return (bandwidthInMbps * 1_000_000).toLong()
+    }
+
+    /**
+     * The live stream bitrate in bits/s.
+     */
+    private fun liveBitrate(): Long {
+        val videoBitrate =
+            (streamer as? io.github.thibaultbee.streampack.core.streamers.single.IVideoSingleStreamer)?.videoEncoder?.bitrate
+                ?: 0
+        val audioBitrate =
+            (streamer as? io.github.thibaultbee.streampack.core.streamers.single.IAudioSingleStreamer)?.audioEncoder?.bitrate
+                ?: 0
+        return videoBitrate.toLong() + audioBitrate
+    }
+
+    private fun createMetricsExporter(): MetricsLineExporter? {
+        return try {
+            val directory = File(getExternalFilesDir(null) ?: filesDir, METRICS_DIRECTORY).apply { mkdirs() }
+            val date = SimpleDateFormat("yyyyMMdd-HHmmss", java.util.Locale.US).format(Date())
+            val file = File(directory, "metrics-$date.log")
+            Log.i(TAG, "Exporting stream metrics to ${file.absolutePath}")
+            MetricsLineExporter(file)
+        } catch (t: Throwable) {
+            Log.w(TAG, "Failed to create metrics file: ${t.message}")
+            null
+        }
+    }
+
+    private fun sampledVideoFps(): Float? = latestMetrics?.gauges?.get(VIDEO_FPS_METRIC)?.toFloat()
+
     // Post a notification that is appropriate for the current service status
     private suspend fun notifyForCurrentState() {
         try {
@@ -737,9 +960,9 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
             (streamer as? io.github.thibaultbee.streampack.core.streamers.single.IVideoSingleStreamer)?.videoEncoder
         } else null
         val videoBitrate = videoEncoderRef?.bitrate
-        val fpsText = try {
-            videoEncoderRef?.getStats()?.let { s -> "%.1f fps".format(java.util.Locale.US, s.outputFps) }
-        } catch (_: Throwable) { null }
+        val fpsText = if (videoEncoderRef != null) {
+            sampledVideoFps()?.let { fps -> "%.1f fps".format(java.util.Locale.US, fps) }
+        } else null
 
         val bitrateText = videoBitrate?.let { b -> if (b >= 1_000_000) String.format(java.util.Locale.US, "%.2f Mbps", b / 1_000_000.0) else String.format(java.util.Locale.US, "%d kb/s", b / 1000) } ?: ""
 
@@ -1062,34 +1285,6 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
             // Streamer is guaranteed to be available (lazy initialized)
             val currentStreamer = streamer
 
-            // Check if sources are configured - wait for them to become available
-            // Cast to IWithVideoSource and IWithAudioSource to access inputs
-            val videoInput = (currentStreamer as? io.github.thibaultbee.streampack.core.interfaces.IWithVideoSource)?.videoInput
-            val audioInput = (currentStreamer as? IWithAudioSource)?.audioInput
-            
-            // Wait up to 3 seconds for sources to be initialized by ViewModel
-            val sourcesReady = withTimeoutOrNull(3000) {
-                while (videoInput?.sourceFlow?.value == null || audioInput?.sourceFlow?.value == null) {
-                    delay(200)
-                }
-                true
-            } ?: false
-            
-            val hasVideoSource = videoInput?.sourceFlow?.value != null
-            val hasAudioSource = audioInput?.sourceFlow?.value != null
-            
-            Log.i(TAG, "startStreamFromConfiguredEndpoint: Source check after waiting - Video: $hasVideoSource, Audio: $hasAudioSource")
-            
-            if (!hasVideoSource || !hasAudioSource) {
-                // Sources still not available after waiting - this means ViewModel hasn't initialized them
-                // This can happen if user clicks Start in notification before opening the app
-                val errorMsg = "Sources not initialized - please start from app first"
-                Log.w(TAG, errorMsg)
-                customNotificationUtils.notify(onErrorNotification(Throwable(errorMsg)) ?: onCreateNotification())
-                serviceScope.launch { _criticalErrors.emit(errorMsg) }
-                return
-            }
-
             // Read configured endpoint descriptor
             val descriptor = try {
                 storageRepository.endpointDescriptorFlow.first()
@@ -1099,85 +1294,47 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
                 return
             }
 
-            // Final validation: Ensure both sources are still configured right before starting stream
-            val (sourcesValid, sourceError) = validateSourcesConfigured()
-            if (!sourcesValid) {
-                val errorMsg = "Cannot start stream: $sourceError"
-                Log.e(TAG, "startStreamFromConfiguredEndpoint: $errorMsg")
-                customNotificationUtils.notify(onErrorNotification(Throwable(errorMsg)) ?: onCreateNotification())
-                serviceScope.launch { _criticalErrors.emit(errorMsg) }
-                return
-            }
-            Log.i(TAG, "startStreamFromConfiguredEndpoint: Final source validation passed")
-
             Log.i(TAG, "startStreamFromConfiguredEndpoint: opening descriptor $descriptor")
             // Indicate start sequence
             try { _serviceStreamStatus.tryEmit(StreamStatus.STARTING) } catch (_: Throwable) {}
+            // Indicate we're attempting to connect/open
+            try { _serviceStreamStatus.tryEmit(StreamStatus.CONNECTING) } catch (_: Throwable) {}
 
+            // Connect while the sources (set up by the ViewModel) and the encoders get ready,
+            // then start the encoders and the endpoint together
             try {
-                // Indicate we're attempting to connect/open
-                try { _serviceStreamStatus.tryEmit(StreamStatus.CONNECTING) } catch (_: Throwable) {}
-                // Use NonCancellable for camera configuration to prevent "Broken pipe" errors
-                // if coroutine is cancelled during camera setup
-                withTimeout(5000) { // 5s open timeout
-                    // withContext(NonCancellable) {
-                        currentStreamer.open(descriptor)
-                    // }
-                }
-                
-                // Wait for encoders to be initialized after open
-                // This prevents the race condition where video encoder isn't ready after rapid stop/start
-                Log.d(TAG, "startStreamFromConfiguredEndpoint: Waiting for encoders to initialize...")
-                val encodersReady = withTimeoutOrNull(5000) {
-                    while ((currentStreamer as? io.github.thibaultbee.streampack.core.streamers.single.IVideoSingleStreamer)?.videoEncoder == null 
-                           || (currentStreamer as? io.github.thibaultbee.streampack.core.streamers.single.IAudioSingleStreamer)?.audioEncoder == null) {
-                        delay(200)
+                StreamStartOrchestrator(currentStreamer, serviceScope).start(descriptor) {
+                    // Final validation: Ensure both sources are still configured right before starting stream
+                    val (sourcesValid, sourceError) = validateSourcesConfigured()
+                    if (!sourcesValid) {
+                        throw StreamStartOrchestrator.StreamStartException(
+                            StreamStartOrchestrator.PHASE_SOURCES,
+                            "Cannot start stream: $sourceError"
+                        )
                     }
-                    true
-                } ?: false
-                
-                if (!encodersReady) {
-                    val videoEncoderExists = (currentStreamer as? io.github.thibaultbee.streampack.core.streamers.single.IVideoSingleStreamer)?.videoEncoder != null
-                    val audioEncoderExists = (currentStreamer as? io.github.thibaultbee.streampack.core.streamers.single.IAudioSingleStreamer)?.audioEncoder != null
-                    val errorMsg = "Encoders not ready after open (video=$videoEncoderExists, audio=$audioEncoderExists)"
-                    Log.e(TAG, "startStreamFromConfiguredEndpoint: $errorMsg")
-                    customNotificationUtils.notify(onErrorNotification(Throwable(errorMsg)) ?: onCreateNotification())
-                    serviceScope.launch { _criticalErrors.emit(errorMsg) }
-                    return
+                    Log.i(TAG, "startStreamFromConfiguredEndpoint: Final source validation passed")
                 }
-                val videoEncoderExists = (currentStreamer as? io.github.thibaultbee.streampack.core.streamers.single.IVideoSingleStreamer)?.videoEncoder != null
-                val audioEncoderExists = (currentStreamer as? io.github.thibaultbee.streampack.core.streamers.single.IAudioSingleStreamer)?.audioEncoder != null
-                Log.i(TAG, "startStreamFromConfiguredEndpoint: Encoders ready - video=$videoEncoderExists, audio=$audioEncoderExists")
-                
-            } catch (e: Exception) {
-                Log.w(TAG, "Failed to open endpoint descriptor: ${e.message}")
-                // Don't set ERROR status - keep CONNECTING so ViewModel can trigger reconnection
-                // The ViewModel's critical errors observer will detect this and trigger handleDisconnection
-                // Don't call notify(onCreateNotification()) here - let the status observer handle it
-                // to avoid overwriting the CONNECTING notification
-                // Emit critical error for ViewModel to observe and trigger reconnection
-                serviceScope.launch { _criticalErrors.emit("Open failed: ${e.message}") }
-                return
-            }
-
-            try {
-                // We're ready to start streaming
-                try { _serviceStreamStatus.tryEmit(StreamStatus.CONNECTING) } catch (_: Throwable) {}
-                // Protect startStream() from cancellation to prevent camera configuration errors
-                // withContext(NonCancellable) {
-                    currentStreamer.startStream()
-                // }
                 // Don't set STREAMING immediately - let getEffectiveServiceStatus() 
                 // derive it from isStreamingFlow.value to ensure accuracy
                 Log.i(TAG, "startStream() called successfully, waiting for isStreamingFlow to confirm")
-            } catch (e: Exception) {
-                Log.w(TAG, "Failed to start stream after open: ${e.message}")
-                // Don't set ERROR status - keep CONNECTING so ViewModel can trigger reconnection
-                // The ViewModel's critical errors observer will detect this and trigger handleDisconnection
-                // Don't call notify(onCreateNotification()) here - let the status observer handle it
-                // to avoid overwriting the CONNECTING notification
-                // Emit critical error for ViewModel to observe and trigger reconnection
-                serviceScope.launch { _criticalErrors.emit("Start failed: ${e.message}") }
+            } catch (e: StreamStartOrchestrator.StreamStartException) {
+                val errorMsg = e.message ?: "Start failed"
+                when (e.phase) {
+                    StreamStartOrchestrator.PHASE_SOURCES, StreamStartOrchestrator.PHASE_ENCODERS -> {
+                        // Sources not available: the ViewModel hasn't initialized them. This can
+                        // happen if user clicks Start in notification before opening the app
+                        Log.e(TAG, "startStreamFromConfiguredEndpoint: $errorMsg")
+                        customNotificationUtils.notify(onErrorNotification(Throwable(errorMsg)) ?: onCreateNotification())
+                    }
+                    else -> {
+                        // Don't set ERROR status - keep CONNECTING so ViewModel can trigger reconnection
+                        // The ViewModel's critical errors observer will detect this and trigger handleDisconnection
+                        // Don't call notify(onCreateNotification()) here - let the status observer handle it
+                        // to avoid overwriting the CONNECTING notification
+                        Log.w(TAG, "startStreamFromConfiguredEndpoint: $errorMsg")
+                    }
+                }
+                serviceScope.launch { _criticalErrors.emit(errorMsg) }
                 return
             }
 
@@ -1225,6 +1382,8 @@ class CameraStreamerService : StreamerService<ISingleStreamer>(
         fun isMutedFlow() = this@CameraStreamerService.isMutedFlow
         // Expose uptime flow so UI can display runtime while streaming
         fun uptimeFlow() = this@CameraStreamerService.uptimeFlow
+        // Expose local recording disk throughput and remaining storage estimate
+        fun localRecordingStatsFlow() = this@CameraStreamerService.localRecordingManager.statsFlow
         // Allow bound clients to set mute centrally in the service
         fun setMuted(isMuted: Boolean) {
             try { Log.d(TAG, "Binder.setMuted called: isMuted=$isMuted") } catch (_: Throwable) {}
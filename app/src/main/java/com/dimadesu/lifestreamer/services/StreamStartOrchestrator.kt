@@ -0,0 +1,198 @@
+package com.dimadesu.lifestreamer.services
+
+import android.util.Log
+import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.utils.trace.StartupTimeline
+import io.github.thibaultbee.streampack.core.interfaces.IWithAudioSource
+import io.github.thibaultbee.streampack.core.interfaces.IWithVideoSource
+import io.github.thibaultbee.streampack.core.streamers.single.IAudioSingleStreamer
+import io.github.thibaultbee.streampack.core.streamers.single.ISingleStreamer
+import io.github.thibaultbee.streampack.core.streamers.single.IVideoSingleStreamer
+import io.github.thibaultbee.streampack.core.streamers.single.SingleStreamer
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeout
+import kotlinx.coroutines.withTimeoutOrNull
+
+/**
+ * Starts a stream with its phases overlapped instead of run one after the other.
+ *
+ * The connection to the server (SRT handshake, RTMP connect) is started right away, while the
+ * sources and the encoder configurations are awaited on their flows instead of being polled.
+ * The streamer then starts the encoders and the endpoint concurrently.
+ *
+ * Every phase is recorded in a [StartupTimeline] that is logged once the first frame has been
+ * sent, so the time to go live can be compared between devices and endpoints.
+ *
+ * @param streamer the streamer to start
+ * @param reportScope the scope the timeline report runs in
+ */
+class StreamStartOrchestrator(
+    private val streamer: ISingleStreamer,
+    private val reportScope: CoroutineScope,
+    private val sourcesTimeoutMs: Long = 3000,
+    private val connectTimeoutMs: Long = 5000,
+    private val encodersTimeoutMs: Long = 5000,
+    private val firstFrameTimeoutMs: Long = 10000
+) {
+    /**
+     * Starts the stream.
+     *
+     * On failure, the streamer is closed unless the connection itself failed.
+     *
+     * @param descriptor the endpoint to stream to
+     * @param beforeStart called once the streamer is open and ready, right before the start
+     * @return the timeline of the start. The first frame phases are added later.
+     * @throws StreamStartException if a phase fails
+     */
+    suspend fun start(
+        descriptor: MediaDescriptor,
+        beforeStart: suspend () -> Unit = {}
+    ): StartupTimeline {
+        val timeline = StartupTimeline()
+
+        try {
+            coroutineScope {
+                val connect = async {
+                    timeline.measure(PHASE_CONNECT) { open(descriptor) }
+                }
+                timeline.measure(PHASE_SOURCES) { awaitSources() }
+                timeline.measure(PHASE_ENCODERS) { awaitEncoders() }
+                connect.await()
+            }
+            beforeStart()
+        } catch (e: Throwable) {
+            if ((e !is StreamStartException) || (e.phase != PHASE_CONNECT)) {
+                closeQuietly()
+            }
+            throw e
+        }
+
+        try {
+            timeline.measure(PHASE_START) {
+                (streamer as? SingleStreamer)?.startStream(timeline) ?: streamer.startStream()
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            throw StreamStartException(PHASE_START, "Start failed: ${e.message}", e)
+        }
+
+        report(timeline)
+        return timeline
+    }
+
+    private suspend fun open(descriptor: MediaDescriptor) {
+        try {
+            withTimeout(connectTimeoutMs) {
+                streamer.open(descriptor)
+            }
+        } catch (e: TimeoutCancellationException) {
+            throw StreamStartException(
+                PHASE_CONNECT,
+                "Connection timeout - check server address and network",
+                e
+            )
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            throw StreamStartException(PHASE_CONNECT, "Open failed: ${e.message}", e)
+        }
+    }
+
+    private suspend fun awaitSources() {
+        val videoInput = (streamer as? IWithVideoSource)?.videoInput
+        val audioInput = (streamer as? IWithAudioSource)?.audioInput
+
+        val isReady = (videoInput != null) && (audioInput != null) &&
+                (withTimeoutOrNull(sourcesTimeoutMs) {
+                    videoInput.sourceFlow.filterNotNull().first()
+                    audioInput.sourceFlow.filterNotNull().first()
+                    true
+                } ?: false)
+        if (!isReady) {
+            throw StreamStartException(
+                PHASE_SOURCES,
+                "Sources not initialized - please start from app first"
+            )
+        }
+    }
+
+    private suspend fun awaitEncoders() {
+        val videoStreamer = streamer as? IVideoSingleStreamer
+        val audioStreamer = streamer as? IAudioSingleStreamer
+
+        // The configuration is emitted once the encoder has been created
+        val isReady = withTimeoutOrNull(encodersTimeoutMs) {
+            videoStreamer?.videoConfigFlow?.filterNotNull()?.first()
+            audioStreamer?.audioConfigFlow?.filterNotNull()?.first()
+            true
+        } ?: false
+        val hasVideoEncoder = videoStreamer?.videoEncoder != null
+        val hasAudioEncoder = audioStreamer?.audioEncoder != null
+        if (!isReady || !hasVideoEncoder || !hasAudioEncoder) {
+            throw StreamStartException(
+                PHASE_ENCODERS,
+                "Encoders not ready after open (video=$hasVideoEncoder, audio=$hasAudioEncoder)"
+            )
+        }
+    }
+
+    private suspend fun closeQuietly() {
+        withContext(NonCancellable) {
+            try {
+                if (streamer.isOpenFlow.value) {
+                    streamer.close()
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "Failed to close streamer after start failure: ${e.message}")
+            }
+        }
+    }
+
+    private fun report(timeline: StartupTimeline) {
+        val firstFrame = if (streamer is IVideoSingleStreamer) {
+            StartupTimeline.FIRST_VIDEO_FRAME
+        } else {
+            StartupTimeline.FIRST_AUDIO_FRAME
+        }
+        reportScope.launch {
+            val phase = withTimeoutOrNull(firstFrameTimeoutMs) {
+                timeline.await(firstFrame)
+            }
+            if (phase != null) {
+                Log.i(TAG, "Live in ${phase.endInMs} ms: $timeline")
+            } else {
+                Log.w(TAG, "No frame sent after $firstFrameTimeoutMs ms: $timeline")
+            }
+        }
+    }
+
+    /**
+     * A failed phase of the stream start.
+     *
+     * @param phase the phase that failed, one of the `PHASE_` constants
+     */
+    class StreamStartException(
+        val phase: String,
+        message: String,
+        cause: Throwable? = null
+    ) : Exception(message, cause)
+
+    companion object {
+        private const val TAG = "StreamStartOrchestrator"
+
+        const val PHASE_SOURCES = "sources"
+        const val PHASE_CONNECT = "connect"
+        const val PHASE_ENCODERS = "encoders"
+        const val PHASE_START = "start"
+    }
+}
@@ -22,6 +22,7 @@ import android.view.Menu
 import android.view.MenuInflater
 import android.widget.PopupMenu
 import androidx.appcompat.app.AppCompatActivity
+import androidx.lifecycle.lifecycleScope
 import com.swissi.lifestreamer.multitool.R
 import com.swissi.lifestreamer.multitool.databinding.MainActivityBinding
 import com.dimadesu.lifestreamer.ui.settings.SettingsActivity
@@ -30,12 +31,18 @@ import com.dimadesu.lifestreamer.ui.help.KnownIssuesActivity
 import com.dimadesu.lifestreamer.ui.help.RtmpHelpActivity
 import com.dimadesu.lifestreamer.ui.help.SrtHelpActivity
 import com.dimadesu.lifestreamer.ui.help.UvcHelpActivity
+import io.github.thibaultbee.streampack.core.elements.encoders.mediacodec.MediaCodecHelper
+import kotlinx.coroutines.launch
 
 class MainActivity : AppCompatActivity() {
     private lateinit var binding: MainActivityBinding
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
+        // Load encoder capabilities off the main thread before the settings need them
+        lifecycleScope.launch {
+            MediaCodecHelper.loadSnapshot(applicationContext)
+        }
         binding = MainActivityBinding.inflate(layoutInflater)
         setContentView(binding.root)
 
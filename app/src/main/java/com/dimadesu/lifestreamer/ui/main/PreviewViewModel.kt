@@ -63,6 +63,8 @@ import com.dimadesu.lifestreamer.utils.ReconnectTimer
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.extensions.cameras
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.extensions.cameraManager
 import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.UriMediaDescriptor
+import io.github.thibaultbee.streampack.core.elements.endpoints.DynamicEndpoint
+import io.github.thibaultbee.streampack.core.elements.endpoints.ReconnectEndpoint
 import io.github.thibaultbee.streampack.core.elements.endpoints.MediaSinkType
 import io.github.thibaultbee.streampack.core.elements.sources.audio.audiorecord.IAudioRecordSource
 import io.github.thibaultbee.streampack.core.elements.sources.audio.audiorecord.MicrophoneSourceFactory
@@ -70,9 +72,12 @@ import io.github.thibaultbee.streampack.core.elements.sources.video.camera.Camer
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.extensions.isFpsSupported
 import io.github.thibaultbee.streampack.core.interfaces.IWithVideoSource
 import com.dimadesu.lifestreamer.rtmp.audio.MediaProjectionAudioSourceFactory
+import com.dimadesu.lifestreamer.rtmp.audio.PlayerAudioSourceFactory
+import io.github.thibaultbee.streampack.core.streamers.single.LocalRecordingStats
 import io.github.thibaultbee.streampack.core.streamers.single.SingleStreamer
 import io.github.thibaultbee.streampack.core.utils.extensions.isClosedException
 import io.github.thibaultbee.streampack.core.elements.sources.audio.IAudioSourceInternal
+import io.github.thibaultbee.streampack.core.elements.sources.audio.mixer.MixerAudioSourceFactory
 import io.github.thibaultbee.streampack.core.elements.sources.video.IVideoSourceInternal
 import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
 import io.github.thibaultbee.streampack.core.elements.sources.video.camera.CameraSettings
@@ -85,6 +90,7 @@ import com.dimadesu.lifestreamer.services.CameraStreamerService
 import com.dimadesu.lifestreamer.bitrate.AdaptiveSrtBitrateRegulatorController
 import com.dimadesu.lifestreamer.models.StreamStatus
 import com.dimadesu.lifestreamer.models.RtmpSourceStatus
+import com.dimadesu.lifestreamer.player.probe.SourceProbeResult
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.distinctUntilChanged
@@ -111,6 +117,7 @@ import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.NonCancellable
 import kotlinx.coroutines.withContext
+import com.dimadesu.lifestreamer.services.StreamStartOrchestrator
 
 @RequiresApi(Build.VERSION_CODES.O)
 @OptIn(kotlinx.coroutines.ExperimentalCoroutinesApi::class)
@@ -172,6 +179,9 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
     // Uptime string exposed by the service (e.g., "00:01:23")
     private val _uptimeLiveData = MutableLiveData<String?>(null)
     val uptimeLiveData: LiveData<String?> get() = _uptimeLiveData
+    // Local recording disk throughput and remaining storage, null when not recording
+    private val _localRecordingStatsLiveData = MutableLiveData<String?>(null)
+    val localRecordingStatsLiveData: LiveData<String?> get() = _localRecordingStatsLiveData
     // Expose current mute state to the UI
     private val _isMutedLiveData = MutableLiveData<Boolean>(false)
     val isMutedLiveData: LiveData<Boolean> get() = _isMutedLiveData
@@ -453,6 +463,26 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
     // RTMP status for UI display
     private val _rtmpStatusLiveData: MutableLiveData<String?> = MutableLiveData()
     val rtmpStatusLiveData: LiveData<String?> = _rtmpStatusLiveData
+
+    // Latency of the current RTMP/SRT source for UI display
+    private val _rtmpSourceLatencyLiveData: MutableLiveData<String?> = MutableLiveData()
+    val rtmpSourceLatencyLiveData: LiveData<String?> = _rtmpSourceLatencyLiveData
+
+    // Job collecting the latency of the current RTMP/SRT source
+    private var rtmpSourceLatencyJob: kotlinx.coroutines.Job? = null
+
+    // Relays the current SRT source to the SRT output without re-encoding when enabled
+    @Volatile
+    private var isSrtSourceRelayEnabled = false
+    private var isSourceMicrophoneMixEnabled = false
+    private val srtRelayController = com.dimadesu.lifestreamer.player.SrtRelayController(
+        viewModelScope,
+        relayProvider = {
+            val endpoint = serviceStreamer?.endpoint
+            (((endpoint as? ReconnectEndpoint)?.endpoint ?: endpoint) as? DynamicEndpoint)?.tsRelay
+        },
+        onRelayingChanged = ::onSrtRelayingChanged
+    )
     
     // Job to track RTMP retry loop - cancelled when switching back to camera
     private var rtmpRetryJob: kotlinx.coroutines.Job? = null
@@ -483,6 +513,10 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
     )
     val rtmpSourcesStatus: LiveData<Map<Int, RtmpSourceStatus>> = _rtmpSourcesStatus
 
+    // Codec, resolution and bitrate of the sources learned by the background probes
+    private val _rtmpSourcesProbe = MutableLiveData<Map<Int, SourceProbeResult>>(emptyMap())
+    val rtmpSourcesProbe: LiveData<Map<Int, SourceProbeResult>> = _rtmpSourcesProbe
+
     // Active source text for UI
     val activeSourceText = MediatorLiveData<String>().apply {
         fun update() {
@@ -785,6 +819,35 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
                 }
         }
 
+        // Apply source latency settings to the next RTMP/SRT players
+        viewModelScope.launch {
+            storageRepository.liveLatencyConfigFlow.collect { config ->
+                RtmpSourceSwitchHelper.liveLatencyConfig = config
+            }
+        }
+
+        RtmpSourceSwitchHelper.srtPayloadListener = srtRelayController
+        viewModelScope.launch {
+            storageRepository.srtSourceRelayFlow.collect { isEnabled ->
+                isSrtSourceRelayEnabled = isEnabled
+                if (isEnabled) {
+                    updateSrtRelay(currentRtmpPlayer)
+                } else {
+                    srtRelayController.stop()
+                }
+            }
+        }
+
+        viewModelScope.launch {
+            storageRepository.rtmpSourceMixMicrophoneFlow.collect { isEnabled ->
+                val hasChanged = isSourceMicrophoneMixEnabled != isEnabled
+                isSourceMicrophoneMixEnabled = isEnabled
+                if (hasChanged && serviceStreamer != null) {
+                    updateAudioRouting()
+                }
+            }
+        }
+
         // Status-to-notification messaging removed; UI no longer shows sliding panel
         
         // Start background RTMP monitoring
@@ -804,25 +867,25 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
                 val isRtmpToggled = _userToggledRtmp.value ?: false
                 val activeIndex = _activeRtmpIndex.value ?: 1
                 
-                // Probe all configured URLs
-                for (index in 1..4) {
+                // Skip the currently active RTMP source if it's already being monitored live
+                // The live monitor in monitorRtmpConnection handles color updates for that source.
+                val urls = (1..4).filterNot { index -> isRtmpToggled && index == activeIndex }
+                    .associateWith { index -> storageRepository.getRtmpVideoSourceUrlFlow(index).first() }
+                val configuredUrls = urls.filterValues { it.isNotBlank() }
+                
+                // Probe all configured URLs concurrently
+                val results = RtmpSourceSwitchHelper.probeSources(application, configuredUrls)
+                _rtmpSourcesProbe.postValue(results)
+                
+                for (index in urls.keys) {
                     if (!isActive) break
                     
-                    // Skip the currently active RTMP source if it's already being monitored live
-                    // The live monitor in monitorRtmpConnection handles color updates for that source.
-                    if (isRtmpToggled && index == activeIndex) {
-                        continue
-                    }
-                    
-                    // Note: We use first() to get current value without collecting flow
-                    val url = storageRepository.getRtmpVideoSourceUrlFlow(index).first()
-                    if (url.isNotBlank()) {
-                        Log.d(TAG, "Background probing RTMP Source $index: $url")
+                    val result = results[index]
+                    if (result != null) {
+                        Log.d(TAG, "Background probe of RTMP Source $index: $result")
                         val currentMap = _rtmpSourcesStatus.value ?: emptyMap()
                         val oldStatus = currentMap[index]
-                        
-                        // Use the lightweight prober
-                        val status = RtmpSourceSwitchHelper.probeRtmpStatus(application, url)
+                        val status = result.status
                         
                         // Alert user if a source fails in background
                         if (status == RtmpSourceStatus.ERROR && (oldStatus == RtmpSourceStatus.READY || oldStatus == RtmpSourceStatus.BUFFERING)) {
@@ -849,14 +912,11 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
                     } else {
                         updateRtmpSourceStatus(index, RtmpSourceStatus.IDLE)
                     }
-                    
-                    // Check for fallback condition (all sources failed)
-                    if (_userToggledRtmp.value == true) {
-                        checkAndTriggerFallback()
-                    }
-                    
-                    // Small gap between probes to be friendly to resources
-                    delay(3000)
+                }
+                
+                // Check for fallback condition (all sources failed)
+                if (_userToggledRtmp.value == true) {
+                    checkAndTriggerFallback()
                 }
                 
                 // Periodic pause before next full cycle
@@ -959,65 +1019,53 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
                 Log.i(TAG, "startServiceStreaming: RTMP host: $host")
             }
 
-            Log.i(TAG, "startServiceStreaming: serviceStreamer available, calling open()...")
+            Log.i(TAG, "startServiceStreaming: serviceStreamer available, starting...")
 
-            // Add timeout to prevent hanging
-            // Run on IO dispatcher to prevent blocking UI thread
-            withTimeout(5000) { // 5 second timeout
+            // Connect while the encoders get ready, then start the encoders and the endpoint
+            // together. Run on IO dispatcher to prevent blocking UI thread during RTMP connectStream()
+            var isStoppedByUser = false
+            try {
                 withContext(kotlinx.coroutines.Dispatchers.IO) {
-                    currentStreamer.open(descriptor)
+                    StreamStartOrchestrator(currentStreamer, viewModelScope).start(descriptor) {
+                        // Apply saved rotation BEFORE starting stream (during reconnection)
+                        // This is the critical window where rotation can be set
+                        service?.getSavedStreamingOrientation()?.let { savedRotation ->
+                            Log.i(TAG, "startServiceStreaming: Applying saved rotation $savedRotation before starting stream")
+                            try {
+                                currentStreamer.setTargetRotation(savedRotation)
+                                Log.i(TAG, "startServiceStreaming: Successfully applied saved rotation $savedRotation")
+                            } catch (e: Exception) {
+                                Log.e(TAG, "startServiceStreaming: Failed to apply saved rotation: ${e.message}")
+                            }
+                        }
+
+                        // Check if user stopped before calling the blocking startStream()
+                        if (service?.userStoppedManually?.value == true) {
+                            isStoppedByUser = true
+                            throw StreamStartOrchestrator.StreamStartException(
+                                StreamStartOrchestrator.PHASE_START,
+                                "User stopped manually"
+                            )
+                        }
+                    }
                 }
-            }
-            Log.i(TAG, "startServiceStreaming: open() completed, calling startStream()...")
-            
-            // Wait for encoders to be initialized after open
-            // This prevents the race condition where video encoder isn't ready after rapid stop/start
-            Log.d(TAG, "startServiceStreaming: Waiting for encoders to initialize...")
-            val encodersReady = kotlinx.coroutines.withTimeoutOrNull(5000) {
-                while ((currentStreamer as? io.github.thibaultbee.streampack.core.streamers.single.IVideoSingleStreamer)?.videoEncoder == null 
-                       || (currentStreamer as? io.github.thibaultbee.streampack.core.streamers.single.IAudioSingleStreamer)?.audioEncoder == null) {
-                    kotlinx.coroutines.delay(200)
+            } catch (e: StreamStartOrchestrator.StreamStartException) {
+                if (isStoppedByUser) {
+                    Log.i(TAG, "startServiceStreaming: User stopped manually before startStream(), aborting")
+                    return false
                 }
-                true
-            } ?: false
-            
-            if (!encodersReady) {
-                val videoEncoderExists = (currentStreamer as? io.github.thibaultbee.streampack.core.streamers.single.IVideoSingleStreamer)?.videoEncoder != null
-                val audioEncoderExists = (currentStreamer as? io.github.thibaultbee.streampack.core.streamers.single.IAudioSingleStreamer)?.audioEncoder != null
-                val errorMsg = "Encoders not ready (video=$videoEncoderExists, audio=$audioEncoderExists)"
-                Log.e(TAG, "startServiceStreaming: $errorMsg")
+                Log.e(TAG, "startServiceStreaming: ${e.message}")
                 if (!shouldSuppressErrors) {
-                    _streamerErrorLiveData.postValue(errorMsg)
-                }
-                return false
-            }
-            val videoEncoderExists = (currentStreamer as? io.github.thibaultbee.streampack.core.streamers.single.IVideoSingleStreamer)?.videoEncoder != null
-            val audioEncoderExists = (currentStreamer as? io.github.thibaultbee.streampack.core.streamers.single.IAudioSingleStreamer)?.audioEncoder != null
-            Log.i(TAG, "startServiceStreaming: Encoders ready - video=$videoEncoderExists, audio=$audioEncoderExists")
-            
-            // Apply saved rotation BEFORE starting stream (during reconnection)
-            // This is the critical window where rotation can be set
-            service?.getSavedStreamingOrientation()?.let { savedRotation ->
-                Log.i(TAG, "startServiceStreaming: Applying saved rotation $savedRotation before starting stream")
-                try {
-                    currentStreamer.setTargetRotation(savedRotation)
-                    Log.i(TAG, "startServiceStreaming: Successfully applied saved rotation $savedRotation")
-                } catch (e: Exception) {
-                    Log.e(TAG, "startServiceStreaming: Failed to apply saved rotation: ${e.message}")
+                    _streamerErrorLiveData.postValue(
+                        if (e.phase == StreamStartOrchestrator.PHASE_CONNECT) {
+                            e.message
+                        } else {
+                            "Stream start failed: ${e.message}"
+                        }
+                    )
                 }
-            }
-            
-            // Check if user stopped before calling the blocking startStream()
-            if (service?.userStoppedManually?.value == true) {
-                Log.i(TAG, "startServiceStreaming: User stopped manually before startStream(), aborting")
                 return false
             }
-
-            // Protect startStream() from cancellation to prevent camera configuration errors
-            // Run on IO dispatcher to prevent blocking UI thread during RTMP connectStream()
-            withContext(kotlinx.coroutines.Dispatchers.IO) {
-                currentStreamer.startStream()
-            }
             Log.i(TAG, "startServiceStreaming: Stream started successfully")
             
             // Add bitrate regulator for SRT streams
@@ -1188,15 +1236,25 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
      * Determines and sets the appropriate audio source on the streamer based on target index.
      * @param targetIndex 1-4 for RTMP, -1 for Camera Mic, or any negative for fallback Mic.
      */
+    @androidx.annotation.OptIn(androidx.media3.common.util.UnstableApi::class)
     private suspend fun applyAudioSourceSelection(targetIndex: Int) {
         val currentStreamer = serviceStreamer ?: return
         
         if (targetIndex > 0) {
-            // RTMP source audio - try MediaProjection to capture ExoPlayer output
+            // RTMP source audio - prefer the audio of the player that provides the video
+            val isVideoRoom = currentStreamer.videoInput?.sourceFlow?.value is RTMPVideoSource
+                    && (_activeRtmpIndex.value ?: 1) == targetIndex
+            val audioTap = currentRtmpPlayer?.takeIf { isVideoRoom }?.let {
+                RtmpSourceSwitchHelper.getPlayerAudioTap(it)
+            }
+            // Otherwise try MediaProjection to capture ExoPlayer output
             val projection = streamingMediaProjection ?: mediaProjectionHelper.getMediaProjection()
-            if (projection != null && android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
+            if (audioTap != null) {
+                currentStreamer.setAudioSource(withMicrophoneMix(PlayerAudioSourceFactory(audioTap)))
+                Log.i(TAG, "Applied player audio for Room $targetIndex")
+            } else if (projection != null && android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
                 try {
-                    currentStreamer.setAudioSource(MediaProjectionAudioSourceFactory(projection))
+                    currentStreamer.setAudioSource(withMicrophoneMix(MediaProjectionAudioSourceFactory(projection)))
                     Log.i(TAG, "Applied MediaProjection audio for Room $targetIndex")
                 } catch (e: Exception) {
                     Log.w(TAG, "MediaProjection audio failed, using conditional source: ${e.message}")
@@ -1213,6 +1271,17 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
         }
     }
 
+    /**
+     * Mixes the microphone over a pulled source audio when commentary is enabled.
+     */
+    private fun withMicrophoneMix(sourceFactory: IAudioSourceInternal.Factory): IAudioSourceInternal.Factory {
+        return if (isSourceMicrophoneMixEnabled) {
+            MixerAudioSourceFactory(sourceFactory, ConditionalAudioSourceFactory())
+        } else {
+            sourceFactory
+        }
+    }
+
     /**
      * Switch to bitmap fallback for UVC source disconnect.
      * Only switches video - audio stays on microphone (already set for UVC).
@@ -1422,6 +1491,18 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
                             } catch (t: Throwable) {
                                 Log.w(TAG, "Failed to collect uptime flow from service: ${t.message}")
                             }
+
+                            // Collect local recording stats to display the disk throughput and the remaining storage
+                            try {
+                                val recordingStatsFlow = binder.localRecordingStatsFlow()
+                                viewModelScope.launch {
+                                    recordingStatsFlow.collect { stats ->
+                                        _localRecordingStatsLiveData.postValue(stats?.let { formatLocalRecordingStats(it) })
+                                    }
+                                }
+                            } catch (t: Throwable) {
+                                Log.w(TAG, "Failed to collect local recording stats from service: ${t.message}")
+                            }
                             
                             // Set up audio level monitoring callback
                             setupAudioLevelMonitoring()
@@ -2974,6 +3055,51 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
         Log.d(TAG, "Stopped monitoring RTMP connection")
     }
 
+    /**
+     * Pauses the video encoder and the video decoding of the SRT source while the outgoing video
+     * is relayed. The audio is still decoded and encoded because the source audio feeds the
+     * audio pipeline.
+     */
+    private fun onSrtRelayingChanged(isRelaying: Boolean) {
+        currentRtmpPlayer?.let { player ->
+            try {
+                player.trackSelectionParameters = player.trackSelectionParameters.buildUpon()
+                    .setTrackTypeDisabled(androidx.media3.common.C.TRACK_TYPE_VIDEO, isRelaying)
+                    .build()
+            } catch (e: Exception) {
+                Log.w(TAG, "Failed to ${if (isRelaying) "disable" else "enable"} SRT source video: ${e.message}")
+            }
+        }
+        serviceStreamer?.videoEncoder?.let { encoder ->
+            try {
+                encoder.setSuspended(isRelaying)
+                if (!isRelaying) {
+                    // The outgoing stream switches back to the encoder on its next key frame
+                    encoder.requestKeyFrame()
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "Failed to ${if (isRelaying) "suspend" else "resume"} video encoder: ${e.message}")
+            }
+        }
+    }
+
+    /**
+     * Relays the SRT source of [player] if enabled, otherwise switches the output back to the
+     * encoders.
+     */
+    private fun updateSrtRelay(player: androidx.media3.exoplayer.ExoPlayer?) {
+        val isSrtSource = try {
+            player?.currentMediaItem?.localConfiguration?.uri?.scheme.equals("srt", ignoreCase = true)
+        } catch (_: Exception) {
+            false
+        }
+        if (isSrtSourceRelayEnabled && isSrtSource) {
+            srtRelayController.start()
+        } else {
+            srtRelayController.stop()
+        }
+    }
+
     /**
      * Monitor RTMP ExoPlayer for disconnections and automatically fallback + retry
      * @param index The RTMP source index being monitored
@@ -2993,6 +3119,22 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
         
         val oldPlayer = currentRtmpPlayer
         currentRtmpPlayer = player
+
+        // Report the latency of the new source. It stops when the player is released.
+        rtmpSourceLatencyJob?.cancel()
+        rtmpSourceLatencyJob = RtmpSourceSwitchHelper.getLiveLatencyController(player)?.let { controller ->
+            viewModelScope.launch {
+                controller.latencyMsFlow.collect { latencyMs ->
+                    _rtmpSourceLatencyLiveData.postValue(latencyMs?.let {
+                        application.getString(R.string.rtmp_source_latency, it)
+                    })
+                }
+            }
+        }
+        if (rtmpSourceLatencyJob == null) {
+            _rtmpSourceLatencyLiveData.postValue(null)
+        }
+        updateSrtRelay(player)
         
         // Release the previous player instance if it's different from the new one
         if (oldPlayer != null && oldPlayer != player) {
@@ -3163,6 +3305,7 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
             }
         }
         currentRtmpPlayer = null
+        srtRelayController.stop()
         
         // Stop the SRT stream
         Log.i(TAG, "Stopping SRT stream...")
@@ -3299,6 +3442,7 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
             }
         }
         currentRtmpPlayer = null
+        srtRelayController.stop()
         
         // Start retry loop
         rtmpRetryJob = viewModelScope.launch {
@@ -4073,7 +4217,7 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
                 try {
                      // Get current camera ID
                     val currentCameraId = videoSource.settings.cameraId
-                    // Find next camera ID
+                    // Find next camera ID. If it is the standby camera, the switch only retargets the encoder.
                     val nextCameraId = getNextCameraId(currentCameraId)
                     
                     if (nextCameraId != currentCameraId) {
@@ -4089,6 +4233,20 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
         }
     }
 
+    private fun formatLocalRecordingStats(stats: LocalRecordingStats): String {
+        val throughputInMbps = stats.throughputInBps / 1_000_000f
+        val remainingMinutes = stats.remainingDurationInMs?.let { it / 60_000 }
+        return if (remainingMinutes != null) {
+            application.getString(
+                R.string.local_recording_stats_with_remaining,
+                throughputInMbps,
+                remainingMinutes.toInt()
+            )
+        } else {
+            application.getString(R.string.local_recording_stats, throughputInMbps)
+        }
+    }
+
     private fun getNextCameraId(currentId: String): String {
         return try {
             val cameraManager = application.getSystemService(Context.CAMERA_SERVICE) as android.hardware.camera2.CameraManager
@@ -4194,6 +4352,7 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
         }
         rtmpDisconnectListener = null
         currentRtmpPlayer = null
+        srtRelayController.stop()
 
         // --- UVC Cleanup ---
         _userToggledUvc.postValue(false)
@@ -4581,6 +4740,8 @@ class PreviewViewModel(private val application: Application) : ObservableViewMod
         }
         rtmpDisconnectListener = null
         currentRtmpPlayer = null
+        srtRelayController.release()
+        RtmpSourceSwitchHelper.srtPayloadListener = null
         
         // Clean up UVC camera helper
         uvcCameraHelper?.let { helper ->
@@ -17,26 +17,66 @@ import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.withContext
 import kotlinx.coroutines.withTimeout
 import android.graphics.Bitmap
+import io.github.thibaultbee.streampack.core.configuration.LiveLatencyConfig
 import io.github.thibaultbee.streampack.core.elements.sources.video.bitmap.BitmapSourceFactory
 import io.github.thibaultbee.streampack.core.streamers.single.SingleStreamer
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.flow.first
 import android.media.projection.MediaProjection
 import io.github.thibaultbee.streampack.core.configuration.mediadescriptor.MediaDescriptor
 import com.dimadesu.lifestreamer.rtmp.audio.MediaProjectionAudioSourceFactory
+import com.dimadesu.lifestreamer.rtmp.audio.PlayerAudioSourceFactory
 import com.dimadesu.lifestreamer.rtmp.video.RTMPVideoSource
 import com.dimadesu.lifestreamer.data.storage.DataStoreRepository
 import com.dimadesu.lifestreamer.rtmp.audio.MediaProjectionHelper
+import com.dimadesu.lifestreamer.player.LiveLatencyController
+import com.dimadesu.lifestreamer.player.PlayerAudioTap
 import com.dimadesu.lifestreamer.player.SrtDataSourceFactory
+import com.dimadesu.lifestreamer.player.SrtPayloadListener
 import com.dimadesu.lifestreamer.player.TsOnlyExtractorFactory
+import com.dimadesu.lifestreamer.player.probe.SourceProbeResult
+import com.dimadesu.lifestreamer.player.probe.SourceProber
 import kotlinx.coroutines.isActive
+import java.util.WeakHashMap
 
 import com.dimadesu.lifestreamer.models.RtmpSourceStatus
+import android.os.SystemClock
 
 internal object RtmpSourceSwitchHelper {
     private const val TAG = "RtmpSourceSwitchHelper"
+    private const val LOW_LATENCY_BUFFER_FOR_PLAYBACK_MS = 300
+    private const val GLASS_TO_GLASS_LOG_INTERVAL_MS = 1000L
+
+    /**
+     * Live latency settings applied to the players created from now on.
+     */
+    @Volatile
+    var liveLatencyConfig = LiveLatencyConfig()
+
+    private val liveLatencyControllers = WeakHashMap<ExoPlayer, LiveLatencyController>()
+
+    private val audioTaps = WeakHashMap<ExoPlayer, PlayerAudioTap>()
+
+    /**
+     * Receives the MPEG-TS payloads of the SRT source players created by [switchToRtmpSource].
+     * Probe players are not forwarded.
+     */
+    @Volatile
+    var srtPayloadListener: SrtPayloadListener? = null
+
+    private val forwardingSrtPayloadListener = object : SrtPayloadListener {
+        override val isActive: Boolean
+            get() = srtPayloadListener?.isActive == true
+
+        override fun onPayload(payload: ByteArray) {
+            srtPayloadListener?.onPayload(payload)
+        }
+    }
 
     /**
      * Check if the URL is an SRT URL.
@@ -45,10 +85,56 @@ internal object RtmpSourceSwitchHelper {
         return url.lowercase().startsWith("srt://")
     }
 
+    /**
+     * Gets the latency controller of a player created by [createExoPlayer].
+     */
     @androidx.annotation.OptIn(UnstableApi::class)
-    suspend fun createExoPlayer(application: Application, url: String): ExoPlayer =
-        withContext(Dispatchers.Main) {
-            val loadControl = DefaultLoadControl.Builder()
+    fun getLiveLatencyController(player: ExoPlayer): LiveLatencyController? =
+        synchronized(liveLatencyControllers) {
+            liveLatencyControllers[player]
+        }
+
+    /**
+     * Gets the audio tap of a player created by [createExoPlayer] with its audio enabled.
+     */
+    @androidx.annotation.OptIn(UnstableApi::class)
+    fun getAudioTap(player: ExoPlayer): PlayerAudioTap? =
+        synchronized(audioTaps) {
+            audioTaps[player]
+        }
+
+    /**
+     * Logs the glass-to-glass latency of a SRT source at most once per
+     * [GLASS_TO_GLASS_LOG_INTERVAL_MS]. Only sources that embed timing SEIs report it.
+     */
+    private fun createGlassToGlassLatencyLogger(url: String): (Long) -> Unit {
+        var lastLogTimeMs = 0L
+        return { latencyMs ->
+            val nowMs = SystemClock.elapsedRealtime()
+            if (nowMs - lastLogTimeMs >= GLASS_TO_GLASS_LOG_INTERVAL_MS) {
+                lastLogTimeMs = nowMs
+                Log.i(TAG, "Glass-to-glass latency of $url: $latencyMs ms (on reception)")
+            }
+        }
+    }
+
+    @androidx.annotation.OptIn(UnstableApi::class)
+    private fun createLoadControl(liveLatencyConfig: LiveLatencyConfig): DefaultLoadControl {
+        return if (liveLatencyConfig.isEnabled) {
+            // Keep the buffer above the max latency so that the backlog is pulled from the
+            // network and measured by the latency controller.
+            val bufferForPlaybackMs =
+                minOf(LOW_LATENCY_BUFFER_FOR_PLAYBACK_MS, liveLatencyConfig.targetLatencyMs)
+            DefaultLoadControl.Builder()
+                .setBufferDurationsMs(
+                    liveLatencyConfig.targetLatencyMs,
+                    liveLatencyConfig.maxLatencyMs * 2,
+                    bufferForPlaybackMs,
+                    bufferForPlaybackMs
+                )
+                .build()
+        } else {
+            DefaultLoadControl.Builder()
                 .setBufferDurationsMs(
                     50000,      // 50 seconds
                     50000,      // 50 seconds
@@ -56,15 +142,42 @@ internal object RtmpSourceSwitchHelper {
                     DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS  // 5 seconds
                 )
                 .build()
+        }
+    }
 
+    @androidx.annotation.OptIn(UnstableApi::class)
+    suspend fun createExoPlayer(
+        application: Application,
+        url: String,
+        liveLatencyConfig: LiveLatencyConfig = this.liveLatencyConfig,
+        srtPayloadListener: SrtPayloadListener? = null,
+        enableAudio: Boolean = false
+    ): ExoPlayer =
+        withContext(Dispatchers.Main) {
+            val loadControl = createLoadControl(liveLatencyConfig)
+
+            // The audio stays muted: it is streamed through the tap
+            val audioTap = if (enableAudio) PlayerAudioTap() else null
             val exoPlayer = ExoPlayer.Builder(application)
+                .apply {
+                    audioTap?.let { setRenderersFactory(it.createRenderersFactory(application)) }
+                }
                 .setLoadControl(loadControl)
                 .build().apply {
                     trackSelectionParameters = trackSelectionParameters.buildUpon()
-                        .setTrackTypeDisabled(C.TRACK_TYPE_AUDIO, true)
+                        .setTrackTypeDisabled(C.TRACK_TYPE_AUDIO, !enableAudio)
                         .build()
                     volume = 0f
                 }
+            val liveLatencyController = LiveLatencyController(exoPlayer, liveLatencyConfig)
+            synchronized(liveLatencyControllers) {
+                liveLatencyControllers[exoPlayer] = liveLatencyController
+            }
+            audioTap?.let {
+                synchronized(audioTaps) {
+                    audioTaps[exoPlayer] = it
+                }
+            }
 
             val mediaItem = MediaItem.fromUri(url)
             
@@ -72,7 +185,12 @@ internal object RtmpSourceSwitchHelper {
             val mediaSource = if (isSrtUrl(url)) {
                 Log.i(TAG, "Creating SRT media source for: $url")
                 androidx.media3.exoplayer.source.ProgressiveMediaSource.Factory(
-                    SrtDataSourceFactory(),
+                    SrtDataSourceFactory(
+                        liveLatencyConfig,
+                        liveLatencyController::onTransportLatency,
+                        srtPayloadListener,
+                        createGlassToGlassLatencyLogger(url)
+                    ),
                     TsOnlyExtractorFactory()
                 ).createMediaSource(mediaItem)
             } else if (url.lowercase().startsWith("rtmp://")) {
@@ -99,9 +217,21 @@ internal object RtmpSourceSwitchHelper {
                     Log.w(TAG, "ExoPlayer $protocol error: ${error.message}")
                 }
             })
+            liveLatencyController.start()
             exoPlayer
         }
 
+    /**
+     * Gets the audio tap of [player] if it decodes audio.
+     */
+    @androidx.annotation.OptIn(UnstableApi::class)
+    suspend fun getPlayerAudioTap(player: ExoPlayer): PlayerAudioTap? {
+        val hasAudio = withContext(Dispatchers.Main) {
+            player.currentTracks.isTypeSelected(C.TRACK_TYPE_AUDIO)
+        }
+        return if (hasAudio) getAudioTap(player) else null
+    }
+
     private fun normalizeUrl(url: String): String {
         return if (url.lowercase().contains("rtmp://localhost")) {
             url.replace("localhost", "127.0.0.1", ignoreCase = true)
@@ -184,26 +314,46 @@ internal object RtmpSourceSwitchHelper {
     }
 
     /**
-     * Probes an RTMP source status in the background without affecting the main display.
-     * @return The detected status (READY, ERROR, or IDLE on timeout)
+     * Probes sources concurrently in the background.
+     *
+     * RTMP and SRT sources are probed at the protocol level, without creating players nor
+     * decoders. Other sources are probed with a player.
+     *
+     * @param urls the source URLs by source index
+     * @return the probe results by source index
+     */
+    @androidx.annotation.OptIn(UnstableApi::class)
+    suspend fun probeSources(
+        application: Application,
+        urls: Map<Int, String>
+    ): Map<Int, SourceProbeResult> = coroutineScope {
+        val (protocolUrls, otherUrls) = urls.mapValues { (_, url) -> normalizeUrl(url) }
+            .entries.partition { (_, url) -> SourceProber.isSupported(url) }
+        val otherResults = otherUrls.map { (index, url) ->
+            async { index to probeWithPlayer(application, url) }
+        }
+        SourceProber().probeAll(protocolUrls.associate { it.toPair() }) +
+                otherResults.awaitAll()
+    }
+
+    /**
+     * Probes a source status by preparing a player.
      */
-    @androidx.media3.common.util.UnstableApi
-    suspend fun probeRtmpStatus(application: Application, url: String): RtmpSourceStatus {
+    @androidx.annotation.OptIn(UnstableApi::class)
+    private suspend fun probeWithPlayer(application: Application, url: String): SourceProbeResult {
         return withContext(Dispatchers.Main) {
             var player: ExoPlayer? = null
             try {
                 player = createExoPlayer(application, url)
                 player.prepare()
                 player.playWhenReady = true
-                // We use a shorter timeout for background probing to minimize resource usage.
-                // Increase to 12s to allow for slower handshakes.
                 val isReady = awaitReady(player, url, timeoutMs = 12000, postStatus = null)
-                if (isReady) RtmpSourceStatus.READY else RtmpSourceStatus.ERROR
+                SourceProbeResult(isReachable = isReady, isLive = isReady)
             } catch (ce: kotlinx.coroutines.CancellationException) {
                 throw ce
             } catch (e: Exception) {
                 Log.w(TAG, "Probe failed for $url: ${e.message}")
-                RtmpSourceStatus.ERROR
+                SourceProbeResult.failed(false, e.message ?: "Probe failed")
             } finally {
                 try { player?.release() } catch (_: Exception) {}
             }
@@ -212,7 +362,7 @@ internal object RtmpSourceSwitchHelper {
 
     /**
      * Switch to bitmap fallback for RTMP source.
-     * Uses MediaProjection audio to capture RTMP player audio.
+     * No player is connected, so audio uses MediaProjection capture or the microphone.
      */
     suspend fun switchToBitmapFallback(
         streamer: SingleStreamer,
@@ -306,7 +456,12 @@ internal object RtmpSourceSwitchHelper {
                     Log.i(TAG, "Retrying RTMP connection (attempt $attemptCount): $videoSourceUrl")
                 }
 
-                exoPlayerInstance = createExoPlayer(application, videoSourceUrl)
+                exoPlayerInstance = createExoPlayer(
+                    application,
+                    videoSourceUrl,
+                    srtPayloadListener = forwardingSrtPayloadListener,
+                    enableAudio = true
+                )
 
                 // Prepare and wait for the RTMP player to be ready
                 val readyTimeout = 30000L
@@ -328,8 +483,13 @@ internal object RtmpSourceSwitchHelper {
                 
                 val isStreaming = currentStreamer.isStreamingFlow.value == true
                 val projection = streamingMediaProjection ?: mediaProjectionHelper.getMediaProjection()
+                val audioTap = getPlayerAudioTap(exoPlayerInstance)
                 
-                if (isStreaming && projection != null && android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
+                if (audioTap != null) {
+                    // Player audio in sync with its video, without MediaProjection
+                    currentStreamer.setAudioSource(PlayerAudioSourceFactory(audioTap))
+                    Log.i(TAG, "Set player audio for RTMP")
+                } else if (isStreaming && projection != null && android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.Q) {
                     try {
                         currentStreamer.setAudioSource(MediaProjectionAudioSourceFactory(projection))
                         Log.i(TAG, "Set MediaProjection audio for RTMP")
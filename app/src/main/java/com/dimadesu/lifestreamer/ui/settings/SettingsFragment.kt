@@ -163,6 +163,18 @@ class SettingsFragment : PreferenceFragmentCompat() {
         findPreferenceSafe<EditTextPreference>(R.string.file_name_key) ?: error("file_name_key not found")
     }
 
+    private val videoIntraRefreshPeriodPreference: EditTextPreference by lazy {
+        findPreferenceSafe<EditTextPreference>(R.string.video_intra_refresh_period_key) ?: error("video_intra_refresh_period_key not found")
+    }
+
+    private val localRecordingBitratePreference: EditTextPreference by lazy {
+        findPreferenceSafe<EditTextPreference>(R.string.local_recording_bitrate_key) ?: error("local_recording_bitrate_key not found")
+    }
+
+    private val localRecordingUploadUrlPreference: EditTextPreference by lazy {
+        findPreferenceSafe<EditTextPreference>(R.string.local_recording_upload_url_key) ?: error("local_recording_upload_url_key not found")
+    }
+
     private val rtmpSourceUrlPreference: EditTextPreference by lazy {
         findPreferenceSafe<EditTextPreference>(R.string.rtmp_source_url_key) ?: error("rtmp_source_url_key not found")
     }
@@ -449,6 +461,20 @@ class SettingsFragment : PreferenceFragmentCompat() {
             editText.filters = arrayOf(InputFilter.LengthFilter(5))
         }
 
+        videoIntraRefreshPeriodPreference.setOnBindEditTextListener { editText ->
+            editText.inputType = InputType.TYPE_CLASS_NUMBER
+            editText.filters = arrayOf(InputFilter.LengthFilter(4))
+        }
+
+        localRecordingBitratePreference.setOnBindEditTextListener { editText ->
+            editText.inputType = InputType.TYPE_CLASS_NUMBER
+            editText.filters = arrayOf(InputFilter.LengthFilter(3))
+        }
+
+        localRecordingUploadUrlPreference.setOnBindEditTextListener { editText ->
+            editText.inputType = InputType.TYPE_TEXT_VARIATION_URI
+        }
+
         serverTargetVideoBitratePreference.isVisible =
             serverEnableBitrateRegulationPreference.isChecked
         serverMinVideoBitratePreference.isVisible =